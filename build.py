@@ -209,6 +209,7 @@ CTX.INPUT['executors'] = """
  deleteexecutor.cpp
  distinctexecutor.cpp
  executorutil.cpp
+ hashjoinexecutor.cpp
  indexscanexecutor.cpp
  insertexecutor.cpp
  limitexecutor.cpp
@@ -238,6 +239,7 @@ CTX.INPUT['plannodes'] = """
  aggregatenode.cpp
  deletenode.cpp
  distinctnode.cpp
+ hashjoinnode.cpp
  indexscannode.cpp
  insertnode.cpp
  limitnode.cpp
@@ -338,6 +340,7 @@ CTX.TESTS['expressions'] = """
 """
 
 CTX.TESTS['indexes'] = """
+ btree_index_test
  index_key_test
  index_scripted_test
  index_test
@@ -47,6 +47,25 @@ public class MockMapReduce extends VoltMapReduceProcedure<String> {
         this.mapEmit(key, new_row); // mapOutputTable
     }
     
+    /**
+     * Pre-aggregates the counts for each key. This is only invoked if a
+     * subclass turns on hasCombiner(), so MockMapReduce runs without it by default.
+     */
+    @Override
+    public void combine(String key, Iterator<VoltTableRow> rows) {
+        long count = 0;
+        for (VoltTableRow r : CollectionUtil.iterable(rows)) {
+            assert(r != null);
+            count += r.getLong(1);
+        } // FOR
+
+        Object new_row[] = {
+            key,
+            count
+        };
+        this.combineEmit(key, new_row); // mapOutputTable
+    }
+    
     @Override
     public void reduce(String key, Iterator<VoltTableRow> rows) {
         long count = 0;
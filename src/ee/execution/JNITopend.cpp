@@ -31,32 +31,14 @@ class JNILocalFrameBarrier {
     int32_t m_refs;
     int32_t m_result;
 
-    jboolean m_isCopy;
-    jbyteArray m_jbuf;
-    jbyte* m_bytes;
-
   public:
     JNILocalFrameBarrier(JNIEnv* env, int32_t numReferences) {
         m_env = env;
         m_refs = numReferences;
         m_result = m_env->PushLocalFrame(m_refs);
-        m_isCopy = JNI_FALSE;
-        m_jbuf = 0;
-        m_bytes = NULL;
-    }
-
-    void addDependencyRef(jboolean isCopy, jbyteArray jbuf, jbyte* bytes)
-    {
-        m_isCopy = isCopy;
-        m_jbuf = jbuf;
-        m_bytes = bytes;
     }
 
     ~JNILocalFrameBarrier() {
-        if (m_isCopy == JNI_TRUE)
-        {
-            m_env->ReleaseByteArrayElements(m_jbuf, m_bytes, 0);
-        }
         // pass jobject* to get pointer to previous frame?
         m_env->PopLocalFrame(NULL);
     }
@@ -72,7 +54,8 @@ JNITopend::JNITopend(JNIEnv *env, jobject caller) : m_jniEnv(env), m_javaExecuti
     jclass jniClass = m_jniEnv->GetObjectClass(m_javaExecutionEngine);
     VOLT_TRACE("found class: %d", jniClass == NULL);
 
-    m_nextDependencyMID = m_jniEnv->GetMethodID(jniClass, "nextDependencyAsBytes", "(I)[B");
+    // The dependencies come back as direct ByteBuffers so that we can read them in place
+    m_nextDependencyMID = m_jniEnv->GetMethodID(jniClass, "nextDependencyAsBuffer", "(I)Ljava/nio/ByteBuffer;");
     assert(m_nextDependencyMID != 0);
 
     m_crashVoltDBMID =
@@ -98,23 +81,24 @@ int JNITopend::loadNextDependency(int32_t dependencyId, voltdb::Pool *stringPool
         throw std::exception();
     }
 
-    jbyteArray jbuf = (jbyteArray)(m_jniEnv->CallObjectMethod(m_javaExecutionEngine,
-                                                              m_nextDependencyMID,
-                                                              dependencyId));
+    jobject jbuf = m_jniEnv->CallObjectMethod(m_javaExecutionEngine,
+                                              m_nextDependencyMID,
+                                              dependencyId);
     if (!jbuf) {
         VOLT_DEBUG("No table returned for dependency id %d", dependencyId);
         return 0;
     }
 
-    jsize length = m_jniEnv->GetArrayLength(jbuf);
-    VOLT_DEBUG("Dependency Id %d Length: %d", dependencyId, length);
+    // The buffer's capacity is exactly the size of the serialized table
+    char *bytes = static_cast<char*>(m_jniEnv->GetDirectBufferAddress(jbuf));
+    jlong length = m_jniEnv->GetDirectBufferCapacity(jbuf);
+    VOLT_DEBUG("Dependency Id %d Length: %ld", dependencyId, (long)length);
+    if (bytes == NULL || length < 0) {
+        VOLT_ERROR("Unable to load dependency %d: not a direct buffer", dependencyId);
+        throw std::exception();
+    }
     if (length > 0) {
-        jboolean is_copy;
-        jbyte *bytes = m_jniEnv->GetByteArrayElements(jbuf, &is_copy);
-        // Add the dependency buffer info to the stack object
-        // so it'll get cleaned up if loadTuplesFrom throws
-        jni_frame.addDependencyRef(is_copy, jbuf, bytes);
-        ReferenceSerializeInput serialize_in(bytes, length);
+        ReferenceSerializeInput serialize_in(bytes, static_cast<size_t>(length));
         destination->loadTuplesFrom(true, serialize_in, stringPool);
         return 1;
     }
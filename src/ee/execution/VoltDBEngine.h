@@ -153,7 +153,7 @@ class __attribute__((visibility("default"))) VoltDBEngine {
         int executeQuery(int64_t planfragmentId, int32_t outputDependencyId, int32_t inputDependencyId,
                          const NValueArray &params, int64_t txnId, int64_t lastCommittedTxnId, bool first, bool last);
         int executePlanFragment(std::string fragmentString, int32_t outputDependencyId, int32_t inputDependencyId,
-                                int64_t txnId, int64_t lastCommittedTxnId);
+                                const NValueArray &params, int64_t txnId, int64_t lastCommittedTxnId);
 
         inline int getUsedParamcnt() const { return m_usedParamcnt;}
         inline void setUsedParamcnt(int usedParamcnt) { m_usedParamcnt = usedParamcnt;}
@@ -0,0 +1,215 @@
+/* Copyright (C) 2013 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <vector>
+#include <algorithm>
+#include "hashjoinexecutor.h"
+#include "common/debuglog.h"
+#include "common/common.h"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "expressions/abstractexpression.h"
+#include "expressions/tuplevalueexpression.h"
+#include "storage/table.h"
+#include "storage/temptable.h"
+#include "storage/tableiterator.h"
+#include "plannodes/hashjoinnode.h"
+
+namespace voltdb {
+
+bool HashJoinExecutor::p_init(AbstractPlanNode* abstract_node, const catalog::Database* catalog_db, int* tempTableMemoryInBytes) {
+    VOLT_TRACE("init HashJoin Executor");
+
+    // The output table and the tuple indexes for the predicate are
+    // set up exactly the same way as a nested loop join
+    if (!NestLoopExecutor::p_init(abstract_node, catalog_db, tempTableMemoryInBytes)) {
+        return false;
+    }
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(abstract_node);
+    assert(node);
+
+    m_keyColumns[0].clear();
+    m_keyColumns[1].clear();
+    findJoinKeys(node->getPredicate());
+    if (m_keyColumns[0].empty()) {
+        VOLT_WARN("No equi-join keys found in the predicate for %s. "
+                  "Falling back to nested loop join",
+                  node->debug().c_str());
+        return true;
+    }
+
+    // Both sides of the join copy their key values into tuples with this schema
+    const TupleSchema *schemas[] = {
+        node->getInputTables()[0]->schema(),
+        node->getInputTables()[1]->schema(),
+    };
+    std::vector<ValueType> keyColumnTypes;
+    std::vector<int32_t> keyColumnLengths;
+    std::vector<bool> keyColumnAllowNull;
+    for (int i = 0; i < m_keyColumns[0].size(); i++) {
+        keyColumnTypes.push_back(schemas[0]->columnType(m_keyColumns[0][i]));
+        keyColumnLengths.push_back(std::max(schemas[0]->columnLength(m_keyColumns[0][i]),
+                                            schemas[1]->columnLength(m_keyColumns[1][i])));
+        keyColumnAllowNull.push_back(true);
+    }
+    if (m_keySchema != NULL) {
+        TupleSchema::freeTupleSchema(m_keySchema);
+    }
+    m_keySchema = TupleSchema::createTupleSchema(keyColumnTypes, keyColumnLengths, keyColumnAllowNull, true);
+    VOLT_DEBUG("HashJoin on %d key columns", (int)m_keyColumns[0].size());
+    return true;
+}
+
+/**
+ * Walk down the ANDs in the predicate and pick out every outer.column = inner.column
+ * clause where both columns have the same type.
+ */
+void HashJoinExecutor::findJoinKeys(const AbstractExpression *predicate) {
+    if (predicate == NULL) return;
+
+    if (predicate->getExpressionType() == EXPRESSION_TYPE_CONJUNCTION_AND) {
+        findJoinKeys(predicate->getLeft());
+        findJoinKeys(predicate->getRight());
+        return;
+    }
+    if (predicate->getExpressionType() != EXPRESSION_TYPE_COMPARE_EQUAL) return;
+
+    const TupleValueExpression *left = dynamic_cast<const TupleValueExpression*>(predicate->getLeft());
+    const TupleValueExpression *right = dynamic_cast<const TupleValueExpression*>(predicate->getRight());
+    if (left == NULL || right == NULL) return;
+    if (left->getTupleIndex() == right->getTupleIndex()) return;
+    if (left->getTupleIndex() != 0) std::swap(left, right);
+
+    const std::vector<Table*> &input_tables = abstract_node->getInputTables();
+    ValueType outer_type = input_tables[0]->schema()->columnType(left->getColumnId());
+    ValueType inner_type = input_tables[1]->schema()->columnType(right->getColumnId());
+    if (outer_type != inner_type) return;
+
+    m_keyColumns[0].push_back(left->getColumnId());
+    m_keyColumns[1].push_back(right->getColumnId());
+}
+
+/**
+ * Copy the key columns of the given tuple into the key tuple.
+ * Returns false if any of them are null, since a null never joins with anything.
+ */
+inline bool HashJoinExecutor::setKeyFromTuple(TableTuple &key, const TableTuple &tuple, const std::vector<int> &columns) {
+    for (int i = 0, cnt = (int)columns.size(); i < cnt; i++) {
+        NValue value = tuple.getNValue(columns[i]);
+        if (value.isNull()) return false;
+        key.setNValue(i, value);
+    }
+    return true;
+}
+
+bool HashJoinExecutor::p_execute(const NValueArray &params) {
+    if (m_keySchema == NULL) {
+        return NestLoopExecutor::p_execute(params);
+    }
+    VOLT_DEBUG("executing HashJoin...");
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(abstract_node);
+    assert(node);
+    assert(node->getInputTables().size() == 2);
+
+    // output table must be a temp table
+    TempTable* output_table = dynamic_cast<TempTable*>(node->getOutputTable());
+    assert(output_table);
+
+    Table* outer_table = node->getInputTables()[0];
+    assert(outer_table);
+    Table* inner_table = node->getInputTables()[1];
+    assert(inner_table);
+
+    VOLT_TRACE ("input table left:\n %s", outer_table->debug().c_str());
+    VOLT_TRACE ("input table right:\n %s", inner_table->debug().c_str());
+
+    AbstractExpression *predicate = node->getPredicate();
+    if (predicate) {
+        predicate->substitute(params);
+        VOLT_TRACE ("predicate: %s", predicate->debug(true).c_str());
+    }
+
+    // Build the hash table on the smaller of the two inputs
+    const int build_idx = (inner_table->activeTupleCount() <= outer_table->activeTupleCount() ? 1 : 0);
+    const int probe_idx = 1 - build_idx;
+    Table* build_table = node->getInputTables()[build_idx];
+    Table* probe_table = node->getInputTables()[probe_idx];
+    VOLT_DEBUG("Building hash table on %s [%ld tuples]",
+               (build_idx == 0 ? "outer" : "inner"), (long)build_table->activeTupleCount());
+
+    m_memoryPool.purge();
+    HashJoinMapType hash_table(static_cast<std::size_t>(build_table->activeTupleCount()));
+
+    TableTuple build_tuple(build_table->schema());
+    TableTuple key(m_keySchema);
+    key.moveNoHeader(m_memoryPool.allocate(m_keySchema->tupleLength()));
+    TableIterator build_iterator(build_table);
+    while (build_iterator.next(build_tuple)) {
+        if (!setKeyFromTuple(key, build_tuple, m_keyColumns[build_idx])) continue;
+        hash_table.insert(HashJoinMapType::value_type(key, build_tuple.address()));
+        key.moveNoHeader(m_memoryPool.allocate(m_keySchema->tupleLength()));
+    }
+
+    int outer_cols = outer_table->columnCount();
+    int inner_cols = inner_table->columnCount();
+    TableTuple probe_tuple(probe_table->schema());
+    TableTuple match_tuple(build_table->schema());
+    TableTuple *tuples[2];
+    tuples[probe_idx] = &probe_tuple;
+    tuples[build_idx] = &match_tuple;
+    TableTuple &joined = output_table->tempTuple();
+
+    // The key tuple that we didn't use above becomes our probe key
+    TableIterator probe_iterator(probe_table);
+    while (probe_iterator.next(probe_tuple)) {
+        if (!setKeyFromTuple(key, probe_tuple, m_keyColumns[probe_idx])) continue;
+
+        std::pair<HashJoinMapType::const_iterator, HashJoinMapType::const_iterator> matches = hash_table.equal_range(key);
+        for ( ; matches.first != matches.second; ++matches.first) {
+            match_tuple.move(matches.first->second);
+            if (predicate == NULL || predicate->eval(tuples[0], tuples[1]).isTrue()) {
+                for (int col_ctr = 0; col_ctr < outer_cols; col_ctr++) {
+                    joined.setNValue(col_ctr, tuples[0]->getNValue(col_ctr));
+                }
+                for (int col_ctr = 0; col_ctr < inner_cols; col_ctr++) {
+                    joined.setNValue(col_ctr + outer_cols, tuples[1]->getNValue(col_ctr));
+                }
+                output_table->insertTupleNonVirtual(joined);
+            }
+        } // FOR
+    } // WHILE
+
+    return (true);
+}
+
+HashJoinExecutor::~HashJoinExecutor() {
+    if (m_keySchema != NULL) {
+        TupleSchema::freeTupleSchema(m_keySchema);
+    }
+}
+
+}
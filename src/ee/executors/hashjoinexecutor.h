@@ -0,0 +1,74 @@
+/* Copyright (C) 2013 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef HSTOREHASHJOINEXECUTOR_H
+#define HSTOREHASHJOINEXECUTOR_H
+
+#include <vector>
+#include "common/common.h"
+#include "common/Pool.hpp"
+#include "common/tabletuple.h"
+#include "executors/nestloopexecutor.h"
+#include "boost/unordered_map.hpp"
+
+namespace voltdb {
+
+class AbstractExpression;
+
+/**
+ * Hash join of two input tables. We build a hash table on the join keys
+ * of whichever input is smaller and then probe it with each tuple from
+ * the other one. The build side tuples stay in their input table and we
+ * only copy their join keys into our memory pool. The full join predicate
+ * is still evaluated for each match. If the predicate does not have any
+ * column = column clauses then we just fall back to a nested loop join.
+ */
+class HashJoinExecutor : public NestLoopExecutor {
+    public:
+        HashJoinExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node)
+            : NestLoopExecutor(engine, abstract_node), m_keySchema(NULL) { }
+        ~HashJoinExecutor();
+    protected:
+        bool p_init(AbstractPlanNode*, const catalog::Database* catalog_db, int* tempTableMemoryInBytes);
+        bool p_execute(const NValueArray &params);
+
+    private:
+        typedef boost::unordered_multimap<TableTuple,
+                                          void*,
+                                          TableTupleHasher,
+                                          TableTupleEqualityChecker> HashJoinMapType;
+
+        void findJoinKeys(const AbstractExpression *predicate);
+        bool setKeyFromTuple(TableTuple &key, const TableTuple &tuple, const std::vector<int> &columns);
+
+        /** Join key column offsets for the outer (0) and inner (1) tables */
+        std::vector<int> m_keyColumns[2];
+        TupleSchema *m_keySchema;
+        Pool m_memoryPool;
+};
+
+}
+
+#endif
@@ -0,0 +1,316 @@
+/* Copyright (C) 2013 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef BPLUSTREEMULTIMAPINDEX_H_
+#define BPLUSTREEMULTIMAPINDEX_H_
+
+#include <stdint.h>
+#include <iostream>
+#include <sstream>
+#include "stx/btree_set.h"
+#include "common/debuglog.h"
+#include "common/tabletuple.h"
+#include "indexes/tableindex.h"
+#include "indexes/BPlusTreeTraits.h"
+
+namespace voltdb {
+
+/**
+ * Non-unique index implemented as a cache-conscious B+tree.
+ * The stx::btree cannot erase a specific entry out of a run of duplicate
+ * keys, so each entry in the tree is the index key plus the address of
+ * its tuple. This makes every entry unique, lets us delete the exact tuple
+ * that changed in O(log n), and keeps all of the tuples for the same key
+ * next to each other in the leaves so that equal-range and range scans
+ * just walk the leaf chain.
+ * @see TableIndex
+ * @see BinaryTreeMultiMapIndex
+ */
+template<typename KeyType, class KeyComparator, class KeyEqualityChecker>
+class BPlusTreeMultiMapIndex : public TableIndex
+{
+    friend class TableIndexFactory;
+
+    /**
+     * An index key and the tuple that it points to
+     */
+    struct Entry {
+        KeyType key;
+        const void *address;
+
+        Entry() : address(NULL) {}
+        Entry(const KeyType &k, const void *a) : key(k), address(a) {}
+    };
+
+    /**
+     * Order by key first and then by tuple address
+     */
+    class EntryComparator {
+    public:
+        EntryComparator(const KeyComparator &cmp) : m_cmp(cmp) {}
+        inline bool operator()(const Entry &lhs, const Entry &rhs) const {
+            if (m_cmp(lhs.key, rhs.key)) return true;
+            if (m_cmp(rhs.key, lhs.key)) return false;
+            return (reinterpret_cast<uintptr_t>(lhs.address) < reinterpret_cast<uintptr_t>(rhs.address));
+        }
+    private:
+        KeyComparator m_cmp;
+    };
+
+    typedef stx::btree_set<Entry, EntryComparator, BPlusTreeTraits<Entry, char> > SetType;
+    typedef typename SetType::const_iterator SCIter;
+    typedef typename SetType::const_reverse_iterator SCRIter;
+
+public:
+
+    ~BPlusTreeMultiMapIndex() {};
+
+    bool addEntry(const TableTuple *tuple)
+    {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        return addEntryPrivate(tuple->address(), m_tmp1);
+    }
+
+    bool deleteEntry(const TableTuple *tuple)
+    {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        return deleteEntryPrivate(tuple->address(), m_tmp1);
+    }
+
+    bool replaceEntry(const TableTuple *oldTupleValue,
+                      const TableTuple* newTupleValue)
+    {
+        m_tmp1.setFromTuple(oldTupleValue, column_indices_, m_keySchema);
+        m_tmp2.setFromTuple(newTupleValue, column_indices_, m_keySchema);
+        if (m_eq(m_tmp1, m_tmp2))
+        {
+            // no update is needed for this index
+            return true;
+        }
+
+        // The new tuple has the same address as the old one, so we
+        // remove it under its old key and put it back under the new one
+        bool deleted = deleteEntryPrivate(newTupleValue->address(), m_tmp1);
+        bool inserted = addEntryPrivate(newTupleValue->address(), m_tmp2);
+        --m_deletes;
+        --m_inserts;
+        ++m_updates;
+        return (deleted && inserted);
+    }
+
+    bool setEntryToNewAddress(const TableTuple *tuple, const void* address)
+    {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        ++m_updates;
+
+        if (m_entries.erase_one(Entry(m_tmp1, tuple->address())) == false)
+        {
+            //key exists, but not this tuple
+            return false;
+        }
+        m_entries.insert(Entry(m_tmp1, address));
+        return true;
+    }
+
+    bool checkForIndexChange(const TableTuple *lhs, const TableTuple *rhs)
+    {
+        m_tmp1.setFromTuple(lhs, column_indices_, m_keySchema);
+        m_tmp2.setFromTuple(rhs, column_indices_, m_keySchema);
+        return !(m_eq(m_tmp1, m_tmp2));
+    }
+
+    bool exists(const TableTuple* values)
+    {
+        ++m_lookups;
+        m_tmp1.setFromTuple(values, column_indices_, m_keySchema);
+        SCIter iter = m_entries.lower_bound(lowerEntry(m_tmp1));
+        return (iter != m_entries.end() && m_eq(iter->key, m_tmp1));
+    }
+
+    bool moveToKey(const TableTuple *searchKey)
+    {
+        m_tmp1.setFromKey(searchKey);
+        return moveToKey(m_tmp1);
+    }
+
+    bool moveToTuple(const TableTuple *searchTuple)
+    {
+        m_tmp1.setFromTuple(searchTuple, column_indices_, m_keySchema);
+        return moveToKey(m_tmp1);
+    }
+
+    void moveToKeyOrGreater(const TableTuple *searchKey)
+    {
+        ++m_lookups;
+        m_begin = true;
+        m_tmp1.setFromKey(searchKey);
+        m_seqIter = m_entries.lower_bound(lowerEntry(m_tmp1));
+    }
+
+    void moveToGreaterThanKey(const TableTuple *searchKey)
+    {
+        ++m_lookups;
+        m_begin = true;
+        m_tmp1.setFromKey(searchKey);
+        m_seqIter = m_entries.upper_bound(upperEntry(m_tmp1));
+    }
+
+    void moveToEnd(bool begin)
+    {
+        ++m_lookups;
+        m_begin = begin;
+        if (begin)
+            m_seqIter = m_entries.begin();
+        else
+            m_seqRIter = m_entries.rbegin();
+    }
+
+    TableTuple nextValue()
+    {
+        TableTuple retval(m_tupleSchema);
+
+        if (m_begin) {
+            if (m_seqIter == (SCIter) m_entries.end())
+                return TableTuple();
+            retval.move(const_cast<void*>(m_seqIter->address));
+            ++m_seqIter;
+        } else {
+            if (m_seqRIter == (SCRIter) m_entries.rend())
+                return TableTuple();
+            retval.move(const_cast<void*>(m_seqRIter->address));
+            ++m_seqRIter;
+        }
+
+        return retval;
+    }
+
+    TableTuple nextValueAtKey()
+    {
+        if (m_match.isNullTuple()) return m_match;
+        TableTuple retval = m_match;
+        ++m_keyIter;
+        if (m_keyIter == m_keyEnd)
+            m_match.move(NULL);
+        else
+            m_match.move(const_cast<void*>(m_keyIter->address));
+        return retval;
+    }
+
+    bool advanceToNextKey()
+    {
+        if (m_keyEnd == (SCIter) m_entries.end())
+            return false;
+        return moveToKey(m_keyEnd->key);
+    }
+
+    size_t getSize() const { return m_entries.size(); }
+    std::string getTypeName() const { return "BPlusTreeMultiMapIndex"; };
+
+    std::string debug() const
+    {
+        std::ostringstream buffer;
+        buffer << TableIndex::debug() << std::endl;
+
+        for (SCIter i = m_entries.begin(); i != m_entries.end(); ++i) {
+            TableTuple retval(m_tupleSchema);
+            retval.move(const_cast<void*>(i->address));
+            buffer << retval.debugNoHeader() << std::endl;
+        }
+        std::string ret(buffer.str());
+        return (ret);
+    }
+
+protected:
+    BPlusTreeMultiMapIndex(const TableIndexScheme &scheme) :
+        TableIndex(scheme),
+        m_entries(EntryComparator(KeyComparator(m_keySchema))),
+        m_begin(true),
+        m_eq(m_keySchema)
+    {
+        m_match = TableTuple(m_tupleSchema);
+    }
+
+    /**
+     * The smallest possible entry for the given key
+     */
+    inline Entry lowerEntry(const KeyType &key) const
+    {
+        return Entry(key, NULL);
+    }
+
+    /**
+     * The largest possible entry for the given key
+     */
+    inline Entry upperEntry(const KeyType &key) const
+    {
+        return Entry(key, reinterpret_cast<const void*>(UINTPTR_MAX));
+    }
+
+    inline bool addEntryPrivate(const void *address, const KeyType &key)
+    {
+        ++m_inserts;
+        return m_entries.insert(Entry(key, address)).second;
+    }
+
+    inline bool deleteEntryPrivate(const void *address, const KeyType &key)
+    {
+        ++m_deletes;
+        return m_entries.erase_one(Entry(key, address));
+    }
+
+    bool moveToKey(const KeyType &key)
+    {
+        ++m_lookups;
+        m_begin = true;
+        m_keyIter = m_entries.lower_bound(lowerEntry(key));
+        m_keyEnd = m_entries.upper_bound(upperEntry(key));
+        if (m_keyIter == m_keyEnd)
+        {
+            m_match.move(NULL);
+            return false;
+        }
+        m_match.move(const_cast<void*>(m_keyIter->address));
+        return !m_match.isNullTuple();
+    }
+
+    SetType m_entries;
+    KeyType m_tmp1;
+    KeyType m_tmp2;
+
+    // iteration stuff
+    bool m_begin;
+    SCIter m_keyIter;
+    SCIter m_keyEnd;
+    SCIter m_seqIter;
+    SCRIter m_seqRIter;
+    TableTuple m_match;
+
+    // comparison stuff
+    KeyEqualityChecker m_eq;
+};
+
+}
+
+#endif // BPLUSTREEMULTIMAPINDEX_H_
@@ -0,0 +1,78 @@
+/* Copyright (C) 2013 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef BPLUSTREETRAITS_H_
+#define BPLUSTREETRAITS_H_
+
+#include "stx/btree.h"
+
+/**
+ * Size of a CPU cache line in bytes. The B+tree nodes for the indexes
+ * are laid out so that each one spans a whole number of these.
+ */
+#ifndef CACHE_LINE_SIZE
+#define CACHE_LINE_SIZE 64
+#endif
+
+/**
+ * Number of cache lines in each B+tree node. Four lines is enough to
+ * keep the tree shallow for small keys while a binary search within
+ * a node only touches two or three of them.
+ */
+#ifndef BTREE_NODE_CACHE_LINES
+#define BTREE_NODE_CACHE_LINES 4
+#endif
+
+namespace voltdb {
+
+/**
+ * stx::btree traits for the tree indexes. The default stx traits assume
+ * a fixed 256 byte node and ignore the node headers, which means that
+ * the slot arrays usually straddle one more cache line than they need to.
+ * Here we subtract the header (level + slotuse, plus the sibling pointers
+ * in the leaves) before computing how many key/data pairs will fit.
+ * Keys are always stored inline in the node using the indexkey.h types.
+ */
+template <typename _Key, typename _Data>
+struct BPlusTreeTraits
+{
+    static const bool selfverify = false;
+    static const bool debug = false;
+
+    static const int NODE_SIZE = CACHE_LINE_SIZE * BTREE_NODE_CACHE_LINES;
+    static const int INNER_HEADER = sizeof(unsigned short) * 2 + sizeof(void*);
+    static const int LEAF_HEADER = sizeof(unsigned short) * 2 + sizeof(void*) * 2;
+
+    /// Number of key/data pairs in each leaf. Leaves are linked together
+    /// so range scans just walk across them sequentially.
+    static const int leafslots = BTREE_MAX( 8, (NODE_SIZE - LEAF_HEADER) / (sizeof(_Key) + sizeof(_Data)) );
+
+    /// Number of keys in each inner node (there is one more child pointer)
+    static const int innerslots = BTREE_MAX( 8, (NODE_SIZE - INNER_HEADER) / (sizeof(_Key) + sizeof(void*)) );
+};
+
+}
+
+#endif // BPLUSTREETRAITS_H_
@@ -52,6 +52,7 @@
 #include "common/debuglog.h"
 #include "common/tabletuple.h"
 #include "indexes/tableindex.h"
+#include "indexes/BPlusTreeTraits.h"
 
 namespace voltdb {
 
@@ -65,7 +66,7 @@ class BinaryTreeUniqueIndex : public TableIndex
     friend class TableIndexFactory;
 
     //typedef std::map<KeyType, const void*, KeyComparator> MapType;
-    typedef stx::btree_map<KeyType, const void*, KeyComparator> MapType;
+    typedef stx::btree_map<KeyType, const void*, KeyComparator, BPlusTreeTraits<KeyType, const void*> > MapType;
 
 public:
 
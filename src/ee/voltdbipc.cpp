@@ -662,23 +662,36 @@ void VoltDBIPC::executeCustomPlanFragmentAndGetResults(struct ipc_command *cmd)
 
     // setup
     m_engine->resetReusedResultOutputBuffer();
-    m_engine->setUsedParamcnt(0);
     m_engine->setUndoToken(ntohll(plan->undoToken));
 
     // data as fast serialized string
     int32_t len = ntohl(plan->length);
     string plan_str = string(plan->data, len);
 
+    // ...followed by the fast serialized parameter set
+    NValueArray &params = m_engine->getParameterContainer();
+    Pool *pool = m_engine->getStringPool();
+    int sz = static_cast<int> (ntohl(cmd->msgsize) - sizeof(customplanfrag) - len);
+    int cnt = 0;
+    if (sz > 0) {
+        ReferenceSerializeInput serialize_in(plan->data + len, sz);
+        cnt = serialize_in.readShort();
+        assert(cnt > -1);
+        deserializeParameterSetCommon(cnt, serialize_in, params, pool);
+    }
+    m_engine->setUsedParamcnt(cnt);
+
     // deps info
     int32_t outputDepId = ntohl(plan->outputDepId);
     int32_t inputDepId = ntohl(plan->inputDepId);
 
     // execute
-    if (m_engine->executePlanFragment(plan_str, outputDepId, inputDepId,
+    if (m_engine->executePlanFragment(plan_str, outputDepId, inputDepId, params,
                                       ntohll(plan->txnId),
                                       ntohll(plan->lastCommittedTxnId))) {
         ++errors;
     }
+    pool->purge();
 
     // write the results array back across the wire
     const int8_t successResult = kErrorCode_Success;
@@ -555,7 +555,7 @@ SHAREDLIB_JNIEXPORT jint JNICALL Java_org_voltdb_jni_ExecutionEngine_nativeExecu
  * Executes a plan fragment of an adhoc query.
  * Class:     org_voltdb_jni_ExecutionEngine
  * Method:    nativeExecuteCustomPlanFragment
- * Signature: (JLjava/lang/String;JJJ)I
+ * Signature: (JLjava/lang/String;IIJJJ)I
  */
 SHAREDLIB_JNIEXPORT jint JNICALL
 Java_org_voltdb_jni_ExecutionEngine_nativeExecuteCustomPlanFragment (
@@ -591,10 +591,15 @@ Java_org_voltdb_jni_ExecutionEngine_nativeExecuteCustomPlanFragment (
     string cppplan = str;
     env->ReleaseStringUTFChars(plan, str);
 
+    // literals that were extracted from the ad-hoc SQL by the planner
+    // are passed in the shared parameter buffer
+    NValueArray &params = engine->getParameterContainer();
+    const int paramcnt = deserializeParameterSet(engine->getParameterBuffer(), engine->getParameterBufferCapacity(), params, stringPool);
+    engine->setUsedParamcnt(paramcnt);
+
     // execute
-    engine->setUsedParamcnt(0);
     retval = engine->executePlanFragment(cppplan, outputDependencyId,
-                                         inputDependencyId, txnId,
+                                         inputDependencyId, params, txnId,
                                          lastCommittedTxnId);
 
     // cleanup
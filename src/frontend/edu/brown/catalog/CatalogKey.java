@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
@@ -52,9 +53,9 @@ public abstract class CatalogKey {
     private static final String MULTIATTRIBUTE_DELIMITER = "#";
     private static final Pattern MULTIATTRIBUTE_DELIMITER_REGEX = Pattern.compile(Pattern.quote(MULTIATTRIBUTE_DELIMITER));
 
-    private static final Map<CatalogType, String> CACHE_CREATEKEY = new HashMap<CatalogType, String>();
-    private static final Map<Database, Map<String, CatalogType>> CACHE_GETFROMKEY = new HashMap<Database, Map<String, CatalogType>>();
-    private static final Map<String, String> CACHE_NAMEFROMKEY = new HashMap<String, String>();
+    private static final Map<CatalogType, String> CACHE_CREATEKEY = new ConcurrentHashMap<CatalogType, String>();
+    private static final Map<Database, Map<String, CatalogType>> CACHE_GETFROMKEY = new ConcurrentHashMap<Database, Map<String, CatalogType>>();
+    private static final Map<String, String> CACHE_NAMEFROMKEY = new ConcurrentHashMap<String, String>();
 
     public static class InvalidCatalogKey extends RuntimeException {
         private static final long serialVersionUID = 1L;
@@ -90,11 +91,11 @@ public abstract class CatalogKey {
     public static <T extends CatalogType> String createKey(T catalog_item) {
         // There is a 7x speed-up when we use the cache versus always
         // constructing a new key
+        if (catalog_item == null)
+            return (null);
         String ret = CACHE_CREATEKEY.get(catalog_item);
         if (ret != null)
             return (ret);
-        if (catalog_item == null)
-            return (null);
 
         JSONStringer stringer = new JSONStringer();
         try {
@@ -55,7 +55,7 @@ public class InnerMultiAttributeCatalogType<T extends CatalogType> extends Catal
      * @throws Exception
      */
     @SuppressWarnings("unchecked")
-    protected static <T extends CatalogType, U extends MultiAttributeCatalogType<T>> U get(Class<U> clazz, T... attrs) {
+    protected static synchronized <T extends CatalogType, U extends MultiAttributeCatalogType<T>> U get(Class<U> clazz, T... attrs) {
         assert(attrs.length > 1) : String.format("Trying to create a %s with %d attributes %s",
                                                  clazz.getSimpleName(), attrs.length, Arrays.toString(attrs));
         for (int i = 0; i < attrs.length; i++) {
@@ -51,6 +51,7 @@ import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.StringUtil;
 import edu.brown.workload.TransactionTrace;
 import edu.brown.workload.Workload;
+import edu.brown.workload.WorkloadStream;
 import edu.brown.workload.filters.Filter;
 
 /**
@@ -607,6 +608,39 @@ public abstract class AbstractCostModel {
         return (this.estimateWorkloadCost(catalogContext, workload, null, null));
     }
 
+    /**
+     * Estimate the cost of the txns in a WorkloadStream without loading them all into memory.
+     * The stream's Filter is only applied to the TransactionTraces, so it is not passed
+     * to estimateTransactionCost(). Cost models that need more than one pass over
+     * the txns (e.g., TimeIntervalCostModel) override this method.
+     * @param catalogContext
+     * @param stream
+     * @param upper_bound
+     * @return
+     * @throws Exception
+     */
+    public double estimateWorkloadCost(CatalogContext catalogContext, WorkloadStream stream, Double upper_bound) throws Exception {
+        this.prepare(catalogContext);
+        if (stream.getFilter() != null)
+            stream.getFilter().reset();
+        double cost = 0.0d;
+        WorkloadStream.StreamIterator it = stream.iterator();
+        try {
+            while (it.hasNext()) {
+                TransactionTrace xact = it.next();
+                cost += this.estimateTransactionCost(catalogContext, null, null, xact);
+                if (upper_bound != null && cost > upper_bound.doubleValue()) {
+                    if (debug.get())
+                        LOG.debug("Exceeded upper bound. Halting estimation early!");
+                    break;
+                }
+            } // WHILE
+        } finally {
+            it.close();
+        }
+        return (cost);
+    }
+
     // ----------------------------------------------------------------------------
     // DEBUGGING METHODS
     // ----------------------------------------------------------------------------
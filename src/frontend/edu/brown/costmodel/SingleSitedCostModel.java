@@ -23,7 +23,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -47,12 +49,14 @@ import edu.brown.hstore.HStoreConstants;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.ProfileMeasurement;
+import edu.brown.statistics.FastIntHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.utils.ArgumentsParser;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.PartitionSet;
 import edu.brown.utils.StringUtil;
+import edu.brown.utils.ThreadUtil;
 import edu.brown.workload.AbstractTraceElement;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
@@ -116,6 +120,104 @@ public class SingleSitedCostModel extends AbstractCostModel {
 
     private final Set<Long> last_invalidateTxns = new HashSet<Long>();
 
+    // ----------------------------------------------------
+    // INCREMENTAL ESTIMATION
+    // ----------------------------------------------------
+
+    /**
+     * The result of the last complete pass over a Workload with a particular Filter.
+     * If we are asked to estimate the cost of the same Workload with the same Filter
+     * again, then we only need to recompute the txns whose cache entries have changed
+     * since then. This assumes that a Filter always lets through the same txns and
+     * queries each time that it is reset.
+     */
+    private static class IncrementalState {
+        private final Workload workload;
+        private final CatalogContext catalogContext;
+        private final String config;
+        private double cost = 0d;
+        /**
+         * TransactionTrace Id -> The cost that it contributed in the last estimate
+         * This only contains the txns that were let through by the Filter
+         */
+        private final Map<Long, Double> txnCosts = new HashMap<Long, Double>();
+        /**
+         * The txns whose cache entries were modified since the last estimate
+         */
+        private final Set<Long> dirtyTxns = new HashSet<Long>();
+
+        private IncrementalState(Workload workload, CatalogContext catalogContext, String config) {
+            this.workload = workload;
+            this.catalogContext = catalogContext;
+            this.config = config;
+        }
+    } // CLASS
+
+    /**
+     * We won't keep around the IncrementalStates for more than this many Filters.
+     * BranchAndBoundPartitioner uses a separate Filter for each level of its search tree.
+     */
+    private static final int MAX_INCREMENTAL_STATES = 32;
+
+    /**
+     * Filter -> IncrementalState
+     * The key is null for estimates that were made without a Filter
+     */
+    @SuppressWarnings("serial")
+    private final Map<Filter, IncrementalState> incremental_states = new LinkedHashMap<Filter, IncrementalState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Filter, IncrementalState> eldest) {
+            return (this.size() > MAX_INCREMENTAL_STATES);
+        }
+    };
+
+    /**
+     * The IncrementalState that we are currently updating. Modifying a txn's cache
+     * entry makes it dirty in all of the other IncrementalStates.
+     */
+    private IncrementalState incremental_current = null;
+
+    // ----------------------------------------------------
+    // PARALLEL ESTIMATION
+    // ----------------------------------------------------
+
+    /**
+     * We won't bother using multiple threads to compute the partitions
+     * for less than this many txns
+     */
+    private static final int PARALLEL_THRESHOLD = 100;
+
+    private int num_threads = ThreadUtil.getMaxGlobalThreads();
+
+    /**
+     * The PartitionEstimator results for a txn that were computed ahead of time
+     * by the worker threads. processTransaction() will use these instead of
+     * invoking the PartitionEstimator itself.
+     */
+    private static class PrefetchEntry {
+        private boolean has_base_partition = false;
+        private int base_partition = HStoreConstants.NULL_PARTITION_ID;
+        /** The base partition that was used to compute the query partitions */
+        private int query_base_partition = HStoreConstants.NULL_PARTITION_ID;
+        private final Map<String, PartitionSet> query_partitions[];
+
+        @SuppressWarnings("unchecked")
+        private PrefetchEntry(int num_queries) {
+            this.query_partitions = (Map<String, PartitionSet>[])new Map<?, ?>[num_queries];
+        }
+    } // CLASS
+
+    /**
+     * TransactionTrace Id -> PrefetchEntry
+     */
+    private final Map<Long, PrefetchEntry> prefetch_entries = new HashMap<Long, PrefetchEntry>();
+
+    /**
+     * The PartitionEstimator's caches are not thread-safe, so each
+     * prefetch worker thread gets its own
+     */
+    private final List<PartitionEstimator> prefetch_estimators = new ArrayList<PartitionEstimator>();
+
     /**
      * Cost Estimate Explanation
      */
@@ -131,7 +233,7 @@ public class SingleSitedCostModel extends AbstractCostModel {
         private int singlesite_queries = 0;
         private int multisite_queries = 0;
         private int unknown_queries = 0;
-        private Histogram<Integer> touched_partitions = new Histogram<Integer>();
+        private FastIntHistogram touched_partitions = new FastIntHistogram(num_partitions);
 
         private TransactionCacheEntry(String proc_key, long txn_trace_id, int weight, int total_queries) {
             this.proc_key = proc_key;
@@ -242,7 +344,7 @@ public class SingleSitedCostModel extends AbstractCostModel {
         @Override
         public Object clone() throws CloneNotSupportedException {
             TransactionCacheEntry clone = (TransactionCacheEntry) super.clone();
-            clone.touched_partitions = new Histogram<Integer>(this.touched_partitions);
+            clone.touched_partitions = new FastIntHistogram(this.touched_partitions);
             return (clone);
         }
 
@@ -449,6 +551,8 @@ public class SingleSitedCostModel extends AbstractCostModel {
 
         this.txn_entries.clear();
         this.last_invalidateTxns.clear();
+        this.prefetch_entries.clear();
+        this.resetIncremental();
 
         for (Collection<QueryCacheEntry> c : this.cache_tableXref.values()) {
             c.clear();
@@ -644,6 +748,7 @@ public class SingleSitedCostModel extends AbstractCostModel {
         this.cache_procXref.get(txn_entry.proc_key).remove(txn_entry);
         this.txn_entries.remove(txn_entry.getTransactionId());
         this.last_invalidateTxns.add(txn_entry.getTransactionId());
+        this.markIncrementalDirty(txn_entry.getTransactionId());
     }
 
     /**
@@ -775,6 +880,7 @@ public class SingleSitedCostModel extends AbstractCostModel {
             // Then disable zero entries from the histogram so that our counts
             // don't get screwed up
             txn_entry.touched_partitions.setKeepZeroEntries(false);
+            this.markIncrementalDirty(txn_entry.getTransactionId());
 
             // Then check whether we're still considered multi-partition
             boolean new_singlesited = (txn_entry.multisite_queries == 0);
@@ -834,6 +940,257 @@ public class SingleSitedCostModel extends AbstractCostModel {
     private final PartitionSet temp_txnOrigPartitions = new PartitionSet();
     private final PartitionSet temp_txnNewPartitions = new PartitionSet();
 
+    /**
+     * Set the number of threads that we will use to compute the partitions
+     * touched by the txns in the workload
+     * @param num_threads
+     */
+    public void setNumThreads(int num_threads) {
+        assert(num_threads > 0);
+        this.num_threads = num_threads;
+    }
+
+    /**
+     * Returns the number of txns that were recomputed during the last call
+     * to estimateWorkloadCost()
+     */
+    public int getLastRecomputedTransactionCount() {
+        return (this.last_recomputed);
+    }
+    private int last_recomputed = 0;
+
+    /**
+     * If we have already made a complete pass over this Workload with the same Filter,
+     * then we only reprocess the txns whose cache entries were invalidated since then
+     * and adjust the previous cost by the difference. Since the cached entries for the
+     * other txns have not changed, the result is the same as a full pass.
+     * Otherwise, we compute the partitions touched by the txns in parallel and
+     * then update the cache entries in a single thread.
+     */
+    @Override
+    protected double estimateWorkloadCostImpl(CatalogContext catalogContext, Workload workload, Filter filter, Double upper_bound) throws Exception {
+        final String config = this.getIncrementalConfig();
+        IncrementalState state = this.incremental_states.get(filter);
+        if (state != null && state.workload == workload && state.catalogContext == catalogContext && config.equals(state.config)) {
+            return (this.estimateWorkloadCostIncremental(catalogContext, workload, filter, state));
+        }
+        this.incremental_states.remove(filter);
+
+        // First collect the txns that we need to look at
+        List<TransactionTrace> txns = new ArrayList<TransactionTrace>();
+        Iterator<TransactionTrace> it = workload.iterator(filter);
+        while (it.hasNext()) {
+            txns.add(it.next());
+        } // WHILE
+        this.prefetch(catalogContext, txns);
+
+        state = new IncrementalState(workload, catalogContext, config);
+        double cost = 0.0d;
+        boolean complete = true;
+        for (TransactionTrace txn_trace : txns) {
+            double txn_cost;
+            try {
+                txn_cost = this.estimateTransactionCost(catalogContext, workload, filter, txn_trace);
+            } catch (Exception ex) {
+                LOG.error("Failed to estimate cost for " + txn_trace.getCatalogItemName());
+                this.prefetch_entries.clear();
+                throw ex;
+            }
+            state.txnCosts.put(txn_trace.getTransactionId(), txn_cost);
+            cost += txn_cost;
+            if (upper_bound != null && cost > upper_bound.doubleValue()) {
+                if (debug.get())
+                    LOG.debug("Exceeded upper bound. Halting estimation early!");
+                complete = false;
+                break;
+            }
+        } // FOR
+        this.prefetch_entries.clear();
+        this.last_recomputed = txns.size();
+
+        if (complete && this.use_caching) {
+            state.cost = cost;
+            this.markIncompleteTransactions(state);
+            this.incremental_states.put(filter, state);
+        }
+        return (cost);
+    }
+
+    /**
+     * Recompute the cost for only the txns that were invalidated since the last estimate
+     * @param catalogContext
+     * @param workload
+     * @param filter
+     * @param state
+     * @return
+     * @throws Exception
+     */
+    private double estimateWorkloadCostIncremental(CatalogContext catalogContext, Workload workload, Filter filter, IncrementalState state) throws Exception {
+        List<TransactionTrace> txns = new ArrayList<TransactionTrace>(state.dirtyTxns.size());
+        for (Long txn_id : state.dirtyTxns) {
+            // Skip anything that the Filter did not let through the first time
+            if (state.txnCosts.containsKey(txn_id) == false) continue;
+            TransactionTrace txn_trace = workload.getTransaction(txn_id);
+            assert(txn_trace != null) : "Missing TransactionTrace #" + txn_id;
+            txns.add(txn_trace);
+        } // FOR
+        state.dirtyTxns.clear();
+        if (debug.get())
+            LOG.debug(String.format("Recomputing cost for %d out of %d txns [filter=%s]",
+                                    txns.size(), state.txnCosts.size(), filter));
+        this.prefetch(catalogContext, txns);
+
+        this.incremental_current = state;
+        try {
+            for (TransactionTrace txn_trace : txns) {
+                Long txn_id = txn_trace.getTransactionId();
+                double txn_cost = this.estimateTransactionCost(catalogContext, workload, filter, txn_trace);
+                Double orig_cost = state.txnCosts.put(txn_id, txn_cost);
+                state.cost += txn_cost - orig_cost.doubleValue();
+            } // FOR
+        } catch (Exception ex) {
+            // We can't trust this state anymore
+            this.incremental_states.remove(filter);
+            throw ex;
+        } finally {
+            this.incremental_current = null;
+            this.prefetch_entries.clear();
+        }
+        this.last_recomputed = txns.size();
+        this.markIncompleteTransactions(state);
+        return (state.cost);
+    }
+
+    /**
+     * Any txn that still does not have a complete cache entry will be reprocessed
+     * the next time that we are called, so we need to recompute its cost too
+     */
+    private void markIncompleteTransactions(IncrementalState state) {
+        for (TransactionCacheEntry txn_entry : this.txn_entries.values()) {
+            if (txn_entry.base_partition == HStoreConstants.NULL_PARTITION_ID || txn_entry.isComplete() == false) {
+                state.dirtyTxns.add(txn_entry.getTransactionId());
+            }
+        } // FOR
+    }
+
+    /**
+     * Mark the given txn as needing to be recomputed in all of the
+     * IncrementalStates except for the one that we are currently updating
+     * @param txn_id
+     */
+    private void markIncrementalDirty(Long txn_id) {
+        if (this.incremental_states.isEmpty()) return;
+        for (IncrementalState state : this.incremental_states.values()) {
+            if (state != this.incremental_current) state.dirtyTxns.add(txn_id);
+        } // FOR
+    }
+
+    private void resetIncremental() {
+        this.incremental_states.clear();
+        this.incremental_current = null;
+    }
+
+    /**
+     * The settings that affect the cost that we compute for a txn. If any of these
+     * change, then we can't reuse the costs from the last estimate. 
+     */
+    private String getIncrementalConfig() {
+        return (String.format("%s|%s|%s|%s|%f", this.use_caching, this.use_txn_weights, this.use_query_weights,
+                              this.isJavaExecutionWeightEnabled(), this.getJavaExecutionWeight()));
+    }
+
+    /**
+     * Use multiple threads to invoke the PartitionEstimator for the txns and
+     * queries that do not have a valid cache entry. Each thread only reads from
+     * the cache entries, so it is safe to do this before processTransaction()
+     * updates them.
+     * @param catalogContext
+     * @param txns
+     */
+    private void prefetch(final CatalogContext catalogContext, final List<TransactionTrace> txns) {
+        this.prefetch_entries.clear();
+        if (this.num_threads <= 1 || txns.size() < PARALLEL_THRESHOLD) return;
+
+        final int num_shards = Math.min(this.num_threads, txns.size() / PARALLEL_THRESHOLD + 1);
+        // Make sure that each worker's PartitionEstimator is using the same
+        // catalog as our own. prepare() always reinitializes ours.
+        while (this.prefetch_estimators.size() < num_shards) {
+            this.prefetch_estimators.add(new PartitionEstimator(catalogContext, this.p_estimator.getHasher()));
+        } // WHILE
+        for (int i = 0; i < num_shards; i++) {
+            this.prefetch_estimators.get(i).initCatalog(catalogContext);
+        } // FOR
+
+        @SuppressWarnings("unchecked")
+        final Map<Long, PrefetchEntry> shard_entries[] = (Map<Long, PrefetchEntry>[])new Map<?, ?>[num_shards];
+        List<Runnable> runnables = new ArrayList<Runnable>();
+        for (int i = 0; i < num_shards; i++) {
+            final int shard = i;
+            shard_entries[shard] = new HashMap<Long, PrefetchEntry>();
+            runnables.add(new Runnable() {
+                @Override
+                public void run() {
+                    PartitionEstimator p_estimator = prefetch_estimators.get(shard);
+                    for (int idx = shard, cnt = txns.size(); idx < cnt; idx += num_shards) {
+                        TransactionTrace txn_trace = txns.get(idx);
+                        PrefetchEntry entry = prefetchTransaction(catalogContext, p_estimator, txn_trace);
+                        if (entry != null) shard_entries[shard].put(txn_trace.getTransactionId(), entry);
+                    } // FOR
+                }
+            });
+        } // FOR
+        ThreadUtil.runGlobalPool(runnables);
+        for (Map<Long, PrefetchEntry> m : shard_entries) {
+            this.prefetch_entries.putAll(m);
+        } // FOR
+        if (debug.get())
+            LOG.debug(String.format("Prefetched partitions for %d txns using %d threads", this.prefetch_entries.size(), num_shards));
+    }
+
+    /**
+     * Compute the PartitionEstimator results that processTransaction() will need for
+     * the given txn. Returns null if the txn already has a complete cache entry.
+     * @param catalogContext
+     * @param p_estimator
+     * @param txn_trace
+     * @return
+     */
+    private PrefetchEntry prefetchTransaction(CatalogContext catalogContext, PartitionEstimator p_estimator, TransactionTrace txn_trace) {
+        TransactionCacheEntry txn_entry = (this.use_caching ? this.txn_entries.get(txn_trace.getTransactionId()) : null);
+        List<QueryTrace> queries = txn_trace.getQueries();
+        if (txn_entry != null && txn_entry.base_partition != HStoreConstants.NULL_PARTITION_ID && txn_entry.examined_queries == queries.size()) {
+            return (null);
+        }
+        Procedure catalog_proc = txn_trace.getCatalogItem(catalogContext.database);
+        PrefetchEntry entry = new PrefetchEntry(queries.size());
+
+        // Figure out what the base partition will be after processTransaction() calls setBasePartition()
+        int base_partition = (txn_entry != null ? txn_entry.base_partition : HStoreConstants.NULL_PARTITION_ID);
+        if (catalog_proc.getPartitionparameter() != NullProcParameter.PARAM_IDX && base_partition == HStoreConstants.NULL_PARTITION_ID) {
+            try {
+                entry.base_partition = p_estimator.getBasePartition(catalog_proc, txn_trace.getParams(), true);
+                entry.has_base_partition = true;
+            } catch (Exception ex) {
+                // processTransaction() will try again and log the error
+                return (null);
+            }
+            base_partition = (entry.base_partition == HStoreConstants.NULL_PARTITION_ID ? 0 : entry.base_partition);
+        }
+        entry.query_base_partition = base_partition;
+
+        for (int i = 0, cnt = queries.size(); i < cnt; i++) {
+            QueryCacheEntry query_entry = (txn_entry != null ? txn_entry.query_entries[i] : null);
+            if (this.use_caching && query_entry != null && query_entry.isInvalid() == false) continue;
+            try {
+                entry.query_partitions[i] = p_estimator.getTablePartitions(queries.get(i), base_partition);
+            } catch (Exception ex) {
+                // processTransaction() will try again and throw the error
+                entry.query_partitions[i] = null;
+            }
+        } // FOR
+        return (entry);
+    }
+
     @Override
     public double estimateTransactionCost(CatalogContext catalogContext, Workload workload, Filter filter, TransactionTrace txn_trace) throws Exception {
         // Sanity Check: If we don't have any TransactionCacheEntries, then the
@@ -957,6 +1314,7 @@ public class SingleSitedCostModel extends AbstractCostModel {
         final Procedure catalog_proc = txn_trace.getCatalogItem(catalogContext.database);
         assert (catalog_proc != null);
         final String proc_key = CatalogKey.createKey(catalog_proc);
+        final PrefetchEntry prefetch = (this.prefetch_entries.isEmpty() ? null : this.prefetch_entries.remove(txn_id));
 
         // Initialize a new Cache entry for this txn
         if (txn_entry == null) {
@@ -984,10 +1342,14 @@ public class SingleSitedCostModel extends AbstractCostModel {
             assert (proc_param_idx < catalog_proc.getParameters().size()) : "Invalid ProcParameter Index " + proc_param_idx;
 
             int base_partition = HStoreConstants.NULL_DEPENDENCY_ID;
-            try {
-                base_partition = this.p_estimator.getBasePartition(catalog_proc, txn_trace.getParams(), true);
-            } catch (Exception ex) {
-                LOG.error("Unexpected error from PartitionEstimator for " + txn_trace, ex);
+            if (prefetch != null && prefetch.has_base_partition) {
+                base_partition = prefetch.base_partition;
+            } else {
+                try {
+                    base_partition = this.p_estimator.getBasePartition(catalog_proc, txn_trace.getParams(), true);
+                } catch (Exception ex) {
+                    LOG.error("Unexpected error from PartitionEstimator for " + txn_trace, ex);
+                }
             }
             this.setBasePartition(txn_entry, base_partition);
             if (trace.get())
@@ -1093,7 +1455,13 @@ public class SingleSitedCostModel extends AbstractCostModel {
                 // XXX: What should we do if the TransactionCacheEntry's base
                 // partition hasn't been calculated yet?
                 // Let's just throw it at the PartitionEstimator and let it figure out what to do...
-                Map<String, PartitionSet> table_partitions = this.p_estimator.getTablePartitions(query_trace, txn_entry.base_partition);
+                Map<String, PartitionSet> table_partitions = null;
+                if (prefetch != null && prefetch.query_base_partition == txn_entry.base_partition) {
+                    table_partitions = prefetch.query_partitions[query_idx];
+                }
+                if (table_partitions == null) {
+                    table_partitions = this.p_estimator.getTablePartitions(query_trace, txn_entry.base_partition);
+                }
                 StringBuilder sb = null;
                 if (trace.get()) {
                     sb = new StringBuilder();
@@ -47,6 +47,7 @@ import edu.brown.utils.StringUtil;
 import edu.brown.utils.ThreadUtil;
 import edu.brown.workload.TransactionTrace;
 import edu.brown.workload.Workload;
+import edu.brown.workload.WorkloadStream;
 import edu.brown.workload.filters.Filter;
 
 /**
@@ -284,11 +285,85 @@ public class TimeIntervalCostModel<T extends AbstractCostModel> extends Abstract
         return (this.cost_models[interval].estimateTransactionCost(catalogContext, workload, filter, xact));
     }
 
+    /**
+     * We have to make two passes over the stream: the first one figures out the
+     * range of start timestamps so that we know the time intervals, and the
+     * second one feeds the txns into the interval cost models.
+     */
+    @Override
+    public double estimateWorkloadCost(CatalogContext catalogContext, WorkloadStream stream, Double upper_bound) throws Exception {
+        this.prepare(catalogContext);
+        final Filter filter = stream.getFilter();
+
+        // (1) Find the min/max start timestamps
+        Long min_start = null;
+        Long max_start = null;
+        if (filter != null) filter.reset();
+        WorkloadStream.StreamIterator it = stream.iterator();
+        try {
+            while (it.hasNext()) {
+                long timestamp = it.next().getStartTimestamp();
+                if (min_start == null || timestamp < min_start) min_start = timestamp;
+                if (max_start == null || timestamp > max_start) max_start = timestamp;
+            } // WHILE
+        } finally {
+            it.close();
+        }
+        if (min_start == null) {
+            if (debug.get())
+                LOG.debug("No txns in workload stream '" + stream.getInputPath() + "'");
+            return (0.0d);
+        }
+        if (debug.get())
+            LOG.debug(String.format("Workload stream '%s' start timestamps: [%d, %d]",
+                                    stream.getInputPath(), min_start, max_start));
+
+        // (2) Now stream the txns into the intervals
+        // The stream already applied the filter to the txns, so we don't
+        // pass it down to the interval cost models
+        if (filter != null) filter.reset();
+        it = stream.iterator();
+        try {
+            return (this.estimateIntervalCosts(catalogContext, CollectionUtil.iterable(it), min_start, max_start, null, null));
+        } finally {
+            it.close();
+        }
+    }
+
     /**
      * 
      */
     @Override
     protected double estimateWorkloadCostImpl(final CatalogContext catalogContext, final Workload workload, final Filter filter, final Double upper_bound) throws Exception {
+        if (trace.get()) {
+            LOG.trace("Total # of Txns in Workload: " + workload.getTransactionCount());
+            if (filter != null)
+                LOG.trace("Workload Filter Chain:       " + StringUtil.join("   ", "\n", filter.getFilters()));
+        }
+        return (this.estimateIntervalCosts(catalogContext,
+                                           CollectionUtil.iterable(workload.iterator(filter)),
+                                           workload.getMinStartTimestamp(),
+                                           workload.getMaxStartTimestamp(),
+                                           workload, filter));
+    }
+
+    /**
+     * Split the given txns into their time intervals and then calculate the final cost
+     * @param catalogContext
+     * @param txns
+     * @param min_start - The first start timestamp of the txns
+     * @param max_start - The last start timestamp of the txns
+     * @param workload - Passed to the interval cost models (may be null)
+     * @param filter - Passed to the interval cost models (may be null)
+     * @return
+     * @throws Exception
+     */
+    private double estimateIntervalCosts(final CatalogContext catalogContext,
+                                         final Iterable<TransactionTrace> txns,
+                                         final Long min_start,
+                                         final Long max_start,
+                                         final Workload workload,
+                                         final Filter filter) throws Exception {
 
         if (debug.get())
             LOG.debug("Calculating workload execution cost across " + num_intervals + " intervals for " + num_partitions + " partitions");
@@ -314,18 +389,12 @@ public class TimeIntervalCostModel<T extends AbstractCostModel> extends Abstract
 
         // (2) Now go through the workload and estimate the partitions that each txn 
         //     will touch for the given catalog setups
-        if (trace.get()) {
-            LOG.trace("Total # of Txns in Workload: " + workload.getTransactionCount());
-            if (filter != null)
-                LOG.trace("Workload Filter Chain:       " + StringUtil.join("   ", "\n", filter.getFilters()));
-        }
-
         // QUEUING THREAD
         tmp_consumers.clear();
-        Producer<TransactionTrace, Pair<TransactionTrace, Integer>> producer = new Producer<TransactionTrace, Pair<TransactionTrace, Integer>>(CollectionUtil.iterable(workload.iterator(filter))) {
+        Producer<TransactionTrace, Pair<TransactionTrace, Integer>> producer = new Producer<TransactionTrace, Pair<TransactionTrace, Integer>>(txns) {
             @Override
             public Pair<Consumer<Pair<TransactionTrace, Integer>>, Pair<TransactionTrace, Integer>> transform(TransactionTrace txn_trace) {
-                int i = workload.getTimeInterval(txn_trace, num_intervals);
+                int i = Workload.getTimeInterval(txn_trace.getStartTimestamp(), min_start, max_start, num_intervals);
                 assert (i >= 0) : "Invalid time interval '" + i + "'\n" + txn_trace.debug(catalogContext.database);
                 assert (i < num_intervals) : "Invalid interval: " + i + "\n" + txn_trace.debug(catalogContext.database);
                 total_txns.incrementAndGet();
@@ -166,18 +166,50 @@ public class DesignerInfo {
             this.correlations_file = args.getFileParam(ArgumentsParser.PARAM_MAPPINGS);
         }
 
-        if (!DesignerInfo.DGRAPH_CACHE.containsKey(this.catalogContext.database)) {
-            this.dgraph = new DependencyGraph(this.catalogContext.database);
+        this.dgraph = this.loadDependencyGraph(this.catalogContext.database);
+    }
+
+    /**
+     * Copy Constructor for a different copy of the catalog. Everything that
+     * references catalog objects (the dependencies, the memory estimator) is
+     * created again for the new Database. The cost model and the parameter
+     * mappings are not copied, so they need to be set separately.
+     * 
+     * @param src
+     * @param catalogContext
+     */
+    public DesignerInfo(DesignerInfo src, CatalogContext catalogContext) {
+        this.args = src.args;
+        this.catalog_db = catalogContext.database;
+        this.catalogContext = catalogContext;
+        this.workload = src.workload;
+        this.stats = src.stats;
+        this.partitioner_class = src.partitioner_class;
+        this.mapper_class = src.mapper_class;
+        this.indexer_class = src.indexer_class;
+        this.num_threads = src.num_threads;
+        this.num_intervals = src.num_intervals;
+        this.num_partitions = src.num_partitions;
+        this.dependencies = DependencyUtil.singleton(this.catalog_db);
+        this.costmodel_class = src.costmodel_class;
+        this.m_estimator = new MemoryEstimator(this.stats, new DefaultHasher(this.catalog_db, this.num_partitions));
+        this.correlations_file = src.correlations_file;
+        this.dgraph = this.loadDependencyGraph(this.catalog_db);
+    }
+
+    private DependencyGraph loadDependencyGraph(Database catalog_db) {
+        DependencyGraph dgraph = DesignerInfo.DGRAPH_CACHE.get(catalog_db);
+        if (dgraph == null) {
+            dgraph = new DependencyGraph(catalog_db);
             try {
-                new DependencyGraphGenerator(this).generate(this.dgraph);
+                new DependencyGraphGenerator(this).generate(dgraph);
             } catch (Exception ex) {
                 ex.printStackTrace();
                 System.exit(1);
             }
-            DesignerInfo.DGRAPH_CACHE.put(this.catalogContext.database, this.dgraph);
-        } else {
-            this.dgraph = DesignerInfo.DGRAPH_CACHE.get(this.catalogContext.database);
+            DesignerInfo.DGRAPH_CACHE.put(catalog_db, dgraph);
         }
+        return (dgraph);
     }
 
     /**
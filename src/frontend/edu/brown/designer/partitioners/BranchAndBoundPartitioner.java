@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections15.CollectionUtils;
 import org.apache.log4j.Logger;
@@ -249,6 +250,13 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
     protected final Map<CatalogType, WorkloadFilter> traversal_filters = new HashMap<CatalogType, WorkloadFilter>();
     protected TraverseThread thread = null;
 
+    /**
+     * The lowest cost found by any of the searches that are running at the
+     * same time as this one. We store the raw bits of the double so that
+     * it can be updated without a lock.
+     */
+    protected AtomicLong shared_bound = null;
+
     protected List<Table> table_visit_order = new ArrayList<Table>();
     protected List<Procedure> proc_visit_order = new ArrayList<Procedure>();
     protected AccessGraph agraph = null;
@@ -298,6 +306,44 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
         return (this.upper_bounds_vertex);
     }
 
+    /**
+     * Share the cost of the best solution with other searches that are running
+     * concurrently. The bound is stored as the result of Double.doubleToLongBits()
+     * 
+     * @param shared_bound
+     */
+    public void setSharedUpperBound(AtomicLong shared_bound) {
+        this.shared_bound = shared_bound;
+    }
+
+    /**
+     * Returns the lowest cost found by any concurrent search
+     * 
+     * @return
+     */
+    protected double getSharedUpperBound() {
+        if (this.shared_bound == null)
+            return (Double.MAX_VALUE);
+        return (Double.longBitsToDouble(this.shared_bound.get()));
+    }
+
+    /**
+     * Lower the shared bound if the given cost is less than it
+     * 
+     * @param cost
+     */
+    private void updateSharedUpperBound(double cost) {
+        if (this.shared_bound == null)
+            return;
+        while (true) {
+            long bits = this.shared_bound.get();
+            if (cost >= Double.longBitsToDouble(bits))
+                return;
+            if (this.shared_bound.compareAndSet(bits, Double.doubleToLongBits(cost)))
+                return;
+        } // WHILE
+    }
+
     // public void setTraversalAttributes(Map<String, List<String>> attributes,
     // int num_tables) {
     // this.base_traversal_attributes.clear();
@@ -1015,7 +1061,7 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                 Double singlep_txns = null;
                 // Don't estimate the cost if it doesn't fit
                 if (!memory_exceeded) {
-                    cost = this.cost_model.estimateWorkloadCost(info.catalogContext, info.workload, filter, best_vertex.cost);
+                    cost = this.cost_model.estimateWorkloadCost(info.catalogContext, info.workload, filter, Math.min(best_vertex.cost, getSharedUpperBound()));
                     singlep_txns = this.cost_model.getSinglePartitionProcedureHistogram().getSampleCount() / (double) this.cost_model.getProcedureHistogram().getSampleCount();
                 } else {
                     cost = Double.MAX_VALUE;
@@ -1090,8 +1136,10 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                 // (a) The current best solution is the start vertex
                 // (b) Or the current solution has a cost less than the current
                 // best solution
+                // (5) It is less than the best solution found by any concurrent search
                 if (complete_solution && memory_exceeded == false && cost < BranchAndBoundPartitioner.this.upper_bounds_vertex.cost
-                        && (BranchAndBoundPartitioner.this.best_vertex.isStartVertex() || cost < BranchAndBoundPartitioner.this.best_vertex.cost)) {
+                        && (BranchAndBoundPartitioner.this.best_vertex.isStartVertex() || cost < BranchAndBoundPartitioner.this.best_vertex.cost)
+                        && cost < getSharedUpperBound()) {
                     assert (best_vertex.cost > state.cost) : "Best=" + best_vertex.cost + ", Current=" + state.cost;
                     assert (upper_bounds_vertex.cost > state.cost) : "Upper=" + upper_bounds_vertex.cost + ", Current=" + state.cost;
 
@@ -1099,6 +1147,7 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                         LOG.debug("Old Solution:\n" + StringBoxUtil.box(best_vertex.toString()));
                     }
                     BranchAndBoundPartitioner.this.best_vertex = state;
+                    updateSharedUpperBound(state.cost);
                     if (debug.get()) {
                         LOG.debug("New Best Solution:\n" + StringBoxUtil.box(best_vertex.toString()));
                         if (this.cost_model.hasDebugMessages())
@@ -1158,7 +1207,7 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                 // exhaustive flag is enabled
                 if (this.halt_search == false
                         && ((last_attribute && is_table && this.hints.greedy_search) || (this.hints.exhaustive_search == true) || (complete_solution == false && is_table
-                                && cost < BranchAndBoundPartitioner.this.best_vertex.cost && cost < BranchAndBoundPartitioner.this.upper_bounds_vertex.cost))) {
+                                && cost < BranchAndBoundPartitioner.this.best_vertex.cost && cost < BranchAndBoundPartitioner.this.upper_bounds_vertex.cost && cost < getSharedUpperBound()))) {
 
                     // IMPORTANT: If this is the last table in our traversal,
                     // then we need to switch over
@@ -1225,7 +1274,7 @@ public class BranchAndBoundPartitioner extends AbstractPartitioner {
                 // past our best cost
                 // our upper bounds, then keep going...
                 if (complete_solution == false && hints.enable_procparameter_search && (this.hints.greedy_search == true)
-                        || (local_best_vertex.cost < best_vertex.cost && local_best_vertex.cost < upper_bounds_vertex.cost)) {
+                        || (local_best_vertex.cost < best_vertex.cost && local_best_vertex.cost < upper_bounds_vertex.cost && local_best_vertex.cost < getSharedUpperBound())) {
                     this.cp.update(current_proc);
                     this.traverse(local_best_vertex, idx + 1);
                     this.cp.reset(current_proc);
@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.commons.collections15.set.ListOrderedSet;
@@ -24,6 +25,7 @@ import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
+import org.voltdb.CatalogContext;
 import org.voltdb.catalog.CatalogType;
 import org.voltdb.catalog.Column;
 import org.voltdb.catalog.Database;
@@ -33,6 +35,7 @@ import org.voltdb.catalog.Table;
 import org.voltdb.types.TimestampType;
 import org.voltdb.utils.Pair;
 
+import edu.brown.catalog.CatalogCloner;
 import edu.brown.catalog.CatalogKey;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.catalog.special.MultiColumn;
@@ -40,6 +43,8 @@ import edu.brown.catalog.special.MultiProcParameter;
 import edu.brown.catalog.special.NullProcParameter;
 import edu.brown.catalog.special.ReplicatedColumn;
 import edu.brown.costmodel.AbstractCostModel;
+import edu.brown.costmodel.SingleSitedCostModel;
+import edu.brown.costmodel.TimeIntervalCostModel;
 import edu.brown.designer.AccessGraph;
 import edu.brown.designer.Designer;
 import edu.brown.designer.DesignerHints;
@@ -55,12 +60,14 @@ import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.rand.RandomDistribution;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.TableStatistics;
+import edu.brown.utils.ClassUtil;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.JSONSerializable;
 import edu.brown.utils.JSONUtil;
 import edu.brown.utils.MathUtil;
 import edu.brown.utils.StringBoxUtil;
 import edu.brown.utils.StringUtil;
+import edu.brown.utils.ThreadUtil;
 
 /**
  * Large-Neighborhood Search Partitioner
@@ -151,6 +158,20 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
     private final Set<Table> ignore_tables = new HashSet<Table>();
     private final Set<Procedure> ignore_procs = new HashSet<Procedure>();
 
+    /**
+     * The LNSPartitioners that we use to search multiple relaxed neighborhoods
+     * at the same time. Each one has its own copy of the catalog and cost model.
+     */
+    private final transient List<LNSPartitioner> workers = new ArrayList<LNSPartitioner>();
+    /**
+     * The JSON of the PartitionPlan that is currently applied to each worker's catalog
+     */
+    private final transient List<String> worker_plans = new ArrayList<String>();
+    /**
+     * The best cost found by any worker in the current round (see BranchAndBoundPartitioner.setSharedUpperBound())
+     */
+    private transient AtomicLong shared_bound = null;
+
     /**
      * @param designer
      * @param info
@@ -424,6 +445,9 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
 
         final ListOrderedSet<Table> table_attributes = new ListOrderedSet<Table>();
         final ListOrderedSet<Procedure> proc_attributes = new ListOrderedSet<Procedure>();
+        final int num_searches = this.getLocalSearchCount(hints);
+        if (num_searches > 1)
+            LOG.info(String.format("Searching %d relaxed neighborhoods at a time", num_searches));
 
         while (true) {
             // Found search target
@@ -443,13 +467,20 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
             // at the beginning of a restart (or the start of the search). We do
             // *not* want to
             // compare swaps using the global best cost
-            if (!this.relaxCurrentSolution(hints, this.restart_ctr++, table_attributes, proc_attributes)) {
-                LOG.debug("Halting LNS!");
-                break;
-            }
+            if (num_searches > 1) {
+                if (!this.parallelLocalSearch(hints, num_searches)) {
+                    LOG.debug("Halting LNS!");
+                    break;
+                }
+            } else {
+                if (!this.relaxCurrentSolution(hints, this.restart_ctr++, table_attributes, proc_attributes)) {
+                    LOG.debug("Halting LNS!");
+                    break;
+                }
 
-            // Local Search!
-            this.localSearch(hints, table_attributes.asList(), proc_attributes.asList());
+                // Local Search!
+                this.localSearch(hints, table_attributes.asList(), proc_attributes.asList());
+            }
 
             // Sanity Check!
             if (this.restart_ctr % 3 == 0) {
@@ -803,6 +834,7 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
 
         BranchAndBoundPartitioner local_search = new BranchAndBoundPartitioner(this.designer, this.info, agraph, table_visit_order, proc_visit_order);
         local_search.setUpperBounds(hints, this.best_solution, this.best_cost, (long) (this.best_memory * hints.max_memory_per_partition));
+        local_search.setSharedUpperBound(this.shared_bound);
         // local_search.setTraversalAttributes(key_attributes,
         // table_attributes.size());
 
@@ -815,6 +847,210 @@ public class LNSPartitioner extends AbstractPartitioner implements JSONSerializa
         return (Pair.of(result, local_search.getBestVertex()));
     }
 
+    // ----------------------------------------------------------------------------
+    // PARALLEL LOCAL SEARCH
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of relaxed neighborhoods that we will search at the
+     * same time in each round
+     * 
+     * @param hints
+     * @return
+     */
+    protected int getLocalSearchCount(final DesignerHints hints) {
+        if (hints.local_search_threads <= 1)
+            return (1);
+        // We can't compare PartitionPlans from different catalogs with the target
+        if (hints.target_plan != null) {
+            LOG.warn("Disabling parallel local search because a target PartitionPlan was given");
+            return (1);
+        }
+        return (hints.local_search_threads);
+    }
+
+    /**
+     * Relax multiple neighborhoods around the current best solution and then
+     * search all of them at the same time. Each search is executed by a worker
+     * LNSPartitioner on its own copy of the catalog. The workers share the cost
+     * of the best solution that any of them have found so far so that they can
+     * prune each other's search trees.
+     * 
+     * @param hints
+     * @param num_searches
+     * @return false if there are no more neighborhoods to search
+     * @throws Exception
+     */
+    protected boolean parallelLocalSearch(final DesignerHints hints, int num_searches) throws Exception {
+        // Pick a different relaxed neighborhood for each worker
+        final List<Collection<Table>> neighborhood_tables = new ArrayList<Collection<Table>>();
+        final List<Collection<Procedure>> neighborhood_procs = new ArrayList<Collection<Procedure>>();
+        for (int i = 0; i < num_searches; i++) {
+            ListOrderedSet<Table> table_attributes = new ListOrderedSet<Table>();
+            ListOrderedSet<Procedure> proc_attributes = new ListOrderedSet<Procedure>();
+            if (!this.relaxCurrentSolution(hints, this.restart_ctr++, table_attributes, proc_attributes)) {
+                break;
+            }
+            neighborhood_tables.add(table_attributes.asList());
+            neighborhood_procs.add(proc_attributes.asList());
+        } // FOR
+        final int num_neighborhoods = neighborhood_tables.size();
+        if (num_neighborhoods == 0)
+            return (false);
+        this.initWorkers(hints, num_neighborhoods);
+
+        // Start every worker from the current best solution
+        this.shared_bound = new AtomicLong(Double.doubleToLongBits(this.best_cost));
+        final String best_json = this.best_solution.toJSONString();
+        final DesignerHints worker_hints[] = new DesignerHints[num_neighborhoods];
+        final Throwable errors[] = new Throwable[num_neighborhoods];
+        List<Runnable> runnables = new ArrayList<Runnable>();
+        for (int i = 0; i < num_neighborhoods; i++) {
+            final int idx = i;
+            final LNSPartitioner worker = this.workers.get(idx);
+            final Database worker_db = worker.info.catalogContext.database;
+            final List<Table> table_attributes = new ArrayList<Table>();
+            for (Table catalog_tbl : neighborhood_tables.get(idx)) {
+                table_attributes.add(worker_db.getTables().get(catalog_tbl.getName()));
+            } // FOR
+            final List<Procedure> proc_attributes = new ArrayList<Procedure>();
+            for (Procedure catalog_proc : neighborhood_procs.get(idx)) {
+                proc_attributes.add(worker_db.getProcedures().get(catalog_proc.getName()));
+            } // FOR
+
+            worker_hints[idx] = hints.clone();
+            worker.best_solution = LNSPartitioner.copyPartitionPlan(best_json, worker_db);
+            worker.best_cost = this.best_cost;
+            worker.best_memory = this.best_memory;
+            worker.last_halt_reason = this.last_halt_reason;
+            worker.last_backtrack_limit = this.last_backtrack_limit;
+            worker.last_localtime_limit = this.last_localtime_limit;
+            worker.shared_bound = this.shared_bound;
+
+            // The worker's cost model cache is only valid if it still has the same solution
+            if (best_json.equals(this.worker_plans.get(idx)) == false) {
+                worker.best_solution.apply(worker_db);
+                worker.costmodel.clear(true);
+            }
+            for (Table catalog_tbl : table_attributes) {
+                worker.costmodel.invalidateCache(catalog_tbl);
+            } // FOR
+
+            runnables.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        worker.localSearch(worker_hints[idx], table_attributes, proc_attributes);
+                    } catch (Throwable ex) {
+                        errors[idx] = ex;
+                    }
+                }
+            });
+        } // FOR
+        ThreadUtil.runNewPool(runnables, num_neighborhoods);
+        this.shared_bound = null;
+        for (int i = 0; i < num_neighborhoods; i++) {
+            if (errors[i] != null)
+                throw new Exception("Failed to execute local search in worker #" + i, errors[i]);
+            this.worker_plans.set(i, this.workers.get(i).best_solution.toJSONString());
+        } // FOR
+
+        // Figure out which worker found the best solution (if any)
+        int best_idx = -1;
+        for (int i = 0; i < num_neighborhoods; i++) {
+            LNSPartitioner worker = this.workers.get(i);
+            if (worker.best_cost < this.best_cost && (best_idx < 0 || worker.best_cost < this.workers.get(best_idx).best_cost)) {
+                best_idx = i;
+            }
+        } // FOR
+
+        // The search limits for the next round come from the best worker, or the
+        // last one if nobody found anything better
+        int last_idx = (best_idx >= 0 ? best_idx : num_neighborhoods - 1);
+        LNSPartitioner last = this.workers.get(last_idx);
+        this.last_halt_reason = last.last_halt_reason;
+        this.last_backtrack_count = last.last_backtrack_count;
+        this.last_backtrack_limit = last.last_backtrack_limit;
+        this.last_localtime_limit = last.last_localtime_limit;
+        this.last_elapsed_time = last.last_elapsed_time;
+        hints.limit_back_tracks = worker_hints[last_idx].limit_back_tracks;
+        hints.limit_local_time = worker_hints[last_idx].limit_local_time;
+
+        if (best_idx >= 0) {
+            LOG.info(String.format("New Best Solution Found from Local Search Worker #%d!", best_idx));
+            this.best_solution = LNSPartitioner.copyPartitionPlan(this.worker_plans.get(best_idx), info.catalogContext.database);
+            this.best_cost = last.best_cost;
+            this.best_memory = last.best_memory;
+            LOG.info("Best Solution Cost: " + String.format(DEBUG_COST_FORMAT, this.best_cost));
+            LOG.info("Best Solution Memory: " + String.format(DEBUG_COST_FORMAT, this.best_memory));
+            LOG.info("Best Solution:\n" + this.best_solution);
+        }
+        this.best_solution.apply(info.catalogContext.database);
+        return (true);
+    }
+
+    /**
+     * Make sure that we have at least the given number of workers for
+     * parallelLocalSearch(). Each worker gets its own copy of the catalog and
+     * everything that references it (DesignerInfo, Designer, AccessGraphs, cost model)
+     * 
+     * @param hints
+     * @param num_workers
+     * @throws Exception
+     */
+    private void initWorkers(final DesignerHints hints, int num_workers) throws Exception {
+        while (this.workers.size() < num_workers) {
+            Database clone_db = CatalogCloner.cloneDatabase(info.catalogContext.database);
+            CatalogContext clone_catalogContext = new CatalogContext(clone_db.getCatalog());
+            DesignerInfo clone_info = new DesignerInfo(info, clone_catalogContext);
+            clone_info.setCostModel(this.createCostModel(hints, clone_catalogContext));
+            ParameterMappingsSet clone_mappings = new ParameterMappingsSet();
+            clone_mappings.load(info.getMappingsFile(), clone_db);
+            clone_info.setMappings(clone_mappings);
+
+            Designer clone_designer = new Designer(clone_info, hints, info.getArgs());
+            LNSPartitioner worker = new LNSPartitioner(clone_designer, clone_info);
+            worker.init(hints);
+            this.workers.add(worker);
+            this.worker_plans.add(null);
+            if (debug.get())
+                LOG.debug(String.format("Initialized local search worker #%d", this.workers.size() - 1));
+        } // WHILE
+    }
+
+    /**
+     * Create a new cost model of the same type as ours for the given catalog
+     * 
+     * @param hints
+     * @param catalogContext
+     * @return
+     */
+    private AbstractCostModel createCostModel(final DesignerHints hints, CatalogContext catalogContext) {
+        AbstractCostModel cost_model = null;
+        if (this.costmodel instanceof TimeIntervalCostModel<?>) {
+            int num_intervals = ((TimeIntervalCostModel<?>) this.costmodel).getIntevalCount();
+            cost_model = new TimeIntervalCostModel<SingleSitedCostModel>(catalogContext, SingleSitedCostModel.class, num_intervals);
+        } else {
+            cost_model = ClassUtil.newInstance(this.costmodel.getClass(), new Object[] { catalogContext }, new Class<?>[] { CatalogContext.class });
+        }
+        cost_model.applyDesignerHints(hints);
+        return (cost_model);
+    }
+
+    /**
+     * Deserialize a PartitionPlan for a different copy of the catalog
+     * 
+     * @param json
+     * @param catalog_db
+     * @return
+     * @throws JSONException
+     */
+    private static PartitionPlan copyPartitionPlan(String json, Database catalog_db) throws JSONException {
+        PartitionPlan pplan = new PartitionPlan();
+        pplan.fromJSON(new JSONObject(json), catalog_db);
+        return (pplan);
+    }
+
     /**
      * @param hints
      * @return
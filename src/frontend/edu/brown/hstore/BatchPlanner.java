@@ -57,6 +57,7 @@ import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.plannodes.PlanNodeUtil;
 import edu.brown.profilers.BatchPlannerProfiler;
 import edu.brown.profilers.ProfileMeasurement;
+import edu.brown.statistics.FastIntHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.PartitionSet;
@@ -641,7 +642,7 @@ public class BatchPlanner implements Loggable {
 
         // Only maintain the histogram of what partitions were touched if we
         // know that we're going to throw a MispredictionException
-        Histogram<Integer> mispredict_h = null;
+        FastIntHistogram mispredict_h = null;
         boolean mispredict = false;
 
         for (int stmt_index = 0; stmt_index < this.batchSize; stmt_index++) {
@@ -836,7 +837,7 @@ public class BatchPlanner implements Loggable {
                 // partitions from the previous queries
                 int start_idx = stmt_index;
                 if (mispredict_h == null) {
-                    mispredict_h = new Histogram<Integer>();
+                    mispredict_h = new FastIntHistogram(this.num_partitions);
                     start_idx = 0;
                 }
                 for (int i = start_idx; i <= stmt_index; i++) {
@@ -53,6 +53,7 @@ import edu.brown.utils.ClassUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.StringBoxUtil;
 import edu.brown.utils.ThreadUtil;
+import edu.brown.workload.SampledWorkloadTrace;
 import edu.brown.workload.Workload;
 
 /**
@@ -246,7 +247,7 @@ public abstract class HStore {
         // ----------------------------------------------------------------------------
         if (args.hasParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT)) {
             ProcedureProfiler.profilingLevel = ProcedureProfiler.Level.INTRUSIVE;
-            String traceClass = Workload.class.getName();
+            String traceClass = (hstore_conf.site.trace_binary ? SampledWorkloadTrace.class : Workload.class).getName();
             String tracePath = args.getParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT) + "-" + site_id;
             String traceIgnore = args.getParam(ArgumentsParser.PARAM_WORKLOAD_PROC_EXCLUDE);
             ProcedureProfiler.initializeWorkloadTrace(args.catalog, traceClass, tracePath, traceIgnore);
@@ -52,6 +52,7 @@ public abstract class HStoreConstants {
     public static final String THREAD_NAME_ANTICACHE = "anticache";
     public static final String THREAD_NAME_LOGGING = "logging";
     public static final String THREAD_NAME_MAPREDUCE = "mr";
+    public static final String THREAD_NAME_MARKOV = "markov";
     public static final String THREAD_NAME_DEBUGSTATUS = "status";
     
     // ----------------------------------------------------------------------------
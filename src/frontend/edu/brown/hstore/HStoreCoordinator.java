@@ -1,5 +1,7 @@
 package edu.brown.hstore;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -85,10 +87,13 @@ import edu.brown.interfaces.Loggable;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.HStoreSiteProfiler;
 import edu.brown.protorpc.NIOEventLoop;
 import edu.brown.protorpc.ProtoRpcChannel;
 import edu.brown.protorpc.ProtoRpcController;
 import edu.brown.protorpc.ProtoServer;
+import edu.brown.protorpc.SharedMemoryChannel;
+import edu.brown.protorpc.SharedMemoryServer;
 import edu.brown.utils.EventObservable;
 import edu.brown.utils.PartitionSet;
 import edu.brown.utils.StringUtil;
@@ -124,6 +129,13 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
     private final ProtoServer listener;
     private final HStoreService remoteService;
     private final NIOEventLoop eventLoop = new NIOEventLoop();
+    
+    /**
+     * Sends and receives messages with the other sites on the same host through shared memory.
+     * This will be null if ${site.network_shm_transport} is disabled or we are the only site on this host.
+     */
+    private final SharedMemoryServer shmServer;
+    private Thread shmThread;
     private final TransactionPrefetchCallback transactionPrefetch_callback;
     
     private final TransactionInitHandler transactionInit_handler;
@@ -211,6 +223,13 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
         // This listener thread will process incoming messages
         this.listener = new ProtoServer(this.eventLoop);
         
+        // Shared memory for other sites on the same host
+        if (hstore_conf.site.network_shm_transport && getLocalCoordinators(this.catalog_site).isEmpty() == false) {
+            this.shmServer = new SharedMemoryServer(this.eventLoop, hstore_conf.site.network_shm_ring_size * 1024 * 1024);
+        } else {
+            this.shmServer = null;
+        }
+        
         // Special dispatcher threads to handle incoming requests
         // These are used so that we can process messages in a different thread than the main HStoreCoordinator thread
         
@@ -293,6 +312,13 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
         
         if (d) LOG.debug("Initializing connections");
         this.initConnections();
+        
+        if (this.shmServer != null) {
+            if (d) LOG.debug("Starting shared memory thread");
+            this.shmThread = new Thread(this.shmServer, HStoreThreadManager.getThreadName(this.hstore_site, "coord", "shm"));
+            this.shmThread.setDaemon(true);
+            this.shmThread.start();
+        }
 
         for (Thread t : this.dispatcherThreads) {
             if (d) LOG.debug("Starting dispatcher thread: " + t.getName());
@@ -367,6 +393,7 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
         } finally {
             if (t) LOG.trace("Closing listener socket for Site #" + this.getLocalSiteId());
             this.listener.close();
+            if (this.shmServer != null) this.shmServer.close();
         }
     }
     
@@ -408,11 +435,22 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
     public EventObservable<HStoreCoordinator> getReadyObservable() {
         return (this.ready_observable);
     }
+    /**
+     * Returns the SharedMemoryServer for the other sites on this host.
+     * This will be null if ${site.network_shm_transport} is disabled.
+     */
+    public SharedMemoryServer getSharedMemoryServer() {
+        return (this.shmServer);
+    }
     
     public TransactionInitHandler getTransactionInitHandler() {
         return (this.transactionInit_handler);
     }
     
+    public TransactionPrepareHandler getTransactionPrepareHandler() {
+        return (this.transactionPrepare_handler);
+    }
+    
     public TransactionFinishHandler getTransactionFinishHandler() {
         return (this.transactionFinish_handler);
     }
@@ -427,6 +465,13 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
         // Initialize inbound channel
         Integer local_port = this.catalog_site.getMessenger_port();
         assert(local_port != null);
+        
+        // The other sites on this host only open the rings that we create after they
+        // have connected to our listener, so we have to set them up before we bind
+        if (this.shmServer != null) {
+            this.initSharedMemoryRings();
+        }
+        
         if (d) LOG.debug("Binding listener to port " + local_port + " for Site #" + this.catalog_site.getId());
         this.listener.register(this.remoteService);
         this.listener.bind(local_port);
@@ -469,15 +514,78 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
                 throw new RuntimeException(error);
             }
             assert channels.length == destinations.size();
+            HStoreSiteProfiler profiler = hstore_site.getProfiler();
+            ProtoRpcChannel network_channels[] = new ProtoRpcChannel[this.channels.length];
             for (int i = 0; i < channels.length; i++) {
                 Pair<Integer, InetSocketAddress> p = destinations.get(i);
+                if (hstore_conf.site.network_rpc_coalescing) {
+                    channels[i].setCoalescing(true);
+                    if (profiler != null) {
+                        channels[i].setProfiler(profiler.network_rpc_flush, profiler.network_rpc_batch_sizes);
+                    }
+                }
                 this.channels[p.getFirst()] = HStoreService.newStub(channels[i]);
+                network_channels[p.getFirst()] = channels[i];
             } // FOR
             
+            // Replace the network connections to the sites on this host
+            if (this.shmServer != null) {
+                this.initSharedMemoryChannels(network_channels);
+            }
+            
             if (d) LOG.debug("Site #" + this.getLocalSiteId() + " is fully connected to all sites");
         }
     }
     
+    /**
+     * Create the rings that the other sites on this host will use to send
+     * messages to us. If we can't, then we will just use the network. 
+     */
+    private void initSharedMemoryRings() {
+        this.shmServer.register(this.remoteService);
+        for (Site remote_site : getLocalCoordinators(this.catalog_site)) {
+            File file = getSharedMemoryFile(hstore_conf, remote_site, this.catalog_site);
+            try {
+                this.shmServer.createIncoming(remote_site.getId(), file);
+            } catch (IOException ex) {
+                LOG.warn(String.format("Failed to create shared memory ring '%s' for %s. " +
+                                       "Messages from that site will go over the network.",
+                                       file, HStoreThreadManager.formatSiteName(remote_site.getId())), ex);
+            }
+        } // FOR
+    }
+    
+    /**
+     * Open the rings that the other sites on this host created for us. This can only
+     * be called after we have connected to their listeners. If a site did not create
+     * a ring for us, then we will keep sending it messages over the network. Messages
+     * that do not fit in a ring also go over the network connection.
+     * @param network_channels SiteId -> ProtoRpcChannel
+     */
+    private void initSharedMemoryChannels(ProtoRpcChannel network_channels[]) {
+        for (Site remote_site : getLocalCoordinators(this.catalog_site)) {
+            int remote_id = remote_site.getId();
+            File file = getSharedMemoryFile(hstore_conf, this.catalog_site, remote_site);
+            // We need our own ring to get the responses back
+            if (this.shmServer.hasIncoming(remote_id) == false) continue;
+            if (file.exists() == false) {
+                LOG.warn(String.format("Shared memory ring '%s' for %s does not exist. " +
+                                       "Messages to that site will go over the network.",
+                                       file, HStoreThreadManager.formatSiteName(remote_id)));
+                continue;
+            }
+            SharedMemoryChannel channel = null;
+            try {
+                channel = this.shmServer.connect(remote_id, file, network_channels[remote_id]);
+            } catch (Exception ex) {
+                throw new ServerFaultException("Failed to open shared memory ring " + file, ex);
+            }
+            this.channels[remote_id] = HStoreService.newStub(channel);
+            if (d) LOG.debug(String.format("Using shared memory ring %s for %s",
+                             file, HStoreThreadManager.formatSiteName(remote_id)));
+        } // FOR
+    }
+    
     protected void initCluster() {
         long instanceId = EstTime.currentTimeMillis();
         hstore_site.setInstanceId(instanceId);
@@ -1278,6 +1386,37 @@ public class HStoreCoordinator implements Shutdownable, Loggable {
         return (m);
     }
 
+    /**
+     * Returns the other sites that are on the same host as the given site
+     * @param catalog_site
+     * @return
+     */
+    public static List<Site> getLocalCoordinators(Site catalog_site) {
+        List<Site> sites = new ArrayList<Site>();
+        Database catalog_db = CatalogUtil.getDatabase(catalog_site);
+        Set<Site> host_sites = CatalogUtil.getSitesPerHost(catalog_db).get(catalog_site.getHost());
+        if (host_sites != null) {
+            for (Site remote_site : host_sites) {
+                if (remote_site.getId() != catalog_site.getId()) sites.add(remote_site);
+            } // FOR
+        }
+        return (sites);
+    }
+    
+    /**
+     * Returns the file for the shared memory ring that the sender site writes to and the
+     * receiver site reads from. The messenger ports are unique on a host, so two
+     * clusters on the same machine will not clobber each other's rings.
+     * @param hstore_conf
+     * @param sender
+     * @param receiver
+     * @return
+     */
+    public static File getSharedMemoryFile(HStoreConf hstore_conf, Site sender, Site receiver) {
+        String name = String.format("hstore-%d-%d.ring", sender.getMessenger_port(), receiver.getMessenger_port());
+        return (new File(hstore_conf.site.network_shm_dir, name));
+    }
+
     /**
      * Returns an HStoreService handle that is connected to the given site
      * This should not be called directly.
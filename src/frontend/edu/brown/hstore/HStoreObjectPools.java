@@ -7,8 +7,10 @@ import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
+import org.voltdb.ClientResponseImpl;
 import org.voltdb.catalog.Procedure;
 
+import edu.brown.hstore.callbacks.ClientResponseCallback;
 import edu.brown.hstore.callbacks.TransactionRedirectCallback;
 import edu.brown.hstore.callbacks.TransactionRedirectResponseCallback;
 import edu.brown.hstore.conf.HStoreConf;
@@ -43,6 +45,22 @@ public final class HStoreObjectPools implements Configurable {
      */
     public final TypedObjectPool<TransactionRedirectResponseCallback> CALLBACKS_TXN_REDIRECT_RESPONSE;
     
+    /**
+     * ClientResponseCallback Pool
+     */
+    public final TypedObjectPool<ClientResponseCallback> CALLBACKS_CLIENT_RESPONSE;
+    
+    // ----------------------------------------------------------------------------
+    // CLIENT RESPONSES
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * ClientResponseImpl Pool
+     * These are given back by ClientResponseCallback once they have been
+     * serialized out to the client's connection.
+     */
+    public final TypedObjectPool<ClientResponseImpl> CLIENT_RESPONSES;
+    
     // ----------------------------------------------------------------------------
     // INTERNAL STATE OBJECTS
     // ----------------------------------------------------------------------------
@@ -94,6 +112,12 @@ public final class HStoreObjectPools implements Configurable {
         this.CALLBACKS_TXN_REDIRECT_RESPONSE = TypedObjectPool.factory(TransactionRedirectResponseCallback.class,
                 (int)(hstore_conf.site.pool_txnredirectresponses_idle * hstore_conf.site.pool_scale_factor),
                 hstore_conf.site.pool_profiling, hstore_site);
+        this.CALLBACKS_CLIENT_RESPONSE = TypedObjectPool.factory(ClientResponseCallback.class,
+                (int)(hstore_conf.site.pool_clientresponsecallbacks_idle * hstore_conf.site.pool_scale_factor),
+                hstore_conf.site.pool_profiling, hstore_site);
+        this.CLIENT_RESPONSES = TypedObjectPool.factory(ClientResponseImpl.class,
+                (int)(hstore_conf.site.pool_clientresponses_idle * hstore_conf.site.pool_scale_factor),
+                hstore_conf.site.pool_profiling);
 
         // -------------------------------
         // LOCAL PARTITION POOLS
@@ -194,6 +218,17 @@ public final class HStoreObjectPools implements Configurable {
         } // FOR
     }
     
+    /**
+     * Get a ClientResponseImpl out of the global pool
+     */
+    public ClientResponseImpl getClientResponse() {
+        try {
+            return (this.CLIENT_RESPONSES.borrowObject());
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to get " + ClientResponseImpl.class.getSimpleName(), ex);
+        }
+    }
+    
     public TypedObjectPool<LocalTransaction> getLocalTransactionPool(int partition) {
         int offset = this.hstore_site.getLocalPartitionOffset(partition);
         assert(offset != HStoreConstants.NULL_PARTITION_ID && this.STATES_TXN_LOCAL[offset] != null) :
@@ -95,6 +95,7 @@ import edu.brown.hstore.callbacks.TransactionRedirectCallback;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.estimators.TransactionEstimator;
+import edu.brown.hstore.estimators.markov.MarkovModelTrainer;
 import edu.brown.hstore.estimators.remote.RemoteEstimator;
 import edu.brown.hstore.estimators.remote.RemoteEstimatorState;
 import edu.brown.hstore.stats.MarkovEstimatorProfilerStats;
@@ -314,6 +315,12 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     private boolean mr_helper_started = false;
     private final MapReduceHelperThread mr_helper;
     
+    /**
+     * MarkovModelTrainer
+     * Updates the MarkovGraphs used by our PartitionExecutors in the background
+     */
+    private final MarkovModelTrainer markovTrainer;
+    
     /**
      * Transaction Command Logger (WAL)
      */
@@ -528,6 +535,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             this.mr_helper = null;
         }
         
+        // Markov model background training thread
+        if (hstore_conf.site.markov_enable && hstore_conf.site.markov_background_training) {
+            this.markovTrainer = new MarkovModelTrainer(this);
+        } else {
+            this.markovTrainer = null;
+        }
+        
         // Separate TransactionIdManager per partition
         if (hstore_conf.site.txn_partition_id_managers) {
             this.txnIdManagers = new TransactionIdManager[num_partitions];
@@ -717,6 +731,8 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         this.clientInterface.updateConf(hstore_conf);
         this.objectPools.updateConf(hstore_conf);
         this.txnQueueManager.updateConf(hstore_conf);
+        this.txnInitializer.updateConf(hstore_conf);
+        if (this.commandLogger != null) this.commandLogger.updateConf(hstore_conf);
     }
     
     // ----------------------------------------------------------------------------
@@ -860,6 +876,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         return (this.mr_helper);
     }
     
+    /**
+     * Get the MarkovModelTrainer for this site. 
+     * Will be null if background training is disabled.
+     */
+    public MarkovModelTrainer getMarkovModelTrainer() {
+        return (this.markovTrainer);
+    }
+    
     // ----------------------------------------------------------------------------
     // UTILITY METHODS
     // ----------------------------------------------------------------------------
@@ -1106,6 +1130,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         t.setUncaughtExceptionHandler(this.exceptionHandler);
         t.start();
         
+        // Start MarkovModelTrainer
+        if (this.markovTrainer != null) {
+            t = new Thread(this.markovTrainer);
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler(this.exceptionHandler);
+            t.start();
+        }
+        
         // Initialize Status Monitor
         assert(hstore_conf.site.status_interval >= 0);
         this.status_monitor = new HStoreSiteStatus(this, hstore_conf);
@@ -1354,6 +1386,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         if (this.mr_helper != null) {
             this.mr_helper.prepareShutdown(error);
         }
+        if (this.markovTrainer != null) {
+            this.markovTrainer.prepareShutdown(error);
+        }
         if (this.commandLogger != null) {
             this.commandLogger.prepareShutdown(error);
         }
@@ -1429,6 +1464,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         if (this.mr_helper_started && this.mr_helper != null) {
             this.mr_helper.shutdown();
         }
+        if (this.markovTrainer != null) {
+            this.markovTrainer.shutdown();
+        }
         if (this.commandLogger != null) {
             this.commandLogger.shutdown();
         }
@@ -1495,7 +1533,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     
     protected void invocationQueue(ByteBuffer buffer, ClientInputHandler handler, Connection c) {
         int messageSize = buffer.capacity();
-        RpcCallback<ClientResponseImpl> callback = new ClientResponseCallback(this.clientInterface, c, messageSize);
+        ClientResponseCallback responseCallback = null;
+        try {
+            responseCallback = this.objectPools.CALLBACKS_CLIENT_RESPONSE.borrowObject();
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to get " + ClientResponseCallback.class.getSimpleName(), ex);
+        }
+        responseCallback.init(this.clientInterface, c, messageSize);
+        RpcCallback<ClientResponseImpl> callback = responseCallback;
         this.clientInterface.increaseBackpressure(messageSize);
         
         if (this.preProcessorQueue != null) {
@@ -1732,13 +1777,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         // TODO: Execute as a regular sysproc transaction
         // -------------------------------
         if (catalog_proc.getName().equals("@Shutdown")) {
-            ClientResponseImpl cresponse = new ClientResponseImpl(
-                    -1,
-                    client_handle,
-                    -1,
-                    Status.OK,
-                    HStoreConstants.EMPTY_RESULT,
-                    "");
+            ClientResponseImpl cresponse = this.objectPools.getClientResponse();
+            cresponse.init(-1,
+                           client_handle,
+                           -1,
+                           Status.OK,
+                           HStoreConstants.EMPTY_RESULT,
+                           "");
             this.responseSend(cresponse, clientCallback, EstTime.currentTimeMillis(), 0);
 
             // Non-blocking....
@@ -1766,13 +1811,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                 RingBufferAppender appender = RingBufferAppender.getRingBufferAppender(LOG);
                 if (appender != null) appender.dump(System.err);
             }
-            ClientResponseImpl cresponse = new ClientResponseImpl(
-                    -1,
-                    client_handle,
-                    -1,
-                    Status.OK,
-                    HStoreConstants.EMPTY_RESULT,
-                    "");
+            ClientResponseImpl cresponse = this.objectPools.getClientResponse();
+            cresponse.init(-1,
+                           client_handle,
+                           -1,
+                           Status.OK,
+                           HStoreConstants.EMPTY_RESULT,
+                           "");
             this.responseSend(cresponse, clientCallback, EstTime.currentTimeMillis(), 0);
             return (true);
         }
@@ -2125,7 +2170,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         String msg = this.REJECTION_MESSAGE + " - [0]";
         ts.setStatus(status);
-        ClientResponseImpl cresponse = new ClientResponseImpl();
+        ClientResponseImpl cresponse = this.objectPools.getClientResponse();
         cresponse.init(ts, status, HStoreConstants.EMPTY_RESULT, msg);
         this.responseSend(ts, cresponse);
 
@@ -2466,13 +2511,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                               String message,
                               RpcCallback<ClientResponseImpl> clientCallback,
                               long initiateTime) {
-        ClientResponseImpl cresponse = new ClientResponseImpl(
-                                            -1,
-                                            client_handle,
-                                            -1,
-                                            status,
-                                            HStoreConstants.EMPTY_RESULT,
-                                            message);
+        ClientResponseImpl cresponse = this.objectPools.getClientResponse();
+        cresponse.init(-1,
+                       client_handle,
+                       -1,
+                       status,
+                       HStoreConstants.EMPTY_RESULT,
+                       message);
         this.responseSend(cresponse, clientCallback, initiateTime, 0);
     }
     
@@ -2861,13 +2906,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                 if (d)
                     LOG.error("Unexpected AsyncCompiler Error:\n" + result.errorMsg);
                 
-                ClientResponseImpl errorResponse =
-                        new ClientResponseImpl(-1,
-                                               result.clientHandle,
-                                               this.local_partition_reverse[0],
-                                               Status.ABORT_UNEXPECTED,
-                                               HStoreConstants.EMPTY_RESULT,
-                                               result.errorMsg);
+                ClientResponseImpl errorResponse = this.objectPools.getClientResponse();
+                errorResponse.init(-1,
+                                   result.clientHandle,
+                                   this.local_partition_reverse[0],
+                                   Status.ABORT_UNEXPECTED,
+                                   HStoreConstants.EMPTY_RESULT,
+                                   result.errorMsg);
                 this.responseSend(result.ts, errorResponse);
                 
                 // We can just delete the LocalTransaction handle directly
@@ -2888,7 +2933,8 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                     plannedStmt.aggregatorFragment,
                     plannedStmt.collectorFragment,
                     plannedStmt.sql,
-                    plannedStmt.isReplicatedTableDML ? 1 : 0
+                    plannedStmt.isReplicatedTableDML ? 1 : 0,
+                    plannedStmt.getEncodedParameters()
                 );
 
                 // initiate the transaction
@@ -63,7 +63,7 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
     // STATIC CONFIGURATION
     // ----------------------------------------------------------------------------
     
-    private static final String POOL_FORMAT = "Active:%-5d / Idle:%-5d / Created:%-5d / Destroyed:%-5d / Passivated:%-7d";
+    private static final String POOL_FORMAT = "Active:%-5d / Idle:%-5d / Borrowed:%-7d / Created:%-5d / Destroyed:%-5d / Passivated:%-7d";
 
     private static final Set<TransactionCounter> TXNINFO_COL_DELIMITERS = new HashSet<TransactionCounter>();
     private static final Set<TransactionCounter> TXNINFO_ALWAYS_SHOW = new HashSet<TransactionCounter>();
@@ -106,6 +106,13 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
     private ProfileMeasurement lastNetworkIdle = null;
     private ProfileMeasurement lastNetworkProcessing = null;
     
+    /**
+     * The number of pool objects created and txns started
+     * as of the last status snapshot
+     */
+    private int lastPoolCreated = 0;
+    private int lastPoolTxns = 0;
+    
     /**
      * The profiling information for each PartitionExecutor since
      * the last status snapshot 
@@ -593,6 +600,11 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
                 incoming.enablePercentages();
                 m_exec.put("Incoming Txns\nBase Partitions", incoming.toString(50, 10) + "\n");
             }
+            Histogram<Integer> batches = siteDebug.getProfiler().network_rpc_batch_sizes;
+            if (batches.isEmpty() == false) {
+                batches.enablePercentages();
+                m_exec.put("Outbound RPCs\nBatch Sizes", batches.toString(50, 10) + "\n");
+            }
         }
         if (invokedTxns.isEmpty() == false) {
             invokedTxns.setDebugLabels(partitionLabels);
@@ -996,10 +1008,13 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
         // pools.put("EstimationStates", (TypedObjectPool<?>)MarkovEstimator.POOL_STATES);
         
         final Map<String, Object> m_pool = new LinkedHashMap<String, Object>();
+        int all_created = 0;
+        int num_txns = 0;
         for (String key : pools.keySet()) {
             pool = pools.get(key);
             if (pool == null) continue;
             factory = (TypedPoolableObjectFactory<?>)pool.getFactory();
+            all_created += factory.getCreatedCount();
             if (factory.getCreatedCount() > 0) m_pool.put(key, this.formatPoolCounts(pool, factory));
         } // FOR
 
@@ -1014,6 +1029,7 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
         HStoreObjectPools objPool = hstore_site.getObjectPools();
         for (int i = 0, cnt = labels.length; i < cnt; i++) {
             int total_active = 0;
+            int total_borrowed = 0;
             int total_idle = 0;
             int total_created = 0;
             int total_passivated = 0;
@@ -1046,19 +1062,32 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
                 factory = (TypedPoolableObjectFactory<?>)pool.getFactory();
             
                 total_active += pool.getNumActive();
+                total_borrowed += factory.getBorrowedCount();
                 total_idle += pool.getNumIdle(); 
                 total_created += factory.getCreatedCount();
                 total_passivated += factory.getPassivatedCount();
                 total_destroyed += factory.getDestroyedCount();
             } // FOR (partitions)
             if (found == false) continue;
+            if (i == 0) num_txns = total_borrowed;
+            all_created += total_created;
             m_pool.put(labels[i], String.format(POOL_FORMAT, total_active,
                                                              total_idle,
+                                                             total_borrowed,
                                                              total_created,
                                                              total_destroyed,
                                                              total_passivated));
         } // FOR
         
+        // How many new objects did we have to allocate for each txn since the last snapshot
+        // This should go to zero once the pools are warmed up
+        int delta_txns = num_txns - this.lastPoolTxns;
+        if (delta_txns > 0) {
+            m_pool.put("Created per Txn", String.format("%.3f", (all_created - this.lastPoolCreated) / (double)delta_txns));
+        }
+        this.lastPoolCreated = all_created;
+        this.lastPoolTxns = num_txns;
+        
         return (m_pool);
     }
     
@@ -1068,6 +1097,7 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
     private String formatPoolCounts(TypedObjectPool<?> pool, TypedPoolableObjectFactory<?> factory) {
         return (String.format(POOL_FORMAT, pool.getNumActive(),
                                            pool.getNumIdle(),
+                                           factory.getBorrowedCount(),
                                            factory.getCreatedCount(),
                                            factory.getDestroyedCount(),
                                            factory.getPassivatedCount()));
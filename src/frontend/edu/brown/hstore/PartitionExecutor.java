@@ -49,6 +49,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -107,6 +108,7 @@ import org.voltdb.utils.Encoder;
 import org.voltdb.utils.EstTime;
 import org.voltdb.utils.EstTimeUpdater;
 import org.voltdb.utils.Pair;
+import org.voltdb.utils.VoltTableUtil;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.RpcCallback;
@@ -131,6 +133,7 @@ import edu.brown.hstore.estimators.Estimate;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.estimators.EstimatorUtil;
 import edu.brown.hstore.estimators.TransactionEstimator;
+import edu.brown.hstore.estimators.markov.MarkovEstimator;
 import edu.brown.hstore.internal.DeferredQueryMessage;
 import edu.brown.hstore.internal.FinishTxnMessage;
 import edu.brown.hstore.internal.InitializeRequestMessage;
@@ -144,6 +147,7 @@ import edu.brown.hstore.internal.TableStatsRequestMessage;
 import edu.brown.hstore.internal.WorkFragmentMessage;
 import edu.brown.hstore.specexec.AbstractConflictChecker;
 import edu.brown.hstore.specexec.MarkovConflictChecker;
+import edu.brown.hstore.specexec.RowConflictChecker;
 import edu.brown.hstore.specexec.TableConflictChecker;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.ExecutionState;
@@ -153,6 +157,7 @@ import edu.brown.hstore.txns.RemoteTransaction;
 import edu.brown.hstore.util.ArrayCache.IntArrayCache;
 import edu.brown.hstore.util.ArrayCache.LongArrayCache;
 import edu.brown.hstore.util.ParameterSetArrayCache;
+import edu.brown.hstore.util.ProcedureResultCache;
 import edu.brown.hstore.util.QueryCache;
 import edu.brown.hstore.util.TransactionCounter;
 import edu.brown.hstore.util.TransactionWorkRequestBuilder;
@@ -164,6 +169,7 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.markov.EstimationThresholds;
 import edu.brown.profilers.PartitionExecutorProfiler;
+import edu.brown.profilers.ProfileSampler;
 import edu.brown.utils.ClassUtil;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.EventObservable;
@@ -410,6 +416,12 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
      */
     private final QueryCache queryCache = new QueryCache(10, 10); // FIXME
     
+    /**
+     * Cached output of read-only single-partition procedures
+     * This will be null if ${site.exec_result_cache} is disabled
+     */
+    private ProcedureResultCache resultCache;
+    
     // ----------------------------------------------------------------------------
     // SHARED VOLTPROCEDURE DATA MEMBERS
     // ----------------------------------------------------------------------------
@@ -497,6 +509,19 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
     
     private final PartitionExecutorProfiler profiler = new PartitionExecutorProfiler();
     
+    /**
+     * Decides which iterations of the run loop we will record measurements for.
+     * See ${site.profiling_sample_rate}
+     */
+    private final ProfileSampler profilerSampler;
+    
+    /**
+     * Whether we are recording measurements for the current iteration of the run loop.
+     * The measurements are always stopped whenever ${site.exec_profiling} is enabled
+     * because they may have been started in a previous iteration.
+     */
+    private boolean profiling = false;
+    
     // ----------------------------------------------------------------------------
     // CALLBACKS
     // ----------------------------------------------------------------------------
@@ -607,6 +632,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
         this.siteId = 0;
         this.partitionId = 0;
         this.tmp_transactionRequestBuilders = null;
+        this.profilerSampler = null;
     }
 
     /**
@@ -624,6 +650,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
                              final PartitionEstimator p_estimator,
                              final TransactionEstimator t_estimator) {
         this.hstore_conf = HStoreConf.singleton();
+        this.profilerSampler = new ProfileSampler(hstore_conf.site.profiling_sample_rate);
         
         this.work_queue = new PartitionMessageQueue();
 //        this.work_queue = new ThrottlingQueue<InternalMessage>(
@@ -685,6 +712,9 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
                                                 this.getPartitionId(),
                                                 this.site.getHost().getId(),
                                                 "localhost");
+                if (hstore_conf.site.exec_ee_pooled_results) {
+                    eeTemp.setResultBufferPool(new DBBPool());
+                }
                 
                 // Initialize Anti-Cache
                 if (hstore_conf.site.anticache_enable) {
@@ -791,10 +821,32 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             tmp_def_txn = new LocalTransaction(hstore_site);
         }
         
-        if (hstore_conf.site.exec_profiling) {
-            EventObservable<?> observable = this.hstore_site.getStartWorkloadObservable();
-            this.profiler.idle_queue_time.resetOnEventObservable(observable);
-            this.profiler.exec_time.resetOnEventObservable(observable);
+        if (hstore_conf.site.exec_result_cache && this.ee != null) {
+            Collection<Procedure> procs = new HashSet<Procedure>();
+            for (String procName : hstore_conf.site.exec_result_cache_procedures.split(",")) {
+                procName = procName.trim();
+                if (procName.isEmpty()) continue;
+                Procedure catalog_proc = catalogContext.procedures.getIgnoreCase(procName);
+                if (catalog_proc == null) {
+                    LOG.warn(String.format("Invalid procedure name '%s' for result cache at partition %d",
+                             procName, this.partitionId));
+                    continue;
+                }
+                procs.add(catalog_proc);
+            } // FOR
+            this.resultCache = new ProcedureResultCache(catalogContext,
+                                                        hstore_conf.site.exec_result_cache_size * 1048576l,
+                                                        procs);
+        }
+        
+        // We always do this because profiling can be enabled at runtime
+        EventObservable<?> observable = this.hstore_site.getStartWorkloadObservable();
+        this.profiler.idle_queue_time.resetOnEventObservable(observable);
+        this.profiler.exec_time.resetOnEventObservable(observable);
+        
+        // Let the MarkovModelTrainer update our MarkovGraphs for us
+        if (hstore_site.getMarkovModelTrainer() != null && this.localTxnEstimator instanceof MarkovEstimator) {
+            ((MarkovEstimator)this.localTxnEstimator).setModelTrainer(hstore_site.getMarkovModelTrainer());
         }
         
         // -------------------------------
@@ -805,6 +857,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             // The MarkovConflictChecker is thread-safe, so we all of the partitions
             // at this site can reuse the same one.
             this.specExecChecker = MarkovConflictChecker.singleton(this.catalogContext, this.thresholds);
+        } else if (hstore_conf.site.specexec_rowlevel) {
+            // The RowConflictChecker keeps track of what the current dtxn has accessed
+            // at this partition, so we need a separate one per partition
+            this.specExecChecker = new RowConflictChecker(this.catalogContext, this.p_estimator);
         } else {
             this.specExecChecker = new TableConflictChecker(this.catalogContext);
         }
@@ -853,8 +909,12 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
 //        this.work_queue.setQueueIncreaseMax(hstore_conf.site.queue_incoming_increase_max);
 //        this.work_queue.checkThrottling(false);
         
+        // Profiling
+        this.profilerSampler.setRate(hstore_conf.site.profiling_sample_rate);
+        
         // SpecExecScheduler
         this.specExecScheduler.setIgnoreAllLocal(hstore_conf.site.specexec_ignore_all_local);
+        this.specExecScheduler.updateConf(hstore_conf);
     }
     
     // ----------------------------------------------------------------------------
@@ -904,6 +964,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             if (d) LOG.debug("Starting PartitionExecutor run loop...");
             while (this.stop == false && this.isShuttingDown() == false) {
                 this.currentTxnId = null;
+                this.profiling = (hstore_conf.site.exec_profiling && this.profilerSampler.sample());
                 
                 // -------------------------------
                 // Poll Work Queue
@@ -912,7 +973,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
                 if (work == null) continue;
                 if (t) LOG.trace("Next Work: " + work);
                 
-                if (hstore_conf.site.exec_profiling) this.profiler.exec_time.start();
+                if (this.profiling) this.profiler.exec_time.start();
                 try {
                 	this.processInternalMessage(work);
                 } finally {
@@ -964,8 +1025,8 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
         // until something shows up in our queue
         if (work == null) {
             if (t) LOG.trace("Partition " + this.partitionId + " queue is empty. Waiting...");
-            if (hstore_conf.site.exec_profiling) this.profiler.idle_queue_time.start();
-            if (hstore_conf.site.exec_profiling && this.currentDtxn != null) this.profiler.idle_queue_dtxn_time.start();
+            if (this.profiling) this.profiler.idle_queue_time.start();
+            if (this.profiling && this.currentDtxn != null) this.profiler.idle_queue_dtxn_time.start();
             try {
                 work = this.work_queue.poll(WORK_QUEUE_POLL_TIME, TimeUnit.MILLISECONDS);
             } catch (InterruptedException ex) {
@@ -990,7 +1051,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
      * @return true if there is more utility work that can be done
      */
     private boolean utilityWork() {
-        if (hstore_conf.site.exec_profiling) this.profiler.util_time.start();
+        if (this.profiling) this.profiler.util_time.start();
         if (t) LOG.trace("Entering utilityWork");
         
         this.tick();
@@ -1021,7 +1082,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             if (t) LOG.trace("Checking speculative execution scheduler for something to do at partition " + this.partitionId);
             assert(this.currentDtxn.isInitialized()) :
                 String.format("Uninitialized distributed transaction handle [%s]", this.currentDtxn);
-            if (hstore_conf.site.exec_profiling) this.profiler.conflicts_time.start();
+            if (this.profiling) this.profiler.conflicts_time.start();
             try {
                 spec_ts = this.specExecScheduler.next(this.currentDtxn, this.calculateSpeculationType());
             } finally {
@@ -1539,6 +1600,18 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
         return (voltProc);
     }
     
+    /**
+     * Returns a new VoltProcedure instance for the given stored procedure that is
+     * initialized for this partition. It is not added to this PartitionExecutor's
+     * pool of handles, so it is safe for another thread to use it for work that
+     * does not touch the EE (e.g., the non-blocking MapReduce phases).
+     * @param catalog_proc
+     * @return
+     */
+    public VoltProcedure newVoltProcedure(Procedure catalog_proc) {
+        return (this.initializeVoltProcedure(catalog_proc));
+    }
+    
     /**
      * Return the given VoltProcedure back into the queue to be re-used again
      * @param voltProc
@@ -1808,7 +1881,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             return (false);
         }
         
-        StartTxnMessage work = new StartTxnMessage(ts);
+        StartTxnMessage work = ts.getStartTxnMessage();
         if (d) LOG.debug(String.format("Queuing %s for '%s' request on partition %d " +
                          "[currentDtxn=%s, queueSize=%d, mode=%s]",
                          work.getClass().getSimpleName(), ts.getProcedure().getName(), this.partitionId,
@@ -2010,9 +2083,28 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
         }
         
         if (hstore_conf.site.txn_counters) TransactionCounter.EXECUTED.inc(ts.getProcedure());
+        
+        // We can only use the result cache for txns that see committed data
+        boolean cacheable = (this.resultCache != null &&
+                             predict_singlePartition &&
+                             ts.isSpeculative() == false &&
+                             this.currentDtxn == null &&
+                             this.resultCache.isCacheable(ts.getProcedure()));
+        VoltTable cachedResults[] = null;
+        if (cacheable) {
+            cachedResults = this.resultCache.get(ts.getProcedure(), ts.getProcedureParameters());
+            if (t && cachedResults != null)
+                LOG.trace(String.format("%s - Using cached results at partition %d", ts, this.partitionId));
+        }
+        
         ClientResponseImpl cresponse = null;
         try {
-            cresponse = volt_proc.call(ts, ts.getProcedureParameters().toArray()); // Blocking...
+            if (cachedResults != null) {
+                cresponse = this.hstore_site.getObjectPools().getClientResponse();
+                cresponse.init(ts, Status.OK, cachedResults, "");
+            } else {
+                cresponse = volt_proc.call(ts, ts.getProcedureParameters().toArray()); // Blocking...
+            }
         // VoltProcedure.call() should handle any exceptions thrown by the transaction
         // If we get anything out here then that's bad news
         } catch (Throwable ex) {
@@ -2037,15 +2129,32 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
 //            }
         }
         
+        // The output tables may be views over pooled buffers that will be given back
+        // when the txn is deleted, so we need to copy them before they leave the txn
+        if (cresponse != null && this.ee.getResultBufferPool() != null) {
+            VoltTable results[] = cresponse.getResults();
+            for (int i = 0; i < results.length; i++) {
+                results[i] = VoltTableUtil.copyToHeap(results[i]);
+            } // FOR
+        }
+        
         // If this is a MapReduce job, then we can just ignore the ClientResponse
         // and return immediately. The VoltMapReduceProcedure is responsible for storing
         // the result at the proper location.
         if (ts.isMapReduce()) {
+            if (cresponse != null) this.hstore_site.getObjectPools().CLIENT_RESPONSES.returnObject(cresponse);
             return;
         } else if (cresponse == null) {
             assert(this.isShuttingDown()) : String.format("No ClientResponse for %s???", ts);
             return;
         }
+        if (cacheable && cachedResults == null &&
+                cresponse.getStatus() == Status.OK &&
+                cresponse.getAppStatus() == Byte.MIN_VALUE &&
+                ts.hasPendingError() == false) {
+            this.resultCache.put(ts.getProcedure(), ts.getProcedureParameters(),
+                                 cresponse.getResults(), ts.getReadTableIds(this.partitionId));
+        }
         
         // -------------------------------
         // PROCESS RESPONSE AND FIGURE OUT NEXT STEP
@@ -2605,6 +2714,9 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             }
             readonly = readonly && fragReadOnly;
         }
+        if (ts == this.currentDtxn && this.specExecIgnoreCurrent == false) {
+            this.specExecChecker.notifyFragmentsExecuted(ts, this.partitionId, fragmentIds, parameterSets, batchSize);
+        }
         
         // Check whether the txn has only exeuted read-only queries up to this point
         if (ts.isExecReadOnly(this.partitionId)) {
@@ -2656,6 +2768,20 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             throw new ServerFaultException(msg, ex);
         } finally {
             if (needs_profiling) ((LocalTransaction)ts).profiler.stopExecEE();
+            if (result != null && result.containers != null) {
+                ts.attachResultBuffers(this.partitionId, result.containers);
+            }
+            // Any cached results that read the tables that we just modified are now stale.
+            // If the EE threw an error, then we can't trust its dirty flag because we
+            // never got to check it, so we have to assume that it modified something
+            // before it failed.
+            if (this.resultCache != null && readonly == false && (error != null || this.ee.getDirtyStatus())) {
+                for (int i = 0; i < batchSize; i++) {
+                    if (PlanFragmentIdGenerator.isPlanFragmentReadOnly(fragmentIds[i])) continue;
+                    this.resultCache.invalidate(catalogContext.getWriteTableIds(Long.valueOf(fragmentIds[i])));
+                } // FOR
+                this.ee.resetDirtyStatus();
+            }
             if (error == null && result == null) {
                 LOG.warn(String.format("%s - Finished executing fragments but got back null results [fragmentIds=%s]",
                          ts, Arrays.toString(fragmentIds)));
@@ -2692,6 +2818,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
         }
 
         ts.markExecutedWork(this.partitionId);
+        if (this.resultCache != null) this.resultCache.invalidate(table.getRelativeIndex());
         this.ee.loadTable(table.getRelativeIndex(), data,
                           ts.getTransactionId(),
                           this.lastCommittedTxnId.longValue(),
@@ -2708,6 +2835,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
      * @throws VoltAbortException
      */
     protected void loadTable(Long txnId, Table catalog_tbl, VoltTable data, boolean allowELT) throws VoltAbortException {
+        if (this.resultCache != null) this.resultCache.invalidate(catalog_tbl.getRelativeIndex());
         this.ee.loadTable(catalog_tbl.getRelativeIndex(),
                           data,
                           txnId.longValue(),
@@ -3178,7 +3306,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
                 // If we didn't get back a list of fragments here, then we will spin through
                 // and invoke utilityWork() to try to do something useful until what we need shows up
                 if (needs_profiling) ts.profiler.startExecDtxnWork();
-                if (hstore_conf.site.exec_profiling) this.profiler.idle_dtxn_query_response_time.start();
+                if (this.profiling) this.profiler.idle_dtxn_query_response_time.start();
                 try {
                     while (fragmentBuilders == null) {
                         // If there is more work that we could do, then we'll just poll the queue
@@ -3410,7 +3538,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             long startTime = EstTime.currentTimeMillis();
             
             if (needs_profiling) ts.profiler.startExecDtxnWork();
-            if (hstore_conf.site.exec_profiling) this.profiler.idle_dtxn_query_response_time.start();
+            if (this.profiling) this.profiler.idle_dtxn_query_response_time.start();
             try {
                 while (latch.getCount() > 0 && ts.hasPendingError() == false) {
                     if (this.utilityWork() == false) {
@@ -3531,6 +3659,9 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             // HStoreSite so that it can re-execute the transaction. We want to do this 
             // first so that the txn gets re-executed as soon as possible...
             if (d) LOG.debug(String.format("%s - Restarting because transaction is mispredicted", ts));
+            
+            // Nobody is going to send this ClientResponse, so we can give it back now
+            this.hstore_site.getObjectPools().CLIENT_RESPONSES.returnObject(cresponse);
 
             // We don't want to delete the transaction here because whoever is going to requeue it for
             // us will need to know what partitions that the transaction touched when it executed before
@@ -3548,7 +3679,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
                 if (hstore_conf.site.txn_profiling && ts.profiler != null) ts.profiler.startPostFinish();
                 TransactionFinishCallback finish_callback = ts.initTransactionFinishCallback(status);
                 finish_callback.markForRequeue();
-                if (hstore_conf.site.exec_profiling) this.profiler.network_time.start();
+                if (this.profiling) this.profiler.network_time.start();
                 this.hstore_coordinator.transactionFinish(ts, status, finish_callback);
                 if (hstore_conf.site.exec_profiling) this.profiler.network_time.stopIfStarted();
             }
@@ -3575,7 +3706,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
                 // from getting sent back to the client
                 if (hstore_conf.site.commandlog_enable) ts.markLogEnabled();
                 
-                if (hstore_conf.site.exec_profiling) this.profiler.network_time.start();
+                if (this.profiling) this.profiler.network_time.start();
                 this.hstore_site.responseSend(ts, cresponse);
                 if (hstore_conf.site.exec_profiling) this.profiler.network_time.stopIfStarted();
                 
@@ -3613,7 +3744,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             assert(callback != null) : 
                 "Missing TransactionPrepareCallback for " + ts + " [initialized=" + ts.isInitialized() + "]";
             
-            if (hstore_conf.site.exec_profiling) {
+            if (this.profiling) {
             	this.profiler.network_time.start();
             	this.profiler.idle_2pc_local_time.start();
             }
@@ -3638,7 +3769,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
             // have successfully aborted the txn at least at all of the local partitions at this site.
             if (hstore_conf.site.txn_profiling && ts.profiler != null) ts.profiler.startPostFinish();
             TransactionFinishCallback finish_callback = ts.initTransactionFinishCallback(status);
-            if (hstore_conf.site.exec_profiling) this.profiler.network_time.start();
+            if (this.profiling) this.profiler.network_time.start();
             this.hstore_coordinator.transactionFinish(ts, status, finish_callback);
             if (hstore_conf.site.exec_profiling) this.profiler.network_time.stopIfStarted();
         }
@@ -3719,6 +3850,14 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
                              ts, status, ts.isSpeculative()));
             this.finishWorkEE(ts, undoToken, commit);
         }
+        // If the EE is still dirty, then something modified the database without going
+        // through executePlanFragments(), so we don't know which cached results are stale
+        if (this.resultCache != null && this.ee.getDirtyStatus()) {
+            if (d) LOG.debug(String.format("%s - Clearing result cache at partition %d because of untracked changes",
+                             ts, this.partitionId));
+            this.resultCache.clear();
+            this.ee.resetDirtyStatus();
+        }
         if (hstore_conf.site.exec_profiling) {
             this.profiler.idle_2pc_local_time.stopIfStarted();
             this.profiler.idle_2pc_remote_time.stopIfStarted();
@@ -4098,7 +4237,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
     }
     
     private void blockTransaction(LocalTransaction ts) {
-        this.blockTransaction(new StartTxnMessage(ts));
+        this.blockTransaction(ts.getStartTxnMessage());
     }
 
     /**
@@ -4276,6 +4415,9 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable,
         public int getWorkQueueSize() {
             return (PartitionExecutor.this.work_queue.size());
         }
+        public ProcedureResultCache getResultCache() {
+            return (PartitionExecutor.this.resultCache);
+        }
     }
     
     private PartitionExecutor.Debug cachedDebugContext;
@@ -18,6 +18,7 @@ import edu.brown.interfaces.DebugContext;
 import edu.brown.interfaces.Loggable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.ProfileSampler;
 import edu.brown.profilers.SpecExecProfiler;
 
 /**
@@ -55,6 +56,7 @@ public class SpecExecScheduler implements Loggable {
     private int lastSize = 0;
 
     private final Map<SpeculationType, SpecExecProfiler> profilerMap = new HashMap<SpeculationType, SpecExecProfiler>();
+    private final ProfileSampler profilerSampler;
     private boolean profiling = false;
     
     /**
@@ -75,12 +77,22 @@ public class SpecExecScheduler implements Loggable {
         this.policyType = schedule_policy;
         this.window_size = window_size;
         
-        this.profiling = HStoreConf.singleton().site.specexec_profiling;
-        if (this.profiling) {
-            for (SpeculationType type: SpeculationType.values()) {
-                this.profilerMap.put(type, new SpecExecProfiler());
-            } // FOR
-        }
+        // We always create the profilers so that profiling can be enabled at runtime
+        for (SpeculationType type: SpeculationType.values()) {
+            this.profilerMap.put(type, new SpecExecProfiler());
+        } // FOR
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        this.profilerSampler = new ProfileSampler(hstore_conf.site.profiling_sample_rate);
+        this.updateConf(hstore_conf);
+    }
+    
+    /**
+     * Update the profiling configuration from the given HStoreConf
+     * @param hstore_conf
+     */
+    protected void updateConf(HStoreConf hstore_conf) {
+        this.profiling = hstore_conf.site.specexec_profiling;
+        this.profilerSampler.setRate(hstore_conf.site.profiling_sample_rate);
     }
     
     /**
@@ -128,7 +140,8 @@ public class SpecExecScheduler implements Loggable {
             String.format("Trying to check for speculative txns for %s but the txn should have been ignored");
         
         SpecExecProfiler profiler = null;
-        if (this.profiling) {
+        boolean profiling = (this.profiling && this.profilerSampler.sample());
+        if (profiling) {
             profiler = profilerMap.get(specType);
             profiler.total_time.start();
         }
@@ -147,7 +160,7 @@ public class SpecExecScheduler implements Loggable {
         if (this.ignore_all_local && dtxn instanceof LocalTransaction && ((LocalTransaction)dtxn).isPredictAllLocal()) {
             if (d) LOG.debug(String.format("%s - Ignoring current distributed txn because all of the partitions that " +
                              "it is using are on the same HStoreSite [%s]", dtxn, dtxn.getProcedure()));
-            if (this.profiling) profiler.total_time.stop();
+            if (profiling) profiler.total_time.stop();
             return (null);
         }
         
@@ -167,7 +180,7 @@ public class SpecExecScheduler implements Loggable {
             this.lastIterator = this.work_queue.iterator();    
         }
         boolean resetIterator = true;
-        if (this.profiling) profiler.queue_size.put(this.work_queue.size());
+        if (profiling) profiler.queue_size.put(this.work_queue.size());
         while (this.lastIterator.hasNext()) {
             AbstractTransaction txn = this.lastIterator.next();
             assert(txn != null) : "Null transaction handle " + txn;
@@ -188,7 +201,7 @@ public class SpecExecScheduler implements Loggable {
             }
 
             // Let's check it out!
-            if (this.profiling) profiler.compute_time.start();
+            if (profiling) profiler.compute_time.start();
             if (d) LOG.debug(String.format("Examining whether %s conflicts with current dtxn %s", localTxn, dtxn));
             if (singlePartition == false) {
                 if (t) LOG.trace(String.format("%s - Skipping %s because it is not single-partitioned", dtxn, localTxn));
@@ -222,15 +235,15 @@ public class SpecExecScheduler implements Loggable {
                     if (++examined_ctr == this.window_size) break;
                 }
             } finally {
-                if (this.profiling) profiler.compute_time.stop();
+                if (profiling) profiler.compute_time.stop();
             }
         } // WHILE
-        if (this.profiling) profiler.num_comparisons.put(txn_ctr);
+        if (profiling) profiler.num_comparisons.put(txn_ctr);
         
         // We found somebody to execute right now!
         // Make sure that we set the speculative flag to true!
         if (next != null) {
-            if (this.profiling) profiler.success++;
+            if (profiling) profiler.success++;
             if (this.policyType == SpecExecSchedulerPolicyType.FIRST) {
                 this.lastIterator.remove();
                 this.work_queue.clear(next);
@@ -248,7 +261,7 @@ public class SpecExecScheduler implements Loggable {
         this.lastSpecType = specType;
         if (resetIterator) this.lastIterator = null;
         else if (this.ignore_queue_size_change == false) this.lastSize = this.work_queue.size();
-        if (this.profiling) profiler.total_time.stop();
+        if (profiling) profiler.total_time.stop();
         return (next);
     }
     
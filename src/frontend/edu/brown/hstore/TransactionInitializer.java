@@ -26,6 +26,7 @@
 package edu.brown.hstore;
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -48,10 +49,12 @@ import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.hstore.txns.MapReduceTransaction;
 import edu.brown.hstore.txns.RemoteTransaction;
+import edu.brown.interfaces.Configurable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.markov.EstimationThresholds;
 import edu.brown.profilers.ProfileMeasurement;
+import edu.brown.profilers.ProfileSampler;
 import edu.brown.profilers.TransactionProfiler;
 import edu.brown.utils.EventObservable;
 import edu.brown.utils.PartitionEstimator;
@@ -68,7 +71,7 @@ import edu.brown.hstore.estimators.markov.MarkovEstimator;
  * <B>Note:</B> It is thread-safe so it can be used by all of the PartitionExecutors with locking 
  * @author pavlo
  */
-public class TransactionInitializer {
+public class TransactionInitializer implements Configurable {
     private static final Logger LOG = Logger.getLogger(TransactionInitializer.class);
     private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
     private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
@@ -93,6 +96,11 @@ public class TransactionInitializer {
     private final TransactionEstimator t_estimators[];
     private EstimationThresholds thresholds;
     
+    /**
+     * Decides which txns we will enable the TransactionProfiler for
+     */
+    private final ProfileSampler profilerSampler;
+    
     /**
      * HACK: This is the internal map used to keep track of TxnId->TxnHandles
      * inside of the HStoreSite.
@@ -122,6 +130,12 @@ public class TransactionInitializer {
         this.thresholds = hstore_site.getThresholds();
         this.p_estimator = hstore_site.getPartitionEstimator();
         this.t_estimators = new TransactionEstimator[catalogContext.numberOfPartitions];
+        this.profilerSampler = new ProfileSampler(hstore_conf.site.profiling_sample_rate);
+    }
+    
+    @Override
+    public void updateConf(HStoreConf hstore_conf) {
+        this.profilerSampler.setRate(hstore_conf.site.profiling_sample_rate);
     }
 
     // ----------------------------------------------------------------------------
@@ -309,7 +323,7 @@ public class TransactionInitializer {
         }
         
         // Setup TransactionProfiler
-        if (hstore_conf.site.txn_profiling) {
+        if (hstore_conf.site.txn_profiling && this.profilerSampler.sample()) {
             if (new_ts.profiler == null) {
                 new_ts.setProfiler(new TransactionProfiler());
             }
@@ -361,7 +375,7 @@ public class TransactionInitializer {
      * @return
      */
     public RemoteTransaction createRemoteTransaction(Long txn_id,
-                                                     PartitionSet partitions,
+                                                     Collection<Integer> partitions,
                                                      int base_partition,
                                                      int proc_id) {
         RemoteTransaction ts = null;
@@ -508,7 +522,7 @@ public class TransactionInitializer {
         EstimatorState t_state = null; 
         
         // Setup TransactionProfiler
-        if (hstore_conf.site.txn_profiling) {
+        if (hstore_conf.site.txn_profiling && this.profilerSampler.sample()) {
             if (ts.profiler == null) {
                 ts.setProfiler(new TransactionProfiler());
             }
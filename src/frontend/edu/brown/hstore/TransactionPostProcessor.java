@@ -6,6 +6,7 @@ import org.apache.log4j.Logger;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.utils.Pair;
 
+import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.hstore.util.AbstractProcessingThread;
 import edu.brown.logging.LoggerUtil;
@@ -44,9 +45,11 @@ public final class TransactionPostProcessor extends AbstractProcessingThread<Pai
         
         if (debug.get()) LOG.debug(String.format("Processing ClientResponse for %s at partition %d [status=%s]",
                                                  ts, ts.getBasePartition(), cr.getStatus()));
+        // The ClientResponse can go back to its pool once it has been sent
+        Status status = cr.getStatus();
         try {
             hstore_site.responseSend(ts, cr);
-            hstore_site.queueDeleteTransaction(ts.getTransactionId(), cr.getStatus());
+            hstore_site.queueDeleteTransaction(ts.getTransactionId(), status);
         } catch (Throwable ex) {
             LOG.error(String.format("Failed to process %s properly\n%s", ts, cr));
             if (this.isShuttingDown() == false) throw new RuntimeException(ex);
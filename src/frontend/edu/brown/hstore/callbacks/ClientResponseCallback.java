@@ -1,41 +1,106 @@
 /**
- * 
+ *
  */
 package edu.brown.hstore.callbacks;
 
+import java.io.IOException;
+
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.exceptions.ClientConnectionLostException;
+import org.voltdb.messaging.FastSerializer;
 import org.voltdb.network.Connection;
+import org.voltdb.utils.DBBPool;
+import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.utils.DeferredSerialization;
 
 import com.google.protobuf.RpcCallback;
 
 import edu.brown.hstore.ClientInterface;
+import edu.brown.hstore.HStoreObjectPools;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.pools.Poolable;
 
 /**
  * Thin wrapper to sent a ClientResponse back to the client over a Connection handle
+ * This is also the DeferredSerialization that we give to the Connection's WriteStream.
+ * Once the network thread has serialized the ClientResponseImpl, both it and this
+ * callback are returned to the HStoreObjectPools.
  * @author pavlo
  */
-public class ClientResponseCallback implements RpcCallback<ClientResponseImpl> {
+public class ClientResponseCallback implements RpcCallback<ClientResponseImpl>, DeferredSerialization, Poolable {
+
+    private final HStoreSite hstore_site;
+    private ClientInterface clientInterface;
+    private Connection conn;
+    private int messageSize;
+    private ClientResponseImpl cresponse;
+
+    /**
+     * Default Constructor
+     */
+    public ClientResponseCallback(HStoreSite hstore_site) {
+        this.hstore_site = hstore_site;
+    }
 
-    private final ClientInterface clientInterface;
-    private final Connection conn;
-    private final int messageSize;
-    
-    public ClientResponseCallback(ClientInterface clientInterface, Connection conn, int messageSize) {
+    public void init(ClientInterface clientInterface, Connection conn, int messageSize) {
         this.clientInterface = clientInterface;
         this.conn = conn;
         this.messageSize = messageSize;
     }
-    
-    
+
+    @Override
+    public boolean isInitialized() {
+        return (this.conn != null);
+    }
+
+    @Override
+    public void finish() {
+        this.clientInterface = null;
+        this.conn = null;
+        this.messageSize = 0;
+        this.cresponse = null;
+    }
+
     @Override
     public void run(ClientResponseImpl parameter) {
+        // The network thread can give us back to the pool as soon as
+        // we are queued, so we can't touch anything after that
+        ClientInterface clientInterface = this.clientInterface;
+        int messageSize = this.messageSize;
+        long txn_id = parameter.getTransactionId();
+        this.cresponse = parameter;
+
         // Always reduce backpressure before we throw the exception
-        boolean ret = this.conn.writeStream().enqueue(parameter);
-        this.clientInterface.reduceBackpressure(this.messageSize);
+        boolean ret = this.conn.writeStream().enqueue(this);
+        clientInterface.reduceBackpressure(messageSize);
         if (ret == false) {
-            throw new ClientConnectionLostException(parameter.getTransactionId());
+            throw new ClientConnectionLostException(txn_id);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // DEFERRED SERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public BBContainer serialize(DBBPool pool) throws IOException {
+        try {
+            FastSerializer fs = new FastSerializer(pool);
+            return (fs.writeObjectForMessaging(this.cresponse));
+        } finally {
+            this.release();
         }
     }
 
+    @Override
+    public void cancel() {
+        this.release();
+    }
+
+    private void release() {
+        HStoreObjectPools objectPools = this.hstore_site.getObjectPools();
+        objectPools.CLIENT_RESPONSES.returnObject(this.cresponse);
+        objectPools.CALLBACKS_CLIENT_RESPONSE.returnObject(this);
+    }
+
 }
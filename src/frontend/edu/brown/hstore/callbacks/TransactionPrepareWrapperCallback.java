@@ -1,5 +1,7 @@
 package edu.brown.hstore.callbacks;
 
+import java.util.Collection;
+
 import org.apache.log4j.Logger;
 
 import com.google.protobuf.RpcCallback;
@@ -27,20 +29,35 @@ public class TransactionPrepareWrapperCallback extends AbstractTransactionCallba
     
     private TransactionPrepareResponse.Builder builder = null;
     private AbstractTransaction ts;
-    private PartitionSet partitions;
+    private final PartitionSet partitions = new PartitionSet();
     
     public TransactionPrepareWrapperCallback(HStoreSite hstore_site) {
         super(hstore_site);
     }
     
     public void init(AbstractTransaction ts, PartitionSet partitions, RpcCallback<TransactionPrepareResponse> orig_callback) {
+        this.partitions.clear();
+        this.partitions.addAll(partitions);
+        this.init(ts, orig_callback);
+    }
+    
+    /**
+     * Initialize the callback from the list of partitions in a TransactionPrepareRequest.
+     * We copy them into our own PartitionSet so that we don't have to allocate a new one for each request.
+     */
+    public void init(AbstractTransaction ts, Collection<Integer> partitions, RpcCallback<TransactionPrepareResponse> orig_callback) {
+        this.partitions.clear();
+        this.partitions.addAll(partitions);
+        this.init(ts, orig_callback);
+    }
+    
+    private void init(AbstractTransaction ts, RpcCallback<TransactionPrepareResponse> orig_callback) {
         assert(this.isInitialized() == false) :
             String.format("Trying to initialize %s twice! [origTs=%s, newTs=%s]",
                           this.getClass().getSimpleName(), this.ts, ts);
         if (debug.get())
             LOG.debug("Starting new " + this.getClass().getSimpleName() + " for " + ts);
         this.ts = ts;
-        this.partitions = partitions;
 
         // HACK: Don't wait for non-local partitions
         int expected = 0;
@@ -54,6 +71,13 @@ public class TransactionPrepareWrapperCallback extends AbstractTransactionCallba
         super.init(ts, expected, orig_callback);
     }
     
+    /**
+     * Returns the partitions that this callback is waiting for
+     */
+    public PartitionSet getPartitions() {
+        return (this.partitions);
+    }
+    
     @Override
     protected synchronized void finishImpl() {
         super.finishImpl();
@@ -67,10 +67,10 @@ public class TransactionRedirectCallback implements RpcCallback<TransactionRedir
             // Get the embedded ClientResponse
             // TODO: We should really just send the raw bytes through the callback instead
             // of having to deserialize it first.
-            ClientResponseImpl cresponse = null;
+            ClientResponseImpl cresponse = hstore_site.getObjectPools().getClientResponse();
             this.fds.setBuffer(parameter.getOutput().asReadOnlyByteBuffer());
             try {
-                cresponse = this.fds.readObject(ClientResponseImpl.class);
+                cresponse.readExternal(this.fds);
             } catch (IOException ex) {
                 String msg = String.format("Failed to deserialize %s from %s",
                                            parameter.getClass().getSimpleName(),
@@ -88,6 +88,7 @@ public class TransactionRedirectResponseCallback implements RpcCallback<ClientRe
         try {
             this.finish();
             hstore_site.getObjectPools().CALLBACKS_TXN_REDIRECT_RESPONSE.returnObject(this);
+            hstore_site.getObjectPools().CLIENT_RESPONSES.returnObject(parameter);
         } catch (Exception ex) {
             throw new RuntimeException("Funky failure", ex);
         }
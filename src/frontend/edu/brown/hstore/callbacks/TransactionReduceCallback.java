@@ -65,16 +65,16 @@ public class TransactionReduceCallback extends AbstractTransactionCallback<MapRe
         // STEP 1
         // Send the final result from all the partitions for this MR job
         // back to the client.
-        ClientResponseImpl cresponse = new ClientResponseImpl(); 
+        ClientResponseImpl cresponse = hstore_site.getObjectPools().getClientResponse(); 
         cresponse.init(ts, Status.OK, this.finalResults, "");
         hstore_site.responseSend(ts, cresponse);
 
-        if (hstore_site.getHStoreConf().site.mr_map_blocking) {
-            // STEP 2
-            // Initialize the FinishCallback and tell every partition in the cluster
-            // to clean up this transaction because we're done with it!
-            this.finishTransaction(Status.OK);
-        }
+        // STEP 2
+        // Initialize the FinishCallback and tell every partition in the cluster
+        // to clean up this transaction because we're done with it!
+        // We always need to do this, because the partitions were released
+        // at the end of the MAP phase in both the blocking and non-blocking modes.
+        this.finishTransaction(Status.OK);
     }
     
     @Override
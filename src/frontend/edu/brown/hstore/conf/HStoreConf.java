@@ -187,6 +187,18 @@ public final class HStoreConf {
         )
         public boolean profiling;
         
+        @ConfigProperty(
+            description="If this is greater than one, then the profilers enabled by ${site.exec_profiling}, " +
+                        "${site.txn_profiling}, ${site.specexec_profiling}, and ${site.commandlog_profiling} " +
+                        "will only record measurements for one out of every N transactions (or invocations). " +
+                        "This is cheap enough to leave profiling on while running a benchmark. Note that the " +
+                        "totals reported through the @Statistics sysproc will only include the sampled " +
+                        "transactions. This can be changed at runtime with the @SetConfiguration sysproc.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int profiling_sample_rate;
+        
         // ----------------------------------------------------------------------------
         // Execution Options
         // ----------------------------------------------------------------------------
@@ -413,6 +425,67 @@ public final class HStoreConf {
         )
         public boolean exec_adhoc_sql;
         
+        @ConfigProperty(
+            description="The number of in-process planners that the HStoreSite will use to compile " +
+                        "ad hoc queries that are not in its plan cache. Each planner has its own copy " +
+                        "of the database schema loaded in HSQLDB.",
+            defaultInt=2,
+            experimental=false
+        )
+        public int exec_adhoc_planner_threads;
+        
+        @ConfigProperty(
+            description="The maximum number of ad hoc query plans that each HStoreSite will keep in " +
+                        "its plan cache. The literals in the query's predicates are converted into " +
+                        "parameters before it is planned so that queries that only differ by their " +
+                        "constant values can reuse the same plan. The cache is cleared whenever the " +
+                        "catalog is updated.",
+            defaultInt=1000,
+            experimental=false
+        )
+        public int exec_adhoc_plan_cache_size;
+        
+        @ConfigProperty(
+            description="If this parameter is enabled, then the output dependencies of the ExecutionEngine " +
+                        "are copied into pooled direct buffers instead of new heap buffers. The VoltTables " +
+                        "are views over these buffers and can be passed back into the EE as input " +
+                        "dependencies without any more copies. The buffers are given back to the pool when " +
+                        "the transaction is deleted.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean exec_ee_pooled_results;
+        
+        @ConfigProperty(
+            description="If this parameter is enabled, then each PartitionExecutor will cache the results " +
+                        "of the read-only single-partition procedures listed in ${site.exec_result_cache_procedures}. " +
+                        "A transaction that invokes the same procedure with the same parameters will get the " +
+                        "cached results back without going to the ExecutionEngine. A cached result is thrown " +
+                        "away as soon as any of the tables that it read is modified at that partition.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean exec_result_cache;
+        
+        @ConfigProperty(
+            description="A comma-separated list of the procedures whose results can be cached when " +
+                        "${site.exec_result_cache} is enabled. If this is empty, then the results of all " +
+                        "read-only procedures are cached. Procedures whose output does not only depend on " +
+                        "their parameters and the database (e.g., they use the current time) should not be cached.",
+            defaultString="",
+            experimental=true
+        )
+        public String exec_result_cache_procedures;
+        
+        @ConfigProperty(
+            description="The maximum amount of memory in megabytes that each PartitionExecutor will use " +
+                        "for ${site.exec_result_cache}. The results are stored off-heap in direct buffers. " +
+                        "The least recently used results are evicted first.",
+            defaultInt=64,
+            experimental=true
+        )
+        public int exec_result_cache_size;
+        
         @ConfigProperty(
             description="If this parameter is enabled, then the DBMS will attempt to prefetch commutative " +
             		    "queries on remote partitions for distributed transactions.",
@@ -468,6 +541,18 @@ public final class HStoreConf {
         )
         public boolean specexec_markov;
         
+        @ConfigProperty(
+            description="Use the RowConflictChecker to determine whether queued transactions " +
+                        "conflict with the current distributed transaction. This compares the key " +
+                        "values that the distributed transaction has accessed at a partition with " +
+                        "the key values that the candidate is predicted to access. " +
+                        "Note that ${site.markov_enable} must be set to true and that this is " +
+                        "ignored if ${site.specexec_markov} is enabled.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean specexec_rowlevel;
+        
         @ConfigProperty(
             description="If enabled, then the SpecExecScheduler will keep track of various internal " +
                         "profile statistics.",
@@ -524,6 +609,36 @@ public final class HStoreConf {
         )
         public boolean commandlog_profiling;
         
+        // ----------------------------------------------------------------------------
+        // Snapshot Options
+        // ----------------------------------------------------------------------------
+        
+        @ConfigProperty(
+            description="The number of threads that each HStoreSite will use to write out snapshot files. " +
+                        "The files for different tables are written in parallel, but all of the data for " +
+                        "a single table is always written by the same thread.",
+            defaultInt=4,
+            experimental=true
+        )
+        public int snapshot_writer_threads;
+        
+        @ConfigProperty(
+            description="If enabled, then the tuple data in each snapshot chunk will be compressed " +
+                        "with Snappy before it is written to disk.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean snapshot_compress;
+        
+        @ConfigProperty(
+            description="The max amount of snapshot data (in MB) that each HStoreSite will write to disk per " +
+                        "second across all of its snapshot writer threads. This prevents snapshots from " +
+                        "starving the command log. Set this to -1 to disable the limit.",
+            defaultInt=-1,
+            experimental=true
+        )
+        public int snapshot_write_rate;
+        
         // ----------------------------------------------------------------------------
         // AntiCache Options
         // ----------------------------------------------------------------------------
@@ -573,18 +688,61 @@ public final class HStoreConf {
                 description="If set to true, then the MAP phase of a MapReduceTransaction will be " +
                 		    "executed as a distributed transaction that blocks the entire cluster. This " +
                 		    "ensures that the aggregates computed by the MAP phase reads from consistent " +
-                		    "a consistent state of the database.",
+                		    "a consistent state of the database. If set to false, then each partition " +
+                		    "only executes the MapInputQuery and then is immediately released so that " +
+                		    "other transactions can run. The map() function is then invoked on that " +
+                		    "query result by the MapReduceHelperThread in chunks of ${site.mr_map_chunk_size} rows.",
                 defaultBoolean=true,
                 experimental=true
         )
         public boolean mr_map_blocking;
         
         @ConfigProperty(
-                description="The way to execute reduce job, blocking or non-blocking by MapReduceHelperThread",
+                description="The max number of rows that the MapReduceHelperThread will process for a " +
+                            "partition at a time in the non-blocking MAP phase before moving on to other " +
+                            "work. See ${site.mr_map_blocking}.",
+                defaultInt=1000,
+                experimental=true
+        )
+        public int mr_map_chunk_size;
+        
+        @ConfigProperty(
+                description="The way to execute reduce job, blocking or non-blocking by MapReduceHelperThread. " +
+                            "If set to false, then the REDUCE phase runs entirely in the MapReduceHelperThread " +
+                            "and never blocks the partitions' PartitionExecutors.",
                 defaultBoolean=true,
                 experimental=true
         )
         public boolean mr_reduce_blocking;
+        
+        @ConfigProperty(
+                description="The max amount of REDUCE input data (in MB) that each partition will buffer in memory " +
+                            "for a MapReduceTransaction. If the data sent to a partition in the SHUFFLE phase " +
+                            "exceeds this amount, then it will be sorted and spilled to ${site.mr_reduce_sort_dir} " +
+                            "and merged back together at the start of the REDUCE phase. " +
+                            "Set this to -1 to always sort the REDUCE input entirely in memory.",
+                defaultInt=-1,
+                experimental=true
+        )
+        public int mr_reduce_sort_memory;
+        
+        @ConfigProperty(
+                description="The size of the blocks (in KB) that are written to and read from the sorted runs " +
+                            "for the external sort of REDUCE input. The merge at the start of the REDUCE phase " +
+                            "will keep one block from each sorted run in memory. " +
+                            "See ${site.mr_reduce_sort_memory}.",
+                defaultInt=256,
+                experimental=true
+        )
+        public int mr_reduce_sort_block;
+        
+        @ConfigProperty(
+                description="Directory for storage of the sorted runs spilled by the external sort of REDUCE input. " +
+                            "See ${site.mr_reduce_sort_memory}.",
+                defaultString="${global.temp_dir}/mapreduce",
+                experimental=true
+        )
+        public String mr_reduce_sort_dir;
 
         // ----------------------------------------------------------------------------
         // Networking Options
@@ -630,6 +788,45 @@ public final class HStoreConf {
         )
         public int network_incoming_max_per_partition;
         
+        @ConfigProperty(
+            description="If set to true, then the HStoreCoordinator will queue up the messages that it " +
+                        "sends to each remote site and have its event loop write them out in batches. " +
+                        "This reduces the number of system calls when there are many small messages " +
+                        "going to the same site, at the cost of a hand-off to the event loop thread.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean network_rpc_coalescing;
+        
+        @ConfigProperty(
+            description="If set to true, then the HStoreCoordinator will send messages to the other " +
+                        "sites running on the same host through memory-mapped ring buffers in " +
+                        "${site.network_shm_dir} instead of through loopback TCP connections. " +
+                        "Sites on different hosts still use the network.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean network_shm_transport;
+        
+        @ConfigProperty(
+            description="The directory where the ring buffer files are created when " +
+                        "${site.network_shm_transport} is enabled. This should be on a " +
+                        "memory-backed file system.",
+            defaultString="/dev/shm",
+            experimental=true
+        )
+        public String network_shm_dir;
+        
+        @ConfigProperty(
+            description="The size in megabytes of each ring buffer used by ${site.network_shm_transport}. " +
+                        "There is one ring for each pair of sites on the same host in each direction. " +
+                        "Requests that are larger than this, or that arrive while the ring and its backlog " +
+                        "are full, are sent over the network instead.",
+            defaultInt=16,
+            experimental=true
+        )
+        public int network_shm_ring_size;
+        
         // ----------------------------------------------------------------------------
         // Transaction Execution Options
         // ----------------------------------------------------------------------------
@@ -896,6 +1093,58 @@ public final class HStoreConf {
         )
         public int markov_batch_caching_min;
         
+        @ConfigProperty(
+            description="If this is set to true, the MarkovEstimator will use a frozen, array-based " +
+                        "snapshot of each MarkovGraph to find the next vertex for a transaction without " +
+                        "needing to acquire any locks. The snapshot is rebuilt whenever the graph's " +
+                        "probabilities are recomputed. Vertices that are added to the graph after the " +
+                        "snapshot was created are still found through the original MarkovGraph.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean markov_compiled_graphs;
+        
+        @ConfigProperty(
+            description="If this is set to true, then the MarkovEstimator will not modify its MarkovGraphs " +
+                        "while transactions are running. Instead, each PartitionExecutor will hand the path " +
+                        "of every completed transaction to a separate MarkovModelTrainer thread, which " +
+                        "applies them to a private copy of each graph, recomputes its probabilities, and " +
+                        "then swaps in a new version of the graph for the estimators to use. " +
+                        "See ${site.markov_training_interval}.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean markov_background_training;
+        
+        @ConfigProperty(
+            description="How often (in milliseconds) the MarkovModelTrainer will publish new versions of " +
+                        "the MarkovGraphs that were updated since the last time. " +
+                        "See ${site.markov_background_training}.",
+            defaultInt=5000,
+            experimental=true
+        )
+        public int markov_training_interval;
+        
+        @ConfigProperty(
+            description="If this is set to true, the MarkovEstimator will memoize the initial estimate of each " +
+                        "transaction by its base partition, the hash partitions of its parameters, and the " +
+                        "lengths of its array parameters. New transactions whose parameters have the same " +
+                        "features will reuse that estimate instead of traversing the MarkovGraph. " +
+                        "Entries are removed when a transaction that used them is aborted for a misprediction. " +
+                        "See ${site.markov_path_memoization_size}.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean markov_path_memoization;
+        
+        @ConfigProperty(
+            description="The max number of memoized estimates that each MarkovEstimator will keep per MarkovGraph. " +
+                        "See ${site.markov_path_memoization}.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int markov_path_memoization_size;
+        
         @ConfigProperty(
             description="Enable a hack for TPC-C where we inspect the arguments of the TPC-C neworder transaction" +
             		    "and figure out what partitions it needs without having to use the TransactionEstimator. " +
@@ -1006,6 +1255,44 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean coordinator_sync_time;
+        
+        @ConfigProperty(
+            description="If this enabled, HStoreCoordinator will combine the 2PC prepare and finish messages " +
+                        "for different distributed transactions that are going to the same remote HStoreSite " +
+                        "into a single network message. A batch is sent when it has " +
+                        "${site.coordinator_batch_2pc_size} messages or after " +
+                        "${site.coordinator_batch_2pc_delay} microseconds.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean coordinator_batch_2pc;
+        
+        @ConfigProperty(
+            description="The max number of 2PC messages to combine into a single network message when " +
+                        "${site.coordinator_batch_2pc} is enabled.",
+            defaultInt=16,
+            experimental=true
+        )
+        public int coordinator_batch_2pc_size;
+        
+        @ConfigProperty(
+            description="How long in microseconds HStoreCoordinator will wait for more 2PC messages to " +
+                        "go to the same HStoreSite before sending out a batch that is not full when " +
+                        "${site.coordinator_batch_2pc} is enabled.",
+            defaultInt=250,
+            experimental=true
+        )
+        public int coordinator_batch_2pc_delay;
+        
+        @ConfigProperty(
+            description="How long in microseconds a remote HStoreSite will hold the response for a batch of " +
+                        "2PC prepare messages while waiting for all of its txns to be prepared when " +
+                        "${site.coordinator_batch_2pc} is enabled. The txns that are not prepared by then " +
+                        "are sent back empty, and the sender will ask for each of them again on its own.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int coordinator_batch_2pc_prepare_wait;
 
         // ----------------------------------------------------------------------------
         // Output Tracing
@@ -1027,6 +1314,42 @@ public final class HStoreConf {
         )
         public boolean trace_query_output;
         
+        @ConfigProperty(
+            description="When this property is set to true, the HStoreSite will record workload traces with " +
+                        "the low-overhead SampledWorkloadTrace instead of Workload. The traces are written " +
+                        "out in the BinaryWorkloadFile format. " +
+                        "See ${site.trace_sampling_rate} and ${site.trace_sampling_procs}.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean trace_binary;
+        
+        @ConfigProperty(
+            description="The fraction of transactions that the SampledWorkloadTrace will record for each " +
+                        "stored procedure that is not listed in ${site.trace_sampling_procs}.",
+            defaultDouble=1.0,
+            experimental=true
+        )
+        public double trace_sampling_rate;
+        
+        @ConfigProperty(
+            description="Comma-separated list of per-procedure sampling rates for the SampledWorkloadTrace " +
+                        "(e.g., 'neworder:0.1,payment:0.05'). " +
+                        "See ${site.trace_sampling_rate}.",
+            defaultNull=true,
+            experimental=true
+        )
+        public String trace_sampling_procs;
+        
+        @ConfigProperty(
+            description="The max number of completed transaction traces that each execution thread can " +
+                        "have waiting to be written out by the SampledWorkloadTrace. Any trace beyond this " +
+                        "is dropped.",
+            defaultInt=8192,
+            experimental=true
+        )
+        public int trace_buffer_size;
+        
         // ----------------------------------------------------------------------------
         // HSTORESITE STATUS UPDATES
         // ----------------------------------------------------------------------------
@@ -1182,6 +1505,20 @@ public final class HStoreConf {
             experimental=false
         )
         public int pool_txnredirectresponses_idle;
+        
+        @ConfigProperty(
+            description="The max number of ClientResponseImpls to keep idle in the pool.",
+            defaultInt=2500,
+            experimental=false
+        )
+        public int pool_clientresponses_idle;
+        
+        @ConfigProperty(
+            description="The max number of ClientResponseCallbacks to keep idle in the pool.",
+            defaultInt=2500,
+            experimental=false
+        )
+        public int pool_clientresponsecallbacks_idle;
     }
     
     // ============================================================================
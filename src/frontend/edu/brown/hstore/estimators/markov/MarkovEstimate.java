@@ -151,6 +151,35 @@ public class MarkovEstimate implements Poolable, DynamicTransactionEstimate {
         this.valid = true;
     }
     
+    /**
+     * Copy the path and all of the probabilities from another estimate into this one.
+     * This estimate keeps its own vertex and batch id.
+     * @param other
+     */
+    protected void copyFrom(MarkovEstimate other) {
+        assert(this.isInitialized());
+        assert(this.touched.length == other.touched.length);
+        this.confidence = other.confidence;
+        this.singlepartition = other.singlepartition;
+        this.abort = other.abort;
+        this.greatest_abort = other.greatest_abort;
+        this.valid = other.valid;
+        
+        this.path.clear();
+        this.path.addAll(other.path);
+        this.touched_partitions.clear();
+        this.touched_partitions.addAll(other.touched_partitions);
+        this.read_partitions.clear();
+        this.read_partitions.addAll(other.read_partitions);
+        this.write_partitions.clear();
+        this.write_partitions.addAll(other.write_partitions);
+        
+        System.arraycopy(other.touched, 0, this.touched, 0, this.touched.length);
+        System.arraycopy(other.finished, 0, this.finished, 0, this.finished.length);
+        System.arraycopy(other.read, 0, this.read, 0, this.read.length);
+        System.arraycopy(other.write, 0, this.write, 0, this.write.length);
+    }
+    
     @Override
     public boolean isInitialEstimate() {
         return (this.batch == EstimatorUtil.INITIAL_ESTIMATE_BATCH);
@@ -0,0 +1,229 @@
+package edu.brown.hstore.estimators.markov;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.CatalogContext;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hashing.AbstractHasher;
+import edu.brown.hstore.estimators.EstimatorUtil;
+import edu.brown.markov.MarkovGraph;
+
+/**
+ * Memo table of the initial MarkovEstimates computed for a single version of a MarkovGraph.
+ * Each entry is keyed by the same features that the FeatureExtractor uses to cluster
+ * transactions (BasePartitionFeature, ParamHashPartitionFeature, ParamArrayLengthFeature),
+ * so a new txn whose parameters have the same shape as a previous one can reuse
+ * that txn's estimate instead of traversing the graph again.
+ */
+public class MarkovEstimateMemo {
+
+    /**
+     * The feature vector of a txn's parameters.
+     * A Key can be refilled by createKey() so that each txn does not need to allocate
+     * a new one just to probe the memo. The memo itself only ever stores copies.
+     */
+    public static final class Key {
+        private int values[];
+        private int length;
+        private int hash;
+
+        public Key() {
+            this(new int[8], 0);
+        }
+        private Key(int values[], int length) {
+            this.values = values;
+            this.setLength(length);
+        }
+        private void ensureCapacity(int size) {
+            if (this.values.length < size) {
+                this.values = new int[Math.max(size, this.values.length * 2)];
+            }
+        }
+        private void setLength(int length) {
+            this.length = length;
+            int result = 1;
+            for (int i = 0; i < length; i++) {
+                result = 31 * result + this.values[i];
+            } // FOR
+            this.hash = result;
+        }
+        private Key copy() {
+            return (new Key(Arrays.copyOf(this.values, this.length), this.length));
+        }
+        @Override
+        public int hashCode() {
+            return (this.hash);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return (true);
+            if ((obj instanceof Key) == false) return (false);
+            Key other = (Key)obj;
+            if (this.hash != other.hash || this.length != other.length) return (false);
+            for (int i = 0; i < this.length; i++) {
+                if (this.values[i] != other.values[i]) return (false);
+            } // FOR
+            return (true);
+        }
+        @Override
+        public String toString() {
+            return (Arrays.toString(Arrays.copyOf(this.values, this.length)));
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final CatalogContext catalogContext;
+    private final MarkovGraph markov;
+    private final AbstractHasher hasher;
+
+    /**
+     * Regular ProcParameter Offset -> Whether it is an array
+     */
+    private final boolean param_isarray[];
+
+    /**
+     * Key -> MarkovEstimate
+     * This is in LRU order so that we only keep the most recent shapes around.
+     */
+    private final Map<Key, MarkovEstimate> estimates;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    @SuppressWarnings("serial")
+    public MarkovEstimateMemo(CatalogContext catalogContext, MarkovGraph markov, AbstractHasher hasher, final int max_size) {
+        assert(max_size > 0) : "Invalid memo size " + max_size;
+        this.catalogContext = catalogContext;
+        this.markov = markov;
+        this.hasher = hasher;
+
+        Procedure catalog_proc = markov.getProcedure();
+        List<ProcParameter> catalog_params = CatalogUtil.getRegularProcParameters(catalog_proc);
+        this.param_isarray = new boolean[catalog_params.size()];
+        for (int i = 0; i < this.param_isarray.length; i++) {
+            this.param_isarray[i] = catalog_params.get(i).getIsarray();
+        } // FOR
+
+        this.estimates = new LinkedHashMap<Key, MarkovEstimate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, MarkovEstimate> eldest) {
+                return (this.size() > max_size);
+            }
+        };
+    }
+
+    /**
+     * Returns the version of the MarkovGraph that this memo is for
+     */
+    public MarkovGraph getMarkovGraph() {
+        return (this.markov);
+    }
+
+    // ----------------------------------------------------------------------------
+    // RUNTIME METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Compute the feature vector for a txn.
+     * Array parameters contribute their length followed by the hash of each element.
+     * @param base_partition
+     * @param args - Procedure arguments (mangled)
+     * @return
+     */
+    public Key createKey(int base_partition, Object args[]) {
+        return (this.createKey(base_partition, args, new Key()));
+    }
+
+    /**
+     * Compute the feature vector for a txn into the given Key
+     * @param base_partition
+     * @param args - Procedure arguments (mangled)
+     * @param key - The Key to overwrite
+     * @return
+     */
+    public Key createKey(int base_partition, Object args[], Key key) {
+        int size = 1;
+        for (int i = 0; i < this.param_isarray.length; i++) {
+            size += (this.param_isarray[i] ? 1 + ((Object[])args[i]).length : 1);
+        } // FOR
+
+        key.ensureCapacity(size);
+        int values[] = key.values;
+        int offset = 0;
+        values[offset++] = base_partition;
+        for (int i = 0; i < this.param_isarray.length; i++) {
+            Object param = args[i];
+            if (this.param_isarray[i]) {
+                Object inner[] = (Object[])param;
+                values[offset++] = inner.length;
+                for (int j = 0; j < inner.length; j++) {
+                    values[offset++] = this.hasher.hash(inner[j]);
+                } // FOR
+            } else {
+                values[offset++] = this.hasher.hash(param);
+            }
+        } // FOR
+        key.setLength(offset);
+        return (key);
+    }
+
+    /**
+     * Copy the memoized estimate for the given key into the given MarkovEstimate.
+     * Returns false if there is no entry for this key.
+     * @param key
+     * @param est - An initialized estimate at the graph's start vertex
+     * @return
+     */
+    public boolean populate(Key key, MarkovEstimate est) {
+        MarkovEstimate memo = null;
+        synchronized (this.estimates) {
+            memo = this.estimates.get(key);
+        } // SYNCH
+        if (memo == null) return (false);
+        est.copyFrom(memo);
+        return (true);
+    }
+
+    /**
+     * Store a copy of the given initial estimate for the key.
+     * The key is copied too, so the caller is free to reuse it.
+     * @param key
+     * @param est
+     */
+    public void put(Key key, MarkovEstimate est) {
+        assert(est.isInitialEstimate());
+        MarkovEstimate memo = new MarkovEstimate(this.catalogContext);
+        memo.init(est.getVertex(), EstimatorUtil.INITIAL_ESTIMATE_BATCH);
+        memo.copyFrom(est);
+        synchronized (this.estimates) {
+            this.estimates.put(key.copy(), memo);
+        } // SYNCH
+    }
+
+    /**
+     * Remove the memoized estimate for the given key
+     * @param key
+     * @return true if there was an entry for the key
+     */
+    public boolean remove(Key key) {
+        synchronized (this.estimates) {
+            return (this.estimates.remove(key) != null);
+        } // SYNCH
+    }
+
+    public int size() {
+        synchronized (this.estimates) {
+            return (this.estimates.size());
+        } // SYNCH
+    }
+}
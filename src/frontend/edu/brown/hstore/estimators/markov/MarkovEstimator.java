@@ -7,9 +7,7 @@ import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.collections15.keyvalue.MultiKey;
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
 import org.voltdb.catalog.Procedure;
@@ -18,7 +16,6 @@ import org.voltdb.exceptions.ServerFaultException;
 import org.voltdb.utils.EstTime;
 import org.voltdb.utils.Pair;
 
-import edu.brown.catalog.CatalogKey;
 import edu.brown.graphs.GraphvizExport;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.estimators.EstimatorState;
@@ -27,6 +24,7 @@ import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.CompiledMarkovGraph;
 import edu.brown.markov.MarkovEdge;
 import edu.brown.markov.MarkovGraph;
 import edu.brown.markov.MarkovGraphTimes;
@@ -83,16 +81,27 @@ public class MarkovEstimator extends TransactionEstimator {
     
     /**
      * We can maintain a cache of the last successful MarkovPathEstimator per MarkovGraph
+     * GraphId -> <MarkovGraph, Path>
+     * We keep the MarkovGraph handle so that we don't use a path from an older version of 
+     * the graph after the MarkovModelTrainer publishes a new one.
      */
-    private final Map<MarkovGraph, List<MarkovVertex>> cached_paths = new HashMap<MarkovGraph, List<MarkovVertex>>();
+    private final Map<Integer, Pair<MarkovGraph, List<MarkovVertex>>> cached_paths = new HashMap<Integer, Pair<MarkovGraph, List<MarkovVertex>>>();
     
     /**
-     * For a given vertex, maintain a map to possible future vertices
+     * The memoized initial estimates for each MarkovGraph
+     * GraphId -> MarkovEstimateMemo
+     * Like the cached paths, a memo is only valid for the version of the graph that it was created for.
      */
-    private final Map<MarkovVertex, ConcurrentHashMap<MultiKey<String>, Pair<MarkovEdge, MarkovVertex>>> cache_batchEnd;
+    private final Map<Integer, MarkovEstimateMemo> memos = new HashMap<Integer, MarkovEstimateMemo>();
     
     private transient boolean enable_recomputes = false;
     
+    /**
+     * If this is not null, then we will never modify our MarkovGraphs.
+     * All updates are handed off to the trainer instead.
+     */
+    private MarkovModelTrainer trainer = null;
+    
     /**
      * If we're using the TransactionEstimator, then we need to convert all 
      * primitive array ProcParameters into object arrays...
@@ -115,7 +124,6 @@ public class MarkovEstimator extends TransactionEstimator {
         super(p_estimator);
         this.catalogContext = catalogContext;
         this.markovs = markovs;
-        this.cache_batchEnd = new HashMap<MarkovVertex, ConcurrentHashMap<MultiKey<String>,Pair<MarkovEdge,MarkovVertex>>>();
         
         if (this.markovs != null && this.markovs.getHasher() == null) 
             this.markovs.setHasher(this.hasher);
@@ -157,6 +165,12 @@ public class MarkovEstimator extends TransactionEstimator {
     public void enableGraphRecomputes() {
        this.enable_recomputes = true;
     }
+    public void setModelTrainer(MarkovModelTrainer trainer) {
+        this.trainer = trainer;
+    }
+    public MarkovModelTrainer getModelTrainer() {
+        return (this.trainer);
+    }
     public MarkovGraphsContainer getMarkovGraphsContainer() {
         return (this.markovs);
     }
@@ -263,9 +277,34 @@ public class MarkovEstimator extends TransactionEstimator {
         MarkovEdge next_e = null;
         Statement last_stmt = null;
         int stmt_idxs[] = null;
-
+        
+        // Keep track of the txn's actual path so that we can give it to the trainer
+        if (this.trainer != null) {
+            for (int i = 0; i < batch_size; i++) {
+                state.addTrainingQuery(catalog_stmts[i], partitions[i]);
+            } // FOR
+            
+            // If we've already fallen out of the graph, then there is nothing else for us to do
+            if (state.isOffModel()) {
+                for (int i = 0; i < batch_size; i++) {
+                    touchedPartitions.addAll(partitions[i]);
+                } // FOR
+                if (this.profiler != null) this.profiler.time_update.appendTime(timestamp);
+                return (state.getLastEstimate());
+            }
+        }
+        
+        // The batch end cache is keyed by the current vertex's id in the graph's
+        // compiled snapshot, so we can only use it if that vertex is in there
+        CompiledMarkovGraph compiled = null;
+        int current_id = CompiledMarkovGraph.NULL_ID;
         if (hstore_conf.site.markov_endpoint_caching && batch_size >= hstore_conf.site.markov_batch_caching_min) {
             assert(current != null);
+            compiled = markov.getCompiledGraph();
+            current_id = compiled.getVertexId(current);
+        }
+
+        if (current_id != CompiledMarkovGraph.NULL_ID) {
             if (d) LOG.debug("Attempting cache look-up for last statement in batch: " + Arrays.toString(catalog_stmts));
             
             state.cache_last_partitions.clear();
@@ -281,11 +320,11 @@ public class MarkovEstimator extends TransactionEstimator {
                 else state.cache_last_partitions.addAll(last_partitions);
             } // FOR
             
-            Pair<MarkovEdge, MarkovVertex> pair = this.getCachedBatchEnd(current,
-                                                                         last_stmt,
-                                                                         stmt_idxs[batch_size-1],
-                                                                         state.cache_last_partitions,
-                                                                         state.cache_past_partitions);
+            Pair<MarkovEdge, MarkovVertex> pair = compiled.getBatchEnd(current_id,
+                                                                       last_stmt,
+                                                                       stmt_idxs[batch_size-1],
+                                                                       state.cache_last_partitions,
+                                                                       state.cache_past_partitions);
             if (pair != null) {
                 next_e = pair.getFirst();
                 assert(next_e != null);
@@ -312,20 +351,31 @@ public class MarkovEstimator extends TransactionEstimator {
         if (next_v == null) {
             for (int i = 0; i < batch_size; i++) {
                 int queryCount = (stmt_idxs != null ? stmt_idxs[i] : -1);
-                this.consume(state, markov, catalog_stmts[i], partitions[i], queryCount);
+                if (state.isOffModel() == false) {
+                    this.consume(state, markov, catalog_stmts[i], partitions[i], queryCount);
+                }
                 if (stmt_idxs == null) touchedPartitions.addAll(partitions[i]);
             } // FOR
             
+            // The txn executed a query that is not in the graph, so we can't compute
+            // a new estimate for it. The trainer will fix the graph for the next txn.
+            if (state.isOffModel()) {
+                if (d) LOG.debug(String.format("Txn #%d is no longer following a path in %s[#%d]",
+                                 state.getTransactionId(), markov, markov.getGraphId()));
+                if (this.profiler != null) this.profiler.time_update.appendTime(timestamp);
+                return (state.getLastEstimate());
+            }
+            
             // Update our cache if we tried and failed before
             if (stmt_idxs != null) {
                 if (d) LOG.debug(String.format("Updating cache batch end for %s: %s -> %s", markov, current, state.getCurrent()));
-                this.addCachedBatchEnd(current,
-                                       CollectionUtil.last(state.actual_path_edges),
-                                       state.getCurrent(),
-                                       last_stmt,
-                                       stmt_idxs[batch_size-1],
-                                       state.cache_past_partitions,
-                                       state.cache_last_partitions);
+                compiled.putBatchEnd(current_id,
+                                     last_stmt,
+                                     stmt_idxs[batch_size-1],
+                                     state.cache_last_partitions,
+                                     state.cache_past_partitions,
+                                     CollectionUtil.last(state.actual_path_edges),
+                                     state.getCurrent());
             }
         }
 
@@ -346,7 +396,8 @@ public class MarkovEstimator extends TransactionEstimator {
         
         // Once the workload shifts we detect it and trigger this method. Recomputes
         // the graph with the data we collected with the current workload method.
-        if (this.enable_recomputes && markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE)) {
+        if (this.enable_recomputes && this.trainer == null &&
+            markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE)) {
             markov.calculateProbabilities();
         }
         
@@ -367,6 +418,13 @@ public class MarkovEstimator extends TransactionEstimator {
         // The transaction for the given txn_id is in limbo, so we just want to remove it
         if (status == Status.ABORT_MISPREDICT) {
             state.getMarkovGraph().incrementMispredictionCount();
+            
+            // Don't let anybody else use the memoized estimate for this txn
+            if (state.getMemoKey() != null) {
+                if (state.isMemoHit() && this.profiler != null) this.profiler.memo_mispredicts++;
+                MarkovEstimateMemo memo = this.getMemo(state.getMarkovGraph(), false);
+                if (memo != null) memo.remove(state.getMemoKey());
+            }
             if (this.profiler != null) this.profiler.time_finish.appendTime(timestamp);
             return;
         }
@@ -379,7 +437,22 @@ public class MarkovEstimator extends TransactionEstimator {
         // If there were no updates while the transaction was running, then
         // we don't want to try to update the model, because we will end up
         // connecting the START vertex to the COMMIT vertex, which is not correct
-        if (state.updatesEnabled()) {
+        if (state.updatesEnabled() && this.trainer != null) {
+            // Let the trainer update the graph with the txn's path
+            int num_queries = state.training_stmts.size();
+            this.trainer.queue(this.markovs,
+                               markov,
+                               state.training_stmts.toArray(new Statement[num_queries]),
+                               state.training_partitions.toArray(new PartitionSet[num_queries]),
+                               status);
+            
+            MarkovVertex next_v = markov.getFinishVertex(status);
+            if (next_v != null && state.isOffModel() == false) {
+                MarkovEdge next_e = markov.findEdge(state.getCurrent(), next_v);
+                if (next_e != null) state.setCurrent(next_v, next_e); // For post-txn processing...
+            }
+        }
+        else if (state.updatesEnabled()) {
             // We need to update the counter information in our MarkovGraph so that we know
             // that the procedure may transition to the ABORT vertex from where ever it was before 
             MarkovVertex current = state.getCurrent();
@@ -397,9 +470,19 @@ public class MarkovEstimator extends TransactionEstimator {
             
             // If no edge exists to the next vertex, then we need to create one
             MarkovEdge next_e = null;
-            synchronized (next_v) {
-                next_e = markov.addToEdge(current, next_v);
-            } // SYNCH
+            if (hstore_conf.site.markov_compiled_graphs) {
+                CompiledMarkovGraph compiled = markov.getCompiledGraph();
+                int current_id = compiled.getVertexId(current);
+                if (current_id != CompiledMarkovGraph.NULL_ID) {
+                    int e_id = compiled.findEdge(current_id, compiled.getVertexId(next_v));
+                    if (e_id != CompiledMarkovGraph.NULL_ID) next_e = compiled.getEdge(e_id);
+                }
+            }
+            if (next_e == null) {
+                synchronized (next_v) {
+                    next_e = markov.addToEdge(current, next_v);
+                } // SYNCH
+            }
             state.setCurrent(next_v, next_e); // For post-txn processing...
     
             // Update counters
@@ -414,19 +497,20 @@ public class MarkovEstimator extends TransactionEstimator {
         
         // Cache the path for the MarkovGraph if the path was correct for the txn
         if (hstore_conf.site.markov_path_caching && 
-            this.cached_paths.containsKey(markov) == false && state.getInitialEstimate().isValid()) {
+            this.getCachedPath(markov) == null && state.getInitialEstimate().isValid()) {
             MarkovEstimate initialEst = s.getInitialEstimate();
             synchronized (this.cached_paths) {
-                if (this.cached_paths.containsKey(markov) == false) {
+                if (this.getCachedPath(markov) == null) {
                     if (d) LOG.debug(String.format("Storing cached path through %s[#%d] that was used by txn #%d",
                                      markov, markov.getGraphId(), txn_id));
-                    this.cached_paths.put(markov, initialEst.getMarkovPath());
+                    this.cached_paths.put(markov.getGraphId(),
+                                          Pair.of(markov, initialEst.getMarkovPath()));
                 }
             } // SYNCH
         } else if (t && hstore_conf.site.markov_path_caching) {
             LOG.trace(String.format("Not caching path through %s[#%d] used by txn #%d [alreadyCached=%s / isValid=%s]",
                       markov, markov.getGraphId(), txn_id,
-                      this.cached_paths.containsKey(markov), state.getInitialEstimate().isValid()));
+                      (this.getCachedPath(markov) != null), state.getInitialEstimate().isValid()));
         }
         if (this.profiler != null) this.profiler.time_finish.appendTime(timestamp);
         return;
@@ -486,11 +570,16 @@ public class MarkovEstimator extends TransactionEstimator {
                 }
             }
         }
+        // Check whether we have already estimated the path for a previous txn with the same features
+        else if (hstore_conf.site.markov_path_memoization && currentVertex.isStartVertex() &&
+                 this.memoEstimation(state, est, markov, catalog_proc, args)) {
+            compute_path = false;
+        }
         // We'll reuse the last MarkovPathEstimator (and it's path) if the graph has been accurate for
         // other previous transactions. This prevents us from having to recompute the path every single time,
         // especially for single-partition transactions where the clustered MarkovGraphs are accurate
         else if (hstore_conf.site.markov_path_caching) {
-            List<MarkovVertex> cached = this.cached_paths.get(markov);
+            List<MarkovVertex> cached = this.getCachedPath(markov);
             if (cached == null) {
                 if (d) LOG.debug(String.format("%s - No cached path available for %s[#%d]",
                                  AbstractTransaction.formatTxnName(catalog_proc, state.getTransactionId()), markov, markov.getGraphId()));
@@ -548,9 +637,78 @@ public class MarkovEstimator extends TransactionEstimator {
             }
             
             this.pathEstimatorsPool.returnObject(pathEstimator);
+            
+            // Remember this estimate for the next txn with the same features
+            if (state.getMemoKey() != null && est.isInitialEstimate()) {
+                this.getMemo(markov, true).put(state.getMemoKey(), est);
+            }
         }
     }
     
+    /**
+     * Populate the given initial estimate from the MarkovEstimateMemo for the txn's MarkovGraph.
+     * Returns false if no previous txn had the same features.
+     * @param state
+     * @param est
+     * @param markov
+     * @param catalog_proc
+     * @param args Procedure arguments (mangled)
+     * @return
+     */
+    private boolean memoEstimation(MarkovEstimatorState state, MarkovEstimate est, MarkovGraph markov,
+                                   Procedure catalog_proc, Object args[]) {
+        long timestamp = -1l;
+        if (this.profiler != null) timestamp = ProfileMeasurement.getTime();
+        MarkovEstimateMemo memo = this.getMemo(markov, true);
+        MarkovEstimateMemo.Key key = memo.createKey(state.getBasePartition(), args, state.getMemoKeyBuffer());
+        boolean hit = memo.populate(key, est);
+        state.setMemoKey(key, hit);
+        if (d) LOG.debug(String.format("%s - Memoized estimate %s for %s[#%d] %s",
+                         AbstractTransaction.formatTxnName(catalog_proc, state.getTransactionId()),
+                         (hit ? "found" : "not found"), markov, markov.getGraphId(), key));
+        if (this.profiler != null) {
+            if (hit) {
+                this.profiler.memo_hits++;
+                this.profiler.time_memo_estimate.appendTime(timestamp);
+            } else {
+                this.profiler.memo_misses++;
+            }
+        }
+        return (hit);
+    }
+    
+    /**
+     * Return the MarkovEstimateMemo for the given MarkovGraph. If create is true and we
+     * have a memo for a different version of the graph, then it is replaced with a new
+     * empty one. Otherwise we will return null.
+     * @param markov
+     * @param create
+     * @return
+     */
+    private MarkovEstimateMemo getMemo(MarkovGraph markov, boolean create) {
+        synchronized (this.memos) {
+            MarkovEstimateMemo memo = this.memos.get(markov.getGraphId());
+            if (memo == null || memo.getMarkovGraph() != markov) {
+                if (create == false) return (null);
+                memo = new MarkovEstimateMemo(this.catalogContext, markov, this.hasher,
+                                              hstore_conf.site.markov_path_memoization_size);
+                this.memos.put(markov.getGraphId(), memo);
+            }
+            return (memo);
+        } // SYNCH
+    }
+    
+    /**
+     * Return the cached path for the given MarkovGraph. Returns null if we don't
+     * have one or if the cached path is for a different version of the graph.
+     * @param markov
+     * @return
+     */
+    private List<MarkovVertex> getCachedPath(MarkovGraph markov) {
+        Pair<MarkovGraph, List<MarkovVertex>> cached = this.cached_paths.get(markov.getGraphId());
+        return (cached != null && cached.getFirst() == markov ? cached.getSecond() : null);
+    }
+    
     /**
      * Figure out the next vertex that the txn will transition to for the give Statement catalog object
      * and the partitions that it will touch when it is executed. If no vertex exists, we will create
@@ -580,42 +738,68 @@ public class MarkovEstimator extends TransactionEstimator {
         MarkovVertex next_v = null;
         MarkovEdge next_e = null;
         
-        // Synchronize on the single vertex so that it's more fine-grained than the entire graph
-        synchronized (current) {
-            Collection<MarkovEdge> edges = markov.getOutEdges(current);
-            if (edges != null) {
-                if (t) LOG.trace("Examining " + edges.size() + " edges from " + current + " for txn #" + state.getTransactionId());
-                for (MarkovEdge e : edges) {
-                    MarkovVertex v = markov.getDest(e);
-                    if (v.isEqual(catalog_stmt, partitions, touchedPartitions, queryCounter)) {
-                        if (t) LOG.trace("Found next vertex " + v + " for Txn #" + state.getTransactionId());
-                        next_v = v;
-                        next_e = e;
-                        break;
-                    }
-                } // FOR
+        // Check whether the graph's compiled snapshot already has the next vertex.
+        // This does not require us to acquire any locks.
+        if (hstore_conf.site.markov_compiled_graphs) {
+            CompiledMarkovGraph compiled = markov.getCompiledGraph();
+            int current_id = compiled.getVertexId(current);
+            if (current_id != CompiledMarkovGraph.NULL_ID) {
+                int e_id = compiled.findNextEdge(current_id, catalog_stmt, queryCounter, partitions, touchedPartitions);
+                if (e_id != CompiledMarkovGraph.NULL_ID) {
+                    next_e = compiled.getEdge(e_id);
+                    next_v = compiled.getVertex(compiled.getEdgeTarget(e_id));
+                    if (t) LOG.trace("Found next vertex " + next_v + " in compiled graph for txn #" + state.getTransactionId());
+                }
             }
+        }
         
-            // If we fail to find the next vertex, that means we have to dynamically create a new 
-            // one. The graph is self-managed, so we don't need to worry about whether 
-            // we need to recompute probabilities.
-            if (next_v == null) {
-                next_v = new MarkovVertex(catalog_stmt,
-                                          MarkovVertex.Type.QUERY,
-                                          queryCounter,
-                                          partitions,
-                                          touchedPartitions);
-                assert(markov.containsVertex(current)) :
-                    String.format("%s does not have current vertex %s for %s",
-                                  markov, current,
-                                  AbstractTransaction.formatTxnName(markov.getProcedure(), state.getTransactionId())); 
-                markov.addVertex(next_v);
-                next_e = markov.addToEdge(current, next_v);
-                if (t) LOG.trace(String.format("Created new edge from %s to new vertex %s for txn #%d", 
-                                 state.getCurrent(), next_v, state.getTransactionId()));
-                // assert(state.getCurrent().getPartitions().size() <= touchedPartitions.size());
-            }
-        } // SYNCH
+        // Otherwise synchronize on the single vertex so that it's more fine-grained than the entire graph
+        if (next_v == null) {
+            synchronized (current) {
+                Collection<MarkovEdge> edges = markov.getOutEdges(current);
+                if (edges != null) {
+                    if (t) LOG.trace("Examining " + edges.size() + " edges from " + current + " for txn #" + state.getTransactionId());
+                    for (MarkovEdge e : edges) {
+                        MarkovVertex v = markov.getDest(e);
+                        if (v.isEqual(catalog_stmt, partitions, touchedPartitions, queryCounter)) {
+                            if (t) LOG.trace("Found next vertex " + v + " for Txn #" + state.getTransactionId());
+                            next_v = v;
+                            next_e = e;
+                            break;
+                        }
+                    } // FOR
+                }
+        
+                // If we fail to find the next vertex, that means we have to dynamically create a new 
+                // one. The graph is self-managed, so we don't need to worry about whether 
+                // we need to recompute probabilities.
+                // If the graph is maintained by the MarkovModelTrainer, then we are not
+                // allowed to modify it. The new vertex will show up in its next version.
+                if (next_v == null && this.trainer == null) {
+                    next_v = new MarkovVertex(catalog_stmt,
+                                              MarkovVertex.Type.QUERY,
+                                              queryCounter,
+                                              partitions,
+                                              touchedPartitions);
+                    assert(markov.containsVertex(current)) :
+                        String.format("%s does not have current vertex %s for %s",
+                                      markov, current,
+                                      AbstractTransaction.formatTxnName(markov.getProcedure(), state.getTransactionId())); 
+                    markov.addVertex(next_v);
+                    next_e = markov.addToEdge(current, next_v);
+                    if (t) LOG.trace(String.format("Created new edge from %s to new vertex %s for txn #%d", 
+                                     state.getCurrent(), next_v, state.getTransactionId()));
+                    // assert(state.getCurrent().getPartitions().size() <= touchedPartitions.size());
+                }
+            } // SYNCH
+        }
+        if (next_v == null) {
+            if (t) LOG.trace(String.format("No vertex for %s in %s for txn #%d",
+                             catalog_stmt.fullName(), markov, state.getTransactionId()));
+            state.markOffModel();
+            if (this.profiler != null) this.profiler.time_consume.appendTime(timestamp);
+            return (null);
+        }
         
         if (current.isStartVertex() && next_v.isCommitVertex()) {
             throw new ServerFaultException("Trying to connect START->COMMIT", state.getTransactionId());
@@ -691,38 +875,6 @@ public class MarkovEstimator extends TransactionEstimator {
         return (readOnly);
     }
     
-    protected Pair<MarkovEdge, MarkovVertex> getCachedBatchEnd(MarkovVertex start, Statement catalog_stmt, int idx, PartitionSet partitions, PartitionSet past_partitions) {
-        Map<MultiKey<String>, Pair<MarkovEdge, MarkovVertex>> m = this.cache_batchEnd.get(start);
-        Pair<MarkovEdge, MarkovVertex> found = null;
-        if (m != null) {
-            MultiKey<String> cache_key = new MultiKey<String>(CatalogKey.createKey(catalog_stmt),
-                                                              Integer.toString(idx),
-                                                              partitions.toString(),
-                                                              past_partitions.toString());
-            found = m.get(cache_key);
-        }
-        return (found);
-    }
-    
-    protected void addCachedBatchEnd(MarkovVertex start, MarkovEdge e, MarkovVertex v,
-                                     Statement catalog_stmt, int idx, PartitionSet partitions, PartitionSet past_partitions) {
-        ConcurrentHashMap<MultiKey<String>, Pair<MarkovEdge, MarkovVertex>> m = cache_batchEnd.get(start);
-        if (m == null) {
-            synchronized (this.cache_batchEnd) {
-                m = this.cache_batchEnd.get(start);
-                if (m == null) {
-                    m = new ConcurrentHashMap<MultiKey<String>, Pair<MarkovEdge, MarkovVertex>>();
-                    this.cache_batchEnd.put(start, m);
-                }
-            } // SYNCH
-        }
-        MultiKey<String> cache_key = new MultiKey<String>(CatalogKey.createKey(catalog_stmt),
-                                                          Integer.toString(idx),
-                                                          partitions.toString(),
-                                                          past_partitions.toString());
-        m.putIfAbsent(cache_key, Pair.of(e, v));
-    }
-    
     // ----------------------------------------------------------------------------
     // DEBUG METHODS
     // ----------------------------------------------------------------------------
@@ -8,6 +8,7 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
+import org.voltdb.catalog.Statement;
 
 import edu.brown.graphs.GraphvizExport;
 import edu.brown.hstore.conf.HStoreConf;
@@ -45,6 +46,28 @@ public final class MarkovEstimatorState extends EstimatorState {
     protected final PartitionSet cache_past_partitions = new PartitionSet();
     protected final PartitionSet cache_last_partitions = new PartitionSet();
     
+    /**
+     * The queries that the txn executed and the partitions that they touched.
+     * This is only populated if we are using the MarkovModelTrainer.
+     */
+    protected final List<Statement> training_stmts = new ArrayList<Statement>();
+    protected final List<PartitionSet> training_partitions = new ArrayList<PartitionSet>();
+    
+    /**
+     * Set to true once the txn executes a query that does not have a vertex
+     * in its read-only MarkovGraph
+     */
+    private boolean off_model = false;
+    
+    /**
+     * The feature vector that we used to look up this txn's initial estimate in
+     * its MarkovGraph's MarkovEstimateMemo, and whether we found it there.
+     * The buffer is reused by every txn that this state object is handed out to.
+     */
+    private final MarkovEstimateMemo.Key memo_key_buffer = new MarkovEstimateMemo.Key();
+    private MarkovEstimateMemo.Key memo_key = null;
+    private boolean memo_hit = false;
+    
     /**
      * State Factory
      */
@@ -85,6 +108,11 @@ public final class MarkovEstimatorState extends EstimatorState {
         this.markov.incrementTransasctionCount();
         this.actual_path.clear();
         this.actual_path_edges.clear();
+        this.training_stmts.clear();
+        this.training_partitions.clear();
+        this.off_model = false;
+        this.memo_key = null;
+        this.memo_hit = false;
         this.current = null;
         this.markov = null;
         this.args = null;
@@ -151,6 +179,47 @@ public final class MarkovEstimatorState extends EstimatorState {
         this.current = current;
     }
     
+    /**
+     * Returns true if the txn has executed a query that was not in its MarkovGraph
+     * and therefore we no longer know where it is in the graph.
+     * @return
+     */
+    public boolean isOffModel() {
+        return (this.off_model);
+    }
+    protected void markOffModel() {
+        this.off_model = true;
+    }
+    
+    protected MarkovEstimateMemo.Key getMemoKey() {
+        return (this.memo_key);
+    }
+    protected MarkovEstimateMemo.Key getMemoKeyBuffer() {
+        return (this.memo_key_buffer);
+    }
+    protected void setMemoKey(MarkovEstimateMemo.Key key, boolean hit) {
+        this.memo_key = key;
+        this.memo_hit = hit;
+    }
+    /**
+     * Returns true if the txn's initial estimate came from a MarkovEstimateMemo
+     * instead of a MarkovPathEstimator traversal
+     * @return
+     */
+    public boolean isMemoHit() {
+        return (this.memo_hit);
+    }
+    
+    /**
+     * Record a query that the txn executed so that we can pass it along to the MarkovModelTrainer
+     * @param catalog_stmt
+     * @param partitions
+     */
+    protected void addTrainingQuery(Statement catalog_stmt, PartitionSet partitions) {
+        this.training_stmts.add(catalog_stmt);
+        this.training_partitions.add(new PartitionSet(partitions));
+    }
+    
     /**
      * Debug method to dump out the Markov graph to a Graphviz file
      * Returns the path to the file
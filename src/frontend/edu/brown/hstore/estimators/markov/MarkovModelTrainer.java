@@ -0,0 +1,320 @@
+package edu.brown.hstore.estimators.markov;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.Statement;
+import org.voltdb.exceptions.ServerFaultException;
+
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.interfaces.Shutdownable;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.containers.MarkovGraphsBinaryFile;
+import edu.brown.markov.containers.MarkovGraphsContainer;
+import edu.brown.utils.ExceptionHandlingRunnable;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Background thread that maintains the MarkovGraphs used by the MarkovEstimators
+ * at a site. The PartitionExecutors never modify a graph that they are using.
+ * Instead, they queue the path of each completed transaction here. We apply these
+ * paths to a private shadow copy of each graph, and then periodically recompute
+ * the probabilities of the shadow and swap a new read-only version of it into the
+ * graph's MarkovGraphsContainer.
+ */
+public class MarkovModelTrainer extends ExceptionHandlingRunnable implements Shutdownable {
+    private static final Logger LOG = Logger.getLogger(MarkovModelTrainer.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The max number of path records that can be waiting for us.
+     * Anything beyond this is dropped so that we don't run out of memory
+     * if we can't keep up with the PartitionExecutors.
+     */
+    protected static final int MAX_PENDING_RECORDS = 100000;
+
+    /**
+     * The path of a single transaction through a MarkovGraph
+     */
+    private static class PathRecord {
+        private final MarkovGraphsContainer markovs;
+        private final MarkovGraph markov;
+        private final Statement catalog_stmts[];
+        private final PartitionSet partitions[];
+        private final Status status;
+
+        private PathRecord(MarkovGraphsContainer markovs, MarkovGraph markov,
+                           Statement catalog_stmts[], PartitionSet partitions[], Status status) {
+            this.markovs = markovs;
+            this.markov = markov;
+            this.catalog_stmts = catalog_stmts;
+            this.partitions = partitions;
+            this.status = status;
+        }
+    } // CLASS
+
+    /**
+     * The private copy of a MarkovGraph that we apply updates to
+     */
+    private static class ShadowGraph {
+        private final MarkovGraphsContainer markovs;
+        private final MarkovGraph shadow;
+        /** The version of the graph that the estimators are currently using */
+        private MarkovGraph published;
+        /** The number of records applied since the last time we published */
+        private int dirty = 0;
+
+        private ShadowGraph(MarkovGraphsContainer markovs, MarkovGraph published) throws IOException {
+            this.markovs = markovs;
+            this.published = published;
+            this.shadow = MarkovGraphsBinaryFile.copy(published);
+            this.shadow.setTransactionCount(published.getTransactionCount());
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final long interval;
+
+    private final Queue<PathRecord> queue = new ConcurrentLinkedQueue<PathRecord>();
+    private final AtomicInteger queueSize = new AtomicInteger(0);
+
+    /**
+     * Published MarkovGraph -> ShadowGraph
+     * Transactions that started before we published a new version of a graph will
+     * still reference the old version, so we keep a mapping for every version that
+     * somebody is still holding on to. These are only accessed by the trainer thread.
+     */
+    private final Map<MarkovGraph, ShadowGraph> versions = new WeakHashMap<MarkovGraph, ShadowGraph>();
+    private final List<ShadowGraph> shadows = new ArrayList<ShadowGraph>();
+
+    private final AtomicLong recordCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong publishCount = new AtomicLong(0);
+
+    private Thread self = null;
+    private volatile boolean stop = false;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public MarkovModelTrainer(HStoreSite hstore_site) {
+        this(hstore_site, hstore_site.getHStoreConf().site.markov_training_interval);
+    }
+
+    protected MarkovModelTrainer(HStoreSite hstore_site, long interval) {
+        assert(interval > 0) : "Invalid training interval " + interval;
+        this.hstore_site = hstore_site;
+        this.hstore_conf = HStoreConf.singleton();
+        this.interval = interval;
+    }
+
+    // ----------------------------------------------------------------------------
+    // PARTITION EXECUTOR METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Queue the path of a completed transaction so that it is applied to the next
+     * version of the MarkovGraph that it used. This is safe to call from any thread
+     * and never blocks. Returns false if the record was dropped.
+     * @param markovs - The container that the graph was retrieved from
+     * @param markov - The graph that the txn used
+     * @param catalog_stmts - The queries that the txn executed, in order
+     * @param partitions - The partitions touched by each query
+     * @param status - The final status of the txn
+     * @return
+     */
+    public boolean queue(MarkovGraphsContainer markovs, MarkovGraph markov,
+                         Statement catalog_stmts[], PartitionSet partitions[], Status status) {
+        if (this.queueSize.incrementAndGet() > MAX_PENDING_RECORDS) {
+            this.queueSize.decrementAndGet();
+            this.droppedCount.incrementAndGet();
+            if (trace.get()) LOG.trace(String.format("Dropping path record for %s[#%d]",
+                                       markov, markov.getGraphId()));
+            return (false);
+        }
+        this.queue.offer(new PathRecord(markovs, markov, catalog_stmts, partitions, status));
+        return (true);
+    }
+
+    // ----------------------------------------------------------------------------
+    // TRAINING METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void runImpl() {
+        this.self = Thread.currentThread();
+        if (this.hstore_site != null) {
+            this.self.setName(HStoreThreadManager.getThreadName(this.hstore_site, HStoreConstants.THREAD_NAME_MARKOV));
+            this.hstore_site.getThreadManager().registerProcessingThread();
+        }
+        if (debug.get()) LOG.debug(String.format("Starting %s [interval=%dms]",
+                                   this.getClass().getSimpleName(), this.interval));
+
+        final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(this.interval);
+        long nextPublish = System.nanoTime() + intervalNanos;
+        while (this.stop == false) {
+            LockSupport.parkNanos(this, intervalNanos / 10);
+            if (Thread.interrupted()) break;
+            this.processQueue();
+            if (System.nanoTime() >= nextPublish) {
+                this.publish();
+                nextPublish = System.nanoTime() + intervalNanos;
+            }
+        } // WHILE
+    }
+
+    /**
+     * Apply all of the queued path records to their shadow graphs.
+     * This should only be invoked by the trainer thread.
+     * @return The number of records that were applied
+     */
+    protected int processQueue() {
+        int ctr = 0;
+        PathRecord record = null;
+        while ((record = this.queue.poll()) != null) {
+            this.queueSize.decrementAndGet();
+            ShadowGraph sg = this.versions.get(record.markov);
+            if (sg == null) {
+                try {
+                    sg = new ShadowGraph(record.markovs, record.markov);
+                } catch (IOException ex) {
+                    String msg = String.format("Failed to create shadow copy of %s[#%d]",
+                                               record.markov, record.markov.getGraphId());
+                    throw new ServerFaultException(msg, ex);
+                }
+                this.versions.put(record.markov, sg);
+                this.shadows.add(sg);
+            }
+            if (sg.shadow.processPath(record.catalog_stmts, record.partitions, record.status)) {
+                sg.dirty++;
+                ctr++;
+            }
+        } // WHILE
+        this.recordCount.addAndGet(ctr);
+        if (trace.get() && ctr > 0) LOG.trace(String.format("Applied %d path records", ctr));
+        return (ctr);
+    }
+
+    /**
+     * Recompute the probabilities for every shadow graph that was updated since the
+     * last time that we were called, and then swap a new read-only copy of them
+     * into their containers. This should only be invoked by the trainer thread.
+     * @return The number of graphs that were published
+     */
+    protected int publish() {
+        int ctr = 0;
+        for (ShadowGraph sg : this.shadows) {
+            if (sg.dirty == 0) continue;
+
+            sg.shadow.calculateProbabilities();
+            MarkovGraph next = null;
+            try {
+                next = MarkovGraphsBinaryFile.copy(sg.shadow);
+            } catch (IOException ex) {
+                String msg = String.format("Failed to create new version of %s[#%d]",
+                                           sg.shadow, sg.shadow.getGraphId());
+                throw new ServerFaultException(msg, ex);
+            }
+            next.setTransactionCount(sg.shadow.getTransactionCount());
+
+            // Build the compiled snapshot now so that the first txn to use
+            // the new version doesn't have to wait for it
+            if (hstore_conf.site.markov_compiled_graphs) next.getCompiledGraph();
+
+            if (sg.markovs.replace(sg.published, next)) {
+                if (debug.get()) LOG.debug(String.format("Published new version of %s[#%d] with %d new paths " +
+                                           "[vertices=%d, edges=%d]",
+                                           next, next.getGraphId(), sg.dirty,
+                                           next.getVertexCount(), next.getEdgeCount()));
+                sg.published = next;
+                this.versions.put(next, sg);
+                ctr++;
+            } else {
+                LOG.warn(String.format("Unable to publish new version of %s[#%d] because it is no " +
+                         "longer in its MarkovGraphsContainer", next, next.getGraphId()));
+            }
+            sg.dirty = 0;
+        } // FOR
+        this.publishCount.addAndGet(ctr);
+        return (ctr);
+    }
+
+    // ----------------------------------------------------------------------------
+    // SHUTDOWN METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void prepareShutdown(boolean error) {
+        this.queue.clear();
+        this.queueSize.set(0);
+    }
+
+    @Override
+    public void shutdown() {
+        this.stop = true;
+        if (this.self != null) this.self.interrupt();
+        if (debug.get()) LOG.debug(String.format("%s Stats: records=%d / dropped=%d / published=%d",
+                                   this.getClass().getSimpleName(), this.recordCount.get(),
+                                   this.droppedCount.get(), this.publishCount.get()));
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return (this.stop);
+    }
+
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of path records that have been applied to the shadow graphs
+     */
+    public long getRecordCount() {
+        return (this.recordCount.get());
+    }
+    /**
+     * Returns the number of path records that were dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return (this.droppedCount.get());
+    }
+    /**
+     * Returns the number of new graph versions that have been published
+     */
+    public long getPublishCount() {
+        return (this.publishCount.get());
+    }
+    /**
+     * Returns the number of path records waiting to be applied
+     */
+    public int getQueueSize() {
+        return (this.queueSize.get());
+    }
+}
@@ -44,6 +44,13 @@ public abstract class AbstractTransactionHandler<T extends GeneratedMessage, U e
     /** The site id where this handler is running at */
     protected final int local_site_id;
     
+    /**
+     * If this is set, then messages to remote sites will be batched
+     * together with the messages for other transactions instead of
+     * being sent right away with sendRemote()
+     */
+    protected TransactionBatcher<T, U> batcher;
+    
     public AbstractTransactionHandler(HStoreSite hstore_site, HStoreCoordinator hstore_coord) {
         this.hstore_site = hstore_site;
         this.hstore_conf = hstore_site.getHStoreConf();
@@ -88,6 +95,10 @@ public abstract class AbstractTransactionHandler<T extends GeneratedMessage, U e
             if (this.local_site_id == dest_site_id) {
                 send_local = true;
             }
+            // Remote Partition (Batched)
+            else if (this.batcher != null) {
+                this.queueRemote(dest_site_id, request, callback);
+            }
             // Remote Partition
             else {
                 HStoreService channel = coordinator.getChannel(dest_site_id);
@@ -103,6 +114,25 @@ public abstract class AbstractTransactionHandler<T extends GeneratedMessage, U e
         if (send_local) this.sendLocal(ts.getTransactionId(), request, partitions, callback);
     }
     
+    /**
+     * Add the message to the batch for the given remote site. This is only
+     * used if the handler has a TransactionBatcher.
+     * @param site_id
+     * @param request
+     * @param callback
+     */
+    protected void queueRemote(int site_id, T request, RpcCallback<U> callback) {
+        this.batcher.queue(site_id, request, callback);
+    }
+    
+    /**
+     * Send out any batched messages that are waiting to go to the given remote site
+     * @param site_id
+     */
+    public void flushRemote(int site_id) {
+        if (this.batcher != null) this.batcher.flush(site_id);
+    }
+    
     /**
      * The processing method that is invoked if the outgoing message needs
      * to be sent to a partition that is on the same machine as where this
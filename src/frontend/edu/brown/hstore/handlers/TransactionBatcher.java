@@ -0,0 +1,195 @@
+package edu.brown.hstore.handlers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.hstore.HStoreCoordinator;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.HStoreService;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.protorpc.ProtoRpcController;
+
+/**
+ * Packs the messages for different transactions that are going to the same
+ * remote HStoreSite into a single request. A batch is sent as soon as it has
+ * ${site.coordinator_batch_2pc_size} messages or after ${site.coordinator_batch_2pc_delay}
+ * microseconds have passed since its first message was queued, whichever comes first.
+ * The remote side sends back one response with an entry for each message in the
+ * same order, which we then hand off to each message's original callback.
+ * @param <T> The message that we will send out on the network
+ * @param <U> The expected message that we will need to get back as a response
+ */
+public abstract class TransactionBatcher<T extends GeneratedMessage, U extends GeneratedMessage> {
+    private static final Logger LOG = Logger.getLogger(TransactionBatcher.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private final HStoreSite hstore_site;
+    private final HStoreCoordinator coordinator;
+    private final AbstractTransactionHandler<T, U> handler;
+    private final int maxSize;
+    private final long delay;
+
+    /** SiteId -> Batch */
+    private final List<Batch> batches;
+
+    /**
+     * The messages that are waiting to be sent to a single site.
+     * The timer task flushes whatever is in the batch when it fires.
+     */
+    private class Batch implements Runnable {
+        final int site_id;
+        List<T> requests = new ArrayList<T>();
+        List<RpcCallback<U>> callbacks = new ArrayList<RpcCallback<U>>();
+        boolean scheduled = false;
+
+        Batch(int site_id) {
+            this.site_id = site_id;
+        }
+        @Override
+        public void run() {
+            synchronized (this) {
+                this.scheduled = false;
+            } // SYNCH
+            flush(this.site_id);
+        }
+    }
+
+    public TransactionBatcher(HStoreSite hstore_site, HStoreCoordinator hstore_coord, AbstractTransactionHandler<T, U> handler) {
+        this.hstore_site = hstore_site;
+        this.coordinator = hstore_coord;
+        this.handler = handler;
+        this.maxSize = Math.max(1, hstore_site.getHStoreConf().site.coordinator_batch_2pc_size);
+        this.delay = Math.max(0, hstore_site.getHStoreConf().site.coordinator_batch_2pc_delay);
+
+        int num_sites = hstore_site.getCatalogContext().numberOfSites;
+        this.batches = new ArrayList<Batch>(num_sites);
+        for (int i = 0; i < num_sites; i++) {
+            this.batches.add(new Batch(i));
+        } // FOR
+    }
+
+    /**
+     * Queue a message to be sent to the given remote site. This will send out
+     * the site's batch right away if it is full.
+     * @param site_id
+     * @param request
+     * @param callback
+     */
+    public void queue(int site_id, T request, RpcCallback<U> callback) {
+        Batch batch = this.batches.get(site_id);
+        boolean schedule = false;
+        synchronized (batch) {
+            batch.requests.add(request);
+            batch.callbacks.add(callback);
+            if (batch.requests.size() >= this.maxSize) {
+                this.send(batch);
+            }
+            else if (batch.scheduled == false) {
+                batch.scheduled = true;
+                schedule = true;
+            }
+        } // SYNCH
+
+        if (schedule) {
+            if (trace.get())
+                LOG.trace(String.format("Scheduling flush of %s batch for %s in %dus",
+                          request.getClass().getSimpleName(), HStoreThreadManager.formatSiteName(site_id), this.delay));
+            this.hstore_site.getThreadManager().scheduleWork(batch, this.delay, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * Send out whatever messages are waiting to go to the given remote site.
+     * Once this returns, anything else that is sent to that site will
+     * be written out after them.
+     * @param site_id
+     */
+    public void flush(int site_id) {
+        Batch batch = this.batches.get(site_id);
+        synchronized (batch) {
+            if (batch.requests.isEmpty() == false) this.send(batch);
+        } // SYNCH
+    }
+
+    /**
+     * Send out the messages in the given batch. The caller has to hold the batch's
+     * lock so that batches for the same site are written out in the order
+     * that they were taken.
+     * @param batch
+     */
+    private void send(Batch batch) {
+        assert(Thread.holdsLock(batch));
+        final int site_id = batch.site_id;
+        final List<T> requests = batch.requests;
+        final List<RpcCallback<U>> callbacks = batch.callbacks;
+        batch.requests = new ArrayList<T>();
+        batch.callbacks = new ArrayList<RpcCallback<U>>();
+
+        T request = this.combineRequests(requests);
+        if (debug.get())
+            LOG.debug(String.format("Sending batch of %d %s messages to %s",
+                      requests.size(), request.getClass().getSimpleName(), HStoreThreadManager.formatSiteName(site_id)));
+
+        final HStoreService channel = this.coordinator.getChannel(site_id);
+        assert(channel != null) : "Invalid site id '" + site_id + "'";
+        RpcCallback<U> callback = new RpcCallback<U>() {
+            @Override
+            public void run(U response) {
+                for (int i = 0, cnt = callbacks.size(); i < cnt; i++) {
+                    U r = (response != null ? getResponse(response, i) : null);
+                    // The remote site didn't have an answer for this message yet,
+                    // so we have to ask for it again on its own
+                    if (r != null && isDeferred(r)) {
+                        if (debug.get())
+                            LOG.debug(String.format("Resending deferred %s message #%d to %s",
+                                      requests.get(i).getClass().getSimpleName(), i, HStoreThreadManager.formatSiteName(site_id)));
+                        handler.sendRemote(channel, new ProtoRpcController(), requests.get(i), callbacks.get(i));
+                    } else {
+                        callbacks.get(i).run(r);
+                    }
+                } // FOR
+            }
+        };
+        this.handler.sendRemote(channel, new ProtoRpcController(), request, callback);
+    }
+
+    /**
+     * Returns true if the given response is a placeholder for a message that
+     * the remote site has not finished processing yet. The original message will
+     * be sent again by itself so that the remote site can answer it when it is ready.
+     * @param response
+     * @return
+     */
+    protected boolean isDeferred(U response) {
+        return (false);
+    }
+
+    /**
+     * Combine the given messages into a single message. The first message
+     * in the list should be the outer message.
+     * @param requests
+     * @return
+     */
+    protected abstract T combineRequests(List<T> requests);
+
+    /**
+     * Return the response for the message at the given offset in a batch.
+     * The response for the first message is the outer response.
+     * @param response
+     * @param offset
+     * @return
+     */
+    protected abstract U getResponse(U response, int offset);
+}
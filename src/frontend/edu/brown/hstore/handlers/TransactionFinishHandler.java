@@ -1,5 +1,7 @@
 package edu.brown.hstore.handlers;
 
+import java.util.List;
+
 import org.apache.log4j.Logger;
 
 import com.google.protobuf.RpcCallback;
@@ -35,6 +37,21 @@ public class TransactionFinishHandler extends AbstractTransactionHandler<Transac
     public TransactionFinishHandler(HStoreSite hstore_site, HStoreCoordinator hstore_coord, AbstractDispatcher<Object[]> finishDispatcher) {
         super(hstore_site, hstore_coord);
         this.finishDispatcher = finishDispatcher;
+        if (hstore_conf.site.coordinator_batch_2pc) {
+            this.batcher = new TransactionBatcher<TransactionFinishRequest, TransactionFinishResponse>(hstore_site, hstore_coord, this) {
+                @Override
+                protected TransactionFinishRequest combineRequests(List<TransactionFinishRequest> requests) {
+                    if (requests.size() == 1) return (requests.get(0));
+                    return (requests.get(0).toBuilder()
+                                .addAllBatch(requests.subList(1, requests.size()))
+                                .build());
+                }
+                @Override
+                protected TransactionFinishResponse getResponse(TransactionFinishResponse response, int offset) {
+                    return (offset == 0 ? response : response.getBatch(offset-1));
+                }
+            };
+        }
     }
     
     @Override
@@ -43,6 +60,14 @@ public class TransactionFinishHandler extends AbstractTransactionHandler<Transac
         hstore_site.transactionFinish(txn_id, request.getStatus(), partitions);
     }
     @Override
+    protected void queueRemote(int site_id, TransactionFinishRequest request, RpcCallback<TransactionFinishResponse> callback) {
+        // The prepare message for this txn might still be sitting in a batch for
+        // this site. That has to go out first, otherwise the remote site could
+        // get rid of the txn and then get a prepare for a txn that it doesn't know about.
+        this.coordinator.getTransactionPrepareHandler().flushRemote(site_id);
+        super.queueRemote(site_id, request, callback);
+    }
+    @Override
     public void sendRemote(HStoreService channel, ProtoRpcController controller, TransactionFinishRequest request,
                            RpcCallback<TransactionFinishResponse> callback) {
         channel.transactionFinish(controller, request, callback);
@@ -50,7 +75,7 @@ public class TransactionFinishHandler extends AbstractTransactionHandler<Transac
     @Override
     public void remoteQueue(RpcController controller, TransactionFinishRequest request,
                             RpcCallback<TransactionFinishResponse> callback) {
-        if (this.finishDispatcher != null && request.getStatus() == Status.ABORT_RESTART) {
+        if (this.finishDispatcher != null && this.hasRestart(request)) {
             if (debug.get())
                 LOG.debug(String.format("Queuing %s for txn #%d [status=%s]",
                           request.getClass().getSimpleName(), request.getTransactionId(), request.getStatus()));
@@ -63,15 +88,41 @@ public class TransactionFinishHandler extends AbstractTransactionHandler<Transac
             this.remoteHandler(controller, request, callback);
         }
     }
+    
+    /**
+     * Returns true if any of the txns in the request need to be restarted
+     */
+    private boolean hasRestart(TransactionFinishRequest request) {
+        if (request.getStatus() == Status.ABORT_RESTART) return (true);
+        for (int i = 0, cnt = request.getBatchCount(); i < cnt; i++) {
+            if (request.getBatch(i).getStatus() == Status.ABORT_RESTART) return (true);
+        } // FOR
+        return (false);
+    }
+    
     @Override
     public void remoteHandler(RpcController controller, TransactionFinishRequest request,
                               RpcCallback<TransactionFinishResponse> callback) {
+        TransactionFinishResponse.Builder builder = this.finish(request);
+        
+        // If this request has the finish messages for other txns, then
+        // we will send back all of their responses together
+        for (int i = 0, cnt = request.getBatchCount(); i < cnt; i++) {
+            builder.addBatch(this.finish(request.getBatch(i)));
+        } // FOR
+        callback.run(builder.build());
+    }
+    
+    private TransactionFinishResponse.Builder finish(TransactionFinishRequest request) {
         assert(request.hasTransactionId()) : "Got " + request.getClass().getSimpleName() + " without a txn id!";
         long txn_id = request.getTransactionId();
         if (debug.get())
             LOG.debug(String.format("Got %s for txn #%d [status=%s]",
                       request.getClass().getSimpleName(), txn_id, request.getStatus()));
         
+        // Let go of any prepare for this txn that a batch was still waiting on
+        this.coordinator.getTransactionPrepareHandler().finishDeferred(txn_id, request.getStatus());
+        
         this.finishPartitions.clear();
         this.finishPartitions.addAll(request.getPartitionsList());
         hstore_site.transactionFinish(txn_id, request.getStatus(), this.finishPartitions);
@@ -86,7 +137,7 @@ public class TransactionFinishHandler extends AbstractTransactionHandler<Transac
             LOG.debug(String.format("Sending back %s for txn #%d [status=%s, partitions=%s]",
                       TransactionFinishResponse.class.getSimpleName(), txn_id,
                       request.getStatus(), builder.getPartitionsList()));
-        callback.run(builder.build());
+        return (builder);
     }
     @Override
     protected ProtoRpcController getProtoRpcController(LocalTransaction ts, int site_id) {
@@ -71,22 +71,15 @@ public class TransactionInitHandler extends AbstractTransactionHandler<Transacti
             String.format("Got init request for remote txn #%d but we already have one [%s]",
                           txn_id, ts);
 
-        // This allocation is unnecessary if we're on the same site
-        PartitionSet partitions = null;
-        if (ts instanceof LocalTransaction) {
-            partitions = ((LocalTransaction)ts).getPredictTouchedPartitions();
-        } else {
-            partitions = new PartitionSet(request.getPartitionsList());
-        }
-        
         // If we don't have a handle, we need to make one so that we can stick in the
         // things that we need to keep track of at this site. At this point we know that we're on
-        // a remote site from the txn's base partition
+        // a remote site from the txn's base partition. The RemoteTransaction copies the
+        // partitions into its own PartitionSet, so we don't need to allocate one here.
         if (ts == null) {
             int base_partition = request.getBasePartition();
             ts = this.hstore_site.getTransactionInitializer()
                                  .createRemoteTransaction(txn_id,
-                                                          partitions,
+                                                          request.getPartitionsList(),
                                                           base_partition,
                                                           request.getProcedureId());
         }
@@ -1,5 +1,10 @@
 package edu.brown.hstore.handlers;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.log4j.Logger;
 
 import com.google.protobuf.RpcCallback;
@@ -8,6 +13,7 @@ import com.google.protobuf.RpcController;
 import edu.brown.hstore.HStoreCoordinator;
 import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.Hstoreservice.HStoreService;
+import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.Hstoreservice.TransactionPrepareRequest;
 import edu.brown.hstore.Hstoreservice.TransactionPrepareResponse;
 import edu.brown.hstore.callbacks.TransactionPrepareWrapperCallback;
@@ -25,8 +31,46 @@ public class TransactionPrepareHandler extends AbstractTransactionHandler<Transa
         LoggerUtil.attachObserver(LOG, debug);
     }
     
+    /**
+     * TxnId -> DeferredPrepare
+     * The txns from batched requests that were not prepared by the time that
+     * we had to send back the batch's response.
+     */
+    private final Map<Long, DeferredPrepare> deferred = new HashMap<Long, DeferredPrepare>();
+    
+    /**
+     * A txn whose prepare response did not make it into its batch's response.
+     * The sender will always ask for it again, so we keep whatever shows up first
+     * (the response, the sender's new request, or the txn's finish) until the
+     * other side is here.
+     */
+    private static class DeferredPrepare {
+        TransactionPrepareResponse response;
+        RpcCallback<TransactionPrepareResponse> callback;
+        Status finished;
+    }
+    
     public TransactionPrepareHandler(HStoreSite hstore_site, HStoreCoordinator hstore_coord) {
         super(hstore_site, hstore_coord);
+        if (hstore_conf.site.coordinator_batch_2pc) {
+            this.batcher = new TransactionBatcher<TransactionPrepareRequest, TransactionPrepareResponse>(hstore_site, hstore_coord, this) {
+                @Override
+                protected TransactionPrepareRequest combineRequests(List<TransactionPrepareRequest> requests) {
+                    if (requests.size() == 1) return (requests.get(0));
+                    return (requests.get(0).toBuilder()
+                                .addAllBatch(requests.subList(1, requests.size()))
+                                .build());
+                }
+                @Override
+                protected TransactionPrepareResponse getResponse(TransactionPrepareResponse response, int offset) {
+                    return (offset == 0 ? response : response.getBatch(offset-1));
+                }
+                @Override
+                protected boolean isDeferred(TransactionPrepareResponse response) {
+                    return (response.getStatus() == Status.OK && response.getPartitionsCount() == 0);
+                }
+            };
+        }
     }
     
     @Override
@@ -57,29 +101,240 @@ public class TransactionPrepareHandler extends AbstractTransactionHandler<Transa
     @Override
     public void remoteHandler(RpcController controller, TransactionPrepareRequest request,
             RpcCallback<TransactionPrepareResponse> callback) {
+        if (request.getBatchCount() == 0) {
+            this.prepare(request, callback);
+            return;
+        }
+        
+        // This request has the prepare messages for multiple txns. We will wait until
+        // all of them are prepared before we send back the response, but only for so long
+        if (debug.get())
+            LOG.debug(String.format("Got %s with a batch of %d txns",
+                      request.getClass().getSimpleName(), request.getBatchCount() + 1));
+        BatchPrepareCallback batchCallback = new BatchPrepareCallback(request, callback);
+        this.prepare(request, batchCallback.getCallback(0));
+        for (int i = 0, cnt = request.getBatchCount(); i < cnt; i++) {
+            this.prepare(request.getBatch(i), batchCallback.getCallback(i+1));
+        } // FOR
+        if (batchCallback.isSent() == false) {
+            this.hstore_site.getThreadManager().scheduleWork(batchCallback,
+                                                             hstore_conf.site.coordinator_batch_2pc_prepare_wait,
+                                                             TimeUnit.MICROSECONDS);
+        }
+    }
+    
+    /**
+     * Collects the TransactionPrepareResponses for all of the txns in a batched
+     * request and then sends them back together in a single response. If the timer
+     * goes off before all of the txns are prepared, then the response is sent with
+     * an empty entry for each of the txns that are not done yet. The sender will send
+     * the prepare for those txns again, and we will answer it with the real response
+     * once we have it.
+     */
+    private class BatchPrepareCallback implements Runnable {
+        private final long txn_ids[];
+        private final TransactionPrepareResponse responses[];
+        private final RpcCallback<TransactionPrepareResponse> orig_callback;
+        private int remaining;
+        private boolean sent = false;
+        
+        public BatchPrepareCallback(TransactionPrepareRequest request, RpcCallback<TransactionPrepareResponse> orig_callback) {
+            this.txn_ids = new long[request.getBatchCount() + 1];
+            this.txn_ids[0] = request.getTransactionId();
+            for (int i = 0; i < request.getBatchCount(); i++) {
+                this.txn_ids[i+1] = request.getBatch(i).getTransactionId();
+            } // FOR
+            this.responses = new TransactionPrepareResponse[this.txn_ids.length];
+            this.remaining = this.txn_ids.length;
+            this.orig_callback = orig_callback;
+        }
+        
+        public synchronized boolean isSent() {
+            return (this.sent);
+        }
+        
+        public RpcCallback<TransactionPrepareResponse> getCallback(final int offset) {
+            return new RpcCallback<TransactionPrepareResponse>() {
+                @Override
+                public void run(TransactionPrepareResponse response) {
+                    boolean send = false;
+                    boolean late = false;
+                    synchronized (BatchPrepareCallback.this) {
+                        if (sent) {
+                            late = true;
+                        } else {
+                            responses[offset] = response;
+                            send = (--remaining == 0);
+                            sent = send;
+                        }
+                    } // SYNCH
+                    if (send) {
+                        sendResponse();
+                    } else if (late) {
+                        deliverDeferred(txn_ids[offset], response);
+                    }
+                }
+            };
+        }
+        
+        /**
+         * The timer went off before all of the txns were prepared.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (this.sent) return;
+                this.sent = true;
+                for (int i = 0; i < this.responses.length; i++) {
+                    if (this.responses[i] != null) continue;
+                    // This has to be in place before the late response can show up
+                    addDeferred(this.txn_ids[i]);
+                    this.responses[i] = TransactionPrepareResponse.newBuilder()
+                                            .setTransactionId(this.txn_ids[i])
+                                            .setStatus(Status.OK)
+                                            .build();
+                } // FOR
+            } // SYNCH
+            if (debug.get())
+                LOG.debug(String.format("Sending back %s for batch of %d txns before all of them were prepared",
+                          TransactionPrepareResponse.class.getSimpleName(), this.responses.length));
+            this.sendResponse();
+        }
+        
+        private void sendResponse() {
+            TransactionPrepareResponse.Builder builder = this.responses[0].toBuilder();
+            for (int i = 1; i < this.responses.length; i++) {
+                builder.addBatch(this.responses[i]);
+            } // FOR
+            this.orig_callback.run(builder.build());
+        }
+    }
+    
+    // ----------------------------------------------------------------------------
+    // DEFERRED PREPARES
+    // ----------------------------------------------------------------------------
+    
+    private void addDeferred(long txn_id) {
+        synchronized (this.deferred) {
+            this.deferred.put(txn_id, new DeferredPrepare());
+        } // SYNCH
+    }
+    
+    /**
+     * A txn that was left out of its batch's response is now prepared. 
+     * @param txn_id
+     * @param response
+     */
+    private void deliverDeferred(long txn_id, TransactionPrepareResponse response) {
+        RpcCallback<TransactionPrepareResponse> callback = null;
+        synchronized (this.deferred) {
+            DeferredPrepare d = this.deferred.get(txn_id);
+            if (d == null) return;
+            if (d.callback != null) {
+                this.deferred.remove(txn_id);
+                callback = d.callback;
+            } else {
+                d.response = response;
+            }
+        } // SYNCH
+        if (callback != null) callback.run(response);
+    }
+    
+    /**
+     * Check whether the given prepare request is the sender asking again for a txn
+     * that was left out of its batch's response. Returns true if the request was
+     * taken care of here.
+     * @param txn_id
+     * @param callback
+     * @return
+     */
+    private boolean resendDeferred(long txn_id, RpcCallback<TransactionPrepareResponse> callback) {
+        TransactionPrepareResponse response = null;
+        synchronized (this.deferred) {
+            DeferredPrepare d = this.deferred.get(txn_id);
+            if (d == null) return (false);
+            if (d.response != null) {
+                response = d.response;
+            } else if (d.finished != null) {
+                response = this.abortResponse(txn_id, d.finished);
+            } else {
+                d.callback = callback;
+                return (true);
+            }
+            this.deferred.remove(txn_id);
+        } // SYNCH
+        if (debug.get())
+            LOG.debug(String.format("Sending back deferred %s for txn #%d [status=%s]",
+                      response.getClass().getSimpleName(), txn_id, response.getStatus()));
+        callback.run(response);
+        return (true);
+    }
+    
+    /**
+     * The given txn is being finished at this site. If the sender was still waiting
+     * for its deferred prepare response, then we have to tell it now because the
+     * txn's partitions will never get back to us.
+     * @param txn_id
+     * @param status
+     */
+    public void finishDeferred(long txn_id, Status status) {
+        RpcCallback<TransactionPrepareResponse> callback = null;
+        synchronized (this.deferred) {
+            if (this.deferred.isEmpty()) return;
+            DeferredPrepare d = this.deferred.get(txn_id);
+            if (d == null) return;
+            if (d.callback != null) {
+                this.deferred.remove(txn_id);
+                callback = d.callback;
+            } else {
+                // The sender will still ask again, so we have to keep this around until then
+                d.finished = status;
+            }
+        } // SYNCH
+        if (callback != null) callback.run(this.abortResponse(txn_id, status));
+    }
+    
+    private TransactionPrepareResponse abortResponse(long txn_id, Status status) {
+        return TransactionPrepareResponse.newBuilder()
+                    .setTransactionId(txn_id)
+                    .setStatus(status == Status.OK ? Status.ABORT_UNEXPECTED : status)
+                    .build();
+    }
+    
+    private void prepare(TransactionPrepareRequest request, RpcCallback<TransactionPrepareResponse> callback) {
         assert(request.hasTransactionId()) :
             "Got " + request.getClass().getSimpleName() + " without a txn id!";
         Long txn_id = Long.valueOf(request.getTransactionId());
         if (debug.get())
             LOG.debug(String.format("Got %s for txn #%d", request.getClass().getSimpleName(), txn_id));
+        if (this.resendDeferred(txn_id, callback)) return;
+        
+        assert(request.getPartitionsCount() > 0) :
+            "Unexpected empty list of updated partitions for txn #" + txn_id;
+        
+        // The txn could have already been aborted here if its finish got
+        // here before this prepare did. There is nothing left to prepare.
+        RemoteTransaction ts = this.hstore_site.getTransaction(txn_id);
+        if (ts == null) {
+            if (debug.get())
+                LOG.warn(String.format("No transaction information exists for #%d. Rejecting %s",
+                         txn_id, request.getClass().getSimpleName()));
+            callback.run(this.abortResponse(txn_id, Status.ABORT_UNEXPECTED));
+            return;
+        }
         
         // HACK
         // Use a TransactionPrepareWrapperCallback to ensure that we only send back
         // the prepare response once all of the PartitionExecutors have successfully
         // acknowledged that we're ready to commit
-        PartitionSet partitions = new PartitionSet(request.getPartitionsList());
-        assert(partitions.isEmpty() == false) :
-            "Unexpected empty list of updated partitions for txn #" + txn_id;
-        partitions.retainAll(hstore_site.getLocalPartitionIds());
-        
-        RemoteTransaction ts = this.hstore_site.getTransaction(txn_id);
-        assert(ts != null) : "Unexpected null transaction handle for txn #" + txn_id;
         TransactionPrepareWrapperCallback wrapper = ts.getPrepareWrapperCallback();
         if (wrapper.isInitialized()) wrapper.finish();
-        wrapper.init(ts, partitions, callback);
+        wrapper.init(ts, request.getPartitionsList(), callback);
         assert(wrapper.isInitialized()) :
             String.format("Unexepected uninitialized %s for %s", callback.getClass().getSimpleName(), ts);
         
+        PartitionSet partitions = wrapper.getPartitions();
+        partitions.retainAll(hstore_site.getLocalPartitionIds());
         hstore_site.transactionPrepare(ts, partitions);
     }
     @Override
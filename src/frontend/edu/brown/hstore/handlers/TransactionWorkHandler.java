@@ -69,11 +69,13 @@ public class TransactionWorkHandler extends AbstractTransactionHandler<Transacti
         // Deserialize embedded ParameterSets and store it in the RemoteTransaction handle
         // This way we only do it once per HStoreSite. This will also force us to avoid having
         // to do it for local work
-        ParameterSet parameterSets[] = new ParameterSet[request.getParamsCount()]; // TODO: Cache!
+        ParameterSet parameterSets[] = ts.getParameterSetArray(request.getParamsCount());
+        FastDeserializer fds = null;
         for (int i = 0; i < parameterSets.length; i++) {
             ByteString paramData = request.getParams(i);
             if (paramData != null && paramData.isEmpty() == false) {
-                final FastDeserializer fds = new FastDeserializer(paramData.asReadOnlyByteBuffer());
+                if (fds == null) fds = new FastDeserializer(paramData.asReadOnlyByteBuffer());
+                else fds.setBuffer(paramData.asReadOnlyByteBuffer());
                 if (trace.get()) LOG.trace(String.format("Txn #%d paramData[%d] => %s",
                                                          txn_id, i, fds.buffer()));
                 try {
@@ -90,7 +92,6 @@ public class TransactionWorkHandler extends AbstractTransactionHandler<Transacti
         ts.attachParameterSets(parameterSets);
         
         // Deserialize attached VoltTable input dependencies
-        FastDeserializer fds = null;
         VoltTable vt = null;
         for (int i = 0, cnt = request.getAttachedDataCount(); i < cnt; i++) {
             int input_dep_id = request.getAttachedDepId(i);
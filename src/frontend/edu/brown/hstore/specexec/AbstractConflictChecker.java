@@ -1,6 +1,7 @@
 package edu.brown.hstore.specexec;
 
 import org.voltdb.CatalogContext;
+import org.voltdb.ParameterSet;
 import org.voltdb.catalog.Procedure;
 
 import edu.brown.hstore.txns.AbstractTransaction;
@@ -25,6 +26,20 @@ public abstract class AbstractConflictChecker implements Loggable {
         // Nothing...
     }
     
+    /**
+     * Notify the ConflictChecker that the current distributed txn at the given partition
+     * just executed a batch of PlanFragments with the given parameters. This is only
+     * needed for ConflictCheckers that keep track of what the dtxn actually accessed.
+     * @param ts
+     * @param partitionId
+     * @param fragmentIds
+     * @param parameterSets
+     * @param batchSize
+     */
+    public void notifyFragmentsExecuted(AbstractTransaction ts, int partitionId, long fragmentIds[], ParameterSet parameterSets[], int batchSize) {
+        // Nothing...
+    }
+    
     /**
      * Returns true if the given Procedure should be ignored from conflict checking
      * @param proc
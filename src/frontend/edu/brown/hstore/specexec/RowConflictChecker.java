@@ -0,0 +1,571 @@
+package edu.brown.hstore.specexec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.ParameterSet;
+import org.voltdb.catalog.CatalogType;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.catalog.Table;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.ConjunctionExpression;
+import org.voltdb.types.ExpressionType;
+import org.voltdb.types.QueryType;
+
+import edu.brown.catalog.CatalogPair;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.catalog.special.CountedStatement;
+import edu.brown.catalog.special.MultiColumn;
+import edu.brown.designer.ColumnSet;
+import edu.brown.expressions.ExpressionUtil;
+import edu.brown.hstore.estimators.Estimate;
+import edu.brown.hstore.estimators.EstimatorState;
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.mappings.ParameterMapping;
+import edu.brown.mappings.ParameterMappingsSet;
+import edu.brown.mappings.ParametersUtil;
+import edu.brown.markov.EstimationThresholds;
+import edu.brown.utils.PartitionEstimator;
+
+/**
+ * A row-level ConflictChecker that compares the actual key values accessed by
+ * the current distributed txn at a partition against the key values that a
+ * single-partition candidate is predicted to access. We first ask the
+ * TableConflictChecker whether the two txns conflict at all. If they do, then we
+ * check whether we can prove that every conflicting pair of accesses touches
+ * different rows in the same tables.
+ * <B>NOTE:</B> Each PartitionExecutor needs its own instance because we keep
+ * track of the keys accessed by the current dtxn at the partition.
+ */
+public class RowConflictChecker extends AbstractConflictChecker {
+    private static final Logger LOG = Logger.getLogger(RowConflictChecker.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    private static boolean d;
+    private static boolean t;
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+        d = debug.get();
+        t = trace.get();
+    }
+
+    /**
+     * Placeholder offset for a key column that is not bound to a StmtParameter
+     */
+    private static final int NULL_PARAM_OFFSET = -1;
+
+    private final PartitionEstimator p_estimator;
+    private final ParameterMappingsSet paramMappings;
+    private final TableConflictChecker tableChecker;
+    private final boolean disabled;
+
+    // ----------------------------------------------------------------------------
+    // PRECOMPUTED CACHE
+    // ----------------------------------------------------------------------------
+
+    protected static class StatementCache {
+        final Statement catalog_stmt;
+        final boolean readonly;
+
+        /**
+         * The ids of the tables referenced by this Statement
+         */
+        final int tableIds[];
+
+        /**
+         * For each table in tableIds, the StmtParameter offsets that are
+         * bound by equality to the table's key columns.
+         * If a key column is not bound, then the offset will be NULL_PARAM_OFFSET.
+         */
+        final int keyParams[][];
+
+        StatementCache(Statement catalog_stmt, int tableIds[], int keyParams[][]) {
+            this.catalog_stmt = catalog_stmt;
+            this.readonly = catalog_stmt.getReadonly();
+            this.tableIds = tableIds;
+            this.keyParams = keyParams;
+        }
+    } // CLASS
+
+    /**
+     * The key values of a single table access by the current dtxn.
+     * A null entry means that we don't know what value was used for that key column.
+     */
+    protected static class KeyAccess {
+        final Statement catalog_stmt;
+        final boolean write;
+        final Object keys[];
+
+        KeyAccess(Statement catalog_stmt, boolean write, Object keys[]) {
+            this.catalog_stmt = catalog_stmt;
+            this.write = write;
+            this.keys = keys;
+        }
+    } // CLASS
+
+    /**
+     * TableId -> The columns that we use to identify rows in the table
+     */
+    private final Column keyColumns[][];
+
+    /**
+     * We have a separate cache object for each Statement
+     */
+    protected final Map<Statement, StatementCache> stmtCache = new HashMap<Statement, StatementCache>();
+
+    /**
+     * PlanFragmentId -> StatementCache
+     */
+    private final Map<Long, StatementCache> fragmentCache = new HashMap<Long, StatementCache>();
+
+    // ----------------------------------------------------------------------------
+    // CURRENT DTXN TRACKING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The txn id of the distributed txn whose accesses are stored in trackedAccesses
+     */
+    private Long trackedTxnId = null;
+
+    /**
+     * TableId -> List of key accesses performed by the current dtxn
+     */
+    private final List<KeyAccess> trackedAccesses[];
+
+    /**
+     * Reusable buffer for the candidate's key values
+     */
+    private final Object keyBuffer[];
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     *
+     * @param catalogContext
+     * @param p_estimator
+     */
+    @SuppressWarnings("unchecked")
+    public RowConflictChecker(CatalogContext catalogContext, PartitionEstimator p_estimator) {
+        super(catalogContext);
+        this.p_estimator = p_estimator;
+        this.paramMappings = catalogContext.paramMappings;
+        this.tableChecker = new TableConflictChecker(catalogContext);
+        this.disabled = (this.paramMappings == null);
+
+        int numTables = this.catalogContext.database.getTables().size() + 1;
+        this.keyColumns = new Column[numTables][];
+        this.trackedAccesses = (List<KeyAccess>[])new List<?>[numTables];
+        int maxKeys = 0;
+        for (Table catalog_tbl : this.catalogContext.database.getTables()) {
+            int tableId = catalog_tbl.getRelativeIndex();
+            this.keyColumns[tableId] = this.computeKeyColumns(catalog_tbl);
+            this.trackedAccesses[tableId] = new ArrayList<KeyAccess>();
+            maxKeys = Math.max(maxKeys, this.keyColumns[tableId].length);
+        } // FOR
+        this.keyBuffer = new Object[maxKeys];
+
+        if (this.disabled == false) {
+            Set<PlanFragment> allFrags = new HashSet<PlanFragment>();
+            for (Procedure catalog_proc : this.catalogContext.getRegularProcedures()) {
+                for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                    StatementCache cache = this.computeStatementCache(catalog_stmt);
+                    this.stmtCache.put(catalog_stmt, cache);
+
+                    allFrags.clear();
+                    allFrags.addAll(catalog_stmt.getFragments());
+                    allFrags.addAll(catalog_stmt.getMs_fragments());
+                    for (PlanFragment catalog_frag : allFrags) {
+                        this.fragmentCache.put(Long.valueOf(catalog_frag.getId()), cache);
+                    } // FOR
+                } // FOR (stmt)
+            } // FOR (proc)
+        }
+    }
+
+    /**
+     * Return the columns that identify a row in the given table. This will be
+     * the table's primary key columns plus its partitioning column (if it is not
+     * already included in the primary key).
+     * @param catalog_tbl
+     * @return
+     */
+    private Column[] computeKeyColumns(Table catalog_tbl) {
+        List<Column> columns = new ArrayList<Column>(CatalogUtil.getPrimaryKeyColumns(catalog_tbl));
+        Column partition_col = catalog_tbl.getPartitioncolumn();
+        if (partition_col != null &&
+                partition_col instanceof MultiColumn == false &&
+                columns.contains(partition_col) == false) {
+            columns.add(partition_col);
+        }
+        return (columns.toArray(new Column[columns.size()]));
+    }
+
+    private StatementCache computeStatementCache(Statement catalog_stmt) {
+        final Collection<Table> tables = CatalogUtil.getReferencedTables(catalog_stmt);
+        final QueryType qtype = QueryType.get(catalog_stmt.getQuerytype());
+
+        // The PartitionEstimator already knows which StmtParameters are used with
+        // the partitioning columns. If it can't tell us, then the Statement is a
+        // broadcast (or uses a MultiColumn) and so it could touch any row.
+        int estParams[] = this.p_estimator.getStatementEstimationParameters(catalog_stmt);
+
+        // Only equality predicates on the key columns can be used to identify rows.
+        // For INSERTs we use the values being inserted. For everything else we
+        // only look at the WHERE clause so that we don't confuse the SET portion
+        // of an UPDATE with its predicates.
+        ColumnSet cset = null;
+        Collection<Column> disjunctionCols = null;
+        if (estParams != null) {
+            if (qtype == QueryType.INSERT) {
+                cset = CatalogUtil.extractStatementColumnSet(catalog_stmt, false);
+            }
+            else if (catalog_stmt.getExptree() != null && catalog_stmt.getExptree().isEmpty() == false) {
+                cset = new ColumnSet();
+                try {
+                    AbstractExpression root_exp = ExpressionUtil.deserializeExpression(this.catalogContext.database,
+                                                                                       catalog_stmt.getExptree());
+                    CatalogUtil.extractExpressionColumnSet(catalog_stmt, this.catalogContext.database,
+                                                           cset, root_exp, false, tables);
+                    disjunctionCols = getDisjunctionColumns(this.catalogContext.database, root_exp);
+                } catch (Exception ex) {
+                    throw new RuntimeException("Failed to extract ColumnSet for " + catalog_stmt.fullName(), ex);
+                }
+            }
+        }
+
+        // An UPDATE that modifies one of the key columns could move a row into
+        // the key range of another txn, so we have to treat it as touching everything
+        Collection<Column> modified = null;
+        if (qtype == QueryType.UPDATE) {
+            modified = CatalogUtil.getModifiedColumns(catalog_stmt);
+        }
+
+        int tableIds[] = new int[tables.size()];
+        int keyParams[][] = new int[tables.size()][];
+        int i = 0;
+        for (Table catalog_tbl : tables) {
+            int tableId = catalog_tbl.getRelativeIndex();
+            Column keys[] = this.keyColumns[tableId];
+            tableIds[i] = tableId;
+            keyParams[i] = new int[keys.length];
+            for (int j = 0; j < keys.length; j++) {
+                keyParams[i][j] = NULL_PARAM_OFFSET;
+                if (cset == null) continue;
+                if (modified != null && modified.contains(keys[j])) {
+                    for (int k = 0; k < keys.length; k++) keyParams[i][k] = NULL_PARAM_OFFSET;
+                    break;
+                }
+                // The ColumnSet doesn't tell us whether a predicate is inside of
+                // an OR clause. If it is, then the Statement can access rows that
+                // don't match this key, so we have to treat it as touching everything
+                if (disjunctionCols != null && disjunctionCols.contains(keys[j])) {
+                    for (int k = 0; k < keys.length; k++) keyParams[i][k] = NULL_PARAM_OFFSET;
+                    break;
+                }
+
+                // The partitioning column for single-table Statements comes
+                // straight from the PartitionEstimator
+                if (keys[j].equals(catalog_tbl.getPartitioncolumn()) && tables.size() == 1 && estParams.length == 1) {
+                    keyParams[i][j] = estParams[0];
+                    continue;
+                }
+
+                // If there is more than one StmtParameter for the column (e.g., an OR clause),
+                // then we don't know which row is going to be accessed
+                StmtParameter param = null;
+                int found = 0;
+                for (CatalogPair pair : cset.findAll(keys[j])) {
+                    CatalogType other = pair.getOther(keys[j]);
+                    if (other instanceof StmtParameter) {
+                        found++;
+                        if (pair.getComparisonExp() == ExpressionType.COMPARE_EQUAL) {
+                            param = (StmtParameter)other;
+                        }
+                    }
+                } // FOR
+                if (found == 1 && param != null) {
+                    keyParams[i][j] = param.getIndex();
+                }
+            } // FOR
+            if (t) LOG.trace(String.format("%s -> %s key params %s",
+                             catalog_stmt.fullName(), catalog_tbl.getName(), Arrays.toString(keyParams[i])));
+            i++;
+        } // FOR
+        return (new StatementCache(catalog_stmt, tableIds, keyParams));
+    }
+
+    /**
+     * Return all of the Columns that are referenced below an OR conjunction
+     * in the given expression tree.
+     * @param catalog_db
+     * @param root_exp
+     * @return
+     */
+    protected static Collection<Column> getDisjunctionColumns(Database catalog_db, AbstractExpression root_exp) {
+        Set<Column> columns = new HashSet<Column>();
+        for (ConjunctionExpression exp : ExpressionUtil.getExpressions(root_exp, ConjunctionExpression.class)) {
+            if (exp.getExpressionType() == ExpressionType.CONJUNCTION_OR) {
+                columns.addAll(ExpressionUtil.getReferencedColumns(catalog_db, exp));
+            }
+        } // FOR
+        return (columns);
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONFLICT CHECKING
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void setEstimationThresholds(EstimationThresholds t) {
+        this.tableChecker.setEstimationThresholds(t);
+    }
+
+    @Override
+    public boolean shouldIgnoreProcedure(Procedure proc) {
+        return (this.tableChecker.shouldIgnoreProcedure(proc));
+    }
+
+    @Override
+    public void notifyFragmentsExecuted(AbstractTransaction ts, int partitionId, long fragmentIds[], ParameterSet parameterSets[], int batchSize) {
+        if (this.disabled) return;
+
+        // Start tracking a new dtxn
+        if (ts.getTransactionId().equals(this.trackedTxnId) == false) {
+            if (t) LOG.trace(String.format("Resetting tracked key accesses [prev=%s, new=%s]", this.trackedTxnId, ts));
+            for (List<KeyAccess> accesses : this.trackedAccesses) {
+                if (accesses != null) accesses.clear();
+            } // FOR
+            this.trackedTxnId = ts.getTransactionId();
+        }
+
+        for (int i = 0; i < batchSize; i++) {
+            StatementCache cache = this.fragmentCache.get(Long.valueOf(fragmentIds[i]));
+
+            // If we don't know what this fragment is, then we have to assume
+            // that it touches every row in the tables that it references
+            if (cache == null) {
+                Long fragId = Long.valueOf(fragmentIds[i]);
+                this.trackTableAccesses(this.catalogContext.getReadTableIds(fragId), false);
+                this.trackTableAccesses(this.catalogContext.getWriteTableIds(fragId), true);
+                continue;
+            }
+
+            Object params[] = (parameterSets[i] != null ? parameterSets[i].toArray() : null);
+            for (int j = 0; j < cache.tableIds.length; j++) {
+                List<KeyAccess> accesses = this.trackedAccesses[cache.tableIds[j]];
+
+                // Multi-partition Statements execute multiple fragments with
+                // the same input parameters, so we only need to record it once
+                if (accesses.isEmpty() == false) {
+                    KeyAccess last = accesses.get(accesses.size()-1);
+                    if (last.catalog_stmt == cache.catalog_stmt && last.write == (cache.readonly == false)) {
+                        boolean same = true;
+                        for (int k = 0; k < last.keys.length; k++) {
+                            Object val = this.getStmtParameterValue(params, cache.keyParams[j][k]);
+                            if (val != last.keys[k] && (val == null || val.equals(last.keys[k]) == false)) {
+                                same = false;
+                                break;
+                            }
+                        } // FOR
+                        if (same) continue;
+                    }
+                }
+
+                Object keys[] = new Object[cache.keyParams[j].length];
+                for (int k = 0; k < keys.length; k++) {
+                    keys[k] = this.getStmtParameterValue(params, cache.keyParams[j][k]);
+                } // FOR
+                accesses.add(new KeyAccess(cache.catalog_stmt, cache.readonly == false, keys));
+            } // FOR
+        } // FOR
+    }
+
+    private void trackTableAccesses(int tableIds[], boolean write) {
+        if (tableIds == null) return;
+        for (int tableId : tableIds) {
+            this.trackedAccesses[tableId].add(new KeyAccess(null, write, new Object[this.keyColumns[tableId].length]));
+        } // FOR
+    }
+
+    private Object getStmtParameterValue(Object params[], int offset) {
+        if (params == null || offset == NULL_PARAM_OFFSET || offset >= params.length) {
+            return (null);
+        }
+        return (params[offset]);
+    }
+
+    @Override
+    public boolean canExecute(AbstractTransaction dtxn, LocalTransaction ts, int partitionId) {
+        // If there is no table-level conflict, then there can't be a row-level one
+        if (this.tableChecker.canExecute(dtxn, ts, partitionId)) {
+            return (true);
+        }
+        else if (this.disabled) {
+            return (false);
+        }
+
+        // If we haven't seen any of the dtxn's queries at this partition, then
+        // we have no idea what rows it has touched
+        if (dtxn.getTransactionId().equals(this.trackedTxnId) == false) {
+            if (d) LOG.debug(String.format("No key accesses are available for dtxn %s", dtxn));
+            return (false);
+        }
+
+        // We need the list of queries that the candidate is going to execute
+        EstimatorState tsState = ts.getEstimatorState();
+        if (tsState == null) {
+            if (d) LOG.debug(String.format("No EstimatorState available for candidate %s", ts));
+            return (false);
+        }
+        Estimate tsEst = tsState.getInitialEstimate();
+        if (tsEst == null || tsEst.hasQueryEstimate(partitionId) == false) {
+            if (d) LOG.debug(String.format("No query list estimate is available for candidate %s", ts));
+            return (false);
+        }
+        return (this.canExecute(dtxn, ts, tsEst.getQueryEstimate(partitionId)));
+    }
+    
+    protected boolean canExecute(AbstractTransaction dtxn, AbstractTransaction ts, List<CountedStatement> queries) {
+        ParameterSet tsParams = ts.getProcedureParameters();
+        if (tsParams == null) {
+            if (d) LOG.debug(String.format("The ParameterSet for %s is null.", ts));
+            return (false);
+        }
+
+        for (int i = 0, cnt = queries.size(); i < cnt; i++) {
+            CountedStatement cstmt = queries.get(i);
+            StatementCache cache = this.stmtCache.get(cstmt.statement);
+            if (cache == null) {
+                if (d) LOG.debug(String.format("Missing StatementCache for %s", cstmt));
+                return (false);
+            }
+            Map<StmtParameter, SortedSet<ParameterMapping>> mappings = this.paramMappings.get(cstmt.statement, cstmt.counter);
+
+            for (int j = 0; j < cache.tableIds.length; j++) {
+                List<KeyAccess> accesses = this.trackedAccesses[cache.tableIds[j]];
+                if (accesses.isEmpty()) continue;
+
+                int numKeys = cache.keyParams[j].length;
+                for (int k = 0; k < numKeys; k++) {
+                    this.keyBuffer[k] = this.getProcParameterValue(tsParams, cstmt.statement,
+                                                                   mappings, cache.keyParams[j][k]);
+                } // FOR
+
+                for (int a = 0, a_cnt = accesses.size(); a < a_cnt; a++) {
+                    KeyAccess access = accesses.get(a);
+                    // Two reads never conflict
+                    if (cache.readonly && access.write == false) continue;
+                    if (this.isDisjoint(this.keyBuffer, access.keys, numKeys) == false) {
+                        if (d) LOG.debug(String.format("%s - %s may access the same row as %s [tableId=%d]",
+                                         ts, cstmt, (access.catalog_stmt != null ? access.catalog_stmt.fullName() : dtxn),
+                                         cache.tableIds[j]));
+                        return (false);
+                    }
+                } // FOR
+            } // FOR (table)
+        } // FOR (stmt)
+
+        if (d) LOG.debug(String.format("%s<->%s access disjoint keys", dtxn, ts));
+        return (true);
+    }
+
+    /**
+     * Return the value of the ProcParameter that the StmtParameter at the given offset
+     * is bound to. We only trust a mapping if it is the only one for that StmtParameter
+     * and it has a coefficient of 1.0. Otherwise we return null so that the key is
+     * treated as unknown, which means that it may conflict with anything.
+     * @param params
+     * @param catalog_stmt
+     * @param mappings
+     * @param offset
+     * @return
+     */
+    protected Object getProcParameterValue(ParameterSet params, Statement catalog_stmt,
+                                           Map<StmtParameter, SortedSet<ParameterMapping>> mappings, int offset) {
+        if (mappings == null || offset == NULL_PARAM_OFFSET) {
+            return (null);
+        }
+        SortedSet<ParameterMapping> pms = mappings.get(catalog_stmt.getParameters().get(offset));
+        if (pms == null || pms.size() != 1) {
+            return (null);
+        }
+        ParameterMapping pm = pms.first();
+        if (pm.getCoefficient() != 1.0) {
+            if (t) LOG.trace("Ignoring inexact parameter mapping " + pm);
+            return (null);
+        }
+        try {
+            return (ParametersUtil.getValue(params, pm));
+        } catch (Throwable ex) {
+            // This can happen if the array parameter is shorter than what the
+            // mapping expects. We just treat it as an unknown value
+            if (t) LOG.trace("Failed to get parameter value for " + pm, ex);
+            return (null);
+        }
+    }
+
+    /**
+     * Returns true if we can prove that the two sets of key values identify different rows.
+     * This is only possible if there is at least one key column where both values are known
+     * and they are not equal.
+     * @param keys0
+     * @param keys1
+     * @param numKeys
+     * @return
+     */
+    protected boolean isDisjoint(Object keys0[], Object keys1[], int numKeys) {
+        for (int i = 0; i < numKeys; i++) {
+            if (keys0[i] == null || keys1[i] == null) continue;
+            if (this.equalValues(keys0[i], keys1[i]) == false) {
+                return (true);
+            }
+        } // FOR
+        return (false);
+    }
+
+    /**
+     * Returns false only if we are sure that the two values are different
+     * @param val0
+     * @param val1
+     * @return
+     */
+    private boolean equalValues(Object val0, Object val1) {
+        if (isIntegral(val0) && isIntegral(val1)) {
+            return (((Number)val0).longValue() == ((Number)val1).longValue());
+        }
+        // If we don't know how to compare them, then we have to assume that they're equal
+        else if (val0.getClass().equals(val1.getClass()) == false) {
+            return (true);
+        }
+        return (val0.equals(val1));
+    }
+
+    private static boolean isIntegral(Object val) {
+        return (val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte);
+    }
+
+    @Override
+    public void updateLogging() {
+        d = debug.get();
+        t = trace.get();
+    }
+}
@@ -69,6 +69,9 @@ public class MarkovEstimatorProfilerStats extends StatsSource {
             columns.add(new VoltTable.ColumnInfo(name, VoltType.BIGINT));
             columns.add(new VoltTable.ColumnInfo(name+"_CNT", VoltType.BIGINT));
         } // FOR
+        columns.add(new VoltTable.ColumnInfo("MEMO_HITS", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("MEMO_MISSES", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("MEMO_MISPREDICTS", VoltType.BIGINT));
     }
 
     @Override
@@ -87,6 +90,9 @@ public class MarkovEstimatorProfilerStats extends StatsSource {
             rowValues[offset++] = pm.getTotalThinkTime();
             rowValues[offset++] = pm.getInvocations();
         } // FOR
+        rowValues[offset++] = profiler.memo_hits;
+        rowValues[offset++] = profiler.memo_misses;
+        rowValues[offset++] = profiler.memo_mispredicts;
         super.updateStatsRow(rowKey, rowValues);
     }
 }
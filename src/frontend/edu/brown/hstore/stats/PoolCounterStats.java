@@ -1,6 +1,7 @@
 package edu.brown.hstore.stats;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +22,11 @@ public class PoolCounterStats extends StatsSource {
     private final Map<String, TypedObjectPool<?>> globalPools;
     private final Map<String, TypedObjectPool<?>[]> partitionPools;
     private final List<Object> allPoolNames = new ArrayList<Object>();
+    
+    /**
+     * PoolName -> { # of Created Objects, # of Txns } from the last time that we read its stats
+     */
+    private final Map<String, int[]> lastCounts = new HashMap<String, int[]>();
 
     public PoolCounterStats(HStoreObjectPools objectPools) {
         super(SysProcSelector.POOL.name(), false);
@@ -43,10 +49,28 @@ public class PoolCounterStats extends StatsSource {
         columns.add(new VoltTable.ColumnInfo("POOL_NAME", VoltType.STRING));
         columns.add(new VoltTable.ColumnInfo("IS_GLOBAL", VoltType.BOOLEAN));
         columns.add(new VoltTable.ColumnInfo("ACTIVE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("BORROWED", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("IDLE", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("CREATED", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("DESTROYED", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("PASSIVATED", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("CREATED_PER_TXN", VoltType.FLOAT));
+    }
+    
+    /**
+     * Returns the number of LocalTransaction handles that have been handed out.
+     * We use this as the number of txns that have been started at this site.
+     */
+    private int getTransactionCount() {
+        int total = 0;
+        TypedObjectPool<?> pools[] = this.partitionPools.get("STATES_TXN_LOCAL");
+        if (pools != null) {
+            for (TypedObjectPool<?> pool : pools) {
+                if (pool == null) continue;
+                total += ((TypedPoolableObjectFactory<?>)pool.getFactory()).getBorrowedCount();
+            } // FOR
+        }
+        return (total);
     }
 
     @Override
@@ -58,6 +82,7 @@ public class PoolCounterStats extends StatsSource {
         TypedObjectPool<?> pool = null;
         TypedPoolableObjectFactory<?> factory = null;
         int total_active = 0;
+        int total_borrowed = 0;
         int total_idle = 0;
         int total_created = 0;
         int total_passivated = 0;
@@ -68,6 +93,7 @@ public class PoolCounterStats extends StatsSource {
             factory = (TypedPoolableObjectFactory<?>)pool.getFactory();
             
             total_active = pool.getNumActive();
+            total_borrowed = factory.getBorrowedCount();
             total_idle = pool.getNumIdle(); 
             total_created = factory.getCreatedCount();
             total_passivated = factory.getPassivatedCount();
@@ -75,11 +101,13 @@ public class PoolCounterStats extends StatsSource {
         }
         else {
             TypedObjectPool<?> pools[] = this.partitionPools.get(poolName);
-            for (int i = 0; i < pools.length; i++) {
+            for (int i = 0; pools != null && i < pools.length; i++) {
                 pool = pools[i];
+                if (pool == null) continue;
                 factory = (TypedPoolableObjectFactory<?>)pool.getFactory();
                 
                 total_active += pool.getNumActive();
+                total_borrowed += factory.getBorrowedCount();
                 total_idle += pool.getNumIdle(); 
                 total_created += factory.getCreatedCount();
                 total_passivated += factory.getPassivatedCount();
@@ -90,10 +118,25 @@ public class PoolCounterStats extends StatsSource {
         rowValues[columnNameToIndex.get("POOL_NAME")] = poolName;
         rowValues[columnNameToIndex.get("IS_GLOBAL")] = isGlobal;
         rowValues[columnNameToIndex.get("ACTIVE")] = total_active;
+        rowValues[columnNameToIndex.get("BORROWED")] = total_borrowed;
         rowValues[columnNameToIndex.get("IDLE")] = total_idle;
         rowValues[columnNameToIndex.get("CREATED")] = total_created;
         rowValues[columnNameToIndex.get("DESTROYED")] = total_destroyed;
         rowValues[columnNameToIndex.get("PASSIVATED")] = total_passivated;
+        
+        // Only count the objects that were created since the last time that 
+        // we were asked for stats. Once the pools are warmed up this should be zero.
+        int num_txns = this.getTransactionCount();
+        int last[] = this.lastCounts.get(poolName);
+        if (last == null) {
+            last = new int[2];
+            this.lastCounts.put(poolName, last);
+        }
+        int delta_created = total_created - last[0];
+        int delta_txns = num_txns - last[1];
+        last[0] = total_created;
+        last[1] = num_txns;
+        rowValues[columnNameToIndex.get("CREATED_PER_TXN")] = (delta_txns > 0 ? delta_created / (double)delta_txns : 0d);
         super.updateStatsRow(rowKey, rowValues);
     }
 }
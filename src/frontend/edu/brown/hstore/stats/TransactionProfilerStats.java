@@ -2,13 +2,13 @@ package edu.brown.hstore.stats;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -23,8 +23,6 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.profilers.TransactionProfiler;
-import edu.brown.utils.CollectionUtil;
-import edu.brown.utils.MathUtil;
 
 public class TransactionProfilerStats extends StatsSource {
     private static final Logger LOG = Logger.getLogger(TransactionProfilerStats.class);
@@ -40,18 +38,74 @@ public class TransactionProfilerStats extends StatsSource {
     private int stdev_offset;
     
     /**
-     * Maintain a set of tuples for the transaction profile times
+     * The running totals for a single procedure
      */
-    private final Map<Procedure, Queue<long[]>> profileQueues = Collections.synchronizedSortedMap(new TreeMap<Procedure, Queue<long[]>>());
-    // private final Map<Procedure, long[]> profileTotals = Collections.synchronizedSortedMap(new TreeMap<Procedure, long[]>());
+    private static class ProcedureTotals {
+        long txns = 0;
+        long tuple[];
+        
+        // Only for FIRST_REMOTE_QUERY
+        long stdevCount = 0;
+        double stdevSum = 0;
+        double stdevSumSq = 0;
+        
+        void clear() {
+            this.txns = 0;
+            Arrays.fill(this.tuple, 0);
+            this.stdevCount = 0;
+            this.stdevSum = 0;
+            this.stdevSumSq = 0;
+        }
+    } // CLASS
+    
+    /**
+     * Each thread that adds txn profiles gets its own set of totals so that
+     * they don't contend with each other. They are only merged together
+     * when somebody asks for the stats.
+     */
+    private static class Accumulator {
+        final Map<Procedure, ProcedureTotals> totals = new HashMap<Procedure, ProcedureTotals>();
+    } // CLASS
+    
+    private final List<Accumulator> accumulators = new CopyOnWriteArrayList<Accumulator>();
+    
+    private final ThreadLocal<Accumulator> threadAccumulator = new ThreadLocal<Accumulator>() {
+        @Override
+        protected Accumulator initialValue() {
+            Accumulator acc = new Accumulator();
+            accumulators.add(acc);
+            return (acc);
+        }
+    };
+    
+    /**
+     * The procedures that we have seen txn profiles for
+     */
+    private final Set<Procedure> procedures = new ConcurrentSkipListSet<Procedure>();
+    
+    /**
+     * The offset in the tuple for FIRST_REMOTE_QUERY
+     */
+    private final int stdev_tuple_offset;
 
     public TransactionProfilerStats(CatalogContext catalogContext) {
         super(SysProcSelector.TXNCOUNTER.name(), false);
         this.catalogContext = catalogContext;
+        
+        int offset = -1;
+        ProfileMeasurement pms[] = new TransactionProfiler().getProfileMeasurements();
+        for (int i = 0; i < pms.length; i++) {
+            if (pms[i].getType().equalsIgnoreCase("FIRST_REMOTE_QUERY")) {
+                offset = i * 2;
+                break;
+            }
+        } // FOR
+        this.stdev_tuple_offset = offset;
     }
     
     /**
-     * 
+     * Add the measurements from the given txn's profiler to the totals 
+     * for its procedure.
      * @param tp
      */
     public void addTxnProfile(Procedure catalog_proc, TransactionProfiler tp) {
@@ -59,86 +113,102 @@ public class TransactionProfilerStats extends StatsSource {
         assert(tp.isStopped());
         if (trace.get()) LOG.info("Calculating TransactionProfile information");
 
-        Queue<long[]> queue = this.profileQueues.get(catalog_proc);
-        if (queue == null) {
-            synchronized (this) {
-                queue = this.profileQueues.get(catalog_proc);
-                if (queue == null) {
-                    queue = new ConcurrentLinkedQueue<long[]>();
-                    this.profileQueues.put(catalog_proc, queue);
-                }
-            } // SYNCH
-        }
-        
         long tuple[] = tp.getTuple();
         assert(tuple != null);
         if (trace.get())
             LOG.trace(String.format("Appending TransactionProfile: %s", Arrays.toString(tuple)));
-        queue.offer(tuple);
+        
+        Accumulator acc = this.threadAccumulator.get();
+        synchronized (acc) {
+            ProcedureTotals totals = acc.totals.get(catalog_proc);
+            if (totals == null) {
+                totals = new ProcedureTotals();
+                totals.tuple = new long[tuple.length];
+                acc.totals.put(catalog_proc, totals);
+                this.procedures.add(catalog_proc);
+            }
+            this.addTuple(totals, tuple);
+        } // SYNCH
     }
     
-    @SuppressWarnings("unchecked")
+    private void addTuple(ProcedureTotals totals, long tuple[]) {
+        totals.txns++;
+        for (int i = 0; i < tuple.length; i++) {
+            totals.tuple[i] += tuple[i];
+        } // FOR
+        int i = this.stdev_tuple_offset;
+        if (i >= 0 && tuple[i] > 0 && tuple[i+1] > 0) {
+            double value = (tuple[i] / tuple[i+1]);
+            totals.stdevCount++;
+            totals.stdevSum += value;
+            totals.stdevSumSq += value * value;
+        }
+    }
+    
+    /**
+     * Merge the totals from all of the threads for the given procedure.
+     * The totals are reset after they are read.
+     * @param catalog_proc
+     * @return
+     */
     private Object[] calculateTxnProfileTotals(Procedure catalog_proc) {
         if (debug.get()) LOG.debug("Calculating profiling totals for " + catalog_proc.getName());
-        Object row[] = null; // this.profileTotals.get(catalog_proc); 
-        long tuple[] = null;
-        int stdev_offset = this.stdev_offset - this.proc_offset - 1;
         
-        // Each offset in this array is one profile measurement type
-        Queue<long[]> queue = this.profileQueues.get(catalog_proc);
-        List<Long> stdevValues[] = null;
-        while ((tuple = queue.poll()) != null) {
-            if (row == null) {
-                row = new Object[tuple.length + 2];
-                for (int i = 0; i < row.length; i++) { 
-                    row[i] = 0l;
+        ProcedureTotals merged = null;
+        for (Accumulator acc : this.accumulators) {
+            synchronized (acc) {
+                ProcedureTotals totals = acc.totals.get(catalog_proc);
+                if (totals == null || totals.txns == 0) continue;
+                if (merged == null) {
+                    merged = new ProcedureTotals();
+                    merged.tuple = new long[totals.tuple.length];
                 }
-                stdevValues = (List<Long>[])new List<?>[row.length];
-            }
-            
-            // Global total # of txns
-            row[0] = ((Long)row[0]) + 1;
-            
-            // ProfileMeasurement totals
-            // There will be two numbers in each pair:
-            //  (1) Total Time
-            //  (2) Number of Invocations
-            // We will want to keep track of the number of invocations so that
-            // we can compute the standard deviation
-            int offset = 1;
-            for (int i = 0; i < tuple.length; i++) {
-                row[offset] = ((Long)row[offset]) + tuple[i];
-                
-                // HACK!
-                if (i % 2 == 0 && tuple[i] > 0 && tuple[i+1] > 0) {
-                    if (stdevValues[offset] == null) {
-                        stdevValues[offset] = new ArrayList<Long>();
-                        if (trace.get()) LOG.trace(String.format("%s - Created stdevValues at offset %d",
-                                                   catalog_proc.getName(), offset));
-                    }
-                    stdevValues[offset].add(tuple[i] / tuple[i+1]);
-                }
-                offset++;
-                if (offset == stdev_offset) offset++;
-            } // FOR
+                merged.txns += totals.txns;
+                for (int i = 0; i < totals.tuple.length; i++) {
+                    merged.tuple[i] += totals.tuple[i];
+                } // FOR
+                merged.stdevCount += totals.stdevCount;
+                merged.stdevSum += totals.stdevSum;
+                merged.stdevSumSq += totals.stdevSumSq;
+                totals.clear();
+            } // SYNCH
+        } // FOR
+        
+        // Each row has the total # of txns, then two numbers per ProfileMeasurement:
+        //  (1) Total Time
+        //  (2) Number of Invocations
+        // Plus the STDEV for FIRST_REMOTE_QUERY
+        int stdev_offset = this.stdev_offset - this.proc_offset - 1;
+        int num_columns = this.columns.size() - this.proc_offset - 1;
+        Object row[] = new Object[num_columns];
+        for (int i = 0; i < row.length; i++) { 
+            row[i] = 0l;
         } // FOR
+        row[stdev_offset] = 0d;
+        if (merged == null) return (row);
         
-        // HACK: Dump values for stdev
-        int i = columnNameToIndex.get("FIRST_REMOTE_QUERY") - this.proc_offset - 1;
-        if (stdevValues != null && stdevValues[i] != null) {
-            double values[] = CollectionUtil.toDoubleArray(stdevValues[i]);
-            row[stdev_offset] = MathUtil.stdev(values);
+        row[0] = merged.txns;
+        int offset = 1;
+        for (int i = 0; i < merged.tuple.length; i++) {
+            row[offset++] = merged.tuple[i];
+            if (offset == stdev_offset) offset++;
+        } // FOR
+        
+        // Sample standard deviation
+        if (merged.stdevCount > 1) {
+            double n = merged.stdevCount;
+            double variance = (merged.stdevSumSq - (merged.stdevSum * merged.stdevSum) / n) / (n - 1);
+            row[stdev_offset] = Math.sqrt(Math.max(0d, variance));
             if (trace.get()) 
                 LOG.trace(String.format("[%02d] %s => %f", stdev_offset, catalog_proc.getName(), row[stdev_offset]));
         }
-        
         return (row);
     }
     
 
     @Override
     protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
-        final Iterator<Procedure> it = this.profileQueues.keySet().iterator();
+        final Iterator<Procedure> it = this.procedures.iterator();
         return new Iterator<Object>() {
             @Override
             public boolean hasNext() {
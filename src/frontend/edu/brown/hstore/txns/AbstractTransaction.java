@@ -41,6 +41,7 @@ import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Table;
 import org.voltdb.exceptions.SerializableException;
 import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.utils.DBBPool.BBContainer;
 import org.voltdb.utils.NotImplementedException;
 
 import com.google.protobuf.ByteString;
@@ -125,6 +126,14 @@ public abstract class AbstractTransaction implements Poolable, Loggable, Compara
      */
     private final Map<Integer, List<VoltTable>> attached_inputs = new HashMap<Integer, List<VoltTable>>();
     
+    /**
+     * Pooled buffers that back output dependencies produced by the EE at each
+     * local partition. These cannot be given back until the txn is deleted because
+     * the VoltTables that are views over them may get passed around as input
+     * dependencies to other partitions.
+     */
+    private final List<BBContainer> attached_buffers[];
+    
     /**
      * Attached ParameterSets for the current execution round
      * This is so that we don't have to marshal them over to different partitions on the same HStoreSite  
@@ -277,6 +286,10 @@ public abstract class AbstractTransaction implements Poolable, Loggable, Compara
         this.initQueue_callback = new TransactionInitQueueCallback(hstore_site);
         this.prepareWrapper_callback = new TransactionPrepareWrapperCallback(hstore_site);
         
+        @SuppressWarnings("unchecked")
+        List<BBContainer> buffers[] = (List<BBContainer>[])new List<?>[numLocalPartitions];
+        this.attached_buffers = buffers;
+        
         this.readTables = new BitSet[numLocalPartitions];
         this.writeTables = new BitSet[numLocalPartitions];
         int num_tables = hstore_site.getCatalogContext().database.getTables().size();
@@ -381,6 +394,13 @@ public abstract class AbstractTransaction implements Poolable, Loggable, Compara
             
             this.readTables[i].clear();
             this.writeTables[i].clear();
+            
+            if (this.attached_buffers[i] != null && this.attached_buffers[i].isEmpty() == false) {
+                for (BBContainer c : this.attached_buffers[i]) {
+                    c.discard();
+                } // FOR
+                this.attached_buffers[i].clear();
+            }
         } // FOR
 
         if (d) LOG.debug(String.format("Finished txn #%d and cleaned up internal state [hashCode=%d, finished=%s]",
@@ -875,6 +895,16 @@ public abstract class AbstractTransaction implements Poolable, Loggable, Compara
         int offset = hstore_site.getLocalPartitionOffset(partition);
         return (this.readTables[offset].get(catalog_tbl.getRelativeIndex()));
     }
+    /**
+     * Returns the set of table ids that this txn has read at the given partition.
+     * The caller must not modify the returned set.
+     * @param partition
+     * @return
+     */
+    public BitSet getReadTableIds(int partition) {
+        int offset = hstore_site.getLocalPartitionOffset(partition);
+        return (this.readTables[offset]);
+    }
     
     public void markTableAsWritten(int partition, Table catalog_tbl) {
         int offset = hstore_site.getLocalPartitionOffset(partition);
@@ -1009,6 +1039,24 @@ public abstract class AbstractTransaction implements Poolable, Loggable, Compara
         return (this.attached_inputs);
     }
     
+    /**
+     * Attach the pooled buffers that back the output dependencies produced at the
+     * given partition. They will be discarded when this txn handle is finished.
+     * @param partition
+     * @param containers
+     */
+    public void attachResultBuffers(int partition, BBContainer containers[]) {
+        int offset = hstore_site.getLocalPartitionOffset(partition);
+        List<BBContainer> l = this.attached_buffers[offset];
+        if (l == null) {
+            l = new ArrayList<BBContainer>();
+            this.attached_buffers[offset] = l;
+        }
+        for (BBContainer c : containers) {
+            if (c != null) l.add(c);
+        } // FOR
+    }
+    
     // ----------------------------------------------------------------------------
     // PREFETCH QUERIES
     // ----------------------------------------------------------------------------
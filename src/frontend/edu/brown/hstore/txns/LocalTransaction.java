@@ -71,12 +71,13 @@ import edu.brown.hstore.callbacks.TransactionPrepareCallback;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.Estimate;
 import edu.brown.hstore.estimators.EstimatorState;
+import edu.brown.hstore.internal.StartTxnMessage;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.markov.EstimationThresholds;
 import edu.brown.profilers.TransactionProfiler;
 import edu.brown.protorpc.ProtoRpcController;
-import edu.brown.statistics.Histogram;
+import edu.brown.statistics.FastIntHistogram;
 import edu.brown.utils.PartitionSet;
 import edu.brown.utils.StringUtil;
 
@@ -161,6 +162,12 @@ public class LocalTransaction extends AbstractTransaction {
      */
     protected final TransactionInitCallback init_callback;
     
+    /**
+     * The message that we put in the PartitionExecutor's queue to start this txn.
+     * This is reused every time the handle is pulled out of the object pool.
+     */
+    private final StartTxnMessage start_task;
+    
     // ----------------------------------------------------------------------------
     // RUN TIME DATA MEMBERS
     // ----------------------------------------------------------------------------
@@ -188,8 +195,7 @@ public class LocalTransaction extends AbstractTransaction {
      * This needs to be a Histogram so that we can figure out what partitions
      * were touched the most if end up needing to redirect it later on
      */
-    private final Histogram<Integer> exec_touchedPartitions = new Histogram<Integer>();
-//    private final FastIntHistogram exec_touchedPartitions;
+    private final FastIntHistogram exec_touchedPartitions;
     
     /**
      * Whether this transaction's control code was executed on
@@ -209,8 +215,9 @@ public class LocalTransaction extends AbstractTransaction {
     public LocalTransaction(HStoreSite hstore_site) {
         super(hstore_site);
         this.init_callback = new TransactionInitCallback(hstore_site);
-        // CatalogContext catalogContext = hstore_site.getCatalogContext(); 
-        // this.exec_touchedPartitions = new FastIntHistogram(num_partitions);
+        this.start_task = new StartTxnMessage(this);
+        int num_partitions = hstore_site.getCatalogContext().numberOfPartitions;
+        this.exec_touchedPartitions = new FastIntHistogram(num_partitions);
     }
 
     /**
@@ -625,6 +632,10 @@ public class LocalTransaction extends AbstractTransaction {
     // CALLBACK METHODS
     // ----------------------------------------------------------------------------
     
+    public StartTxnMessage getStartTxnMessage() {
+        return (this.start_task);
+    }
+    
     public TransactionInitCallback initTransactionInitCallback() {
         assert(this.init_callback.isInitialized() == false) :
             String.format("Trying initialize the %s for %s more than once",
@@ -820,7 +831,7 @@ public class LocalTransaction extends AbstractTransaction {
     }
     
     
-    public Histogram<Integer> getTouchedPartitions() {
+    public FastIntHistogram getTouchedPartitions() {
         return (this.exec_touchedPartitions);
     }
 
@@ -1,5 +1,11 @@
 package edu.brown.hstore.txns;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.apache.log4j.Logger;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.ParameterSet;
@@ -7,6 +13,9 @@ import org.voltdb.VoltTable;
 import org.voltdb.VoltTableRow;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Table;
+import org.voltdb.types.SortDirectionType;
+import org.voltdb.utils.ExternalVoltTableSorter;
+import org.voltdb.utils.Pair;
 
 import com.google.protobuf.RpcCallback;
 
@@ -21,6 +30,7 @@ import edu.brown.hstore.callbacks.TransactionMapCallback;
 import edu.brown.hstore.callbacks.TransactionMapWrapperCallback;
 import edu.brown.hstore.callbacks.TransactionReduceCallback;
 import edu.brown.hstore.callbacks.TransactionReduceWrapperCallback;
+import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.utils.PartitionSet;
@@ -44,6 +54,21 @@ public class MapReduceTransaction extends LocalTransaction {
     private VoltTable mapOutput[];
     private VoltTable reduceInput[];
     private VoltTable reduceOutput[];
+    
+    /**
+     * If ${site.mr_reduce_sort_memory} is enabled, then the data that
+     * we get in the SHUFFLE phase is fed directly into an external sorter
+     * instead of being buffered in the reduceInput tables.
+     */
+    private final ExternalVoltTableSorter reduceInputSorter[];
+    
+    /**
+     * If ${site.mr_map_blocking} is disabled, then these are the MapInputQuery
+     * results for each partition that are waiting for the MapReduceHelperThread
+     * to invoke map() on them.
+     */
+    private final VoltTable mapInput[];
+    private final Queue<Integer> mapInputReady = new ConcurrentLinkedQueue<Integer>();
 
     public enum State {
         MAP,
@@ -107,6 +132,8 @@ public class MapReduceTransaction extends LocalTransaction {
         this.mapOutput = new VoltTable[this.partitions_size];
         this.reduceInput = new VoltTable[this.partitions_size];
         this.reduceOutput = new VoltTable[this.partitions_size];
+        this.reduceInputSorter = new ExternalVoltTableSorter[this.partitions_size];
+        this.mapInput = new VoltTable[this.partitions_size];
                 
         this.map_callback = new TransactionMapCallback(hstore_site);
         this.mapWrapper_callback = new TransactionMapWrapperCallback(hstore_site);
@@ -175,6 +202,7 @@ public class MapReduceTransaction extends LocalTransaction {
             this.mapOutput[offset] = CatalogUtil.getVoltTable(this.mapEmit);
             this.reduceInput[offset] = CatalogUtil.getVoltTable(this.mapEmit);
             this.reduceOutput[offset] = CatalogUtil.getVoltTable(this.reduceEmit);
+            this.reduceInputSorter[offset] = this.createReduceInputSorter(this.reduceInput[offset]);
             
         } // FOR
         
@@ -216,6 +244,18 @@ public class MapReduceTransaction extends LocalTransaction {
         return (this);
     }
     
+    private ExternalVoltTableSorter createReduceInputSorter(VoltTable schema) {
+        HStoreConf hstore_conf = this.hstore_site.getHStoreConf();
+        if (hstore_conf.site.mr_reduce_sort_memory <= 0) return (null);
+        
+        long memoryBudget = hstore_conf.site.mr_reduce_sort_memory * 1024l * 1024l;
+        int blockSize = Math.max(1, hstore_conf.site.mr_reduce_sort_block) * 1024;
+        File spillDir = new File(hstore_conf.site.mr_reduce_sort_dir);
+        List<Pair<Integer, SortDirectionType>> cols = new ArrayList<Pair<Integer, SortDirectionType>>();
+        cols.add(Pair.of(0, SortDirectionType.ASC));
+        return new ExternalVoltTableSorter(schema, memoryBudget, blockSize, spillDir, cols);
+    }
+    
     @Override
     public void finish() {
         super.finish();
@@ -243,14 +283,26 @@ public class MapReduceTransaction extends LocalTransaction {
         this.mapOutput = null;
         this.reduceInput = null;
         this.reduceOutput = null;
+        for (int i = 0; i < this.mapInput.length; i++) {
+            this.mapInput[i] = null;
+        } // FOR
+        this.mapInputReady.clear();
+        for (int i = 0; i < this.reduceInputSorter.length; i++) {
+            if (this.reduceInputSorter[i] != null) {
+                this.reduceInputSorter[i].close();
+                this.reduceInputSorter[i] = null;
+            }
+        } // FOR
     }
     /**
      * Store Data from MapOutput table into reduceInput table
      * ReduceInput table is the result of all incoming mapOutput table from other partitions
+     * If the REDUCE input is fed into an ExternalVoltTableSorter, then we do not hold
+     * this txn's lock while the sorter spills to disk.
      * @see edu.brown.hstore.txns.AbstractTransaction#storeData(int, org.voltdb.VoltTable)
      */
     @Override
-    public synchronized Hstoreservice.Status storeData(int partition, VoltTable vt) {
+    public Hstoreservice.Status storeData(int partition, VoltTable vt) {
         VoltTable input = this.getReduceInputByPartition(partition);
         
         assert(input != null);
@@ -260,11 +312,20 @@ public class MapReduceTransaction extends LocalTransaction {
         
         if (debug.get())
             LOG.debug(String.format("<StoreData, change to ReduceInputTable> to Partition:%d>\n %s",partition,vt));
-        while (vt.advanceRow()) {
-            VoltTableRow row = vt.fetchRow(vt.getActiveRowIndex());
-            assert(row != null);
-            input.add(row);
+        
+        ExternalVoltTableSorter sorter = this.getReduceInputSorterByPartition(partition);
+        if (sorter != null) {
+            sorter.addAll(vt);
+            return Hstoreservice.Status.OK;
         }
+        
+        synchronized (this) {
+            while (vt.advanceRow()) {
+                VoltTableRow row = vt.fetchRow(vt.getActiveRowIndex());
+                assert(row != null);
+                input.add(row);
+            }
+        } // SYNCH
         vt.resetRowPosition();
         
         return Hstoreservice.Status.OK;
@@ -461,12 +522,47 @@ public class MapReduceTransaction extends LocalTransaction {
         return this.mapOutput[hstore_site.getLocalPartitionOffset(partition)];
     }
     
+    /**
+     * Store the MapInputQuery result for the given partition so that the
+     * MapReduceHelperThread can invoke map() on it. The caller is responsible
+     * for queuing this txn at the MapReduceHelperThread afterwards.
+     * @param partition
+     * @param input
+     */
+    public void queueMapInput(int partition, VoltTable input) {
+        this.mapInput[hstore_site.getLocalPartitionOffset(partition)] = input;
+        this.mapInputReady.offer(partition);
+    }
+    
+    /**
+     * Returns the next partition whose MapInputQuery result is waiting to be processed.
+     * Returns null if there are no partitions waiting
+     * @return
+     */
+    public Integer pollMapInput() {
+        return this.mapInputReady.poll();
+    }
+    
+    public VoltTable getMapInputByPartition(int partition) {
+        return this.mapInput[hstore_site.getLocalPartitionOffset(partition)];
+    }
+    
     public VoltTable getReduceInputByPartition ( int partition ) {
         if (debug.get()) LOG.debug("Trying to getReduceInputByPartition: [ " + partition + " ]");
         return this.reduceInput[hstore_site.getLocalPartitionOffset(partition)];
         //return this.reduceInput[partition];
     }
     
+    /**
+     * Returns the external sorter for the REDUCE input at the given partition.
+     * This will be null if ${site.mr_reduce_sort_memory} is disabled
+     * @param partition
+     * @return
+     */
+    public ExternalVoltTableSorter getReduceInputSorterByPartition(int partition) {
+        return this.reduceInputSorter[hstore_site.getLocalPartitionOffset(partition)];
+    }
+    
     public VoltTable getReduceOutputByPartition ( int partition ) {
         if (debug.get()) LOG.debug("Trying to getReduceOutputByPartition: [ " + partition + " ]");
         return this.reduceOutput[hstore_site.getLocalPartitionOffset(partition)];
@@ -26,6 +26,8 @@
 package edu.brown.hstore.txns;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +62,19 @@ public class RemoteTransaction extends AbstractTransaction {
     private final TransactionCleanupCallback cleanup_callback;
     private final ProtoRpcController rpc_transactionPrefetch[];
     
+    /**
+     * The partitions that this txn is going to touch.
+     * We keep our own copy so that the TransactionInitHandler does not
+     * have to allocate a new PartitionSet for every request.
+     */
+    private final PartitionSet remote_partitions = new PartitionSet();
+    
+    /**
+     * Reusable arrays for the ParameterSets attached to each TransactionWorkRequest
+     * Array Length -> ParameterSet Array
+     */
+    private ParameterSet work_parameterSets[][] = new ParameterSet[8][];
+    
     public RemoteTransaction(HStoreSite hstore_site) {
         super(hstore_site);
         this.work_callback = new TransactionWorkCallback(hstore_site);
@@ -73,14 +88,20 @@ public class RemoteTransaction extends AbstractTransaction {
                                   int base_partition,
                                   ParameterSet parameters,
                                   Procedure catalog_proc,
-                                  PartitionSet partitions,
+                                  Collection<Integer> partitions,
                                   boolean predict_abortable) {
+        this.remote_partitions.clear();
+        if (partitions instanceof PartitionSet) {
+            this.remote_partitions.addAll((PartitionSet)partitions);
+        } else {
+            this.remote_partitions.addAll(partitions);
+        }
         super.init(txnId,              // TxnId
                    -1,                 // ClientHandle
                    base_partition,     // BasePartition
                    parameters,         // Procedure Parameters
                    catalog_proc,       // Procedure
-                   partitions,         // Partitions
+                   this.remote_partitions, // Partitions
                    true,               // ReadOnly (???)
                    predict_abortable,  // Abortable
                    false               // ExecLocal
@@ -88,7 +109,7 @@ public class RemoteTransaction extends AbstractTransaction {
         
         // Initialize TransactionCleanupCallback
         // NOTE: This must come *after* our call to AbstractTransaction.init()
-        this.cleanup_callback.init(this, partitions);
+        this.cleanup_callback.init(this, this.remote_partitions);
         
         return (this);
     }
@@ -106,6 +127,30 @@ public class RemoteTransaction extends AbstractTransaction {
                 this.rpc_transactionPrefetch[i].startCancel();
             }
         } // FOR
+        
+        // Don't hold on to the ParameterSets while we're sitting in the pool
+        for (ParameterSet params[] : this.work_parameterSets) {
+            if (params != null) Arrays.fill(params, null);
+        } // FOR
+    }
+    
+    /**
+     * Return a reusable array for the ParameterSets attached to a TransactionWorkRequest.
+     * Each round of queries replaces the ParameterSets from the round before it,
+     * so we only need to keep one array for each size.
+     * @param size The number of ParameterSets in the array
+     * @return
+     */
+    public ParameterSet[] getParameterSetArray(int size) {
+        if (size >= this.work_parameterSets.length) {
+            ParameterSet new_params[][] = new ParameterSet[size+1][];
+            System.arraycopy(this.work_parameterSets, 0, new_params, 0, this.work_parameterSets.length);
+            this.work_parameterSets = new_params;
+        }
+        if (this.work_parameterSets[size] == null) {
+            this.work_parameterSets[size] = new ParameterSet[size];
+        }
+        return (this.work_parameterSets[size]);
     }
     
     @Override
@@ -6,9 +6,10 @@ import java.util.Map;
 import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.log4j.Logger;
-import org.voltdb.BackendTarget;
 import org.voltdb.VoltMapReduceProcedure;
 import org.voltdb.VoltTable;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.exceptions.ServerFaultException;
 
 import com.google.protobuf.RpcCallback;
 
@@ -18,8 +19,6 @@ import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.PartitionExecutor;
 import edu.brown.hstore.callbacks.SendDataCallback;
 import edu.brown.hstore.txns.AbstractTransaction;
-import edu.brown.hstore.txns.ExecutionState;
-import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.hstore.txns.MapReduceTransaction;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
@@ -34,8 +33,14 @@ public class MapReduceHelperThread extends AbstractProcessingThread<MapReduceTra
     }
 
     private final PartitionEstimator p_estimator;
-    private ExecutionState execState = null;
-    private PartitionExecutor executor;
+    
+    /**
+     * Partition -> Procedure -> VoltMapReduceProcedure
+     * Our own VoltMapReduceProcedure handles for running the non-blocking
+     * MAP and REDUCE phases. They are initialized by the partition's PartitionExecutor
+     * but are never used by it, so it is safe for us to change their internal state.
+     */
+    private final Map<Integer, Map<Procedure, VoltMapReduceProcedure<?>>> procedures = new HashMap<Integer, Map<Procedure, VoltMapReduceProcedure<?>>>();
 
     public MapReduceHelperThread(HStoreSite hstore_site) {
         super(hstore_site,
@@ -45,32 +50,42 @@ public class MapReduceHelperThread extends AbstractProcessingThread<MapReduceTra
         this.p_estimator = hstore_site.getPartitionEstimator();
     }
 
-    protected PartitionExecutor initPartitionExecutor() {
-        PartitionExecutor executor = new PartitionExecutor(
-                0,
-                this.hstore_site.getCatalogContext(),
-                BackendTarget.NATIVE_EE_JNI,
-                this.p_estimator,
-                null);
-        executor.initHStoreSite(this.hstore_site);
-        
-        return (executor);
+    /**
+     * Return the VoltMapReduceProcedure handle that this thread will use to
+     * execute the given txn's map() and reduce() functions at the given partition
+     * @param catalog_proc
+     * @param partition
+     * @return
+     */
+    protected VoltMapReduceProcedure<?> getVoltProcedure(Procedure catalog_proc, int partition) {
+        Map<Procedure, VoltMapReduceProcedure<?>> partitionProcs = this.procedures.get(partition);
+        if (partitionProcs == null) {
+            partitionProcs = new HashMap<Procedure, VoltMapReduceProcedure<?>>();
+            this.procedures.put(partition, partitionProcs);
+        }
+        VoltMapReduceProcedure<?> volt_proc = partitionProcs.get(catalog_proc);
+        if (volt_proc == null) {
+            PartitionExecutor executor = hstore_site.getPartitionExecutor(partition);
+            assert(executor != null) : "Missing PartitionExecutor for partition " + partition;
+            try {
+                volt_proc = (VoltMapReduceProcedure<?>)executor.newVoltProcedure(catalog_proc);
+            } catch (ClassCastException ex) {
+                throw new ServerFaultException("Procedure " + catalog_proc.getName() + " is not a VoltMapReduceProcedure", ex);
+            }
+            partitionProcs.put(catalog_proc, volt_proc);
+        }
+        return (volt_proc);
     }
 
     public void queue(MapReduceTransaction ts) {
         this.queue.offer(ts);
     }
-    public PartitionExecutor getExecutor() {
-        return executor;
-    }
 
     @Override
     protected void processingCallback(MapReduceTransaction ts) {
-        
-        if (hstore_conf.site.mr_reduce_blocking == false && this.executor == null) {
-            // Initialization
-            this.executor = this.initPartitionExecutor();
-            this.execState = new ExecutionState(this.executor);
+        // Invoke map() on the next chunk of one partition's MapInputQuery result
+        if (ts.isMapPhase()) {
+            this.map(ts);
         }
 
         // Take all of the Map output tables and perform the shuffle operation
@@ -82,43 +97,31 @@ public class MapReduceHelperThread extends AbstractProcessingThread<MapReduceTra
         }
     }
     
-//    public void map(final MapReduceTransaction mr_ts) {
-//        // Runtime
-//
-//        VoltProcedure volt_proc = this.executor.getVoltProcedure(mr_ts.getInvocation().getProcName());
-//
-//        if (hstore_site.getLocalPartitionIds().contains(mr_ts.getBasePartition()) && !mr_ts.isBasePartition_map_runed()) {
-//            if (debug.get())
-//                LOG.debug(String.format("TXN: %s $$$1 non-blocking map, partition:%d", mr_ts, volt_proc.getPartitionId()));
-//            volt_proc.setPartitionId(mr_ts.getBasePartition());
-//            if (debug.get())
-//                LOG.debug(String.format("TXN: %s $$$2 non-blocking map, partition:%d", mr_ts, volt_proc.getPartitionId()));
-//            
-//            assert(execState != null);
-//            execState.clear();
-//            mr_ts.setExecutionState(execState);
-//            
-//            volt_proc.call(mr_ts, mr_ts.getInitiateTaskMessage().getParameters());
-//
-//        } else {
-//
-//            for (int partition : hstore_site.getLocalPartitionIds()) {
-//                if (debug.get())
-//                    LOG.debug(String.format("TXN: %s $$$3 non-blocking map, partition called on:%d", mr_ts, partition));
-//
-//                if (partition != mr_ts.getBasePartition()) {
-//                    LocalTransaction ts = mr_ts.getLocalTransaction(partition);
-//                    if (debug.get())
-//                        LOG.debug(String.format("TXN: %s $$$4 non-blocking map, partition called on:%d", mr_ts, partition));
-//                    volt_proc.setPartitionId(partition);
-//                    execState.clear();
-//                    ts.setExecutionState(execState);
-//                    volt_proc.call(ts, mr_ts.getInitiateTaskMessage().getParameters());
-//                }
-//            }
-//        }
-//
-//    }
+    /**
+     * Invoke map() on the next chunk of the MapInputQuery result for one of the
+     * partitions of this txn. Each entry in our queue for a txn in the MAP phase
+     * corresponds to exactly one partition that is waiting to be mapped. If there
+     * are still rows left after this chunk, then we put the txn back at the end of our
+     * queue so that we don't starve the other jobs that need this thread.
+     * @param mr_ts
+     */
+    protected void map(final MapReduceTransaction mr_ts) {
+        Integer partition = mr_ts.pollMapInput();
+        if (partition == null) return;
+        
+        VoltTable input = mr_ts.getMapInputByPartition(partition.intValue());
+        assert(input != null) : String.format("Missing MapInput table for %s at partition %d", mr_ts, partition);
+        
+        VoltMapReduceProcedure<?> volt_proc = this.getVoltProcedure(mr_ts.getProcedure(), partition.intValue());
+        if (volt_proc.runMap(mr_ts, partition.intValue(), input, hstore_conf.site.mr_map_chunk_size)) {
+            if (debug.get())
+                LOG.debug(String.format("%s - Finished non-blocking MAP at partition %d", mr_ts, partition));
+            volt_proc.finishMap(mr_ts, partition.intValue());
+        } else {
+            mr_ts.queueMapInput(partition.intValue(), input);
+            this.queue(mr_ts);
+        }
+    }
 
     /**
      * Loop through all of the MAP output tables from the txn handle For
@@ -183,37 +186,28 @@ public class MapReduceHelperThread extends AbstractProcessingThread<MapReduceTra
         this.hstore_site.getCoordinator().sendData(ts, partitionedTables, sendData_callback);
     }
 
+    /**
+     * Execute the REDUCE phase for this txn's local partitions. If this is the
+     * base partition's HStoreSite, then we will first tell all of the other
+     * partitions to start their REDUCE phase.
+     * @param mr_ts
+     */
     public void reduce(final MapReduceTransaction mr_ts) {
-        // Runtime
-
-        // FIXME: This won't work. When you call getVoltProcedure() you will
-        // get a different handle each time. So anything that we're setting below
-        // will show up where you think it will
-        VoltMapReduceProcedure<?> volt_proc = null; // (VoltMapReduceProcedure<?>)this.executor.getVoltProcedure(mr_ts.getProcedure().getName());
         if (hstore_site.isLocalPartition(mr_ts.getBasePartition()) && !mr_ts.isBasePartition_reduce_runed()) {
             if (debug.get())
-                LOG.debug(String.format("TXN: %s $$$1 non-blocking reduce, partition:%d", mr_ts, volt_proc.getPartitionId()));
-            volt_proc.setPartitionId(mr_ts.getBasePartition());
-            if (debug.get())
-                LOG.debug(String.format("TXN: %s $$$2 non-blocking reduce, partition:%d", mr_ts, volt_proc.getPartitionId()));
-            volt_proc.call(mr_ts, mr_ts.getProcedureParameters());
-
+                LOG.debug(String.format("%s - Executing non-blocking REDUCE at base partition %d",
+                          mr_ts, mr_ts.getBasePartition()));
+            hstore_site.getCoordinator().transactionReduce(mr_ts, mr_ts.getTransactionReduceCallback());
+            this.getVoltProcedure(mr_ts.getProcedure(), mr_ts.getBasePartition()).runReduce(mr_ts, mr_ts.getBasePartition());
         } else {
-
             for (int partition : hstore_site.getLocalPartitionIds().values()) {
-                if (debug.get())
-                    LOG.debug(String.format("TXN: %s $$$3 non-blocking reduce, partition called on:%d", mr_ts, partition));
-
                 if (partition != mr_ts.getBasePartition()) {
-                    LocalTransaction ts = mr_ts.getLocalTransaction(partition);
                     if (debug.get())
-                        LOG.debug(String.format("TXN: %s $$$4 non-blocking reduce, partition called on:%d", mr_ts, partition));
-                    volt_proc.setPartitionId(partition);
-                    volt_proc.call(ts, ts.getProcedureParameters());
+                        LOG.debug(String.format("%s - Executing non-blocking REDUCE at partition %d",
+                                  mr_ts, partition));
+                    this.getVoltProcedure(mr_ts.getProcedure(), partition).runReduce(mr_ts, partition);
                 }
-            }
-
+            } // FOR
         }
-
     }
 }
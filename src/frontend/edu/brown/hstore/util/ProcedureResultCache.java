@@ -0,0 +1,307 @@
+package edu.brown.hstore.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.DBBPool;
+import org.voltdb.utils.DBBPool.BBContainer;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Per-partition cache of the output of read-only single-partition procedures.
+ * Entries are keyed by the procedure and its serialized parameters. The results
+ * are stored off-heap in pooled direct buffers and are deserialized into new heap
+ * VoltTables on every hit, so nothing that is handed out can be modified or
+ * released out from under the cache.
+ * <p>
+ * Every table has a version number that is incremented whenever a transaction
+ * modifies it at this partition. Each entry remembers the version of the tables
+ * that the procedure read when it was cached. An entry is stale as soon as one
+ * of those versions changes.
+ * <p>
+ * This is not thread-safe. It should only be used by its PartitionExecutor's thread.
+ */
+public class ProcedureResultCache {
+    private static final Logger LOG = Logger.getLogger(ProcedureResultCache.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private static class CacheEntry {
+        final BBContainer data;
+        final int paramsLength;
+        final int tableIds[];
+        final long tableVersions[];
+
+        CacheEntry(BBContainer data, int paramsLength, int tableIds[], long tableVersions[]) {
+            this.data = data;
+            this.paramsLength = paramsLength;
+            this.tableIds = tableIds;
+            this.tableVersions = tableVersions;
+        }
+    } // CLASS
+
+    private final DBBPool pool = new DBBPool(false, false);
+    private final FastSerializer paramsFs = new FastSerializer();
+    private final FastSerializer resultsFs = new FastSerializer();
+    private final long maxBytes;
+    private long bytes = 0;
+
+    /**
+     * ProcedureId -> Whether its results can be cached
+     */
+    private final boolean cacheable[];
+
+    /**
+     * TableId -> Version
+     */
+    private final long tableVersions[];
+
+    /**
+     * (ProcedureId, ParamsHash) -> CacheEntry
+     * This is in access-order so that we can evict the least recently used entries
+     */
+    private final LinkedHashMap<Long, CacheEntry> entries = new LinkedHashMap<Long, CacheEntry>(16, 0.75f, true);
+
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+    private long evictions = 0;
+
+    /**
+     * Constructor
+     * @param catalogContext
+     * @param maxBytes The total size of the results that we are allowed to keep
+     * @param procedures The procedures to cache. If this is null or empty, then all read-only procedures are cached.
+     */
+    public ProcedureResultCache(CatalogContext catalogContext, long maxBytes, Collection<Procedure> procedures) {
+        this.maxBytes = maxBytes;
+        this.tableVersions = new long[catalogContext.database.getTables().size() + 1];
+        this.cacheable = new boolean[catalogContext.procedures.size() + 1];
+        for (Procedure catalog_proc : catalogContext.procedures) {
+            if (catalog_proc.getReadonly() == false ||
+                catalog_proc.getSystemproc() ||
+                catalog_proc.getMapreduce()) continue;
+            if (procedures == null || procedures.isEmpty() || procedures.contains(catalog_proc)) {
+                this.cacheable[catalog_proc.getId()] = true;
+                if (debug.get()) LOG.debug("Enabled result caching for " + catalog_proc.getName());
+            }
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // API
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the results for the given procedure can be cached
+     * @param catalog_proc
+     * @return
+     */
+    public boolean isCacheable(Procedure catalog_proc) {
+        int procId = catalog_proc.getId();
+        return (procId < this.cacheable.length && this.cacheable[procId]);
+    }
+
+    /**
+     * Return a copy of the cached results for this invocation.
+     * Returns null if nothing is cached or if the cached entry is stale.
+     * @param catalog_proc
+     * @param params
+     * @return
+     */
+    public VoltTable[] get(Procedure catalog_proc, ParameterSet params) {
+        ByteBuffer paramsBuffer = this.serializeParams(params);
+        Long key = this.makeKey(catalog_proc, paramsBuffer);
+        CacheEntry entry = this.entries.get(key);
+        if (entry == null || this.matchesParams(entry, paramsBuffer) == false) {
+            this.misses++;
+            return (null);
+        }
+        if (this.isValid(entry) == false) {
+            if (trace.get()) LOG.trace(String.format("Removing stale entry for %s", catalog_proc.getName()));
+            this.entries.remove(key);
+            this.release(entry);
+            this.invalidations++;
+            this.misses++;
+            return (null);
+        }
+
+        VoltTable results[] = null;
+        try {
+            ByteBuffer buffer = entry.data.b.duplicate();
+            buffer.position(entry.paramsLength);
+            FastDeserializer fds = new FastDeserializer(buffer);
+            results = new VoltTable[fds.readInt()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = fds.readObject(VoltTable.class);
+            } // FOR
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to deserialize cached results for " + catalog_proc.getName(), ex);
+        }
+        this.hits++;
+        return (results);
+    }
+
+    /**
+     * Store the results for this invocation. The caller must make sure that
+     * the results were generated from committed data.
+     * @param catalog_proc
+     * @param params
+     * @param results
+     * @param readTables The tables that the txn read at this partition
+     * @return true if the results were cached
+     */
+    public boolean put(Procedure catalog_proc, ParameterSet params, VoltTable results[], BitSet readTables) {
+        ByteBuffer paramsBuffer = this.serializeParams(params);
+        Long key = this.makeKey(catalog_proc, paramsBuffer);
+        this.resultsFs.clear();
+        try {
+            this.resultsFs.writeInt(results.length);
+            for (VoltTable vt : results) {
+                this.resultsFs.writeObject(vt);
+            } // FOR
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to serialize results for " + catalog_proc.getName(), ex);
+        }
+        int paramsLength = paramsBuffer.limit();
+        int size = paramsLength + this.resultsFs.size();
+        if (size > DBBPool.MAX_ALLOCATION_SIZE || size > this.maxBytes) {
+            if (debug.get()) LOG.debug(String.format("Not caching %d bytes of results for %s", size, catalog_proc.getName()));
+            return (false);
+        }
+
+        BBContainer data = this.pool.acquire(size);
+        data.b.clear();
+        data.b.put(paramsBuffer);
+        data.b.put(this.resultsFs.getBuffer());
+        data.b.flip();
+
+        int tableIds[] = new int[readTables.cardinality()];
+        long versions[] = new long[tableIds.length];
+        for (int i = 0, id = readTables.nextSetBit(0); id >= 0; id = readTables.nextSetBit(id+1)) {
+            tableIds[i] = id;
+            versions[i++] = this.tableVersions[id];
+        } // FOR
+
+        CacheEntry old = this.entries.put(key, new CacheEntry(data, paramsLength, tableIds, versions));
+        if (old != null) this.release(old);
+        this.bytes += data.b.capacity();
+
+        // Make room by throwing out the least recently used entries
+        Iterator<Map.Entry<Long, CacheEntry>> it = this.entries.entrySet().iterator();
+        while (this.bytes > this.maxBytes && it.hasNext()) {
+            CacheEntry eldest = it.next().getValue();
+            it.remove();
+            this.release(eldest);
+            this.evictions++;
+        } // WHILE
+        if (trace.get()) LOG.trace(String.format("Cached %d bytes of results for %s [tables=%d, totalBytes=%d]",
+                                   size, catalog_proc.getName(), tableIds.length, this.bytes));
+        return (true);
+    }
+
+    /**
+     * Mark the given tables as modified. Any cached results that read them are now stale.
+     * @param tableIds
+     */
+    public void invalidate(int...tableIds) {
+        if (tableIds == null) return;
+        for (int id : tableIds) {
+            this.tableVersions[id]++;
+        } // FOR
+    }
+
+    /**
+     * Throw away all of the cached results
+     */
+    public void clear() {
+        for (CacheEntry entry : this.entries.values()) {
+            this.release(entry);
+        } // FOR
+        this.invalidations += this.entries.size();
+        this.entries.clear();
+    }
+
+    // ----------------------------------------------------------------------------
+    // INTERNAL METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Serialize the params and return a read-only view of the bytes
+     */
+    private ByteBuffer serializeParams(ParameterSet params) {
+        this.paramsFs.clear();
+        try {
+            params.writeExternal(this.paramsFs);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to serialize " + params, ex);
+        }
+        return (this.paramsFs.getBuffer());
+    }
+
+    private Long makeKey(Procedure catalog_proc, ByteBuffer paramsBuffer) {
+        int hash = paramsBuffer.hashCode();
+        return (Long.valueOf(((long)catalog_proc.getId() << 32) | (hash & 0xFFFFFFFFl)));
+    }
+
+    private boolean matchesParams(CacheEntry entry, ByteBuffer paramsBuffer) {
+        int paramsLength = paramsBuffer.limit();
+        if (entry.paramsLength != paramsLength) return (false);
+        for (int i = 0; i < paramsLength; i++) {
+            if (entry.data.b.get(i) != paramsBuffer.get(i)) return (false);
+        } // FOR
+        return (true);
+    }
+
+    private boolean isValid(CacheEntry entry) {
+        for (int i = 0; i < entry.tableIds.length; i++) {
+            if (this.tableVersions[entry.tableIds[i]] != entry.tableVersions[i]) return (false);
+        } // FOR
+        return (true);
+    }
+
+    private void release(CacheEntry entry) {
+        this.bytes -= entry.data.b.capacity();
+        entry.data.discard();
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATISTICS
+    // ----------------------------------------------------------------------------
+
+    public int size() {
+        return (this.entries.size());
+    }
+    public long getBytes() {
+        return (this.bytes);
+    }
+    public long getHitCount() {
+        return (this.hits);
+    }
+    public long getMissCount() {
+        return (this.misses);
+    }
+    public long getInvalidationCount() {
+        return (this.invalidations);
+    }
+    public long getEvictionCount() {
+        return (this.evictions);
+    }
+}
@@ -51,11 +51,13 @@ import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.HStoreThreadManager;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.interfaces.Configurable;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.CommandLogWriterProfiler;
 import edu.brown.profilers.ProfileMeasurement;
+import edu.brown.profilers.ProfileSampler;
 import edu.brown.utils.StringUtil;
 
 /**
@@ -64,7 +66,7 @@ import edu.brown.utils.StringUtil;
  * @author pavlo
  * @author debrabant
  */
-public class CommandLogWriter implements Shutdownable {
+public class CommandLogWriter implements Shutdownable, Configurable {
     private static final Logger LOG = Logger.getLogger(CommandLogWriter.class);
     private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
     private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
@@ -246,6 +248,7 @@ public class CommandLogWriter implements Shutdownable {
     private CircularLogEntryBuffer entriesFlushing[];
     
     private CommandLogWriterProfiler profiler;
+    private final ProfileSampler profilerSampler;
     
     /**
      * Constructor
@@ -258,6 +261,7 @@ public class CommandLogWriter implements Shutdownable {
         this.catalogContext = hstore_site.getCatalogContext();
         this.outputFile = outputFile;
         this.singletonSerializer = new FastSerializer(true, true);
+        this.profilerSampler = new ProfileSampler(hstore_conf.site.profiling_sample_rate);
         //this.group_commit_size = Math.max(1, hstore_conf.site.exec_command_logging_group_commit); //Group commit threshold, or 1 if group commit is turned off
         
         // Number of local partitions
@@ -316,6 +320,11 @@ public class CommandLogWriter implements Shutdownable {
     }
     
     
+    @Override
+    public void updateConf(HStoreConf hstore_conf) {
+        this.profilerSampler.setRate(hstore_conf.site.profiling_sample_rate);
+    }
+    
     @Override
     public void prepareShutdown(boolean error) {
         this.stop = true;
@@ -398,7 +407,8 @@ public class CommandLogWriter implements Shutdownable {
      * @param eb
      */
     public void groupCommit(CircularLogEntryBuffer[] eb) {
-        if (hstore_conf.site.commandlog_profiling) {
+        boolean profiling = (hstore_conf.site.commandlog_profiling && this.profilerSampler.sample());
+        if (profiling) {
             if (this.profiler == null) this.profiler = new CommandLogWriterProfiler();
             this.profiler.writingTime.start();
         }
@@ -432,6 +442,7 @@ public class CommandLogWriter implements Shutdownable {
         } // FOR
         if (txnCounter == 0) {
             if (debug.get()) LOG.debug("No transactions are in the current buffers. Not writing anything to disk");  
+            if (profiling) this.profiler.writingTime.stop();
             return;
         }
         
@@ -452,8 +463,7 @@ public class CommandLogWriter implements Shutdownable {
             String message = "Failed to group commit for buffer";
             throw new ServerFaultException(message, ex);
         }
-        if (hstore_conf.site.commandlog_profiling && profiler != null) 
-            ProfileMeasurement.swap(profiler.writingTime, profiler.networkTime);
+        if (profiling) ProfileMeasurement.swap(profiler.writingTime, profiler.networkTime);
         try {
             // Send responses
             for (int i = 0; i < eb.length; i++) {
@@ -473,7 +483,7 @@ public class CommandLogWriter implements Shutdownable {
                 buffer.flushCleanup();
             } // FOR
         } finally {
-            if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.networkTime.stop();
+            if (profiling) profiler.networkTime.stop();
         }
         this.commitBatchCounter++;
     }
@@ -520,7 +530,7 @@ public class CommandLogWriter implements Shutdownable {
             } catch (InterruptedException e) {
                 throw new RuntimeException("[WAL] Thread interrupted while waiting for WriterThread to finish writing");
             } finally {
-                if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.blockedTime.stop();
+                if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.blockedTime.stopIfStarted();
             }
 
             if (trace.get())
@@ -0,0 +1,354 @@
+package edu.brown.markov;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.Statement;
+import org.voltdb.utils.Pair;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Array-based snapshot of a MarkovGraph that is used by the MarkovEstimator at runtime.
+ * Every vertex is assigned a dense integer id and the out-edges for each vertex are
+ * stored in a compressed sparse row layout. The arrays that describe the structure of
+ * the graph and its probabilities are never modified after they are constructed,
+ * so lookups do not need any synchronization. The only mutable state is the batch end
+ * cache, which is updated at runtime with lock-free writes of immutable entries.
+ * The MarkovVertex and MarkovEdge objects that this returns are the graph's own objects,
+ * so their counters can still change.
+ * <B>Note:</B> Any vertices or edges that are added to the MarkovGraph after this snapshot
+ * was created will not be visible until the graph is compiled again.
+ */
+public class CompiledMarkovGraph {
+    private static final Logger LOG = Logger.getLogger(CompiledMarkovGraph.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Returned when there is no vertex or edge for a look-up
+     */
+    public static final int NULL_ID = -1;
+
+    /**
+     * The minimum number of slots in the batch end cache
+     */
+    private static final int MIN_BATCH_CACHE_SIZE = 64;
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final MarkovGraph markov;
+    private final int recomputeCount;
+
+    private final MarkovVertex vertices[];
+    private final Map<MarkovVertex, Integer> vertexIds;
+
+    /** Statement.getId() for each vertex (NULL_ID for special vertices) */
+    private final int stmtIds[];
+    private final Statement stmts[];
+    private final int counters[];
+    private final PartitionSet partitions[];
+    private final PartitionSet pastPartitions[];
+    private final float singlePartitionProbabilities[];
+    private final float abortProbabilities[];
+
+    /**
+     * The out-edges for vertex #i are at [edgeOffsets[i], edgeOffsets[i+1])
+     */
+    private final int edgeOffsets[];
+    private final int edgeTargets[];
+    private final float edgeProbabilities[];
+    private final MarkovEdge edges[];
+
+    private final AtomicReferenceArray<BatchEnd> batchEnds;
+    private final int batchEndMask;
+
+    /**
+     * Immutable entry in the batch end cache
+     */
+    private static final class BatchEnd {
+        private final int vertexId;
+        private final int stmtId;
+        private final int counter;
+        private final PartitionSet partitions;
+        private final PartitionSet pastPartitions;
+        private final Pair<MarkovEdge, MarkovVertex> end;
+
+        private BatchEnd(int vertexId, int stmtId, int counter,
+                         PartitionSet partitions, PartitionSet pastPartitions,
+                         MarkovEdge edge, MarkovVertex vertex) {
+            this.vertexId = vertexId;
+            this.stmtId = stmtId;
+            this.counter = counter;
+            this.partitions = partitions;
+            this.pastPartitions = pastPartitions;
+            this.end = Pair.of(edge, vertex);
+        }
+
+        private boolean matches(int vertexId, int stmtId, int counter, PartitionSet partitions, PartitionSet pastPartitions) {
+            return (this.vertexId == vertexId &&
+                    this.stmtId == stmtId &&
+                    this.counter == counter &&
+                    this.partitions.equals(partitions) &&
+                    this.pastPartitions.equals(pastPartitions));
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // CONSTRUCTOR
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Constructor
+     * @param markov
+     */
+    public CompiledMarkovGraph(MarkovGraph markov) {
+        this.markov = markov;
+        this.recomputeCount = markov.getRecomputeCount();
+
+        // Copy the graph's vertices and edges while holding its lock so that
+        // nobody can add new ones while we are reading them. We compile everything
+        // else from this copy after we release the lock
+        List<MarkovVertex> snapshot = null;
+        List<List<Pair<MarkovEdge, MarkovVertex>>> snapshotEdges = null;
+        int numEdges = 0;
+        synchronized (markov) {
+            snapshot = new ArrayList<MarkovVertex>(markov.getVertices());
+            snapshotEdges = new ArrayList<List<Pair<MarkovEdge, MarkovVertex>>>(snapshot.size());
+            for (MarkovVertex v : snapshot) {
+                Collection<MarkovEdge> c = markov.getOutEdges(v);
+                List<Pair<MarkovEdge, MarkovVertex>> outEdges = new ArrayList<Pair<MarkovEdge, MarkovVertex>>(c == null ? 0 : c.size());
+                if (c != null) {
+                    for (MarkovEdge e : c) {
+                        outEdges.add(Pair.of(e, markov.getDest(e)));
+                    } // FOR
+                }
+                snapshotEdges.add(outEdges);
+                numEdges += outEdges.size();
+            } // FOR
+        } // SYNCH
+
+        int numVertices = snapshot.size();
+        this.vertices = new MarkovVertex[numVertices];
+        this.vertexIds = new IdentityHashMap<MarkovVertex, Integer>(numVertices);
+        this.stmtIds = new int[numVertices];
+        this.stmts = new Statement[numVertices];
+        this.counters = new int[numVertices];
+        this.partitions = new PartitionSet[numVertices];
+        this.pastPartitions = new PartitionSet[numVertices];
+        this.singlePartitionProbabilities = new float[numVertices];
+        this.abortProbabilities = new float[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            MarkovVertex v = snapshot.get(i);
+            Statement catalog_stmt = v.getCatalogItem();
+            this.vertices[i] = v;
+            this.vertexIds.put(v, i);
+            this.stmtIds[i] = (v.isQueryVertex() ? catalog_stmt.getId() : NULL_ID);
+            this.stmts[i] = catalog_stmt;
+            this.counters[i] = v.getQueryCounter();
+            this.partitions[i] = new PartitionSet(v.getPartitions());
+            this.pastPartitions[i] = new PartitionSet(v.getPastPartitions());
+            this.singlePartitionProbabilities[i] = v.getSinglePartitionProbability();
+            this.abortProbabilities[i] = v.getAbortProbability();
+        } // FOR
+
+        this.edgeOffsets = new int[numVertices + 1];
+        this.edgeTargets = new int[numEdges];
+        this.edgeProbabilities = new float[numEdges];
+        this.edges = new MarkovEdge[numEdges];
+        int offset = 0;
+        for (int i = 0; i < numVertices; i++) {
+            this.edgeOffsets[i] = offset;
+            for (Pair<MarkovEdge, MarkovVertex> p : snapshotEdges.get(i)) {
+                MarkovEdge e = p.getFirst();
+                Integer target = this.vertexIds.get(p.getSecond());
+                assert(target != null) : "Missing " + p.getSecond() + " from snapshot of " + markov;
+                this.edgeTargets[offset] = target.intValue();
+                this.edgeProbabilities[offset] = e.getProbability();
+                this.edges[offset] = e;
+                offset++;
+            } // FOR
+        } // FOR
+        this.edgeOffsets[numVertices] = offset;
+
+        int cacheSize = MIN_BATCH_CACHE_SIZE;
+        while (cacheSize < numVertices * 2) cacheSize <<= 1;
+        this.batchEnds = new AtomicReferenceArray<BatchEnd>(cacheSize);
+        this.batchEndMask = cacheSize - 1;
+
+        if (debug.get()) LOG.debug(String.format("Compiled %s [vertices=%d, edges=%d, recomputes=%d]",
+                                   markov, numVertices, offset, this.recomputeCount));
+    }
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBER METHODS
+    // ----------------------------------------------------------------------------
+
+    public MarkovGraph getMarkovGraph() {
+        return (this.markov);
+    }
+    /**
+     * Returns the MarkovGraph's recompute counter at the time that this was compiled
+     */
+    public int getRecomputeCount() {
+        return (this.recomputeCount);
+    }
+    public int getVertexCount() {
+        return (this.vertices.length);
+    }
+    public int getEdgeCount() {
+        return (this.edgeOffsets[this.vertices.length]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // VERTEX METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the compiled id for the given MarkovVertex.
+     * Returns NULL_ID if the vertex is not in this snapshot.
+     * @param v
+     * @return
+     */
+    public int getVertexId(MarkovVertex v) {
+        Integer id = this.vertexIds.get(v);
+        return (id != null ? id.intValue() : NULL_ID);
+    }
+    public MarkovVertex getVertex(int vertexId) {
+        return (this.vertices[vertexId]);
+    }
+    public float getSinglePartitionProbability(int vertexId) {
+        return (this.singlePartitionProbabilities[vertexId]);
+    }
+    public float getAbortProbability(int vertexId) {
+        return (this.abortProbabilities[vertexId]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // EDGE METHODS
+    // ----------------------------------------------------------------------------
+
+    public int getOutDegree(int vertexId) {
+        return (this.edgeOffsets[vertexId+1] - this.edgeOffsets[vertexId]);
+    }
+    public int getFirstEdge(int vertexId) {
+        return (this.edgeOffsets[vertexId]);
+    }
+    public int getEdgeTarget(int edgeId) {
+        return (this.edgeTargets[edgeId]);
+    }
+    public float getEdgeProbability(int edgeId) {
+        return (this.edgeProbabilities[edgeId]);
+    }
+    public MarkovEdge getEdge(int edgeId) {
+        return (this.edges[edgeId]);
+    }
+
+    /**
+     * Return the id of the edge between the two vertices.
+     * Returns NULL_ID if no such edge exists.
+     * @param sourceId
+     * @param destId
+     * @return
+     */
+    public int findEdge(int sourceId, int destId) {
+        for (int i = this.edgeOffsets[sourceId], cnt = this.edgeOffsets[sourceId+1]; i < cnt; i++) {
+            if (this.edgeTargets[i] == destId) return (i);
+        } // FOR
+        return (NULL_ID);
+    }
+
+    /**
+     * Find the out-edge from the given vertex to the query vertex that matches
+     * the given Statement invocation. This is the same matching that is
+     * done by MarkovVertex.isEqual()
+     * Returns NULL_ID if there is no matching edge in this snapshot.
+     * @param vertexId
+     * @param catalog_stmt
+     * @param counter
+     * @param partitions
+     * @param pastPartitions
+     * @return
+     */
+    public int findNextEdge(int vertexId, Statement catalog_stmt, int counter, PartitionSet partitions, PartitionSet pastPartitions) {
+        int stmtId = catalog_stmt.getId();
+        for (int i = this.edgeOffsets[vertexId], cnt = this.edgeOffsets[vertexId+1]; i < cnt; i++) {
+            int target = this.edgeTargets[i];
+            if (this.stmtIds[target] != stmtId || this.counters[target] != counter) continue;
+            if (this.partitions[target].equals(partitions) == false) continue;
+            if (MarkovGraph.USE_PAST_PARTITIONS && this.pastPartitions[target].equals(pastPartitions) == false) continue;
+            if (this.stmts[target] != catalog_stmt && this.stmts[target].equals(catalog_stmt) == false) continue;
+            if (trace.get()) LOG.trace(String.format("Found next vertex %s from %s", this.vertices[target], this.vertices[vertexId]));
+            return (i);
+        } // FOR
+        return (NULL_ID);
+    }
+
+    // ----------------------------------------------------------------------------
+    // BATCH END CACHE
+    // ----------------------------------------------------------------------------
+
+    private int getBatchEndSlot(int vertexId, int stmtId, int counter, PartitionSet partitions, PartitionSet pastPartitions) {
+        int hash = vertexId;
+        hash = 31 * hash + stmtId;
+        hash = 31 * hash + counter;
+        hash = 31 * hash + partitions.hashCode();
+        hash = 31 * hash + pastPartitions.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & this.batchEndMask);
+    }
+
+    /**
+     * Return the edge and vertex that a txn ended up at the last time that it started at the
+     * given vertex and executed a batch whose last query matches the given parameters.
+     * Returns null if there is no cached entry.
+     * @param vertexId
+     * @param catalog_stmt
+     * @param counter
+     * @param partitions
+     * @param pastPartitions
+     * @return
+     */
+    public Pair<MarkovEdge, MarkovVertex> getBatchEnd(int vertexId, Statement catalog_stmt, int counter, PartitionSet partitions, PartitionSet pastPartitions) {
+        int stmtId = catalog_stmt.getId();
+        BatchEnd entry = this.batchEnds.get(this.getBatchEndSlot(vertexId, stmtId, counter, partitions, pastPartitions));
+        if (entry != null && entry.matches(vertexId, stmtId, counter, partitions, pastPartitions)) {
+            return (entry.end);
+        }
+        return (null);
+    }
+
+    /**
+     * Store the end point of a batch in the cache. The end point does not need to
+     * be in this snapshot. If there is already another entry in this slot, then
+     * it will be replaced.
+     * @param vertexId
+     * @param catalog_stmt
+     * @param counter
+     * @param partitions
+     * @param pastPartitions
+     * @param edge
+     * @param vertex
+     */
+    public void putBatchEnd(int vertexId, Statement catalog_stmt, int counter, PartitionSet partitions, PartitionSet pastPartitions,
+                            MarkovEdge edge, MarkovVertex vertex) {
+        int stmtId = catalog_stmt.getId();
+        BatchEnd entry = new BatchEnd(vertexId, stmtId, counter,
+                                      new PartitionSet(partitions),
+                                      new PartitionSet(pastPartitions),
+                                      edge, vertex);
+        this.batchEnds.lazySet(this.getBatchEndSlot(vertexId, stmtId, counter, partitions, pastPartitions), entry);
+    }
+}
@@ -41,6 +41,8 @@ import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
 
 /**
  * Markov Model Graph
@@ -87,6 +89,8 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     private transient double xact_accuracy = 1.0;
     /** How many times have we recomputed the probabilities for this graph */
     private transient int recompute_count = 0;
+    /** Frozen snapshot of this graph used for runtime look-ups */
+    private transient volatile CompiledMarkovGraph compiled = null;
 
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
@@ -214,10 +218,11 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     }
     
     /**
-     * 
+     * Adding a vertex or an edge takes the graph's lock so that
+     * CompiledMarkovGraph can copy a consistent snapshot of the graph
      */
     @Override
-    public boolean addVertex(MarkovVertex v) {
+    public synchronized boolean addVertex(MarkovVertex v) {
         boolean ret = super.addVertex(v);
         if (ret) {
             if (v.isQueryVertex()) {
@@ -236,6 +241,11 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         }
         return (ret);
     }
+    
+    @Override
+    public synchronized boolean addEdge(MarkovEdge edge, Pair<? extends MarkovVertex> endpoints, EdgeType edgeType) {
+        return (super.addEdge(edge, endpoints, edgeType));
+    }
 
     /**
      * For the given Vertex type, return the special vertex
@@ -383,6 +393,10 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         this.calculateVertexProbabilities();
         
         this.recompute_count++;
+        
+        // Throw away our compiled snapshot so that the next
+        // look-up will pick up the new probabilities
+        this.compiled = null;
     }
 
     /**
@@ -614,7 +628,48 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         this.xact_count++;
         return (path);
     }
-    
+
+    /**
+     * Update the instance counters of this graph with the path of a transaction that
+     * was executed at runtime. Any vertices or edges in the path that do not exist
+     * will be created. Unlike processTransaction(), this does not acquire any locks,
+     * so the caller must make sure that nobody else is using this graph.
+     * @param catalog_stmts - The queries that the txn executed, in order
+     * @param partitions - The partitions that each of the queries touched
+     * @param status - The final status of the txn
+     * @return false if the status does not correspond to a terminal vertex
+     */
+    public boolean processPath(Statement catalog_stmts[], PartitionSet partitions[], Status status) {
+        assert(catalog_stmts.length == partitions.length);
+        MarkovVertex finish = this.getFinishVertex(status);
+        if (finish == null) return (false);
+
+        Map<Statement, Integer> query_instance_counters = new HashMap<Statement, Integer>();
+        PartitionSet past_partitions = new PartitionSet();
+        MarkovVertex previous = this.getStartVertex();
+        previous.incrementInstanceHits();
+        for (int i = 0; i < catalog_stmts.length; i++) {
+            Integer queryInstanceIndex = query_instance_counters.get(catalog_stmts[i]);
+            queryInstanceIndex = (queryInstanceIndex == null ? 0 : queryInstanceIndex + 1);
+            query_instance_counters.put(catalog_stmts[i], queryInstanceIndex);
+
+            MarkovVertex v = this.getVertex(catalog_stmts[i], partitions[i], past_partitions, queryInstanceIndex);
+            if (v == null) {
+                v = new MarkovVertex(catalog_stmts[i], MarkovVertex.Type.QUERY, queryInstanceIndex,
+                                     partitions[i], new PartitionSet(past_partitions));
+                this.addVertex(v);
+            }
+            this.addToEdge(previous, v).incrementInstanceHits();
+            v.incrementInstanceHits();
+            previous = v;
+            past_partitions.addAll(partitions[i]);
+        } // FOR
+        this.addToEdge(previous, finish).incrementInstanceHits();
+        finish.incrementInstanceHits();
+        this.xact_count++;
+        return (true);
+    }
+
     // ----------------------------------------------------------------------------
     // UTILITY METHODS
     // ----------------------------------------------------------------------------
@@ -663,6 +718,26 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         return (this.recompute_count);
     }
     
+    /**
+     * Return the CompiledMarkovGraph snapshot of this graph. A new snapshot will be
+     * created if one does not exist or if the probabilities have been recomputed
+     * since the last one was created.
+     * @return
+     */
+    public CompiledMarkovGraph getCompiledGraph() {
+        CompiledMarkovGraph ret = this.compiled;
+        if (ret == null) {
+            synchronized (this) {
+                ret = this.compiled;
+                if (ret == null) {
+                    ret = new CompiledMarkovGraph(this);
+                    this.compiled = ret;
+                }
+            } // SYNCH
+        }
+        return (ret);
+    }
+    
     // ----------------------------------------------------------------------------
     // SERIALIZATION METHODS
     // ----------------------------------------------------------------------------
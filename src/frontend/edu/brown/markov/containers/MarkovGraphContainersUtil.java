@@ -42,6 +42,7 @@ import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.ThreadUtil;
 import edu.brown.workload.TransactionTrace;
 import edu.brown.workload.Workload;
+import edu.brown.workload.WorkloadStream;
 
 public abstract class MarkovGraphContainersUtil {
     public static final Logger LOG = Logger.getLogger(MarkovGraphContainersUtil.class);
@@ -51,6 +52,17 @@ public abstract class MarkovGraphContainersUtil {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
 
+    /**
+     * The max number of txns that we will queue up for each processing thread
+     * when we are creating MarkovGraphs from a WorkloadStream
+     */
+    private static final int STREAM_QUEUE_SIZE = 1000;
+    
+    /**
+     * How often we will print a status update when we are reading from a WorkloadStream
+     */
+    private static final int STREAM_MARKER = 10000;
+
     // ----------------------------------------------------------------------------
     // INSTANTATION METHODS
     // ----------------------------------------------------------------------------
@@ -76,15 +88,51 @@ public abstract class MarkovGraphContainersUtil {
      * @return
      * @throws Exception
      */
-    @SuppressWarnings("unchecked")
     public static <T extends MarkovGraphsContainer> Map<Integer, MarkovGraphsContainer> createMarkovGraphsContainers(final Database catalog_db, final Workload workload, final PartitionEstimator p_estimator, final Class<T> containerClass, final Map<Integer, MarkovGraphsContainer> markovs_map) throws Exception {
+        List<TransactionTrace> all_txns = new ArrayList<TransactionTrace>(workload.getTransactions());
+        Collections.shuffle(all_txns);
+        return (createMarkovGraphsContainers(catalog_db, all_txns, workload.getProcedures(catalog_db), all_txns.size(),
+                                             p_estimator, containerClass, markovs_map));
+    }
+    
+    /**
+     * Create the MarkovGraphsContainers for the txns in the given WorkloadStream.
+     * We only keep a bounded number of txns in memory at a time.
+     * @param catalog_db
+     * @param stream
+     * @param p_estimator
+     * @param containerClass
+     * @return
+     * @throws Exception
+     */
+    public static <T extends MarkovGraphsContainer> Map<Integer, MarkovGraphsContainer> createMarkovGraphsContainers(final Database catalog_db, final WorkloadStream stream, final PartitionEstimator p_estimator, final Class<T> containerClass) throws Exception {
+        final Map<Integer, MarkovGraphsContainer> markovs_map = new ConcurrentHashMap<Integer, MarkovGraphsContainer>();
+        Set<Procedure> procedures = new HashSet<Procedure>();
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            if (catalog_proc.getSystemproc() == false) procedures.add(catalog_proc);
+        } // FOR
+        return (createMarkovGraphsContainers(catalog_db, stream, procedures, null, p_estimator, containerClass, markovs_map));
+    }
+    
+    /**
+     * Core method for creating MarkovGraphsContainers
+     * @param catalog_db
+     * @param txns
+     * @param procedures
+     * @param num_transactions - The number of txns in the Iterable (null if unknown) 
+     * @param p_estimator
+     * @param containerClass
+     * @param markovs_map
+     * @return
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends MarkovGraphsContainer> Map<Integer, MarkovGraphsContainer> createMarkovGraphsContainers(final Database catalog_db, final Iterable<TransactionTrace> txns, final Collection<Procedure> procedures, final Integer num_transactions, final PartitionEstimator p_estimator, final Class<T> containerClass, final Map<Integer, MarkovGraphsContainer> markovs_map) throws Exception {
         final String className = containerClass.getSimpleName();
         
         final List<Runnable> runnables = new ArrayList<Runnable>();
-        final Set<Procedure> procedures = workload.getProcedures(catalog_db);
         final Histogram<Procedure> proc_h = new Histogram<Procedure>();
-        final int num_transactions = workload.getTransactionCount();
-        final int marker = Math.max(1, (int)(num_transactions * 0.10));
+        final int marker = (num_transactions != null ? Math.max(1, (int)(num_transactions * 0.10)) : STREAM_MARKER);
         final AtomicInteger finished_ctr = new AtomicInteger(0);
         final AtomicInteger txn_ctr = new AtomicInteger(0);
         final int num_threads = ThreadUtil.getMaxGlobalThreads();
@@ -92,10 +140,13 @@ public abstract class MarkovGraphContainersUtil {
         final Constructor<T> constructor = ClassUtil.getConstructor(containerClass, new Class<?>[]{Collection.class});
         final boolean is_global = containerClass.equals(GlobalMarkovGraphsContainer.class);
         
-        final List<Thread> processing_threads = new ArrayList<Thread>();
+        final List<Thread> processing_threads = Collections.synchronizedList(new ArrayList<Thread>());
         final LinkedBlockingDeque<Pair<Integer, TransactionTrace>> queues[] = (LinkedBlockingDeque<Pair<Integer, TransactionTrace>>[])new LinkedBlockingDeque<?>[num_threads];
         for (int i = 0; i < num_threads; i++) {
-            queues[i] = new LinkedBlockingDeque<Pair<Integer, TransactionTrace>>();
+            // If we are reading from a stream, then we don't want the queues to
+            // grow larger than what the processing threads can keep up with
+            queues[i] = (num_transactions != null ? new LinkedBlockingDeque<Pair<Integer, TransactionTrace>>() :
+                                                    new LinkedBlockingDeque<Pair<Integer, TransactionTrace>>(STREAM_QUEUE_SIZE));
         } // FOR
         
         // QUEUING THREAD
@@ -103,10 +154,8 @@ public abstract class MarkovGraphContainersUtil {
         runnables.add(new Runnable() {
             @Override
             public void run() {
-                List<TransactionTrace> all_txns = new ArrayList<TransactionTrace>(workload.getTransactions());
-                Collections.shuffle(all_txns);
                 int ctr = 0;
-                for (TransactionTrace txn_trace : all_txns) {
+                for (TransactionTrace txn_trace : txns) {
                     // Make sure it goes to the right base partition
                     Integer partition = null;
                     try {
@@ -115,15 +164,21 @@ public abstract class MarkovGraphContainersUtil {
                         throw new RuntimeException(ex);
                     }
                     assert(partition != null) : "Failed to get base partition for " + txn_trace + "\n" + txn_trace.debug(catalog_db);
-                    queues[ctr % num_threads].add(Pair.of(partition, txn_trace));
-                    if (++ctr % marker == 0) LOG.info(String.format("Queued %d/%d transactions", ctr, num_transactions));
+                    try {
+                        queues[ctr % num_threads].put(Pair.of(partition, txn_trace));
+                    } catch (InterruptedException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                    if (++ctr % marker == 0) LOG.info(String.format("Queued %d/%s transactions", ctr, num_transactions));
                 } // FOR
                 queued_all.set(true);
                 
                 // Poke all our threads just in case they finished
-                for (Thread t : processing_threads) {
-                    if (t != null) t.interrupt();
-                } // FOR
+                synchronized (processing_threads) {
+                    for (Thread t : processing_threads) {
+                        if (t != null) t.interrupt();
+                    } // FOR
+                } // SYNCH
             }
         });
         
@@ -192,7 +247,7 @@ public abstract class MarkovGraphContainersUtil {
                         
                         int global_ctr = txn_ctr.incrementAndGet();
                         if (debug.get() && global_ctr % marker == 0) {
-                            LOG.debug(String.format("Processed %d/%d transactions",
+                            LOG.debug(String.format("Processed %d/%s transactions",
                                                     global_ctr, num_transactions));
                         }
                     } // FOR
@@ -203,7 +258,10 @@ public abstract class MarkovGraphContainersUtil {
         } // FOR
         LOG.info(String.format("Generating %s for %d partitions using %d threads",
                                className, CatalogUtil.getNumberOfPartitions(catalog_db), num_threads));
-        ThreadUtil.runGlobalPool(runnables);
+        // The queuing thread will block if the processing threads fall behind, so they
+        // all have to be running at the same time. We can't use the global pool
+        // for this because it only has room for the processing threads.
+        ThreadUtil.runNewPool(runnables, runnables.size());
     
         LOG.info("Procedure Histogram:\n" + proc_h);
         MarkovGraphContainersUtil.calculateProbabilities(markovs_map);
@@ -376,18 +434,26 @@ public abstract class MarkovGraphContainersUtil {
     }
 
     /**
-     * 
+     * Load the MarkovGraphsContainers from the given file. If the file is in the binary
+     * format (see MarkovGraphsBinaryFile), then the graphs will be memory-mapped and only
+     * deserialized when they are first used. Otherwise we will parse the JSON for each 
+     * container in parallel.
      * @param catalog_db
      * @param input_path
      * @param ids
      * @return
      * @throws Exception
      */
-    public static Map<Integer, MarkovGraphsContainer> load(final Database catalog_db, final File file, Collection<Procedure> procedures, Collection<Integer> ids) throws Exception {
-        final Map<Integer, MarkovGraphsContainer> ret = new HashMap<Integer, MarkovGraphsContainer>();
+    public static Map<Integer, MarkovGraphsContainer> load(final Database catalog_db, final File file, final Collection<Procedure> procedures, Collection<Integer> ids) throws Exception {
+        final Map<Integer, MarkovGraphsContainer> ret = new ConcurrentHashMap<Integer, MarkovGraphsContainer>();
         LOG.info(String.format("Loading in MarkovGraphContainers from '%s' [procedures=%s, ids=%s]",
                                file.getName(), (procedures == null ? "*ALL*" : CatalogUtil.debug(procedures)), (ids == null ? "*ALL*" : ids)));
         
+        if (MarkovGraphsBinaryFile.isBinaryFile(file)) {
+            return (MarkovGraphsBinaryFile.load(catalog_db, file, procedures, ids));
+        }
+        
+        List<Runnable> runnables = new ArrayList<Runnable>();
         try {
             // File Format: One PartitionId per line, each with its own MarkovGraphsContainer 
             BufferedReader in = FileUtil.getReader(file);
@@ -420,24 +486,40 @@ public abstract class MarkovGraphContainersUtil {
                     if (debug.get()) LOG.debug(String.format("Loading %d MarkovGraphsContainers", line_xref.size()));
                     
                 // Otherwise check whether this is a line number that we care about
+                // Each container gets parsed in its own thread
                 } else if (line_xref.containsKey(Integer.valueOf(line_ctr))) {
-                    Integer partition = line_xref.remove(Integer.valueOf(line_ctr));
-                    JSONObject json_object = new JSONObject(line).getJSONObject(partition.toString());
-                    MarkovGraphsContainer markovs = createMarkovGraphsContainer(json_object, procedures, catalog_db);
-                    if (debug.get()) LOG.debug(String.format("Storing %s for partition %d", markovs.getClass().getSimpleName(), partition));
-                    ret.put(partition, markovs);        
+                    final Integer partition = line_xref.remove(Integer.valueOf(line_ctr));
+                    runnables.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                JSONObject json_object = new JSONObject(line).getJSONObject(partition.toString());
+                                MarkovGraphsContainer markovs = createMarkovGraphsContainer(json_object, procedures, catalog_db);
+                                if (debug.get()) LOG.debug(String.format("Storing %s for partition %d", markovs.getClass().getSimpleName(), partition));
+                                ret.put(partition, markovs);
+                            } catch (JSONException ex) {
+                                throw new RuntimeException("Failed to load MarkovGraphsContainer for partition " + partition, ex);
+                            }
+                        }
+                    });
                     if (line_xref.isEmpty()) break;
                 }
                 line_ctr++;
             } // WHILE
+            in.close();
             if (line_ctr == 0) throw new IOException("The MarkovGraphsContainer file '" + file + "' is empty");
             
+            // Each container will use the global pool to deserialize its graphs,
+            // so we need to use our own pool here
+            if (debug.get()) LOG.debug(String.format("Going to wait for %d MarkovGraphsContainers to load", runnables.size()));
+            ThreadUtil.runNewPool(runnables, Math.max(1, Math.min(runnables.size(), ThreadUtil.availableProcessors())));
+            
         } catch (Exception ex) {
             LOG.error("Failed to deserialize the MarkovGraphsContainer from file '" + file + "'", ex);
             throw new IOException(ex);
         }
         if (debug.get()) LOG.debug("The loading of the MarkovGraphsContainer is complete");
-        return (ret);
+        return (new HashMap<Integer, MarkovGraphsContainer>(ret));
     }
 
     // ----------------------------------------------------------------------------
@@ -0,0 +1,482 @@
+package edu.brown.markov.containers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.MarkovEdge;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.MarkovUtil;
+import edu.brown.markov.MarkovVertex;
+import edu.brown.utils.ArgumentsParser;
+import edu.brown.utils.ClassUtil;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Versioned binary file format for MarkovGraphsContainers.
+ * The file starts with an index of every MarkovGraph in the file (container id,
+ * container class, graph id, procedure name, offset, length), followed by the
+ * serialized graphs. The whole file is memory-mapped when it is loaded, and each
+ * MarkovGraph is only deserialized the first time that its container asks for it.
+ * Statements are referenced by name through a small per-graph table, so we don't
+ * need to go through CatalogKey for every vertex like we do with JSON.
+ * <PRE>
+ * HEADER: MAGIC (int) | VERSION (int) | # of containers (int)
+ * CONTAINER: container id (int) | class name (str) | # of graphs (int) | GRAPH ENTRY*
+ * GRAPH ENTRY: id (int) | procedure name (str) | offset (long) | length (int)
+ * GRAPH: graph id (int) | # of stmts (int) | stmt name (str)* |
+ *        # of vertices (int) | VERTEX* | # of edges (int) | EDGE*
+ * VERTEX: type (byte) | stmt idx (short) | counter (int) | partitions | past partitions |
+ *         totalhits (int) | instancehits (int) | execution time (long) | probabilities
+ * EDGE: source idx (int) | dest idx (int) | probability (float) | totalhits (int) | instancehits (int)
+ * </PRE>
+ */
+public abstract class MarkovGraphsBinaryFile {
+    private static final Logger LOG = Logger.getLogger(MarkovGraphsBinaryFile.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * First four bytes of every binary file ("HMKV")
+     */
+    public static final int MAGIC = 0x484D4B56;
+
+    /**
+     * The current version of the file format
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The stmt index used for the START/COMMIT/ABORT vertices
+     */
+    private static final short SPECIAL_STMT_IDX = -1;
+
+    /**
+     * A single MarkovGraph that is still sitting in the memory-mapped file
+     */
+    public static class GraphHandle {
+        private final Database catalog_db;
+        private final Procedure catalog_proc;
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+
+        private GraphHandle(Database catalog_db, Procedure catalog_proc, ByteBuffer buffer, int offset, int length) {
+            this.catalog_db = catalog_db;
+            this.catalog_proc = catalog_proc;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public Procedure getProcedure() {
+            return (this.catalog_proc);
+        }
+
+        /**
+         * Deserialize the MarkovGraph from the file
+         * @return
+         */
+        public MarkovGraph load() {
+            // Each thread needs its own position in the buffer
+            ByteBuffer b = this.buffer.duplicate();
+            b.limit(this.offset + this.length);
+            b.position(this.offset);
+            try {
+                return (readGraph(this.catalog_db, this.catalog_proc, b.slice()));
+            } catch (Exception ex) {
+                throw new RuntimeException("Failed to load MarkovGraph for " + this.catalog_proc.getName(), ex);
+            }
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // FILE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the given file starts with our MAGIC number
+     * @param file
+     * @return
+     */
+    public static boolean isBinaryFile(File file) {
+        if (file.isFile() == false || file.length() < 8) return (false);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            return (in.readInt() == MAGIC);
+        } catch (IOException ex) {
+            return (false);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the given MarkovGraphsContainers out to a binary file
+     * @param markovs
+     * @param file
+     * @throws IOException
+     */
+    public static void save(Map<Integer, ? extends MarkovGraphsContainer> markovs, File file) throws IOException {
+        // Sort the list of partitions so we always iterate over them in the same order
+        SortedSet<Integer> sorted = new TreeSet<Integer>(markovs.keySet());
+
+        // We have to serialize all of the graphs first so that we know where
+        // they will be in the file when we write out the index
+        Map<Integer, List<Object[]>> entries = new HashMap<Integer, List<Object[]>>();
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        int header_size = 12;
+        for (Integer partition : sorted) {
+            MarkovGraphsContainer m = markovs.get(partition);
+            header_size += 4 + stringSize(m.getClass().getCanonicalName()) + 4;
+            List<Object[]> container_entries = new ArrayList<Object[]>();
+            for (Entry<Integer, Map<Procedure, MarkovGraph>> e : m.entrySet()) {
+                for (MarkovGraph markov : e.getValue().values()) {
+                    byte body[] = writeGraph(markov);
+                    String proc_name = markov.getProcedure().getName();
+                    container_entries.add(new Object[]{ e.getKey(), proc_name, body });
+                    bodies.add(body);
+                    header_size += 4 + stringSize(proc_name) + 8 + 4;
+                } // FOR
+            } // FOR
+            entries.put(partition, container_entries);
+        } // FOR
+
+        // We have to be able to map the whole file with a single buffer in load()
+        long file_size = header_size;
+        for (byte body[] : bodies) {
+            file_size += body.length;
+        } // FOR
+        if (file_size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Unable to write %d bytes of MarkovGraphs to '%s' [max=%d]",
+                                                file_size, file, Integer.MAX_VALUE));
+        }
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            long offset = header_size;
+            for (Integer partition : sorted) {
+                List<Object[]> container_entries = entries.get(partition);
+                out.writeInt(partition);
+                writeString(out, markovs.get(partition).getClass().getCanonicalName());
+                out.writeInt(container_entries.size());
+                for (Object entry[] : container_entries) {
+                    byte body[] = (byte[])entry[2];
+                    out.writeInt((Integer)entry[0]);
+                    writeString(out, (String)entry[1]);
+                    out.writeLong(offset);
+                    out.writeInt(body.length);
+                    offset += body.length;
+                } // FOR
+            } // FOR
+            assert(out.size() == header_size) : out.size() + " != " + header_size;
+            for (byte body[] : bodies) {
+                out.write(body);
+            } // FOR
+        } finally {
+            out.close();
+        }
+        LOG.info(String.format("Wrote out %d graphs in binary format to '%s'", bodies.size(), file));
+    }
+
+    /**
+     * Load the MarkovGraphsContainers from a binary file. The graphs will not be
+     * deserialized until they are first retrieved from their container.
+     * @param catalog_db
+     * @param file
+     * @param procedures The procedures to load. If null, then all will be loaded
+     * @param ids The container ids to load. If null, then all will be loaded
+     * @return
+     * @throws IOException
+     */
+    public static Map<Integer, MarkovGraphsContainer> load(Database catalog_db, File file, Collection<Procedure> procedures, Collection<Integer> ids) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer = null;
+        try {
+            // We map the whole file with a single buffer, so it can't be bigger than 2GB
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("The file '%s' is too large to be memory-mapped [size=%d, max=%d]",
+                                                    file, raf.length(), Integer.MAX_VALUE));
+            }
+            // The mapping stays valid after we close the channel
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("The file '" + file + "' is not a binary MarkovGraphsContainer file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported MarkovGraphsContainer file version %d in '%s' [expected=%d]",
+                                                version, file, VERSION));
+        }
+
+        Map<Integer, MarkovGraphsContainer> ret = new HashMap<Integer, MarkovGraphsContainer>();
+        int num_containers = buffer.getInt();
+        int num_graphs = 0;
+        for (int i = 0; i < num_containers; i++) {
+            Integer partition = buffer.getInt();
+            String className = readString(buffer);
+            int container_size = buffer.getInt();
+
+            // See MarkovGraphContainersUtil.load() for why we always want the global container
+            boolean include = (partition.equals(MarkovUtil.GLOBAL_MARKOV_CONTAINER_ID) || ids == null || ids.contains(partition));
+            MarkovGraphsContainer markovs = null;
+            if (include) {
+                markovs = ClassUtil.newInstance(className, new Object[]{ procedures },
+                                                           new Class<?>[]{ Collection.class });
+                ret.put(partition, markovs);
+            }
+            for (int j = 0; j < container_size; j++) {
+                int id = buffer.getInt();
+                String proc_name = readString(buffer);
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                if (markovs == null) continue;
+
+                Procedure catalog_proc = catalog_db.getProcedures().getIgnoreCase(proc_name);
+                if (catalog_proc == null) {
+                    throw new IOException(String.format("Invalid procedure '%s' for MarkovGraph in '%s'", proc_name, file));
+                }
+                if (procedures != null && procedures.contains(catalog_proc) == false) continue;
+                if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+                    throw new IOException(String.format("Invalid offset %d for MarkovGraph %s in '%s' [length=%d, fileSize=%d]",
+                                                        offset, proc_name, file, length, buffer.limit()));
+                }
+                markovs.putLazy(id, new GraphHandle(catalog_db, catalog_proc, buffer, (int)offset, length));
+                num_graphs++;
+            } // FOR
+            if (debug.get() && markovs != null)
+                LOG.debug(String.format("Mapped %s for partition %d", markovs.getClass().getSimpleName(), partition));
+        } // FOR
+        LOG.info(String.format("Mapped %d MarkovGraphs in %d containers from '%s'", num_graphs, ret.size(), file.getName()));
+        return (ret);
+    }
+
+    // ----------------------------------------------------------------------------
+    // GRAPH SERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    protected static byte[] writeGraph(MarkovGraph markov) throws IOException {
+        // Like MarkovGraph.toJSON(), ignore any query vertices that were never visited
+        List<MarkovVertex> vertices = new ArrayList<MarkovVertex>();
+        Map<MarkovVertex, Integer> vertex_idxs = new IdentityHashMap<MarkovVertex, Integer>();
+        Map<Statement, Short> stmt_idxs = new HashMap<Statement, Short>();
+        List<String> stmt_names = new ArrayList<String>();
+        for (MarkovVertex v : markov.getVertices()) {
+            if (v.isQueryVertex() && (v.instancehits == 0 && v.totalhits == 0)) continue;
+            vertex_idxs.put(v, vertices.size());
+            vertices.add(v);
+            if (v.isQueryVertex()) {
+                Statement catalog_stmt = v.getCatalogItem();
+                if (stmt_idxs.containsKey(catalog_stmt) == false) {
+                    stmt_idxs.put(catalog_stmt, (short)stmt_names.size());
+                    stmt_names.add(catalog_stmt.getName());
+                }
+            }
+        } // FOR
+        List<MarkovEdge> edges = new ArrayList<MarkovEdge>();
+        for (MarkovEdge e : markov.getEdges()) {
+            if (vertex_idxs.containsKey(markov.getSource(e)) && vertex_idxs.containsKey(markov.getDest(e))) {
+                edges.add(e);
+            }
+        } // FOR
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(markov.getGraphId());
+        out.writeInt(stmt_names.size());
+        for (String name : stmt_names) {
+            writeString(out, name);
+        } // FOR
+
+        out.writeInt(vertices.size());
+        for (MarkovVertex v : vertices) {
+            out.writeByte(v.getType().ordinal());
+            out.writeShort(v.isQueryVertex() ? stmt_idxs.get(v.getCatalogItem()) : SPECIAL_STMT_IDX);
+            out.writeInt(v.getQueryCounter());
+            writePartitions(out, v.getPartitions());
+            writePartitions(out, v.getPastPartitions());
+            out.writeInt(v.totalhits);
+            out.writeInt(v.instancehits);
+            out.writeLong(v.execution_time);
+            out.writeByte(v.probabilities.length);
+            for (float probs[] : v.probabilities) {
+                out.writeShort(probs.length);
+                for (float p : probs) {
+                    out.writeFloat(p);
+                } // FOR
+            } // FOR
+        } // FOR
+
+        out.writeInt(edges.size());
+        for (MarkovEdge e : edges) {
+            out.writeInt(vertex_idxs.get(markov.getSource(e)));
+            out.writeInt(vertex_idxs.get(markov.getDest(e)));
+            out.writeFloat(e.probability);
+            out.writeInt(e.totalhits);
+            out.writeInt(e.instancehits);
+        } // FOR
+        out.close();
+        if (trace.get()) LOG.trace(String.format("Serialized %s [vertices=%d, edges=%d, bytes=%d]",
+                                   markov, vertices.size(), edges.size(), bytes.size()));
+        return (bytes.toByteArray());
+    }
+
+    /**
+     * Create a deep copy of the given MarkovGraph that has the same graph id.
+     * Like writeGraph(), query vertices that were never visited are not copied.
+     * @param markov
+     * @return
+     * @throws IOException
+     */
+    public static MarkovGraph copy(MarkovGraph markov) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(writeGraph(markov));
+        return (readGraph(markov.getDatabase(), markov.getProcedure(), buffer));
+    }
+
+    protected static MarkovGraph readGraph(Database catalog_db, Procedure catalog_proc, ByteBuffer buffer) throws IOException {
+        MarkovGraph markov = new MarkovGraph(catalog_proc);
+        markov.setGraphId(buffer.getInt());
+
+        Statement stmts[] = new Statement[buffer.getInt()];
+        for (int i = 0; i < stmts.length; i++) {
+            String name = readString(buffer);
+            stmts[i] = catalog_proc.getStatements().getIgnoreCase(name);
+            if (stmts[i] == null) {
+                throw new IOException(String.format("Invalid Statement '%s' for %s", name, catalog_proc.getName()));
+            }
+        } // FOR
+
+        MarkovVertex.Type types[] = MarkovVertex.Type.values();
+        MarkovVertex vertices[] = new MarkovVertex[buffer.getInt()];
+        for (int i = 0; i < vertices.length; i++) {
+            MarkovVertex.Type type = types[buffer.get()];
+            short stmt_idx = buffer.getShort();
+            Statement catalog_stmt = (stmt_idx == SPECIAL_STMT_IDX ? MarkovUtil.getSpecialStatement(catalog_db, type) : stmts[stmt_idx]);
+            int counter = buffer.getInt();
+            PartitionSet partitions = readPartitions(buffer);
+            PartitionSet past_partitions = readPartitions(buffer);
+            MarkovVertex v = new MarkovVertex(catalog_stmt, type, counter, partitions, past_partitions);
+            v.totalhits = buffer.getInt();
+            v.instancehits = buffer.getInt();
+            v.execution_time = buffer.getLong();
+            int num_probs = buffer.get();
+            for (int j = 0; j < num_probs; j++) {
+                float probs[] = new float[buffer.getShort()];
+                for (int k = 0; k < probs.length; k++) {
+                    probs[k] = buffer.getFloat();
+                } // FOR
+                v.probabilities[j] = probs;
+            } // FOR
+            markov.addVertex(v);
+            vertices[i] = v;
+        } // FOR
+
+        int num_edges = buffer.getInt();
+        for (int i = 0; i < num_edges; i++) {
+            MarkovVertex v0 = vertices[buffer.getInt()];
+            MarkovVertex v1 = vertices[buffer.getInt()];
+            MarkovEdge e = new MarkovEdge(markov, 0, buffer.getFloat());
+            e.totalhits = buffer.getInt();
+            e.instancehits = buffer.getInt();
+            markov.addEdge(e, v0, v1);
+        } // FOR
+        markov.buildCache();
+        if (trace.get()) LOG.trace(String.format("Deserialized %s [vertices=%d, edges=%d]",
+                                   markov, vertices.length, num_edges));
+        return (markov);
+    }
+
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    private static int stringSize(String s) throws IOException {
+        return (2 + s.getBytes("UTF-8").length);
+    }
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte bytes[] = s.getBytes("UTF-8");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte bytes[] = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return (new String(bytes, "UTF-8"));
+    }
+
+    private static void writePartitions(DataOutputStream out, PartitionSet partitions) throws IOException {
+        out.writeShort(partitions.size());
+        for (int p : partitions.values()) {
+            out.writeInt(p);
+        } // FOR
+    }
+    private static PartitionSet readPartitions(ByteBuffer buffer) {
+        PartitionSet partitions = new PartitionSet();
+        for (int i = 0, cnt = buffer.getShort(); i < cnt; i++) {
+            partitions.add(buffer.getInt());
+        } // FOR
+        return (partitions);
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONVERTER
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Convert a JSON MarkovGraphsContainer file into the binary format
+     * @param vargs
+     * @throws Exception
+     */
+    public static void main(String vargs[]) throws Exception {
+        ArgumentsParser args = ArgumentsParser.load(vargs);
+        args.require(ArgumentsParser.PARAM_CATALOG,
+                     ArgumentsParser.PARAM_MARKOV,
+                     ArgumentsParser.PARAM_MARKOV_OUTPUT);
+        File input = args.getFileParam(ArgumentsParser.PARAM_MARKOV);
+        File output = new File(args.getParam(ArgumentsParser.PARAM_MARKOV_OUTPUT));
+
+        Map<Integer, MarkovGraphsContainer> markovs = MarkovGraphContainersUtil.load(args.catalog_db, input);
+        MarkovGraphsBinaryFile.save(markovs, output);
+    }
+}
@@ -71,6 +71,12 @@ public class MarkovGraphsContainer implements JSONSerializable {
      */
     private final Set<Procedure> load_procedures;
     
+    /**
+     * MarkovGraphs from a binary file that we have not deserialized yet
+     * <Id> -> <Procedure> -> <GraphHandle>
+     */
+    private final Map<Integer, Map<Procedure, MarkovGraphsBinaryFile.GraphHandle>> lazy_markovs = new ConcurrentHashMap<Integer, Map<Procedure, MarkovGraphsBinaryFile.GraphHandle>>();
+    
     // -----------------------------------------------------------------
     // Constructors
     // -----------------------------------------------------------------
@@ -97,6 +103,7 @@ public class MarkovGraphsContainer implements JSONSerializable {
     // -----------------------------------------------------------------
     
     public MarkovGraph getFromGraphId(int id) {
+        this.materializeAll();
         for (MarkovGraph m : this.getAll()) {
             if (m.getGraphId() == id) return (m);
         } // FOR
@@ -119,11 +126,16 @@ public class MarkovGraphsContainer implements JSONSerializable {
     
     public void clear() {
         this.markovs.clear();
+        this.lazy_markovs.clear();
     }
     
     public MarkovGraph get(Integer id, Procedure catalog_proc) {
         Map<Procedure, MarkovGraph> inner = this.markovs.get(id);
-        return (inner != null ? inner.get(catalog_proc) : null);
+        MarkovGraph markov = (inner != null ? inner.get(catalog_proc) : null);
+        if (markov == null && this.lazy_markovs.isEmpty() == false) {
+            markov = this.materialize(id, catalog_proc);
+        }
+        return (markov);
     }
     
     /**
@@ -176,6 +188,99 @@ public class MarkovGraphsContainer implements JSONSerializable {
         inner.put(markov.getProcedure(), markov);
     }
     
+    /**
+     * Replace a MarkovGraph in this container with a new version of it.
+     * Any thread that retrieves the graph after this method returns will get 
+     * the new version. Returns false if the original graph is no longer in this container.
+     * @param orig
+     * @param markov
+     * @return
+     */
+    public boolean replace(MarkovGraph orig, MarkovGraph markov) {
+        assert(orig.getProcedure().equals(markov.getProcedure()));
+        Procedure catalog_proc = orig.getProcedure();
+        synchronized (this.markovs) {
+            for (Map<Procedure, MarkovGraph> inner : this.markovs.values()) {
+                if (inner.get(catalog_proc) == orig) {
+                    inner.put(catalog_proc, markov);
+                    return (true);
+                }
+            } // FOR
+        } // SYNCH
+        return (false);
+    }
+    
+    // -----------------------------------------------------------------
+    // LAZY LOADING
+    // -----------------------------------------------------------------
+    
+    /**
+     * Register a MarkovGraph from a binary file that will be deserialized the
+     * first time that it is retrieved from this container.
+     * @param id
+     * @param handle
+     */
+    protected void putLazy(Integer id, MarkovGraphsBinaryFile.GraphHandle handle) {
+        Map<Procedure, MarkovGraphsBinaryFile.GraphHandle> inner = this.lazy_markovs.get(id);
+        if (inner == null) {
+            synchronized (this.lazy_markovs) {
+                inner = this.lazy_markovs.get(id);
+                if (inner == null) {
+                    inner = new ConcurrentHashMap<Procedure, MarkovGraphsBinaryFile.GraphHandle>();
+                    this.lazy_markovs.put(id, inner);
+                }
+            } // SYNCH
+        }
+        inner.put(handle.getProcedure(), handle);
+    }
+    
+    /**
+     * Returns the number of MarkovGraphs that have not been deserialized yet
+     * @return
+     */
+    public int getLazyCount() {
+        int total = 0;
+        for (Map<Procedure, MarkovGraphsBinaryFile.GraphHandle> inner : this.lazy_markovs.values()) {
+            total += inner.size();
+        } // FOR
+        return (total);
+    }
+    
+    private MarkovGraph materialize(Integer id, Procedure catalog_proc) {
+        MarkovGraph markov = null;
+        synchronized (this) {
+            // Somebody else may have beaten us to it
+            Map<Procedure, MarkovGraph> loaded = this.markovs.get(id);
+            markov = (loaded != null ? loaded.get(catalog_proc) : null);
+            if (markov == null) {
+                Map<Procedure, MarkovGraphsBinaryFile.GraphHandle> inner = this.lazy_markovs.get(id);
+                MarkovGraphsBinaryFile.GraphHandle handle = (inner != null ? inner.get(catalog_proc) : null);
+                if (handle != null) {
+                    if (debug.get()) LOG.debug(String.format("Materializing MarkovGraph [id=%d, proc=%s]", id, catalog_proc.getName()));
+                    markov = handle.load();
+                    this.put(id, markov);
+                    inner.remove(catalog_proc);
+                    if (inner.isEmpty()) this.lazy_markovs.remove(id);
+                }
+            }
+        } // SYNCH
+        return (markov);
+    }
+    
+    /**
+     * Deserialize all of the MarkovGraphs that have not been retrieved yet
+     */
+    protected void materializeAll() {
+        if (this.lazy_markovs.isEmpty()) return;
+        for (Integer id : this.lazy_markovs.keySet()) {
+            Map<Procedure, MarkovGraphsBinaryFile.GraphHandle> inner = this.lazy_markovs.get(id);
+            if (inner == null) continue;
+            for (Procedure catalog_proc : inner.keySet()) {
+                this.materialize(id, catalog_proc);
+            } // FOR
+        } // FOR
+    }
+    
     /**
      * 
      * @param txn_id
@@ -200,6 +305,7 @@ public class MarkovGraphsContainer implements JSONSerializable {
      * Invoke MarkovGraph.calculateProbabilities() for all of the graphs stored within this container 
      */
     public void calculateProbabilities() {
+        this.materializeAll();
         for (Map<Procedure, MarkovGraph> inner : this.markovs.values()) {
             for (Entry<Procedure, MarkovGraph> e : inner.entrySet()) {
                 MarkovGraph m = e.getValue();
@@ -221,10 +327,12 @@ public class MarkovGraphsContainer implements JSONSerializable {
     }
     
     protected Map<Procedure, MarkovGraph> getAll(Integer id) {
+        this.materializeAll();
         return (this.markovs.get(id));
     }
     
     public Map<Integer, MarkovGraph> getAll(Procedure catalog_proc) {
+        this.materializeAll();
         Map<Integer, MarkovGraph> ret = new HashMap<Integer, MarkovGraph>();
         for (Integer id : this.markovs.keySet()) {
             MarkovGraph m = this.markovs.get(id).get(catalog_proc);
@@ -238,6 +346,7 @@ public class MarkovGraphsContainer implements JSONSerializable {
      * @return
      */
     public Set<MarkovGraph> getAll() {
+        this.materializeAll();
         Set<MarkovGraph> ret = new HashSet<MarkovGraph>();
         for (Integer id : this.markovs.keySet()) {
             Map<Procedure, MarkovGraph> m = this.markovs.get(id);
@@ -247,22 +356,27 @@ public class MarkovGraphsContainer implements JSONSerializable {
     }
     
     public void copy(MarkovGraphsContainer other) {
+        other.materializeAll();
         this.markovs.putAll(other.markovs);
     }
     
     public Set<Integer> keySet() {
+        this.materializeAll();
         return this.markovs.keySet();
     }
     
     public Set<Entry<Integer, Map<Procedure, MarkovGraph>>> entrySet() {
+        this.materializeAll();
         return this.markovs.entrySet();
     }
     
     public int size() {
+        this.materializeAll();
         return (this.markovs.size());
     }
     
     public int totalSize() {
+        this.materializeAll();
         int total = 0;
         for (Integer id : this.markovs.keySet()) {
             Map<Procedure, MarkovGraph> m = this.markovs.get(id);
@@ -274,6 +388,7 @@ public class MarkovGraphsContainer implements JSONSerializable {
     @Override
     @SuppressWarnings("unchecked")
     public String toString() {
+        this.materializeAll();
         int num_ids = this.markovs.size();
         Map<String, Object> maps[] = (Map<String, Object>[])new Map<?, ?>[num_ids+1];
         int i = 0;
@@ -319,6 +434,8 @@ public class MarkovGraphsContainer implements JSONSerializable {
 
     @Override
     public void toJSON(JSONStringer stringer) throws JSONException {
+        this.materializeAll();
+        
         // CLASSNAME
         stringer.key(Members.CLASSNAME.name()).value(this.getClass().getCanonicalName());
         
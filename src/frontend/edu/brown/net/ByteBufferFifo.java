@@ -44,11 +44,10 @@ public class ByteBufferFifo {
                     lastRead.limit(lastRead.capacity());
                     currentWrite = lastRead;
                 }
-           } else {
-                // if more than 1 read buffer, the buffer is full
-                assert readBuffers.isEmpty() ||
-                        readBuffers.peekLast().limit() == readBuffers.peekLast().capacity();
-            }
+           }
+            // If there is more than one read buffer, the last one might not be full if it was
+            // queued by getReadBuffers(). We don't reuse its space since only the first read
+            // buffer can have a saved read position.
 
             if (currentWrite == null) {
                 // last resort: allocate a new buffer
@@ -93,6 +92,31 @@ public class ByteBufferFifo {
         return buffer;
     }
 
+    /**
+     * Fills out with the ByteBuffers that are available for reading, so that they can be
+     * written with a single gathering write. Any data in the current write buffer is queued
+     * for reading as well.
+     * @return the number of buffers that were put in out. 0 if the FIFO is empty.
+     */
+    public int getReadBuffers(ByteBuffer[] out) {
+        // discard any buffers that have been consumed
+        while (!readBuffers.isEmpty() && readBuffers.peekFirst().remaining() == 0) {
+            removeEmptyReadBuffer();
+        }
+
+        if (currentWrite != null && currentWrite.position() > savedReadPosition) {
+            queueWriteBuffer();
+        }
+
+        int count = 0;
+        for (ByteBuffer buffer : readBuffers) {
+            if (count == out.length) break;
+            assert buffer.remaining() > 0;
+            out[count++] = buffer;
+        }
+        return count;
+    }
+
     private void removeEmptyReadBuffer() {
         ByteBuffer buffer = readBuffers.removeFirst();
         assert !buffer.hasRemaining();
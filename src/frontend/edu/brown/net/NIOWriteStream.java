@@ -2,14 +2,28 @@ package edu.brown.net;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 public class NIOWriteStream implements ZeroCopyOutputStream {
+    /** Maximum number of buffers passed to a single gathering write. */
+    private static final int MAX_GATHER_BUFFERS = 16;
+
     private final WritableByteChannel channel;
+    /** Same as channel if it supports gathering writes, otherwise null. */
+    private final GatheringByteChannel gatheringChannel;
+    private final ByteBuffer[] gatherBuffers;
     private final ByteBufferFifo buffers = new ByteBufferFifo();
 
     public NIOWriteStream(WritableByteChannel channel) {
         this.channel = channel;
+        if (channel instanceof GatheringByteChannel) {
+            gatheringChannel = (GatheringByteChannel) channel;
+            gatherBuffers = new ByteBuffer[MAX_GATHER_BUFFERS];
+        } else {
+            gatheringChannel = null;
+            gatherBuffers = null;
+        }
     }
 
     @Override
@@ -19,6 +33,10 @@ public class NIOWriteStream implements ZeroCopyOutputStream {
 
     /** @return true if there is more data to write and the write blocked. */
     public boolean flush() {
+        if (gatheringChannel != null) {
+            return flushGathering();
+        }
+
         ByteBuffer buffer;
         while ((buffer = buffers.getReadBuffer()) != null) {
             try {
@@ -36,6 +54,25 @@ public class NIOWriteStream implements ZeroCopyOutputStream {
         return false;
     }
 
+    /** Writes all the queued buffers with as few system calls as possible. */
+    private boolean flushGathering() {
+        int count;
+        while ((count = buffers.getReadBuffers(gatherBuffers)) > 0) {
+            try {
+                gatheringChannel.write(gatherBuffers, 0, count);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            if (gatherBuffers[count - 1].remaining() > 0) {
+                // write blocked: we are done
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public void setBigEndian() {
         buffers.setBigEndian();
     }
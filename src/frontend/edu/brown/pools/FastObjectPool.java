@@ -1,7 +1,7 @@
 package edu.brown.pools;
 
 import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.pool.BaseObjectPool;
@@ -40,8 +40,11 @@ public class FastObjectPool<T> extends BaseObjectPool {
     
     /** 
      * My pool.
+     * This is a bounded array so that returning an object to the pool does
+     * not have to allocate a new queue node, and so that the number of idle
+     * objects can be checked without walking the whole queue.
      */
-    private ConcurrentLinkedQueue<T> _pool = null;
+    private ArrayBlockingQueue<T> _pool = null;
 
     /** 
      * My {@link PoolableObjectFactory}.
@@ -73,7 +76,7 @@ public class FastObjectPool<T> extends BaseObjectPool {
     public FastObjectPool(PoolableObjectFactory factory, int maxIdle, int initIdleCapacity) {
         this._factory = factory;
         _maxSleeping = (maxIdle < 0 ? DEFAULT_MAX_SLEEPING : maxIdle);
-        _pool = new ConcurrentLinkedQueue<T>();
+        _pool = new ArrayBlockingQueue<T>(Math.max(1, _maxSleeping));
     }
     
     @SuppressWarnings("unchecked")
@@ -147,17 +150,13 @@ public class FastObjectPool<T> extends BaseObjectPool {
         boolean shouldDestroy = !success;
         this._numActive.decrementAndGet();
         if (success) {
-            Object toBeDestroyed = null;
-            if (_pool.size() >= _maxSleeping) {
-                shouldDestroy = true;
-                toBeDestroyed = _pool.poll(); // remove the stalest object
-            }
             if (debug.get())
                 LOG.debug(String.format("Returning %s back to ObjectPool [hashCode=%d]",
                                         t.getClass().getSimpleName(), t.hashCode()));
-            _pool.offer(t);
-            // swap returned obj with the stalest one so it can be destroyed
-            if (toBeDestroyed != null) obj = toBeDestroyed; 
+            // If the pool is already full, then we will just throw this one away
+            if (_maxSleeping == 0 || _pool.offer(t) == false) {
+                shouldDestroy = true;
+            }
         }
 
         if (shouldDestroy) { // by constructor, shouldDestroy is false when _factory is null
@@ -42,6 +42,7 @@ public abstract class TypedPoolableObjectFactory<T extends Poolable> extends Bas
 
     private boolean enable_counting;
     private final AtomicInteger created = new AtomicInteger(0);
+    private final AtomicInteger borrowed = new AtomicInteger(0);
     private final AtomicInteger passivated = new AtomicInteger(0);
     private final AtomicInteger destroyed = new AtomicInteger(0);
 
@@ -66,6 +67,12 @@ public abstract class TypedPoolableObjectFactory<T extends Poolable> extends Bas
         return obj;
     }
 
+    @Override
+    public final void activateObject(Object obj) throws Exception {
+        if (this.enable_counting)
+            this.borrowed.getAndIncrement();
+    }
+
     @Override
     public final void passivateObject(Object obj) throws Exception {
         Poolable poolable = (Poolable) obj;
@@ -87,6 +94,14 @@ public abstract class TypedPoolableObjectFactory<T extends Poolable> extends Bas
         return (this.created.get());
     }
 
+    /**
+     * Returns the number of times that an object was handed out of the pool,
+     * regardless of whether it was reused or newly created.
+     */
+    public int getBorrowedCount() {
+        return (this.borrowed.get());
+    }
+
     public int getPassivatedCount() {
         return (this.passivated.get());
     }
@@ -99,7 +114,8 @@ public abstract class TypedPoolableObjectFactory<T extends Poolable> extends Bas
     public String toString() {
         String ret = super.toString();
         if (this.enable_counting) {
-            ret += String.format("[created:%d / passivated:%s / destroyed: %d]",
+            ret += String.format("[borrowed:%d / created:%d / passivated:%s / destroyed: %d]",
+                                 this.borrowed.get(),
                                  this.created.get(),
                                  this.passivated.get(),
                                  this.destroyed.get());
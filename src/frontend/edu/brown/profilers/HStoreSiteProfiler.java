@@ -30,14 +30,25 @@ public class HStoreSiteProfiler extends AbstractProfiler {
      */
     public final ProfileMeasurement cleanup = new ProfileMeasurement("CLEAN_UP");
  
+    /**
+     * How long outbound RPCs to remote sites wait in the queue before they are written
+     */
+    public final ProfileMeasurement network_rpc_flush = new ProfileMeasurement("RPC_FLUSH");
+ 
     /**
      * The number of incoming transaction requests per partition 
      */
     public final FastIntHistogram network_incoming_partitions = new FastIntHistogram();
     
+    /**
+     * The number of outbound RPCs written to a remote site per flush
+     */
+    public final FastIntHistogram network_rpc_batch_sizes = new FastIntHistogram();
+    
     @Override
     public void reset() {
         super.reset();
         this.network_incoming_partitions.clear();
+        this.network_rpc_batch_sizes.clear();
     }
 }
@@ -10,5 +10,39 @@ public class MarkovEstimatorProfiler extends AbstractProfiler {
     public final ProfileMeasurement time_full_estimate = new ProfileMeasurement("FULL_ESTIMATE");
     public final ProfileMeasurement time_fast_estimate = new ProfileMeasurement("FAST_ESTIMATE");
     public final ProfileMeasurement time_cached_estimate = new ProfileMeasurement("CACHED_ESTIMATE");
+    public final ProfileMeasurement time_memo_estimate = new ProfileMeasurement("MEMO_ESTIMATE");
+    
+    /**
+     * The number of initial estimates that were found in a MarkovEstimateMemo
+     */
+    public long memo_hits = 0;
+    
+    /**
+     * The number of initial estimates that were not in a MarkovEstimateMemo
+     */
+    public long memo_misses = 0;
+    
+    /**
+     * The number of txns that were aborted for a misprediction
+     * after using an initial estimate from a MarkovEstimateMemo
+     */
+    public long memo_mispredicts = 0;
+    
+    public double getMemoHitRate() {
+        long total = this.memo_hits + this.memo_misses;
+        return (total > 0 ? this.memo_hits / (double)total : 0d);
+    }
+    
+    public double getMemoMispredictRate() {
+        return (this.memo_hits > 0 ? this.memo_mispredicts / (double)this.memo_hits : 0d);
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        this.memo_hits = 0;
+        this.memo_misses = 0;
+        this.memo_mispredicts = 0;
+    }
     
 }
@@ -0,0 +1,59 @@
+package edu.brown.profilers;
+
+/**
+ * Decides whether the next transaction (or invocation) should be profiled
+ * when we only want to record one out of every N of them. Skipping the
+ * ProfileMeasurements for the other ones means that we do not pay for the
+ * System.nanoTime() calls on the hot path.
+ * <p>
+ * The counter is thread-local, so multiple threads can share the same sampler
+ * without contending on it. Each thread will profile one out of every N
+ * transactions that it sees.
+ */
+public class ProfileSampler {
+
+    private volatile int rate;
+
+    private final ThreadLocal<int[]> counter = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * Constructor
+     * @param rate Profile one out of every rate transactions
+     */
+    public ProfileSampler(int rate) {
+        this.setRate(rate);
+    }
+
+    /**
+     * Change the sampling rate. A rate that is less than or equal
+     * to one means that everything will be profiled.
+     * @param rate
+     */
+    public void setRate(int rate) {
+        this.rate = Math.max(1, rate);
+    }
+
+    public int getRate() {
+        return (this.rate);
+    }
+
+    /**
+     * Returns true if the caller should profile the next transaction
+     * @return
+     */
+    public boolean sample() {
+        int r = this.rate;
+        if (r == 1) return (true);
+        int c[] = this.counter.get();
+        if (++c[0] >= r) {
+            c[0] = 0;
+            return (true);
+        }
+        return (false);
+    }
+}
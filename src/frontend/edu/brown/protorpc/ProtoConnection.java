@@ -96,6 +96,23 @@ public class ProtoConnection {
         }
     }
 
+    /** Returns the stream that messages can be encoded into directly. The data is buffered
+     * until {@link #tryFlush()} is called. */
+    public CodedOutputStream getCodedOutputStream() {
+        return codedOutput;
+    }
+
+    /** Attempts to write out everything that was encoded into {@link #getCodedOutputStream()}.
+     * @return true if the write blocked and we need a write callback. */
+    public boolean tryFlush() {
+        try {
+            codedOutput.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return connection.tryFlush();
+    }
+
     // TODO: Only keep one of getConnection and getChannel?
     public NonBlockingConnection getConnection() {
         return connection;
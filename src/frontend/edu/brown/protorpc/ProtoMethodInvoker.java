@@ -19,6 +19,10 @@ public final class ProtoMethodInvoker {
         requestPrototype = service.getRequestPrototype(method);
     }
 
+    public MethodDescriptor getMethod() {
+        return method;
+    }
+
     public void invoke(RpcController controller, ByteString request,
             RpcCallback<Message> callback) throws InvalidProtocolBufferException {
         Message.Builder builder = requestPrototype.newBuilderForType();
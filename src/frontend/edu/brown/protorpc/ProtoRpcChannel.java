@@ -5,7 +5,10 @@ import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -13,6 +16,7 @@ import ca.evanjones.protorpc.Protocol;
 import ca.evanjones.protorpc.Protocol.RpcRequest;
 import ca.evanjones.protorpc.Protocol.RpcResponse;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
 import com.google.protobuf.RpcCallback;
@@ -20,18 +24,53 @@ import com.google.protobuf.RpcChannel;
 import com.google.protobuf.RpcController;
 
 import edu.brown.net.NonBlockingConnection;
+import edu.brown.profilers.ProfileMeasurement;
+import edu.brown.statistics.FastIntHistogram;
 
 public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel {
     private static final Logger LOG = Logger.getLogger(ProtoRpcChannel.class);
     
     private final EventLoop eventLoop;
     private final ConnectFactory connector;
-    private int sequence;
+    private final AtomicInteger sequence = new AtomicInteger(0);
     private ProtoConnection connection;
-    private final HashMap<Integer, ProtoRpcController> pendingRpcs =
-            new HashMap<Integer, ProtoRpcController>();
+    private final ConcurrentHashMap<Integer, ProtoRpcController> pendingRpcs =
+            new ConcurrentHashMap<Integer, ProtoRpcController>();
     private int reconnectIntervalSeconds;
 
+    /** If true, requests are queued and written out in batches by the event loop thread. */
+    private boolean coalescing = false;
+    private final ConcurrentLinkedQueue<QueuedRequest> outbound =
+            new ConcurrentLinkedQueue<QueuedRequest>();
+    /** True if flushTask has been handed to the event loop but has not started draining. */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    /** When the first request in the current batch was queued. */
+    private volatile long firstQueuedTimestamp;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushOutbound();
+        }
+    };
+
+    /** Time from the first request of a batch being queued until it was written. */
+    private ProfileMeasurement flushProfiler;
+    /** Number of requests written out in each batch. */
+    private FastIntHistogram batchSizes;
+
+    /** A request waiting to be encoded by the event loop thread. */
+    private static final class QueuedRequest {
+        final int sequence;
+        final Descriptors.MethodDescriptor method;
+        final Message request;
+
+        QueuedRequest(int sequence, Descriptors.MethodDescriptor method, Message request) {
+            this.sequence = sequence;
+            this.method = method;
+            this.request = request;
+        }
+    }
+
     /** A factory interface for connecting to an RPC server. */
     public interface ConnectFactory {
         /** Creates a new connection that is connecting. */
@@ -112,6 +151,30 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         reconnectIntervalSeconds = reconnectSeconds;
     }
 
+    /**
+     * Enables batching of outbound requests. Instead of writing each request to the socket from
+     * the calling thread, requests are added to a queue that the event loop thread drains. Each
+     * request is encoded directly into the connection's buffers with the method's numeric id
+     * instead of its name, and each batch goes out with a single gathering write. The server
+     * must be a {@link ProtoServer} that understands method ids.
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Record how long batches wait before they are written and how many requests are in each.
+     * Either can be null. These are only updated when coalescing is enabled.
+     */
+    public void setProfiler(ProfileMeasurement flushProfiler, FastIntHistogram batchSizes) {
+        this.flushProfiler = flushProfiler;
+        this.batchSizes = batchSizes;
+    }
+
     public void callMethod(Descriptors.MethodDescriptor method,
             RpcController controller, Message request,
             Message responsePrototype, RpcCallback<Message> done) {
@@ -123,23 +186,105 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             return;
         }
 
-        // Package up the request and send it
         final boolean debug = LOG.isDebugEnabled();
+        int seq = sequence.getAndIncrement();
+        pendingRpcs.put(seq, rpc);
+
+        if (coalescing) {
+            // Queue it up and make sure that the event loop is going to flush it
+            outbound.add(new QueuedRequest(seq, method, request));
+            if (flushScheduled.compareAndSet(false, true)) {
+                if (flushProfiler != null) firstQueuedTimestamp = ProfileMeasurement.getTime();
+                eventLoop.runInEventThread(flushTask);
+            }
+            if (debug) LOG.debug(String.format("%d: Queued RPC %s sequence %d", hashCode(), method.getFullName(), seq));
+            return;
+        }
+
+        // Package up the request and send it
         synchronized (this) {
-            pendingRpcs.put(sequence, rpc);
-            // System.err.println("Sending RPC sequence " + sequence);
-            RpcRequest rpcRequest = makeRpcRequest(sequence, method, request);
-            sequence += 1;
+            // System.err.println("Sending RPC sequence " + seq);
+            RpcRequest rpcRequest = makeRpcRequest(seq, method, request);
             boolean blocked = connection.tryWrite(rpcRequest);
             if (blocked) {
                 // the write blocked: wait for write callbacks
                 if (debug) LOG.debug("registering write with eventLoop: " + eventLoop);
                 eventLoop.registerWrite(connection.getChannel(), this);
             }
-            if (debug) LOG.debug(String.format("%d: Sending RPC %s sequence %d blocked = %b", hashCode(), method.getFullName(), sequence, blocked));
+            if (debug) LOG.debug(String.format("%d: Sending RPC %s sequence %d blocked = %b", hashCode(), method.getFullName(), seq, blocked));
         }
     }
 
+    /**
+     * Encode all of the queued requests into the connection and write them out.
+     * This is only invoked from the event loop thread.
+     */
+    private void flushOutbound() {
+        // Clear the flag before draining so that anything queued after this point
+        // schedules another flush
+        flushScheduled.set(false);
+        long start = firstQueuedTimestamp;
+
+        int count = 0;
+        synchronized (this) {
+            if (connection == null) {
+                QueuedRequest queued;
+                while ((queued = outbound.poll()) != null) {
+                    ProtoRpcController rpc = pendingRpcs.remove(queued.sequence);
+                    if (rpc != null) {
+                        rpc.finishRpcFailure(Protocol.Status.ERROR_COMMUNICATION, "Connection closed");
+                    }
+                }
+                return;
+            }
+
+            CodedOutputStream output = connection.getCodedOutputStream();
+            QueuedRequest queued;
+            try {
+                while ((queued = outbound.poll()) != null) {
+                    writeRpcRequest(output, queued.sequence, queued.method, queued.request);
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (count == 0) return;
+
+            boolean blocked = connection.tryFlush();
+            if (blocked) {
+                // the write blocked: wait for write callbacks
+                eventLoop.registerWrite(connection.getChannel(), this);
+            }
+            if (LOG.isDebugEnabled()) LOG.debug(String.format("%d: Flushed %d RPCs blocked = %b", hashCode(), count, blocked));
+        }
+
+        if (flushProfiler != null) {
+            flushProfiler.appendTime(start, ProfileMeasurement.getTime(), 1);
+        }
+        if (batchSizes != null) {
+            synchronized (batchSizes) {
+                batchSizes.put(count);
+            }
+        }
+    }
+
+    /**
+     * Writes a length-prefixed RpcRequest without building the RpcRequest or copying
+     * the request into a ByteString first. The method is identified by its id.
+     */
+    public static void writeRpcRequest(CodedOutputStream output, int sequence,
+            Descriptors.MethodDescriptor method, Message request) throws IOException {
+        int methodId = ServiceRegistry.getMethodId(method);
+        int size = CodedOutputStream.computeInt32Size(RpcRequest.SEQUENCE_NUMBER_FIELD_NUMBER, sequence) +
+                CodedOutputStream.computeMessageSize(RpcRequest.REQUEST_FIELD_NUMBER, request) +
+                CodedOutputStream.computeFixed32Size(RpcRequest.METHOD_ID_FIELD_NUMBER, methodId);
+        output.writeRawLittleEndian32(size);
+        output.writeInt32(RpcRequest.SEQUENCE_NUMBER_FIELD_NUMBER, sequence);
+        // An embedded message has the same encoding as the bytes it serializes to
+        output.writeMessage(RpcRequest.REQUEST_FIELD_NUMBER, request);
+        output.writeFixed32(RpcRequest.METHOD_ID_FIELD_NUMBER, methodId);
+    }
+
     public static RpcRequest makeRpcRequest(
             int sequence, Descriptors.MethodDescriptor method, Message request) {
         RpcRequest.Builder requestBuilder = RpcRequest.newBuilder();
@@ -168,13 +313,10 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             // Set the appropriate flags on the RPC object
             // TODO: Handle bad sequence number by ignoring/logging?
             RpcResponse response = builder.build();
-            ProtoRpcController rpc = null;
-            synchronized (this) {
-                rpc = pendingRpcs.remove(response.getSequenceNumber());
-                assert response.getStatus() == Protocol.Status.OK;
-                assert rpc != null :
-                        "No ProtoRpcController for Sequence# " + response.getSequenceNumber();
-            }
+            ProtoRpcController rpc = pendingRpcs.remove(response.getSequenceNumber());
+            assert response.getStatus() == Protocol.Status.OK;
+            assert rpc != null :
+                    "No ProtoRpcController for Sequence# " + response.getSequenceNumber();
             rpc.finishRpcSuccess(response.getResponse());
         }
     }
@@ -94,7 +94,9 @@ public class ProtoServer extends AbstractEventHandler {
     //        System.out.println(request.getMethodName() + " " + request.getRequest().size());
 
             // Handle the request
-            ProtoMethodInvoker invoker = serviceRegistry.getInvoker(request.getMethodName());
+            ProtoMethodInvoker invoker = (request.hasMethodId() ?
+                    serviceRegistry.getInvoker(request.getMethodId()) :
+                    serviceRegistry.getInvoker(request.getMethodName()));
             // TODO: Reuse callback objects?
             ProtoServerCallback callback =
                     new ProtoServerCallback(eventLoopCallback, request.getSequenceNumber());
@@ -106,7 +108,7 @@ public class ProtoServer extends AbstractEventHandler {
         }
     }
 
-    private static final class ProtoServerController implements RpcController {
+    static final class ProtoServerController implements RpcController {
         @Override
         public String errorText() {
             throw new UnsupportedOperationException("TODO: implement");
@@ -151,8 +153,8 @@ public class ProtoServer extends AbstractEventHandler {
             throw new UnsupportedOperationException("TODO: implement");
         }
 
-        private Protocol.Status status = Protocol.Status.OK;
-        private String errorReason;
+        Protocol.Status status = Protocol.Status.OK;
+        String errorReason;
     }
 
     private static final class ProtoServerCallback implements RpcCallback<Message> {
@@ -172,26 +174,29 @@ public class ProtoServer extends AbstractEventHandler {
                 throw new IllegalStateException("response callback must only be called once");
             }
 
-            RpcResponse.Builder responseMessage = RpcResponse.newBuilder();
-            responseMessage.setSequenceNumber(sequence);
-            assert controller.status != Protocol.Status.INVALID;
-            responseMessage.setStatus(controller.status);
-            if (response != null) {
-                responseMessage.setResponse(response.toByteString());
-            } else {
-                // No message: we must have failed
-                assert controller.status != Protocol.Status.OK;
-            }
-            if (controller.errorReason != null) {
-                assert controller.status != Protocol.Status.OK;
-                responseMessage.setErrorReason(controller.errorReason);
-            }
-
-            eventLoopCallback.writeResponse(responseMessage.build());
+            eventLoopCallback.writeResponse(makeRpcResponse(sequence, controller, response));
             eventLoopCallback = null;
         }
     }
 
+    static RpcResponse makeRpcResponse(int sequence, ProtoServerController controller, Message response) {
+        RpcResponse.Builder responseMessage = RpcResponse.newBuilder();
+        responseMessage.setSequenceNumber(sequence);
+        assert controller.status != Protocol.Status.INVALID;
+        responseMessage.setStatus(controller.status);
+        if (response != null) {
+            responseMessage.setResponse(response.toByteString());
+        } else {
+            // No message: we must have failed
+            assert controller.status != Protocol.Status.OK;
+        }
+        if (controller.errorReason != null) {
+            assert controller.status != Protocol.Status.OK;
+            responseMessage.setErrorReason(controller.errorReason);
+        }
+        return responseMessage.build();
+    }
+
     public void bind(int port) {
         try {
             serverSocket = ServerSocketChannel.open();
@@ -9,6 +9,12 @@ import com.google.protobuf.Service;
 
 /** Registers methods and invokes callbacks. */
 public final class ServiceRegistry {
+    /** Returns the numeric id that is sent in place of the method's name. Both ends compute it
+     * from the method's full name, so there is nothing to negotiate. */
+    public static int getMethodId(MethodDescriptor method) {
+        return method.getFullName().hashCode();
+    }
+
     public void register(Service service) {
         // TODO: Support registering multiple local services? Needs "local 2PC" effectively. Yuck.
         Descriptors.ServiceDescriptor descriptor = service.getDescriptorForType();
@@ -17,7 +23,14 @@ public final class ServiceRegistry {
                 throw new IllegalStateException(
                         "method " + i.getFullName() + " is already registered");
             }
-            methods.put(i.getFullName(), new ProtoMethodInvoker(service, i));
+            int id = getMethodId(i);
+            if (methodIds.containsKey(id)) {
+                throw new IllegalStateException("method " + i.getFullName() +
+                        " has the same id as " + methodIds.get(id).getMethod().getFullName());
+            }
+            ProtoMethodInvoker invoker = new ProtoMethodInvoker(service, i);
+            methods.put(i.getFullName(), invoker);
+            methodIds.put(id, invoker);
         }
     }
 
@@ -29,6 +42,16 @@ public final class ServiceRegistry {
         return invoker;
     }
 
+    public ProtoMethodInvoker getInvoker(int methodId) {
+        ProtoMethodInvoker invoker = methodIds.get(methodId);
+        if (invoker == null) {
+            throw new RuntimeException("method not found: id " + methodId);
+        }
+        return invoker;
+    }
+
     private final HashMap<String, ProtoMethodInvoker> methods =
         new HashMap<String, ProtoMethodInvoker>();
+    private final HashMap<Integer, ProtoMethodInvoker> methodIds =
+        new HashMap<Integer, ProtoMethodInvoker>();
 }
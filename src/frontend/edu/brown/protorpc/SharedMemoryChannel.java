@@ -0,0 +1,268 @@
+package edu.brown.protorpc;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import ca.evanjones.protorpc.Protocol;
+import ca.evanjones.protorpc.Protocol.RpcRequest;
+import ca.evanjones.protorpc.Protocol.RpcResponse;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcChannel;
+import com.google.protobuf.RpcController;
+
+/**
+ * An RpcChannel to a service in another process on the same machine. Requests are
+ * written into a {@link SharedMemoryRing} that the other process reads from, and the
+ * responses come back on the ring that we read from in our {@link SharedMemoryServer}.
+ * Responses to the requests that the other process sends to us also go out
+ * through this channel's ring. Callbacks are invoked in the server's thread.
+ * <p>
+ * A request that is too big for the ring, or that would grow the backlog past
+ * the size of the ring, is sent through the fallback channel (i.e., the regular
+ * TCP connection to the same site) instead. Such a request waits in the backlog
+ * until the other side has handled everything that we wrote before it, so
+ * switching channels never reorders our messages.
+ */
+public class SharedMemoryChannel implements RpcChannel {
+    private static final Logger LOG = Logger.getLogger(SharedMemoryChannel.class);
+
+    private final EventLoop eventLoop;
+    private final SharedMemoryRing outgoing;
+    private final RpcChannel fallback;
+    private final AtomicInteger sequence = new AtomicInteger(0);
+    private final ConcurrentHashMap<Integer, ProtoRpcController> pendingRpcs =
+            new ConcurrentHashMap<Integer, ProtoRpcController>();
+
+    /**
+     * A record that did not fit in the ring, or a request that has to
+     * go out through the fallback channel once the ring is drained
+     */
+    private static final class Pending {
+        final byte kind;
+        final byte data[];
+        final Runnable fallbackCall;
+
+        Pending(byte kind, byte data[]) {
+            this.kind = kind;
+            this.data = data;
+            this.fallbackCall = null;
+        }
+        Pending(Runnable fallbackCall) {
+            this.kind = 0;
+            this.data = null;
+            this.fallbackCall = fallbackCall;
+        }
+    }
+
+    /**
+     * Records that did not fit in the ring when they were written. These are written
+     * out by the server's thread once the other side has caught up. Nothing ever
+     * blocks on a full ring, so two processes that are both waiting to write a
+     * response to each other cannot deadlock.
+     */
+    private final ArrayDeque<Pending> backlog = new ArrayDeque<Pending>();
+    /** The number of payload bytes in the backlog */
+    private long backlogBytes = 0;
+    /** We stop adding to the backlog once it holds this many bytes */
+    private final long maxBacklogBytes;
+    private boolean closed = false;
+
+    /** The number of records that we have written into the ring */
+    private final AtomicLong sentCount = new AtomicLong(0);
+    /** The number of requests that we have sent through the fallback channel */
+    private final AtomicLong fallbackCount = new AtomicLong(0);
+
+    /**
+     * @param eventLoop
+     * @param outgoing the ring that the other process reads from
+     * @param fallback the channel to send requests through when they will not fit (may be null)
+     */
+    SharedMemoryChannel(EventLoop eventLoop, SharedMemoryRing outgoing, RpcChannel fallback) {
+        this.eventLoop = eventLoop;
+        this.outgoing = outgoing;
+        this.fallback = fallback;
+        this.maxBacklogBytes = outgoing.getCapacity();
+    }
+
+    public SharedMemoryRing getRing() {
+        return outgoing;
+    }
+
+    /**
+     * Returns the number of messages that we have sent through shared memory
+     */
+    public long getSentCount() {
+        return (sentCount.get());
+    }
+
+    /**
+     * Returns the number of requests that we have sent through the fallback channel
+     */
+    public long getFallbackCount() {
+        return (fallbackCount.get());
+    }
+
+    @Override
+    public void callMethod(Descriptors.MethodDescriptor method,
+            RpcController controller, Message request,
+            Message responsePrototype, RpcCallback<Message> done) {
+        ProtoRpcController rpc = (ProtoRpcController) controller;
+        int seq = sequence.getAndIncrement();
+        RpcRequest rpcRequest = RpcRequest.newBuilder()
+                .setSequenceNumber(seq)
+                .setMethodId(ServiceRegistry.getMethodId(method))
+                .setRequest(request.toByteString())
+                .build();
+        byte data[] = rpcRequest.toByteArray();
+
+        // The pending RPC has to be registered before the other side can possibly respond,
+        // so we only know whether the write worked after we have started it
+        rpc.startRpc(eventLoop, responsePrototype.newBuilderForType(), done);
+        pendingRpcs.put(seq, rpc);
+        WriteResult result = write(SharedMemoryServer.KIND_REQUEST, data, false);
+        if (result == WriteResult.OK) {
+            if (LOG.isDebugEnabled()) LOG.debug(String.format("%d: Sending RPC %s sequence %d", hashCode(), method.getFullName(), seq));
+            return;
+        }
+        pendingRpcs.remove(seq);
+        if (result == WriteResult.FULL && fallback != null) {
+            if (LOG.isDebugEnabled()) LOG.debug(String.format("%d: Sending RPC %s through fallback channel [size=%d]", hashCode(), method.getFullName(), data.length));
+            if (callFallback(method, rpc, request, responsePrototype, done)) return;
+            result = WriteResult.CLOSED;
+        }
+        if (result == WriteResult.FULL) {
+            rpc.finishRpcFailure(Protocol.Status.ERROR_COMMUNICATION,
+                                 "Request with " + data.length + " bytes does not fit in " + outgoing);
+        } else {
+            rpc.finishRpcFailure(Protocol.Status.ERROR_COMMUNICATION, "Connection closed");
+        }
+    }
+
+    enum WriteResult {
+        OK,
+        /** The record is too big for the ring or the backlog is full */
+        FULL,
+        CLOSED;
+    }
+
+    /**
+     * Send the request through the fallback channel. If there is anything in the ring
+     * or the backlog, then the request waits in the backlog until the other side
+     * has handled all of it. Returns false if this channel is closed.
+     */
+    private boolean callFallback(final Descriptors.MethodDescriptor method,
+                                 final ProtoRpcController rpc, final Message request,
+                                 final Message responsePrototype, final RpcCallback<Message> done) {
+        Runnable call = new Runnable() {
+            @Override
+            public void run() {
+                fallbackCount.incrementAndGet();
+                fallback.callMethod(method, rpc, request, responsePrototype, done);
+            }
+        };
+        synchronized (backlog) {
+            if (closed) return false;
+            rpc.reset();
+            if (backlog.isEmpty() && outgoing.isDrained()) {
+                call.run();
+            } else {
+                backlog.add(new Pending(call));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a record to the other process. If it does not fit in the ring right now, then
+     * it is added to the backlog unless the backlog is full. Records that are larger than
+     * the ring can never be written. If force is true, then the backlog limit is ignored.
+     */
+    WriteResult write(byte kind, byte data[], boolean force) {
+        if (data.length > outgoing.getMaxRecordSize()) return WriteResult.FULL;
+        synchronized (backlog) {
+            if (closed) return WriteResult.CLOSED;
+            if (backlog.isEmpty() && tryWrite(kind, data)) {
+                return WriteResult.OK;
+            }
+            if (force == false && backlogBytes + data.length > maxBacklogBytes) {
+                return WriteResult.FULL;
+            }
+            backlog.add(new Pending(kind, data));
+            backlogBytes += data.length;
+        }
+        return WriteResult.OK;
+    }
+
+    /**
+     * Write the record into the ring and count it. The count goes up first so
+     * that the other side can never have read more records than we have counted.
+     */
+    private boolean tryWrite(byte kind, byte data[]) {
+        sentCount.incrementAndGet();
+        if (outgoing.tryWrite(kind, data)) return true;
+        sentCount.decrementAndGet();
+        return false;
+    }
+
+    /**
+     * Write out as many of the backlogged records as will fit in the ring. A request
+     * for the fallback channel is only sent once the other side has drained the ring.
+     * Returns true if there is still something left in the backlog.
+     */
+    boolean flushBacklog() {
+        synchronized (backlog) {
+            Pending next;
+            while ((next = backlog.peek()) != null) {
+                if (next.fallbackCall != null) {
+                    if (!outgoing.isDrained()) return true;
+                    next.fallbackCall.run();
+                } else {
+                    if (!tryWrite(next.kind, next.data)) return true;
+                    backlogBytes -= next.data.length;
+                }
+                backlog.poll();
+            }
+        }
+        return false;
+    }
+
+    /** Finish the pending RPC that this response is for. */
+    void responseCallback(RpcResponse response) {
+        ProtoRpcController rpc = pendingRpcs.remove(response.getSequenceNumber());
+        if (rpc == null) {
+            LOG.warn("No ProtoRpcController for Sequence# " + response.getSequenceNumber() + " from " + outgoing);
+            return;
+        }
+        if (response.getStatus() == Protocol.Status.OK) {
+            rpc.finishRpcSuccess(response.getResponse());
+        } else {
+            rpc.finishRpcFailure(response.getStatus(), response.getErrorReason());
+        }
+    }
+
+    public void close() {
+        synchronized (backlog) {
+            closed = true;
+            // Nothing else is going to come through the ring, so the requests that
+            // were waiting for it to drain can go out through the fallback now
+            for (Pending pending : backlog) {
+                if (pending.fallbackCall != null) pending.fallbackCall.run();
+            }
+            backlog.clear();
+            backlogBytes = 0;
+        }
+
+        // Fail all pending RPCs
+        for (ProtoRpcController rpc : pendingRpcs.values()) {
+            rpc.finishRpcFailure(Protocol.Status.ERROR_COMMUNICATION, "Connection closed");
+        }
+        pendingRpcs.clear();
+    }
+}
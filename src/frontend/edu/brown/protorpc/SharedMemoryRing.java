@@ -0,0 +1,307 @@
+package edu.brown.protorpc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import sun.misc.Unsafe;
+
+/**
+ * A single-producer/single-consumer ring buffer of length-prefixed records that lives
+ * in a memory-mapped file. Two processes on the same machine can map the same file
+ * (e.g., in /dev/shm) and pass messages to each other without going through the
+ * kernel's network stack. Only one process may write to a ring and only one process
+ * may read from it. Writers within the same process are serialized by this object.
+ * <p>
+ * Layout: the reader's position is stored at offset 0, the writer's position at
+ * offset 64 (so that they are on different cache lines), and the data starts at
+ * offset 128. Positions only ever increase; they are wrapped by the capacity when
+ * they are used as offsets. Each record is a four-byte length, a one-byte kind, and
+ * then the payload. A record can wrap around the end of the data region.
+ * <p>
+ * A position is only published after the bytes that it covers have been written.
+ * The positions are stored with an ordered (release) store and loaded with a volatile
+ * (acquire) load directly on the mapped memory, so the other side never sees a
+ * position before the data that it covers.
+ */
+public class SharedMemoryRing {
+
+    private static final int READ_POSITION_OFFSET = 0;
+    private static final int WRITE_POSITION_OFFSET = 64;
+    private static final int DATA_OFFSET = 128;
+    private static final int RECORD_HEADER_SIZE = 5;
+
+    private static final Unsafe UNSAFE;
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe)f.get(null);
+        } catch (Exception ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    /** The memory address of the start of the mapped file */
+    private final long address;
+
+    /** Our cached copy of the position that we own */
+    private long position;
+
+    /**
+     * A record that was read from the ring
+     */
+    public static final class Record {
+        public byte kind;
+        public byte data[];
+    }
+
+    private SharedMemoryRing(File file, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.address = ((sun.nio.ch.DirectBuffer)buffer).address();
+    }
+
+    /**
+     * Create a new empty ring in the given file. Anything that was already in the
+     * file is thrown away. The capacity is rounded up to the next power of two.
+     * This should be invoked by the reader before anybody tries to open the ring.
+     * @param file
+     * @param capacity
+     * @return
+     * @throws IOException
+     */
+    public static SharedMemoryRing create(File file, int capacity) throws IOException {
+        int size = Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1;
+        file.delete();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(DATA_OFFSET + size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + size);
+            SharedMemoryRing ring = new SharedMemoryRing(file, buffer, size);
+            ring.putPosition(READ_POSITION_OFFSET, 0l);
+            ring.putPosition(WRITE_POSITION_OFFSET, 0l);
+            return (ring);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Map an existing ring that was created with {@link #create(File, int)}
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static SharedMemoryRing open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long length = raf.length();
+            int size = (int)(length - DATA_OFFSET);
+            if (size <= 0 || Integer.bitCount(size) != 1) {
+                throw new IOException("Invalid shared memory ring " + file + " [length=" + length + "]");
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            SharedMemoryRing ring = new SharedMemoryRing(file, buffer, size);
+            ring.position = ring.getPosition(WRITE_POSITION_OFFSET);
+            return (ring);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return (this.file);
+    }
+
+    public int getCapacity() {
+        return (this.capacity);
+    }
+
+    /**
+     * Returns the largest payload that can ever fit in this ring
+     */
+    public int getMaxRecordSize() {
+        return (this.capacity - RECORD_HEADER_SIZE);
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRITER
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Try to append a record to the ring. Returns false if there is not enough
+     * free space right now. The caller must check that the record is not larger
+     * than {@link #getMaxRecordSize()} first.
+     * @param kind
+     * @param data
+     * @return
+     */
+    public synchronized boolean tryWrite(byte kind, byte data[]) {
+        int length = RECORD_HEADER_SIZE + data.length;
+        if (data.length > this.getMaxRecordSize()) {
+            throw new IllegalArgumentException(String.format("Record with %d bytes is larger than the %d bytes that can fit in %s",
+                                               data.length, this.getMaxRecordSize(), this.file));
+        }
+        long readPosition = this.getPosition(READ_POSITION_OFFSET);
+        if (this.position + length - readPosition > this.capacity) {
+            return (false);
+        }
+
+        long pos = this.position;
+        this.putInt(pos, data.length);
+        this.put(pos + 4, kind);
+        this.put(pos + RECORD_HEADER_SIZE, data, 0, data.length);
+        this.position = pos + length;
+        this.putPosition(WRITE_POSITION_OFFSET, this.position);
+        return (true);
+    }
+
+    /**
+     * Returns true if the reader has released every record that we have written
+     */
+    public synchronized boolean isDrained() {
+        return (this.getPosition(READ_POSITION_OFFSET) == this.position);
+    }
+
+    // ----------------------------------------------------------------------------
+    // READER
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if there is at least one record waiting to be read
+     */
+    public boolean hasRecord() {
+        return (this.getPosition(WRITE_POSITION_OFFSET) != this.position);
+    }
+
+    /**
+     * Read the next record into the given object. Returns false if the ring is empty.
+     * This must only be called by the single reader thread.
+     * @param record
+     * @return
+     */
+    public boolean read(Record record) {
+        return (this.read(record, true));
+    }
+
+    /**
+     * Read the next record into the given object. If release is false, then the
+     * writer will not get the record's space back (or see that it was read) until
+     * {@link #release()} is called. Returns false if the ring is empty.
+     * This must only be called by the single reader thread.
+     * @param record
+     * @param release
+     * @return
+     */
+    public boolean read(Record record, boolean release) {
+        long writePosition = this.getPosition(WRITE_POSITION_OFFSET);
+        if (writePosition == this.position) return (false);
+
+        long pos = this.position;
+        int size = this.getInt(pos);
+        record.kind = this.get(pos + 4);
+        record.data = new byte[size];
+        this.get(pos + RECORD_HEADER_SIZE, record.data, 0, size);
+
+        this.position = pos + RECORD_HEADER_SIZE + size;
+        if (release) this.release();
+        return (true);
+    }
+
+    /**
+     * Give the space for all of the records that we have read back to the writer
+     * This must only be called by the single reader thread.
+     */
+    public void release() {
+        this.putPosition(READ_POSITION_OFFSET, this.position);
+    }
+
+    // ----------------------------------------------------------------------------
+    // POSITIONS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Publish one of the positions. Everything that we wrote before this
+     * is visible to the other side before the new position is.
+     */
+    private void putPosition(int offset, long value) {
+        UNSAFE.putOrderedLong(null, this.address + offset, value);
+    }
+
+    /**
+     * Load the position that the other side published. Nothing that we
+     * read after this can be read before it.
+     */
+    private long getPosition(int offset) {
+        return (UNSAFE.getLongVolatile(null, this.address + offset));
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRAPPED ACCESS
+    // ----------------------------------------------------------------------------
+
+    private int offset(long pos) {
+        return (DATA_OFFSET + (int)(pos & this.mask));
+    }
+
+    private void put(long pos, byte b) {
+        this.buffer.put(this.offset(pos), b);
+    }
+
+    private byte get(long pos) {
+        return (this.buffer.get(this.offset(pos)));
+    }
+
+    private void putInt(long pos, int value) {
+        for (int i = 0; i < 4; i++) {
+            this.put(pos + i, (byte)(value >>> (i * 8)));
+        } // FOR
+    }
+
+    private int getInt(long pos) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (this.get(pos + i) & 0xFF) << (i * 8);
+        } // FOR
+        return (value);
+    }
+
+    private void put(long pos, byte data[], int offset, int length) {
+        int start = (int)(pos & this.mask);
+        int first = Math.min(length, this.capacity - start);
+        this.buffer.position(DATA_OFFSET + start);
+        this.buffer.put(data, offset, first);
+        if (first < length) {
+            this.buffer.position(DATA_OFFSET);
+            this.buffer.put(data, offset + first, length - first);
+        }
+    }
+
+    private void get(long pos, byte data[], int offset, int length) {
+        int start = (int)(pos & this.mask);
+        int first = Math.min(length, this.capacity - start);
+        this.buffer.position(DATA_OFFSET + start);
+        this.buffer.get(data, offset, first);
+        if (first < length) {
+            this.buffer.position(DATA_OFFSET);
+            this.buffer.get(data, offset + first, length - first);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, capacity=%d]", this.getClass().getSimpleName(), this.file, this.capacity);
+    }
+}
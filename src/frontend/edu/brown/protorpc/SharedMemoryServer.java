@@ -0,0 +1,227 @@
+package edu.brown.protorpc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import ca.evanjones.protorpc.Protocol;
+import ca.evanjones.protorpc.Protocol.RpcRequest;
+import ca.evanjones.protorpc.Protocol.RpcResponse;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcChannel;
+import com.google.protobuf.Service;
+
+/**
+ * Exchanges RPCs with other processes on the same machine through memory-mapped
+ * {@link SharedMemoryRing}s instead of sockets. There is one ring in each direction
+ * for every peer. We create the rings that we read from, and the peer opens them
+ * once it knows that we are up. Both the requests from the peer and the responses
+ * to our requests arrive on our incoming ring, so a single thread polls all of
+ * the incoming rings and either invokes the registered service or completes the
+ * pending RPC in the peer's {@link SharedMemoryChannel}.
+ */
+public class SharedMemoryServer implements Runnable {
+    private static final Logger LOG = Logger.getLogger(SharedMemoryServer.class);
+
+    static final byte KIND_REQUEST = 0;
+    static final byte KIND_RESPONSE = 1;
+
+    /** How many times we poll the rings without finding anything before we start sleeping. */
+    private static final int SPIN_ITERATIONS = 1000;
+    /** How long to sleep between polls once we are idle. */
+    private static final long IDLE_PARK_NANOS = 50000;
+
+    private final EventLoop eventLoop;
+    private final int ringSize;
+    private final ServiceRegistry serviceRegistry = new ServiceRegistry();
+    private final CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<Peer>();
+    private volatile boolean stop = false;
+
+    private static final class Peer {
+        final int id;
+        final SharedMemoryRing incoming;
+        SharedMemoryChannel channel;
+        /** The number of records that we have read from the incoming ring. Only the poll thread writes this. */
+        volatile long received = 0;
+
+        Peer(int id, SharedMemoryRing incoming) {
+            this.id = id;
+            this.incoming = incoming;
+        }
+    }
+
+    /**
+     * @param eventLoop the event loop handed to ProtoRpcController for our RPCs
+     * @param ringSize the number of bytes in each incoming ring
+     */
+    public SharedMemoryServer(EventLoop eventLoop, int ringSize) {
+        this.eventLoop = eventLoop;
+        this.ringSize = ringSize;
+    }
+
+    public void register(Service service) {
+        serviceRegistry.register(service);
+    }
+
+    private Peer getPeer(int peerId) {
+        for (Peer peer : peers) {
+            if (peer.id == peerId) return peer;
+        }
+        return null;
+    }
+
+    /**
+     * Create the ring that the given peer will write to. This must happen before the
+     * peer is told that we are up, since creating the ring wipes out any old file.
+     */
+    public void createIncoming(int peerId, File file) throws IOException {
+        if (getPeer(peerId) != null) {
+            throw new IllegalStateException("peer " + peerId + " is already registered");
+        }
+        SharedMemoryRing ring = SharedMemoryRing.create(file, ringSize);
+        peers.add(new Peer(peerId, ring));
+        if (LOG.isDebugEnabled()) LOG.debug("Created incoming ring " + ring + " for peer " + peerId);
+    }
+
+    /**
+     * Open the ring that the given peer created for us and return a channel that
+     * sends RPCs through it. {@link #createIncoming(int, File)} must have been called
+     * for this peer first so that we can get its responses. Requests that do not
+     * fit in the ring are sent through the fallback channel instead.
+     */
+    public SharedMemoryChannel connect(int peerId, File file, RpcChannel fallback) throws IOException {
+        Peer peer = getPeer(peerId);
+        if (peer == null) {
+            throw new IllegalStateException("no incoming ring for peer " + peerId);
+        }
+        assert peer.channel == null;
+        peer.channel = new SharedMemoryChannel(eventLoop, SharedMemoryRing.open(file), fallback);
+        if (LOG.isDebugEnabled()) LOG.debug("Opened outgoing ring " + peer.channel.getRing() + " for peer " + peerId);
+        return peer.channel;
+    }
+
+    /**
+     * Returns true if we created a ring for the given peer to write to
+     */
+    public boolean hasIncoming(int peerId) {
+        return (getPeer(peerId) != null);
+    }
+
+    /**
+     * Returns the channel that sends messages to the given peer through shared
+     * memory, or null if we have not connected to it.
+     */
+    public SharedMemoryChannel getChannel(int peerId) {
+        Peer peer = getPeer(peerId);
+        return (peer != null ? peer.channel : null);
+    }
+
+    /**
+     * Returns the number of messages that we have received from the given peer
+     * through shared memory
+     */
+    public long getReceivedCount(int peerId) {
+        Peer peer = getPeer(peerId);
+        return (peer != null ? peer.received : 0);
+    }
+
+    @Override
+    public void run() {
+        SharedMemoryRing.Record record = new SharedMemoryRing.Record();
+        int idle = 0;
+        while (!stop) {
+            boolean found = false;
+            for (Peer peer : peers) {
+                if (peer.channel == null) continue;
+                if (peer.channel.flushBacklog()) found = true;
+                // We don't give the record's space back until we are done with it. That way
+                // once the peer sees that its ring is drained, it knows that we have handed off
+                // every message that it sent to us, so it can switch to its fallback channel
+                // without reordering anything.
+                while (peer.incoming.read(record, false)) {
+                    found = true;
+                    peer.received++;
+                    // A bad message only fails itself. Everybody else's messages
+                    // still need this thread.
+                    try {
+                        if (record.kind == KIND_REQUEST) {
+                            handleRequest(peer, RpcRequest.parseFrom(record.data));
+                        } else if (record.kind == KIND_RESPONSE) {
+                            peer.channel.responseCallback(RpcResponse.parseFrom(record.data));
+                        } else {
+                            LOG.error("Unexpected record kind " + record.kind + " from peer " + peer.id);
+                        }
+                    } catch (Throwable ex) {
+                        LOG.error(String.format("Failed to process %d byte message from peer %d", record.data.length, peer.id), ex);
+                    } finally {
+                        peer.incoming.release();
+                    }
+                }
+            }
+
+            if (found) {
+                idle = 0;
+            } else if (++idle > SPIN_ITERATIONS) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void handleRequest(Peer peer, RpcRequest request) throws InvalidProtocolBufferException {
+        ProtoMethodInvoker invoker = serviceRegistry.getInvoker(request.getMethodId());
+        ResponseCallback callback = new ResponseCallback(peer.channel, request.getSequenceNumber());
+        invoker.invoke(callback.controller, request.getRequest(), callback);
+    }
+
+    private static final class ResponseCallback implements RpcCallback<Message> {
+        private final ProtoServer.ProtoServerController controller = new ProtoServer.ProtoServerController();
+        private SharedMemoryChannel channel;
+        private final int sequence;
+
+        public ResponseCallback(SharedMemoryChannel channel, int sequence) {
+            this.channel = channel;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run(Message response) {
+            if (channel == null) {
+                throw new IllegalStateException("response callback must only be called once");
+            }
+            RpcResponse rpcResponse = ProtoServer.makeRpcResponse(sequence, controller, response);
+            byte data[] = rpcResponse.toByteArray();
+            // The other side is waiting for the response on this channel, so we can't
+            // send it over the network. If it will not fit, then fail the RPC instead.
+            if (channel.write(KIND_RESPONSE, data, false) == SharedMemoryChannel.WriteResult.FULL) {
+                String error = String.format("Response with %d bytes for Sequence# %d does not fit in %s",
+                                             data.length, sequence, channel.getRing());
+                LOG.warn(error);
+                RpcResponse errorResponse = RpcResponse.newBuilder()
+                        .setSequenceNumber(sequence)
+                        .setStatus(Protocol.Status.ERROR_COMMUNICATION)
+                        .setErrorReason(error)
+                        .build();
+                channel.write(KIND_RESPONSE, errorResponse.toByteArray(), true);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Stop the polling thread (if it is running), fail any outstanding RPCs, and
+     * remove the files for our incoming rings.
+     */
+    public void close() {
+        stop = true;
+        for (Peer peer : peers) {
+            if (peer.channel != null) peer.channel.close();
+            peer.incoming.getFile().delete();
+        }
+    }
+}
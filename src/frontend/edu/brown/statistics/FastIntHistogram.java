@@ -3,8 +3,10 @@ package edu.brown.statistics;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.json.JSONArray;
@@ -14,7 +16,9 @@ import org.json.JSONStringer;
 import org.voltdb.VoltType;
 import org.voltdb.catalog.Database;
 
+import edu.brown.hstore.HStoreConstants;
 import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
 
 /**
  * Fixed-size histogram that only stores integers
@@ -43,7 +47,16 @@ public class FastIntHistogram extends Histogram<Integer> {
     public FastIntHistogram(boolean keepZeroEntries, int size) {
         this.keep_zero_entries = keepZeroEntries;
         this.histogram = new long[size];
-        this.clearValues();
+        this.clear();
+    }
+    
+    /**
+     * Copy Constructor
+     * @param other
+     */
+    public FastIntHistogram(FastIntHistogram other) {
+        this(other.keep_zero_entries, other.histogram.length);
+        this.put(other);
     }
     
     // ----------------------------------------------------------------------------
@@ -87,21 +100,37 @@ public class FastIntHistogram extends Histogram<Integer> {
         return (this.histogram[value] != NULL_COUNT ? this.histogram[value] : 0);
     }
     public long put(int idx) {
+        return (this.put(idx, 1));
+    }
+    public long put(int idx, long count) {
         if (idx >= this.histogram.length) {
             this.grow(idx);
         }
         if (this.histogram[idx] == NULL_COUNT) {
-            this.histogram[idx] = 1;
+            this.histogram[idx] = count;
             this.value_count++;
         } else {
-            this.histogram[idx]++;
+            this.histogram[idx] += count;
         }
-        this.num_samples++;
+        this.num_samples += count;
         return (this.histogram[idx]);
     }
+    /**
+     * Increment the count of every partition in the given PartitionSet
+     * without boxing or iterators. The set cannot contain the NULL_PARTITION_ID.
+     * @param partitions
+     * @param count
+     */
+    public void put(PartitionSet partitions, long count) {
+        assert(partitions.contains(HStoreConstants.NULL_PARTITION_ID) == false) :
+            "Unexpected null partition in " + partitions;
+        for (int p = partitions.nextPartition(0); p >= 0; p = partitions.nextPartition(p+1)) {
+            this.put(p, count);
+        } // FOR
+    }
     public void put(FastIntHistogram fast) {
-        assert(fast.histogram.length <= this.histogram.length);
-        if (fast.histogram.length >= this.histogram.length) {
+        if (fast == this) return;
+        if (fast.histogram.length > this.histogram.length) {
             this.grow(fast.histogram.length);
         }
         for (int i = 0; i < fast.histogram.length; i++) {
@@ -114,10 +143,13 @@ public class FastIntHistogram extends Histogram<Integer> {
                 }
             }
         } // FOR
+        this.num_samples += fast.num_samples;
     }
     public long remove(int value) {
-        if (value < this.histogram.length) {
+        if (value < this.histogram.length && this.histogram[value] != NULL_COUNT) {
+            this.num_samples -= this.histogram[value];
             this.histogram[value] = NULL_COUNT;
+            this.value_count--;
         }
         return (0);
     }
@@ -126,7 +158,7 @@ public class FastIntHistogram extends Histogram<Integer> {
         return this.fastDec(idx, 1);
     }
     public long fastDec(int idx, long count) {
-        if (this.histogram[idx] == NULL_COUNT || this.histogram.length <= idx) {
+        if (this.histogram.length <= idx || this.histogram[idx] == NULL_COUNT) {
             throw new IllegalArgumentException("No value exists for " + idx);
         } else if (this.histogram[idx] < count) {
             throw new IllegalArgumentException("Count for " + idx + " cannot be negative");
@@ -152,7 +184,7 @@ public class FastIntHistogram extends Histogram<Integer> {
     @Override
     public long get(Integer value, long value_if_null) {
         int idx = value.intValue();
-        if (this.histogram[idx] == NULL_COUNT) {
+        if (idx >= this.histogram.length || this.histogram[idx] == NULL_COUNT) {
             return (value_if_null);
         } else {
             return (this.histogram[idx]);
@@ -166,27 +198,22 @@ public class FastIntHistogram extends Histogram<Integer> {
         
     @Override
     public synchronized long put(Integer value, long i) {
-        int idx = value.intValue();
-        if (this.histogram[idx] == NULL_COUNT) {
-            this.histogram[idx] = i;
-            this.value_count++;
-        } else {
-            this.histogram[idx] += i;
-        }
-        this.num_samples += i;
-        return (this.histogram[idx]);
+        return this.put(value.intValue(), i);
     }
 
     @Override
     public void put(Collection<Integer> values) {
-        for (Integer v : values)
-            this.put(v);
+        this.put(values, 1);
     }
 
     @Override
     public synchronized void put(Collection<Integer> values, long count) {
-        for (Integer v : values)
-            this.put(v, count);
+        if (values instanceof PartitionSet) {
+            this.put((PartitionSet)values, count);
+        } else {
+            for (Integer v : values)
+                this.put(v.intValue(), count);
+        }
     }
 
     @Override
@@ -195,7 +222,7 @@ public class FastIntHistogram extends Histogram<Integer> {
             this.put((FastIntHistogram)other);
         } else {
             for (Integer v : other.values()) {
-                this.put(v, other.get(v));
+                this.put(v.intValue(), other.get(v, 0l));
             }
         }
     }
@@ -217,17 +244,21 @@ public class FastIntHistogram extends Histogram<Integer> {
 
     @Override
     public synchronized void dec(Collection<Integer> values) {
-        super.dec(values);
+        this.dec(values, 1);
     }
 
     @Override
     public synchronized void dec(Collection<Integer> values, long delta) {
-        super.dec(values, delta);
+        for (Integer v : values)
+            this.fastDec(v.intValue(), delta);
     }
 
     @Override
     public synchronized void dec(Histogram<Integer> other) {
-        super.dec(other);
+        for (Integer v : other.values()) {
+            long cnt = other.get(v, 0l);
+            if (cnt > 0) this.fastDec(v.intValue(), cnt);
+        } // FOR
     }
 
     @Override
@@ -273,22 +304,55 @@ public class FastIntHistogram extends Histogram<Integer> {
 
     @Override
     public boolean contains(Integer value) {
-        return (this.histogram[value.intValue()] != -1);
+        int idx = value.intValue();
+        return (idx < this.histogram.length && this.histogram[idx] != NULL_COUNT);
     }
 
     @Override
     public synchronized void clear() {
-        for (int i = 0; i < this.histogram.length; i++) {
-            this.histogram[i] = 0;
-        } // FOR
+        Arrays.fill(this.histogram, NULL_COUNT);
+        this.value_count = 0;
         this.num_samples = 0;
     }
 
     @Override
     public synchronized void clearValues() {
-        Arrays.fill(this.histogram, -1);
-        this.value_count = 0;
-        this.num_samples = 0;
+        if (this.keep_zero_entries) {
+            for (int i = 0; i < this.histogram.length; i++) {
+                if (this.histogram[i] != NULL_COUNT) this.histogram[i] = 0;
+            } // FOR
+            this.num_samples = 0;
+        } else {
+            this.clear();
+        }
+    }
+    
+    @Override
+    public Histogram<Integer> setKeepZeroEntries(boolean flag) {
+        // Remove all of the zeroed entries if this option is disabled
+        if (flag == false && this.keep_zero_entries) {
+            synchronized (this) {
+                for (int i = 0; i < this.histogram.length; i++) {
+                    if (this.histogram[i] == 0) {
+                        this.histogram[i] = NULL_COUNT;
+                        this.value_count--;
+                    }
+                } // FOR
+            } // SYNCH
+        }
+        this.keep_zero_entries = flag;
+        return (this);
+    }
+    
+    @Override
+    public Set<Integer> getValuesForCount(long count) {
+        Set<Integer> ret = new HashSet<Integer>();
+        for (int i = 0; i < this.histogram.length; i++) {
+            if (this.histogram[i] != NULL_COUNT && this.histogram[i] == count) {
+                ret.add(i);
+            }
+        } // FOR
+        return (ret);
     }
 
     @Override
@@ -416,14 +480,21 @@ public class FastIntHistogram extends Histogram<Integer> {
     }
     
     @Override
-    public String toString() {
+    public synchronized String toString(Integer max_chars, Integer max_length) {
         // HACK HACK HACK
+        // Copy our counts into the parent's map so that it can format them.
+        // We have to put back our sample count afterwards.
+        int orig_num_samples = this.num_samples;
+        boolean orig_keep_zero_entries = this.keep_zero_entries;
+        this.keep_zero_entries = true;
         super.histogram.clear();
         for (int i = 0; i < this.histogram.length; i++) {
-            if (this.histogram[i] != -1) {
+            if (this.histogram[i] != NULL_COUNT) {
                 super.put(i, this.histogram[i]);
             }
         } // FOR
-        return super.toString();
+        this.num_samples = orig_num_samples;
+        this.keep_zero_entries = orig_keep_zero_entries;
+        return super.toString(max_chars, max_length);
     }
 }
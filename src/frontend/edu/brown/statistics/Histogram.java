@@ -546,9 +546,11 @@ public class Histogram<X> implements JSONSerializable {
      */
     public synchronized void put(Histogram<X> other) {
         if (other == this || other == null) return;
-        for (Entry<X, Long> e : other.histogram.entrySet()) {
-            if (e.getValue().longValue() > 0)
-                this._put(e.getKey(), e.getValue());
+        // Go through the other histogram's accessors so that this also works
+        // for subclasses that do not keep their counts in our map (e.g., FastIntHistogram)
+        for (X value : other.values()) {
+            long cnt = other.get(value, 0l);
+            if (cnt > 0) this._put(value, cnt);
         } // FOR
     }
     
@@ -602,10 +604,9 @@ public class Histogram<X> implements JSONSerializable {
      * @param values
      */
     public synchronized void dec(Histogram<X> other) {
-        for (Entry<X, Long> e : other.histogram.entrySet()) {
-            if (e.getValue().longValue() > 0) {
-                this._put(e.getKey(), -1 * e.getValue().longValue());
-            }
+        for (X value : other.values()) {
+            long cnt = other.get(value, 0l);
+            if (cnt > 0) this._put(value, -1 * cnt);
         } // FOR
     }
     
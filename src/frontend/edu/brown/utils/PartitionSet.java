@@ -27,9 +27,10 @@ package edu.brown.utils;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -45,13 +46,19 @@ import edu.brown.hstore.HStoreConstants;
 
 /**
  * Container class that represents a list of partitionIds
- * For now it's just a HashSet
+ * The partitions are stored in a bitmap of longs that grows as needed, so
+ * a cluster with up to 64 partitions only needs a single word. Use
+ * {@link #nextPartition(int)} or {@link #values()} to walk through the set
+ * without allocating anything.
  * @author pavlo
  */
 public class PartitionSet implements Collection<Integer>, JSONSerializable, FastSerializable {
     
-    // private final Set<Integer> inner = new HashSet<Integer>();
-    private final BitSet inner = new BitSet();
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+    
+    private long bits[] = new long[1];
+    private int num_partitions = 0;
     private boolean contains_null = false;
     private int[] values = null;
 
@@ -72,58 +79,123 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
             this.add(partition);
     }
     
+    /**
+     * Return an array of the partitions in this set.
+     * The array is cached until the next time that this set is modified, so
+     * the caller must not change it.
+     * @return
+     */
     public int[] values() {
         if (this.values == null) {
-            int size = this.inner.cardinality() + (this.contains_null ? 1 : 0);
-            this.values = new int[size];
+            this.values = new int[this.size()];
             int idx = 0;
-            for (Integer partition : this) {
-                this.values[idx++] = partition.intValue();
+            if (this.contains_null) {
+                this.values[idx++] = HStoreConstants.NULL_PARTITION_ID;
+            }
+            for (int p = this.nextPartition(0); p >= 0; p = this.nextPartition(p+1)) {
+                this.values[idx++] = p;
             } // FOR
         }
         return (this.values);
     }
     
+    /**
+     * Returns the first partition in this set that is greater than or equal to
+     * the given partition. Returns -1 if there is no such partition.
+     * The NULL_PARTITION_ID is never returned by this method.
+     * <pre>
+     * for (int p = pset.nextPartition(0); p >= 0; p = pset.nextPartition(p+1)) {
+     *     ...
+     * }
+     * </pre>
+     * @param partition
+     * @return
+     */
+    public int nextPartition(int partition) {
+        if (partition < 0) partition = 0;
+        int idx = partition >> ADDRESS_BITS_PER_WORD;
+        if (idx >= this.bits.length) return (-1);
+        long word = this.bits[idx] & (-1l << partition);
+        while (true) {
+            if (word != 0) {
+                return ((idx * BITS_PER_WORD) + Long.numberOfTrailingZeros(word));
+            }
+            if (++idx == this.bits.length) return (-1);
+            word = this.bits[idx];
+        } // WHILE
+    }
+    
+    /**
+     * Make sure that this set can hold the given number of partitions
+     * without having to grow its internal bitmap.
+     * @param partitions
+     */
+    public void ensureCapacity(int partitions) {
+        int words = ((partitions - 1) >> ADDRESS_BITS_PER_WORD) + 1;
+        if (words > this.bits.length) {
+            this.bits = Arrays.copyOf(this.bits, Math.max(words, this.bits.length * 2));
+        }
+    }
+    
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof PartitionSet) {
-            return this.inner.equals(((PartitionSet)obj).inner);
+            PartitionSet other = (PartitionSet)obj;
+            if (this.contains_null != other.contains_null ||
+                this.num_partitions != other.num_partitions) return (false);
+            int common = Math.min(this.bits.length, other.bits.length);
+            for (int i = 0; i < common; i++) {
+                if (this.bits[i] != other.bits[i]) return (false);
+            } // FOR
+            // The rest of the words have to be empty since we have the same size
+            return (true);
         }
         else if (obj instanceof Collection<?>) {
             Collection<?> other = (Collection<?>)obj;
-            if (this.inner.size() != other.size()) return (false);
+            if (this.size() != other.size()) return (false);
             return (this.containsAll(other));
         }
         return (false);
     }
     @Override
     public int hashCode() {
-        return this.inner.hashCode();
+        // Same as java.util.BitSet, so trailing empty words do not matter
+        long h = 1234;
+        for (int i = this.bits.length; --i >= 0; ) {
+            h ^= this.bits[i] * (i + 1);
+        } // FOR
+        return ((int)((h >> 32) ^ h));
     }
     @Override
     public String toString() {
-        String s = this.inner.toString(); 
-        // HACK
+        StringBuilder sb = new StringBuilder("{");
+        String add = "";
         if (this.contains_null) {
-            s = s.substring(0, 1) +
-                HStoreConstants.NULL_PARTITION_ID + ", " +
-                s.substring(1);
+            sb.append(HStoreConstants.NULL_PARTITION_ID);
+            add = ", ";
         }
-        return (s);
+        for (int p = this.nextPartition(0); p >= 0; p = this.nextPartition(p+1)) {
+            sb.append(add).append(p);
+            add = ", ";
+        } // FOR
+        return (sb.append("}").toString());
     }
     @Override
     public int size() {
-        return (this.contains_null ? 1 : 0) + this.inner.cardinality();
+        return (this.contains_null ? 1 : 0) + this.num_partitions;
     }
     @Override
     public void clear() {
         this.contains_null = false;
-        this.inner.clear();
+        if (this.num_partitions > 0) {
+            Arrays.fill(this.bits, 0l);
+            this.num_partitions = 0;
+        }
         this.values = null;
     }
     @Override
     public boolean isEmpty() {
-        return (this.contains_null == false && this.inner.isEmpty());
+        return (this.contains_null == false && this.num_partitions == 0);
     }
     @Override
     public boolean contains(Object o) {
@@ -139,28 +211,28 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         if (partition == HStoreConstants.NULL_PARTITION_ID) {
             return (this.contains_null);
         }
-        return (this.inner.get(partition));
+        int idx = partition >> ADDRESS_BITS_PER_WORD;
+        return (idx < this.bits.length && (this.bits[idx] & (1l << partition)) != 0);
     }
     @Override
     public Object[] toArray() {
-        int length = this.inner.cardinality();
-        Object arr[] = new Object[length];
+        Object arr[] = new Object[this.size()];
         int idx = 0;
-        for (Integer partition : this) {
-            arr[idx++] = partition;
-        }
+        for (int partition : this.values()) {
+            arr[idx++] = Integer.valueOf(partition);
+        } // FOR
         return (arr);
     }
     @SuppressWarnings("unchecked")
     @Override
     public <T> T[] toArray(T[] a) {
-        int length = this.inner.cardinality();
+        int length = this.size();
         if (a.length != length) {
             a = (T[])new Object[length];
         }
         int idx = 0;
-        for (Integer partition : this) {
-            a[idx++] = (T)partition;
+        for (int partition : this.values()) {
+            a[idx++] = (T)Integer.valueOf(partition);
         } // FOR
         return (a);
     }
@@ -172,7 +244,13 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         if (partition == HStoreConstants.NULL_PARTITION_ID) {
             this.contains_null = true;
         } else {
-            this.inner.set(partition);
+            int idx = partition >> ADDRESS_BITS_PER_WORD;
+            if (idx >= this.bits.length) this.ensureCapacity(partition + 1);
+            long mask = 1l << partition;
+            if ((this.bits[idx] & mask) == 0) {
+                this.bits[idx] |= mask;
+                this.num_partitions++;
+            }
         }
         this.values = null;
         return (true);
@@ -189,13 +267,21 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         if (partition == HStoreConstants.NULL_PARTITION_ID) {
             this.contains_null = false;
         } else {
-            this.inner.set(partition, false);            
+            int idx = partition >> ADDRESS_BITS_PER_WORD;
+            long mask = 1l << partition;
+            if (idx < this.bits.length && (this.bits[idx] & mask) != 0) {
+                this.bits[idx] &= ~mask;
+                this.num_partitions--;
+            }
         }
         this.values = null;
         return (true);
     }
     @Override
     public boolean containsAll(Collection<?> c) {
+        if (c instanceof PartitionSet) {
+            return (this.containsAll((PartitionSet)c));
+        }
         for (Object o : c) {
             if (this.contains(o) == false) {
                 return (false);
@@ -203,8 +289,19 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         } // FOR
         return (true);
     }
+    public boolean containsAll(PartitionSet partitions) {
+        if (partitions.contains_null && this.contains_null == false) return (false);
+        for (int i = 0; i < partitions.bits.length; i++) {
+            long mine = (i < this.bits.length ? this.bits[i] : 0l);
+            if ((partitions.bits[i] & ~mine) != 0) return (false);
+        } // FOR
+        return (true);
+    }
     @Override
     public boolean addAll(Collection<? extends Integer> partitions) {
+        if (partitions instanceof PartitionSet) {
+            return (this.addAll((PartitionSet)partitions));
+        }
         boolean ret = true;
         for (Integer partition : partitions) {
             ret = this.add(partition.intValue()) && ret;
@@ -213,9 +310,18 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     }
     public boolean addAll(PartitionSet partitions) {
         if (partitions.contains_null) this.contains_null = true;
-        for (int partition = 0, cnt = partitions.inner.size(); partition < cnt; partition++) {
-            if (partitions.inner.get(partition)) this.inner.set(partition);
+        if (partitions.bits.length > this.bits.length) {
+            this.bits = Arrays.copyOf(this.bits, partitions.bits.length);
+        }
+        int cnt = 0;
+        for (int i = 0; i < partitions.bits.length; i++) {
+            this.bits[i] |= partitions.bits[i];
+        } // FOR
+        for (int i = 0; i < this.bits.length; i++) {
+            cnt += Long.bitCount(this.bits[i]);
         } // FOR
+        this.num_partitions = cnt;
+        this.values = null;
         return (true);
     }
     @Override
@@ -232,19 +338,29 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     }
     @Override
     public boolean retainAll(Collection<?> c) {
-        for (Integer partition : this) {
-            if (c.contains(partition) == false) {
-                this.remove(partition);
-            }
+        if (c instanceof PartitionSet) {
+            return (this.retainAll((PartitionSet)c));
         }
+        if (this.contains_null && c.contains(HStoreConstants.NULL_PARTITION_ID) == false) {
+            this.contains_null = false;
+        }
+        for (int p = this.nextPartition(0); p >= 0; p = this.nextPartition(p+1)) {
+            if (c.contains(p) == false) {
+                this.remove(p);
+            }
+        } // FOR
+        this.values = null;
         return (true);
     }
     public boolean retainAll(PartitionSet partitions) {
-        for (Integer partition : this) {
-            if (partitions.contains(partition.intValue()) == false) {
-                this.remove(partition.intValue());
-            }
-        }
+        if (partitions.contains_null == false) this.contains_null = false;
+        int cnt = 0;
+        for (int i = 0; i < this.bits.length; i++) {
+            this.bits[i] &= (i < partitions.bits.length ? partitions.bits[i] : 0l);
+            cnt += Long.bitCount(this.bits[i]);
+        } // FOR
+        this.num_partitions = cnt;
+        this.values = null;
         return (true);
     }
     @Override
@@ -267,32 +383,22 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     // ----------------------------------------------------------------------------
     
     private class Itr implements Iterator<Integer> {
-        int idx = 0;
-        boolean shown_null = false;
-        boolean need_seek = true;
+        boolean shown_null = (contains_null == false);
+        int next = nextPartition(0);
         @Override
         public boolean hasNext() {
-            this.need_seek = false;
-            if (contains_null && this.shown_null == false) {
-                return (true);
-            }
-            for (int cnt = inner.size(); this.idx < cnt; this.idx++) {
-                if (inner.get(this.idx)) {
-                    return (true);
-                }
-            } // FOR
-            return (false);
+            return (this.shown_null == false || this.next >= 0);
         }
         @Override
         public Integer next() {
-            if (this.need_seek) {
-                if (this.hasNext() == false) return (null);
-            }
-            if (contains_null && this.shown_null == false) {
+            if (this.shown_null == false) {
                 this.shown_null = true;
                 return (HStoreConstants.NULL_PARTITION_ID);
             }
-            return Integer.valueOf(this.idx++);
+            if (this.next < 0) throw new NoSuchElementException();
+            int partition = this.next;
+            this.next = nextPartition(partition+1);
+            return Integer.valueOf(partition);
         }
         @Override
         public void remove() {
@@ -319,13 +425,12 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     @Override
     public void writeExternal(FastSerializer out) throws IOException {
         out.writeBoolean(this.contains_null);
-        out.writeShort(this.inner.cardinality());
-        for (Integer partition : this) {
-            out.writeInt(partition.intValue());
+        out.writeShort(this.num_partitions);
+        for (int p = this.nextPartition(0); p >= 0; p = this.nextPartition(p+1)) {
+            out.writeInt(p);
         } // FOR
     }
     
-    
     @Override
     public void load(File input_path, Database catalog_db) throws IOException {
         JSONUtil.load(this, catalog_db, input_path);
@@ -354,7 +459,7 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     public void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
         JSONArray json_arr = json_object.getJSONArray("P");
         for (int i = 0, cnt = json_arr.length(); i < cnt; i++) {
-            this.inner.set(json_arr.getInt(i));
+            this.add(json_arr.getInt(i));
         }
     }
 }
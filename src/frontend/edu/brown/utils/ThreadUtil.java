@@ -239,18 +239,33 @@ public abstract class ThreadUtil {
      * @param runnables
      */
     public static <R extends Runnable> void runGlobalPool(final Collection<R> runnables) {
-        final boolean d = LOG.isDebugEnabled();
+        ThreadUtil.run(runnables, ThreadUtil.getGlobalPool(), false);
+    }
+
+    /**
+     * Queue the given Runnable to execute in the global thread pool. Unlike
+     * runGlobalPool(), the calling thread will not block. If the caller needs
+     * to wait for the result, it should pass in a FutureTask and run it itself
+     * if it has not started yet, since the global pool may already be full of
+     * threads that are waiting on the caller.
+     * 
+     * @param runnable
+     */
+    public static void executeGlobalPool(final Runnable runnable) {
+        ThreadUtil.getGlobalPool().execute(runnable);
+    }
 
+    private static ExecutorService getGlobalPool() {
         // Initialize the thread pool the first time that we run
         synchronized (ThreadUtil.lock) {
             if (ThreadUtil.pool == null) {
                 int max_threads = ThreadUtil.getMaxGlobalThreads();
-                if (d)
+                if (LOG.isDebugEnabled())
                     LOG.debug("Creating new fixed thread pool [num_threads=" + max_threads + "]");
                 ThreadUtil.pool = Executors.newFixedThreadPool(max_threads, factory);
             }
+            return (ThreadUtil.pool);
         } // SYNCHRONIZED
-        ThreadUtil.run(runnables, ThreadUtil.pool, false);
     }
     
     public static synchronized void shutdownGlobalPool() {
@@ -0,0 +1,584 @@
+package edu.brown.workload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.TimestampType;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ArgumentsParser;
+import edu.brown.utils.FileUtil;
+
+/**
+ * Append-only binary format for workload traces.
+ * The file is a small header followed by any number of segments. Each segment
+ * contains a batch of serialized TransactionTraces that are (optionally) compressed
+ * together, so a writer can keep appending new segments to the end of the file
+ * without rewriting anything that came before it. A reader streams through the
+ * file one segment at a time, so it never has to hold more than one segment in memory.
+ * <PRE>
+ * HEADER: MAGIC (int) | VERSION (int)
+ * SEGMENT: compressed (bool) | # of txns (int) | raw length (int) | stored length (int) | bytes
+ * TXN: txn id (long) | proc name (str) | TIMESTAMPS | params | # of queries (int) | QUERY*
+ * QUERY: stmt name (str) | batch id (int) | TIMESTAMPS | params
+ * TIMESTAMPS: start (long) | has stop (bool) | stop (long) | aborted (bool) | weight (short)
+ * PARAMS: # of params (short) | PARAM*
+ * PARAM: type (byte) | value -or- ARRAY marker (byte) | array length (int) | PARAM*
+ * </PRE>
+ */
+public abstract class BinaryWorkloadFile {
+    private static final Logger LOG = Logger.getLogger(BinaryWorkloadFile.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * First four bytes of every binary trace file ("HWKT")
+     */
+    public static final int MAGIC = 0x48574B54;
+
+    /**
+     * The current version of the file format
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Parameter type marker for arrays. The array length and elements follow it.
+     */
+    private static final byte ARRAY = -99;
+
+    // ----------------------------------------------------------------------------
+    // FILE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the given file starts with our MAGIC number
+     * @param file
+     * @return
+     */
+    public static boolean isBinaryFile(File file) {
+        if (file.isFile() == false || file.length() < 8) return (false);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            return (in.readInt() == MAGIC);
+        } catch (IOException ex) {
+            return (false);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the file header out to a new trace file
+     * @param out
+     * @throws IOException
+     */
+    public static void writeHeader(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.flush();
+    }
+
+    /**
+     * Write a single segment out to the given stream
+     * @param out
+     * @param records - The serialized TransactionTraces
+     * @param length - The number of bytes of records to write
+     * @param num_txns - The number of TransactionTraces in records
+     * @param deflater - If not null, the segment will be compressed
+     * @return The number of bytes written
+     * @throws IOException
+     */
+    public static int writeSegment(OutputStream out, byte records[], int length, int num_txns, Deflater deflater) throws IOException {
+        byte stored[] = records;
+        int stored_length = length;
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(records, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte chunk[] = new byte[8192];
+            while (deflater.finished() == false) {
+                int cnt = deflater.deflate(chunk);
+                buffer.write(chunk, 0, cnt);
+            } // WHILE
+            stored = buffer.toByteArray();
+            stored_length = stored.length;
+        }
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeBoolean(deflater != null);
+        dos.writeInt(num_txns);
+        dos.writeInt(length);
+        dos.writeInt(stored_length);
+        dos.write(stored, 0, stored_length);
+        dos.flush();
+        if (trace.get()) LOG.trace(String.format("Wrote segment with %d txns [raw=%d, stored=%d]",
+                                   num_txns, length, stored_length));
+        return (13 + stored_length);
+    }
+
+    // ----------------------------------------------------------------------------
+    // TRACE SERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Serialize a TransactionTrace and all of its QueryTraces
+     * @param out
+     * @param txn_trace
+     * @throws IOException
+     */
+    public static void writeTransaction(DataOutputStream out, TransactionTrace txn_trace) throws IOException {
+        out.writeLong(txn_trace.getTransactionId());
+        out.writeUTF(txn_trace.getCatalogItemName());
+        writeElement(out, txn_trace);
+        out.writeInt(txn_trace.getQueries().size());
+        for (QueryTrace query_trace : txn_trace.getQueries()) {
+            out.writeUTF(query_trace.getCatalogItemName());
+            out.writeInt(query_trace.getBatchId());
+            writeElement(out, query_trace);
+        } // FOR
+    }
+
+    /**
+     * Deserialize the next TransactionTrace from the given stream
+     * @param in
+     * @param catalog_db
+     * @return
+     * @throws IOException
+     */
+    public static TransactionTrace readTransaction(DataInputStream in, Database catalog_db) throws IOException {
+        long txn_id = in.readLong();
+        String proc_name = in.readUTF();
+        Procedure catalog_proc = catalog_db.getProcedures().getIgnoreCase(proc_name);
+        if (catalog_proc == null) throw new IOException("Invalid procedure name '" + proc_name + "'");
+
+        long timestamps[] = new long[2];
+        boolean flags[] = new boolean[2];
+        short weight = readTimestamps(in, timestamps, flags);
+        TransactionTrace txn_trace = new TransactionTrace(txn_id, catalog_proc, readParams(in));
+        setTimestamps(txn_trace, timestamps, flags, weight);
+
+        int num_queries = in.readInt();
+        for (int i = 0; i < num_queries; i++) {
+            String stmt_name = in.readUTF();
+            Statement catalog_stmt = catalog_proc.getStatements().getIgnoreCase(stmt_name);
+            if (catalog_stmt == null) throw new IOException("Invalid statement name '" + proc_name + "." + stmt_name + "'");
+            int batch_id = in.readInt();
+            weight = readTimestamps(in, timestamps, flags);
+            QueryTrace query_trace = new QueryTrace(catalog_stmt, readParams(in), batch_id);
+            setTimestamps(query_trace, timestamps, flags, weight);
+            txn_trace.addQuery(query_trace);
+        } // FOR
+        return (txn_trace);
+    }
+
+    private static void writeElement(DataOutputStream out, AbstractTraceElement<?> element) throws IOException {
+        Long start = element.getStartTimestamp();
+        Long stop = element.getStopTimestamp();
+        out.writeLong(start != null ? start.longValue() : 0l);
+        out.writeBoolean(stop != null);
+        out.writeLong(stop != null ? stop.longValue() : 0l);
+        out.writeBoolean(element.isAborted());
+        out.writeShort(element.getWeight());
+        writeParams(out, element.getParams());
+    }
+
+    private static short readTimestamps(DataInputStream in, long timestamps[], boolean flags[]) throws IOException {
+        timestamps[0] = in.readLong();
+        flags[0] = in.readBoolean();
+        timestamps[1] = in.readLong();
+        flags[1] = in.readBoolean();
+        return (in.readShort());
+    }
+
+    private static void setTimestamps(AbstractTraceElement<?> element, long timestamps[], boolean flags[], short weight) {
+        element.setTimestamps(timestamps[0], (flags[0] ? timestamps[1] : null));
+        element.aborted = flags[1];
+        element.weight = weight;
+    }
+
+    private static void writeParams(DataOutputStream out, Object params[]) throws IOException {
+        if (params == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(params.length);
+        for (Object param : params) {
+            // byte arrays are strings
+            if (param != null && param.getClass().isArray() && (param instanceof byte[]) == false) {
+                int length = Array.getLength(param);
+                out.writeByte(ARRAY);
+                out.writeInt(length);
+                for (int i = 0; i < length; i++) {
+                    writeValue(out, Array.get(param, i));
+                } // FOR
+            } else {
+                writeValue(out, param);
+            }
+        } // FOR
+    }
+
+    private static Object[] readParams(DataInputStream in) throws IOException {
+        Object params[] = new Object[in.readShort()];
+        for (int i = 0; i < params.length; i++) {
+            byte type = in.readByte();
+            if (type == ARRAY) {
+                Object inner[] = new Object[in.readInt()];
+                for (int j = 0; j < inner.length; j++) {
+                    inner[j] = readValue(in, in.readByte());
+                } // FOR
+                params[i] = inner;
+            } else {
+                params[i] = readValue(in, type);
+            }
+        } // FOR
+        return (params);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VoltType.NULL.getValue());
+            return;
+        }
+        VoltType vtype = VoltType.typeFromClass(value.getClass());
+        out.writeByte(vtype.getValue());
+        switch (vtype) {
+            case TINYINT:
+                out.writeByte(((Number)value).byteValue());
+                break;
+            case SMALLINT:
+                out.writeShort(((Number)value).shortValue());
+                break;
+            case INTEGER:
+                out.writeInt(((Number)value).intValue());
+                break;
+            case BIGINT:
+                out.writeLong(((Number)value).longValue());
+                break;
+            case FLOAT:
+                out.writeDouble(((Number)value).doubleValue());
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean)value);
+                break;
+            case TIMESTAMP:
+                if (value instanceof Date) {
+                    out.writeLong(((Date)value).getTime() * 1000);
+                } else {
+                    out.writeLong(((TimestampType)value).getTime());
+                }
+                break;
+            case DECIMAL:
+                out.writeUTF(value.toString());
+                break;
+            case STRING: {
+                byte bytes[] = (value instanceof byte[] ? (byte[])value : value.toString().getBytes("UTF-8"));
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            }
+            case VOLTTABLE: {
+                FastSerializer fs = new FastSerializer();
+                fs.writeObject((VoltTable)value);
+                byte bytes[] = fs.getBytes();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            }
+            default:
+                throw new IOException("Unsupported trace parameter type " + vtype);
+        } // SWITCH
+    }
+
+    private static Object readValue(DataInputStream in, byte type) throws IOException {
+        VoltType vtype = VoltType.get(type);
+        switch (vtype) {
+            case NULL:
+                return (null);
+            case TINYINT:
+                return (in.readByte());
+            case SMALLINT:
+                return (in.readShort());
+            case INTEGER:
+                return (in.readInt());
+            case BIGINT:
+                return (in.readLong());
+            case FLOAT:
+                return (in.readDouble());
+            case BOOLEAN:
+                return (in.readBoolean());
+            case TIMESTAMP:
+                return (new TimestampType(in.readLong()));
+            case DECIMAL:
+                return (new BigDecimal(in.readUTF()));
+            case STRING: {
+                byte bytes[] = new byte[in.readInt()];
+                in.readFully(bytes);
+                return (new String(bytes, "UTF-8"));
+            }
+            case VOLTTABLE: {
+                byte bytes[] = new byte[in.readInt()];
+                in.readFully(bytes);
+                return (new FastDeserializer(bytes).readObject(VoltTable.class));
+            }
+            default:
+                throw new IOException("Unsupported trace parameter type " + vtype);
+        } // SWITCH
+    }
+
+    // ----------------------------------------------------------------------------
+    // STREAMING READER
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Streams through the TransactionTraces in a binary trace file,
+     * decompressing one segment at a time.
+     */
+    public static class Reader implements Iterator<TransactionTrace> {
+        private final File file;
+        private final Database catalog_db;
+        private final DataInputStream in;
+        private final Inflater inflater = new Inflater();
+        private DataInputStream segment = null;
+        private int segment_remaining = 0;
+        private TransactionTrace next = null;
+        private int segment_ctr = 0;
+        private boolean closed = false;
+
+        public Reader(File file, Database catalog_db) throws IOException {
+            this.file = file;
+            this.catalog_db = catalog_db;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int magic = this.in.readInt();
+            if (magic != MAGIC) {
+                this.in.close();
+                throw new IOException(String.format("Invalid binary trace file '%s' [magic=%x]", file, magic));
+            }
+            int version = this.in.readInt();
+            if (version != VERSION) {
+                this.in.close();
+                throw new IOException(String.format("Unsupported binary trace file version %d in '%s'", version, file));
+            }
+        }
+
+        /**
+         * Load the next segment from the file. Returns false if there are no more segments.
+         */
+        private boolean nextSegment() throws IOException {
+            boolean compressed;
+            try {
+                compressed = this.in.readBoolean();
+            } catch (EOFException ex) {
+                return (false);
+            }
+            int num_txns = this.in.readInt();
+            int raw_length = this.in.readInt();
+            int stored_length = this.in.readInt();
+            byte stored[] = new byte[stored_length];
+            this.in.readFully(stored);
+
+            byte raw[] = stored;
+            if (compressed) {
+                raw = new byte[raw_length];
+                this.inflater.reset();
+                this.inflater.setInput(stored);
+                try {
+                    int offset = 0;
+                    while (offset < raw_length && this.inflater.finished() == false) {
+                        offset += this.inflater.inflate(raw, offset, raw_length - offset);
+                    } // WHILE
+                } catch (DataFormatException ex) {
+                    throw new IOException("Corrupt segment #" + this.segment_ctr + " in '" + this.file + "'", ex);
+                }
+            }
+            this.segment = new DataInputStream(new ByteArrayInputStream(raw, 0, raw_length));
+            this.segment_remaining = num_txns;
+            this.segment_ctr++;
+            if (trace.get()) LOG.trace(String.format("Loaded segment #%d from '%s' with %d txns",
+                                       this.segment_ctr, this.file.getName(), num_txns));
+            return (true);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.next != null) return (true);
+            if (this.closed) return (false);
+            try {
+                while (this.segment_remaining == 0) {
+                    if (this.nextSegment() == false) {
+                        this.close();
+                        return (false);
+                    }
+                } // WHILE
+                this.next = readTransaction(this.segment, this.catalog_db);
+                this.segment_remaining--;
+            } catch (IOException ex) {
+                this.close();
+                throw new RuntimeException("Failed to read TransactionTrace from '" + this.file + "'", ex);
+            }
+            return (true);
+        }
+
+        @Override
+        public TransactionTrace next() {
+            if (this.hasNext() == false) throw new NoSuchElementException();
+            TransactionTrace ret = this.next;
+            this.next = null;
+            return (ret);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            if (this.closed) return;
+            this.closed = true;
+            this.inflater.end();
+            try {
+                this.in.close();
+            } catch (IOException ex) {
+                // Ignore
+            }
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // CONVERSION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Convert a JSON workload trace into a binary trace file.
+     * The input file is streamed, so we never have the whole trace in memory.
+     * @param catalog_db
+     * @param input
+     * @param output
+     * @param segment_size - The target number of uncompressed bytes per segment
+     * @return The number of TransactionTraces that were written
+     * @throws Exception
+     */
+    public static int convertFromJSON(Database catalog_db, File input, File output, int segment_size) throws Exception {
+        BufferedReader reader = FileUtil.getReader(input);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(segment_size);
+        DataOutputStream records = new DataOutputStream(buffer);
+        int num_txns = 0;
+        int total = 0;
+        try {
+            writeHeader(out);
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                TransactionTrace txn_trace = TransactionTrace.loadFromJSONObject(new JSONObject(line), catalog_db);
+                writeTransaction(records, txn_trace);
+                num_txns++;
+                if (buffer.size() >= segment_size) {
+                    records.flush();
+                    writeSegment(out, buffer.toByteArray(), buffer.size(), num_txns, deflater);
+                    total += num_txns;
+                    num_txns = 0;
+                    buffer.reset();
+                }
+            } // WHILE
+            if (num_txns > 0) {
+                records.flush();
+                writeSegment(out, buffer.toByteArray(), buffer.size(), num_txns, deflater);
+                total += num_txns;
+            }
+        } finally {
+            deflater.end();
+            reader.close();
+            out.close();
+        }
+        if (debug.get()) LOG.debug(String.format("Converted %d txns from '%s' to '%s'", total, input, output));
+        return (total);
+    }
+
+    /**
+     * Convert a binary trace file into a JSON workload trace
+     * @param catalog_db
+     * @param input
+     * @param output
+     * @return The number of TransactionTraces that were written
+     * @throws Exception
+     */
+    public static int convertToJSON(Database catalog_db, File input, File output) throws Exception {
+        Reader reader = new Reader(input, catalog_db);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        int total = 0;
+        try {
+            while (reader.hasNext()) {
+                WorkloadUtil.WriteThread.write(catalog_db, reader.next(), out);
+                total++;
+            } // WHILE
+        } finally {
+            reader.close();
+            out.close();
+        }
+        if (debug.get()) LOG.debug(String.format("Converted %d txns from '%s' to '%s'", total, input, output));
+        return (total);
+    }
+
+    /**
+     * Convert a workload trace file from one format to the other
+     */
+    public static void main(String vargs[]) throws Exception {
+        ArgumentsParser args = ArgumentsParser.load(vargs);
+        args.require(ArgumentsParser.PARAM_CATALOG,
+                     ArgumentsParser.PARAM_WORKLOAD_OUTPUT);
+        File input = new File(args.getOptParam(0));
+        File output = new File(args.getParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT));
+        FileUtil.makeDirIfNotExists(output.getParent());
+
+        int total;
+        if (isBinaryFile(input)) {
+            total = convertToJSON(args.catalog_db, input, output);
+        } else {
+            total = convertFromJSON(args.catalog_db, input, output, SampledWorkloadTrace.SEGMENT_SIZE);
+        }
+        LOG.info(String.format("Wrote %d txns to '%s'", total, output));
+    }
+}
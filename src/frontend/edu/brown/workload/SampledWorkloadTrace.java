@@ -0,0 +1,407 @@
+package edu.brown.workload;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+import org.voltdb.VoltTable;
+import org.voltdb.WorkloadTrace;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ExceptionHandlingRunnable;
+
+/**
+ * Low-overhead WorkloadTrace that records a sample of the txns that are executed
+ * into a BinaryWorkloadFile. Unlike Workload, we don't keep any index structures
+ * around and we never serialize anything in the thread that executed the txn.
+ * Each thread that completes a txn hands its TransactionTrace off to its own
+ * lock-free ring buffer (there is one execution thread per partition), and a
+ * background writer thread drains these buffers, serializes the traces, and
+ * appends them to the output file as compressed segments.
+ * If a ring buffer is full, the trace is dropped. We do not record the output
+ * of txns or queries.
+ */
+public class SampledWorkloadTrace implements WorkloadTrace {
+    private static final Logger LOG = Logger.getLogger(SampledWorkloadTrace.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The number of uncompressed bytes that we will buffer before
+     * we write out a new segment
+     */
+    public static final int SEGMENT_SIZE = 1048576; // 1MB
+
+    /**
+     * How often (in milliseconds) we will write out a segment even if it is not full
+     */
+    public static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * Single-producer/single-consumer ring buffer of completed TransactionTraces.
+     * Only the thread that owns this buffer can offer to it, and only
+     * the writer thread can poll from it.
+     */
+    protected static class RingBuffer {
+        private final TransactionTrace buffer[];
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(0);
+        private final AtomicLong tail = new AtomicLong(0);
+        /** Used to decide whether to sample a txn. Only accessed by the owner. */
+        private final Random rand = new Random();
+
+        protected RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            this.buffer = new TransactionTrace[size];
+            this.mask = size - 1;
+        }
+
+        protected boolean offer(TransactionTrace txn_trace) {
+            long t = this.tail.get();
+            if (t - this.head.get() >= this.buffer.length) return (false);
+            this.buffer[(int)(t & this.mask)] = txn_trace;
+            this.tail.lazySet(t + 1);
+            return (true);
+        }
+
+        protected TransactionTrace poll() {
+            long h = this.head.get();
+            if (h >= this.tail.get()) return (null);
+            int idx = (int)(h & this.mask);
+            TransactionTrace txn_trace = this.buffer[idx];
+            this.buffer[idx] = null;
+            this.head.lazySet(h + 1);
+            return (txn_trace);
+        }
+
+        protected int size() {
+            return (int)(this.tail.get() - this.head.get());
+        }
+
+        protected int capacity() {
+            return (this.buffer.length);
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final HStoreConf hstore_conf;
+    private Database catalog_db;
+    private OutputStream out;
+    private File output_path;
+
+    /**
+     * Procedure -> Sampling Rate
+     * This is only modified before we start tracing
+     */
+    private final Map<Procedure, Double> sampling_rates = new HashMap<Procedure, Double>();
+    private final Map<String, Double> sampling_names = new HashMap<String, Double>();
+    private double default_rate;
+    private final Set<String> ignored_procedures = new HashSet<String>();
+
+    private final List<RingBuffer> buffers = new CopyOnWriteArrayList<RingBuffer>();
+    private final ThreadLocal<RingBuffer> threadBuffer = new ThreadLocal<RingBuffer>() {
+        @Override
+        protected RingBuffer initialValue() {
+            RingBuffer buffer = new RingBuffer(hstore_conf.site.trace_buffer_size);
+            buffers.add(buffer);
+            return (buffer);
+        }
+    };
+
+    // Writer
+    private final ByteArrayOutputStream segment = new ByteArrayOutputStream(SEGMENT_SIZE);
+    private final DataOutputStream segmentOut = new DataOutputStream(this.segment);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private int segmentTxns = 0;
+    private Thread writerThread = null;
+    private volatile boolean stop = false;
+
+    // Stats
+    private final AtomicLong sampledCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private long writtenCount = 0;
+    private long writtenBytes = 0;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public SampledWorkloadTrace() {
+        this.hstore_conf = HStoreConf.singleton();
+        this.default_rate = hstore_conf.site.trace_sampling_rate;
+        if (hstore_conf.site.trace_sampling_procs != null) {
+            for (String entry : hstore_conf.site.trace_sampling_procs.split(",")) {
+                entry = entry.trim();
+                if (entry.isEmpty()) continue;
+                String parts[] = entry.split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid trace sampling entry '" + entry + "'");
+                }
+                this.sampling_names.put(parts[0].toUpperCase(), Double.valueOf(parts[1]));
+            } // FOR
+        }
+    }
+
+    @Override
+    public void setCatalog(Catalog catalog) {
+        this.catalog_db = CatalogUtil.getDatabase(catalog);
+        this.sampling_rates.clear();
+        for (Procedure catalog_proc : this.catalog_db.getProcedures()) {
+            String proc_name = catalog_proc.getName().toUpperCase();
+            double rate = this.default_rate;
+            if (catalog_proc.getSystemproc() || this.ignored_procedures.contains(proc_name)) {
+                rate = 0d;
+            } else if (this.sampling_names.containsKey(proc_name)) {
+                rate = this.sampling_names.get(proc_name);
+            }
+            this.sampling_rates.put(catalog_proc, rate);
+        } // FOR
+    }
+
+    @Override
+    public synchronized void setOutputPath(File path) {
+        assert(this.out == null) : "Trying to change the output path for " + this.getClass().getSimpleName();
+        this.output_path = path;
+        try {
+            this.out = new BufferedOutputStream(new FileOutputStream(path));
+            BinaryWorkloadFile.writeHeader(this.out);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to open trace output file '" + path + "'", ex);
+        }
+        if (debug.get()) LOG.debug("Opened file '" + path + "' for logging sampled workload trace");
+
+        this.writerThread = new Thread(new ExceptionHandlingRunnable() {
+            @Override
+            public void runImpl() {
+                SampledWorkloadTrace.this.writerLoop();
+            }
+        });
+        this.writerThread.setName(this.getClass().getSimpleName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                SampledWorkloadTrace.this.close();
+            }
+        });
+    }
+
+    @Override
+    public void addIgnoredProcedure(String name) {
+        name = name.toUpperCase();
+        this.ignored_procedures.add(name);
+        for (Procedure catalog_proc : this.sampling_rates.keySet()) {
+            if (catalog_proc.getName().equalsIgnoreCase(name)) {
+                this.sampling_rates.put(catalog_proc, 0d);
+            }
+        } // FOR
+    }
+
+    /**
+     * Change the fraction of txns that we will record for the given Procedure.
+     * This must be called before we start tracing.
+     * @param catalog_proc
+     * @param rate
+     */
+    public void setSamplingRate(Procedure catalog_proc, double rate) {
+        assert(rate >= 0 && rate <= 1) : "Invalid sampling rate " + rate;
+        this.sampling_rates.put(catalog_proc, rate);
+    }
+
+    public double getSamplingRate(Procedure catalog_proc) {
+        Double rate = this.sampling_rates.get(catalog_proc);
+        return (rate != null ? rate : this.default_rate);
+    }
+
+    // ----------------------------------------------------------------------------
+    // TRACING METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public Object startTransaction(long txn_id, Procedure catalog_proc, Object args[]) {
+        double rate = this.getSamplingRate(catalog_proc);
+        if (rate <= 0 || (rate < 1 && this.threadBuffer.get().rand.nextDouble() >= rate)) {
+            return (null);
+        }
+        this.sampledCount.incrementAndGet();
+        return (new TransactionTrace(txn_id, catalog_proc, args));
+    }
+
+    @Override
+    public void stopTransaction(Object xact_handle, VoltTable... result) {
+        TransactionTrace txn_trace = (TransactionTrace)xact_handle;
+        txn_trace.stop();
+        this.record(txn_trace);
+    }
+
+    @Override
+    public void abortTransaction(Object xact_handle) {
+        TransactionTrace txn_trace = (TransactionTrace)xact_handle;
+        for (QueryTrace query_trace : txn_trace.getQueries()) {
+            if (query_trace.isStopped() == false) query_trace.abort();
+        } // FOR
+        txn_trace.abort();
+        this.record(txn_trace);
+    }
+
+    @Override
+    public Object startQuery(Object xact_handle, Statement catalog_statement, Object args[], int batch_id) {
+        QueryTrace query_trace = new QueryTrace(catalog_statement, args, batch_id);
+        ((TransactionTrace)xact_handle).addQuery(query_trace);
+        return (query_trace);
+    }
+
+    @Override
+    public void stopQuery(Object query_handle, VoltTable result) {
+        QueryTrace query_trace = (QueryTrace)query_handle;
+        query_trace.stop();
+    }
+
+    /**
+     * Hand off a completed TransactionTrace to the writer thread
+     * @param txn_trace
+     */
+    private void record(TransactionTrace txn_trace) {
+        if (this.threadBuffer.get().offer(txn_trace) == false) {
+            this.droppedCount.incrementAndGet();
+            if (trace.get()) LOG.trace("Dropping " + txn_trace + " because the trace buffer is full");
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRITER METHODS
+    // ----------------------------------------------------------------------------
+
+    private void writerLoop() {
+        final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL);
+        long nextFlush = System.nanoTime() + intervalNanos;
+        while (this.stop == false) {
+            int cnt = this.drain();
+            if (cnt == 0) LockSupport.parkNanos(this, intervalNanos / 100);
+            if (System.nanoTime() >= nextFlush) {
+                this.flush();
+                nextFlush = System.nanoTime() + intervalNanos;
+            }
+        } // WHILE
+    }
+
+    /**
+     * Serialize all of the TransactionTraces waiting in the ring buffers into the
+     * current segment, and write out the segment if it is full.
+     * @return The number of TransactionTraces that were serialized
+     */
+    protected synchronized int drain() {
+        if (this.out == null) return (0);
+        int ctr = 0;
+        for (RingBuffer buffer : this.buffers) {
+            TransactionTrace txn_trace = null;
+            while ((txn_trace = buffer.poll()) != null) {
+                try {
+                    BinaryWorkloadFile.writeTransaction(this.segmentOut, txn_trace);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to serialize " + txn_trace, ex);
+                }
+                this.segmentTxns++;
+                ctr++;
+                if (this.segment.size() >= SEGMENT_SIZE) this.writeSegment();
+            } // WHILE
+        } // FOR
+        return (ctr);
+    }
+
+    /**
+     * Drain the ring buffers and then write out whatever is in the current segment
+     */
+    public synchronized void flush() {
+        if (this.out == null) return;
+        this.drain();
+        if (this.segmentTxns > 0) this.writeSegment();
+    }
+
+    private void writeSegment() {
+        try {
+            this.segmentOut.flush();
+            this.writtenBytes += BinaryWorkloadFile.writeSegment(this.out, this.segment.toByteArray(), this.segment.size(),
+                                                                 this.segmentTxns, this.deflater);
+            this.out.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to write trace segment to '" + this.output_path + "'", ex);
+        }
+        this.writtenCount += this.segmentTxns;
+        this.segmentTxns = 0;
+        this.segment.reset();
+    }
+
+    /**
+     * Write out everything that we have and close the output file
+     */
+    public synchronized void close() {
+        if (this.out == null) return;
+        this.stop = true;
+        this.flush();
+        try {
+            this.out.close();
+        } catch (IOException ex) {
+            LOG.warn("Failed to close trace output file '" + this.output_path + "'", ex);
+        }
+        this.out = null;
+        this.deflater.end();
+        if (debug.get()) LOG.debug(String.format("%s Stats: sampled=%d / dropped=%d / written=%d / bytes=%d",
+                                   this.getClass().getSimpleName(), this.sampledCount.get(),
+                                   this.droppedCount.get(), this.writtenCount, this.writtenBytes));
+    }
+
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of txns that were selected to be traced
+     */
+    public long getSampledCount() {
+        return (this.sampledCount.get());
+    }
+    /**
+     * Returns the number of traces that were dropped because a ring buffer was full
+     */
+    public long getDroppedCount() {
+        return (this.droppedCount.get());
+    }
+    /**
+     * Returns the number of traces that have been written out to the file
+     */
+    public synchronized long getWrittenCount() {
+        return (this.writtenCount);
+    }
+}
@@ -38,7 +38,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.log4j.Logger;
@@ -62,10 +61,8 @@ import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.TableStatistics;
 import edu.brown.statistics.WorkloadStatistics;
-import edu.brown.utils.StringUtil;
 import edu.brown.utils.ThreadUtil;
 import edu.brown.workload.filters.Filter;
-import edu.brown.workload.filters.ProcedureNameFilter;
 
 /**
  * 
@@ -338,10 +335,12 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
     }
     
     /**
-     * 
+     * Load the TransactionTraces from the given file into this Workload.
+     * The file can either be a JSON trace or a BinaryWorkloadFile.
+     * Use WorkloadStream if you don't need to keep all of the txns in memory.
      * @param input_path
      * @param catalog_db
-     * @param limit
+     * @param filter
      * @throws Exception
      */
     public void load(File input_path, Database catalog_db, Filter filter) throws Exception {
@@ -349,65 +348,27 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
         this.input_path = input_path;
         long start = System.currentTimeMillis();
         
-        // HACK: Throw out traces unless they have the procedures that we're looking for
-        Pattern temp_pattern = null;
-        if (filter != null) {
-            List<ProcedureNameFilter> procname_filters = filter.getFilters(ProcedureNameFilter.class);
-            if (procname_filters.isEmpty() == false) {
-                Set<String> names = new HashSet<String>();
-                for (ProcedureNameFilter f : procname_filters) {
-                    for (String name : f.getProcedureNames()) {
-                        names.add(Pattern.quote(name));
-                    } // FOR
-                } // FOR
-                if (names.isEmpty() == false) {
-                    temp_pattern = Pattern.compile(String.format("\"NAME\":[\\s]*\"(%s)\"", StringUtil.join("|", names)), Pattern.CASE_INSENSITIVE);
-                    if (debug.get()) {
-                        LOG.debug(String.format("Fast filter for %d procedure names", names.size()));
-                        LOG.debug("PATTERN: " + temp_pattern.pattern());
-                    }
-                } 
-            }
-        }
-        final Pattern pattern = temp_pattern;
-        
-        final AtomicInteger counters[] = new AtomicInteger[] {
-            new AtomicInteger(0), // ELEMENT COUNTER
-            new AtomicInteger(0), // TXN COUNTER
-            new AtomicInteger(0), // QUERY COUNTER
-            new AtomicInteger(0), // WEIGHTED TXN COUNTER
-            new AtomicInteger(0), // WEIGHTED QUERY COUNTER
-        };
-        
-        List<Runnable> all_runnables = new ArrayList<Runnable>();
-        int num_threads = ThreadUtil.getMaxGlobalThreads();
-        
-        // Create the reader thread first
-        WorkloadUtil.ReadThread rt = new WorkloadUtil.ReadThread(this.input_path, pattern, num_threads);
-        all_runnables.add(rt);
-        
-        // Then create all of our processing threads
-        for (int i = 0; i < num_threads; i++) {
-            WorkloadUtil.ProcessingThread lt = new WorkloadUtil.ProcessingThread(this, this.input_path, rt, catalog_db, filter, counters);
-            rt.processingThreads.add(lt);
-            all_runnables.add(lt);
+        // The stream deserializes the txns in parallel, but hands them to us
+        // in the order that they appear in the file
+        WorkloadStream stream = new WorkloadStream(this.input_path, catalog_db, filter);
+        for (TransactionTrace xact : stream) {
+            // This call just updates the various other index structures 
+            this.addTransaction(xact.getCatalogItem(catalog_db), xact, true);
         } // FOR
-        
-        if (debug.get()) LOG.debug(String.format("Loading workload trace using %d ProcessThreads", rt.processingThreads.size())); 
-        ThreadUtil.runNewPool(all_runnables, all_runnables.size());
         VerifyWorkload.verify(catalog_db, this);
         
         long stop = System.currentTimeMillis();
         LOG.info(String.format("Loaded %d txns / %d queries from '%s' in %.1f seconds using %d threads",
-                               this.xact_trace.size(), counters[2].get(), this.input_path.getName(), (stop - start) / 1000d, num_threads));
-        if (counters[1].get() != counters[3].get() || counters[2].get() != counters[4].get()) {
-            LOG.info(String.format("Weighted Workload: %d txns / %d queries", counters[3].get(), counters[4].get()));
+                               this.xact_trace.size(), stream.getQueryCount(), this.input_path.getName(),
+                               (stop - start) / 1000d, ThreadUtil.getMaxGlobalThreads()));
+        if (stream.getTransactionCount() != stream.getWeightedTransactionCount() ||
+            stream.getQueryCount() != stream.getWeightedQueryCount()) {
+            LOG.info(String.format("Weighted Workload: %d txns / %d queries",
+                                   stream.getWeightedTransactionCount(), stream.getWeightedQueryCount()));
         }
         return;
     }
     
-
-    
     // ----------------------------------------------------------
     // ITERATORS METHODS
     // ----------------------------------------------------------
@@ -526,20 +487,27 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
      * @return
      */
     public int getTimeInterval(TransactionTrace xact, int num_intervals) {
-        long timestamp = xact.getStartTimestamp();
-        if (timestamp == this.max_start_timestamp) timestamp--;
-        double ratio = (timestamp - this.min_start_timestamp) /
-                       (double)(this.max_start_timestamp - this.min_start_timestamp);
-        int interval = (int)(num_intervals  * ratio);
-        
-//        System.err.println("min_timestamp=" + this.min_start_timestamp);
-//        System.err.println("max_timestamp=" + this.max_start_timestamp);
-//        System.err.println("timestamp=" + timestamp);
-//        System.err.println("ratio= " + ratio);
-//        System.err.println("interval=" + interval);
-//        System.err.println("-------");
-        
-        return interval;
+        return (Workload.getTimeInterval(xact.getStartTimestamp(),
+                                         this.min_start_timestamp,
+                                         this.max_start_timestamp,
+                                         num_intervals));
+    }
+    
+    /**
+     * Return the time interval that the given start timestamp falls in when the
+     * range [min_start_timestamp, max_start_timestamp] is split into num_intervals
+     * @param timestamp
+     * @param min_start_timestamp
+     * @param max_start_timestamp
+     * @param num_intervals
+     * @return
+     */
+    public static int getTimeInterval(long timestamp, long min_start_timestamp, long max_start_timestamp, int num_intervals) {
+        if (min_start_timestamp == max_start_timestamp) return (0);
+        if (timestamp == max_start_timestamp) timestamp--;
+        double ratio = (timestamp - min_start_timestamp) /
+                       (double)(max_start_timestamp - min_start_timestamp);
+        return ((int)(num_intervals * ratio));
     }
     
     public Histogram<Integer> getTimeIntervalProcedureHistogram(int num_intervals) {
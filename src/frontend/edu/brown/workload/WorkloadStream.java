@@ -0,0 +1,418 @@
+package edu.brown.workload;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.voltdb.catalog.Database;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.StringUtil;
+import edu.brown.utils.ThreadUtil;
+import edu.brown.workload.filters.Filter;
+import edu.brown.workload.filters.Filter.FilterResult;
+import edu.brown.workload.filters.ProcedureNameFilter;
+
+/**
+ * Streams the TransactionTraces in a workload trace file without loading the
+ * entire file into memory. The file is read in chunks of lines and each chunk
+ * is deserialized by a task in ThreadUtil's global pool. Only a fixed number of
+ * chunks are in flight at a time, so the amount of memory that we use is bounded
+ * by the chunk size and not the size of the trace.
+ * <B>NOTE:</B> TransactionTraces are returned in the order that they appear in the file, and the
+ * Filter is applied to them in that order. This means that stateful filters
+ * (e.g., ProcedureLimitFilter) always select the same txns.
+ */
+public class WorkloadStream implements Iterable<TransactionTrace> {
+    private static final Logger LOG = Logger.getLogger(WorkloadStream.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The default number of lines that we will hand off to a parsing task
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Callback for each TransactionTrace in the stream
+     */
+    public interface Visitor {
+        /**
+         * Process the next TransactionTrace in the stream.
+         * Return false if the stream should stop.
+         * @param txn_trace
+         * @return
+         */
+        public boolean visit(TransactionTrace txn_trace);
+    }
+
+    private final File input_path;
+    private final Database catalog_db;
+    private final Filter filter;
+    private final Pattern pattern;
+    private int chunk_size = DEFAULT_CHUNK_SIZE;
+    private int max_pending;
+
+    // Counters for the last pass over the stream
+    private int txn_ctr = 0;
+    private int query_ctr = 0;
+    private int weighted_txn_ctr = 0;
+    private int weighted_query_ctr = 0;
+
+    /**
+     * Constructor
+     * @param input_path
+     * @param catalog_db
+     * @param filter - Optional Filter to apply to the TransactionTraces (may be null)
+     */
+    public WorkloadStream(File input_path, Database catalog_db, Filter filter) {
+        this.input_path = input_path;
+        this.catalog_db = catalog_db;
+        this.filter = filter;
+        this.pattern = createProcedureNamePattern(filter);
+        this.max_pending = ThreadUtil.getMaxGlobalThreads() * 2;
+    }
+
+    /**
+     * Set the number of lines that each parsing task will deserialize
+     * @param chunk_size
+     */
+    public void setChunkSize(int chunk_size) {
+        assert(chunk_size > 0);
+        this.chunk_size = chunk_size;
+    }
+
+    /**
+     * Set the max number of chunks that can be waiting to be consumed at a time
+     * @param max_pending
+     */
+    public void setMaxPendingChunks(int max_pending) {
+        assert(max_pending > 0);
+        this.max_pending = max_pending;
+    }
+
+    public File getInputPath() {
+        return (this.input_path);
+    }
+
+    public Filter getFilter() {
+        return (this.filter);
+    }
+
+    /**
+     * Returns the number of txns that passed the filter in the last pass over the stream
+     */
+    public int getTransactionCount() {
+        return (this.txn_ctr);
+    }
+    public int getQueryCount() {
+        return (this.query_ctr);
+    }
+    public int getWeightedTransactionCount() {
+        return (this.weighted_txn_ctr);
+    }
+    public int getWeightedQueryCount() {
+        return (this.weighted_query_ctr);
+    }
+
+    // ----------------------------------------------------------------------------
+    // STREAMING METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Invoke the Visitor on every TransactionTrace in the stream.
+     * Returns the number of TransactionTraces that were visited.
+     * @param visitor
+     * @return
+     */
+    public int visit(Visitor visitor) {
+        int ctr = 0;
+        StreamIterator it = this.iterator();
+        try {
+            while (it.hasNext()) {
+                ctr++;
+                if (visitor.visit(it.next()) == false) break;
+            } // WHILE
+        } finally {
+            it.close();
+        }
+        return (ctr);
+    }
+
+    @Override
+    public StreamIterator iterator() {
+        this.txn_ctr = 0;
+        this.query_ctr = 0;
+        this.weighted_txn_ctr = 0;
+        this.weighted_query_ctr = 0;
+
+        Iterator<TransactionTrace> source = null;
+        try {
+            if (BinaryWorkloadFile.isBinaryFile(this.input_path)) {
+                if (debug.get()) LOG.debug("Workload trace file '" + this.input_path + "' is in the binary format");
+                source = new BinaryWorkloadFile.Reader(this.input_path, this.catalog_db);
+            } else {
+                source = new ChunkIterator();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to open workload trace file '" + this.input_path + "'", ex);
+        }
+        return (new StreamIterator(source));
+    }
+
+    /**
+     * Applies the Filter to the TransactionTraces from the underlying file
+     */
+    public class StreamIterator implements Iterator<TransactionTrace> {
+        private final Iterator<TransactionTrace> source;
+        private TransactionTrace next = null;
+        private boolean halted = false;
+
+        private StreamIterator(Iterator<TransactionTrace> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.next != null) return (true);
+            while (this.halted == false && this.source.hasNext()) {
+                TransactionTrace xact = this.source.next();
+                if (filter != null) {
+                    FilterResult result = filter.apply(xact);
+                    if (trace.get()) LOG.trace(xact + " Filter Result: " + result);
+                    if (result == FilterResult.HALT) {
+                        if (debug.get()) LOG.debug("Got HALT response from filter! Closing stream");
+                        this.close();
+                        break;
+                    }
+                    else if (result == FilterResult.SKIP) continue;
+                }
+                txn_ctr++;
+                query_ctr += xact.getQueryCount();
+                weighted_txn_ctr += xact.weight;
+                for (QueryTrace q : xact.getQueries()) {
+                    weighted_query_ctr += q.weight;
+                } // FOR
+                this.next = xact;
+                return (true);
+            } // WHILE
+            return (false);
+        }
+
+        @Override
+        public TransactionTrace next() {
+            if (this.hasNext() == false) throw new NoSuchElementException();
+            TransactionTrace ret = this.next;
+            this.next = null;
+            return (ret);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Stop reading from the file
+         */
+        public void close() {
+            this.halted = true;
+            if (this.source instanceof ChunkIterator) {
+                ((ChunkIterator)this.source).close();
+            } else if (this.source instanceof BinaryWorkloadFile.Reader) {
+                ((BinaryWorkloadFile.Reader)this.source).close();
+            }
+        }
+    } // CLASS
+
+    /**
+     * Reads the JSON trace file in chunks and deserializes each chunk in the global pool
+     */
+    private class ChunkIterator implements Iterator<TransactionTrace> {
+        private final BufferedReader in;
+        private final LinkedList<FutureTask<List<TransactionTrace>>> pending = new LinkedList<FutureTask<List<TransactionTrace>>>();
+        private Iterator<TransactionTrace> current = Collections.<TransactionTrace>emptyList().iterator();
+        private int line_ctr = 0;
+        private int fast_ctr = 0;
+        private boolean eof = false;
+
+        private ChunkIterator() throws IOException {
+            this.in = FileUtil.getReader(input_path);
+        }
+
+        /**
+         * Read in the next chunks of lines and queue them up for parsing
+         */
+        private void fill() throws IOException {
+            while (this.eof == false && this.pending.size() < max_pending) {
+                final List<String> lines = new ArrayList<String>(chunk_size);
+                final int first_line = this.line_ctr;
+                String line = null;
+                while (lines.size() < chunk_size && (line = this.in.readLine()) != null) {
+                    this.line_ctr++;
+                    line = line.trim();
+                    if (line.isEmpty()) continue;
+                    if (pattern != null && pattern.matcher(line).find() == false) {
+                        this.fast_ctr++;
+                        continue;
+                    }
+                    lines.add(line);
+                } // WHILE
+                if (line == null) {
+                    this.eof = true;
+                    this.in.close();
+                    if (debug.get()) LOG.debug(String.format("Read %d lines from '%s' [fast_filter=%d]",
+                                               this.line_ctr, input_path.getName(), this.fast_ctr));
+                }
+                if (lines.isEmpty()) continue;
+
+                FutureTask<List<TransactionTrace>> task = new FutureTask<List<TransactionTrace>>(new Callable<List<TransactionTrace>>() {
+                    @Override
+                    public List<TransactionTrace> call() throws Exception {
+                        return (parse(lines, first_line));
+                    }
+                });
+                ThreadUtil.executeGlobalPool(task);
+                this.pending.add(task);
+            } // WHILE
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.current.hasNext() == false) {
+                try {
+                    this.fill();
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to read workload trace file '" + input_path + "'", ex);
+                }
+                FutureTask<List<TransactionTrace>> task = this.pending.poll();
+                if (task == null) return (false);
+
+                // If the pool hasn't gotten to this chunk yet, then we'll parse it ourselves
+                if (task.isDone() == false) task.run();
+                try {
+                    this.current = task.get().iterator();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException("Failed to parse workload trace file '" + input_path + "'", ex.getCause());
+                }
+            } // WHILE
+            return (true);
+        }
+
+        @Override
+        public TransactionTrace next() {
+            if (this.hasNext() == false) throw new NoSuchElementException();
+            return (this.current.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void close() {
+            for (FutureTask<?> task : this.pending) {
+                task.cancel(false);
+            } // FOR
+            this.pending.clear();
+            this.current = Collections.<TransactionTrace>emptyList().iterator();
+            if (this.eof == false) {
+                this.eof = true;
+                try {
+                    this.in.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+    } // CLASS
+
+    /**
+     * Deserialize a chunk of lines from the trace file
+     * @param lines
+     * @param first_line - The line number of the first line in the chunk
+     * @return
+     * @throws Exception
+     */
+    private List<TransactionTrace> parse(List<String> lines, int first_line) throws Exception {
+        List<TransactionTrace> txns = new ArrayList<TransactionTrace>(lines.size());
+        for (String line : lines) {
+            JSONObject jsonObject = null;
+            try {
+                jsonObject = new JSONObject(line);
+            } catch (JSONException ex) {
+                String msg = String.format("Ignoring invalid TransactionTrace in chunk starting at line %d of '%s'",
+                                           first_line+1, this.input_path);
+                if (debug.get()) {
+                    LOG.warn(msg, ex);
+                } else {
+                    LOG.warn(msg);
+                }
+                continue;
+            }
+            if (jsonObject.has(TransactionTrace.Members.TXN_ID.name()) == false) {
+                throw new Exception("Unexpected serialization line in workload trace file '" + this.input_path.getAbsolutePath() + "'");
+            }
+            TransactionTrace xact = null;
+            try {
+                xact = TransactionTrace.loadFromJSONObject(jsonObject, this.catalog_db);
+            } catch (Throwable ex) {
+                LOG.warn(ex.getMessage());
+                continue;
+            }
+            txns.add(xact);
+        } // FOR
+        if (trace.get()) LOG.trace(String.format("Parsed %d TransactionTraces from chunk starting at line %d",
+                                   txns.size(), first_line));
+        return (txns);
+    }
+
+    /**
+     * HACK: Create a regex that will throw out traces that are not for the procedures
+     * that we're looking for before we bother to deserialize them
+     * @param filter
+     * @return
+     */
+    protected static Pattern createProcedureNamePattern(Filter filter) {
+        if (filter == null) return (null);
+        List<ProcedureNameFilter> procname_filters = filter.getFilters(ProcedureNameFilter.class);
+        if (procname_filters.isEmpty()) return (null);
+
+        Set<String> names = new HashSet<String>();
+        for (ProcedureNameFilter f : procname_filters) {
+            for (String name : f.getProcedureNames()) {
+                names.add(Pattern.quote(name));
+            } // FOR
+        } // FOR
+        if (names.isEmpty()) return (null);
+
+        Pattern pattern = Pattern.compile(String.format("\"NAME\":[\\s]*\"(%s)\"", StringUtil.join("|", names)), Pattern.CASE_INSENSITIVE);
+        if (debug.get()) {
+            LOG.debug(String.format("Fast filter for %d procedure names", names.size()));
+            LOG.debug("PATTERN: " + pattern.pattern());
+        }
+        return (pattern);
+    }
+}
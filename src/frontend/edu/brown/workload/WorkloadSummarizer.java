@@ -38,6 +38,7 @@ import edu.brown.utils.Consumer;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.Producer;
 import edu.brown.utils.ThreadUtil;
+import edu.brown.workload.filters.Filter;
 
 /**
  * 
@@ -151,6 +152,85 @@ public class WorkloadSummarizer {
         return (this.removeDuplicateTransactions(this.removeDuplicateQueries(workload)));
     }
     
+    /**
+     * Summarize the txns in a WorkloadStream. Unlike process(Workload), we only keep
+     * one TransactionTrace in memory for each unique signature.
+     * If time intervals are enabled, then we have to make two passes over the stream:
+     * the first one figures out the range of start timestamps and the second one
+     * puts each txn into its interval.
+     * @param stream
+     * @return
+     */
+    public Workload process(WorkloadStream stream) {
+        final Filter filter = stream.getFilter();
+        
+        // (1) Find the min/max start timestamps
+        Long min_start = null;
+        Long max_start = null;
+        if (this.num_intervals != null) {
+            if (filter != null) filter.reset();
+            WorkloadStream.StreamIterator it = stream.iterator();
+            try {
+                while (it.hasNext()) {
+                    long timestamp = it.next().getStartTimestamp();
+                    if (min_start == null || timestamp < min_start) min_start = timestamp;
+                    if (max_start == null || timestamp > max_start) max_start = timestamp;
+                } // WHILE
+            } finally {
+                it.close();
+            }
+            if (debug.get())
+                LOG.debug(String.format("Workload stream '%s' start timestamps: [%d, %d]",
+                                        stream.getInputPath(), min_start, max_start));
+        }
+        
+        // (2) Now find the unique txns
+        final Map<Procedure, Map<String, TransactionTrace>> unique = new HashMap<Procedure, Map<String, TransactionTrace>>();
+        final DuplicateTraceElements<Statement, QueryTrace> duplicates = new DuplicateTraceElements<Statement, QueryTrace>();
+        int txn_ctr = 0;
+        if (filter != null) filter.reset();
+        WorkloadStream.StreamIterator it = stream.iterator();
+        try {
+            while (it.hasNext()) {
+                TransactionTrace txn_trace = it.next();
+                Procedure catalog_proc = txn_trace.getCatalogItem(catalog_db);
+                if (this.target_procedures.contains(catalog_proc) == false) continue;
+                txn_ctr++;
+                txn_trace = this.removeDuplicateQueries(txn_trace, duplicates);
+                
+                Integer interval = null;
+                if (this.num_intervals != null) {
+                    interval = Workload.getTimeInterval(txn_trace.getStartTimestamp(), min_start, max_start, this.num_intervals);
+                }
+                String signature = this.getTransactionTraceSignature(catalog_proc, txn_trace, interval);
+                Map<String, TransactionTrace> m = unique.get(catalog_proc);
+                if (m == null) {
+                    m = new HashMap<String, TransactionTrace>();
+                    unique.put(catalog_proc, m);
+                }
+                TransactionTrace first = m.get(signature);
+                if (first == null) {
+                    m.put(signature, txn_trace);
+                } else {
+                    first.setWeight(first.getWeight() + txn_trace.getWeight());
+                }
+            } // WHILE
+        } finally {
+            it.close();
+        }
+        
+        Workload new_workload = new Workload(this.catalog_db.getCatalog());
+        for (Map<String, TransactionTrace> m : unique.values()) {
+            for (TransactionTrace txn_trace : m.values()) {
+                if (txn_trace.getWeight() == 0) continue;
+                new_workload.addTransaction(txn_trace.getCatalogItem(catalog_db), txn_trace);
+            } // FOR
+        } // FOR
+        LOG.info(String.format("Reduced WorkloadStream from %d txns to (%d txns / %d queries)",
+                               txn_ctr, new_workload.getTransactionCount(), new_workload.getQueryCount()));
+        return (new_workload);
+    }
+    
     protected List<StmtParameter> getTargetParameters(Statement catalog_stmt) {
         return (this.target_stmt_params.get(catalog_stmt));
     }
@@ -353,24 +433,9 @@ public class WorkloadSummarizer {
                 public void process(TransactionTrace txn_trace) {
                     Procedure catalog_proc = txn_trace.getCatalogItem(catalog_db);
                     if (target_procedures.contains(catalog_proc) == false) return;
-                    duplicates.clear();            
-                    for (QueryTrace query_trace : txn_trace.getQueries()) {
-                        Statement catalog_stmt = query_trace.getCatalogItem(catalog_db);
-                        String param_hashes = getQueryTraceSignature(catalog_stmt, query_trace);
-                        duplicates.add(catalog_stmt, param_hashes, query_trace);
-                    } // FOR (query)
-                    
-                    // If this TransactionTrace has duplicate queries, then we will want to consturct
-                    // a new TransactionTrace that has the weighted queries. Note that will cause us 
-                    // to have to remove any batches
-                    if (duplicates.hasDuplicates()) {
-                        TransactionTrace new_txn_trace = (TransactionTrace)txn_trace.clone();
-                        new_txn_trace.setQueries(duplicates.getWeightedTraceElements());
-                        new_workload.addTransaction(new_txn_trace.getCatalogItem(catalog_db), new_txn_trace);
-                        trimmed_ctr.incrementAndGet();
-                    } else {
-                        new_workload.addTransaction(txn_trace.getCatalogItem(catalog_db), txn_trace);
-                    }
+                    TransactionTrace new_txn_trace = removeDuplicateQueries(txn_trace, duplicates);
+                    if (new_txn_trace != txn_trace) trimmed_ctr.incrementAndGet();
+                    new_workload.addTransaction(new_txn_trace.getCatalogItem(catalog_db), new_txn_trace);
                 }
             };
             producer.addConsumer(c);
@@ -388,6 +453,28 @@ public class WorkloadSummarizer {
         return (new_workload);
     }
     
+    /**
+     * If the given TransactionTrace has duplicate queries, then we will want to construct
+     * a new TransactionTrace that has the weighted queries. Note that will cause us 
+     * to have to remove any batches. Otherwise the original TransactionTrace is returned.
+     * @param txn_trace
+     * @param duplicates
+     * @return
+     */
+    private TransactionTrace removeDuplicateQueries(TransactionTrace txn_trace, DuplicateTraceElements<Statement, QueryTrace> duplicates) {
+        duplicates.clear();            
+        for (QueryTrace query_trace : txn_trace.getQueries()) {
+            Statement catalog_stmt = query_trace.getCatalogItem(catalog_db);
+            String param_hashes = getQueryTraceSignature(catalog_stmt, query_trace);
+            duplicates.add(catalog_stmt, param_hashes, query_trace);
+        } // FOR (query)
+        if (duplicates.hasDuplicates() == false) return (txn_trace);
+        
+        TransactionTrace new_txn_trace = (TransactionTrace)txn_trace.clone();
+        new_txn_trace.setQueries(duplicates.getWeightedTraceElements());
+        return (new_txn_trace);
+    }
+    
     public static void main(String[] vargs) throws Exception {
         ArgumentsParser args = ArgumentsParser.load(vargs);
         args.require(
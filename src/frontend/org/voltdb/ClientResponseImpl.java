@@ -50,7 +50,7 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
     private SerializableException m_exception = null;
     
     // PAVLO
-    private long txn_id;
+    private long txn_id = -1;
     private boolean singlepartition = true;
     private int basePartition = -1;
     private int restartCounter = 0;
@@ -89,6 +89,10 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         this.init(txn_id, client_handle, basePartition, status, appStatus, appStatusString, results, statusString, e);
     }
 
+    public void init(long txn_id, long client_handle, int basePartition, Status status, VoltTable[] results, String statusString) {
+        this.init(txn_id, client_handle, basePartition, status, Byte.MIN_VALUE, null, results, statusString, null);
+    }
+    
     @Deprecated
     public void init(Long txn_id, long client_handle, int basePartition, Status status, byte appStatus, String appStatusString, VoltTable[] results, String statusString, SerializableException e) {
         this.txn_id = txn_id.longValue();
@@ -130,8 +134,18 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         this.txn_id = -1;
         this.clientHandle = -1;
         this.status = null;
+        this.statusString = null;
+        this.appStatus = Byte.MIN_VALUE;
+        this.appStatusString = null;
         this.results = null;
+        this.m_exception = null;
+        this.clusterRoundTripTime = -1;
+        this.clientRoundTripTime = -1;
+        this.singlepartition = true;
+        this.basePartition = -1;
         this.restartCounter = 0;
+        this.debug = null;
+        this.setProperly = false;
     }
     
     private void setResults(Status status, VoltTable[] results, String statusString) {
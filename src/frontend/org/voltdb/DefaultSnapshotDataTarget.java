@@ -38,15 +38,33 @@ import java.util.zip.CRC32;
 import org.apache.log4j.Logger;
 import org.voltdb.client.ConnectionUtil;
 import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.DBBPool.BBContainer;
 
+import edu.brown.hstore.conf.HStoreConf;
+
 public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     private static final Logger LOG = Logger.getLogger(DefaultSnapshotDataTarget.class);
 
     public static volatile boolean m_simulateFullDiskWritingHeader = false;
     public static volatile boolean m_simulateFullDiskWritingChunk = false;
 
+    /**
+     * If this bit is set in the flags at the end of the file header, then the
+     * tuple data in every chunk after the header is compressed with Snappy.
+     * The chunk CRC is computed over the compressed bytes with DBBPool.getBufferCRC32().
+     * Files written before the flags were added do not have them, so readers
+     * must treat a missing flags field as zero.
+     */
+    public static final int HEADER_FLAG_COMPRESSED = 0x01;
+
+    /**
+     * The size of the chunk header that the EE writes in front of the tuple data:
+     * length, partition id, partition id CRC, data CRC
+     */
+    private static final int CHUNK_HEADER_SIZE = 16;
+
     private final File m_file;
     private final FileChannel m_channel;
     private final FileOutputStream m_fos;
@@ -79,17 +97,174 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
 
     private final AtomicInteger m_outstandingWriteTasks = new AtomicInteger(0);
 
-    private static final ExecutorService m_es = Executors.newSingleThreadExecutor(new ThreadFactory() {
-        @Override
-        public Thread newThread(Runnable r) {
+    /**
+     * Snapshot writes are striped over a pool of single-threaded writers. Each target
+     * is pinned to one writer so that its chunks are still appended in order, but the
+     * files for different tables are written in parallel.
+     */
+    private static ExecutorService m_writers[] = null;
+    private static final AtomicInteger m_nextWriter = new AtomicInteger(0);
+    private final ExecutorService m_es;
+
+    /**
+     * The number of targets that have not been closed yet. We can only replace
+     * the writer pool when this is zero because every open target is pinned
+     * to one of the current writers.
+     */
+    private static int m_openTargets = 0;
 
-            return new Thread(
-                    Thread.currentThread().getThreadGroup(),
-                    r,
-                    "Snapshot write service ",
-                    131072);
+    /**
+     * Compress chunks before they are written out
+     */
+    private final boolean m_compress;
+
+    /**
+     * The buffer that we compress chunks into. All of the chunks for this target
+     * are written by the same writer thread, so it is only touched by that thread.
+     * It is released when the target is closed.
+     */
+    private BBContainer m_compressionBuffer = null;
+
+    /**
+     * Shared limit on how many bytes/sec all of the writers can push to disk.
+     * This keeps snapshots from starving the command log. Disabled if <= 0
+     */
+    private static long m_bytesPerSecond = -1;
+    private static long m_rateWindowStart = 0;
+    private static long m_rateWindowBytes = 0;
+
+    /**
+     * Pick the writer for a new target. If the writer thread count in the HStoreConf
+     * changed since the pool was created and there are no open targets, then the
+     * old pool is shut down and a new one is started.
+     */
+    private static synchronized ExecutorService getWriter() {
+        int num_writers = 1;
+        m_bytesPerSecond = -1;
+        if (HStoreConf.isInitialized()) {
+            HStoreConf hstore_conf = HStoreConf.singleton();
+            num_writers = Math.max(1, hstore_conf.site.snapshot_writer_threads);
+            if (hstore_conf.site.snapshot_write_rate > 0) {
+                m_bytesPerSecond = hstore_conf.site.snapshot_write_rate * 1024l * 1024l;
+            }
         }
-    });
+        if (m_writers != null && m_writers.length != num_writers) {
+            if (m_openTargets == 0) {
+                LOG.debug("Resizing snapshot writer pool from " + m_writers.length +
+                          " to " + num_writers + " threads");
+                for (ExecutorService writer : m_writers) {
+                    writer.shutdown();
+                }
+                m_writers = null;
+            } else {
+                LOG.debug("Not resizing snapshot writer pool to " + num_writers + " threads " +
+                          "because there are " + m_openTargets + " open targets");
+            }
+        }
+        if (m_writers == null) {
+            m_writers = new ExecutorService[num_writers];
+            for (int ii = 0; ii < num_writers; ii++) {
+                final int writerId = ii;
+                m_writers[ii] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(
+                                Thread.currentThread().getThreadGroup(),
+                                r,
+                                "Snapshot write service " + writerId,
+                                131072);
+                    }
+                });
+            }
+            LOG.debug("Started " + num_writers + " snapshot writer threads " +
+                      "[rateLimit=" + m_bytesPerSecond + " bytes/sec]");
+        }
+        m_openTargets++;
+        return m_writers[(m_nextWriter.getAndIncrement() & Integer.MAX_VALUE) % m_writers.length];
+    }
+
+    private static synchronized void releaseWriter() {
+        m_openTargets--;
+    }
+
+    /**
+     * Returns the number of threads in the current writer pool. For testing
+     */
+    static synchronized int getWriterCount() {
+        return (m_writers != null ? m_writers.length : 0);
+    }
+
+    /**
+     * Block the calling writer until it is allowed to write the given number of bytes
+     */
+    private static void throttle(int bytes) throws InterruptedException {
+        long sleepTime = 0;
+        synchronized (DefaultSnapshotDataTarget.class) {
+            if (m_bytesPerSecond <= 0) return;
+            final long now = System.currentTimeMillis();
+            if (now - m_rateWindowStart >= 1000) {
+                m_rateWindowStart = now;
+                m_rateWindowBytes = 0;
+            }
+            m_rateWindowBytes += bytes;
+            if (m_rateWindowBytes > m_bytesPerSecond) {
+                // Push the start of the next window back by however long it would
+                // take to write the overflow at the allowed rate
+                sleepTime = (m_rateWindowStart + 1000) - now;
+                sleepTime += ((m_rateWindowBytes - m_bytesPerSecond) * 1000) / m_bytesPerSecond;
+                m_rateWindowStart = now + sleepTime;
+                m_rateWindowBytes = 0;
+            }
+        }
+        if (sleepTime > 0) Thread.sleep(sleepTime);
+    }
+
+    /**
+     * Returns the size of the buffer needed to compress a chunk of the given size
+     */
+    static int maxCompressedChunkLength(ByteBuffer chunk) {
+        return CHUNK_HEADER_SIZE + CompressionService.maxCompressedLength(chunk.remaining() - CHUNK_HEADER_SIZE);
+    }
+
+    /**
+     * Compress the tuple data in the given chunk into the output buffer and return
+     * the output buffer positioned at the start of a new chunk with the same partition
+     * id but with the compressed tuple data. The output buffer must be direct and have at
+     * least maxCompressedChunkLength() bytes of capacity.
+     */
+    static ByteBuffer compressChunk(ByteBuffer chunk, ByteBuffer output) throws IOException {
+        assert(output.isDirect());
+        assert(output.capacity() >= maxCompressedChunkLength(chunk));
+        final ByteBuffer uncompressed = chunk.duplicate();
+        uncompressed.position(CHUNK_HEADER_SIZE);
+
+        output.clear();
+        output.position(CHUNK_HEADER_SIZE);
+        final ByteBuffer compressed = output.slice();
+        final int compressedSize = CompressionService.compressBuffer(uncompressed.slice(), compressed);
+
+        output.limit(CHUNK_HEADER_SIZE + compressedSize);
+        output.position(0);
+        output.putInt(compressedSize + (CHUNK_HEADER_SIZE - 4));
+        output.putInt(chunk.getInt(4)); // partition id
+        output.putInt(chunk.getInt(8)); // partition id CRC
+        output.putInt(DBBPool.getBufferCRC32(output, CHUNK_HEADER_SIZE, compressedSize));
+        output.position(0);
+        return output;
+    }
+
+    /**
+     * Compress the given chunk into this target's compression buffer.
+     * This can only be invoked by this target's writer thread.
+     */
+    private ByteBuffer compressChunk(ByteBuffer chunk) throws IOException {
+        final int maxLength = maxCompressedChunkLength(chunk);
+        if (m_compressionBuffer == null || m_compressionBuffer.b.capacity() < maxLength) {
+            if (m_compressionBuffer != null) m_compressionBuffer.discard();
+            m_compressionBuffer = DBBPool.allocateDirect(maxLength);
+        }
+        return compressChunk(chunk, m_compressionBuffer.b);
+    }
 
     private static final ScheduledExecutorService m_syncService = Executors.newSingleThreadScheduledExecutor(
             new ThreadFactory() {
@@ -141,10 +316,38 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             final long createTime,
             int version[]
             ) throws IOException {
+        this(file, hostId, clusterName, databaseName, tableName, numPartitions, isReplicated,
+             partitionIds, schemaTable, createTime, version,
+             HStoreConf.isInitialized() && HStoreConf.singleton().site.snapshot_compress);
+    }
+
+    public DefaultSnapshotDataTarget(
+            final File file,
+            final int hostId,
+            final String clusterName,
+            final String databaseName,
+            final String tableName,
+            final int numPartitions,
+            final boolean isReplicated,
+            final int partitionIds[],
+            final VoltTable schemaTable,
+            final long createTime,
+            int version[],
+            boolean compress
+            ) throws IOException {
         String hostname = ConnectionUtil.getHostnameOrAddress();
         m_file = file;
         m_tableName = tableName;
-        m_fos = new FileOutputStream(file);
+        m_compress = compress;
+        m_es = getWriter();
+        final FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(file);
+        } catch (IOException e) {
+            releaseWriter();
+            throw e;
+        }
+        m_fos = fos;
         m_channel = m_fos.getChannel();
         final FastSerializer fs = new FastSerializer();
         fs.writeInt(0);//CRC
@@ -164,6 +367,7 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             fs.writeArray(partitionIds);
             fs.writeInt(numPartitions);
         }
+        fs.writeInt(m_compress ? HEADER_FLAG_COMPRESSED : 0);
         final BBContainer container = fs.getBBContainer();
         container.b.position(4);
         container.b.putInt(container.b.remaining() - 4);
@@ -189,6 +393,7 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         if (m_simulateFullDiskWritingHeader) {
             m_writeException = new IOException("Disk full");
             m_writeFailed = true;
+            releaseWriter();
             m_fos.close();
             throw m_writeException;
         }
@@ -202,13 +407,16 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         try {
             writeFuture.get();
         } catch (InterruptedException e) {
+            releaseWriter();
             m_fos.close();
             throw new java.io.InterruptedIOException();
         } catch (ExecutionException e) {
+            releaseWriter();
             m_fos.close();
             throw m_writeException;
         }
         if (m_writeFailed) {
+            releaseWriter();
             m_fos.close();
             throw m_writeException;
         }
@@ -243,6 +451,12 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             m_channel.force(false);
         } finally {
             m_bytesAllowedBeforeSync.release(m_bytesWrittenSinceLastSync.getAndSet(0));
+            // There are no more writes, so nobody else can be using the buffer
+            if (m_compressionBuffer != null) {
+                m_compressionBuffer.discard();
+                m_compressionBuffer = null;
+            }
+            releaseWriter();
         }
         m_channel.position(8);
         ByteBuffer completed = ByteBuffer.allocate(1);
@@ -288,11 +502,16 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
                         }
                     }
 
-                    m_bytesAllowedBeforeSync.acquire(tupleData.b.remaining());
+                    ByteBuffer output = tupleData.b;
+                    if (m_compress && prependLength) {
+                        output = compressChunk(tupleData.b);
+                    }
+                    throttle(output.remaining());
+                    m_bytesAllowedBeforeSync.acquire(output.remaining());
 
                     int totalWritten = 0;
-                    while (tupleData.b.hasRemaining()) {
-                        totalWritten += m_channel.write(tupleData.b);
+                    while (output.hasRemaining()) {
+                        totalWritten += m_channel.write(output);
                     }
                     m_bytesWritten += totalWritten;
                     m_bytesWrittenSinceLastSync.addAndGet(totalWritten);
@@ -20,6 +20,7 @@ package org.voltdb;
 import java.util.Map;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
+import org.voltdb.utils.DBBPool.BBContainer;
 
 import edu.brown.utils.StringUtil;
 
@@ -27,6 +28,13 @@ public class DependencySet {
 
     public final int[] depIds;
     public final VoltTable[] dependencies;
+    
+    /**
+     * If the ExecutionEngine produced the dependency tables as views over pooled
+     * buffers, then these are the containers that back them (one per dependency,
+     * possibly null). They must be discarded once the tables are no longer needed.
+     */
+    public BBContainer[] containers;
 
     public DependencySet(int depId, VoltTable dependency) {
         this(new int[]{depId}, new VoltTable[]{dependency});
@@ -7,6 +7,7 @@ import org.apache.log4j.Logger;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.messaging.FastSerializer;
 import org.voltdb.types.SortDirectionType;
+import org.voltdb.utils.ExternalVoltTableSorter;
 import org.voltdb.utils.Pair;
 import org.voltdb.utils.ReduceInputIterator;
 import org.voltdb.utils.VoltTableUtil;
@@ -68,6 +69,32 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
      */
     public abstract void reduce(K key, Iterator<VoltTableRow> rows);
     
+    /**
+     * Returns true if this procedure implements combine(). If it does, then
+     * the MAP output at each partition will be pre-aggregated by key before 
+     * it is shuffled to the partitions that execute the REDUCE phase.
+     * @return
+     */
+    public boolean hasCombiner() {
+        return (false);
+    }
+    
+    /**
+     * Optional map-side combiner. This is invoked once per key with all of the
+     * rows that were emitted by map() for that key at this partition. The combiner
+     * must emit its results with combineEmit() using the MapOutput schema.
+     * The combiner may be invoked zero or more times, so it must not change the
+     * final result of the REDUCE phase.
+     * The default implementation passes the rows through unchanged.
+     * @param key
+     * @param rows
+     */
+    public void combine(K key, Iterator<VoltTableRow> rows) {
+        while (rows.hasNext()) {
+            this.map_output.add(rows.next());
+        } // WHILE
+    }
+    
     // -----------------------------------------------------------------
     // INTERNAL METHODS
     // -----------------------------------------------------------------
@@ -113,9 +140,6 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
                 this.executor.getHStoreSite().getCoordinator().transactionMap(mr_ts, mr_ts.getTransactionMapCallback());
             }
             
-            this.map_output = mr_ts.getMapOutputByPartition(this.partitionId);
-            assert(this.map_output != null);
-
             if (debug.get())
                 LOG.debug("<VoltMapReduceProcedure.run> is executing ..<MAP>..\n");
             // Execute the map
@@ -128,33 +152,28 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
             // MapReduceTransaction should finish forever...
             if (this.hstore_conf.site.mr_map_blocking) {
                 hstore_site.getTransactionQueueManager().lockQueueFinished(this.mr_ts, Status.OK, this.partitionId);
+                
+                if (debug.get())
+                    LOG.debug(String.format("<MapInputTable> Partition:%d\n %s", this.partitionId,mapResult[0]));
+                this.runMap(this.mr_ts, this.partitionId, mapResult[0], -1);
+                this.finishMap(this.mr_ts, this.partitionId);
+            }
+            // Otherwise the output of the MapInputQuery is our consistent snapshot of this
+            // partition. We release the partition right away so that the txns waiting 
+            // in its queue can run, and then the MapReduceHelperThread will invoke
+            // map() on the snapshot in chunks of ${site.mr_map_chunk_size} rows. 
+            else {
+                hstore_site.getTransactionQueueManager().lockQueueFinished(this.mr_ts, Status.OK, this.partitionId);
+                
+                if (debug.get())
+                    LOG.debug(String.format("MAP: Queuing %d records for %s on partition %d for non-blocking execution",
+                              mapResult[0].getRowCount(), this.m_localTxnState, this.partitionId));
+                // The MapReduceHelperThread will read the snapshot after we return, so
+                // it can't be a view over one of the EE's pooled result buffers
+                this.mr_ts.queueMapInput(this.partitionId, VoltTableUtil.copyToHeap(mapResult[0]));
+                hstore_site.getMapReduceHelper().queue(this.mr_ts);
             }
-            
-            if (debug.get())
-                LOG.debug(String.format("MAP: About to process %d records for %s on partition %d",
-                          mapResult[0].getRowCount(), this.m_localTxnState, this.partitionId));
-
-            if (debug.get())
-                LOG.debug(String.format("<MapInputTable> Partition:%d\n %s", this.partitionId,mapResult[0]));
-
-            while (mapResult[0].advanceRow()) {
-                this.map(mapResult[0].getRow());
-            } // WHILE
-            
-            if (debug.get())
-                LOG.debug(String.format("MAP: %s generated %d results on partition %d",
-                          this.m_localTxnState, this.map_output.getRowCount(), this.partitionId));
-            if (debug.get())
-                LOG.debug(String.format("<MapOutputTable> Partition:%d\n %s", this.partitionId,this.map_output));
-            
             result = mr_ts.getMapOutputByPartition(this.partitionId);
-
-            // Always invoke the TransactionMapWrapperCallback to let somebody know that
-            // we finished the MAP phase at this partition
-            TransactionMapWrapperCallback callback = mr_ts.getTransactionMapWrapperCallback();
-            assert (callback != null) : "Unexpected null callback for " + mr_ts;
-            assert (callback.isInitialized()) : "Unexpected uninitalized callback for " + mr_ts;
-            callback.run(this.partitionId);
         }
 
         else if (mr_ts.isReducePhase()) {
@@ -165,66 +184,175 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
                 // Send out network messages to all other partitions to tell them to execute the Reduce phase of this job
                 this.executor.getHStoreSite().getCoordinator().transactionReduce(mr_ts, mr_ts.getTransactionReduceCallback());
             }
-            this.reduce_input = null; // 
-            this.reduce_input = mr_ts.getReduceInputByPartition(this.partitionId);
-            assert(this.reduce_input != null);
-            if(debug.get()) 
-                LOG.debug("__FILE__:__LINE__ " + String.format("TXN: %s, [Stage] \n<VoltMapReduceProcedure.run> is executing <Reduce>..",mr_ts)); 
+            this.runReduce(this.mr_ts, this.partitionId);
+        }
+        
+        return (result);
+    }
+    
+    // -----------------------------------------------------------------
+    // PHASE EXECUTION
+    // -----------------------------------------------------------------
+    
+    /**
+     * Invoke map() on the rows in the given MapInputQuery result for the given partition.
+     * If limit is greater than zero, then at most that many rows will be processed
+     * and the table's row position is left at the last row that was mapped so that the
+     * next invocation can pick up where this one left off.
+     * Returns true if all of the rows in the input table have been processed.
+     * This does not need to be executed by the partition's PartitionExecutor.
+     * @param mr_ts
+     * @param partition
+     * @param input
+     * @param limit
+     * @return
+     */
+    public final boolean runMap(MapReduceTransaction mr_ts, int partition, VoltTable input, int limit) {
+        this.mr_ts = mr_ts;
+        this.map_output = mr_ts.getMapOutputByPartition(partition);
+        assert(this.map_output != null);
+
+        if (debug.get())
+            LOG.debug(String.format("MAP: About to process %s records for %s on partition %d",
+                      (limit > 0 ? "up to " + limit : "all " + input.getRowCount()), mr_ts, partition));
+        
+        int ctr = 0;
+        while (limit <= 0 || ctr < limit) {
+            if (input.advanceRow() == false) return (true);
+            this.map(input.getRow());
+            ctr++;
+        } // WHILE
+        return (input.getActiveRowIndex() + 1 >= input.getRowCount());
+    }
+    
+    /**
+     * Finish the MAP phase at the given partition. This will invoke the combiner (if there
+     * is one) and then let the TransactionMapWrapperCallback know that we are done.
+     * @param mr_ts
+     * @param partition
+     */
+    public final void finishMap(MapReduceTransaction mr_ts, int partition) {
+        this.mr_ts = mr_ts;
+        this.map_output = mr_ts.getMapOutputByPartition(partition);
+        assert(this.map_output != null);
+        
+        if (debug.get())
+            LOG.debug(String.format("MAP: %s generated %d results on partition %d",
+                      mr_ts, this.map_output.getRowCount(), partition));
+        
+        // Pre-aggregate the MAP output so that we send less data in the SHUFFLE phase
+        if (this.hasCombiner() && this.map_output.getRowCount() > 1) {
+            this.combine();
             if (debug.get())
-                LOG.debug(String.format("<ReduceInputTable> Partition:%d\n %s", this.partitionId,this.reduce_input));
-            
-            
-            // Sort the the MAP_OUTPUT table
-            // Build an "smart" iterator that loops through the MAP_OUTPUT table key-by-key
+                LOG.debug(String.format("COMBINE: %s reduced MAP output to %d results on partition %d",
+                          mr_ts, this.map_output.getRowCount(), partition));
+        }
+        if (debug.get())
+            LOG.debug(String.format("<MapOutputTable> Partition:%d\n %s", partition,this.map_output));
+        
+        // Always invoke the TransactionMapWrapperCallback to let somebody know that
+        // we finished the MAP phase at this partition
+        TransactionMapWrapperCallback callback = mr_ts.getTransactionMapWrapperCallback();
+        assert (callback != null) : "Unexpected null callback for " + mr_ts;
+        assert (callback.isInitialized()) : "Unexpected uninitalized callback for " + mr_ts;
+        callback.run(partition);
+    }
+    
+    /**
+     * Execute the REDUCE phase for the given partition and send the result back 
+     * through the TransactionReduceWrapperCallback. This only reads the data that
+     * was sent to the partition in the SHUFFLE phase, so it does not need to be
+     * executed by the partition's PartitionExecutor.
+     * @param mr_ts
+     * @param partition
+     */
+    public final void runReduce(MapReduceTransaction mr_ts, int partition) {
+        this.mr_ts = mr_ts;
+        this.reduce_input = mr_ts.getReduceInputByPartition(partition);
+        assert(this.reduce_input != null);
+        if (debug.get())
+            LOG.debug(String.format("<ReduceInputTable> Partition:%d\n %s", partition,this.reduce_input));
+        
+        // Sort the the MAP_OUTPUT table
+        // Build an "smart" iterator that loops through the MAP_OUTPUT table key-by-key
+        // If the SHUFFLE phase fed our input into an external sorter, then the
+        // iterator will merge the sorted runs that it spilled to disk
+        ExternalVoltTableSorter sorter = mr_ts.getReduceInputSorterByPartition(partition);
+        ReduceInputIterator<K> rows = null;
+        long num_rows = 0;
+        if (sorter != null) {
+            rows = sorter.iterator();
+            num_rows = sorter.getRowCount();
+            if (debug.get())
+                LOG.debug(String.format("<Sorted_ReduceInputTable> Partition:%d - Merging %d sorted runs [spilled=%d bytes]",
+                          partition, sorter.getRunCount(), sorter.getSpillBytes()));
+        } else {
             VoltTable sorted = VoltTableUtil.sort(this.reduce_input, Pair.of(0, SortDirectionType.ASC));
-            //VoltTable sorted = VoltTableUtil.sort(mr_ts.getReduceInputByPartition(this.partitionId), Pair.of(0, SortDirectionType.ASC));
             assert(sorted != null);
             if (debug.get())
-                LOG.debug(String.format("<Sorted_ReduceInputTable> Partition:%d\n %s", this.partitionId,sorted));
-            
-            this.reduce_output = mr_ts.getReduceOutputByPartition(this.partitionId);
-            assert(this.reduce_output != null);
-  
-            // Make a Hstore.PartitionResult
-            ReduceInputIterator<K> rows = new ReduceInputIterator<K>(sorted);
+                LOG.debug(String.format("<Sorted_ReduceInputTable> Partition:%d\n %s", partition,sorted));
+            rows = new ReduceInputIterator<K>(sorted);
+            num_rows = sorted.getRowCount();
+        }
+        
+        this.reduce_output = mr_ts.getReduceOutputByPartition(partition);
+        assert(this.reduce_output != null);
 
-            // Loop over that iterator and call runReduce
-            if (debug.get())
-                LOG.debug(String.format("REDUCE: About to process %d records for %s on partition %d",
-                          sorted.getRowCount(), this.m_localTxnState, this.partitionId));
-            
-            while (rows.hasNext()) {
-                K key = rows.getKey();
-                this.reduce(key, rows); 
-            }
-            
-            if (debug.get())
-                LOG.debug(String.format("<ReduceOutputTable> Partition:%d\n %s", this.partitionId,this.reduce_output));
-            
-            // Loop over that iterator and call runReduce
-            if (debug.get())
-                LOG.debug(String.format("REDUCE: %s generated %d results on partition %d",
-                          this.m_localTxnState, this.reduce_output.getRowCount(), this.partitionId));
-            ByteString reduceOutData = null;
-            try {
-                ByteBuffer b = ByteBuffer.wrap(FastSerializer.serialize(reduce_output));
-                reduceOutData = ByteString.copyFrom(b.array()); 
-            } catch (Exception ex) {
-                throw new RuntimeException(String.format("Unexpected error when serializing %s reduceOutput data for partition %d",
-                                                         mr_ts, this.partitionId), ex);
-            }
-            ReduceResult.Builder builder = ReduceResult.newBuilder()
-                                                       .setData(reduceOutData)
-                                                       .setPartitionId(this.partitionId)
-                                                       .setStatus(Status.OK);
-           
-            TransactionReduceWrapperCallback callback = mr_ts.getTransactionReduceWrapperCallback();
-            assert (callback != null) : "Unexpected null TransactionReduceWrapperCallback for " + mr_ts;
-            assert (callback.isInitialized()) : "Unexpected uninitalized TransactionReduceWrapperCallback for " + mr_ts;
-            callback.run(builder.build());
+        // Loop over that iterator and call runReduce
+        if (debug.get())
+            LOG.debug(String.format("REDUCE: About to process %d records for %s on partition %d",
+                      num_rows, mr_ts, partition));
+        
+        while (rows.hasNext()) {
+            K key = rows.getKey();
+            this.reduce(key, rows); 
         }
+        if (sorter != null) sorter.close();
         
-        return (result);
+        if (debug.get())
+            LOG.debug(String.format("<ReduceOutputTable> Partition:%d\n %s", partition,this.reduce_output));
+        
+        // Loop over that iterator and call runReduce
+        if (debug.get())
+            LOG.debug(String.format("REDUCE: %s generated %d results on partition %d",
+                      mr_ts, this.reduce_output.getRowCount(), partition));
+        ByteString reduceOutData = null;
+        try {
+            ByteBuffer b = ByteBuffer.wrap(FastSerializer.serialize(reduce_output));
+            reduceOutData = ByteString.copyFrom(b.array()); 
+        } catch (Exception ex) {
+            throw new RuntimeException(String.format("Unexpected error when serializing %s reduceOutput data for partition %d",
+                                                     mr_ts, partition), ex);
+        }
+        ReduceResult.Builder builder = ReduceResult.newBuilder()
+                                                   .setData(reduceOutData)
+                                                   .setPartitionId(partition)
+                                                   .setStatus(Status.OK);
+       
+        TransactionReduceWrapperCallback callback = mr_ts.getTransactionReduceWrapperCallback();
+        assert (callback != null) : "Unexpected null TransactionReduceWrapperCallback for " + mr_ts;
+        assert (callback.isInitialized()) : "Unexpected uninitalized TransactionReduceWrapperCallback for " + mr_ts;
+        callback.run(builder.build());
+    }
+    
+    /**
+     * Sort the MAP output table for this partition and then invoke the
+     * combiner for each key. The combined rows replace the original
+     * contents of the MAP output table.
+     */
+    private void combine() {
+        VoltTable sorted = VoltTableUtil.sort(this.map_output, Pair.of(0, SortDirectionType.ASC));
+        assert(sorted != null);
+        // Sorting walked through all of the rows, so we have to reset the
+        // table's position or the SHUFFLE phase will not see any of them
+        this.map_output.clearRowData();
+        this.map_output.resetRowPosition();
+        
+        ReduceInputIterator<K> rows = new ReduceInputIterator<K>(sorted);
+        while (rows.hasNext()) {
+            K key = rows.getKey();
+            this.combine(key, rows);
+        } // WHILE
     }
     
     /**
@@ -237,6 +365,16 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
         this.map_output.addRow(row);       
     }
 
+    /**
+     * Emit a pre-aggregated MAP output row from combine()
+     * @param key
+     * @param row
+     */
+    public final void combineEmit(K key, Object row[]) {
+        assert(key.equals(row[0]));
+        this.map_output.addRow(row);
+    }
+
     /**
      * 
      * @param row
@@ -503,7 +503,18 @@ public abstract class VoltProcedure implements Poolable, Loggable {
     protected void unregisterCallback(EventObserver<ClientResponse> observer) {
         this.observable.deleteObserver(observer);
     }
-    
+
+    /**
+     * Get a new ClientResponseImpl from the HStoreSite's object pool
+     * @return
+     */
+    private ClientResponseImpl getClientResponse() {
+        if (this.hstore_site == null) {
+            return (new ClientResponseImpl());
+        }
+        return (this.hstore_site.getObjectPools().getClientResponse());
+    }
+
     /**
      * The thing that actually executes the VoltProcedure.run() method 
      * @param paramList
@@ -535,12 +546,13 @@ public abstract class VoltProcedure implements Poolable, Loggable {
             if (d) LOG.error(msg);
             status = Status.ABORT_GRACEFUL;
             status_msg = msg;
-            response = new ClientResponseImpl(txnState.getTransactionId(),
-                                              txnState.getClientHandle(),
-                                              this.partitionId,
-                                              status,
-                                              results,
-                                              status_msg); 
+            response = this.getClientResponse();
+            response.init(txnState.getTransactionId(),
+                          txnState.getClientHandle(),
+                          this.partitionId,
+                          status,
+                          results,
+                          status_msg); 
             if (this.observable != null) this.observable.notifyObservers(response);
             return (response); 
         }
@@ -555,12 +567,13 @@ public abstract class VoltProcedure implements Poolable, Loggable {
                 LOG.error(msg, e);
                 status = Status.ABORT_GRACEFUL;
                 status_msg = msg;
-                response = new ClientResponseImpl(txnState.getTransactionId(),
-                                                  txnState.getClientHandle(),
-                                                  this.partitionId,
-                                                  this.status,
-                                                  this.results,
-                                                  this.status_msg);
+                response = this.getClientResponse();
+                response.init(txnState.getTransactionId(),
+                              txnState.getClientHandle(),
+                              this.partitionId,
+                              this.status,
+                              this.results,
+                              this.status_msg);
                 if (this.observable != null) this.observable.notifyObservers(response);
                 return (response);
             }
@@ -729,7 +742,7 @@ public abstract class VoltProcedure implements Poolable, Loggable {
 //                    this.error));
 //        }
         
-        response = new ClientResponseImpl();
+        response = this.getClientResponse();
         response.init(this.m_localTxnState,
                       this.status,
                       this.m_statusCode,
@@ -0,0 +1,360 @@
+package org.voltdb.compiler;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.voltdb.VoltType;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Bounded LRU cache of ad-hoc query plans. Literals in the predicates and
+ * values of a statement are pulled out into parameters before it is planned,
+ * so the same plan can be reused for queries that only differ by their
+ * constants. The cache is keyed by the normalized SQL text.
+ */
+public class AdHocPlanCache {
+    private static final Logger LOG = Logger.getLogger(AdHocPlanCache.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    // ----------------------------------------------------------------------------
+    // NORMALIZED SQL
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The result of pulling the literals out of a SQL statement
+     */
+    public static class NormalizedSQL {
+        /** The SQL with the extracted literals replaced by '?' */
+        public final String sql;
+        /** The SQL with just its whitespace collapsed */
+        public final String literalSql;
+        /** The extracted literals in the order that they appeared */
+        public final String literals[];
+        /** Whether each extracted literal was a quoted string */
+        public final boolean quoted[];
+
+        private NormalizedSQL(String sql, String literalSql, List<String> literals, List<Boolean> quoted) {
+            this.sql = sql;
+            this.literalSql = literalSql;
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.quoted = new boolean[this.literals.length];
+            for (int i = 0; i < this.quoted.length; i++) {
+                this.quoted[i] = quoted.get(i);
+            } // FOR
+        }
+
+        public boolean isParameterized() {
+            return (this.literals.length > 0);
+        }
+
+        @Override
+        public String toString() {
+            return (this.sql);
+        }
+    }
+
+    /**
+     * Keywords that start a clause whose literals can be turned into parameters
+     */
+    private static final String PARAMETERIZED_CLAUSES[] = {
+        "WHERE", "VALUES", "SET", "HAVING",
+    };
+
+    /**
+     * Keywords that start a clause whose literals must be left alone
+     * (e.g., LIMIT values are baked into the plan)
+     */
+    private static final String LITERAL_CLAUSES[] = {
+        "SELECT", "FROM", "GROUP", "ORDER", "LIMIT", "OFFSET",
+    };
+
+    private static boolean isKeyword(String token, String keywords[]) {
+        for (String k : keywords) {
+            if (k.equalsIgnoreCase(token)) return (true);
+        } // FOR
+        return (false);
+    }
+
+    /**
+     * Collapse the whitespace in the given SQL and replace the numeric and string
+     * literals that appear in its WHERE, VALUES, SET, and HAVING clauses with
+     * parameter placeholders. If the SQL already has placeholders, then none
+     * of its literals are extracted.
+     * @param sql
+     * @return
+     */
+    public static NormalizedSQL normalize(String sql) {
+        sql = sql.trim();
+        while (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1).trim();
+        } // WHILE
+
+        StringBuilder normalized = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        List<String> literals = new ArrayList<String>();
+        List<Boolean> quoted = new ArrayList<Boolean>();
+        boolean parameterize = false;
+        boolean hasPlaceholders = false;
+        boolean space = false;
+
+        final int len = sql.length();
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+
+            // Whitespace
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (space && normalized.length() > 0) {
+                normalized.append(' ');
+                literal.append(' ');
+            }
+            space = false;
+
+            // Quoted String
+            if (c == '\'') {
+                int start = i++;
+                StringBuilder value = new StringBuilder();
+                while (i < len) {
+                    char q = sql.charAt(i++);
+                    if (q == '\'') {
+                        // Two single quotes is an escaped quote
+                        if (i < len && sql.charAt(i) == '\'') {
+                            value.append(q);
+                            i++;
+                            continue;
+                        }
+                        break;
+                    }
+                    value.append(q);
+                } // WHILE
+                String token = sql.substring(start, i);
+                literal.append(token);
+                if (parameterize) {
+                    normalized.append('?');
+                    literals.add(value.toString());
+                    quoted.add(true);
+                } else {
+                    normalized.append(token);
+                }
+            }
+            // Identifier or Keyword
+            else if (Character.isLetter(c) || c == '_' || c == '"') {
+                int start = i++;
+                if (c == '"') {
+                    while (i < len && sql.charAt(i++) != '"') ;
+                } else {
+                    while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) i++;
+                }
+                String token = sql.substring(start, i);
+                if (isKeyword(token, PARAMETERIZED_CLAUSES)) {
+                    parameterize = true;
+                } else if (isKeyword(token, LITERAL_CLAUSES)) {
+                    parameterize = false;
+                }
+                normalized.append(token);
+                literal.append(token);
+            }
+            // Number
+            else if (Character.isDigit(c) || (c == '.' && i+1 < len && Character.isDigit(sql.charAt(i+1)))) {
+                int start = i++;
+                while (i < len) {
+                    char n = sql.charAt(i);
+                    if (Character.isDigit(n) || n == '.') {
+                        i++;
+                    } else if ((n == 'e' || n == 'E') && i+1 < len) {
+                        i++;
+                        if (sql.charAt(i) == '-' || sql.charAt(i) == '+') i++;
+                    } else {
+                        break;
+                    }
+                } // WHILE
+                String token = sql.substring(start, i);
+                literal.append(token);
+                if (parameterize) {
+                    normalized.append('?');
+                    literals.add(token);
+                    quoted.add(false);
+                } else {
+                    normalized.append(token);
+                }
+            }
+            // Everything else
+            else {
+                if (c == '?') hasPlaceholders = true;
+                normalized.append(c);
+                literal.append(c);
+                i++;
+            }
+        } // WHILE
+
+        String literalSql = literal.toString();
+        if (hasPlaceholders || literals.isEmpty()) {
+            literals.clear();
+            quoted.clear();
+            return (new NormalizedSQL(literalSql, literalSql, literals, quoted));
+        }
+        return (new NormalizedSQL(normalized.toString(), literalSql, literals, quoted));
+    }
+
+    // ----------------------------------------------------------------------------
+    // CACHE ENTRY
+    // ----------------------------------------------------------------------------
+
+    /**
+     * A planned ad-hoc statement
+     */
+    public static class Entry {
+        public final String aggregatorFragment;
+        public final String collectorFragment;
+        public final boolean isReplicatedTableDML;
+        public final VoltType paramTypes[];
+
+        public Entry(String aggregatorFragment, String collectorFragment,
+                     boolean isReplicatedTableDML, VoltType paramTypes[]) {
+            this.aggregatorFragment = aggregatorFragment;
+            this.collectorFragment = collectorFragment;
+            this.isReplicatedTableDML = isReplicatedTableDML;
+            this.paramTypes = (paramTypes != null ? paramTypes : new VoltType[0]);
+        }
+
+        /**
+         * Convert the literals that were extracted from a statement into the
+         * parameters for this plan. Returns null if the literals do not match
+         * the types that the planner picked for the parameters.
+         * @param normalized
+         * @return
+         */
+        public Object[] bind(NormalizedSQL normalized) {
+            if (normalized.literals.length != this.paramTypes.length) return (null);
+            Object params[] = new Object[this.paramTypes.length];
+            for (int i = 0; i < params.length; i++) {
+                String value = normalized.literals[i];
+                VoltType type = this.paramTypes[i];
+                if (type == null) return (null);
+                try {
+                    switch (type) {
+                        case STRING:
+                            if (normalized.quoted[i] == false) return (null);
+                            params[i] = value;
+                            break;
+                        case TINYINT:
+                        case SMALLINT:
+                        case INTEGER:
+                        case BIGINT:
+                            if (normalized.quoted[i]) return (null);
+                            params[i] = Long.valueOf(value);
+                            break;
+                        case FLOAT:
+                            if (normalized.quoted[i]) return (null);
+                            params[i] = Double.valueOf(value);
+                            break;
+                        case DECIMAL:
+                            if (normalized.quoted[i]) return (null);
+                            params[i] = new BigDecimal(value);
+                            break;
+                        default:
+                            return (null);
+                    } // SWITCH
+                } catch (NumberFormatException ex) {
+                    return (null);
+                }
+            } // FOR
+            return (params);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // CACHE
+    // ----------------------------------------------------------------------------
+
+    private final int capacity;
+    private final Map<String, Entry> cache;
+
+    /**
+     * Incremented every time the cache is cleared so that plans that were
+     * generated against an old catalog are not added back in
+     */
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private long hits = 0;
+    private long misses = 0;
+
+    public AdHocPlanCache(int capacity) {
+        assert(capacity > 0);
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<String, Entry>(capacity, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return (this.size() > AdHocPlanCache.this.capacity);
+            }
+        };
+    }
+
+    public synchronized Entry get(String sql) {
+        Entry entry = this.cache.get(sql);
+        if (entry != null) {
+            this.hits++;
+        } else {
+            this.misses++;
+        }
+        if (trace.get()) LOG.trace(String.format("%s: %s", (entry != null ? "HIT" : "MISS"), sql));
+        return (entry);
+    }
+
+    /**
+     * Add a new plan into the cache. The plan is ignored if the cache was
+     * cleared after the given generation.
+     * @param sql
+     * @param entry
+     * @param generation
+     * @return
+     */
+    public synchronized boolean put(String sql, Entry entry, long generation) {
+        if (generation != this.generation.get()) {
+            if (debug.get()) LOG.debug("Ignoring stale plan for " + sql);
+            return (false);
+        }
+        this.cache.put(sql, entry);
+        return (true);
+    }
+
+    public long getGeneration() {
+        return (this.generation.get());
+    }
+
+    /**
+     * Remove all of the plans from the cache
+     */
+    public synchronized void clear() {
+        this.generation.incrementAndGet();
+        this.cache.clear();
+    }
+
+    public synchronized int size() {
+        return (this.cache.size());
+    }
+
+    public synchronized long getHitCount() {
+        return (this.hits);
+    }
+
+    public synchronized long getMissCount() {
+        return (this.misses);
+    }
+}
@@ -17,6 +17,13 @@
 
 package org.voltdb.compiler;
 
+import java.io.IOException;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.Encoder;
+
 import edu.brown.hstore.txns.LocalTransaction;
 
 public class AdHocPlannedStmt extends AsyncCompilerResult {
@@ -26,11 +33,43 @@ public class AdHocPlannedStmt extends AsyncCompilerResult {
     public String collectorFragment;
     public String sql;
     public boolean isReplicatedTableDML;
+    /** Values for the literals that were pulled out of the SQL (may be null) */
+    public Object params[];
     
     public AdHocPlannedStmt(LocalTransaction ts) {
         super(ts);
     }
 
+    /**
+     * Serialize the plan parameters into a String so that they can be passed
+     * to the @AdHoc sysproc. Returns null if there are no parameters.
+     */
+    public String getEncodedParameters() {
+        if (this.params == null || this.params.length == 0) return (null);
+        FastSerializer fs = new FastSerializer();
+        try {
+            new ParameterSet(this.params).writeExternal(fs);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to serialize ad-hoc parameters", ex);
+        }
+        return (Encoder.hexEncode(fs.getBytes()));
+    }
+
+    /**
+     * Deserialize the plan parameters created by getEncodedParameters()
+     * @param encoded
+     * @return
+     */
+    public static ParameterSet decodeParameters(String encoded) {
+        if (encoded == null || encoded.isEmpty()) return (ParameterSet.EMPTY);
+        FastDeserializer fds = new FastDeserializer(Encoder.hexDecode(encoded));
+        try {
+            return (fds.readObject(ParameterSet.class));
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to deserialize ad-hoc parameters", ex);
+        }
+    }
+
     @Override
     public String toString() {
         String retval = super.toString();
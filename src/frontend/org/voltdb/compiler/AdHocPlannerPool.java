@@ -0,0 +1,166 @@
+package org.voltdb.compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.hsqldb.HSQLInterface;
+import org.voltdb.CatalogContext;
+import org.voltdb.planner.CompiledPlan;
+import org.voltdb.planner.PlannerContext;
+import org.voltdb.planner.QueryPlanner;
+import org.voltdb.planner.TrivialCostModel;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * A fixed-size pool of in-process QueryPlanners for ad-hoc SQL. Each planner
+ * has its own HSQL instance loaded with the database's DDL, so a planner is
+ * only used by one thread at a time. The planners are created lazily the first
+ * time that they are needed. A pool is tied to a single catalog and should be
+ * shut down when the catalog changes.
+ */
+public class AdHocPlannerPool {
+    private static final Logger LOG = Logger.getLogger(AdHocPlannerPool.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private final CatalogContext catalogContext;
+    private final int size;
+    private final AtomicInteger created = new AtomicInteger(0);
+    private final LinkedBlockingQueue<QueryPlanner> idle = new LinkedBlockingQueue<QueryPlanner>();
+    /** QueryPlanner -> HSQLInterface for all of the planners that we have created */
+    private final Map<QueryPlanner, HSQLInterface> hsqls = new HashMap<QueryPlanner, HSQLInterface>();
+    private boolean shutdown = false;
+
+    public AdHocPlannerPool(CatalogContext catalogContext, int size) {
+        assert(size > 0);
+        this.catalogContext = catalogContext;
+        this.size = size;
+    }
+
+    public CatalogContext getCatalogContext() {
+        return (this.catalogContext);
+    }
+
+    /**
+     * Get an idle planner. If all of the planners are in use and the pool
+     * is full, then this will block until one is given back or the pool
+     * is shut down.
+     * @return
+     * @throws Exception
+     */
+    private QueryPlanner acquire() throws Exception {
+        QueryPlanner planner = this.idle.poll();
+        if (planner != null) return (planner);
+
+        if (this.created.incrementAndGet() <= this.size) {
+            try {
+                HSQLInterface hsql = PlannerTool.loadHSQL(this.catalogContext.database);
+                planner = new QueryPlanner(this.catalogContext.cluster,
+                                           this.catalogContext.database,
+                                           hsql, new DatabaseEstimates(), false, true);
+                synchronized (this) {
+                    if (this.shutdown) {
+                        hsql.shutdown();
+                        throw new IllegalStateException("The ad-hoc planner pool has been shut down");
+                    }
+                    this.hsqls.put(planner, hsql);
+                }
+            } catch (Exception ex) {
+                this.created.decrementAndGet();
+                throw ex;
+            }
+            if (debug.get()) LOG.debug(String.format("Created ad-hoc planner #%d", this.created.get()));
+            return (planner);
+        }
+        this.created.decrementAndGet();
+        // The planners are not given back once we are shut down, so we can't wait forever
+        while (true) {
+            planner = this.idle.poll(100, TimeUnit.MILLISECONDS);
+            if (planner != null) return (planner);
+            synchronized (this) {
+                if (this.shutdown) throw new IllegalStateException("The ad-hoc planner pool has been shut down");
+            }
+        } // WHILE
+    }
+
+    /**
+     * Plan the given SQL statement. The PlanColumns that the planner creates for
+     * it are thrown away once the plan has been serialized, since nobody ever
+     * looks them up again.
+     * @param sql
+     * @return
+     */
+    public PlannerTool.Result plan(String sql) {
+        PlannerTool.Result result = null;
+        QueryPlanner planner = null;
+        PlannerContext context = PlannerContext.singleton();
+        try {
+            planner = this.acquire();
+            context.startTracking();
+            CompiledPlan plan = planner.compilePlan(new TrivialCostModel(), sql,
+                                                    "PlannerTool", "PlannerToolProc", false, null);
+            if (plan != null) {
+                result = PlannerTool.toResult(plan);
+            } else {
+                result = new PlannerTool.Result();
+                result.errors = planner.getErrorMessage();
+                if (result.errors == null) result.errors = "UNKNOWN PLANNING ERROR";
+            }
+        } catch (Throwable ex) {
+            if (debug.get()) LOG.warn("Failed to plan " + sql, ex);
+            result = new PlannerTool.Result();
+            result.errors = (ex.getMessage() != null ? ex.getMessage() : "UNKNOWN PLANNING ERROR");
+        } finally {
+            context.releaseTrackedColumns();
+            if (planner != null) this.release(planner);
+        }
+        if (trace.get()) LOG.trace(sql + "\n" + result);
+        return (result);
+    }
+
+    /**
+     * Give a planner back to the pool. If the pool was shut down while the
+     * planner was in use, then its HSQL instance is shut down now.
+     * @param planner
+     */
+    private synchronized void release(QueryPlanner planner) {
+        if (this.shutdown) {
+            this.shutdownPlanner(planner);
+        } else {
+            this.idle.add(planner);
+        }
+    }
+
+    private void shutdownPlanner(QueryPlanner planner) {
+        HSQLInterface hsql = this.hsqls.remove(planner);
+        assert(hsql != null);
+        try {
+            hsql.shutdown();
+        } catch (Throwable ex) {
+            LOG.warn("Failed to shut down ad-hoc planner's HSQL instance", ex);
+        }
+    }
+
+    /**
+     * Shut down the HSQL instances for all of the planners in this pool. The
+     * planners that are being used right now are shut down when they finish.
+     */
+    public synchronized void shutdown() {
+        if (this.shutdown) return;
+        this.shutdown = true;
+        QueryPlanner planner = null;
+        while ((planner = this.idle.poll()) != null) {
+            this.shutdownPlanner(planner);
+        } // WHILE
+        if (debug.get()) LOG.debug(String.format("Shut down ad-hoc planner pool [inUse=%d]", this.hsqls.size()));
+    }
+}
@@ -19,8 +19,12 @@ package org.voltdb.compiler;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -33,6 +37,7 @@ import org.voltdb.utils.DumpManager;
 import org.voltdb.utils.Encoder;
 
 import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
@@ -49,7 +54,6 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
     LinkedBlockingQueue<AsyncCompilerWork> m_work = new LinkedBlockingQueue<AsyncCompilerWork>();
     final ArrayDeque<AsyncCompilerResult> m_finished = new ArrayDeque<AsyncCompilerResult>();
     //HSQLInterface m_hsql;
-    PlannerTool m_ptool;
     int counter = 0;
     final int m_siteId;
     boolean m_isLoaded = false;
@@ -63,51 +67,63 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
     final String m_dumpId;
     long m_currentDumpTimestamp = 0;
 
-    public AsyncCompilerWorkThread(CatalogContext context, int siteId) {
-        m_ptool = null;
-        //m_hsql = null;
-        m_siteId = siteId;
-        m_context = context;
+    /** Plans for normalized ad-hoc SQL statements */
+    final AdHocPlanCache m_planCache;
+    /** In-process planners for the current catalog (created lazily) */
+    AdHocPlannerPool m_planners;
+    /** Plans the statements that are not in the cache */
+    final ExecutorService m_plannerThreads;
+    final int m_numPlanners;
 
-        setName("Ad Hoc Planner");
-
-        m_dumpId = "AdHocPlannerThread." + String.valueOf(m_siteId);
-        DumpManager.register(m_dumpId, this);
+    public AsyncCompilerWorkThread(CatalogContext context, int siteId) {
+        this(null, context, siteId);
     }
     
     public AsyncCompilerWorkThread(HStoreSite hStoreSite, int siteId) {
-        m_ptool = null;
+        this(hStoreSite, null, siteId);
+    }
+
+    private AsyncCompilerWorkThread(HStoreSite hStoreSite, CatalogContext context, int siteId) {
         //m_hsql = null;
         m_siteId = siteId;
-        //m_context = context;
+        m_context = context;
         m_hStoreSite = hStoreSite;
 
         setName("Ad Hoc Planner");
 
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        m_planCache = new AdHocPlanCache(Math.max(1, hstore_conf.site.exec_adhoc_plan_cache_size));
+        m_numPlanners = Math.max(1, hstore_conf.site.exec_adhoc_planner_threads);
+        m_plannerThreads = Executors.newFixedThreadPool(m_numPlanners, new ThreadFactory() {
+            final AtomicInteger m_ctr = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, getName() + "-" + m_ctr.getAndIncrement());
+                t.setDaemon(true);
+                return (t);
+            }
+        });
+
         m_dumpId = "AdHocPlannerThread." + String.valueOf(m_siteId);
         DumpManager.register(m_dumpId, this);
     }
 
-    public synchronized void ensureLoadedPlanner() {
-        // if the process was created but is dead, clear the placeholder
-        if ((m_ptool != null) && (m_ptool.expensiveIsRunningCheck() == false)) {
-            LOG.error("Planner process died on its own. It will be restarted if needed.");
-            m_ptool = null;
-        }
-        // if no placeholder, create a new plannertool
-        if (m_ptool == null) {
-            m_ptool = PlannerTool.createPlannerToolProcess(m_hStoreSite.getCatalogContext().catalog.serialize());
-        }
+    private CatalogContext getCatalogContext() {
+        return (m_hStoreSite != null ? m_hStoreSite.getCatalogContext() : m_context);
     }
 
-    public void verifyEverthingIsKosher() {
-        if (m_ptool != null) {
-            // check if the planner process has been blocked for 2 seconds
-            if (m_ptool.perhapsIsHung(5000)) {
-                LOG.error("Was forced to kill the planner process due to a timeout. It will be restarted if needed.");
-                m_ptool.kill();
-            }
+    /**
+     * Get the planner pool for the current catalog
+     */
+    private synchronized AdHocPlannerPool getPlanners() {
+        if (m_planners == null) {
+            m_planners = new AdHocPlannerPool(getCatalogContext(), m_numPlanners);
         }
+        return (m_planners);
+    }
+
+    public AdHocPlanCache getPlanCache() {
+        return (m_planCache);
     }
 
 
@@ -133,9 +149,11 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
 
     /**
      * Set the flag that tells this thread to update its
-     * catalog when it's threadsafe.
+     * catalog when it's threadsafe. All of the cached plans
+     * are thrown away right away.
      */
     public void notifyOfCatalogUpdate() {
+        m_planCache.clear();
         m_shouldUpdateCatalog.set(true);
     }
 
@@ -202,12 +220,13 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
                 // deal with reloading the global catalog
                 if (m_shouldUpdateCatalog.compareAndSet(true, false)) {
                 	//TODO: @AdHoc for hstoresite, how to switch catalogcontext for hstoresite?
-                    m_context = VoltDB.instance().getCatalogContext();
-                    // kill the planner process which has an outdated catalog
-                    // it will get created again for the next stmt
-                    if (m_ptool != null) {
-                        m_ptool.kill();
-                        m_ptool = null;
+                    if (m_hStoreSite == null) m_context = VoltDB.instance().getCatalogContext();
+                    // throw away the planners that have an outdated catalog
+                    // they will get created again for the next stmt
+                    m_planCache.clear();
+                    synchronized (this) {
+                        if (m_planners != null) m_planners.shutdown();
+                        m_planners = null;
                     }
                 }
 
@@ -216,10 +235,12 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
                     result = compileAdHocPlan((AdHocPlannerWork) work);
                 if (work instanceof CatalogChangeWork)
                     result = prepareApplicationCatalogDiff((CatalogChangeWork) work);
-                assert(result != null);
 
-                synchronized (m_finished) {
-                    m_finished.add(result);
+                // Cache misses are finished by the planner threads
+                if (result != null) {
+                    synchronized (m_finished) {
+                        m_finished.add(result);
+                    }
                 }
             }
 
@@ -229,8 +250,11 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
                 e.printStackTrace();
             }
         }
-        if (m_ptool != null)
-            m_ptool.kill();
+        m_plannerThreads.shutdownNow();
+        synchronized (this) {
+            if (m_planners != null) m_planners.shutdown();
+            m_planners = null;
+        }
     }
 
     public void notifyShouldUpdateCatalog() {
@@ -277,34 +301,137 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         return context;
     }
 
-    private AsyncCompilerResult compileAdHocPlan(AdHocPlannerWork work) {
-        AdHocPlannedStmt plannedStmt = new AdHocPlannedStmt(work.ts);
+    /**
+     * Look for a plan for the given ad-hoc SQL in the cache. If there isn't one,
+     * then the statement is handed off to the planner threads and this
+     * returns null.
+     */
+    private AsyncCompilerResult compileAdHocPlan(final AdHocPlannerWork work) {
+        final AdHocPlannedStmt plannedStmt = new AdHocPlannedStmt(work.ts);
         plannedStmt.clientHandle = work.clientHandle;
 //        plannedStmt.connectionId = work.connectionId;
 //        plannedStmt.hostname = work.hostname;
 //        plannedStmt.clientData = work.clientData;
+        plannedStmt.sql = work.sql;
 
+        final AdHocPlanCache.NormalizedSQL normalized;
         try {
-            ensureLoadedPlanner();
-
-            PlannerTool.Result result = m_ptool.planSql(work.sql);
-
-            plannedStmt.aggregatorFragment = result.onePlan;
-            plannedStmt.collectorFragment = result.allPlan;
-
-            plannedStmt.isReplicatedTableDML = result.replicatedDML;
-            plannedStmt.sql = work.sql;
-            plannedStmt.errorMsg = result.errors;
-            if (plannedStmt.errorMsg != null)
-                LOG.error("PlannerTool Error: " + result.errors);
+            if ((work.sql == null) || (work.sql.trim().length() == 0)) {
+                plannedStmt.errorMsg = "Can't plan empty or null SQL.";
+                return plannedStmt;
+            }
+            normalized = AdHocPlanCache.normalize(work.sql);
+            if (lookupAdHocPlan(plannedStmt, normalized)) {
+                return plannedStmt;
+            }
         }
         catch (Exception e) {
             String msg = "Unexpected Ad Hoc Planning Error";
             LOG.warn(msg, e);
             plannedStmt.errorMsg = msg + ": " + e.getMessage();
+            return plannedStmt;
+        }
+
+        final AdHocPlannerPool planners = getPlanners();
+        final long generation = m_planCache.getGeneration();
+        m_plannerThreads.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    planAdHocSQL(plannedStmt, normalized, planners, generation);
+                }
+                catch (Throwable e) {
+                    String msg = "Unexpected Ad Hoc Planning Error";
+                    LOG.warn(msg, e);
+                    plannedStmt.errorMsg = msg + ": " + e.getMessage();
+                }
+                synchronized (m_finished) {
+                    m_finished.add(plannedStmt);
+                }
+            }
+        });
+        return (null);
+    }
+
+    /**
+     * Fill in the AdHocPlannedStmt from the plan cache. The plan for the
+     * parameterized SQL is used if the literals match its parameter types,
+     * otherwise we look for a plan for the exact SQL.
+     * @return true if there was a usable plan in the cache
+     */
+    private boolean lookupAdHocPlan(AdHocPlannedStmt plannedStmt, AdHocPlanCache.NormalizedSQL normalized) {
+        AdHocPlanCache.Entry entry = m_planCache.get(normalized.sql);
+        if (entry != null && this.setAdHocPlan(plannedStmt, entry, normalized)) {
+            return (true);
+        }
+        if (normalized.isParameterized()) {
+            entry = m_planCache.get(normalized.literalSql);
+            if (entry != null && this.setAdHocPlan(plannedStmt, entry, null)) {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    private boolean setAdHocPlan(AdHocPlannedStmt plannedStmt,
+                                 AdHocPlanCache.Entry entry,
+                                 AdHocPlanCache.NormalizedSQL normalized) {
+        Object params[] = null;
+        if (normalized != null && normalized.isParameterized()) {
+            params = entry.bind(normalized);
+            if (params == null) return (false);
+        }
+        plannedStmt.aggregatorFragment = entry.aggregatorFragment;
+        plannedStmt.collectorFragment = entry.collectorFragment;
+        plannedStmt.isReplicatedTableDML = entry.isReplicatedTableDML;
+        plannedStmt.params = params;
+        return (true);
+    }
+
+    /**
+     * Plan an ad-hoc statement that was not in the cache. We first try to plan
+     * the parameterized version of the SQL. If that fails or the literals do not
+     * fit the plan's parameters, then we fall back to planning the exact SQL.
+     */
+    private void planAdHocSQL(AdHocPlannedStmt plannedStmt,
+                              AdHocPlanCache.NormalizedSQL normalized,
+                              AdHocPlannerPool planners,
+                              long generation) {
+        // Somebody else may have planned the same statement while we were waiting
+        if (lookupAdHocPlan(plannedStmt, normalized)) {
+            return;
         }
 
-        return plannedStmt;
+        PlannerTool.Result result = null;
+        if (normalized.isParameterized()) {
+            result = planners.plan(normalized.sql);
+            if (result.errors == null) {
+                AdHocPlanCache.Entry entry = new AdHocPlanCache.Entry(
+                        result.onePlan, result.allPlan, result.replicatedDML, result.paramTypes);
+                if (this.setAdHocPlan(plannedStmt, entry, normalized)) {
+                    m_planCache.put(normalized.sql, entry, generation);
+                    return;
+                }
+            }
+            if (debug.get())
+                LOG.debug("Unable to use parameterized plan for ad-hoc SQL. Planning exact statement\n" + normalized.literalSql);
+        }
+
+        result = planners.plan(normalized.literalSql);
+        if (result.errors != null) {
+            plannedStmt.errorMsg = result.errors;
+            LOG.error("PlannerTool Error: " + result.errors);
+            return;
+        }
+        // Statements that already have placeholders need values that we don't have
+        if (result.paramTypes.length != 0) {
+            plannedStmt.errorMsg = "Ad hoc SQL statements cannot have parameter placeholders";
+            return;
+        }
+        AdHocPlanCache.Entry entry = new AdHocPlanCache.Entry(
+                result.onePlan, result.allPlan, result.replicatedDML, null);
+        this.setAdHocPlan(plannedStmt, entry, null);
+        m_planCache.put(normalized.literalSql, entry, generation);
     }
 
     private AsyncCompilerResult prepareApplicationCatalogDiff(CatalogChangeWork work) {
@@ -30,11 +30,13 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 import org.hsqldb.HSQLInterface;
 import org.hsqldb.HSQLInterface.HSQLParseException;
+import org.voltdb.VoltType;
 import org.voltdb.catalog.Catalog;
 import org.voltdb.catalog.Cluster;
 import org.voltdb.catalog.Database;
 import org.voltdb.planner.CompiledPlan;
 import org.voltdb.planner.CompiledPlan.Fragment;
+import org.voltdb.planner.ParameterInfo;
 import org.voltdb.planner.QueryPlanner;
 import org.voltdb.planner.TrivialCostModel;
 import org.voltdb.plannodes.PlanNodeList;
@@ -61,6 +63,8 @@ public class PlannerTool {
         String allPlan = null;
         String errors = null;
         boolean replicatedDML = false;
+        /** Types of the statement's parameters (only set by the in-process planner) */
+        VoltType paramTypes[] = null;
 
         @Override
         public String toString() {
@@ -241,6 +245,52 @@ public class PlannerTool {
         return new PlannerTool(process, in);
     }
 
+    /**
+     * Create a new HSQL instance that is loaded with the DDL of the given database
+     * @param db
+     * @return
+     * @throws HSQLParseException
+     */
+    static HSQLInterface loadHSQL(Database db) throws HSQLParseException {
+        HSQLInterface hsql = HSQLInterface.loadHsqldb();
+        String hexDDL = db.getSchema();
+        String ddl = Encoder.hexDecodeToString(hexDDL);
+        String[] commands = ddl.split(";");
+        for (String command : commands) {
+            command = command.trim();
+            if (command.length() == 0)
+                continue;
+            hsql.runDDLCommand(command);
+        }
+        return (hsql);
+    }
+
+    /**
+     * Serialize the fragments of a CompiledPlan into a Result that can be
+     * handed to the @AdHoc sysproc.
+     * @param plan
+     * @return
+     */
+    static Result toResult(CompiledPlan plan) {
+        assert(plan.fragments.size() <= 2);
+        Result retval = new Result();
+        for (Fragment frag : plan.fragments) {
+            PlanNodeList planList = new PlanNodeList(frag.planGraph);
+            String serializedPlan = planList.toJSONString();
+            if (frag.multiPartition) {
+                retval.allPlan = serializedPlan;
+            } else {
+                retval.onePlan = serializedPlan;
+            }
+        } // FOR
+        retval.replicatedDML = plan.replicatedTableDML;
+        retval.paramTypes = new VoltType[plan.parameters.size()];
+        for (ParameterInfo param : plan.parameters) {
+            retval.paramTypes[param.index] = param.type;
+        } // FOR
+        return (retval);
+    }
+
     static synchronized void log(String str) {
         try {
             if (m_logWriter == null) {
@@ -307,21 +357,13 @@ public class PlannerTool {
         // LOAD HSQL
         //////////////////////
 
-        HSQLInterface hsql = HSQLInterface.loadHsqldb();
-        String hexDDL = db.getSchema();
-        String ddl = Encoder.hexDecodeToString(hexDDL);
-        String[] commands = ddl.split(";");
-        for (String command : commands) {
-            command = command.trim();
-            if (command.length() == 0)
-                continue;
-            try {
-                hsql.runDDLCommand(command);
-            } catch (HSQLParseException e) {
-                // need a good error message here
-                log("Error creating hsql: " + e.getMessage());
-                System.exit(82);
-            }
+        HSQLInterface hsql = null;
+        try {
+            hsql = loadHSQL(db);
+        } catch (HSQLParseException e) {
+            // need a good error message here
+            log("Error creating hsql: " + e.getMessage());
+            System.exit(82);
         }
 
         log("hsql loaded");
@@ -389,29 +431,21 @@ public class PlannerTool {
             
             log("finished planning stmt");
 
-            assert(plan.fragments.size() <= 2);
-
             //////////////////////
             // OUTPUT THE RESULT
             //////////////////////
 
+            Result result = toResult(plan);
+            if (result.allPlan != null) {
+                log("PLAN-ALL GENERATED");
+                System.out.println("PLAN-ALL: " + result.allPlan);
+            }
             // print out the run-at-every-partition fragment
-            for (int i = 0; i < plan.fragments.size(); i++) {
-                Fragment frag = plan.fragments.get(i);
-                PlanNodeList planList = new PlanNodeList(frag.planGraph);
-                String serializedPlan = planList.toJSONString();
-                String encodedPlan = serializedPlan; //Encoder.compressAndBase64Encode(serializedPlan);
-                if (frag.multiPartition) {
-                    log("PLAN-ALL GENERATED");
-                    System.out.println("PLAN-ALL: " + encodedPlan);
-                }
-                else {
-                    log("PLAN-ONE GENERATED");
-                    System.out.println("PLAN-ONE: " + encodedPlan);
-                }
+            if (result.onePlan != null) {
+                log("PLAN-ONE GENERATED");
+                System.out.println("PLAN-ONE: " + result.onePlan);
             }
-
-            if (plan.replicatedTableDML) {
+            if (result.replicatedDML) {
                 System.out.println("REPLICATED-DML: true");
             }
             
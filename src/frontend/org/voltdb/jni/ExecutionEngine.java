@@ -37,6 +37,7 @@ import org.voltdb.catalog.Table;
 import org.voltdb.exceptions.EEException;
 import org.voltdb.export.ExportProtoMessage;
 import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.DBBPool.BBContainer;
 import org.voltdb.utils.LogKeys;
 import org.voltdb.utils.VoltLoggerFactory;
@@ -104,6 +105,33 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
     public void deserializedBytes(final int numBytes) {
     }
 
+    /**
+     * Optional pool of direct buffers for output dependencies. If this is set,
+     * then the result tables returned in a DependencySet are views over containers
+     * from this pool. Whomever gets the DependencySet is responsible for discarding
+     * those containers once the txn is finished with the tables.
+     */
+    protected DBBPool m_resultPool;
+    
+    /**
+     * Direct buffer that we stage heap-backed input dependencies into
+     * before we hand them down to the EE.
+     */
+    private BBContainer m_dependencyBufferOrigin;
+
+    /**
+     * Set the DBBPool to use for the output dependencies of this engine.
+     * Passing null means that each result table will be copied into its own heap buffer.
+     * @param pool
+     */
+    public void setResultBufferPool(DBBPool pool) {
+        m_resultPool = pool;
+    }
+    
+    public DBBPool getResultBufferPool() {
+        return (m_resultPool);
+    }
+
     /*
      * State to manage dependency tables for the current work unit.
      * The EE pulls from this state as necessary across JNI (or IPC)
@@ -276,6 +304,55 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
         return null;
     }
 
+    /**
+     * Called from the ExecutionEngine to request the next dependency as a direct
+     * ByteBuffer that it can read in place. The returned buffer's capacity is exactly
+     * the size of the serialized table. If the VoltTable is already backed by a direct
+     * buffer (e.g., it was produced by an EE on this site), then we just return a view
+     * of it. Otherwise it is staged into a direct buffer that is reused for every call,
+     * so the EE must be done with the previous dependency before asking for the next one.
+     */
+    public ByteBuffer nextDependencyAsBuffer(final int dependencyId) {
+        final VoltTable vt =  m_dependencyTracker.nextDependency(dependencyId);
+        if (vt == null) {
+            if (d) LOG.debug(String.format("No more Dependencies for id %d", dependencyId));
+            return (null);
+        }
+        final int size = vt.getUnderlyingBufferSize();
+        final ByteBuffer src = vt.getDirectDataReference().duplicate();
+        src.position(0);
+        src.limit(size);
+        if (src.isDirect()) {
+            if (d) LOG.debug(String.format("Passing direct Dependency %d to EE [rows=%d, bytes=%d]",
+                                           dependencyId, vt.getRowCount(), size));
+            return (src.slice());
+        }
+        
+        if (m_dependencyBufferOrigin == null || m_dependencyBufferOrigin.b.capacity() < size) {
+            if (m_dependencyBufferOrigin != null) m_dependencyBufferOrigin.discard();
+            // Round up to the next power of two so that we don't keep reallocating
+            int capacity = Math.max(4096, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+            m_dependencyBufferOrigin = DBBPool.allocateDirect(capacity);
+        }
+        final ByteBuffer staging = m_dependencyBufferOrigin.b;
+        staging.clear();
+        staging.put(src);
+        staging.flip();
+        if (d) LOG.debug(String.format("Staged Dependency %d for EE [rows=%d, bytes=%d, capacity=%d]",
+                                       dependencyId, vt.getRowCount(), size, staging.capacity()));
+        return (staging.slice());
+    }
+    
+    /**
+     * Return the staging buffer used by nextDependencyAsBuffer() back to the global stock.
+     */
+    protected void releaseDependencyBuffer() {
+        if (m_dependencyBufferOrigin != null) {
+            m_dependencyBufferOrigin.discard();
+            m_dependencyBufferOrigin = null;
+        }
+    }
+
     /*
      * Interface frontend invokes to communicate to CPP execution engine.
      */
@@ -309,10 +386,13 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
         long txnId, long lastCommittedTxnId, long undoQuantumToken)
       throws EEException;
 
-    /** Run a plan fragment */
+    /**
+     * Run an ad-hoc plan fragment. The ParameterSet holds the values for
+     * any literals that were pulled out of the SQL when it was planned.
+     */
     abstract public VoltTable executeCustomPlanFragment(
             String plan, int outputDepId,
-            int inputDepId, long txnId,
+            int inputDepId, ParameterSet parameterSet, long txnId,
             long lastCommittedTxnId, long undoQuantumToken) throws EEException;
 
     /** Run multiple query plan fragments */
@@ -906,12 +906,13 @@ public class ExecutionEngineIPC extends ExecutionEngine {
 
     @Override
     public VoltTable executeCustomPlanFragment(final String plan, int outputDepId,
-            int inputDepId, final long txnId, final long lastCommittedTxnId,
-            final long undoQuantumToken) throws EEException
+            int inputDepId, final ParameterSet parameterSet, final long txnId,
+            final long lastCommittedTxnId, final long undoQuantumToken) throws EEException
     {
         final FastSerializer fser = new FastSerializer();
         try {
             fser.writeString(plan);
+            (parameterSet != null ? parameterSet : ParameterSet.EMPTY).writeExternal(fser);
         } catch (final IOException exception) {
             throw new RuntimeException(exception);
         }
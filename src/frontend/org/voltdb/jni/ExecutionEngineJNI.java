@@ -183,6 +183,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         deserializerBufferOrigin.discard();
         exceptionBuffer = null;
         exceptionBufferOrigin.discard();
+        releaseDependencyBuffer();
         if (t) LOG.trace("Released Execution Engine.");
     }
     
@@ -192,12 +193,9 @@ public class ExecutionEngineJNI extends ExecutionEngine {
      */
     @Override
     public void loadCatalog(final String serializedCatalog) throws EEException {
-        //C++ JSON deserializer is not thread safe, must synchronize
+        // The EE serializes its own JSON parsing, so we don't need to hold a JVM-wide lock here
         LOG.trace("Loading Application Catalog...");
-        int errorCode = 0;
-        synchronized (ExecutionEngineJNI.class) {
-            errorCode = nativeLoadCatalog(pointer, serializedCatalog);
-        }
+        int errorCode = nativeLoadCatalog(pointer, serializedCatalog);
         checkErrorCode(errorCode);
         //LOG.info("Loaded Catalog.");
     }
@@ -208,12 +206,8 @@ public class ExecutionEngineJNI extends ExecutionEngine {
      */
     @Override
     public void updateCatalog(final String catalogDiffs, int catalogVersion) throws EEException {
-        //C++ JSON deserializer is not thread safe, must synchronize
         if (t) LOG.trace("Loading Application Catalog...");
-        int errorCode = 0;
-        synchronized (ExecutionEngineJNI.class) {
-            errorCode = nativeUpdateCatalog(pointer, catalogDiffs, catalogVersion);
-        }
+        int errorCode = nativeUpdateCatalog(pointer, catalogDiffs, catalogVersion);
         checkErrorCode(errorCode);
         //LOG.info("Loaded Catalog.");
     }
@@ -273,17 +267,21 @@ public class ExecutionEngineJNI extends ExecutionEngine {
 
     @Override
     public VoltTable executeCustomPlanFragment(final String plan, final int outputDepId,
-            final int inputDepId, final long txnId, final long lastCommittedTxnId,
-            final long undoQuantumToken) throws EEException
+            final int inputDepId, final ParameterSet parameterSet, final long txnId,
+            final long lastCommittedTxnId, final long undoQuantumToken) throws EEException
     {
+        // serialize the param set (the EE always expects one, even if it is empty)
         fsForParameterSet.clear();
+        try {
+            (parameterSet != null ? parameterSet : ParameterSet.EMPTY).writeExternal(fsForParameterSet);
+        } catch (final IOException exception) {
+            throw new RuntimeException(exception); // can't happen
+        }
         deserializer.clear();
-        //C++ JSON deserializer is not thread safe, must synchronize
-        int errorCode = 0;
-        synchronized (ExecutionEngineJNI.class) {
-            errorCode = nativeExecuteCustomPlanFragment(pointer, plan, outputDepId, inputDepId,
+        // Only the plan parse inside the EE is serialized (see json_spirit_reader.cpp),
+        // so custom fragments on different partitions can execute concurrently
+        int errorCode = nativeExecuteCustomPlanFragment(pointer, plan, outputDepId, inputDepId,
                                                         txnId, lastCommittedTxnId, undoQuantumToken);
-        }
         checkErrorCode(errorCode);
 
         try {
@@ -350,16 +348,18 @@ public class ExecutionEngineJNI extends ExecutionEngine {
 
         // get a copy of the result buffers and make the tables use the copy
         ByteBuffer fullBacking = deserializer.buffer();
+        BBContainer containers[] = (m_resultPool != null ? new BBContainer[batchSize] : null);
         try {
             // read the complete size of the buffer used
             fullBacking.getInt();
             // check if anything was changed
             m_dirty = (fullBacking.get() == 1 ? true : false);
 
-            // get a copy of the buffer
-            // Because this is a copy, that means we don't have to worry about the EE overwriting us
-            // Not sure of the implications for performance.
-             // deserializer.readBuffer(totalSize);
+            // We still have to copy each table out of the shared buffer because the EE
+            // will overwrite it on the next call. If we have a result pool, then the copy
+            // goes into a pooled direct buffer and the VoltTable is just a view over it.
+            // Those containers are handed back in the DependencySet so that they
+            // can be discarded when the txn is finished.
             
             // At this point we don't know how many dependencies we expect to get back from our fragments.
             // We're just going to assume that each PlanFragment generated one and only one output dependency
@@ -384,10 +384,22 @@ public class ExecutionEngineJNI extends ExecutionEngine {
                     
                     int tableSize = fullBacking.getInt();
                     assert(tableSize < 10000000);
-                    byte tableBytes[] = new byte[tableSize];
-                    fullBacking.get(tableBytes, 0, tableSize);
-                    final ByteBuffer tableBacking = ByteBuffer.wrap(tableBytes);
-//                    fullBacking.position(fullBacking.position() + tableSize);
+                    final ByteBuffer tableBacking;
+                    if (containers != null) {
+                        BBContainer c = m_resultPool.acquire(tableSize);
+                        ByteBuffer src = fullBacking.duplicate();
+                        src.limit(src.position() + tableSize);
+                        c.b.clear();
+                        c.b.put(src);
+                        c.b.flip();
+                        tableBacking = c.b.slice();
+                        containers[dep_ctr] = c;
+                        fullBacking.position(fullBacking.position() + tableSize);
+                    } else {
+                        byte tableBytes[] = new byte[tableSize];
+                        fullBacking.get(tableBytes, 0, tableSize);
+                        tableBacking = ByteBuffer.wrap(tableBytes);
+                    }
 
                     results[dep_ctr] = PrivateVoltTableFactory.createVoltTableFromBuffer(tableBacking, true);
                     dependencies[dep_ctr] = depid;
@@ -397,9 +409,16 @@ public class ExecutionEngineJNI extends ExecutionEngine {
                 } // FOR
             } // FOR
             
-            return (new DependencySet(dependencies, results));
+            DependencySet result = new DependencySet(dependencies, results);
+            result.containers = containers;
+            return (result);
         } catch (Throwable ex) {
             LOG.error("Failed to deserialze result table" + ex);
+            if (containers != null) {
+                for (BBContainer c : containers) {
+                    if (c != null) c.discard();
+                } // FOR
+            }
             throw new EEException(ERRORCODE_WRONG_SERIALIZED_BYTES);
         }
     }
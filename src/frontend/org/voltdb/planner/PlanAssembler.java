@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.voltdb.VoltType;
@@ -78,7 +79,16 @@ public class PlanAssembler {
     private static final boolean INCLUDE_SEND_FOR_ALL = true;
     
     private static final int MAX_LOCAL_ID = 1000000;
-    private static boolean m_useGlobalIds = true;
+    
+    /**
+     * Whether the current thread's planner wants global ids. This is per-thread
+     * so that the ad-hoc planner pool can compile statements concurrently.
+     */
+    private static final ThreadLocal<Boolean> m_useGlobalIds = new ThreadLocal<Boolean>() {
+        protected Boolean initialValue() {
+            return (Boolean.TRUE);
+        };
+    };
 
     public static final String AGGREGATE_TEMP_TABLE = "VOLT_AGGREGATE_NODE_TEMP_TABLE";
     
@@ -86,8 +96,12 @@ public class PlanAssembler {
      * Internal PlanNodeId counter. Note that this member is static, which means
      * all PlanNodes will have a unique id
      */
-    private static int NEXT_PLAN_NODE_ID = 1;
-    private static int NEXT_LOCAL_PLAN_NODE_ID = 1;
+    private static final AtomicInteger NEXT_PLAN_NODE_ID = new AtomicInteger(1);
+    private static final ThreadLocal<int[]> NEXT_LOCAL_PLAN_NODE_ID = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return (new int[]{ 1 });
+        };
+    };
 
     /**
      * Dependency id counter. This is only used for connection send and receive
@@ -143,20 +157,20 @@ public class PlanAssembler {
     }
 
     static void setUseGlobalIds(boolean useGlobalIds) {
-        if (useGlobalIds) {
-            m_useGlobalIds = true;
-            NEXT_LOCAL_PLAN_NODE_ID = 1;
-        } else {
-            m_useGlobalIds = false;
-        }
+        // Local ids only need to be unique within a single statement's plan, so
+        // we can start over for every statement. This keeps long-running
+        // planners from running past MAX_LOCAL_ID
+        m_useGlobalIds.set(useGlobalIds);
+        NEXT_LOCAL_PLAN_NODE_ID.get()[0] = 1;
     }
 
     public static int getNextPlanNodeId() {
-        assert ((NEXT_LOCAL_PLAN_NODE_ID + 1) <= MAX_LOCAL_ID);
-        if (m_useGlobalIds)
-            return NEXT_PLAN_NODE_ID++;
-        else
-            return NEXT_LOCAL_PLAN_NODE_ID++;
+        if (m_useGlobalIds.get()) {
+            return NEXT_PLAN_NODE_ID.getAndIncrement();
+        }
+        int next[] = NEXT_LOCAL_PLAN_NODE_ID.get();
+        assert ((next[0] + 1) <= MAX_LOCAL_ID);
+        return next[0]++;
     }
 
     String getSQLText() {
@@ -17,9 +17,12 @@
 
 package org.voltdb.planner;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,11 +48,59 @@ public class PlannerContext {
     private transient final Map<Integer, PlanColumn> hashcode_col_xref = new HashMap<Integer, PlanColumn>();
 
     /**
-     * Return the Collection of all the PlanColumns managed under this PlannerContext instance
+     * PlanColumn guid -> Number of threads tracking it
+     * These are the columns that were only ever created by threads that called
+     * startTracking(). They are removed once nobody is tracking them anymore.
+     */
+    private final Map<Integer, Integer> tracked_refs = new HashMap<Integer, Integer>();
+
+    /**
+     * The guids of the tracked PlanColumns that the current thread has used since
+     * it called startTracking(). This is null if the thread is not tracking.
+     */
+    private final ThreadLocal<Set<Integer>> tracking = new ThreadLocal<Set<Integer>>();
+
+    /**
+     * Return a copy of the Collection of all the PlanColumns managed under this PlannerContext instance
      * @return
      */
-    public Collection<PlanColumn> getAllPlanColumns() {
-        return s_columnPool.values();
+    public synchronized Collection<PlanColumn> getAllPlanColumns() {
+        return new ArrayList<PlanColumn>(s_columnPool.values());
+    }
+
+    /**
+     * Start keeping track of the new PlanColumns that the current thread creates
+     * so that they can be thrown away with releaseTrackedColumns(). This is for
+     * plans whose columns are never looked up again once they are serialized
+     * (e.g., ad-hoc queries).
+     */
+    public void startTracking() {
+        this.tracking.set(new HashSet<Integer>());
+    }
+
+    /**
+     * Remove the PlanColumns that were created since the current thread called
+     * startTracking(), unless another thread is still using them or they were
+     * picked up by a plan that is not being tracked.
+     */
+    public synchronized void releaseTrackedColumns() {
+        Set<Integer> guids = this.tracking.get();
+        if (guids == null) return;
+        this.tracking.remove();
+        for (Integer guid : guids) {
+            Integer refs = this.tracked_refs.get(guid);
+            if (refs == null) continue;
+            if (refs > 1) {
+                this.tracked_refs.put(guid, refs - 1);
+                continue;
+            }
+            this.tracked_refs.remove(guid);
+            PlanColumn col = this.s_columnPool.remove(guid);
+            if (col != null && this.hashcode_col_xref.get(col.hashCode()) == col) {
+                this.hashcode_col_xref.remove(col.hashCode());
+            }
+        } // FOR
+        if (LOG.isDebugEnabled()) LOG.debug("Released " + guids.size() + " tracked PlanColumns");
     }
     
     public PlanColumn getPlanColumn(AbstractExpression expression, String columnName) {
@@ -63,13 +114,27 @@ public class PlannerContext {
         PlanColumn retval = hashcode_col_xref.get(hashCode);
         
         // We've never seen this one before, so we have to make a new one...
+        Set<Integer> guids = this.tracking.get();
         if (retval == null) {
             int guid = this.getNextPlanColumnGUID();
             retval = new PlanColumn(guid, expression, columnName, sortOrder, storage);
             assert(s_columnPool.get(guid) == null);
             s_columnPool.put(guid, retval);
+            if (guids != null) {
+                this.tracked_refs.put(guid, 1);
+                guids.add(guid);
+            }
             LOG.debug("Added new " + retval);
         }
+        // Somebody else's tracked column. If we aren't tracking, then it has to stay
+        else if (this.tracked_refs.containsKey(retval.guid())) {
+            int guid = retval.guid();
+            if (guids == null) {
+                this.tracked_refs.remove(guid);
+            } else if (guids.add(guid)) {
+                this.tracked_refs.put(guid, this.tracked_refs.get(guid) + 1);
+            }
+        }
         return retval;
     }
 
@@ -119,7 +184,7 @@ public class PlannerContext {
     /**
      * Retrieve a column instance by guid.
      */
-    public PlanColumn get(int guid) {
+    public synchronized PlanColumn get(int guid) {
         PlanColumn column = s_columnPool.get(guid);
 //        assert(column != null) : "Failed to retrieve PlanColumn guid=" + guid;
         return column;
@@ -135,11 +200,11 @@ public class PlannerContext {
     }
     
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return this.s_columnPool.toString();
     }
     
-    public String debug() {
+    public synchronized String debug() {
         StringBuilder sb = new StringBuilder();
         for (Entry<Integer, PlanColumn> e : this.s_columnPool.entrySet()) {
             sb.append(String.format("[%02d] %s\n", e.getKey(), e.getValue().toString()));
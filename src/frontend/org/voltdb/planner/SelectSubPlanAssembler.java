@@ -27,11 +27,14 @@ import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Table;
 import org.voltdb.expressions.AbstractExpression;
 import org.voltdb.expressions.ExpressionUtil;
+import org.voltdb.expressions.TupleValueExpression;
 import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
 import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.NestLoopIndexPlanNode;
 import org.voltdb.plannodes.NestLoopPlanNode;
 import org.voltdb.plannodes.ReceivePlanNode;
+import org.voltdb.types.ExpressionType;
 import org.voltdb.types.JoinType;
 
 /**
@@ -291,7 +294,12 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
             retval = nlijNode;
         }
         else {
-            NestLoopPlanNode nljNode = new NestLoopPlanNode(m_context, PlanAssembler.getNextPlanNodeId());
+            NestLoopPlanNode nljNode = null;
+            if (useHashJoin(joinOrder[0], joinClauses)) {
+                nljNode = new HashJoinPlanNode(m_context, PlanAssembler.getNextPlanNodeId());
+            } else {
+                nljNode = new NestLoopPlanNode(m_context, PlanAssembler.getNextPlanNodeId());
+            }
             if ((joinClauses != null) && (joinClauses.size() > 0))
                 nljNode.setPredicate(ExpressionUtil.combine(joinClauses));
             nljNode.setJoinType(JoinType.LEFT);
@@ -401,6 +409,38 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
         return retval;
     }
 
+    /**
+     * Determines whether the join between a table and the tables in the rest of
+     * the join order should be a hash join instead of a nested loop join. This
+     * is only called when there is no index that the join can use. The nested loop
+     * would then scan all of the inner tuples for every outer tuple (O(n*m)) whereas
+     * the hash join reads each input once (O(n+m)), so we always pick the hash join
+     * as long as there is a column = column clause that it can use as its key.
+     * @param table The table being joined with the sub-plan
+     * @param joinClauses The clauses that join the table with the sub-plan
+     * @return true if a HashJoinPlanNode should be used, false otherwise
+     */
+    protected boolean useHashJoin(Table table, List<AbstractExpression> joinClauses) {
+        if (joinClauses == null) return (false);
+        for (AbstractExpression expr : joinClauses) {
+            if (expr.getExpressionType() != ExpressionType.COMPARE_EQUAL) continue;
+            if ((expr.getLeft() instanceof TupleValueExpression) == false ||
+                (expr.getRight() instanceof TupleValueExpression) == false) continue;
+
+            // One side has to come from the table and the other from the sub-plan
+            TupleValueExpression left = (TupleValueExpression)expr.getLeft();
+            TupleValueExpression right = (TupleValueExpression)expr.getRight();
+            boolean leftIsOuter = table.getTypeName().equals(left.getTableName());
+            boolean rightIsOuter = table.getTypeName().equals(right.getTableName());
+            if (leftIsOuter == rightIsOuter) continue;
+
+            // The EE can only hash values of the same type
+            if (left.getValueType() != right.getValueType()) continue;
+            return (true);
+        } // FOR
+        return (false);
+    }
+
     /**
      * Determines whether a table will require a distributed scan.
      * @param table The table that may or may not require a distributed scan
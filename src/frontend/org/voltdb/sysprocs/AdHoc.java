@@ -27,6 +27,7 @@ import org.voltdb.ProcInfo;
 import org.voltdb.VoltSystemProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
+import org.voltdb.compiler.AdHocPlannedStmt;
 import org.voltdb.dtxn.DtxnConstants;
 
 import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
@@ -49,10 +50,11 @@ public class AdHoc extends VoltSystemProcedure {
 
     @Override
     public DependencySet executePlanFragment(Long txn_id, Map<Integer, List<VoltTable>> dependencies, int fragmentId, ParameterSet params, SystemProcedureExecutionContext context) {
-        // get the three params (depId, json plan, sql stmt)
+        // get the four params (depId, json plan, sql stmt, encoded plan params)
         int outputDepId = (Integer) params.toArray()[0];
         String plan = (String) params.toArray()[1];
         String sql = (String) params.toArray()[2];
+        String encodedParams = (String) params.toArray()[3];
         int inputDepId = -1;
 
         // make dependency ids available to the execution engine
@@ -81,7 +83,9 @@ public class AdHoc extends VoltSystemProcedure {
             m_currentTxnState.markExecutedWork(this.partitionId);
             
             table = context.getExecutionEngine().
-                executeCustomPlanFragment(plan, outputDepId, inputDepId, getTransactionId(),
+                executeCustomPlanFragment(plan, outputDepId, inputDepId,
+                                          AdHocPlannedStmt.decodeParameters(encodedParams),
+                                          getTransactionId(),
                                           context.getLastCommittedTxnId(),
                                           m_currentTxnState.getLastUndoToken(this.partitionId));
         }
@@ -100,6 +104,7 @@ public class AdHoc extends VoltSystemProcedure {
      * @param collectorFragment           Internal.
      * @param sql                         User provided SQL statement.
      * @param isReplicatedTableDML        Internal.
+     * @param encodedParams               Internal.
      * @return The result of the user's query. If the user's SQL statement was
      * a DML query, a table with a single untitled column is returned containing
      * a single {@link org.voltdb.VoltType#BIGINT} row value: the number of tuples
@@ -107,7 +112,7 @@ public class AdHoc extends VoltSystemProcedure {
      * procedure.
      */
     public VoltTable[] run(String aggregatorFragment, String collectorFragment,
-                           String sql, int isReplicatedTableDML) {
+                           String sql, int isReplicatedTableDML, String encodedParams) {
 
         boolean replicatedTableDML = isReplicatedTableDML == 1;
 
@@ -123,7 +128,7 @@ public class AdHoc extends VoltSystemProcedure {
             pfs[0].outputDependencyIds = new int[]{ AGG_DEPID };
             pfs[0].multipartition = false;
             params = new ParameterSet();
-            params.setParameters(AGG_DEPID, "", sql);
+            params.setParameters(AGG_DEPID, "", sql, null);
             pfs[0].parameters = params;
         }
         else {
@@ -138,7 +143,7 @@ public class AdHoc extends VoltSystemProcedure {
                 pfs[1].outputDependencyIds = new int[]{ COLLECT_DEPID };
                 pfs[1].multipartition = true;
                 params = new ParameterSet();
-                params.setParameters(COLLECT_DEPID, collectorFragment, sql);
+                params.setParameters(COLLECT_DEPID, collectorFragment, sql, encodedParams);
                 pfs[1].parameters = params;
             }
             else {
@@ -153,7 +158,7 @@ public class AdHoc extends VoltSystemProcedure {
                 pfs[0].inputDependencyIds = new int[] { COLLECT_DEPID };
             pfs[0].multipartition = false;
             params = new ParameterSet();
-            params.setParameters(AGG_DEPID, aggregatorFragment, sql);
+            params.setParameters(AGG_DEPID, aggregatorFragment, sql, encodedParams);
             pfs[0].parameters = params;
         }
 
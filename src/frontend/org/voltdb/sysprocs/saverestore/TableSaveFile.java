@@ -33,7 +33,9 @@ import java.util.zip.CRC32;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.DefaultSnapshotDataTarget;
 import org.voltdb.EELibraryLoader;
+import org.voltdb.utils.CompressionService;
 
 /**
  * An abstraction around a table's save file for restore.  Deserializes the
@@ -51,6 +53,7 @@ import org.voltdb.EELibraryLoader;
  *   The following fields are conditional on isReplicated == false
  * Partition Ids - Array of 4 octet integer ids for partitions in this file
  * Total Hosts - The number of hosts for this table when it was saved
+ * Flags         - 4 octet integer (missing in files from older versions)
  */
 public class TableSaveFile
 {
@@ -233,6 +236,7 @@ public class TableSaveFile
                     m_corruptedPartitions.add(0);
                 }
             }
+            m_flags = (saveRestoreHeader.remaining() >= 4 ? fd.readInt() : 0);
             /*
              * Several runtime exceptions can be thrown in valid failure cases where
              * a corrupt save file is being detected.
@@ -251,6 +255,15 @@ public class TableSaveFile
         return m_versionNum;
     }
 
+    /**
+     * Returns true if the tuple data in this file's chunks was compressed
+     * by the DefaultSnapshotDataTarget that wrote it
+     */
+    public boolean isCompressed()
+    {
+        return (m_flags & DefaultSnapshotDataTarget.HEADER_FLAG_COMPRESSED) != 0;
+    }
+
     public int getHostId()
     {
         return m_hostId;
@@ -310,6 +323,11 @@ public class TableSaveFile
             while (!m_availableChunks.isEmpty()) {
                 m_availableChunks.poll().discard();
             }
+            // The ChunkReader is done, so nobody else can be using this
+            if (m_compressedBuffer != null) {
+                m_compressedBuffer.discard();
+                m_compressedBuffer = null;
+            }
             notifyAll();
         }
     }
@@ -397,6 +415,8 @@ public class TableSaveFile
     private final ByteBuffer m_tableHeader;
     private final boolean m_completed;
     private final int m_versionNum[] = new int[4];
+    private final int m_flags;
+    private BBContainer m_compressedBuffer = null;
     private final int m_hostId;
     private final String m_hostname;
     private final String m_clusterName;
@@ -529,31 +549,72 @@ public class TableSaveFile
                     boolean completedRead = false;
                     int checksumStartPosition = 0;
                     int rowCount = 0;
+                    int calculatedCRC = 0;
                     try {
-                        /*
-                         * Assemble a VoltTable out of the chunk of tuples.
-                         * Put in the header that was cached in the constructor,
-                         * then copy the tuple data. The row count is at the end
-                         * because it isn't known until serialization is complete.
-                         * It will have to be moved back to the beginning of the tuple data
-                         * after the header once the CRC has been calculated.
-                         */
-                        c.b.clear();
-                        c.b.limit((nextChunkLength - 8)  + m_tableHeader.capacity());
-                        m_tableHeader.position(0);
-                        c.b.put(m_tableHeader);
-                        c.b.position(c.b.position() + 4);//Leave space for row count to be moved into
-                        checksumStartPosition = c.b.position();
-                        while (c.b.hasRemaining()) {
-                            final int read = m_saveFile.read(c.b);
-                            if (read == -1) {
-                                throw new EOFException();
+                        if (isCompressed()) {
+                            /*
+                             * The tuple data was compressed by the writer, so the CRC is over
+                             * the compressed bytes. Validate it before decompressing the
+                             * tuple data into the chunk after the cached table header.
+                             */
+                            final int compressedLength = nextChunkLength - 12;
+                            if (m_compressedBuffer == null || m_compressedBuffer.b.capacity() < compressedLength) {
+                                if (m_compressedBuffer != null) m_compressedBuffer.discard();
+                                m_compressedBuffer = DBBPool.allocateDirect(Math.max(compressedLength, 1024 * 64));
+                            }
+                            final ByteBuffer compressed = m_compressedBuffer.b;
+                            compressed.clear();
+                            compressed.limit(compressedLength);
+                            while (compressed.hasRemaining()) {
+                                final int read = m_saveFile.read(compressed);
+                                if (read == -1) {
+                                    throw new EOFException();
+                                }
+                            }
+                            compressed.flip();
+                            calculatedCRC = DBBPool.getBufferCRC32(compressed, 0, compressedLength);
+
+                            c.b.clear();
+                            m_tableHeader.position(0);
+                            c.b.put(m_tableHeader);
+                            c.b.position(c.b.position() + 4);//Leave space for row count to be moved into
+                            checksumStartPosition = c.b.position();
+                            if (calculatedCRC == nextChunkCRC) {
+                                final int uncompressedLength =
+                                    CompressionService.decompressBuffer(compressed, c.b.slice());
+                                c.b.limit(checksumStartPosition + uncompressedLength);
+                                c.b.position(c.b.limit() - 4);
+                                rowCount = c.b.getInt();
+                            }
+                            c.b.position(checksumStartPosition);
+                            completedRead = true;
+                        } else {
+                            /*
+                             * Assemble a VoltTable out of the chunk of tuples.
+                             * Put in the header that was cached in the constructor,
+                             * then copy the tuple data. The row count is at the end
+                             * because it isn't known until serialization is complete.
+                             * It will have to be moved back to the beginning of the tuple data
+                             * after the header once the CRC has been calculated.
+                             */
+                            c.b.clear();
+                            c.b.limit((nextChunkLength - 8)  + m_tableHeader.capacity());
+                            m_tableHeader.position(0);
+                            c.b.put(m_tableHeader);
+                            c.b.position(c.b.position() + 4);//Leave space for row count to be moved into
+                            checksumStartPosition = c.b.position();
+                            while (c.b.hasRemaining()) {
+                                final int read = m_saveFile.read(c.b);
+                                if (read == -1) {
+                                    throw new EOFException();
+                                }
                             }
+                            c.b.position(c.b.position() - 4);
+                            rowCount = c.b.getInt();
+                            c.b.position(checksumStartPosition);
+                            calculatedCRC = DBBPool.getBufferCRC32(c.b, c.b.position(), c.b.remaining());
+                            completedRead = true;
                         }
-                        c.b.position(c.b.position() - 4);
-                        rowCount = c.b.getInt();
-                        c.b.position(checksumStartPosition);
-                        completedRead = true;
                     } finally {
                         if (!completedRead) {
                             for (int partitionId : m_partitionIds) {
@@ -566,7 +627,6 @@ public class TableSaveFile
                      * Validate the rest of the chunk. This can fail if the data is corrupted
                      * or the length value was corrupted.
                      */
-                    final int calculatedCRC = DBBPool.getBufferCRC32(c.b, c.b.position(), c.b.remaining());
                     if (calculatedCRC != nextChunkCRC) {
                         m_corruptedPartitions.add(nextChunkPartitionId);
                         if (m_continueOnCorruptedChunk) {
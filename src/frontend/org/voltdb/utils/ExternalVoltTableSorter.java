@@ -0,0 +1,368 @@
+package org.voltdb.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTableRow;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.SortDirectionType;
+import org.voltdb.utils.DBBPool.BBContainer;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Bounded-memory external merge sort for VoltTables.
+ * Rows are buffered in memory until the buffer grows past the memory budget.
+ * The buffer is then sorted and spilled to a run file on local disk. The sorted
+ * output is produced by a k-way merge over all of the spilled runs plus whatever
+ * is left in the buffer. Each run is read back one block at a time, so the merge
+ * only needs (# of runs * block size) bytes of memory.
+ * Rows can be added from multiple threads at the same time. The buffer that is
+ * being spilled is swapped out under the sorter's lock, but the sort and the
+ * disk writes happen outside of it.
+ */
+public class ExternalVoltTableSorter {
+    private static final Logger LOG = Logger.getLogger(ExternalVoltTableSorter.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private static final String RUN_PREFIX = "sortrun-";
+    private static final String RUN_SUFFIX = ".tmp";
+
+    private final Pair<Integer, SortDirectionType> cols[];
+    private final VoltTableComparator comparator;
+    private final long memoryBudget;
+    private final int blockSize;
+    private final File spillDir;
+
+    /**
+     * The in-memory buffer of unsorted rows
+     */
+    private VoltTable buffer;
+
+    /**
+     * The run files that we have spilled to disk
+     */
+    private final List<File> runs = new ArrayList<File>();
+
+    /**
+     * Open file handles for the current merge
+     */
+    private final List<FileChannel> channels = new ArrayList<FileChannel>();
+
+    private long rowCount = 0;
+    private long spillBytes = 0;
+
+    /**
+     * Constructor
+     * @param schema A VoltTable with the schema of the rows that will be sorted
+     * @param memoryBudget The max number of bytes of row data to buffer in memory before spilling
+     * @param blockSize The number of bytes of row data written per block in a run file
+     * @param spillDir The directory where run files will be written
+     * @param cols The columns to sort on
+     */
+    @SuppressWarnings("unchecked")
+    public ExternalVoltTableSorter(VoltTable schema, long memoryBudget, int blockSize, File spillDir, List<Pair<Integer, SortDirectionType>> cols) {
+        assert(memoryBudget > 0) : "Invalid memory budget " + memoryBudget;
+        assert(blockSize > 0) : "Invalid block size " + blockSize;
+        this.cols = cols.toArray(new Pair[cols.size()]);
+        this.memoryBudget = memoryBudget;
+        this.blockSize = blockSize;
+        this.spillDir = spillDir;
+        this.buffer = new VoltTable(schema);
+        this.comparator = new VoltTableComparator(this.buffer, this.cols);
+    }
+
+    // ----------------------------------------------------------------------------
+    // INPUT
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Add a single row to the sorter. This may cause the
+     * in-memory buffer to be spilled to disk.
+     * @param row
+     */
+    public void add(VoltTableRow row) {
+        VoltTable full = null;
+        synchronized (this) {
+            this.buffer.add(row);
+            this.rowCount++;
+            if (this.buffer.getUnderlyingBufferSize() >= this.memoryBudget) {
+                full = this.buffer;
+                this.buffer = new VoltTable(full);
+            }
+        } // SYNCH
+        if (full != null) this.spill(full);
+    }
+
+    /**
+     * Add all of the rows in the given VoltTable to the sorter.
+     * The table's row position will be reset when this returns.
+     * @param vt
+     */
+    public void addAll(VoltTable vt) {
+        vt.resetRowPosition();
+        while (vt.advanceRow()) {
+            this.add(vt);
+        } // WHILE
+        vt.resetRowPosition();
+    }
+
+    /**
+     * Sort the given buffer and write it out as a new run.
+     * This is not invoked while holding the sorter's lock.
+     * @param full
+     */
+    private void spill(VoltTable full) {
+        if (full.getRowCount() == 0) return;
+
+        VoltTable sorted = VoltTableUtil.sort(full, this.cols);
+        full.clearRowData();
+
+        File file = null;
+        FileChannel channel = null;
+        long bytes = 0;
+        try {
+            if (this.spillDir != null && this.spillDir.exists() == false) {
+                this.spillDir.mkdirs();
+            }
+            file = File.createTempFile(RUN_PREFIX, RUN_SUFFIX, this.spillDir);
+            channel = new FileOutputStream(file).getChannel();
+
+            VoltTable block = new VoltTable(sorted);
+            sorted.resetRowPosition();
+            while (sorted.advanceRow()) {
+                block.add(sorted);
+                if (block.getUnderlyingBufferSize() >= this.blockSize) {
+                    bytes += this.writeBlock(channel, block);
+                    block.clearRowData();
+                }
+            } // WHILE
+            if (block.getRowCount() > 0) {
+                bytes += this.writeBlock(channel, block);
+            }
+        } catch (IOException ex) {
+            if (file != null) file.delete();
+            throw new RuntimeException("Failed to spill sorted run to " + this.spillDir, ex);
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        }
+        int run = -1;
+        synchronized (this) {
+            this.runs.add(file);
+            this.spillBytes += bytes;
+            run = this.runs.size();
+        } // SYNCH
+        if (debug.get())
+            LOG.debug(String.format("Spilled %d rows [%d bytes] to run #%d %s",
+                      sorted.getRowCount(), bytes, run, file));
+    }
+
+    private int writeBlock(FileChannel channel, VoltTable block) throws IOException {
+        FastSerializer fs = new FastSerializer();
+        block.writeExternal(fs);
+        BBContainer bc = fs.getBBContainer();
+        int bytes = bc.b.remaining();
+        while (bc.b.hasRemaining()) {
+            channel.write(bc.b);
+        } // WHILE
+        bc.discard();
+        return (bytes);
+    }
+
+    // ----------------------------------------------------------------------------
+    // OUTPUT
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return an iterator over all of the rows added to this sorter in sorted order.
+     * The first column of each row is the key. This should only be invoked once
+     * after all of the rows have been added.
+     * @return
+     */
+    public synchronized <K> ReduceInputIterator<K> iterator() {
+        VoltTable sorted = VoltTableUtil.sort(this.buffer, this.cols);
+
+        // Fast path: everything fit in memory
+        if (this.runs.isEmpty()) {
+            return new ReduceInputIterator<K>(sorted);
+        }
+
+        List<RunCursor> cursors = new ArrayList<RunCursor>();
+        try {
+            for (File file : this.runs) {
+                FileChannel channel = new FileInputStream(file).getChannel();
+                this.channels.add(channel);
+                cursors.add(new RunCursor(channel));
+            } // FOR
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to open sorted runs in " + this.spillDir, ex);
+        }
+        if (sorted.getRowCount() > 0) {
+            cursors.add(new RunCursor(sorted));
+        }
+        if (debug.get())
+            LOG.debug(String.format("Merging %d sorted runs for %d rows", cursors.size(), this.rowCount));
+        return new MergeIterator<K>(cursors);
+    }
+
+    /**
+     * Delete all of the spilled run files and release any open file handles.
+     */
+    public synchronized void close() {
+        for (FileChannel channel : this.channels) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // Ignore
+            }
+        } // FOR
+        this.channels.clear();
+        for (File file : this.runs) {
+            if (file.delete() == false && file.exists()) {
+                LOG.warn("Failed to delete sorted run " + file);
+            }
+        } // FOR
+        this.runs.clear();
+        this.buffer.clearRowData();
+    }
+
+    public synchronized long getRowCount() {
+        return (this.rowCount);
+    }
+    public synchronized int getRunCount() {
+        return (this.runs.size());
+    }
+    public synchronized long getSpillBytes() {
+        return (this.spillBytes);
+    }
+
+    // ----------------------------------------------------------------------------
+    // MERGE
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Reads through a single sorted run, one block at a time.
+     */
+    private static class RunCursor {
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(4);
+        private VoltTable block;
+        private Object values[];
+
+        RunCursor(FileChannel channel) {
+            this.channel = channel;
+        }
+        RunCursor(VoltTable block) {
+            this.channel = null;
+            this.block = block;
+            this.block.resetRowPosition();
+        }
+
+        boolean advance() {
+            while (this.block == null || this.block.advanceRow() == false) {
+                if (this.channel == null || this.readBlock() == false) {
+                    this.block = null;
+                    this.values = null;
+                    return (false);
+                }
+            } // WHILE
+            // Every block has the same schema, so we can reuse the values array
+            if (this.values == null) {
+                this.values = new Object[this.block.getColumnCount()];
+            }
+            for (int i = 0; i < this.values.length; i++) {
+                this.values[i] = this.block.get(i);
+            } // FOR
+            return (true);
+        }
+
+        private boolean readBlock() {
+            try {
+                this.header.clear();
+                if (this.readFully(this.header) == false) return (false);
+                this.header.flip();
+                int len = this.header.getInt();
+                ByteBuffer data = ByteBuffer.allocate(4 + len);
+                data.putInt(len);
+                if (this.readFully(data) == false) {
+                    throw new IOException("Unexpected end of sorted run");
+                }
+                data.flip();
+                this.block = new FastDeserializer(data).readObject(VoltTable.class);
+                this.block.resetRowPosition();
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to read block from sorted run", ex);
+            }
+            return (true);
+        }
+
+        private boolean readFully(ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) {
+                if (this.channel.read(b) < 0) return (false);
+            } // WHILE
+            return (true);
+        }
+    } // CLASS
+
+    /**
+     * K-way merge over a set of RunCursors.
+     * The row returned by next() is the current block of its run, so it
+     * is only valid until the next time that next() is invoked.
+     */
+    private class MergeIterator<K> extends ReduceInputIterator<K> {
+        private final PriorityQueue<RunCursor> queue;
+        private RunCursor current = null;
+
+        MergeIterator(List<RunCursor> cursors) {
+            super();
+            this.queue = new PriorityQueue<RunCursor>(Math.max(1, cursors.size()), new Comparator<RunCursor>() {
+                @Override
+                public int compare(RunCursor c0, RunCursor c1) {
+                    return comparator.compare(c0.values, c1.values);
+                }
+            });
+            for (RunCursor c : cursors) {
+                if (c.advance()) this.queue.add(c);
+            } // FOR
+        }
+
+        @Override
+        protected boolean advanceRow() {
+            if (this.current != null && this.current.advance()) {
+                this.queue.add(this.current);
+            }
+            this.current = this.queue.poll();
+            return (this.current != null);
+        }
+        @Override
+        protected Object getCurrentKey() {
+            return (this.current.values[0]);
+        }
+        @Override
+        protected VoltTableRow getCurrentRow() {
+            return (this.current.block);
+        }
+    } // CLASS
+}
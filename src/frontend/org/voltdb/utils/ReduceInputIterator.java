@@ -14,6 +14,16 @@ public class ReduceInputIterator<K> implements Iterator<VoltTableRow> {
     boolean isStart;
     
     K oldKey;
+    
+    /**
+     * Constructor for subclasses that provide their own stream of
+     * sorted rows instead of a single in-memory VoltTable.
+     * @see ReduceInputIterator#advanceRow()
+     */
+    protected ReduceInputIterator() {
+        this(null);
+    }
+    
     public ReduceInputIterator(VoltTable table) {
         this.table = table;
         oldKey = null;
@@ -23,13 +33,42 @@ public class ReduceInputIterator<K> implements Iterator<VoltTableRow> {
     }
     
     public boolean hasKey() {
-        boolean result = this.table.advanceRow();
+        boolean result = this.advanceRow();
         return result;
     }
     
     @SuppressWarnings("unchecked")
     public K getKey() {
-        return (K) this.table.get(0);
+        return (K) this.getCurrentKey();
+    }
+    
+    // ----------------------------------------------------------------------------
+    // ROW SOURCE
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Move to the next row in key order.
+     * Returns false if there are no more rows
+     * @return
+     */
+    protected boolean advanceRow() {
+        return (this.table.advanceRow());
+    }
+    
+    /**
+     * Return the key (i.e., the first column) of the current row
+     * @return
+     */
+    protected Object getCurrentKey() {
+        return (this.table.get(0));
+    }
+    
+    /**
+     * Return the current row
+     * @return
+     */
+    protected VoltTableRow getCurrentRow() {
+        return (this.table.getRow());
     }
     
     public boolean getFinish(){
@@ -79,7 +118,7 @@ public class ReduceInputIterator<K> implements Iterator<VoltTableRow> {
     public VoltTableRow next() {
         assert (this.isAdvanced); 
        
-        return  this.table.getRow();
+        return  this.getCurrentRow();
     }
 
     @Override
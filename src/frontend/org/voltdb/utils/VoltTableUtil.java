@@ -1,6 +1,7 @@
 package org.voltdb.utils;
 
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -157,6 +158,23 @@ public abstract class VoltTableUtil {
     }
     
 
+    /**
+     * If the given VoltTable is backed by a direct buffer (e.g., it is a view over
+     * a pooled buffer from the ExecutionEngine), then return a copy of it that is
+     * backed by a heap buffer. Otherwise the original table is returned.
+     * @param vt
+     * @return
+     */
+    public static VoltTable copyToHeap(VoltTable vt) {
+        if (vt == null || vt.getDirectDataReference().isDirect() == false) {
+            return (vt);
+        }
+        ByteBuffer buffer = vt.getTableDataReference();
+        byte arr[] = new byte[vt.getUnderlyingBufferSize()];
+        buffer.get(arr, 0, arr.length);
+        return (new VoltTable(ByteBuffer.wrap(arr), true));
+    }
+
     /**
      * Returns a row with random data that can be added to this VoltTable
      * @param table
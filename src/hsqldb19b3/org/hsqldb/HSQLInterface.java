@@ -18,6 +18,8 @@
 
 package org.hsqldb;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.hsqldb.lib.HashMappedList;
 import org.hsqldb.persist.HsqlProperties;
 import org.hsqldb.result.Result;
@@ -75,7 +77,7 @@ public class HSQLInterface {
     }
 
     Session sessionProxy;
-    static int instanceId = 0;
+    static final AtomicInteger instanceId = new AtomicInteger(0);
 
     private HSQLInterface(Session sessionProxy) {
         this.sessionProxy = sessionProxy;
@@ -87,6 +89,18 @@ public class HSQLInterface {
         sessionProxy = null;
     }
 
+    /**
+     * Close our session and shut down our in-memory database. Unlike
+     * <code>close</code>, this leaves any other HSQLDB instances in this
+     * process alone.
+     */
+    public void shutdown() {
+        Database db = sessionProxy.getDatabase();
+        sessionProxy.close();
+        db.close(Database.CLOSEMODE_IMMEDIATELY);
+        sessionProxy = null;
+    }
+
     /**
      * Load up an HSQLDB in-memory instance.
      *
@@ -95,8 +109,7 @@ public class HSQLInterface {
      */
     public static HSQLInterface loadHsqldb() {
         Session sessionProxy = null;
-        String name = "hsqldbinstance-" + String.valueOf(instanceId) + "-" + String.valueOf(System.currentTimeMillis());
-        instanceId++;
+        String name = "hsqldbinstance-" + String.valueOf(instanceId.getAndIncrement()) + "-" + String.valueOf(System.currentTimeMillis());
 
         HsqlProperties props = new HsqlProperties();
         try {
@@ -113,7 +113,7 @@ public final class Protocol {
     public boolean hasSequenceNumber() { return hasSequenceNumber; }
     public int getSequenceNumber() { return sequenceNumber_; }
     
-    // required string method_name = 2;
+    // optional string method_name = 2;
     public static final int METHOD_NAME_FIELD_NUMBER = 2;
     private boolean hasMethodName;
     private java.lang.String methodName_ = "";
@@ -127,11 +127,17 @@ public final class Protocol {
     public boolean hasRequest() { return hasRequest; }
     public com.google.protobuf.ByteString getRequest() { return request_; }
     
+    // optional fixed32 method_id = 4;
+    public static final int METHOD_ID_FIELD_NUMBER = 4;
+    private boolean hasMethodId;
+    private int methodId_ = 0;
+    public boolean hasMethodId() { return hasMethodId; }
+    public int getMethodId() { return methodId_; }
+    
     private void initFields() {
     }
     public final boolean isInitialized() {
       if (!hasSequenceNumber) return false;
-      if (!hasMethodName) return false;
       if (!hasRequest) return false;
       return true;
     }
@@ -148,6 +154,9 @@ public final class Protocol {
       if (hasRequest()) {
         output.writeBytes(3, getRequest());
       }
+      if (hasMethodId()) {
+        output.writeFixed32(4, getMethodId());
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -169,6 +178,10 @@ public final class Protocol {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(3, getRequest());
       }
+      if (hasMethodId()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeFixed32Size(4, getMethodId());
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -336,6 +349,9 @@ public final class Protocol {
         if (other.hasRequest()) {
           setRequest(other.getRequest());
         }
+        if (other.hasMethodId()) {
+          setMethodId(other.getMethodId());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -373,6 +389,10 @@ public final class Protocol {
               setRequest(input.readBytes());
               break;
             }
+            case 37: {
+              setMethodId(input.readFixed32());
+              break;
+            }
           }
         }
       }
@@ -396,7 +416,7 @@ public final class Protocol {
         return this;
       }
       
-      // required string method_name = 2;
+      // optional string method_name = 2;
       public boolean hasMethodName() {
         return result.hasMethodName();
       }
@@ -438,6 +458,24 @@ public final class Protocol {
         return this;
       }
       
+      // optional fixed32 method_id = 4;
+      public boolean hasMethodId() {
+        return result.hasMethodId();
+      }
+      public int getMethodId() {
+        return result.getMethodId();
+      }
+      public Builder setMethodId(int value) {
+        result.hasMethodId = true;
+        result.methodId_ = value;
+        return this;
+      }
+      public Builder clearMethodId() {
+        result.hasMethodId = false;
+        result.methodId_ = 0;
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:protorpc.RpcRequest)
     }
     
@@ -889,14 +927,15 @@ public final class Protocol {
   static {
     java.lang.String[] descriptorData = {
       "\n$ca/evanjones/protorpc/Protocol.proto\022\010" +
-      "protorpc\"K\n\nRpcRequest\022\027\n\017sequence_numbe" +
-      "r\030\001 \002(\005\022\023\n\013method_name\030\002 \002(\t\022\017\n\007request\030" +
-      "\003 \002(\014\"p\n\013RpcResponse\022\027\n\017sequence_number\030" +
-      "\001 \002(\005\022 \n\006status\030\002 \002(\0162\020.protorpc.Status\022" +
-      "\020\n\010response\030\003 \001(\014\022\024\n\014error_reason\030\004 \001(\t*" +
-      "O\n\006Status\022\024\n\007INVALID\020\377\377\377\377\377\377\377\377\377\001\022\006\n\002OK\020\000\022" +
-      "\016\n\nERROR_USER\020\001\022\027\n\023ERROR_COMMUNICATION\020\002" +
-      "B\027\n\025ca.evanjones.protorpc"
+      "protorpc\"^\n\nRpcRequest\022\027\n\017sequence_numbe" +
+      "r\030\001 \002(\005\022\023\n\013method_name\030\002 \001(\t\022\017\n\007request\030" +
+      "\003 \002(\014\022\021\n\tmethod_id\030\004 \001(\007\"p\n\013RpcResponse\022" +
+      "\027\n\017sequence_number\030\001 \002(\005\022 \n\006status\030\002 \002(\016" +
+      "2\020.protorpc.Status\022\020\n\010response\030\003 \001(\014\022\024\n\014" +
+      "error_reason\030\004 \001(\t*O\n\006Status\022\024\n\007INVALID\020" +
+      "\377\377\377\377\377\377\377\377\377\001\022\006\n\002OK\020\000\022\016\n\nERROR_USER\020\001\022\027\n\023ER" +
+      "ROR_COMMUNICATION\020\002B\027\n\025ca.evanjones.prot" +
+      "orpc"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -908,7 +947,7 @@ public final class Protocol {
           internal_static_protorpc_RpcRequest_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_protorpc_RpcRequest_descriptor,
-              new java.lang.String[] { "SequenceNumber", "MethodName", "Request", },
+              new java.lang.String[] { "SequenceNumber", "MethodName", "Request", "MethodId", },
               ca.evanjones.protorpc.Protocol.RpcRequest.class,
               ca.evanjones.protorpc.Protocol.RpcRequest.Builder.class);
           internal_static_protorpc_RpcResponse_descriptor =
@@ -7642,10 +7642,25 @@ public final class Hstoreservice {
     }
     private int partitionsMemoizedSerializedSize = -1;
     
+    // repeated .edu.brown.hstore.TransactionPrepareRequest batch = 3;
+    public static final int BATCH_FIELD_NUMBER = 3;
+    private java.util.List<edu.brown.hstore.Hstoreservice.TransactionPrepareRequest> batch_ =
+      java.util.Collections.emptyList();
+    public java.util.List<edu.brown.hstore.Hstoreservice.TransactionPrepareRequest> getBatchList() {
+      return batch_;
+    }
+    public int getBatchCount() { return batch_.size(); }
+    public edu.brown.hstore.Hstoreservice.TransactionPrepareRequest getBatch(int index) {
+      return batch_.get(index);
+    }
+    
     private void initFields() {
     }
     public final boolean isInitialized() {
       if (!hasTransactionId) return false;
+      for (edu.brown.hstore.Hstoreservice.TransactionPrepareRequest element : getBatchList()) {
+        if (!element.isInitialized()) return false;
+      }
       return true;
     }
     
@@ -7662,6 +7677,9 @@ public final class Hstoreservice {
       for (int element : getPartitionsList()) {
         output.writeInt32NoTag(element);
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionPrepareRequest element : getBatchList()) {
+        output.writeMessage(3, element);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -7689,6 +7707,10 @@ public final class Hstoreservice {
         }
         partitionsMemoizedSerializedSize = dataSize;
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionPrepareRequest element : getBatchList()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(3, element);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -7835,6 +7857,10 @@ public final class Hstoreservice {
           result.partitions_ =
             java.util.Collections.unmodifiableList(result.partitions_);
         }
+        if (result.batch_ != java.util.Collections.EMPTY_LIST) {
+          result.batch_ =
+            java.util.Collections.unmodifiableList(result.batch_);
+        }
         edu.brown.hstore.Hstoreservice.TransactionPrepareRequest returnMe = result;
         result = null;
         return returnMe;
@@ -7860,6 +7886,12 @@ public final class Hstoreservice {
           }
           result.partitions_.addAll(other.partitions_);
         }
+        if (!other.batch_.isEmpty()) {
+          if (result.batch_.isEmpty()) {
+            result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareRequest>();
+          }
+          result.batch_.addAll(other.batch_);
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -7902,6 +7934,12 @@ public final class Hstoreservice {
               input.popLimit(limit);
               break;
             }
+            case 26: {
+              edu.brown.hstore.Hstoreservice.TransactionPrepareRequest.Builder subBuilder = edu.brown.hstore.Hstoreservice.TransactionPrepareRequest.newBuilder();
+              input.readMessage(subBuilder, extensionRegistry);
+              addBatch(subBuilder.buildPartial());
+              break;
+            }
           }
         }
       }
@@ -7959,6 +7997,57 @@ public final class Hstoreservice {
         return this;
       }
       
+      // repeated .edu.brown.hstore.TransactionPrepareRequest batch = 3;
+      public java.util.List<edu.brown.hstore.Hstoreservice.TransactionPrepareRequest> getBatchList() {
+        return java.util.Collections.unmodifiableList(result.batch_);
+      }
+      public int getBatchCount() {
+        return result.getBatchCount();
+      }
+      public edu.brown.hstore.Hstoreservice.TransactionPrepareRequest getBatch(int index) {
+        return result.getBatch(index);
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionPrepareRequest value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.batch_.set(index, value);
+        return this;
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionPrepareRequest.Builder builderForValue) {
+        result.batch_.set(index, builderForValue.build());
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionPrepareRequest value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareRequest>();
+        }
+        result.batch_.add(value);
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionPrepareRequest.Builder builderForValue) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareRequest>();
+        }
+        result.batch_.add(builderForValue.build());
+        return this;
+      }
+      public Builder addAllBatch(
+          java.lang.Iterable<? extends edu.brown.hstore.Hstoreservice.TransactionPrepareRequest> values) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareRequest>();
+        }
+        super.addAll(values, result.batch_);
+        return this;
+      }
+      public Builder clearBatch() {
+        result.batch_ = java.util.Collections.emptyList();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:edu.brown.hstore.TransactionPrepareRequest)
     }
     
@@ -8025,12 +8114,27 @@ public final class Hstoreservice {
     public boolean hasStatus() { return hasStatus; }
     public edu.brown.hstore.Hstoreservice.Status getStatus() { return status_; }
     
+    // repeated .edu.brown.hstore.TransactionPrepareResponse batch = 4;
+    public static final int BATCH_FIELD_NUMBER = 4;
+    private java.util.List<edu.brown.hstore.Hstoreservice.TransactionPrepareResponse> batch_ =
+      java.util.Collections.emptyList();
+    public java.util.List<edu.brown.hstore.Hstoreservice.TransactionPrepareResponse> getBatchList() {
+      return batch_;
+    }
+    public int getBatchCount() { return batch_.size(); }
+    public edu.brown.hstore.Hstoreservice.TransactionPrepareResponse getBatch(int index) {
+      return batch_.get(index);
+    }
+    
     private void initFields() {
       status_ = edu.brown.hstore.Hstoreservice.Status.OK;
     }
     public final boolean isInitialized() {
       if (!hasTransactionId) return false;
       if (!hasStatus) return false;
+      for (edu.brown.hstore.Hstoreservice.TransactionPrepareResponse element : getBatchList()) {
+        if (!element.isInitialized()) return false;
+      }
       return true;
     }
     
@@ -8050,6 +8154,9 @@ public final class Hstoreservice {
       if (hasStatus()) {
         output.writeEnum(3, getStatus().getNumber());
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionPrepareResponse element : getBatchList()) {
+        output.writeMessage(4, element);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -8081,6 +8188,10 @@ public final class Hstoreservice {
         size += com.google.protobuf.CodedOutputStream
           .computeEnumSize(3, getStatus().getNumber());
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionPrepareResponse element : getBatchList()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(4, element);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -8227,6 +8338,10 @@ public final class Hstoreservice {
           result.partitions_ =
             java.util.Collections.unmodifiableList(result.partitions_);
         }
+        if (result.batch_ != java.util.Collections.EMPTY_LIST) {
+          result.batch_ =
+            java.util.Collections.unmodifiableList(result.batch_);
+        }
         edu.brown.hstore.Hstoreservice.TransactionPrepareResponse returnMe = result;
         result = null;
         return returnMe;
@@ -8255,6 +8370,12 @@ public final class Hstoreservice {
         if (other.hasStatus()) {
           setStatus(other.getStatus());
         }
+        if (!other.batch_.isEmpty()) {
+          if (result.batch_.isEmpty()) {
+            result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareResponse>();
+          }
+          result.batch_.addAll(other.batch_);
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -8307,6 +8428,12 @@ public final class Hstoreservice {
               }
               break;
             }
+            case 34: {
+              edu.brown.hstore.Hstoreservice.TransactionPrepareResponse.Builder subBuilder = edu.brown.hstore.Hstoreservice.TransactionPrepareResponse.newBuilder();
+              input.readMessage(subBuilder, extensionRegistry);
+              addBatch(subBuilder.buildPartial());
+              break;
+            }
           }
         }
       }
@@ -8385,6 +8512,57 @@ public final class Hstoreservice {
         return this;
       }
       
+      // repeated .edu.brown.hstore.TransactionPrepareResponse batch = 4;
+      public java.util.List<edu.brown.hstore.Hstoreservice.TransactionPrepareResponse> getBatchList() {
+        return java.util.Collections.unmodifiableList(result.batch_);
+      }
+      public int getBatchCount() {
+        return result.getBatchCount();
+      }
+      public edu.brown.hstore.Hstoreservice.TransactionPrepareResponse getBatch(int index) {
+        return result.getBatch(index);
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionPrepareResponse value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.batch_.set(index, value);
+        return this;
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionPrepareResponse.Builder builderForValue) {
+        result.batch_.set(index, builderForValue.build());
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionPrepareResponse value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareResponse>();
+        }
+        result.batch_.add(value);
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionPrepareResponse.Builder builderForValue) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareResponse>();
+        }
+        result.batch_.add(builderForValue.build());
+        return this;
+      }
+      public Builder addAllBatch(
+          java.lang.Iterable<? extends edu.brown.hstore.Hstoreservice.TransactionPrepareResponse> values) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionPrepareResponse>();
+        }
+        super.addAll(values, result.batch_);
+        return this;
+      }
+      public Builder clearBatch() {
+        result.batch_ = java.util.Collections.emptyList();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:edu.brown.hstore.TransactionPrepareResponse)
     }
     
@@ -8451,12 +8629,27 @@ public final class Hstoreservice {
     public boolean hasStatus() { return hasStatus; }
     public edu.brown.hstore.Hstoreservice.Status getStatus() { return status_; }
     
+    // repeated .edu.brown.hstore.TransactionFinishRequest batch = 4;
+    public static final int BATCH_FIELD_NUMBER = 4;
+    private java.util.List<edu.brown.hstore.Hstoreservice.TransactionFinishRequest> batch_ =
+      java.util.Collections.emptyList();
+    public java.util.List<edu.brown.hstore.Hstoreservice.TransactionFinishRequest> getBatchList() {
+      return batch_;
+    }
+    public int getBatchCount() { return batch_.size(); }
+    public edu.brown.hstore.Hstoreservice.TransactionFinishRequest getBatch(int index) {
+      return batch_.get(index);
+    }
+    
     private void initFields() {
       status_ = edu.brown.hstore.Hstoreservice.Status.OK;
     }
     public final boolean isInitialized() {
       if (!hasTransactionId) return false;
       if (!hasStatus) return false;
+      for (edu.brown.hstore.Hstoreservice.TransactionFinishRequest element : getBatchList()) {
+        if (!element.isInitialized()) return false;
+      }
       return true;
     }
     
@@ -8476,6 +8669,9 @@ public final class Hstoreservice {
       if (hasStatus()) {
         output.writeEnum(3, getStatus().getNumber());
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionFinishRequest element : getBatchList()) {
+        output.writeMessage(4, element);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -8507,6 +8703,10 @@ public final class Hstoreservice {
         size += com.google.protobuf.CodedOutputStream
           .computeEnumSize(3, getStatus().getNumber());
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionFinishRequest element : getBatchList()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(4, element);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -8653,6 +8853,10 @@ public final class Hstoreservice {
           result.partitions_ =
             java.util.Collections.unmodifiableList(result.partitions_);
         }
+        if (result.batch_ != java.util.Collections.EMPTY_LIST) {
+          result.batch_ =
+            java.util.Collections.unmodifiableList(result.batch_);
+        }
         edu.brown.hstore.Hstoreservice.TransactionFinishRequest returnMe = result;
         result = null;
         return returnMe;
@@ -8681,6 +8885,12 @@ public final class Hstoreservice {
         if (other.hasStatus()) {
           setStatus(other.getStatus());
         }
+        if (!other.batch_.isEmpty()) {
+          if (result.batch_.isEmpty()) {
+            result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishRequest>();
+          }
+          result.batch_.addAll(other.batch_);
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -8733,6 +8943,12 @@ public final class Hstoreservice {
               }
               break;
             }
+            case 34: {
+              edu.brown.hstore.Hstoreservice.TransactionFinishRequest.Builder subBuilder = edu.brown.hstore.Hstoreservice.TransactionFinishRequest.newBuilder();
+              input.readMessage(subBuilder, extensionRegistry);
+              addBatch(subBuilder.buildPartial());
+              break;
+            }
           }
         }
       }
@@ -8811,6 +9027,57 @@ public final class Hstoreservice {
         return this;
       }
       
+      // repeated .edu.brown.hstore.TransactionFinishRequest batch = 4;
+      public java.util.List<edu.brown.hstore.Hstoreservice.TransactionFinishRequest> getBatchList() {
+        return java.util.Collections.unmodifiableList(result.batch_);
+      }
+      public int getBatchCount() {
+        return result.getBatchCount();
+      }
+      public edu.brown.hstore.Hstoreservice.TransactionFinishRequest getBatch(int index) {
+        return result.getBatch(index);
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionFinishRequest value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.batch_.set(index, value);
+        return this;
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionFinishRequest.Builder builderForValue) {
+        result.batch_.set(index, builderForValue.build());
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionFinishRequest value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishRequest>();
+        }
+        result.batch_.add(value);
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionFinishRequest.Builder builderForValue) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishRequest>();
+        }
+        result.batch_.add(builderForValue.build());
+        return this;
+      }
+      public Builder addAllBatch(
+          java.lang.Iterable<? extends edu.brown.hstore.Hstoreservice.TransactionFinishRequest> values) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishRequest>();
+        }
+        super.addAll(values, result.batch_);
+        return this;
+      }
+      public Builder clearBatch() {
+        result.batch_ = java.util.Collections.emptyList();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:edu.brown.hstore.TransactionFinishRequest)
     }
     
@@ -8870,10 +9137,25 @@ public final class Hstoreservice {
     }
     private int partitionsMemoizedSerializedSize = -1;
     
+    // repeated .edu.brown.hstore.TransactionFinishResponse batch = 3;
+    public static final int BATCH_FIELD_NUMBER = 3;
+    private java.util.List<edu.brown.hstore.Hstoreservice.TransactionFinishResponse> batch_ =
+      java.util.Collections.emptyList();
+    public java.util.List<edu.brown.hstore.Hstoreservice.TransactionFinishResponse> getBatchList() {
+      return batch_;
+    }
+    public int getBatchCount() { return batch_.size(); }
+    public edu.brown.hstore.Hstoreservice.TransactionFinishResponse getBatch(int index) {
+      return batch_.get(index);
+    }
+    
     private void initFields() {
     }
     public final boolean isInitialized() {
       if (!hasTransactionId) return false;
+      for (edu.brown.hstore.Hstoreservice.TransactionFinishResponse element : getBatchList()) {
+        if (!element.isInitialized()) return false;
+      }
       return true;
     }
     
@@ -8890,6 +9172,9 @@ public final class Hstoreservice {
       for (int element : getPartitionsList()) {
         output.writeInt32NoTag(element);
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionFinishResponse element : getBatchList()) {
+        output.writeMessage(3, element);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -8917,6 +9202,10 @@ public final class Hstoreservice {
         }
         partitionsMemoizedSerializedSize = dataSize;
       }
+      for (edu.brown.hstore.Hstoreservice.TransactionFinishResponse element : getBatchList()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(3, element);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -9063,6 +9352,10 @@ public final class Hstoreservice {
           result.partitions_ =
             java.util.Collections.unmodifiableList(result.partitions_);
         }
+        if (result.batch_ != java.util.Collections.EMPTY_LIST) {
+          result.batch_ =
+            java.util.Collections.unmodifiableList(result.batch_);
+        }
         edu.brown.hstore.Hstoreservice.TransactionFinishResponse returnMe = result;
         result = null;
         return returnMe;
@@ -9088,6 +9381,12 @@ public final class Hstoreservice {
           }
           result.partitions_.addAll(other.partitions_);
         }
+        if (!other.batch_.isEmpty()) {
+          if (result.batch_.isEmpty()) {
+            result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishResponse>();
+          }
+          result.batch_.addAll(other.batch_);
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -9130,6 +9429,12 @@ public final class Hstoreservice {
               input.popLimit(limit);
               break;
             }
+            case 26: {
+              edu.brown.hstore.Hstoreservice.TransactionFinishResponse.Builder subBuilder = edu.brown.hstore.Hstoreservice.TransactionFinishResponse.newBuilder();
+              input.readMessage(subBuilder, extensionRegistry);
+              addBatch(subBuilder.buildPartial());
+              break;
+            }
           }
         }
       }
@@ -9187,6 +9492,57 @@ public final class Hstoreservice {
         return this;
       }
       
+      // repeated .edu.brown.hstore.TransactionFinishResponse batch = 3;
+      public java.util.List<edu.brown.hstore.Hstoreservice.TransactionFinishResponse> getBatchList() {
+        return java.util.Collections.unmodifiableList(result.batch_);
+      }
+      public int getBatchCount() {
+        return result.getBatchCount();
+      }
+      public edu.brown.hstore.Hstoreservice.TransactionFinishResponse getBatch(int index) {
+        return result.getBatch(index);
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionFinishResponse value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.batch_.set(index, value);
+        return this;
+      }
+      public Builder setBatch(int index, edu.brown.hstore.Hstoreservice.TransactionFinishResponse.Builder builderForValue) {
+        result.batch_.set(index, builderForValue.build());
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionFinishResponse value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishResponse>();
+        }
+        result.batch_.add(value);
+        return this;
+      }
+      public Builder addBatch(edu.brown.hstore.Hstoreservice.TransactionFinishResponse.Builder builderForValue) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishResponse>();
+        }
+        result.batch_.add(builderForValue.build());
+        return this;
+      }
+      public Builder addAllBatch(
+          java.lang.Iterable<? extends edu.brown.hstore.Hstoreservice.TransactionFinishResponse> values) {
+        if (result.batch_.isEmpty()) {
+          result.batch_ = new java.util.ArrayList<edu.brown.hstore.Hstoreservice.TransactionFinishResponse>();
+        }
+        super.addAll(values, result.batch_);
+        return this;
+      }
+      public Builder clearBatch() {
+        result.batch_ = java.util.Collections.emptyList();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:edu.brown.hstore.TransactionFinishResponse)
     }
     
@@ -14687,78 +15043,84 @@ public final class Hstoreservice {
       "\0162\030.edu.brown.hstore.Status\032r\n\014ReduceRes" +
       "ult\022\024\n\014partition_id\030\001 \002(\005\022\014\n\004data\030\002 \002(\014\022",
       "(\n\006status\030\003 \002(\0162\030.edu.brown.hstore.Statu" +
-      "s\022\024\n\005error\030\004 \001(\010:\005false\"K\n\031TransactionPr" +
-      "epareRequest\022\026\n\016transaction_id\030\001 \002(\003\022\026\n\n" +
-      "partitions\030\002 \003(\005B\002\020\001\"v\n\032TransactionPrepa" +
-      "reResponse\022\026\n\016transaction_id\030\001 \002(\003\022\026\n\npa" +
-      "rtitions\030\002 \003(\005B\002\020\001\022(\n\006status\030\003 \002(\0162\030.edu" +
-      ".brown.hstore.Status\"t\n\030TransactionFinis" +
-      "hRequest\022\026\n\016transaction_id\030\001 \002(\003\022\026\n\npart" +
-      "itions\030\002 \003(\005B\002\020\001\022(\n\006status\030\003 \002(\0162\030.edu.b" +
-      "rown.hstore.Status\"K\n\031TransactionFinishR",
-      "esponse\022\026\n\016transaction_id\030\001 \002(\003\022\026\n\nparti" +
-      "tions\030\002 \003(\005B\002\020\001\"T\n\032TransactionRedirectRe" +
-      "quest\022\023\n\013sender_site\030\001 \002(\005\022\014\n\004work\030\002 \002(\014" +
-      "\022\023\n\013orig_txn_id\030\003 \001(\003\"B\n\033TransactionRedi" +
-      "rectResponse\022\023\n\013sender_site\030\001 \002(\005\022\016\n\006out" +
-      "put\030\002 \002(\014\"`\n\017SendDataRequest\022\026\n\016transact" +
-      "ion_id\030\001 \002(\003\022\023\n\013sender_site\030\002 \002(\005\022\022\n\006dep" +
-      "_id\030\003 \003(\005B\002\020\001\022\014\n\004data\030\004 \003(\014\"\201\001\n\020SendData" +
-      "Response\022\026\n\016transaction_id\030\001 \002(\003\022\026\n\npart" +
-      "itions\030\002 \003(\005B\002\020\001\022\023\n\013sender_site\030\003 \002(\005\022(\n",
-      "\006status\030\004 \002(\0162\030.edu.brown.hstore.Status\"" +
-      "=\n\021InitializeRequest\022\023\n\013sender_site\030\001 \002(" +
-      "\005\022\023\n\013instance_id\030\002 \002(\003\"S\n\022InitializeResp" +
-      "onse\022\023\n\013sender_site\030\001 \002(\005\022(\n\006status\030\002 \002(" +
-      "\0162\030.edu.brown.hstore.Status\"<\n\026ShutdownP" +
-      "repareRequest\022\023\n\013sender_site\030\001 \002(\005\022\r\n\005er" +
-      "ror\030\002 \001(\014\".\n\027ShutdownPrepareResponse\022\023\n\013" +
-      "sender_site\030\001 \002(\005\";\n\017ShutdownRequest\022\023\n\013" +
-      "sender_site\030\001 \002(\005\022\023\n\013exit_status\030\002 \002(\005\"\'" +
-      "\n\020ShutdownResponse\022\023\n\013sender_site\030\001 \002(\005\"",
-      "4\n\017TimeSyncRequest\022\023\n\013sender_site\030\001 \002(\005\022" +
-      "\014\n\004t0_s\030\002 \002(\003\"Q\n\020TimeSyncResponse\022\023\n\013sen" +
-      "der_site\030\001 \002(\005\022\014\n\004t0_s\030\002 \002(\003\022\014\n\004t0_r\030\003 \002" +
-      "(\003\022\014\n\004t1_s\030\004 \002(\003*\320\001\n\006Status\022\006\n\002OK\020\000\022\016\n\nA" +
-      "BORT_USER\020\001\022\022\n\016ABORT_GRACEFUL\020\002\022\024\n\020ABORT" +
-      "_UNEXPECTED\020\003\022\031\n\025ABORT_CONNECTION_LOST\020\004" +
-      "\022\024\n\020ABORT_MISPREDICT\020\005\022\021\n\rABORT_RESTART\020" +
-      "\006\022\020\n\014ABORT_REJECT\020\007\022\027\n\023ABORT_EVICTEDACCE" +
-      "SS\020\010\022\025\n\021ABORT_SPECULATIVE\020\t2\271\n\n\rHStoreSe" +
-      "rvice\022f\n\017TransactionInit\022(.edu.brown.hst",
-      "ore.TransactionInitRequest\032).edu.brown.h" +
-      "store.TransactionInitResponse\022f\n\017Transac" +
-      "tionWork\022(.edu.brown.hstore.TransactionW" +
-      "orkRequest\032).edu.brown.hstore.Transactio" +
-      "nWorkResponse\022x\n\023TransactionPrefetch\022+.e" +
-      "du.brown.hstore.TransactionPrefetchResul" +
-      "t\0324.edu.brown.hstore.TransactionPrefetch" +
-      "Acknowledgement\022c\n\016TransactionMap\022\'.edu." +
-      "brown.hstore.TransactionMapRequest\032(.edu" +
-      ".brown.hstore.TransactionMapResponse\022l\n\021",
-      "TransactionReduce\022*.edu.brown.hstore.Tra" +
-      "nsactionReduceRequest\032+.edu.brown.hstore" +
-      ".TransactionReduceResponse\022o\n\022Transactio" +
-      "nPrepare\022+.edu.brown.hstore.TransactionP" +
-      "repareRequest\032,.edu.brown.hstore.Transac" +
-      "tionPrepareResponse\022l\n\021TransactionFinish" +
-      "\022*.edu.brown.hstore.TransactionFinishReq" +
-      "uest\032+.edu.brown.hstore.TransactionFinis" +
-      "hResponse\022r\n\023TransactionRedirect\022,.edu.b" +
-      "rown.hstore.TransactionRedirectRequest\032-",
-      ".edu.brown.hstore.TransactionRedirectRes" +
-      "ponse\022Q\n\010SendData\022!.edu.brown.hstore.Sen" +
-      "dDataRequest\032\".edu.brown.hstore.SendData" +
-      "Response\022W\n\nInitialize\022#.edu.brown.hstor" +
-      "e.InitializeRequest\032$.edu.brown.hstore.I" +
-      "nitializeResponse\022f\n\017ShutdownPrepare\022(.e" +
-      "du.brown.hstore.ShutdownPrepareRequest\032)" +
-      ".edu.brown.hstore.ShutdownPrepareRespons" +
-      "e\022Q\n\010Shutdown\022!.edu.brown.hstore.Shutdow" +
-      "nRequest\032\".edu.brown.hstore.ShutdownResp",
-      "onse\022Q\n\010TimeSync\022!.edu.brown.hstore.Time" +
-      "SyncRequest\032\".edu.brown.hstore.TimeSyncR" +
-      "esponse"
+      "s\022\024\n\005error\030\004 \001(\010:\005false\"\207\001\n\031TransactionP" +
+      "repareRequest\022\026\n\016transaction_id\030\001 \002(\003\022\026\n" +
+      "\npartitions\030\002 \003(\005B\002\020\001\022:\n\005batch\030\003 \003(\0132+.e" +
+      "du.brown.hstore.TransactionPrepareReques" +
+      "t\"\263\001\n\032TransactionPrepareResponse\022\026\n\016tran" +
+      "saction_id\030\001 \002(\003\022\026\n\npartitions\030\002 \003(\005B\002\020\001" +
+      "\022(\n\006status\030\003 \002(\0162\030.edu.brown.hstore.Stat" +
+      "us\022;\n\005batch\030\004 \003(\0132,.edu.brown.hstore.Tra" +
+      "nsactionPrepareResponse\"\257\001\n\030TransactionF",
+      "inishRequest\022\026\n\016transaction_id\030\001 \002(\003\022\026\n\n" +
+      "partitions\030\002 \003(\005B\002\020\001\022(\n\006status\030\003 \002(\0162\030.e" +
+      "du.brown.hstore.Status\0229\n\005batch\030\004 \003(\0132*." +
+      "edu.brown.hstore.TransactionFinishReques" +
+      "t\"\207\001\n\031TransactionFinishResponse\022\026\n\016trans" +
+      "action_id\030\001 \002(\003\022\026\n\npartitions\030\002 \003(\005B\002\020\001\022" +
+      ":\n\005batch\030\003 \003(\0132+.edu.brown.hstore.Transa" +
+      "ctionFinishResponse\"T\n\032TransactionRedire" +
+      "ctRequest\022\023\n\013sender_site\030\001 \002(\005\022\014\n\004work\030\002" +
+      " \002(\014\022\023\n\013orig_txn_id\030\003 \001(\003\"B\n\033Transaction",
+      "RedirectResponse\022\023\n\013sender_site\030\001 \002(\005\022\016\n" +
+      "\006output\030\002 \002(\014\"`\n\017SendDataRequest\022\026\n\016tran" +
+      "saction_id\030\001 \002(\003\022\023\n\013sender_site\030\002 \002(\005\022\022\n" +
+      "\006dep_id\030\003 \003(\005B\002\020\001\022\014\n\004data\030\004 \003(\014\"\201\001\n\020Send" +
+      "DataResponse\022\026\n\016transaction_id\030\001 \002(\003\022\026\n\n" +
+      "partitions\030\002 \003(\005B\002\020\001\022\023\n\013sender_site\030\003 \002(" +
+      "\005\022(\n\006status\030\004 \002(\0162\030.edu.brown.hstore.Sta" +
+      "tus\"=\n\021InitializeRequest\022\023\n\013sender_site\030" +
+      "\001 \002(\005\022\023\n\013instance_id\030\002 \002(\003\"S\n\022Initialize" +
+      "Response\022\023\n\013sender_site\030\001 \002(\005\022(\n\006status\030",
+      "\002 \002(\0162\030.edu.brown.hstore.Status\"<\n\026Shutd" +
+      "ownPrepareRequest\022\023\n\013sender_site\030\001 \002(\005\022\r" +
+      "\n\005error\030\002 \001(\014\".\n\027ShutdownPrepareResponse" +
+      "\022\023\n\013sender_site\030\001 \002(\005\";\n\017ShutdownRequest" +
+      "\022\023\n\013sender_site\030\001 \002(\005\022\023\n\013exit_status\030\002 \002" +
+      "(\005\"\'\n\020ShutdownResponse\022\023\n\013sender_site\030\001 " +
+      "\002(\005\"4\n\017TimeSyncRequest\022\023\n\013sender_site\030\001 " +
+      "\002(\005\022\014\n\004t0_s\030\002 \002(\003\"Q\n\020TimeSyncResponse\022\023\n" +
+      "\013sender_site\030\001 \002(\005\022\014\n\004t0_s\030\002 \002(\003\022\014\n\004t0_r" +
+      "\030\003 \002(\003\022\014\n\004t1_s\030\004 \002(\003*\320\001\n\006Status\022\006\n\002OK\020\000\022",
+      "\016\n\nABORT_USER\020\001\022\022\n\016ABORT_GRACEFUL\020\002\022\024\n\020A" +
+      "BORT_UNEXPECTED\020\003\022\031\n\025ABORT_CONNECTION_LO" +
+      "ST\020\004\022\024\n\020ABORT_MISPREDICT\020\005\022\021\n\rABORT_REST" +
+      "ART\020\006\022\020\n\014ABORT_REJECT\020\007\022\027\n\023ABORT_EVICTED" +
+      "ACCESS\020\010\022\025\n\021ABORT_SPECULATIVE\020\t2\271\n\n\rHSto" +
+      "reService\022f\n\017TransactionInit\022(.edu.brown" +
+      ".hstore.TransactionInitRequest\032).edu.bro" +
+      "wn.hstore.TransactionInitResponse\022f\n\017Tra" +
+      "nsactionWork\022(.edu.brown.hstore.Transact" +
+      "ionWorkRequest\032).edu.brown.hstore.Transa",
+      "ctionWorkResponse\022x\n\023TransactionPrefetch" +
+      "\022+.edu.brown.hstore.TransactionPrefetchR" +
+      "esult\0324.edu.brown.hstore.TransactionPref" +
+      "etchAcknowledgement\022c\n\016TransactionMap\022\'." +
+      "edu.brown.hstore.TransactionMapRequest\032(" +
+      ".edu.brown.hstore.TransactionMapResponse" +
+      "\022l\n\021TransactionReduce\022*.edu.brown.hstore" +
+      ".TransactionReduceRequest\032+.edu.brown.hs" +
+      "tore.TransactionReduceResponse\022o\n\022Transa" +
+      "ctionPrepare\022+.edu.brown.hstore.Transact",
+      "ionPrepareRequest\032,.edu.brown.hstore.Tra" +
+      "nsactionPrepareResponse\022l\n\021TransactionFi" +
+      "nish\022*.edu.brown.hstore.TransactionFinis" +
+      "hRequest\032+.edu.brown.hstore.TransactionF" +
+      "inishResponse\022r\n\023TransactionRedirect\022,.e" +
+      "du.brown.hstore.TransactionRedirectReque" +
+      "st\032-.edu.brown.hstore.TransactionRedirec" +
+      "tResponse\022Q\n\010SendData\022!.edu.brown.hstore" +
+      ".SendDataRequest\032\".edu.brown.hstore.Send" +
+      "DataResponse\022W\n\nInitialize\022#.edu.brown.h",
+      "store.InitializeRequest\032$.edu.brown.hsto" +
+      "re.InitializeResponse\022f\n\017ShutdownPrepare" +
+      "\022(.edu.brown.hstore.ShutdownPrepareReque" +
+      "st\032).edu.brown.hstore.ShutdownPrepareRes" +
+      "ponse\022Q\n\010Shutdown\022!.edu.brown.hstore.Shu" +
+      "tdownRequest\032\".edu.brown.hstore.Shutdown" +
+      "Response\022Q\n\010TimeSync\022!.edu.brown.hstore." +
+      "TimeSyncRequest\032\".edu.brown.hstore.TimeS" +
+      "yncResponse"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -14882,7 +15244,7 @@ public final class Hstoreservice {
           internal_static_edu_brown_hstore_TransactionPrepareRequest_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_edu_brown_hstore_TransactionPrepareRequest_descriptor,
-              new java.lang.String[] { "TransactionId", "Partitions", },
+              new java.lang.String[] { "TransactionId", "Partitions", "Batch", },
               edu.brown.hstore.Hstoreservice.TransactionPrepareRequest.class,
               edu.brown.hstore.Hstoreservice.TransactionPrepareRequest.Builder.class);
           internal_static_edu_brown_hstore_TransactionPrepareResponse_descriptor =
@@ -14890,7 +15252,7 @@ public final class Hstoreservice {
           internal_static_edu_brown_hstore_TransactionPrepareResponse_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_edu_brown_hstore_TransactionPrepareResponse_descriptor,
-              new java.lang.String[] { "TransactionId", "Partitions", "Status", },
+              new java.lang.String[] { "TransactionId", "Partitions", "Status", "Batch", },
               edu.brown.hstore.Hstoreservice.TransactionPrepareResponse.class,
               edu.brown.hstore.Hstoreservice.TransactionPrepareResponse.Builder.class);
           internal_static_edu_brown_hstore_TransactionFinishRequest_descriptor =
@@ -14898,7 +15260,7 @@ public final class Hstoreservice {
           internal_static_edu_brown_hstore_TransactionFinishRequest_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_edu_brown_hstore_TransactionFinishRequest_descriptor,
-              new java.lang.String[] { "TransactionId", "Partitions", "Status", },
+              new java.lang.String[] { "TransactionId", "Partitions", "Status", "Batch", },
               edu.brown.hstore.Hstoreservice.TransactionFinishRequest.class,
               edu.brown.hstore.Hstoreservice.TransactionFinishRequest.Builder.class);
           internal_static_edu_brown_hstore_TransactionFinishResponse_descriptor =
@@ -14906,7 +15268,7 @@ public final class Hstoreservice {
           internal_static_edu_brown_hstore_TransactionFinishResponse_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_edu_brown_hstore_TransactionFinishResponse_descriptor,
-              new java.lang.String[] { "TransactionId", "Partitions", },
+              new java.lang.String[] { "TransactionId", "Partitions", "Batch", },
               edu.brown.hstore.Hstoreservice.TransactionFinishResponse.class,
               edu.brown.hstore.Hstoreservice.TransactionFinishResponse.Builder.class);
           internal_static_edu_brown_hstore_TransactionRedirectRequest_descriptor =
@@ -0,0 +1,251 @@
+/* Copyright (C) 2013 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <sys/time.h>
+#include <iostream>
+#include <vector>
+#include "harness.h"
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "indexes/tableindex.h"
+#include "indexes/indexkey.h"
+#include "indexes/BinaryTreeMultiMapIndex.h"
+#include "indexes/BPlusTreeMultiMapIndex.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_OF_COLUMNS 2
+#define NUM_OF_TUPLES 100000
+#define NUM_OF_KEYS 10000
+#define NUM_OF_PROBES 200000
+#define RANGE_SCAN_LENGTH 100
+
+/**
+ * The index constructors are only visible to the TableIndexFactory,
+ * so we subclass them here to be able to put the std::multimap index
+ * and the B+tree index side-by-side for the same key type.
+ */
+template<class IndexType>
+class TestIndex : public IndexType {
+public:
+    TestIndex(const TableIndexScheme &scheme) : IndexType(scheme) {}
+};
+
+typedef TestIndex<BinaryTreeMultiMapIndex<IntsKey<1>, IntsComparator<1>, IntsEqualityChecker<1> > > MultiMapIndex;
+typedef TestIndex<BPlusTreeMultiMapIndex<IntsKey<1>, IntsComparator<1>, IntsEqualityChecker<1> > > BPlusTreeIndex;
+
+class BTreeIndexTest : public Test {
+public:
+    BTreeIndexTest() {
+        vector<ValueType> columnTypes(NUM_OF_COLUMNS, VALUE_TYPE_BIGINT);
+        vector<int32_t> columnLengths(NUM_OF_COLUMNS, NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+        vector<bool> columnAllowNull(NUM_OF_COLUMNS, false);
+        m_schema = TupleSchema::createTupleSchema(columnTypes, columnLengths, columnAllowNull, true);
+
+        // Non-unique index on the first column
+        vector<ValueType> keyTypes(1, VALUE_TYPE_BIGINT);
+        vector<int32_t> keyLengths(1, NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+        vector<bool> keyAllowNull(1, true);
+        m_keySchema = TupleSchema::createTupleSchema(keyTypes, keyLengths, keyAllowNull, true);
+        m_keyStorage = new char[m_keySchema->tupleLength() + TUPLE_HEADER_SIZE];
+        m_searchKey = TableTuple(m_keyStorage, m_keySchema);
+
+        // Every tuple gets its own slot in one big block so that the
+        // addresses that we put in the indexes are stable
+        TableTuple tuple(m_schema);
+        m_tupleLength = tuple.tupleLength();
+        m_tupleStorage = new char[m_tupleLength * NUM_OF_TUPLES];
+        for (int64_t i = 0; i < NUM_OF_TUPLES; i++) {
+            tuple.move(m_tupleStorage + (i * m_tupleLength));
+            tuple.setNValue(0, ValueFactory::getBigIntValue(i % NUM_OF_KEYS));
+            tuple.setNValue(1, ValueFactory::getBigIntValue(i));
+            m_tuples.push_back(tuple);
+        }
+    }
+
+    ~BTreeIndexTest() {
+        delete[] m_tupleStorage;
+        delete[] m_keyStorage;
+        TupleSchema::freeTupleSchema(m_keySchema);
+        TupleSchema::freeTupleSchema(m_schema);
+    }
+
+    TableIndexScheme createScheme(string name) {
+        vector<int32_t> columnIndices(1, 0);
+        vector<ValueType> columnTypes(1, VALUE_TYPE_BIGINT);
+        TableIndexScheme scheme(name, BALANCED_TREE_INDEX, columnIndices, columnTypes, false, true, m_schema);
+
+        // The index takes ownership of its key schema
+        vector<ValueType> keyTypes(1, VALUE_TYPE_BIGINT);
+        vector<int32_t> keyLengths(1, NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+        vector<bool> keyAllowNull(1, true);
+        scheme.keySchema = TupleSchema::createTupleSchema(keyTypes, keyLengths, keyAllowNull, true);
+        return (scheme);
+    }
+
+    void load(TableIndex *index) {
+        for (int i = 0; i < NUM_OF_TUPLES; i++) {
+            EXPECT_TRUE(index->addEntry(&m_tuples[i]));
+        }
+        EXPECT_EQ(NUM_OF_TUPLES, index->getSize());
+    }
+
+    int countAtKey(TableIndex *index, int64_t key) {
+        m_searchKey.setNValue(0, ValueFactory::getBigIntValue(key));
+        int ctr = 0;
+        index->moveToKey(&m_searchKey);
+        TableTuple tuple;
+        while (!(tuple = index->nextValueAtKey()).isNullTuple()) {
+            EXPECT_EQ(key, ValuePeeker::peekAsBigInt(tuple.getNValue(0)));
+            ctr++;
+        }
+        return (ctr);
+    }
+
+    int64_t rangeScan(TableIndex *index, int64_t key, int limit) {
+        m_searchKey.setNValue(0, ValueFactory::getBigIntValue(key));
+        index->moveToKeyOrGreater(&m_searchKey);
+        int64_t sum = 0;
+        TableTuple tuple;
+        for (int i = 0; i < limit && !(tuple = index->nextValue()).isNullTuple(); i++) {
+            sum += ValuePeeker::peekAsBigInt(tuple.getNValue(1));
+        }
+        return (sum);
+    }
+
+    static double elapsed(const struct timeval &start) {
+        struct timeval stop;
+        gettimeofday(&stop, NULL);
+        return ((stop.tv_sec - start.tv_sec) + ((stop.tv_usec - start.tv_usec) / 1000000.0));
+    }
+
+    TupleSchema *m_schema;
+    TupleSchema *m_keySchema;
+    char *m_keyStorage;
+    char *m_tupleStorage;
+    int m_tupleLength;
+    TableTuple m_searchKey;
+    vector<TableTuple> m_tuples;
+};
+
+/**
+ * The B+tree index must return the same tuples as the std::multimap index
+ */
+TEST_F(BTreeIndexTest, Compare) {
+    MultiMapIndex expected(createScheme("multimap"));
+    BPlusTreeIndex actual(createScheme("btree"));
+    load(&expected);
+    load(&actual);
+
+    for (int64_t key = 0; key < NUM_OF_KEYS; key += 7) {
+        EXPECT_EQ(NUM_OF_TUPLES / NUM_OF_KEYS, countAtKey(&actual, key));
+        EXPECT_EQ(rangeScan(&expected, key, RANGE_SCAN_LENGTH), rangeScan(&actual, key, RANGE_SCAN_LENGTH));
+    }
+    EXPECT_EQ(0, countAtKey(&actual, NUM_OF_KEYS + 1));
+
+    // Walk the whole thing backwards
+    expected.moveToEnd(false);
+    actual.moveToEnd(false);
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        TableTuple t0 = expected.nextValue();
+        TableTuple t1 = actual.nextValue();
+        ASSERT_FALSE(t1.isNullTuple());
+        EXPECT_EQ(ValuePeeker::peekAsBigInt(t0.getNValue(0)), ValuePeeker::peekAsBigInt(t1.getNValue(0)));
+    }
+    EXPECT_TRUE(actual.nextValue().isNullTuple());
+
+    // Only the exact tuple should get removed for a duplicate key
+    for (int i = 0; i < NUM_OF_TUPLES; i += 2) {
+        EXPECT_TRUE(expected.deleteEntry(&m_tuples[i]));
+        EXPECT_TRUE(actual.deleteEntry(&m_tuples[i]));
+    }
+    EXPECT_FALSE(actual.deleteEntry(&m_tuples[0]));
+    EXPECT_EQ(expected.getSize(), actual.getSize());
+    for (int64_t key = 0; key < NUM_OF_KEYS; key += 7) {
+        EXPECT_EQ(countAtKey(&expected, key), countAtKey(&actual, key));
+        EXPECT_EQ(rangeScan(&expected, key, RANGE_SCAN_LENGTH), rangeScan(&actual, key, RANGE_SCAN_LENGTH));
+    }
+
+    // Move an entry to a new address
+    EXPECT_TRUE(actual.setEntryToNewAddress(&m_tuples[1], m_tuples[3].address()));
+    EXPECT_FALSE(actual.setEntryToNewAddress(&m_tuples[0], m_tuples[3].address()));
+    EXPECT_EQ(expected.getSize(), actual.getSize());
+
+    // advanceToNextKey should skip over all of the duplicates
+    m_searchKey.setNValue(0, ValueFactory::getBigIntValue(1));
+    EXPECT_TRUE(actual.moveToKey(&m_searchKey));
+    EXPECT_TRUE(actual.advanceToNextKey());
+    EXPECT_EQ(3, ValuePeeker::peekAsBigInt(actual.nextValueAtKey().getNValue(0)));
+}
+
+/**
+ * Point-probe and range-scan throughput for the std::multimap index
+ * versus the B+tree index. The numbers are only printed.
+ */
+TEST_F(BTreeIndexTest, Benchmark) {
+    TableIndex *indexes[] = {
+        new MultiMapIndex(createScheme("multimap")),
+        new BPlusTreeIndex(createScheme("btree")),
+    };
+    for (int i = 0; i < 2; i++) {
+        TableIndex *index = indexes[i];
+        struct timeval start;
+
+        gettimeofday(&start, NULL);
+        load(index);
+        double insertTime = elapsed(start);
+
+        gettimeofday(&start, NULL);
+        int found = 0;
+        for (int64_t probe = 0; probe < NUM_OF_PROBES; probe++) {
+            m_searchKey.setNValue(0, ValueFactory::getBigIntValue((probe * 7919) % NUM_OF_KEYS));
+            if (index->moveToKey(&m_searchKey)) found++;
+        }
+        double probeTime = elapsed(start);
+        EXPECT_EQ(NUM_OF_PROBES, found);
+
+        gettimeofday(&start, NULL);
+        int64_t checksum = 0;
+        for (int64_t probe = 0; probe < NUM_OF_PROBES / RANGE_SCAN_LENGTH; probe++) {
+            checksum += rangeScan(index, (probe * 7919) % NUM_OF_KEYS, RANGE_SCAN_LENGTH);
+        }
+        double scanTime = elapsed(start);
+        EXPECT_TRUE(checksum > 0);
+
+        cout << index->getTypeName() << ": "
+             << "insert=" << (NUM_OF_TUPLES / insertTime) << " ops/s, "
+             << "probe=" << (NUM_OF_PROBES / probeTime) << " ops/s, "
+             << "scan=" << ((NUM_OF_PROBES / RANGE_SCAN_LENGTH) / scanTime) << " ops/s" << endl;
+        delete index;
+    }
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
@@ -0,0 +1,163 @@
+package edu.brown.costmodel;
+
+import java.util.Random;
+
+import org.voltdb.CatalogContext;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.GetAccessData;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.catalog.CatalogCloner;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.QueryTrace;
+import edu.brown.workload.TransactionTrace;
+import edu.brown.workload.Workload;
+import edu.brown.workload.filters.Filter;
+import edu.brown.workload.filters.ProcedureNameFilter;
+
+public class TestSingleSitedCostModelIncremental extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 8;
+    private static final int NUM_TXNS = 500;
+    private static final int NUM_THREADS = 4;
+
+    private static Workload workload;
+    private static int num_updates = 0;
+
+    private Database clone_db;
+    private CatalogContext clone_catalogContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+
+        if (workload == null) {
+            Random rand = new Random(1);
+            Procedure proc0 = this.getProcedure(UpdateSubscriberData.class);
+            Statement stmt0 = this.getStatement(proc0, "update1");
+            Statement stmt1 = this.getStatement(proc0, "update2");
+            Procedure proc1 = this.getProcedure(GetAccessData.class);
+            Statement stmt2 = this.getStatement(proc1, "GetData");
+
+            workload = new Workload(catalog);
+            for (long txn_id = 0; txn_id < NUM_TXNS; txn_id++) {
+                long s_id = rand.nextInt(10000);
+                long type = rand.nextInt(4) + 1;
+                TransactionTrace txn_trace = null;
+                if (txn_id % 2 == 0) {
+                    txn_trace = new TransactionTrace(txn_id, proc0, new Object[]{ s_id, 1l, 2l, type });
+                    txn_trace.addQuery(new QueryTrace(stmt0, new Object[]{ 1l, s_id }, 0));
+                    txn_trace.addQuery(new QueryTrace(stmt1, new Object[]{ 2l, s_id, type }, 0));
+                    workload.addTransaction(proc0, txn_trace);
+                    num_updates++;
+                } else {
+                    txn_trace = new TransactionTrace(txn_id, proc1, new Object[]{ s_id, type });
+                    txn_trace.addQuery(new QueryTrace(stmt2, new Object[]{ s_id, type }, 0));
+                    workload.addTransaction(proc1, txn_trace);
+                }
+                for (QueryTrace query_trace : txn_trace.getQueries()) {
+                    query_trace.stop();
+                } // FOR
+                txn_trace.stop();
+            } // FOR
+            assertEquals(NUM_TXNS, workload.getTransactionCount());
+        }
+
+        // Each test gets its own copy of the catalog so that we can change the partitioning
+        this.clone_db = CatalogCloner.cloneDatabase(catalog_db);
+        this.clone_catalogContext = new CatalogContext(this.clone_db.getCatalog());
+    }
+
+    private SingleSitedCostModel createCostModel(int num_threads) {
+        SingleSitedCostModel cost_model = new SingleSitedCostModel(this.clone_catalogContext);
+        cost_model.setCachingEnabled(true);
+        cost_model.setNumThreads(num_threads);
+        return (cost_model);
+    }
+
+    /**
+     * testParallelEstimate
+     */
+    public void testParallelEstimate() throws Exception {
+        SingleSitedCostModel serial = this.createCostModel(1);
+        double expected = serial.estimateWorkloadCost(this.clone_catalogContext, workload);
+        assert(expected > 0);
+
+        SingleSitedCostModel parallel = this.createCostModel(NUM_THREADS);
+        double actual = parallel.estimateWorkloadCost(this.clone_catalogContext, workload);
+        assertEquals(expected, actual, 0.00001);
+        assertEquals(NUM_TXNS, parallel.getLastRecomputedTransactionCount());
+        assertEquals(serial.getTxnPartitionAccessHistogram(), parallel.getTxnPartitionAccessHistogram());
+        assertEquals(serial.getQueryPartitionAccessHistogram(), parallel.getQueryPartitionAccessHistogram());
+        assertEquals(serial.getSinglePartitionProcedureHistogram(), parallel.getSinglePartitionProcedureHistogram());
+        assertEquals(serial.getMultiPartitionProcedureHistogram(), parallel.getMultiPartitionProcedureHistogram());
+    }
+
+    /**
+     * testIncrementalEstimate
+     */
+    public void testIncrementalEstimate() throws Exception {
+        SingleSitedCostModel cost_model = this.createCostModel(NUM_THREADS);
+        double orig_cost = cost_model.estimateWorkloadCost(this.clone_catalogContext, workload);
+        assertEquals(NUM_TXNS, cost_model.getLastRecomputedTransactionCount());
+
+        // Nothing changed, so nothing should be recomputed
+        assertEquals(orig_cost, cost_model.estimateWorkloadCost(this.clone_catalogContext, workload), 0.00001);
+        assertEquals(0, cost_model.getLastRecomputedTransactionCount());
+
+        // Repartition SPECIAL_FACILITY. Only the UpdateSubscriberData txns should get recomputed
+        Table catalog_tbl = this.clone_db.getTables().get(TM1Constants.TABLENAME_SPECIAL_FACILITY);
+        Column catalog_col = catalog_tbl.getColumns().get("SF_TYPE");
+        assertNotNull(catalog_col);
+        catalog_tbl.setPartitioncolumn(catalog_col);
+        cost_model.invalidateCache(catalog_tbl);
+        double new_cost = cost_model.estimateWorkloadCost(this.clone_catalogContext, workload);
+        assertTrue(cost_model.getLastRecomputedTransactionCount() > 0);
+        assertTrue(cost_model.getLastRecomputedTransactionCount() <= num_updates);
+        assertTrue(new_cost > orig_cost);
+
+        // The delta should match what we get from a brand new cost model
+        SingleSitedCostModel fresh = this.createCostModel(1);
+        double expected = fresh.estimateWorkloadCost(this.clone_catalogContext, workload);
+        assertEquals(expected, new_cost, 0.00001);
+        assertEquals(fresh.getTxnPartitionAccessHistogram(), cost_model.getTxnPartitionAccessHistogram());
+
+        // Invalidating a procedure should give us back the same cost
+        cost_model.invalidateCache(this.clone_db.getProcedures().get(GetAccessData.class.getSimpleName()));
+        assertEquals(expected, cost_model.estimateWorkloadCost(this.clone_catalogContext, workload), 0.00001);
+
+        // And clearing everything should force a full pass
+        cost_model.clear(true);
+        assertEquals(expected, cost_model.estimateWorkloadCost(this.clone_catalogContext, workload), 0.00001);
+        assertEquals(NUM_TXNS, cost_model.getLastRecomputedTransactionCount());
+    }
+
+    /**
+     * testIncrementalFilters
+     */
+    @SuppressWarnings("unchecked")
+    public void testIncrementalFilters() throws Exception {
+        SingleSitedCostModel cost_model = this.createCostModel(NUM_THREADS);
+        double orig_cost = cost_model.estimateWorkloadCost(this.clone_catalogContext, workload);
+        assertEquals(NUM_TXNS, cost_model.getLastRecomputedTransactionCount());
+
+        // Estimating with a new Filter reads the same cache entries, but since they
+        // don't change, the txns should not need to be recomputed for the first estimate
+        Filter filter = new ProcedureNameFilter(false).include(GetAccessData.class);
+        double filtered_cost = cost_model.estimateWorkloadCost(this.clone_catalogContext, workload, filter, null);
+        assertEquals(NUM_TXNS - num_updates, cost_model.getLastRecomputedTransactionCount());
+        assertTrue(filtered_cost < orig_cost);
+
+        assertEquals(orig_cost, cost_model.estimateWorkloadCost(this.clone_catalogContext, workload), 0.00001);
+        assertEquals(0, cost_model.getLastRecomputedTransactionCount());
+        assertEquals(filtered_cost, cost_model.estimateWorkloadCost(this.clone_catalogContext, workload, filter, null), 0.00001);
+        assertEquals(0, cost_model.getLastRecomputedTransactionCount());
+    }
+}
@@ -0,0 +1,176 @@
+package edu.brown.designer.partitioners;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.voltdb.CatalogContext;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.GetAccessData;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.catalog.CatalogCloner;
+import edu.brown.costmodel.SingleSitedCostModel;
+import edu.brown.designer.AccessGraph;
+import edu.brown.designer.DesignerHints;
+import edu.brown.designer.DesignerInfo;
+import edu.brown.designer.generators.AccessGraphGenerator;
+import edu.brown.designer.partitioners.BranchAndBoundPartitioner.StateVertex;
+import edu.brown.designer.partitioners.BranchAndBoundPartitioner.TraverseThread;
+import edu.brown.designer.partitioners.plan.PartitionPlan;
+import edu.brown.statistics.WorkloadStatistics;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.QueryTrace;
+import edu.brown.workload.TransactionTrace;
+import edu.brown.workload.Workload;
+import edu.brown.workload.filters.Filter;
+
+/**
+ * Make sure that the incremental estimates in SingleSitedCostModel give the same
+ * answer as a full pass when they are driven by BranchAndBoundPartitioner's
+ * per-level WorkloadFilters. This uses a generated workload so that it does not
+ * need the workload trace files.
+ */
+public class TestBranchAndBoundIncremental extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 8;
+    private static final int NUM_TXNS = 500;
+    private static final int NUM_THREADS = 4;
+
+    /**
+     * Checks every filtered estimate against a brand new cost model
+     */
+    private static class CheckedCostModel extends SingleSitedCostModel {
+        private int num_estimates = 0;
+        private int num_incremental = 0;
+
+        public CheckedCostModel(CatalogContext catalogContext) {
+            super(catalogContext);
+        }
+
+        @Override
+        protected double estimateWorkloadCostImpl(CatalogContext catalogContext, Workload workload, Filter filter, Double upper_bound) throws Exception {
+            double cost = super.estimateWorkloadCostImpl(catalogContext, workload, filter, upper_bound);
+            int recomputed = this.getLastRecomputedTransactionCount();
+
+            SingleSitedCostModel fresh = new SingleSitedCostModel(catalogContext);
+            double expected = fresh.estimateWorkloadCost(catalogContext, workload, filter, upper_bound);
+            // A full pass will stop early once it exceeds the upper bound, but
+            // the incremental estimate always gives us the whole cost
+            if (upper_bound != null && expected > upper_bound.doubleValue()) {
+                assertTrue(filter.toString(), cost > upper_bound.doubleValue());
+            } else {
+                assertEquals(filter.toString(), expected, cost, 0.00001);
+            }
+            this.num_estimates++;
+            if (recomputed < fresh.getLastRecomputedTransactionCount()) this.num_incremental++;
+            return (cost);
+        }
+    } // CLASS
+
+    private static Workload workload;
+
+    private Database clone_db;
+    private CatalogContext clone_catalogContext;
+    private CheckedCostModel cost_model;
+    private DesignerInfo info;
+    private DesignerHints hints;
+    private AccessGraph agraph;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+
+        if (workload == null) {
+            Random rand = new Random(1);
+            Procedure proc0 = this.getProcedure(UpdateSubscriberData.class);
+            Statement stmt0 = this.getStatement(proc0, "update1");
+            Statement stmt1 = this.getStatement(proc0, "update2");
+            Procedure proc1 = this.getProcedure(GetAccessData.class);
+            Statement stmt2 = this.getStatement(proc1, "GetData");
+
+            workload = new Workload(catalog);
+            for (long txn_id = 0; txn_id < NUM_TXNS; txn_id++) {
+                long s_id = rand.nextInt(10000);
+                long type = rand.nextInt(4) + 1;
+                TransactionTrace txn_trace = null;
+                if (txn_id % 2 == 0) {
+                    txn_trace = new TransactionTrace(txn_id, proc0, new Object[]{ s_id, 1l, 2l, type });
+                    txn_trace.addQuery(new QueryTrace(stmt0, new Object[]{ 1l, s_id }, 0));
+                    txn_trace.addQuery(new QueryTrace(stmt1, new Object[]{ 2l, s_id, type }, 0));
+                    workload.addTransaction(proc0, txn_trace);
+                } else {
+                    txn_trace = new TransactionTrace(txn_id, proc1, new Object[]{ s_id, type });
+                    txn_trace.addQuery(new QueryTrace(stmt2, new Object[]{ s_id, type }, 0));
+                    workload.addTransaction(proc1, txn_trace);
+                }
+                for (QueryTrace query_trace : txn_trace.getQueries()) {
+                    query_trace.stop();
+                } // FOR
+                txn_trace.stop();
+            } // FOR
+        }
+
+        // The partitioner changes the catalog, so we need our own copy
+        this.clone_db = CatalogCloner.cloneDatabase(catalog_db);
+        this.clone_catalogContext = new CatalogContext(this.clone_db.getCatalog());
+
+        WorkloadStatistics stats = new WorkloadStatistics(this.clone_db);
+        stats.process(this.clone_db, workload);
+
+        this.cost_model = new CheckedCostModel(this.clone_catalogContext);
+        this.cost_model.setCachingEnabled(true);
+        this.cost_model.setNumThreads(NUM_THREADS);
+
+        this.info = new DesignerInfo(this.clone_catalogContext, workload, stats);
+        this.info.setCostModel(this.cost_model);
+        this.info.setNumThreads(1);
+        this.hints = new DesignerHints();
+
+        AccessGraph orig_agraph = new AccessGraph(this.clone_db);
+        for (Procedure catalog_proc : this.clone_db.getProcedures()) {
+            if (workload.getTraces(catalog_proc).isEmpty()) continue;
+            new AccessGraphGenerator(this.info, catalog_proc).generate(orig_agraph);
+        } // FOR
+        this.agraph = AccessGraphGenerator.convertToSingleColumnEdges(this.clone_db, orig_agraph);
+    }
+
+    /**
+     * testTraverse
+     */
+    public void testTraverse() throws Exception {
+        List<Procedure> proc_visit_order = new ArrayList<Procedure>();
+        List<Table> table_visit_order = new ArrayList<Table>();
+        table_visit_order.add(this.clone_db.getTables().get(TM1Constants.TABLENAME_SUBSCRIBER));
+        table_visit_order.add(this.clone_db.getTables().get(TM1Constants.TABLENAME_SPECIAL_FACILITY));
+        table_visit_order.add(this.clone_db.getTables().get(TM1Constants.TABLENAME_ACCESS_INFO));
+
+        hints.enable_costmodel_caching = true;
+        hints.enable_multi_partitioning = false;
+        hints.enable_replication_readmostly = false;
+        hints.enable_replication_readonly = false;
+        hints.enable_procparameter_search = false;
+        hints.max_memory_per_partition = Long.MAX_VALUE;
+
+        BranchAndBoundPartitioner partitioner = new BranchAndBoundPartitioner(null, this.info, this.agraph, table_visit_order, proc_visit_order);
+        PartitionPlan ub_pplan = PartitionPlan.createFromCatalog(this.clone_db);
+        partitioner.setUpperBounds(hints, ub_pplan, Double.MAX_VALUE, 1000l);
+        partitioner.init(hints);
+
+        StateVertex start_vertex = StateVertex.getStartVertex(Double.MAX_VALUE, Long.MAX_VALUE);
+        TraverseThread thread = partitioner.new TraverseThread(this.info, hints, start_vertex, this.agraph, table_visit_order, proc_visit_order);
+        thread.traverse(start_vertex, 0);
+        assertNotNull(partitioner.getBestVertex());
+
+        // The traversal should have gone back to each level's filter with
+        // only a few invalidated txns, and every answer was checked
+        assertTrue(this.cost_model.num_estimates > 0);
+        assertTrue(this.cost_model.num_incremental > 0);
+    }
+}
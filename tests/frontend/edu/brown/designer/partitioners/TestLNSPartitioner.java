@@ -344,4 +344,37 @@ public class TestLNSPartitioner extends BasePartitionerTestCase {
 //        assertEquals(this.partitioner.initial_cost, new_cost);
         
     }
+    
+    /**
+     * testParallelLocalSearch
+     */
+    public void testParallelLocalSearch() throws Exception {
+        final int num_searches = 2;
+        hints.limit_local_time = 5;
+        hints.local_search_threads = num_searches;
+        hints.enable_procparameter_search = false;
+        hints.max_memory_per_partition = Long.MAX_VALUE;
+        hints.relaxation_min_size = 1;
+        this.partitioner.init(this.hints);
+        assertEquals(num_searches, this.partitioner.getLocalSearchCount(hints));
+        this.partitioner.calculateInitialSolution(hints);
+        this.partitioner.best_solution = new PartitionPlan(this.partitioner.initial_solution);
+        this.partitioner.best_memory = this.partitioner.initial_memory;
+        this.partitioner.best_cost = this.partitioner.initial_cost;
+        this.partitioner.restart_ctr = 0;
+
+        assertTrue(this.partitioner.parallelLocalSearch(hints, num_searches));
+        assertEquals(num_searches, this.partitioner.restart_ctr.intValue());
+        assertTrue(this.partitioner.best_cost <= this.partitioner.initial_cost);
+        
+        // The best solution should reference our catalog and not one of the workers' copies
+        for (Table catalog_tbl : this.partitioner.best_solution.getTableEntries().keySet()) {
+            assertSame(catalog_db, CatalogUtil.getDatabase(catalog_tbl));
+        } // FOR
+
+        // And its cost should be the same when we compute it again from scratch
+        info.getCostModel().clear(true);
+        double cost = info.getCostModel().estimateWorkloadCost(catalogContext, workload);
+        assertEquals(this.partitioner.best_cost, cost, 0.001);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,138 @@
+package edu.brown.hstore;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Table;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.utils.VoltTableUtil;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hashing.AbstractHasher;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Throughput benchmark for multi-partition ad-hoc queries. Every @AdHoc
+ * txn touches all of the partitions, so each one runs a custom plan fragment
+ * in every PartitionExecutor's EE at the same time. This is the path that
+ * used to be serialized by the JVM-wide lock in ExecutionEngineJNI.
+ * This is not named Test* so that it does not get picked up by the junit
+ * targets. Run it by hand with "ant junitclass -Djunitclass=AdHocThroughputBenchmark".
+ */
+public class AdHocThroughputBenchmark extends BaseTestCase {
+    private static final Logger LOG = Logger.getLogger(AdHocThroughputBenchmark.class);
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_TUPLES = 1000;
+    private static final int NUM_CLIENTS = 4;
+    private static final int WARMUP_TXNS = 100;
+    private static final int NUM_TXNS = 1000;
+    private static final String SQL = "SELECT COUNT(*) FROM " + TM1Constants.TABLENAME_SUBSCRIBER;
+
+    private HStoreSite hstore_site;
+    private HStoreConf hstore_conf;
+    private final Client clients[] = new Client[NUM_CLIENTS];
+
+    private boolean orig_adhoc_sql;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        initializeCatalog(1, 1, NUM_PARTITIONS);
+
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        this.hstore_conf = HStoreConf.singleton();
+        this.orig_adhoc_sql = this.hstore_conf.site.exec_adhoc_sql;
+        this.hstore_conf.site.status_enable = false;
+        this.hstore_conf.site.exec_adhoc_sql = true;
+
+        this.hstore_site = this.createHStoreSite(catalog_site, this.hstore_conf);
+        for (int i = 0; i < NUM_CLIENTS; i++) {
+            this.clients[i] = this.createClient();
+        } // FOR
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SUBSCRIBER));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (Client client : this.clients) {
+            if (client != null) client.close();
+        } // FOR
+        if (this.hstore_site != null) this.hstore_site.shutdown();
+        this.hstore_conf.site.exec_adhoc_sql = this.orig_adhoc_sql;
+    }
+
+    private void loadData(Table catalog_tbl) throws Exception {
+        // Load some data directly into the EEs without going through transactions
+        VoltTable vts[] = new VoltTable[NUM_PARTITIONS];
+        for (int i = 0; i < vts.length; i++) {
+            vts[i] = CatalogUtil.getVoltTable(catalog_tbl);
+        } // FOR
+        AbstractHasher hasher = p_estimator.getHasher();
+        for (int i = 0; i < NUM_TUPLES; i++) {
+            Object row[] = VoltTableUtil.getRandomRow(catalog_tbl);
+            row[0] = Long.valueOf(i);
+            vts[hasher.hash(row[0])].addRow(row);
+        } // FOR
+        for (int i = 0; i < vts.length; i++) {
+            PartitionExecutor executor = this.hstore_site.getPartitionExecutor(i);
+            executor.loadTable((long)i, catalog_tbl, vts[i], false);
+        } // FOR
+    }
+
+    /**
+     * Have every client fire off the given number of @AdHoc txns one after
+     * another and return how long it took for all of them to finish (ms)
+     */
+    private long runClients(final int num_txns) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread threads[] = new Thread[NUM_CLIENTS];
+        for (int i = 0; i < NUM_CLIENTS; i++) {
+            final Client client = this.clients[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int j = 0; j < num_txns; j++) {
+                            ClientResponse cr = client.callProcedure("@AdHoc", SQL);
+                            assertEquals(cr.toString(), Status.OK, cr.getStatus());
+                            assertEquals(NUM_TUPLES, cr.getResults()[0].asScalarLong());
+                        } // FOR
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    }
+                }
+            };
+            threads[i].start();
+        } // FOR
+
+        long start = System.currentTimeMillis();
+        startLatch.countDown();
+        for (Thread t : threads) t.join();
+        long elapsed = System.currentTimeMillis() - start;
+        if (error.get() != null) throw new Exception(error.get());
+        return (elapsed);
+    }
+
+    /**
+     * testMultiPartitionAdHoc
+     */
+    public void testMultiPartitionAdHoc() throws Exception {
+        this.runClients(WARMUP_TXNS);
+        long elapsed = this.runClients(NUM_TXNS);
+        int total = NUM_CLIENTS * NUM_TXNS;
+        LOG.info(String.format("@AdHoc: %d multi-partition txns on %d partitions in %.2fs [%.1f txn/s]",
+                               total, NUM_PARTITIONS, elapsed / 1000d, total / (elapsed / 1000d)));
+    }
+}
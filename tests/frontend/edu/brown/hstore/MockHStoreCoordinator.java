@@ -1,5 +1,9 @@
 package edu.brown.hstore;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.log4j.Logger;
 
 import com.google.protobuf.RpcCallback;
@@ -14,6 +18,7 @@ import edu.brown.hstore.Hstoreservice.ShutdownPrepareRequest;
 import edu.brown.hstore.Hstoreservice.ShutdownPrepareResponse;
 import edu.brown.hstore.Hstoreservice.ShutdownRequest;
 import edu.brown.hstore.Hstoreservice.ShutdownResponse;
+import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.Hstoreservice.TimeSyncRequest;
 import edu.brown.hstore.Hstoreservice.TimeSyncResponse;
 import edu.brown.hstore.Hstoreservice.TransactionFinishRequest;
@@ -53,6 +58,12 @@ public class MockHStoreCoordinator extends HStoreCoordinator {
     final HStoreConf hstore_conf;
     final HStoreSite hstore_site;
     
+    /**
+     * The 2PC messages that we have received, in the order that they got here
+     * (e.g., "PREPARE:1001", "FINISH:1001")
+     */
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    
     /**
      * Constructor
      * @param catalog_site
@@ -89,6 +100,10 @@ public class MockHStoreCoordinator extends HStoreCoordinator {
 //        });
     }
     
+    public List<String> getReceivedMessages() {
+        return (this.received);
+    }
+    
     @Override
     protected HStoreService initHStoreService() {
         return new MockServiceHandler();
@@ -122,14 +137,42 @@ public class MockHStoreCoordinator extends HStoreCoordinator {
         @Override
         public void transactionPrepare(RpcController controller, TransactionPrepareRequest request, RpcCallback<TransactionPrepareResponse> done) {
             LOG.info("Incoming " + request.getClass().getSimpleName());
-            // TODO Auto-generated method stub
-            
+            TransactionPrepareResponse.Builder builder = this.prepare(request);
+            for (int i = 0, cnt = request.getBatchCount(); i < cnt; i++) {
+                builder.addBatch(this.prepare(request.getBatch(i)));
+            } // FOR
+            done.run(builder.build());
+        }
+        
+        private TransactionPrepareResponse.Builder prepare(TransactionPrepareRequest request) {
+            received.add("PREPARE:" + request.getTransactionId());
+            TransactionPrepareResponse.Builder builder = TransactionPrepareResponse.newBuilder()
+                                                            .setTransactionId(request.getTransactionId())
+                                                            .setStatus(Status.OK);
+            for (int p : request.getPartitionsList()) {
+                if (hstore_site.isLocalPartition(p)) builder.addPartitions(p);
+            } // FOR
+            return (builder);
         }
 
         @Override
         public void transactionFinish(RpcController controller, TransactionFinishRequest request, RpcCallback<TransactionFinishResponse> done) {
             LOG.info("Incoming " + request.getClass().getSimpleName());
-            // TODO Auto-generated method stub
+            TransactionFinishResponse.Builder builder = this.finish(request);
+            for (int i = 0, cnt = request.getBatchCount(); i < cnt; i++) {
+                builder.addBatch(this.finish(request.getBatch(i)));
+            } // FOR
+            done.run(builder.build());
+        }
+        
+        private TransactionFinishResponse.Builder finish(TransactionFinishRequest request) {
+            received.add("FINISH:" + request.getTransactionId());
+            TransactionFinishResponse.Builder builder = TransactionFinishResponse.newBuilder()
+                                                            .setTransactionId(request.getTransactionId());
+            for (int p : request.getPartitionsList()) {
+                if (hstore_site.isLocalPartition(p)) builder.addPartitions(p);
+            } // FOR
+            return (builder);
         }
 
         @Override
@@ -0,0 +1,145 @@
+package edu.brown.hstore;
+
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.voltdb.ParameterSet;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.GetAccessData;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.hashing.DefaultHasher;
+import edu.brown.profilers.ProfileMeasurement;
+import edu.brown.statistics.FastIntHistogram;
+import edu.brown.statistics.Histogram;
+import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Micro-benchmark for the touched partition tracking that BatchPlanner and
+ * PartitionEstimator do for every txn. Each test runs the same workload with
+ * a regular Histogram and a FastIntHistogram, makes sure that they end up
+ * with the same counts, and then logs the average time per invocation.
+ * This is not named Test* so that it does not get picked up by the junit
+ * targets. Run it by hand with "ant junitclass -Djunitclass=PartitionSetBenchmark".
+ */
+public class PartitionSetBenchmark extends BaseTestCase {
+    private static final Logger LOG = Logger.getLogger(PartitionSetBenchmark.class);
+
+    private static final int NUM_PARTITIONS = 10;
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int NUM_ROUNDS = 20000;
+    private static final Long TXN_ID = 1000l;
+    private static final long CLIENT_HANDLE = 99999l;
+    private static final int BASE_PARTITION = 1;
+
+    private final Random rand = new Random(0);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        p_estimator = new PartitionEstimator(catalogContext, new DefaultHasher(catalog_db, NUM_PARTITIONS));
+    }
+
+    private static void assertSameCounts(Histogram<Integer> expected, FastIntHistogram actual) {
+        assertEquals(expected.getSampleCount(), actual.getSampleCount());
+        assertEquals(expected.getValueCount(), actual.getValueCount());
+        for (Integer p : expected.values()) {
+            assertEquals(p.toString(), expected.get(p).longValue(), actual.get(p.intValue()));
+        } // FOR
+    }
+
+    private static void printResult(String name, ProfileMeasurement slow, ProfileMeasurement fast) {
+        LOG.info(String.format("%s: Histogram=%.1fns FastIntHistogram=%.1fns [rounds=%d]",
+                               name, slow.getAverageThinkTime(), fast.getAverageThinkTime(), fast.getInvocations()));
+    }
+
+    /**
+     * Plan a multi-partition batch over and over again and track the partitions
+     * that it touches in the given histogram. The histogram is cleared in
+     * between rounds just like LocalTransaction does when it is recycled.
+     */
+    private void runBatchPlanner(BatchPlanner planner, ParameterSet args[], PartitionSet predict,
+                                 Histogram<Integer> touched, ProfileMeasurement pm, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            touched.clear();
+            if (pm != null) pm.start();
+            BatchPlanner.BatchPlan plan = planner.plan(TXN_ID, CLIENT_HANDLE, BASE_PARTITION, predict, false, touched, args);
+            if (pm != null) pm.stop();
+            assert(plan.hasMisprediction() == false);
+        } // FOR
+    }
+
+    /**
+     * Figure out the partitions for random parameters and add them to the histogram.
+     */
+    private void runPartitionEstimator(Statement catalog_stmt, Histogram<Integer> touched,
+                                       ProfileMeasurement pm, int rounds, long seed) throws Exception {
+        Random r = new Random(seed);
+        PartitionSet partitions = new PartitionSet();
+        Object params[] = new Object[catalog_stmt.getParameters().size()];
+        for (int i = 0; i < rounds; i++) {
+            for (int j = 0; j < params.length; j++) {
+                params[j] = Long.valueOf(r.nextInt(100000));
+            } // FOR
+            partitions.clear();
+            if (pm != null) pm.start();
+            p_estimator.getAllPartitions(partitions, catalog_stmt, params, BASE_PARTITION);
+            touched.put(partitions);
+            if (pm != null) pm.stop();
+        } // FOR
+    }
+
+    /**
+     * testBatchPlanner
+     */
+    public void testBatchPlanner() throws Exception {
+        Procedure catalog_proc = this.getProcedure(UpdateLocation.class);
+        Statement catalog_stmt = this.getStatement(catalog_proc, "update");
+        SQLStmt batch[] = { new SQLStmt(catalog_stmt, catalog_stmt.getMs_fragments()) };
+        ParameterSet args[] = { VoltProcedure.getCleanParams(batch[0], new Object[]{ 1l, "XXX" }) };
+        BatchPlanner planner = new BatchPlanner(batch, catalog_proc, p_estimator);
+        PartitionSet predict = catalogContext.getAllPartitionIds();
+
+        Histogram<Integer> slow = new Histogram<Integer>();
+        FastIntHistogram fast = new FastIntHistogram(NUM_PARTITIONS);
+        this.runBatchPlanner(planner, args, predict, slow, null, WARMUP_ROUNDS);
+        this.runBatchPlanner(planner, args, predict, fast, null, WARMUP_ROUNDS);
+
+        ProfileMeasurement slowPM = new ProfileMeasurement("HISTOGRAM");
+        ProfileMeasurement fastPM = new ProfileMeasurement("FAST");
+        this.runBatchPlanner(planner, args, predict, slow, slowPM, NUM_ROUNDS);
+        this.runBatchPlanner(planner, args, predict, fast, fastPM, NUM_ROUNDS);
+        assertEquals(NUM_PARTITIONS, fast.getValueCount());
+        assertSameCounts(slow, fast);
+        printResult("BatchPlanner.plan", slowPM, fastPM);
+    }
+
+    /**
+     * testPartitionEstimator
+     */
+    public void testPartitionEstimator() throws Exception {
+        Procedure catalog_proc = this.getProcedure(GetAccessData.class);
+        Statement catalog_stmt = this.getStatement(catalog_proc, "GetData");
+        long seed = rand.nextLong();
+
+        Histogram<Integer> slow = new Histogram<Integer>();
+        FastIntHistogram fast = new FastIntHistogram(NUM_PARTITIONS);
+        this.runPartitionEstimator(catalog_stmt, new Histogram<Integer>(), null, WARMUP_ROUNDS, seed);
+        this.runPartitionEstimator(catalog_stmt, new FastIntHistogram(NUM_PARTITIONS), null, WARMUP_ROUNDS, seed);
+
+        ProfileMeasurement slowPM = new ProfileMeasurement("HISTOGRAM");
+        ProfileMeasurement fastPM = new ProfileMeasurement("FAST");
+        this.runPartitionEstimator(catalog_stmt, slow, slowPM, NUM_ROUNDS, seed);
+        this.runPartitionEstimator(catalog_stmt, fast, fastPM, NUM_ROUNDS, seed);
+        assertEquals(NUM_ROUNDS, fast.getSampleCount());
+        assertSameCounts(slow, fast);
+        printResult("PartitionEstimator.getAllPartitions", slowPM, fastPM);
+    }
+}
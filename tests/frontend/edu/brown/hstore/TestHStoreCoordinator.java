@@ -7,6 +7,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -16,6 +17,7 @@ import org.junit.Test;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 import org.voltdb.catalog.Partition;
+import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
 import org.voltdb.exceptions.SerializableException;
 
@@ -25,10 +27,21 @@ import com.google.protobuf.RpcCallback;
 import edu.brown.BaseTestCase;
 import edu.brown.hstore.Hstoreservice.ShutdownPrepareRequest;
 import edu.brown.hstore.Hstoreservice.ShutdownPrepareResponse;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.Hstoreservice.TransactionFinishRequest;
+import edu.brown.hstore.Hstoreservice.TransactionFinishResponse;
+import edu.brown.hstore.Hstoreservice.TransactionPrepareRequest;
+import edu.brown.hstore.Hstoreservice.TransactionPrepareResponse;
 import edu.brown.hstore.callbacks.ShutdownPrepareCallback;
+import edu.brown.hstore.callbacks.TransactionFinishCallback;
+import edu.brown.hstore.callbacks.TransactionPrepareCallback;
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.handlers.TransactionPrepareHandler;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.hstore.txns.RemoteTransaction;
 import edu.brown.utils.EventObservable;
 import edu.brown.utils.EventObserver;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
 import edu.brown.utils.ThreadUtil;
 
@@ -41,10 +54,18 @@ public class TestHStoreCoordinator extends BaseTestCase {
     private final int NUM_HOSTS               = 1;
     private final int NUM_SITES_PER_HOST      = 4;
     private final int NUM_PARTITIONS_PER_SITE = 2;
-    private final int NUM_SITES               = (NUM_HOSTS * NUM_SITES_PER_HOST);
+    protected final int NUM_SITES             = (NUM_HOSTS * NUM_SITES_PER_HOST);
+    private static final int BATCH_SIZE       = 3;
     
     private final HStoreSite hstore_sites[] = new HStoreSite[NUM_SITES_PER_HOST];
-    private final HStoreCoordinator coordinators[] = new HStoreCoordinator[NUM_SITES_PER_HOST];
+    protected final HStoreCoordinator coordinators[] = new HStoreCoordinator[NUM_SITES_PER_HOST];
+    
+    // The original HStoreConf values that we change for these tests
+    private boolean orig_sync_time;
+    private boolean orig_batch_2pc;
+    private int orig_batch_2pc_size;
+    private int orig_batch_2pc_delay;
+    private int orig_batch_2pc_prepare_wait;
     
 //    private final VoltTable.ColumnInfo columns[] = {
 //        new VoltTable.ColumnInfo("key", VoltType.STRING),
@@ -56,7 +77,20 @@ public class TestHStoreCoordinator extends BaseTestCase {
     public void setUp() throws Exception {
         super.setUp(ProjectType.TM1);
         
-        HStoreConf.singleton().site.coordinator_sync_time = false;
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        this.orig_sync_time = hstore_conf.site.coordinator_sync_time;
+        this.orig_batch_2pc = hstore_conf.site.coordinator_batch_2pc;
+        this.orig_batch_2pc_size = hstore_conf.site.coordinator_batch_2pc_size;
+        this.orig_batch_2pc_delay = hstore_conf.site.coordinator_batch_2pc_delay;
+        this.orig_batch_2pc_prepare_wait = hstore_conf.site.coordinator_batch_2pc_prepare_wait;
+        hstore_conf.site.coordinator_sync_time = false;
+        
+        // The 2PC handlers create their TransactionBatchers when the
+        // HStoreCoordinators are created, so we have to turn this on first
+        hstore_conf.site.coordinator_batch_2pc = true;
+        hstore_conf.site.coordinator_batch_2pc_size = BATCH_SIZE;
+        hstore_conf.site.coordinator_batch_2pc_delay = 100000; // 100ms
+        hstore_conf.site.coordinator_batch_2pc_prepare_wait = 10000; // 10ms
         
         // Create a fake cluster of two HStoreSites, each with two partitions
         // This will allow us to test same site communication as well as cross-site communication
@@ -84,6 +118,13 @@ public class TestHStoreCoordinator extends BaseTestCase {
         super.tearDown();
         this.stopMessengers();
         
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.coordinator_sync_time = this.orig_sync_time;
+        hstore_conf.site.coordinator_batch_2pc = this.orig_batch_2pc;
+        hstore_conf.site.coordinator_batch_2pc_size = this.orig_batch_2pc_size;
+        hstore_conf.site.coordinator_batch_2pc_delay = this.orig_batch_2pc_delay;
+        hstore_conf.site.coordinator_batch_2pc_prepare_wait = this.orig_batch_2pc_prepare_wait;
+        
         // Check to make sure all of the ports are free for each messenger
         for (HStoreCoordinator m : this.coordinators) {
             // assert(m.isStopped()) : "Site #" + m.getLocalSiteId() + " wasn't stopped";
@@ -230,6 +271,237 @@ public class TestHStoreCoordinator extends BaseTestCase {
 //        } // FOR
 //    }
     
+    /**
+     * Create a distributed LocalTransaction at the first HStoreSite that
+     * touches all of the partitions in the cluster
+     * @param txn_id
+     */
+    private LocalTransaction createTransaction(long txn_id) {
+        Procedure catalog_proc = catalogContext.procedures.getIgnoreCase("@NoOp");
+        int base_partition = hstore_sites[0].getLocalPartitionIds().values()[0];
+        LocalTransaction ts = new LocalTransaction(hstore_sites[0]);
+        ts.testInit(txn_id, base_partition, catalogContext.getAllPartitionIds(), catalog_proc);
+        assertFalse(ts.isPredictSinglePartition());
+        return (ts);
+    }
+    
+    /**
+     * testBatchedTransactionPrepare
+     */
+    @Test
+    public void testBatchedTransactionPrepare() throws Exception {
+        final int NUM_TXNS = BATCH_SIZE + 2;
+        final int remote_site_id = 1;
+        final PartitionSet remote_partitions = hstore_sites[remote_site_id].getLocalPartitionIds();
+        final TransactionPrepareResponse responses[] = new TransactionPrepareResponse[NUM_TXNS];
+        final CountDownLatch latch = new CountDownLatch(NUM_TXNS);
+        
+        // The first BATCH_SIZE txns should go out together as soon as the batch is full.
+        // The rest should get sent when the timer goes off.
+        LocalTransaction local_txns[] = new LocalTransaction[NUM_TXNS];
+        for (int i = 0; i < NUM_TXNS; i++) {
+            final int offset = i;
+            TransactionPrepareCallback callback = new TransactionPrepareCallback(hstore_sites[0]) {
+                @Override
+                protected int runImpl(TransactionPrepareResponse response) {
+                    responses[offset] = response;
+                    latch.countDown();
+                    return super.runImpl(response);
+                }
+            };
+            local_txns[i] = this.createTransaction(1000 + i);
+            callback.init(local_txns[i]);
+            coordinators[0].transactionPrepare(local_txns[i], callback, remote_partitions);
+        } // FOR
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        
+        for (int i = 0; i < NUM_TXNS; i++) {
+            assertNotNull(responses[i]);
+            assertEquals(local_txns[i].getTransactionId().longValue(), responses[i].getTransactionId());
+            assertEquals(Status.OK, responses[i].getStatus());
+            assertEquals(remote_partitions.size(), responses[i].getPartitionsCount());
+        } // FOR
+        assertEquals(BATCH_SIZE - 1, responses[0].getBatchCount());
+        assertEquals(NUM_TXNS - BATCH_SIZE - 1, responses[BATCH_SIZE].getBatchCount());
+    }
+    
+    /**
+     * testBatchedTransactionFinish
+     */
+    @Test
+    public void testBatchedTransactionFinish() throws Exception {
+        final int NUM_TXNS = BATCH_SIZE + 2;
+        final int num_remote_sites = NUM_SITES - 1;
+        @SuppressWarnings("unchecked")
+        final List<TransactionFinishResponse> responses[] = new List[NUM_TXNS];
+        final CountDownLatch latch = new CountDownLatch(NUM_TXNS * num_remote_sites);
+        
+        // Each txn touches every site, so the coordinator will have to queue a
+        // finish message for it at each of the remote sites' batches.
+        // The first BATCH_SIZE txns should go out together as soon as the batch is full.
+        // The rest should get sent when the timer goes off.
+        LocalTransaction local_txns[] = new LocalTransaction[NUM_TXNS];
+        for (int i = 0; i < NUM_TXNS; i++) {
+            final int offset = i;
+            responses[i] = Collections.synchronizedList(new ArrayList<TransactionFinishResponse>());
+            local_txns[i] = this.createTransaction(1000 + i);
+            TransactionFinishCallback callback = new TransactionFinishCallback(hstore_sites[0]) {
+                @Override
+                protected int runImpl(TransactionFinishResponse response) {
+                    responses[offset].add(response);
+                    latch.countDown();
+                    return super.runImpl(response);
+                }
+            };
+            callback.init(local_txns[i], Status.OK);
+            coordinators[0].transactionFinish(local_txns[i], Status.OK, callback);
+        } // FOR
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        
+        for (int i = 0; i < NUM_TXNS; i++) {
+            assertEquals(num_remote_sites, responses[i].size());
+            for (TransactionFinishResponse response : responses[i]) {
+                assertEquals(local_txns[i].getTransactionId().longValue(), response.getTransactionId());
+                assertEquals(NUM_PARTITIONS_PER_SITE, response.getPartitionsCount());
+            } // FOR
+        } // FOR
+        for (TransactionFinishResponse response : responses[0]) {
+            assertEquals(BATCH_SIZE - 1, response.getBatchCount());
+        } // FOR
+        for (TransactionFinishResponse response : responses[BATCH_SIZE]) {
+            assertEquals(NUM_TXNS - BATCH_SIZE - 1, response.getBatchCount());
+        } // FOR
+    }
+    
+    /**
+     * testBatchedPrepareBeforeFinish
+     */
+    @Test
+    public void testBatchedPrepareBeforeFinish() throws Exception {
+        final int remote_site_id = 1;
+        final int num_remote_sites = NUM_SITES - 1;
+        final PartitionSet remote_partitions = hstore_sites[remote_site_id].getLocalPartitionIds();
+        
+        // The prepare for the first txn will sit in its batch until the timer goes off
+        LocalTransaction ts = this.createTransaction(2000);
+        TransactionPrepareCallback prepareCallback = new TransactionPrepareCallback(hstore_sites[0]);
+        prepareCallback.init(ts);
+        coordinators[0].transactionPrepare(ts, prepareCallback, remote_partitions);
+        
+        // Now abort it along with enough other txns so that the finish batches
+        // are full and go out right away. The prepare has to get there first.
+        final CountDownLatch latch = new CountDownLatch(BATCH_SIZE * num_remote_sites);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            LocalTransaction finish_ts = (i == 0 ? ts : this.createTransaction(2000 + i));
+            TransactionFinishCallback callback = new TransactionFinishCallback(hstore_sites[0]) {
+                @Override
+                protected int runImpl(TransactionFinishResponse response) {
+                    latch.countDown();
+                    return super.runImpl(response);
+                }
+            };
+            callback.init(finish_ts, Status.ABORT_USER);
+            coordinators[0].transactionFinish(finish_ts, Status.ABORT_USER, callback);
+        } // FOR
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        
+        List<String> received = ((MockHStoreCoordinator)coordinators[remote_site_id]).getReceivedMessages();
+        int prepare_idx = received.indexOf("PREPARE:" + ts.getTransactionId());
+        int finish_idx = received.indexOf("FINISH:" + ts.getTransactionId());
+        assertTrue(received.toString(), prepare_idx >= 0);
+        assertTrue(received.toString(), prepare_idx < finish_idx);
+    }
+    
+    /**
+     * testBatchedPrepareDeferred
+     */
+    @Test
+    public void testBatchedPrepareDeferred() throws Exception {
+        final int remote_site_id = 1;
+        final HStoreSite remote_site = hstore_sites[remote_site_id];
+        final PartitionSet remote_partitions = remote_site.getLocalPartitionIds();
+        final PartitionSet partitions = catalogContext.getAllPartitionIds();
+        final TransactionPrepareHandler handler = coordinators[remote_site_id].getTransactionPrepareHandler();
+        Procedure catalog_proc = catalogContext.procedures.getIgnoreCase("@NoOp");
+        int base_partition = hstore_sites[0].getLocalPartitionIds().values()[0];
+        
+        // Two txns that are running at the remote site. Its PartitionExecutors are not
+        // running, so the batch will have to give up on waiting for them to be prepared.
+        final int num_txns = 2;
+        RemoteTransaction txns[] = new RemoteTransaction[num_txns];
+        TransactionPrepareRequest requests[] = new TransactionPrepareRequest[num_txns];
+        for (int i = 0; i < num_txns; i++) {
+            long txn_id = 3000 + i;
+            txns[i] = remote_site.getTransactionInitializer().createRemoteTransaction(txn_id, partitions,
+                                                                                      base_partition, catalog_proc.getId());
+            requests[i] = TransactionPrepareRequest.newBuilder()
+                                .setTransactionId(txn_id)
+                                .addAllPartitions(partitions)
+                                .build();
+        } // FOR
+        TransactionPrepareRequest batch = requests[0].toBuilder().addBatch(requests[1]).build();
+        
+        final List<TransactionPrepareResponse> responses = Collections.synchronizedList(new ArrayList<TransactionPrepareResponse>());
+        RpcCallback<TransactionPrepareResponse> callback = new RpcCallback<TransactionPrepareResponse>() {
+            @Override
+            public void run(TransactionPrepareResponse response) {
+                responses.add(response);
+            }
+        };
+        handler.remoteHandler(null, batch, callback);
+        ThreadUtil.sleep(hstore_sites[0].getHStoreConf().site.coordinator_batch_2pc_prepare_wait / 1000 * 10);
+        assertEquals(1, responses.size());
+        TransactionPrepareResponse response = responses.remove(0);
+        assertEquals(num_txns - 1, response.getBatchCount());
+        for (int i = 0; i < num_txns; i++) {
+            TransactionPrepareResponse r = (i == 0 ? response : response.getBatch(i-1));
+            assertEquals(requests[i].getTransactionId(), r.getTransactionId());
+            assertEquals(Status.OK, r.getStatus());
+            assertEquals(0, r.getPartitionsCount());
+        } // FOR
+        
+        // The first txn gets prepared before the sender asks for it again,
+        // so it should get back the real response right away
+        for (int p : remote_partitions.values()) {
+            txns[0].getPrepareWrapperCallback().run(p);
+        } // FOR
+        handler.remoteHandler(null, requests[0], callback);
+        assertEquals(1, responses.size());
+        response = responses.remove(0);
+        assertEquals(requests[0].getTransactionId(), response.getTransactionId());
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals(remote_partitions.size(), response.getPartitionsCount());
+        
+        // The sender asks again for the second txn before it is prepared, and then
+        // the txn gets aborted. The abort has to let the sender know right away.
+        handler.remoteHandler(null, requests[1], callback);
+        assertEquals(0, responses.size());
+        TransactionFinishRequest finish = TransactionFinishRequest.newBuilder()
+                                            .setTransactionId(requests[1].getTransactionId())
+                                            .setStatus(Status.ABORT_USER)
+                                            .addAllPartitions(partitions)
+                                            .build();
+        coordinators[remote_site_id].getTransactionFinishHandler().remoteHandler(null, finish, new RpcCallback<TransactionFinishResponse>() {
+            @Override
+            public void run(TransactionFinishResponse parameter) {
+                // Nothing to do
+            }
+        });
+        assertEquals(1, responses.size());
+        response = responses.remove(0);
+        assertEquals(requests[1].getTransactionId(), response.getTransactionId());
+        assertEquals(Status.ABORT_USER, response.getStatus());
+        
+        // A prepare for a txn that the remote site doesn't know about should
+        // get rejected instead of blowing up
+        handler.remoteHandler(null, TransactionPrepareRequest.newBuilder()
+                                        .setTransactionId(3999)
+                                        .addAllPartitions(partitions)
+                                        .build(), callback);
+        assertEquals(1, responses.size());
+        assertFalse(responses.get(0).getStatus() == Status.OK);
+    }
+    
     /**
      * testStartConnection
      */
@@ -0,0 +1,88 @@
+package edu.brown.hstore;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.protorpc.SharedMemoryChannel;
+import edu.brown.protorpc.SharedMemoryServer;
+
+/**
+ * Runs all of the HStoreCoordinator tests with the sites talking to each other
+ * through shared memory instead of loopback TCP
+ */
+public class TestHStoreCoordinatorSharedMemory extends TestHStoreCoordinator {
+
+    private File dir;
+    private boolean orig_shm_transport;
+    private String orig_shm_dir;
+    private int orig_shm_ring_size;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        this.orig_shm_transport = hstore_conf.site.network_shm_transport;
+        this.orig_shm_dir = hstore_conf.site.network_shm_dir;
+        this.orig_shm_ring_size = hstore_conf.site.network_shm_ring_size;
+
+        this.dir = File.createTempFile("hstore-shm", "");
+        this.dir.delete();
+        this.dir.mkdir();
+        hstore_conf.site.network_shm_transport = true;
+        hstore_conf.site.network_shm_dir = this.dir.getAbsolutePath();
+        hstore_conf.site.network_shm_ring_size = 1;
+        super.setUp();
+
+        // All of the sites are on the same host, so there should be a ring for each pair
+        assertEquals(NUM_SITES * (NUM_SITES - 1), this.dir.listFiles().length);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.network_shm_transport = this.orig_shm_transport;
+        hstore_conf.site.network_shm_dir = this.orig_shm_dir;
+        hstore_conf.site.network_shm_ring_size = this.orig_shm_ring_size;
+
+        // The rings should get cleaned up when the coordinators are shut down
+        assertEquals(0, this.dir.listFiles().length);
+        this.dir.delete();
+    }
+
+    private SharedMemoryChannel getChannel(int sender, int receiver) {
+        SharedMemoryServer server = this.coordinators[sender].getSharedMemoryServer();
+        assertNotNull(server);
+        SharedMemoryChannel channel = server.getChannel(receiver);
+        assertNotNull(channel);
+        return (channel);
+    }
+
+    private long getReceivedCount(int receiver, int sender) {
+        return (this.coordinators[receiver].getSharedMemoryServer().getReceivedCount(sender));
+    }
+
+    /**
+     * testSharedMemoryCounters
+     */
+    @Test
+    public void testSharedMemoryCounters() throws Exception {
+        SharedMemoryChannel toRemote = this.getChannel(0, 1);
+        SharedMemoryChannel toLocal = this.getChannel(1, 0);
+        long sent = toRemote.getSentCount();
+        long received = this.getReceivedCount(1, 0);
+
+        // The prepare requests and their responses should all go through shared
+        // memory, and the other side should have read every one of them
+        this.testBatchedTransactionPrepare();
+        assertTrue(toRemote.getSentCount() > sent);
+        assertTrue(this.getReceivedCount(1, 0) > received);
+        assertEquals(toRemote.getSentCount(), this.getReceivedCount(1, 0));
+        assertEquals(toLocal.getSentCount(), this.getReceivedCount(0, 1));
+        assertEquals(0, toRemote.getFallbackCount());
+        assertEquals(0, toLocal.getFallbackCount());
+    }
+}
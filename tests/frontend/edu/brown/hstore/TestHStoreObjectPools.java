@@ -1,13 +1,22 @@
 package edu.brown.hstore;
 
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
 
 import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.stats.PoolCounterStats;
 import edu.brown.pools.TypedObjectPool;
+import edu.brown.pools.TypedPoolableObjectFactory;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.ProjectType;
 
@@ -17,8 +26,13 @@ import edu.brown.utils.ProjectType;
  */
 public class TestHStoreObjectPools extends BaseTestCase {
 
+    private static final int NUM_TXNS = 50;
+    
     private HStoreSite hstore_site;
     private HStoreObjectPools objectPools;
+    private HStoreConf hstore_conf;
+    private boolean orig_pool_profiling;
+    private Client client;
     
     @Override
     protected void setUp() throws Exception {
@@ -26,7 +40,9 @@ public class TestHStoreObjectPools extends BaseTestCase {
         initializeCatalog(1, 1, 2);
         
         Site catalog_site = CollectionUtil.first(catalogContext.sites);
-        HStoreConf hstore_conf = HStoreConf.singleton();
+        this.hstore_conf = HStoreConf.singleton();
+        this.orig_pool_profiling = this.hstore_conf.site.pool_profiling;
+        this.hstore_conf.site.pool_profiling = true;
         this.hstore_site = createHStoreSite(catalog_site, hstore_conf);
         this.objectPools = this.hstore_site.getObjectPools();
         assertNotNull(this.objectPools);
@@ -34,7 +50,33 @@ public class TestHStoreObjectPools extends BaseTestCase {
  
     @Override
     protected void tearDown() throws Exception {
+        if (this.client != null) this.client.close();
         if (this.hstore_site != null) this.hstore_site.shutdown();
+        this.hstore_conf.site.pool_profiling = this.orig_pool_profiling;
+    }
+    
+    private void executeTransactions(int num_txns) throws Exception {
+        if (this.client == null) this.client = this.createClient();
+        Procedure catalog_proc = this.getProcedure(GetSubscriberData.class);
+        for (int i = 0; i < num_txns; i++) {
+            ClientResponse cr = this.client.callProcedure(catalog_proc.getName(), (long)i);
+            assertEquals(cr.toString(), Status.OK, cr.getStatus());
+        } // FOR
+    }
+    
+    private Object getStatsValue(Object rows[][], List<ColumnInfo> columns, String poolName, String column) {
+        int poolIdx = -1;
+        int colIdx = -1;
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).getName().equals("POOL_NAME")) poolIdx = i;
+            if (columns.get(i).getName().equals(column)) colIdx = i;
+        } // FOR
+        assertTrue(poolIdx >= 0 && colIdx >= 0);
+        for (Object row[] : rows) {
+            if (poolName.equals(row[poolIdx])) return (row[colIdx]);
+        } // FOR
+        fail("Missing stats row for " + poolName);
+        return (null);
     }
 
     /**
@@ -67,4 +109,55 @@ public class TestHStoreObjectPools extends BaseTestCase {
         } // FOR
     }
     
+    /**
+     * testClientResponseReuse
+     */
+    @Test
+    public void testClientResponseReuse() throws Exception {
+        // Once the pools are warmed up, sending back the ClientResponses
+        // should not have to create any new objects
+        this.executeTransactions(NUM_TXNS);
+        
+        TypedObjectPool<?> pools[] = { this.objectPools.CLIENT_RESPONSES,
+                                       this.objectPools.CALLBACKS_CLIENT_RESPONSE };
+        int created[] = new int[pools.length];
+        int borrowed[] = new int[pools.length];
+        for (int i = 0; i < pools.length; i++) {
+            TypedPoolableObjectFactory<?> factory = (TypedPoolableObjectFactory<?>)pools[i].getFactory();
+            assertTrue(factory.getCreatedCount() > 0);
+            created[i] = factory.getCreatedCount();
+            borrowed[i] = factory.getBorrowedCount();
+        } // FOR
+        
+        this.executeTransactions(NUM_TXNS);
+        for (int i = 0; i < pools.length; i++) {
+            TypedPoolableObjectFactory<?> factory = (TypedPoolableObjectFactory<?>)pools[i].getFactory();
+            assertEquals(pools[i].toString(), created[i], factory.getCreatedCount());
+            assertEquals(pools[i].toString(), borrowed[i] + NUM_TXNS, factory.getBorrowedCount());
+            assertEquals(pools[i].toString(), 0, pools[i].getNumActive());
+        } // FOR
+    }
+    
+    /**
+     * testCreatedPerTxnStats
+     */
+    @Test
+    public void testCreatedPerTxnStats() throws Exception {
+        PoolCounterStats stats = new PoolCounterStats(this.objectPools);
+        List<ColumnInfo> columns = stats.getColumnSchema();
+        String poolName = "CLIENT_RESPONSES";
+        
+        // The first read includes the objects that were created to warm up the pool
+        this.executeTransactions(NUM_TXNS);
+        Object rows[][] = stats.getStatsRows(false, System.currentTimeMillis());
+        double first = (Double)this.getStatsValue(rows, columns, poolName, "CREATED_PER_TXN");
+        assertTrue(Double.toString(first), first > 0);
+        
+        // The next read should only count what was created since the last one
+        this.executeTransactions(NUM_TXNS);
+        rows = stats.getStatsRows(false, System.currentTimeMillis());
+        double second = (Double)this.getStatsValue(rows, columns, poolName, "CREATED_PER_TXN");
+        assertEquals(0d, second);
+    }
+    
 }
@@ -0,0 +1,163 @@
+package edu.brown.hstore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Table;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.utils.VoltTableUtil;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hashing.AbstractHasher;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.util.ProcedureResultCache;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Check that the PartitionExecutors hand back cached results for read-only
+ * procedures and that a write to a table throws away the results that read it.
+ */
+public class TestPartitionExecutorResultCache extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 2;
+    private static final int NUM_TUPLES = 10;
+    private static final long S_ID = 1;
+
+    private HStoreSite hstore_site;
+    private HStoreConf hstore_conf;
+    private Client client;
+
+    private boolean orig_result_cache;
+    private String orig_result_cache_procedures;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        initializeCatalog(1, 1, NUM_PARTITIONS);
+
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        this.hstore_conf = HStoreConf.singleton();
+        this.orig_result_cache = this.hstore_conf.site.exec_result_cache;
+        this.orig_result_cache_procedures = this.hstore_conf.site.exec_result_cache_procedures;
+        this.hstore_conf.site.status_enable = false;
+        this.hstore_conf.site.exec_result_cache = true;
+        this.hstore_conf.site.exec_result_cache_procedures = this.getProcedure(GetSubscriberData.class).getName();
+
+        this.hstore_site = this.createHStoreSite(catalog_site, this.hstore_conf);
+        this.client = this.createClient();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.client != null) this.client.close();
+        if (this.hstore_site != null) this.hstore_site.shutdown();
+        this.hstore_conf.site.exec_result_cache = this.orig_result_cache;
+        this.hstore_conf.site.exec_result_cache_procedures = this.orig_result_cache_procedures;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // UTILITY METHODS
+    // --------------------------------------------------------------------------------------------
+
+    private void loadData(Table catalog_tbl) throws Exception {
+        // Load some data directly into the EEs without going through transactions
+        VoltTable vts[] = new VoltTable[NUM_PARTITIONS];
+        for (int i = 0; i < vts.length; i++) {
+            vts[i] = CatalogUtil.getVoltTable(catalog_tbl);
+        } // FOR
+        AbstractHasher hasher = p_estimator.getHasher();
+        Column sub_nbr = catalog_tbl.getColumns().getIgnoreCase("SUB_NBR");
+        Column sf_type = catalog_tbl.getColumns().getIgnoreCase("SF_TYPE");
+        Column bit_1 = catalog_tbl.getColumns().getIgnoreCase("BIT_1");
+
+        for (int i = 0; i < NUM_TUPLES; i++) {
+            Object row[] = VoltTableUtil.getRandomRow(catalog_tbl);
+            row[0] = Long.valueOf(i);
+            if (sub_nbr != null) row[sub_nbr.getIndex()] = row[0].toString();
+            if (sf_type != null) row[sf_type.getIndex()] = 1l;
+            if (bit_1 != null) row[bit_1.getIndex()] = 0l;
+            vts[hasher.hash(row[0])].addRow(row);
+        } // FOR
+        for (int i = 0; i < vts.length; i++) {
+            PartitionExecutor executor = hstore_site.getPartitionExecutor(i);
+            executor.loadTable((long)i, catalog_tbl, vts[i], false);
+        } // FOR
+    }
+
+    private ProcedureResultCache getResultCache() {
+        int partition = p_estimator.getHasher().hash(S_ID);
+        ProcedureResultCache cache = hstore_site.getPartitionExecutor(partition)
+                                                .getDebugContext()
+                                                .getResultCache();
+        assertNotNull(cache);
+        return (cache);
+    }
+
+    private VoltTable getSubscriberData() throws Exception {
+        Procedure catalog_proc = this.getProcedure(GetSubscriberData.class);
+        ClientResponse cr = this.client.callProcedure(catalog_proc.getName(), S_ID);
+        assertEquals(cr.toString(), Status.OK, cr.getStatus());
+        assertEquals(1, cr.getResults().length);
+        VoltTable vt = cr.getResults()[0];
+        assertEquals(vt.toString(), 1, vt.getRowCount());
+        return (vt);
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // TEST CASES
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * testInvalidateOnWrite
+     */
+    @Test
+    public void testInvalidateOnWrite() throws Exception {
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SUBSCRIBER));
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SPECIAL_FACILITY));
+        ProcedureResultCache cache = this.getResultCache();
+
+        // The first call has to go to the EE. The second one should
+        // get back the same row from the cache.
+        VoltTable first = this.getSubscriberData();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        VoltTable second = this.getSubscriberData();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(first.advanceRow());
+        assertTrue(second.advanceRow());
+        assertEquals(first.getColumnCount(), second.getColumnCount());
+        for (int i = 0; i < first.getColumnCount(); i++) {
+            assertEquals(first.getColumnName(i),
+                         first.get(i, first.getColumnType(i)),
+                         second.get(i, second.getColumnType(i)));
+        } // FOR
+        assertEquals(0l, second.getLong("BIT_1"));
+
+        // Now change the SUBSCRIBER record. The next call should miss
+        // the cache and see the new value.
+        Procedure catalog_proc = this.getProcedure(UpdateSubscriberData.class);
+        Object params[] = { S_ID, 1l, 2l, 1l };
+        ClientResponse cr = this.client.callProcedure(catalog_proc.getName(), params);
+        assertEquals(cr.toString(), Status.OK, cr.getStatus());
+
+        VoltTable third = this.getSubscriberData();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getInvalidationCount());
+        assertTrue(third.advanceRow());
+        assertEquals(1l, third.getLong("BIT_1"));
+    }
+}
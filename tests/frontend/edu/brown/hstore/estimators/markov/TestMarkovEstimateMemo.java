@@ -0,0 +1,196 @@
+package edu.brown.hstore.estimators.markov;
+
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.catalog.special.MultiProcParameter;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.containers.MarkovGraphsContainer;
+import edu.brown.profilers.MarkovEstimatorProfiler;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestMarkovEstimateMemo extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int BASE_PARTITION = 1;
+    private static final int NUM_TXNS = 10;
+
+    private Procedure catalog_proc;
+    private Statement catalog_stmts[];
+    private MarkovGraphsContainer markovs;
+    private MarkovEstimator t_estimator;
+    private MarkovEstimatorProfiler profiler;
+    private final Object args[] = { 1234l, "0000001234" };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(UpdateLocation.class);
+        this.catalog_stmts = new Statement[]{
+            this.getStatement(this.catalog_proc, "getSubscriber"),
+            this.getStatement(this.catalog_proc, "update"),
+        };
+
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.markov_path_memoization = true;
+        hstore_conf.site.markov_path_memoization_size = 10;
+        hstore_conf.site.markov_path_caching = false;
+        hstore_conf.site.markov_profiling = true;
+
+        // Build a graph where every txn only touches its base partition
+        this.markovs = new MarkovGraphsContainer();
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            MarkovGraph markov = this.markovs.getOrCreate(p, this.catalog_proc, true);
+            PartitionSet partitions[] = new PartitionSet[this.catalog_stmts.length];
+            for (int i = 0; i < partitions.length; i++) {
+                partitions[i] = new PartitionSet(p);
+            } // FOR
+            for (int i = 0; i < NUM_TXNS; i++) {
+                assertTrue(markov.processPath(this.catalog_stmts, partitions, Status.OK));
+            } // FOR
+            markov.calculateProbabilities();
+        } // FOR
+
+        this.t_estimator = new MarkovEstimator(catalogContext, p_estimator, this.markovs);
+        this.profiler = this.t_estimator.getDebugContext().getProfiler();
+        assertNotNull(this.profiler);
+    }
+
+    /**
+     * testCreateKey
+     */
+    public void testCreateKey() throws Exception {
+        MarkovGraph markov = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        MarkovEstimateMemo memo = new MarkovEstimateMemo(catalogContext, markov, p_estimator.getHasher(), 10);
+        MarkovEstimateMemo.Key key0 = memo.createKey(BASE_PARTITION, this.args);
+        // Any value that hashes to the same partition should have the same key
+        long other = 1235l;
+        while (p_estimator.getHasher().hash(other) != p_estimator.getHasher().hash(this.args[0])) other++;
+        assertEquals(key0, memo.createKey(BASE_PARTITION, new Object[]{ other, this.args[1] }));
+        assertEquals(key0.hashCode(), memo.createKey(BASE_PARTITION, this.args).hashCode());
+        assertFalse(key0.equals(memo.createKey(BASE_PARTITION+1, this.args)));
+    }
+
+    /**
+     * testCreateKeySpecialParameters
+     */
+    public void testCreateKeySpecialParameters() throws Exception {
+        MarkovGraph markov = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        MarkovEstimateMemo memo = new MarkovEstimateMemo(catalogContext, markov, p_estimator.getHasher(), 10);
+        MarkovEstimateMemo.Key expected = memo.createKey(BASE_PARTITION, this.args);
+
+        // Adding a MultiProcParameter to the catalog should not change the features
+        // that we extract from the txn's regular parameters
+        ProcParameter params[] = this.catalog_proc.getParameters().values();
+        MultiProcParameter mpp = MultiProcParameter.get(params[0], params[1]);
+        assertNotNull(mpp);
+        assertTrue(this.catalog_proc.getParameters().size() > this.args.length);
+        memo = new MarkovEstimateMemo(catalogContext, markov, p_estimator.getHasher(), 10);
+        assertEquals(expected, memo.createKey(BASE_PARTITION, this.args));
+    }
+
+    /**
+     * testReuseKey
+     */
+    public void testReuseKey() throws Exception {
+        MarkovGraph markov = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        MarkovEstimateMemo memo = new MarkovEstimateMemo(catalogContext, markov, p_estimator.getHasher(), 10);
+        MarkovEstimatorState state = t_estimator.startTransaction(1000l, BASE_PARTITION, this.catalog_proc, this.args);
+        MarkovEstimate est = state.getInitialEstimate();
+
+        MarkovEstimateMemo.Key buffer = new MarkovEstimateMemo.Key();
+        assertSame(buffer, memo.createKey(BASE_PARTITION, this.args, buffer));
+        memo.put(buffer, est);
+        assertEquals(1, memo.size());
+
+        // Overwriting the buffer with another txn's features must not change
+        // the entry that is already in the memo
+        long other = 1235l;
+        while (p_estimator.getHasher().hash(other) == p_estimator.getHasher().hash(this.args[0])) other++;
+        Object other_args[] = { other, this.args[1] };
+        assertSame(buffer, memo.createKey(BASE_PARTITION, other_args, buffer));
+        assertEquals(memo.createKey(BASE_PARTITION, other_args), buffer);
+        MarkovEstimate copy = new MarkovEstimate(catalogContext);
+        copy.init(est.getVertex(), est.getBatchId());
+        assertFalse(memo.populate(buffer, copy));
+        assertTrue(memo.populate(memo.createKey(BASE_PARTITION, this.args, buffer), copy));
+        assertEquals(est.getMarkovPath(), copy.getMarkovPath());
+
+        t_estimator.commit(state);
+        t_estimator.destroyEstimatorState(state);
+    }
+
+    /**
+     * testMemoHit
+     */
+    public void testMemoHit() throws Exception {
+        // The first txn needs to traverse the graph
+        MarkovEstimatorState state = t_estimator.startTransaction(1000l, BASE_PARTITION, this.catalog_proc, this.args);
+        assertNotNull(state);
+        assertFalse(state.isMemoHit());
+        MarkovEstimate expected = state.getInitialEstimate();
+        assertFalse(expected.getMarkovPath().isEmpty());
+        assertEquals(0, this.profiler.memo_hits);
+        assertEquals(1, this.profiler.memo_misses);
+
+        // The second one with the same features should get a copy of its estimate
+        MarkovEstimatorState next = t_estimator.startTransaction(1001l, BASE_PARTITION, this.catalog_proc, this.args);
+        assertTrue(next.isMemoHit());
+        MarkovEstimate actual = next.getInitialEstimate();
+        assertNotSame(expected, actual);
+        assertEquals(expected.getMarkovPath(), actual.getMarkovPath());
+        assertEquals(expected.getConfidenceCoefficient(), actual.getConfidenceCoefficient());
+        assertEquals(expected.getSinglePartitionProbability(), actual.getSinglePartitionProbability());
+        assertEquals(expected.getAbortProbability(), actual.getAbortProbability());
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            assertEquals(expected.getReadOnlyProbability(p), actual.getReadOnlyProbability(p));
+            assertEquals(expected.getWriteProbability(p), actual.getWriteProbability(p));
+            assertEquals(expected.getFinishProbability(p), actual.getFinishProbability(p));
+            assertEquals(expected.getTouchedCounter(p), actual.getTouchedCounter(p));
+        } // FOR
+        assertEquals(1, this.profiler.memo_hits);
+        assertEquals(0.5d, this.profiler.getMemoHitRate());
+
+        t_estimator.commit(state);
+        t_estimator.destroyEstimatorState(state);
+        t_estimator.commit(next);
+        t_estimator.destroyEstimatorState(next);
+
+        // A txn at a different partition should not use it
+        state = t_estimator.startTransaction(1002l, BASE_PARTITION+1, this.catalog_proc, this.args);
+        assertFalse(state.isMemoHit());
+        assertEquals(2, this.profiler.memo_misses);
+        t_estimator.commit(state);
+        t_estimator.destroyEstimatorState(state);
+    }
+
+    /**
+     * testMispredict
+     */
+    public void testMispredict() throws Exception {
+        MarkovEstimatorState state = t_estimator.startTransaction(1000l, BASE_PARTITION, this.catalog_proc, this.args);
+        t_estimator.commit(state);
+        t_estimator.destroyEstimatorState(state);
+
+        state = t_estimator.startTransaction(1001l, BASE_PARTITION, this.catalog_proc, this.args);
+        assertTrue(state.isMemoHit());
+        t_estimator.abort(state, Status.ABORT_MISPREDICT);
+        t_estimator.destroyEstimatorState(state);
+        assertEquals(1, this.profiler.memo_mispredicts);
+        assertEquals(1.0d, this.profiler.getMemoMispredictRate());
+
+        // The entry should have been removed, so we have to traverse the graph again
+        state = t_estimator.startTransaction(1002l, BASE_PARTITION, this.catalog_proc, this.args);
+        assertFalse(state.isMemoHit());
+        assertEquals(2, this.profiler.memo_misses);
+        t_estimator.commit(state);
+        t_estimator.destroyEstimatorState(state);
+    }
+}
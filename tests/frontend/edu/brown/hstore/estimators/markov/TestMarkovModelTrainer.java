@@ -0,0 +1,160 @@
+package edu.brown.hstore.estimators.markov;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.containers.MarkovGraphsContainer;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestMarkovModelTrainer extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int BASE_PARTITION = 1;
+    private static final int NUM_TXNS = 10;
+
+    private Procedure catalog_proc;
+    private Statement catalog_stmts[];
+    private MarkovGraphsContainer markovs;
+    private MarkovModelTrainer trainer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(UpdateLocation.class);
+        this.catalog_stmts = new Statement[]{
+            this.getStatement(this.catalog_proc, "getSubscriber"),
+            this.getStatement(this.catalog_proc, "update"),
+        };
+
+        // Build a graph where every txn only touches its base partition
+        this.markovs = new MarkovGraphsContainer();
+        MarkovGraph markov = this.markovs.getOrCreate(BASE_PARTITION, this.catalog_proc, true);
+        for (int i = 0; i < NUM_TXNS; i++) {
+            assertTrue(markov.processPath(this.catalog_stmts, this.getPartitions(BASE_PARTITION), Status.OK));
+        } // FOR
+        markov.calculateProbabilities();
+
+        this.trainer = new MarkovModelTrainer(null, 1000);
+    }
+
+    private PartitionSet[] getPartitions(int...partitions) {
+        PartitionSet ret[] = new PartitionSet[this.catalog_stmts.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = new PartitionSet(partitions[i % partitions.length]);
+        } // FOR
+        return (ret);
+    }
+
+    /**
+     * testQueueAndPublish
+     */
+    public void testQueueAndPublish() throws Exception {
+        MarkovGraph orig = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        int num_vertices = orig.getVertexCount();
+        int num_edges = orig.getEdgeCount();
+
+        // The second query goes to a partition that we haven't seen before
+        PartitionSet partitions[] = this.getPartitions(BASE_PARTITION, BASE_PARTITION+1);
+        assertTrue(this.trainer.queue(this.markovs, orig, this.catalog_stmts, partitions, Status.OK));
+        assertEquals(1, this.trainer.getQueueSize());
+        assertEquals(1, this.trainer.processQueue());
+        assertEquals(0, this.trainer.getQueueSize());
+        assertEquals(1, this.trainer.getRecordCount());
+
+        // Nothing should change until we publish, and the original graph should never change
+        assertSame(orig, this.markovs.get(BASE_PARTITION, this.catalog_proc));
+        assertEquals(num_vertices, orig.getVertexCount());
+        assertEquals(num_edges, orig.getEdgeCount());
+
+        assertEquals(1, this.trainer.publish());
+        MarkovGraph next = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        assertNotSame(orig, next);
+        assertEquals(orig.getGraphId(), next.getGraphId());
+        assertEquals(num_vertices + 1, next.getVertexCount());
+        assertEquals(num_edges + 2, next.getEdgeCount());
+        assertEquals(NUM_TXNS + 1, next.getTransactionCount());
+        assertTrue(next.isValid());
+        assertEquals(num_vertices, orig.getVertexCount());
+
+        // There is nothing new, so we shouldn't publish anything
+        assertEquals(0, this.trainer.publish());
+        assertSame(next, this.markovs.get(BASE_PARTITION, this.catalog_proc));
+
+        // A txn that started with the original version should still update the same graph
+        assertTrue(this.trainer.queue(this.markovs, orig, this.catalog_stmts, partitions, Status.ABORT_USER));
+        assertEquals(1, this.trainer.processQueue());
+        assertEquals(1, this.trainer.publish());
+        MarkovGraph last = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        assertNotSame(next, last);
+        assertEquals(num_vertices + 1, last.getVertexCount());
+        assertEquals(num_edges + 3, last.getEdgeCount());
+        assertEquals(NUM_TXNS + 2, last.getTransactionCount());
+        assertEquals(2, this.trainer.getPublishCount());
+    }
+
+    /**
+     * testIgnoredStatus
+     */
+    public void testIgnoredStatus() throws Exception {
+        MarkovGraph orig = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        PartitionSet partitions[] = this.getPartitions(BASE_PARTITION);
+        assertTrue(this.trainer.queue(this.markovs, orig, this.catalog_stmts, partitions, Status.ABORT_REJECT));
+        assertEquals(0, this.trainer.processQueue());
+        assertEquals(0, this.trainer.publish());
+        assertSame(orig, this.markovs.get(BASE_PARTITION, this.catalog_proc));
+    }
+
+    /**
+     * testEstimatorOffModel
+     */
+    public void testEstimatorOffModel() throws Exception {
+        MarkovEstimator t_estimator = new MarkovEstimator(catalogContext, p_estimator, this.markovs);
+        t_estimator.setModelTrainer(this.trainer);
+        MarkovGraph orig = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        int num_vertices = orig.getVertexCount();
+        int num_edges = orig.getEdgeCount();
+
+        Object args[] = { 1234l, "0000001234" };
+        MarkovEstimatorState state = t_estimator.startTransaction(1000l, BASE_PARTITION, this.catalog_proc, args);
+        assertNotNull(state);
+        assertSame(orig, state.getMarkovGraph());
+
+        // The first query is in the graph
+        t_estimator.executeQueries(state, new Statement[]{ this.catalog_stmts[0] },
+                                   new PartitionSet[]{ new PartitionSet(BASE_PARTITION) });
+        assertFalse(state.isOffModel());
+
+        // But the second one is going to a different partition
+        MarkovEstimate last = state.getLastEstimate();
+        MarkovEstimate est = t_estimator.executeQueries(state, new Statement[]{ this.catalog_stmts[1] },
+                                                        new PartitionSet[]{ new PartitionSet(BASE_PARTITION+1) });
+        assertTrue(state.isOffModel());
+        assertSame(last, est);
+        assertTrue(state.getTouchedPartitions().contains(BASE_PARTITION+1));
+
+        t_estimator.commit(state);
+        assertEquals(num_vertices, orig.getVertexCount());
+        assertEquals(num_edges, orig.getEdgeCount());
+        assertEquals(1, this.trainer.getQueueSize());
+        t_estimator.destroyEstimatorState(state);
+
+        // Once the trainer publishes the new version, the next txn can follow the whole path
+        assertEquals(1, this.trainer.processQueue());
+        assertEquals(1, this.trainer.publish());
+        state = t_estimator.startTransaction(1001l, BASE_PARTITION, this.catalog_proc, args);
+        assertNotSame(orig, state.getMarkovGraph());
+        for (int i = 0; i < this.catalog_stmts.length; i++) {
+            t_estimator.executeQueries(state, new Statement[]{ this.catalog_stmts[i] },
+                                       new PartitionSet[]{ new PartitionSet(BASE_PARTITION + i) });
+            assertFalse(state.isOffModel());
+        } // FOR
+        t_estimator.commit(state);
+        t_estimator.destroyEstimatorState(state);
+    }
+}
@@ -0,0 +1,252 @@
+package edu.brown.hstore.specexec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.voltdb.ParameterSet;
+import org.voltdb.benchmark.tpcc.TPCCConstants;
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.catalog.Table;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.ConjunctionExpression;
+import org.voltdb.types.ExpressionType;
+import org.voltdb.types.TimestampType;
+import org.voltdb.utils.Encoder;
+
+import edu.brown.BaseTestCase;
+import edu.brown.catalog.special.CountedStatement;
+import edu.brown.expressions.ExpressionUtil;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.specexec.RowConflictChecker.StatementCache;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.mappings.ParameterMapping;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestRowConflictChecker extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 10;
+    private static final int BASE_PARTITION = 1;
+    private static final short W_ID = 1;
+    private static final byte D_ID = 5;
+
+    private HStoreSite hstore_site;
+    private RowConflictChecker checker;
+    private long nextTxnId = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+
+        this.hstore_site = new MockHStoreSite(0, catalogContext, HStoreConf.singleton());
+        this.checker = new RowConflictChecker(catalogContext, p_estimator);
+    }
+
+    // ----------------------------------------------------------------------------------
+    // HELPER METHODS
+    // ----------------------------------------------------------------------------------
+
+    private LocalTransaction createTransaction(Procedure catalog_proc, Object params[]) throws Exception {
+        PartitionSet partitions = new PartitionSet(BASE_PARTITION);
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(this.nextTxnId++,
+                    BASE_PARTITION,
+                    partitions,
+                    catalog_proc,
+                    params);
+        return (ts);
+    }
+
+    private Object[] createNewOrderParams(short w_id, byte d_id) {
+        return new Object[]{
+            w_id,
+            d_id,
+            1,
+            new TimestampType(),
+            new int[]{ 1, 2 },
+            new short[]{ w_id, w_id },
+            new int[]{ 1, 1 },
+        };
+    }
+
+    private void executeStatement(LocalTransaction ts, Statement catalog_stmt, Object...params) {
+        List<PlanFragment> fragments = new ArrayList<PlanFragment>(catalog_stmt.getFragments());
+        long fragmentIds[] = new long[fragments.size()];
+        ParameterSet parameterSets[] = new ParameterSet[fragments.size()];
+        for (int i = 0; i < fragmentIds.length; i++) {
+            fragmentIds[i] = fragments.get(i).getId();
+            parameterSets[i] = new ParameterSet(params);
+        } // FOR
+        this.checker.notifyFragmentsExecuted(ts, BASE_PARTITION, fragmentIds, parameterSets, fragmentIds.length);
+    }
+
+    // ----------------------------------------------------------------------------------
+    // TESTS
+    // ----------------------------------------------------------------------------------
+
+    /**
+     * testStatementCache
+     */
+    public void testStatementCache() throws Exception {
+        Procedure proc = this.getProcedure(neworder.class);
+        Statement stmt = this.getStatement(proc, "getDistrict");
+        StatementCache cache = this.checker.stmtCache.get(stmt);
+        assertNotNull(stmt.fullName(), cache);
+        assertEquals(1, cache.tableIds.length);
+
+        // Both of the DISTRICT primary key columns should be bound to a StmtParameter
+        for (int offset : cache.keyParams[0]) {
+            assertTrue(stmt.fullName(), offset >= 0);
+        } // FOR
+    }
+
+    /**
+     * testIsDisjoint
+     */
+    public void testIsDisjoint() throws Exception {
+        assertTrue(this.checker.isDisjoint(new Object[]{ 1, 2 }, new Object[]{ 1l, 3 }, 2));
+        assertFalse(this.checker.isDisjoint(new Object[]{ 1, 2 }, new Object[]{ 1l, (short)2 }, 2));
+
+        // If we're missing values, then we can't say that they're different
+        assertFalse(this.checker.isDisjoint(new Object[]{ 1, null }, new Object[]{ 1, 3 }, 2));
+        assertFalse(this.checker.isDisjoint(new Object[]{ null, null }, new Object[]{ 1, 3 }, 2));
+
+        // Different types can't be compared
+        assertFalse(this.checker.isDisjoint(new Object[]{ "1" }, new Object[]{ 2 }, 1));
+    }
+
+    /**
+     * testGetProcParameterValue
+     */
+    public void testGetProcParameterValue() throws Exception {
+        Procedure proc = this.getProcedure(neworder.class);
+        Statement stmt = this.getStatement(proc, "getDistrict");
+        StmtParameter stmt_param = stmt.getParameters().get(0);
+        ProcParameter w_id = proc.getParameters().get(0);
+        ProcParameter d_id = proc.getParameters().get(1);
+        ParameterSet params = new ParameterSet(this.createNewOrderParams(W_ID, D_ID));
+
+        Map<StmtParameter, SortedSet<ParameterMapping>> mappings = new HashMap<StmtParameter, SortedSet<ParameterMapping>>();
+        SortedSet<ParameterMapping> pms = new TreeSet<ParameterMapping>();
+        mappings.put(stmt_param, pms);
+
+        // A single exact mapping gives us the ProcParameter's value
+        pms.add(new ParameterMapping(stmt, 0, stmt_param, d_id, -1, 1.0));
+        assertEquals(D_ID, ((Number)this.checker.getProcParameterValue(params, stmt, mappings, 0)).byteValue());
+
+        // If there is more than one candidate, we don't know which one is right
+        pms.add(new ParameterMapping(stmt, 0, stmt_param, w_id, -1, 1.0));
+        assertNull(this.checker.getProcParameterValue(params, stmt, mappings, 0));
+
+        // Neither can we trust a mapping that isn't exact
+        pms.clear();
+        pms.add(new ParameterMapping(stmt, 0, stmt_param, d_id, -1, 0.9));
+        assertNull(this.checker.getProcParameterValue(params, stmt, mappings, 0));
+    }
+
+    /**
+     * testCanExecuteDifferentKeys
+     */
+    public void testCanExecuteDifferentKeys() throws Exception {
+        assertNotNull(catalogContext.paramMappings);
+        Procedure proc = this.getProcedure(neworder.class);
+        LocalTransaction dtxn = this.createTransaction(proc, this.createNewOrderParams(W_ID, D_ID));
+        this.executeStatement(dtxn, this.getStatement(proc, "incrementNextOrderId"), 100, D_ID, W_ID);
+
+        // The candidate is going after a different district, so it's not a conflict
+        LocalTransaction ts = this.createTransaction(proc, this.createNewOrderParams(W_ID, (byte)(D_ID+1)));
+        List<CountedStatement> queries = new ArrayList<CountedStatement>();
+        queries.add(new CountedStatement(this.getStatement(proc, "getDistrict"), 0));
+        assertTrue(this.checker.canExecute(dtxn, ts, queries));
+    }
+
+    /**
+     * testCanExecuteSameKeys
+     */
+    public void testCanExecuteSameKeys() throws Exception {
+        assertNotNull(catalogContext.paramMappings);
+        Procedure proc = this.getProcedure(neworder.class);
+        LocalTransaction dtxn = this.createTransaction(proc, this.createNewOrderParams(W_ID, D_ID));
+        this.executeStatement(dtxn, this.getStatement(proc, "incrementNextOrderId"), 100, D_ID, W_ID);
+
+        // The candidate wants to read the row that the dtxn already updated
+        LocalTransaction ts = this.createTransaction(proc, this.createNewOrderParams(W_ID, D_ID));
+        List<CountedStatement> queries = new ArrayList<CountedStatement>();
+        queries.add(new CountedStatement(this.getStatement(proc, "getDistrict"), 0));
+        assertFalse(this.checker.canExecute(dtxn, ts, queries));
+    }
+
+    /**
+     * testCanExecuteReadOnly
+     */
+    public void testCanExecuteReadOnly() throws Exception {
+        assertNotNull(catalogContext.paramMappings);
+        Procedure proc = this.getProcedure(neworder.class);
+        LocalTransaction dtxn = this.createTransaction(proc, this.createNewOrderParams(W_ID, D_ID));
+        this.executeStatement(dtxn, this.getStatement(proc, "getDistrict"), D_ID, W_ID);
+
+        // Two reads on the same row never conflict
+        LocalTransaction ts = this.createTransaction(proc, this.createNewOrderParams(W_ID, D_ID));
+        List<CountedStatement> queries = new ArrayList<CountedStatement>();
+        queries.add(new CountedStatement(this.getStatement(proc, "getDistrict"), 0));
+        assertTrue(this.checker.canExecute(dtxn, ts, queries));
+    }
+
+    /**
+     * testDisjunction
+     */
+    public void testDisjunction() throws Exception {
+        assertNotNull(catalogContext.paramMappings);
+        Procedure proc = this.getProcedure(neworder.class);
+        Statement stmt = this.getStatement(proc, "getDistrict");
+        Table catalog_tbl = this.getTable(TPCCConstants.TABLENAME_DISTRICT);
+
+        // Rewrite "D_ID = ? AND D_W_ID = ?" as "D_ID = ? OR D_W_ID = ?"
+        String orig_exptree = stmt.getExptree();
+        AbstractExpression root = ExpressionUtil.deserializeExpression(catalog_db, orig_exptree);
+        assertEquals(ExpressionType.CONJUNCTION_AND, root.getExpressionType());
+        AbstractExpression or_exp = new ConjunctionExpression(ExpressionType.CONJUNCTION_OR, root.getLeft(), root.getRight());
+        Collection<Column> columns = RowConflictChecker.getDisjunctionColumns(catalog_db, or_exp);
+        assertEquals(2, columns.size());
+        assertTrue(columns.contains(this.getColumn(catalog_tbl, "D_ID")));
+        assertTrue(columns.contains(this.getColumn(catalog_tbl, "D_W_ID")));
+        assertTrue(RowConflictChecker.getDisjunctionColumns(catalog_db, root).isEmpty());
+
+        stmt.setExptree(Encoder.hexEncode(or_exp.toJSONString()));
+        try {
+            this.checker = new RowConflictChecker(catalogContext, p_estimator);
+            
+            // None of the key columns can be used to identify a row
+            StatementCache cache = this.checker.stmtCache.get(stmt);
+            assertNotNull(stmt.fullName(), cache);
+            for (int offset : cache.keyParams[0]) {
+                assertTrue(stmt.fullName(), offset < 0);
+            } // FOR
+
+            // So a different district is still a conflict
+            LocalTransaction dtxn = this.createTransaction(proc, this.createNewOrderParams(W_ID, D_ID));
+            this.executeStatement(dtxn, this.getStatement(proc, "incrementNextOrderId"), 100, D_ID, W_ID);
+            LocalTransaction ts = this.createTransaction(proc, this.createNewOrderParams(W_ID, (byte)(D_ID+1)));
+            List<CountedStatement> queries = new ArrayList<CountedStatement>();
+            queries.add(new CountedStatement(stmt, 0));
+            assertFalse(this.checker.canExecute(dtxn, ts, queries));
+        } finally {
+            stmt.setExptree(orig_exptree);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package edu.brown.hstore.txns;
 
+import java.util.Iterator;
 import java.util.Random;
 
+import org.voltdb.ParameterSet;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltMapReduceProcedure;
 import org.voltdb.VoltProcedure;
@@ -10,8 +12,12 @@ import org.voltdb.VoltTableRow;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.utils.VoltTypeUtil;
 
+import com.google.protobuf.RpcCallback;
+
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.mapreduce.procedures.MockMapReduce;
+import edu.brown.hstore.Hstoreservice.TransactionMapResponse;
+import edu.brown.hstore.Hstoreservice.TransactionReduceResponse;
 import edu.brown.hstore.MockHStoreSite;
 import edu.brown.hstore.MockPartitionExecutor;
 import edu.brown.hstore.conf.HStoreConf;
@@ -34,6 +40,49 @@ public class TestMapReduceTransaction extends BaseTestCase{
     private final int NUM_SITES               = (NUM_HOSTS * NUM_SITES_PER_HOST);
     
     private final MockHStoreSite sites[] = new MockHStoreSite[NUM_SITES_PER_HOST];
+    
+    /**
+     * MockMapReduce with its combiner turned on
+     */
+    public static class CombinerMockMapReduce extends MockMapReduce {
+        @Override
+        public boolean hasCombiner() {
+            return (true);
+        }
+    }
+    
+    /**
+     * MockMapReduce that enables the combiner but does not implement combine()
+     */
+    public static class DefaultCombinerMockMapReduce extends VoltMapReduceProcedure<String> {
+        private final MockMapReduce proc = new MockMapReduce();
+        
+        @Override
+        public VoltTable.ColumnInfo[] getMapOutputSchema() {
+            return (this.proc.getMapOutputSchema());
+        }
+        @Override
+        public VoltTable.ColumnInfo[] getReduceOutputSchema() {
+            return (this.proc.getReduceOutputSchema());
+        }
+        @Override
+        public boolean hasCombiner() {
+            return (true);
+        }
+        @Override
+        public void map(VoltTableRow row) {
+            String key = row.getString(0);
+            this.mapEmit(key, new Object[]{ key, row.getLong(1) });
+        }
+        @Override
+        public void reduce(String key, Iterator<VoltTableRow> rows) {
+            long count = 0;
+            while (rows.hasNext()) {
+                count += rows.next().getLong(1);
+            } // WHILE
+            this.reduceEmit(new Object[]{ key, count });
+        }
+    }
 //    private final HStoreCoordinator messengers[] = new HStoreCoordinator[NUM_SITES_PER_HOST];
     
     @Override
@@ -106,4 +155,132 @@ public class TestMapReduceTransaction extends BaseTestCase{
 //       this.compareTables(this.table, result);
        
     }
+    
+    /**
+     * testQueueMapInput
+     */
+    public void testQueueMapInput() throws Exception {
+        MapReduceTransaction ts = new MapReduceTransaction(this.sites[0]);
+        assertNull(ts.pollMapInput());
+        
+        int partitions[] = this.sites[0].getLocalPartitionIds().values();
+        for (int p : partitions) {
+            ts.queueMapInput(p, this.table);
+        } // FOR
+        for (int p : partitions) {
+            Integer next = ts.pollMapInput();
+            assertNotNull(next);
+            assertEquals(p, next.intValue());
+            assertEquals(this.table, ts.getMapInputByPartition(p));
+        } // FOR
+        assertNull(ts.pollMapInput());
+    }
+    
+    /**
+     * testRunMapChunks
+     */
+    public void testRunMapChunks() throws Exception {
+        Procedure catalog_proc = this.getProcedure(TARGET_PROCEDURE);
+        int partition = this.sites[0].getLocalPartitionIds().values()[0];
+        MapReduceTransaction ts = new MapReduceTransaction(this.sites[0]);
+        ts.init(123456789l, 0, 0, partition, catalog_proc, new ParameterSet());
+        
+        // Process the input two rows at a time. The map output should grow
+        // with each chunk until there are no more rows.
+        VoltTable input = new VoltTable(this.voltProc.getMapOutputSchema());
+        for (int i = 0; i < NUM_ROWS; i++) {
+            input.addRow("KEY" + i, (long)i);
+        } // FOR
+        
+        int chunks = 0;
+        boolean done = false;
+        while (done == false) {
+            done = this.voltProc.runMap(ts, partition, input, 2);
+            chunks++;
+            assertEquals(Math.min(NUM_ROWS, chunks * 2), ts.getMapOutputByPartition(partition).getRowCount());
+        } // WHILE
+        assertEquals(NUM_ROWS / 2, chunks);
+        assertEquals(NUM_ROWS, ts.getMapOutputByPartition(partition).getRowCount());
+    }
+    
+    /**
+     * Run the MAP, SHUFFLE, and REDUCE phases for the given input at a single partition
+     * and return the REDUCE output. The number of rows in the REDUCE input is
+     * stored in reduce_input[0].
+     */
+    private VoltTable runMapReduce(VoltMapReduceProcedure<?> proc, long txn_id, VoltTable input, int reduce_input[]) throws Exception {
+        Procedure catalog_proc = this.getProcedure(TARGET_PROCEDURE);
+        int partition = this.sites[0].getLocalPartitionIds().values()[0];
+        MapReduceTransaction ts = new MapReduceTransaction(this.sites[0]);
+        ts.init(txn_id, 0, 0, partition, catalog_proc, new ParameterSet());
+        ts.initTransactionMapWrapperCallback(new RpcCallback<TransactionMapResponse>() {
+            @Override
+            public void run(TransactionMapResponse parameter) {
+                // Nothing
+            }
+        });
+        ts.initTransactionReduceWrapperCallback(new RpcCallback<TransactionReduceResponse>() {
+            @Override
+            public void run(TransactionReduceResponse parameter) {
+                // Nothing
+            }
+        });
+        
+        input.resetRowPosition();
+        assertTrue(proc.runMap(ts, partition, input, -1));
+        proc.finishMap(ts, partition);
+        
+        // SHUFFLE: All of the keys go to the same partition
+        VoltTable map_output = ts.getMapOutputByPartition(partition);
+        ts.storeData(partition, map_output);
+        reduce_input[0] = ts.getReduceInputByPartition(partition).getRowCount();
+        
+        proc.runReduce(ts, partition);
+        VoltTable reduce_output = ts.getReduceOutputByPartition(partition);
+        reduce_output.resetRowPosition();
+        return (reduce_output);
+    }
+    
+    /**
+     * testCombiner
+     */
+    public void testCombiner() throws Exception {
+        int num_keys = 3;
+        VoltTable input = new VoltTable(this.voltProc.getMapOutputSchema());
+        for (int i = 0; i < NUM_ROWS; i++) {
+            input.addRow("KEY" + (i % num_keys), (long)i);
+        } // FOR
+        
+        int reduce_input[] = new int[1];
+        VoltTable expected = this.runMapReduce(new MockMapReduce(), 1000l, input, reduce_input);
+        assertEquals(NUM_ROWS, reduce_input[0]);
+        assertEquals(num_keys, expected.getRowCount());
+        
+        // The combiner should shrink the REDUCE input to one row per key
+        // without changing the REDUCE output
+        VoltTable actual = this.runMapReduce(new CombinerMockMapReduce(), 1001l, input, reduce_input);
+        assertEquals(num_keys, reduce_input[0]);
+        this.compareTables(expected, actual);
+    }
+    
+    /**
+     * testDefaultCombiner
+     */
+    public void testDefaultCombiner() throws Exception {
+        // A procedure that says it has a combiner but uses the default
+        // combine() should get back all of its MAP output rows
+        VoltMapReduceProcedure<?> proc = new DefaultCombinerMockMapReduce();
+        VoltTable input = new VoltTable(this.voltProc.getMapOutputSchema());
+        for (int i = 0; i < NUM_ROWS; i++) {
+            input.addRow("KEY" + (i % 2), 1l);
+        } // FOR
+        
+        int reduce_input[] = new int[1];
+        VoltTable result = this.runMapReduce(proc, 1002l, input, reduce_input);
+        assertEquals(NUM_ROWS, reduce_input[0]);
+        assertEquals(2, result.getRowCount());
+        while (result.advanceRow()) {
+            assertEquals(NUM_ROWS / 2, result.getLong(1));
+        } // WHILE
+    }
 }
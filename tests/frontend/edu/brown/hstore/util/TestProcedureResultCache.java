@@ -0,0 +1,143 @@
+package edu.brown.hstore.util;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Table;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.benchmark.tm1.procedures.GetAccessData;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.utils.ProjectType;
+
+/**
+ * TestProcedureResultCache
+ */
+public class TestProcedureResultCache extends BaseTestCase {
+
+    private static final long CACHE_SIZE = 1048576;
+    private static final VoltTable.ColumnInfo RESULT_COLUMNS[] = {
+        new VoltTable.ColumnInfo("S_ID", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("SUB_NBR", VoltType.STRING),
+    };
+
+    ProcedureResultCache cache;
+    Procedure catalog_proc;
+    Table catalog_tbl;
+    BitSet readTables = new BitSet();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.cache = new ProcedureResultCache(catalogContext, CACHE_SIZE, null);
+        this.catalog_proc = this.getProcedure(GetSubscriberData.class);
+        this.catalog_tbl = this.getTable(TM1Constants.TABLENAME_SUBSCRIBER);
+        this.readTables.clear();
+        this.readTables.set(this.catalog_tbl.getRelativeIndex());
+    }
+
+    private VoltTable makeResult(long id, int rows) {
+        VoltTable vt = new VoltTable(RESULT_COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            vt.addRow(id + i, Long.toString(id + i));
+        } // FOR
+        return (vt);
+    }
+
+    /**
+     * testIsCacheable
+     */
+    public void testIsCacheable() throws Exception {
+        assertTrue(this.cache.isCacheable(this.catalog_proc));
+        assertFalse(this.cache.isCacheable(this.getProcedure(DeleteCallForwarding.class)));
+
+        // Only the procedures that we were given
+        Procedure other = this.getProcedure(GetAccessData.class);
+        this.cache = new ProcedureResultCache(catalogContext, CACHE_SIZE, Collections.singleton(other));
+        assertFalse(this.cache.isCacheable(this.catalog_proc));
+        assertTrue(this.cache.isCacheable(other));
+    }
+
+    /**
+     * testPutGet
+     */
+    public void testPutGet() throws Exception {
+        ParameterSet params = new ParameterSet(1234l);
+        assertNull(this.cache.get(this.catalog_proc, params));
+
+        VoltTable expected = this.makeResult(1234, 5);
+        assertTrue(this.cache.put(this.catalog_proc, params, new VoltTable[]{ expected }, this.readTables));
+        assertEquals(1, this.cache.size());
+        assertTrue(this.cache.getBytes() > 0);
+
+        for (int i = 0; i < 2; i++) {
+            VoltTable results[] = this.cache.get(this.catalog_proc, params);
+            assertNotNull(results);
+            assertEquals(1, results.length);
+            assertEquals(expected.getRowCount(), results[0].getRowCount());
+            expected.resetRowPosition();
+            while (expected.advanceRow()) {
+                assertTrue(results[0].advanceRow());
+                assertEquals(expected.getLong(0), results[0].getLong(0));
+                assertEquals(expected.getString(1), results[0].getString(1));
+            } // WHILE
+        } // FOR
+        assertEquals(2, this.cache.getHitCount());
+
+        // Different parameters or a different procedure should miss
+        assertNull(this.cache.get(this.catalog_proc, new ParameterSet(1235l)));
+        assertNull(this.cache.get(this.getProcedure(GetAccessData.class), params));
+        assertEquals(3, this.cache.getMissCount());
+    }
+
+    /**
+     * testInvalidate
+     */
+    public void testInvalidate() throws Exception {
+        ParameterSet params = new ParameterSet(1234l);
+        this.cache.put(this.catalog_proc, params, new VoltTable[]{ this.makeResult(1234, 1) }, this.readTables);
+
+        // Modifying some other table should not affect us
+        Table other = this.getTable(TM1Constants.TABLENAME_CALL_FORWARDING);
+        this.cache.invalidate(other.getRelativeIndex());
+        assertNotNull(this.cache.get(this.catalog_proc, params));
+
+        this.cache.invalidate(this.catalog_tbl.getRelativeIndex());
+        assertNull(this.cache.get(this.catalog_proc, params));
+        assertEquals(1, this.cache.getInvalidationCount());
+        assertEquals(0, this.cache.size());
+        assertEquals(0, this.cache.getBytes());
+
+        // New results after the change are fine
+        this.cache.put(this.catalog_proc, params, new VoltTable[]{ this.makeResult(1234, 1) }, this.readTables);
+        assertNotNull(this.cache.get(this.catalog_proc, params));
+        this.cache.clear();
+        assertNull(this.cache.get(this.catalog_proc, params));
+    }
+
+    /**
+     * testEviction
+     */
+    public void testEviction() throws Exception {
+        VoltTable result = this.makeResult(0, 1000);
+        int num_entries = 0;
+        for (long i = 0; i < 100; i++) {
+            assertTrue(this.cache.put(this.catalog_proc, new ParameterSet(i), new VoltTable[]{ result }, this.readTables));
+            num_entries++;
+            if (this.cache.getEvictionCount() > 0) break;
+        } // FOR
+        assertTrue(this.cache.getEvictionCount() > 0);
+        assertTrue(this.cache.getBytes() <= CACHE_SIZE);
+        assertEquals(num_entries - this.cache.getEvictionCount(), this.cache.size());
+
+        // The oldest entry should be gone but the latest one should still be there
+        assertNull(this.cache.get(this.catalog_proc, new ParameterSet(0l)));
+        assertNotNull(this.cache.get(this.catalog_proc, new ParameterSet((long)num_entries - 1)));
+    }
+}
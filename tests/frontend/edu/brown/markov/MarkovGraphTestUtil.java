@@ -0,0 +1,41 @@
+package edu.brown.markov;
+
+import java.util.Random;
+
+import org.voltdb.catalog.Statement;
+
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Helper methods for populating MarkovGraphs in test cases
+ */
+public abstract class MarkovGraphTestUtil {
+
+    /**
+     * Add fake txns to the graph that each execute a few random Statements
+     * on either the base partition or a random remote partition. The txn paths are
+     * added through MarkovGraph.processPath(), so the caller must still invoke
+     * MarkovGraph.calculateProbabilities() afterwards.
+     * @param markov
+     * @param num_txns
+     * @param base_partition
+     * @param num_partitions
+     * @param rand
+     */
+    public static void addRandomTransactions(MarkovGraph markov, int num_txns, int base_partition, int num_partitions, Random rand) {
+        Statement stmts[] = markov.getProcedure().getStatements().values();
+        for (int i = 0; i < num_txns; i++) {
+            int num_queries = 1 + rand.nextInt(4);
+            Statement catalog_stmts[] = new Statement[num_queries];
+            PartitionSet partitions[] = new PartitionSet[num_queries];
+            for (int j = 0; j < num_queries; j++) {
+                catalog_stmts[j] = stmts[rand.nextInt(Math.min(3, stmts.length))];
+                partitions[j] = new PartitionSet(rand.nextInt(5) == 0 ? rand.nextInt(num_partitions) : base_partition);
+            } // FOR
+            Status status = (rand.nextInt(10) == 0 ? Status.ABORT_USER : Status.OK);
+            boolean ret = markov.processPath(catalog_stmts, partitions, status);
+            assert(ret);
+        } // FOR
+    }
+}
@@ -0,0 +1,186 @@
+package edu.brown.markov;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.voltdb.VoltProcedure;
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.utils.Pair;
+
+import edu.brown.BaseTestCase;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestCompiledMarkovGraph extends BaseTestCase {
+
+    private static final Class<? extends VoltProcedure> TARGET_PROCEDURE = neworder.class;
+    private static final int NUM_TXNS = 100;
+    private static final int BASE_PARTITION = 1;
+    private static final int NUM_PARTITIONS = 10;
+    private static final Random rand = new Random(0);
+
+    private static MarkovGraph markov;
+
+    private Procedure catalog_proc;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(TARGET_PROCEDURE);
+
+        if (markov == null) {
+            markov = new MarkovGraph(this.catalog_proc).initialize();
+            MarkovGraphTestUtil.addRandomTransactions(markov, NUM_TXNS, BASE_PARTITION, NUM_PARTITIONS, rand);
+            markov.calculateProbabilities();
+        }
+    }
+
+    /**
+     * testStructure
+     */
+    public void testStructure() throws Exception {
+        CompiledMarkovGraph compiled = markov.getCompiledGraph();
+        assertNotNull(compiled);
+        assertEquals(markov.getVertexCount(), compiled.getVertexCount());
+        assertEquals(markov.getEdgeCount(), compiled.getEdgeCount());
+
+        for (MarkovVertex v : markov.getVertices()) {
+            int v_id = compiled.getVertexId(v);
+            assertTrue(v.toString(), v_id != CompiledMarkovGraph.NULL_ID);
+            assertSame(v, compiled.getVertex(v_id));
+            assertEquals(v.getAbortProbability(), compiled.getAbortProbability(v_id));
+            assertEquals(v.getSinglePartitionProbability(), compiled.getSinglePartitionProbability(v_id));
+
+            Collection<MarkovEdge> edges = markov.getOutEdges(v);
+            assertEquals(v.toString(), edges.size(), compiled.getOutDegree(v_id));
+            for (MarkovEdge e : edges) {
+                int dest_id = compiled.getVertexId(markov.getDest(e));
+                int e_id = compiled.findEdge(v_id, dest_id);
+                assertTrue(e.toString(), e_id != CompiledMarkovGraph.NULL_ID);
+                assertSame(e, compiled.getEdge(e_id));
+                assertEquals(dest_id, compiled.getEdgeTarget(e_id));
+                assertEquals(e.getProbability(), compiled.getEdgeProbability(e_id));
+            } // FOR
+        } // FOR
+
+        // Vertices that are not in the graph should not have an id
+        MarkovVertex other = new MarkovGraph(this.catalog_proc).initialize().getStartVertex();
+        assertEquals(CompiledMarkovGraph.NULL_ID, compiled.getVertexId(other));
+    }
+
+    /**
+     * testFindNextEdge
+     */
+    public void testFindNextEdge() throws Exception {
+        CompiledMarkovGraph compiled = markov.getCompiledGraph();
+        for (MarkovVertex v : markov.getVertices()) {
+            int v_id = compiled.getVertexId(v);
+            for (MarkovEdge e : markov.getOutEdges(v)) {
+                MarkovVertex dest = markov.getDest(e);
+                if (dest.isQueryVertex() == false) continue;
+                Statement catalog_stmt = dest.getCatalogItem();
+                int e_id = compiled.findNextEdge(v_id, catalog_stmt, dest.getQueryCounter(),
+                                                 dest.getPartitions(), dest.getPastPartitions());
+                assertTrue(dest.toString(), e_id != CompiledMarkovGraph.NULL_ID);
+                assertSame(e, compiled.getEdge(e_id));
+                assertSame(dest, compiled.getVertex(compiled.getEdgeTarget(e_id)));
+
+                // Make sure that we don't match if the query counter is different
+                e_id = compiled.findNextEdge(v_id, catalog_stmt, dest.getQueryCounter() + 1000,
+                                             dest.getPartitions(), dest.getPastPartitions());
+                assertEquals(CompiledMarkovGraph.NULL_ID, e_id);
+            } // FOR
+        } // FOR
+    }
+
+    /**
+     * testBatchEnd
+     */
+    public void testBatchEnd() throws Exception {
+        CompiledMarkovGraph compiled = markov.getCompiledGraph();
+        MarkovVertex start = markov.getStartVertex();
+        int start_id = compiled.getVertexId(start);
+        MarkovEdge e = CollectionUtil.first(markov.getOutEdges(start));
+        MarkovVertex dest = markov.getDest(e);
+        Statement catalog_stmt = dest.getCatalogItem();
+
+        PartitionSet partitions = new PartitionSet(BASE_PARTITION);
+        PartitionSet past = new PartitionSet(BASE_PARTITION, BASE_PARTITION+1);
+        assertNull(compiled.getBatchEnd(start_id, catalog_stmt, 0, partitions, past));
+        compiled.putBatchEnd(start_id, catalog_stmt, 0, partitions, past, e, dest);
+
+        Pair<MarkovEdge, MarkovVertex> pair = compiled.getBatchEnd(start_id, catalog_stmt, 0, partitions, past);
+        assertNotNull(pair);
+        assertSame(e, pair.getFirst());
+        assertSame(dest, pair.getSecond());
+
+        // The past partitions are part of the key
+        assertNull(compiled.getBatchEnd(start_id, catalog_stmt, 0, partitions, partitions));
+        assertNull(compiled.getBatchEnd(start_id, catalog_stmt, 1, partitions, past));
+
+        // Modifying the sets that we passed in should not change the cache entry
+        past.add(BASE_PARTITION+2);
+        assertNull(compiled.getBatchEnd(start_id, catalog_stmt, 0, partitions, past));
+    }
+
+    /**
+     * testCompileWhileUpdating
+     */
+    public void testCompileWhileUpdating() throws Exception {
+        // Keep adding new paths to a graph while we compile it
+        final MarkovGraph other = new MarkovGraph(this.catalog_proc).initialize();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    MarkovGraphTestUtil.addRandomTransactions(other, NUM_TXNS * 10, BASE_PARTITION, NUM_PARTITIONS, new Random(1));
+                } catch (Throwable ex) {
+                    error.set(ex);
+                }
+            }
+        };
+        t.start();
+
+        int last_count = 0;
+        while (t.isAlive()) {
+            CompiledMarkovGraph compiled = new CompiledMarkovGraph(other);
+            assertTrue(compiled.getVertexCount() >= last_count);
+            last_count = compiled.getVertexCount();
+            for (int i = 0; i < compiled.getVertexCount(); i++) {
+                for (int e_id = compiled.getFirstEdge(i), cnt = e_id + compiled.getOutDegree(i); e_id < cnt; e_id++) {
+                    int dest_id = compiled.getEdgeTarget(e_id);
+                    assertTrue(dest_id >= 0 && dest_id < compiled.getVertexCount());
+                    assertSame(other.getDest(compiled.getEdge(e_id)), compiled.getVertex(dest_id));
+                } // FOR
+            } // FOR
+        } // WHILE
+        t.join();
+        assertNull(error.get());
+
+        CompiledMarkovGraph compiled = new CompiledMarkovGraph(other);
+        assertEquals(other.getVertexCount(), compiled.getVertexCount());
+        assertEquals(other.getEdgeCount(), compiled.getEdgeCount());
+    }
+
+    /**
+     * testRecompile
+     */
+    public void testRecompile() throws Exception {
+        CompiledMarkovGraph compiled = markov.getCompiledGraph();
+        assertSame(compiled, markov.getCompiledGraph());
+
+        // Recomputing the probabilities should give us a new snapshot
+        markov.calculateProbabilities();
+        CompiledMarkovGraph recompiled = markov.getCompiledGraph();
+        assertNotSame(compiled, recompiled);
+        assertEquals(markov.getRecomputeCount(), recompiled.getRecomputeCount());
+        assertEquals(compiled.getVertexCount(), recompiled.getVertexCount());
+    }
+}
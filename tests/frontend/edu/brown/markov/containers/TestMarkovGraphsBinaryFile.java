@@ -0,0 +1,164 @@
+package edu.brown.markov.containers;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.GetNewDestination;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.MarkovGraphTestUtil;
+import edu.brown.markov.MarkovVertex;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestMarkovGraphsBinaryFile extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_TXNS = 50;
+    private static final Random rand = new Random(0);
+
+    private final Map<Integer, MarkovGraphsContainer> markovs = new HashMap<Integer, MarkovGraphsContainer>();
+    private Procedure procs[];
+    private File jsonFile;
+    private File binaryFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        this.procs = new Procedure[]{
+            this.getProcedure(GetNewDestination.class),
+            this.getProcedure(UpdateLocation.class),
+        };
+
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            MarkovGraphsContainer m = new MarkovGraphsContainer();
+            for (Procedure catalog_proc : this.procs) {
+                MarkovGraph markov = m.getOrCreate(p, catalog_proc, true);
+                MarkovGraphTestUtil.addRandomTransactions(markov, NUM_TXNS, p, NUM_PARTITIONS, rand);
+                markov.calculateProbabilities();
+            } // FOR
+            this.markovs.put(p, m);
+        } // FOR
+
+        this.jsonFile = FileUtil.getTempFile("markovs", false);
+        this.binaryFile = FileUtil.getTempFile("markovs", false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        for (File f : new File[]{ this.jsonFile, this.binaryFile }) {
+            if (f != null && f.exists()) f.delete();
+        } // FOR
+    }
+
+    private void compareGraphs(MarkovGraph expected, MarkovGraph actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getProcedure(), actual.getProcedure());
+        assertEquals(expected.getGraphId(), actual.getGraphId());
+        assertEquals(expected.getVertexCount(), actual.getVertexCount());
+        assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+        assertNotNull(actual.getStartVertex());
+        assertNotNull(actual.getCommitVertex());
+        assertNotNull(actual.getAbortVertex());
+
+        for (MarkovVertex v0 : expected.getVertices()) {
+            MarkovVertex v1 = null;
+            if (v0.isQueryVertex()) {
+                Statement catalog_stmt = v0.getCatalogItem();
+                for (MarkovVertex v : actual.getVertices()) {
+                    if (v.isQueryVertex() && v.isEqual(catalog_stmt, v0.getPartitions(), v0.getPastPartitions(), v0.getQueryCounter())) {
+                        v1 = v;
+                        break;
+                    }
+                } // FOR
+            } else {
+                v1 = actual.getSpecialVertex(v0.getType());
+            }
+            assertNotNull(v0.toString(), v1);
+            assertEquals(v0.toString(), v0.getTotalHits(), v1.getTotalHits());
+            assertEquals(v0.toString(), v0.getAbortProbability(), v1.getAbortProbability());
+            assertEquals(v0.toString(), v0.getSinglePartitionProbability(), v1.getSinglePartitionProbability());
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                assertEquals(v0.toString(), v0.getFinishProbability(p), v1.getFinishProbability(p));
+                assertEquals(v0.toString(), v0.getWriteProbability(p), v1.getWriteProbability(p));
+            } // FOR
+            assertEquals(v0.toString(), expected.getOutEdges(v0).size(), actual.getOutEdges(v1).size());
+        } // FOR
+    }
+
+    /**
+     * testIsBinaryFile
+     */
+    public void testIsBinaryFile() throws Exception {
+        MarkovGraphContainersUtil.save(this.markovs, this.jsonFile.getAbsolutePath());
+        MarkovGraphsBinaryFile.save(this.markovs, this.binaryFile);
+        assertFalse(MarkovGraphsBinaryFile.isBinaryFile(this.jsonFile));
+        assertTrue(MarkovGraphsBinaryFile.isBinaryFile(this.binaryFile));
+    }
+
+    /**
+     * testSaveLoad
+     */
+    public void testSaveLoad() throws Exception {
+        MarkovGraphsBinaryFile.save(this.markovs, this.binaryFile);
+        Map<Integer, MarkovGraphsContainer> clone = MarkovGraphContainersUtil.load(catalog_db, this.binaryFile);
+        assertEquals(this.markovs.keySet(), clone.keySet());
+
+        for (Integer p : this.markovs.keySet()) {
+            MarkovGraphsContainer m = clone.get(p);
+            assertEquals(MarkovGraphsContainer.class, m.getClass());
+
+            // Nothing should be deserialized until we ask for it
+            assertEquals(this.procs.length, m.getLazyCount());
+            MarkovGraph markov = m.get(p, this.procs[0]);
+            this.compareGraphs(this.markovs.get(p).get(p, this.procs[0]), markov);
+            assertEquals(this.procs.length - 1, m.getLazyCount());
+            assertSame(markov, m.get(p, this.procs[0]));
+
+            // Getting all of them should materialize the rest
+            Collection<MarkovGraph> all = m.getAll();
+            assertEquals(this.procs.length, all.size());
+            assertEquals(0, m.getLazyCount());
+            this.compareGraphs(this.markovs.get(p).get(p, this.procs[1]), m.get(p, this.procs[1]));
+        } // FOR
+    }
+
+    /**
+     * testLoadIds
+     */
+    public void testLoadIds() throws Exception {
+        MarkovGraphsBinaryFile.save(this.markovs, this.binaryFile);
+        PartitionSet ids = new PartitionSet(1, 2);
+        Map<Integer, MarkovGraphsContainer> clone = MarkovGraphContainersUtil.loadIds(catalog_db, this.binaryFile, ids);
+        assertEquals(ids.size(), clone.size());
+        assertTrue(clone.keySet().containsAll(ids));
+    }
+
+    /**
+     * testConvertFromJSON
+     */
+    public void testConvertFromJSON() throws Exception {
+        MarkovGraphContainersUtil.save(this.markovs, this.jsonFile.getAbsolutePath());
+        Map<Integer, MarkovGraphsContainer> json = MarkovGraphContainersUtil.load(catalog_db, this.jsonFile);
+        assertEquals(this.markovs.size(), json.size());
+
+        MarkovGraphsBinaryFile.save(json, this.binaryFile);
+        Map<Integer, MarkovGraphsContainer> binary = MarkovGraphContainersUtil.load(catalog_db, this.binaryFile);
+        assertEquals(json.keySet(), binary.keySet());
+        for (Integer p : json.keySet()) {
+            for (Procedure catalog_proc : this.procs) {
+                this.compareGraphs(json.get(p).get(p, catalog_proc), binary.get(p).get(p, catalog_proc));
+            } // FOR
+        } // FOR
+    }
+}
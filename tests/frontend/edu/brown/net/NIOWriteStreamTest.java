@@ -4,7 +4,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -115,4 +117,68 @@ public class NIOWriteStreamTest {
         stream.flush();
         assertFalse(channel.writeCalled);
     }
+
+    /** A MockByteChannel that records how many gathering writes were made. */
+    private static final class MockGatheringByteChannel extends MockByteChannel
+            implements GatheringByteChannel {
+        public int gatheringWrites = 0;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            gatheringWrites += 1;
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                total += write(srcs[i]);
+                // like a real socket: stop at the first partial write
+                if (srcs[i].remaining() > 0 || numBytesToAccept == 0) break;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+    }
+
+    @Test
+    public void testGatheringWrite() {
+        MockGatheringByteChannel gathering = new MockGatheringByteChannel();
+        NIOWriteStream gatheringStream = new NIOWriteStream(gathering);
+        final int CAPACITY = gatheringStream.getNext().capacity();
+
+        // fill two buffers and part of a third: all of it goes out in one write
+        gatheringStream.getNext().position(CAPACITY);
+        gatheringStream.getNext().position(CAPACITY);
+        gatheringStream.getNext().position(10);
+        assertFalse(gathering.writeCalled);
+        assertFalse(gatheringStream.flush());
+        assertEquals(1, gathering.gatheringWrites);
+        assertEquals(3, gathering.lastWrites.size());
+        assertEquals(CAPACITY, gathering.lastWrites.get(0).length);
+        assertEquals(CAPACITY, gathering.lastWrites.get(1).length);
+        assertEquals(10, gathering.lastWrites.get(2).length);
+        gathering.clear();
+
+        // a partial write blocks; the rest goes out when the channel is writable again
+        gathering.numBytesToAccept = CAPACITY + 100;
+        gatheringStream.getNext().position(CAPACITY);
+        gatheringStream.getNext().position(CAPACITY);
+        assertTrue(gatheringStream.flush());
+        assertEquals(CAPACITY, gathering.lastWrites.get(0).length);
+        assertEquals(100, gathering.lastWrites.get(1).length);
+        gathering.clear();
+
+        // writing more while blocked is appended after the remaining data
+        gatheringStream.getNext().position(5);
+        gathering.numBytesToAccept = -1;
+        assertFalse(gatheringStream.flush());
+        assertEquals(2, gathering.lastWrites.size());
+        assertEquals(CAPACITY - 100, gathering.lastWrites.get(0).length);
+        assertEquals(5, gathering.lastWrites.get(1).length);
+
+        gathering.clear();
+        gatheringStream.flush();
+        assertFalse(gathering.writeCalled);
+    }
 }
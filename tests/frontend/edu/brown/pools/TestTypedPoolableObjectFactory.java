@@ -30,6 +30,18 @@ public class TestTypedPoolableObjectFactory extends TestCase {
         }
     }
     
+    public static class MockPooledObject implements Poolable {
+        boolean initialized = false;
+        @Override
+        public void finish() {
+            this.initialized = false;
+        }
+        @Override
+        public boolean isInitialized() {
+            return (this.initialized);
+        }
+    }
+    
     /**
      * testMakeFactoryNoArguments
      */
@@ -62,4 +74,39 @@ public class TestTypedPoolableObjectFactory extends TestCase {
         assertEquals(expected1, obj.value1);
     }
     
+    /**
+     * testPoolCounts
+     */
+    public void testPoolCounts() throws Exception {
+        int idle = 3;
+        TypedObjectPool<MockPooledObject> pool = TypedObjectPool.factory(MockPooledObject.class, idle, true);
+        TypedPoolableObjectFactory<?> factory = (TypedPoolableObjectFactory<?>)pool.getFactory();
+        
+        MockPooledObject objs[] = new MockPooledObject[idle + 2];
+        for (int i = 0; i < objs.length; i++) {
+            objs[i] = pool.borrowObject();
+            objs[i].initialized = true;
+        } // FOR
+        assertEquals(objs.length, pool.getNumActive());
+        assertEquals(objs.length, factory.getCreatedCount());
+        assertEquals(objs.length, factory.getBorrowedCount());
+        
+        // We should only keep as many objects as we were told to
+        for (MockPooledObject obj : objs) {
+            pool.returnObject(obj);
+            assertFalse(obj.isInitialized());
+        } // FOR
+        assertEquals(0, pool.getNumActive());
+        assertEquals(idle, pool.getNumIdle());
+        assertEquals(objs.length, factory.getPassivatedCount());
+        assertEquals(objs.length - idle, factory.getDestroyedCount());
+        
+        // Borrowing again should reuse the idle objects without creating new ones
+        for (int i = 0; i < idle; i++) {
+            pool.returnObject(pool.borrowObject());
+        } // FOR
+        assertEquals(objs.length, factory.getCreatedCount());
+        assertEquals(objs.length + idle, factory.getBorrowedCount());
+    }
+    
 }
@@ -0,0 +1,77 @@
+package edu.brown.profilers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Simple tests for ProfileSampler
+ */
+public class TestProfileSampler extends TestCase {
+
+    private static final int NUM_SAMPLES = 1000;
+
+    private int countSamples(ProfileSampler sampler) {
+        int ctr = 0;
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            if (sampler.sample()) ctr++;
+        } // FOR
+        return (ctr);
+    }
+
+    /**
+     * testSampleAll
+     */
+    @Test
+    public void testSampleAll() throws Exception {
+        ProfileSampler sampler = new ProfileSampler(1);
+        assertEquals(NUM_SAMPLES, this.countSamples(sampler));
+
+        // Anything less than one should still sample everything
+        sampler = new ProfileSampler(0);
+        assertEquals(1, sampler.getRate());
+        assertEquals(NUM_SAMPLES, this.countSamples(sampler));
+    }
+
+    /**
+     * testSetRate
+     */
+    @Test
+    public void testSetRate() throws Exception {
+        ProfileSampler sampler = new ProfileSampler(10);
+        assertEquals(NUM_SAMPLES / 10, this.countSamples(sampler));
+
+        sampler.setRate(100);
+        assertEquals(100, sampler.getRate());
+        assertEquals(NUM_SAMPLES / 100, this.countSamples(sampler));
+    }
+
+    /**
+     * testMultipleThreads
+     */
+    @Test
+    public void testMultipleThreads() throws Exception {
+        final int rate = 20;
+        final int num_threads = 4;
+        final ProfileSampler sampler = new ProfileSampler(rate);
+        final AtomicInteger total = new AtomicInteger(0);
+
+        Thread threads[] = new Thread[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    total.addAndGet(countSamples(sampler));
+                }
+            };
+            threads[i].start();
+        } // FOR
+        for (Thread t : threads) {
+            t.join();
+        } // FOR
+
+        // Each thread has its own counter, so they should all get the same number
+        assertEquals(num_threads * (NUM_SAMPLES / rate), total.get());
+    }
+}
@@ -11,9 +11,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import ca.evanjones.protorpc.Counter;
+import ca.evanjones.protorpc.Protocol.RpcRequest;
 
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.MethodDescriptor;
 
 import edu.brown.net.MockByteChannel;
 import edu.brown.net.NonBlockingConnection;
@@ -49,8 +51,46 @@ public class ProtoConnectionTest {
         assertEquals(2, channel.lastWrites.size());
     }
 
-    
-    
+    @Test
+    public void testWriteRpcRequest() throws IOException {
+        MethodDescriptor add = Counter.CounterService.getDescriptor().findMethodByName("Add");
+        MethodDescriptor get = Counter.CounterService.getDescriptor().findMethodByName("Get");
+        assertFalse(ServiceRegistry.getMethodId(add) == ServiceRegistry.getMethodId(get));
+        Counter.Value v = Counter.Value.newBuilder().setValue(42).build();
+        Counter.GetRequest g = Counter.GetRequest.newBuilder().setName("counter").build();
+
+        // Both requests should go out with a single flush
+        CodedOutputStream output = connection.getCodedOutputStream();
+        ProtoRpcChannel.writeRpcRequest(output, 7, add, v);
+        ProtoRpcChannel.writeRpcRequest(output, 8, get, g);
+        assertFalse(channel.writeCalled);
+        assertFalse(connection.tryFlush());
+        assertEquals(1, channel.lastWrites.size());
+
+        // They must be identical to building the RpcRequest the slow way
+        CodedInputStream in = CodedInputStream.newInstance(channel.lastWrites.get(0));
+        int length = in.readRawLittleEndian32();
+        int oldLimit = in.pushLimit(length);
+        RpcRequest request = RpcRequest.parseFrom(in);
+        in.popLimit(oldLimit);
+        assertEquals(7, request.getSequenceNumber());
+        assertFalse(request.hasMethodName());
+        assertEquals(ServiceRegistry.getMethodId(add), request.getMethodId());
+        assertEquals(v.toByteString(), request.getRequest());
+        RpcRequest expected = ProtoRpcChannel.makeRpcRequest(7, add, v).toBuilder()
+                .clearMethodName().setMethodId(ServiceRegistry.getMethodId(add)).build();
+        assertEquals(expected.getSerializedSize(), length);
+
+        length = in.readRawLittleEndian32();
+        oldLimit = in.pushLimit(length);
+        request = RpcRequest.parseFrom(in);
+        in.popLimit(oldLimit);
+        assertEquals(8, request.getSequenceNumber());
+        assertEquals(ServiceRegistry.getMethodId(get), request.getMethodId());
+        assertEquals(g, Counter.GetRequest.parseFrom(request.getRequest()));
+        assertTrue(in.isAtEnd());
+    }
+
     @Test
     public void testReadBufferedMessage() throws IOException {
         Counter.Value.Builder builder = Counter.Value.newBuilder();
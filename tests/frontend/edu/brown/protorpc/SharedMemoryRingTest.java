@@ -0,0 +1,254 @@
+package edu.brown.protorpc;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.evanjones.protorpc.Counter.CounterService;
+import ca.evanjones.protorpc.Counter.GetRequest;
+import ca.evanjones.protorpc.Counter.Value;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcChannel;
+import com.google.protobuf.RpcController;
+
+public class SharedMemoryRingTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("shm", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        File file = new File(dir, "ring");
+        SharedMemoryRing reader = SharedMemoryRing.create(file, 1000);
+        assertEquals(1024, reader.getCapacity());
+        SharedMemoryRing writer = SharedMemoryRing.open(file);
+        assertEquals(reader.getCapacity(), writer.getCapacity());
+
+        SharedMemoryRing.Record record = new SharedMemoryRing.Record();
+        assertFalse(reader.hasRecord());
+        assertFalse(reader.read(record));
+
+        // Write records that don't evenly divide the capacity so that
+        // the lengths and the payloads end up wrapping around the end
+        byte data[] = new byte[300];
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte)(round + i);
+            }
+            assertTrue(writer.tryWrite((byte)round, data));
+            assertTrue(reader.hasRecord());
+            assertTrue(reader.read(record));
+            assertEquals((byte)round, record.kind);
+            assertArrayEquals(data, record.data);
+            assertFalse(reader.read(record));
+        }
+
+        // Fill it up: the writer has to wait until the reader catches up
+        int written = 0;
+        while (writer.tryWrite((byte)0, data)) written++;
+        assertEquals(3, written);
+        assertTrue(reader.read(record));
+        assertTrue(writer.tryWrite((byte)0, data));
+
+        try {
+            writer.tryWrite((byte)0, new byte[writer.getMaxRecordSize() + 1]);
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test(timeout=5000)
+    public void testCallMethod() throws Exception {
+        NIOEventLoop eventLoop = new NIOEventLoop();
+        SharedMemoryServer client = new SharedMemoryServer(eventLoop, 4096);
+        SharedMemoryServer server = new SharedMemoryServer(eventLoop, 4096);
+        server.register(new CounterExample());
+
+        File toServer = new File(dir, "client-server");
+        File toClient = new File(dir, "server-client");
+        client.createIncoming(1, toClient);
+        server.createIncoming(0, toServer);
+        SharedMemoryChannel channel = client.connect(1, toServer, null);
+        server.connect(0, toClient, null);
+        assertTrue(client.hasIncoming(1));
+        assertFalse(client.hasIncoming(2));
+
+        Thread threads[] = { new Thread(client), new Thread(server) };
+        for (Thread t : threads) t.start();
+
+        // Send enough requests that some of them have to wait for space in the ring
+        final int NUM_REQUESTS = 100;
+        final CountDownLatch latch = new CountDownLatch(NUM_REQUESTS);
+        final int last[] = { 0 };
+        CounterService stub = CounterService.newStub(channel);
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            stub.add(new ProtoRpcController(), Value.newBuilder().setValue(1).build(), new RpcCallback<Value>() {
+                @Override
+                public void run(Value parameter) {
+                    last[0] = Math.max(last[0], parameter.getValue());
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(NUM_REQUESTS, last[0]);
+
+        final CountDownLatch getLatch = new CountDownLatch(1);
+        final Value result[] = { null };
+        ProtoRpcController rpc = new ProtoRpcController();
+        stub.get(rpc, GetRequest.getDefaultInstance(), new RpcCallback<Value>() {
+            @Override
+            public void run(Value parameter) {
+                result[0] = parameter;
+                getLatch.countDown();
+            }
+        });
+        assertTrue(getLatch.await(5, TimeUnit.SECONDS));
+        assertFalse(rpc.failed());
+        assertEquals(NUM_REQUESTS, result[0].getValue());
+
+        client.close();
+        server.close();
+        for (Thread t : threads) t.join();
+        assertFalse(toServer.exists());
+        assertFalse(toClient.exists());
+    }
+
+    /**
+     * A fallback channel that answers every request itself
+     */
+    private static class MockFallbackChannel implements RpcChannel {
+        final AtomicInteger calls = new AtomicInteger(0);
+
+        @Override
+        public void callMethod(Descriptors.MethodDescriptor method, RpcController controller,
+                Message request, Message responsePrototype, RpcCallback<Message> done) {
+            calls.incrementAndGet();
+            done.run(Value.newBuilder().setValue(-1).build());
+        }
+    }
+
+    private Value callAdd(CounterService stub, Value request) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Value result[] = { null };
+        stub.add(new ProtoRpcController(), request, new RpcCallback<Value>() {
+            @Override
+            public void run(Value parameter) {
+                result[0] = parameter;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return (result[0]);
+    }
+
+    @Test(timeout=10000)
+    public void testFallback() throws Exception {
+        NIOEventLoop eventLoop = new NIOEventLoop();
+        SharedMemoryServer client = new SharedMemoryServer(eventLoop, 4096);
+        SharedMemoryServer server = new SharedMemoryServer(eventLoop, 4096);
+        server.register(new CounterExample());
+
+        File toServer = new File(dir, "client-server");
+        File toClient = new File(dir, "server-client");
+        client.createIncoming(1, toClient);
+        server.createIncoming(0, toServer);
+        MockFallbackChannel fallback = new MockFallbackChannel();
+        SharedMemoryChannel channel = client.connect(1, toServer, fallback);
+        server.connect(0, toClient, null);
+        CounterService stub = CounterService.newStub(channel);
+
+        // A request that can never fit in the ring goes through the fallback channel
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < channel.getRing().getMaxRecordSize(); i++) sb.append('x');
+        Value big = Value.newBuilder().setValue(1).setName(sb.toString()).build();
+        assertEquals(-1, callAdd(stub, big).getValue());
+        assertEquals(1, fallback.calls.get());
+
+        // Nobody is reading yet, so once the ring and the backlog are full
+        // the requests have to go through the fallback channel too. But they can't
+        // pass the requests that are already in the ring, so they have to wait
+        // until the other side has drained it.
+        final int NUM_REQUESTS = 1000;
+        final CountDownLatch latch = new CountDownLatch(NUM_REQUESTS);
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            stub.add(new ProtoRpcController(), Value.newBuilder().setValue(1).build(), new RpcCallback<Value>() {
+                @Override
+                public void run(Value parameter) {
+                    latch.countDown();
+                }
+            });
+        }
+        assertEquals(1, fallback.calls.get());
+
+        // Everything goes through once the threads start
+        Thread threads[] = { new Thread(client), new Thread(server) };
+        for (Thread t : threads) t.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        int num_fallback = fallback.calls.get() - 1;
+        assertTrue(num_fallback > 0);
+        assertTrue(num_fallback < NUM_REQUESTS);
+        assertEquals(fallback.calls.get(), channel.getFallbackCount());
+        assertEquals(NUM_REQUESTS - num_fallback + 1, callAdd(stub, Value.newBuilder().setValue(1).build()).getValue());
+
+        client.close();
+        server.close();
+        for (Thread t : threads) t.join();
+    }
+
+    @Test(timeout=10000)
+    public void testBadMessage() throws Exception {
+        NIOEventLoop eventLoop = new NIOEventLoop();
+        SharedMemoryServer client = new SharedMemoryServer(eventLoop, 4096);
+        SharedMemoryServer server = new SharedMemoryServer(eventLoop, 4096);
+        server.register(new CounterExample());
+
+        File toServer = new File(dir, "client-server");
+        File toClient = new File(dir, "server-client");
+        client.createIncoming(1, toClient);
+        server.createIncoming(0, toServer);
+
+        // Garbage in the ring should not take down the server's thread. This has to be
+        // written before the channel opens the ring so that it picks up where we left off.
+        SharedMemoryRing ring = SharedMemoryRing.open(toServer);
+        assertTrue(ring.tryWrite(SharedMemoryServer.KIND_REQUEST, new byte[]{ -1, -1, -1, -1, -1 }));
+        assertTrue(ring.tryWrite(SharedMemoryServer.KIND_RESPONSE, new byte[]{ -1, -1, -1, -1, -1 }));
+        assertTrue(ring.tryWrite((byte)99, new byte[]{ 0 }));
+
+        SharedMemoryChannel channel = client.connect(1, toServer, null);
+        server.connect(0, toClient, null);
+        CounterService stub = CounterService.newStub(channel);
+
+        Thread threads[] = { new Thread(client), new Thread(server) };
+        for (Thread t : threads) t.start();
+        assertEquals(1, callAdd(stub, Value.newBuilder().setValue(1).build()).getValue());
+        assertEquals(3, callAdd(stub, Value.newBuilder().setValue(2).build()).getValue());
+
+        client.close();
+        server.close();
+        for (Thread t : threads) t.join();
+    }
+}
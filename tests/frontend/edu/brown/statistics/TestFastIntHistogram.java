@@ -34,6 +34,7 @@ import java.util.Random;
 import org.json.JSONObject;
 
 import edu.brown.BaseTestCase;
+import edu.brown.utils.PartitionSet;
 
 /**
  * 
@@ -215,7 +216,64 @@ public class TestFastIntHistogram extends BaseTestCase {
         assertEquals(h.getValueCount(), fast_h.getValueCount());
     }
     
+    /**
+     * testPutPartitionSet
+     */
+    public void testPutPartitionSet() {
+        Histogram<Integer> origH = new Histogram<Integer>();
+        FastIntHistogram fastH = new FastIntHistogram(1);
+        PartitionSet partitions = new PartitionSet();
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            partitions.clear();
+            for (int j = 0, cnt = rand.nextInt(5); j < cnt; j++) {
+                partitions.add(rand.nextInt(RANGE * 3));
+            } // FOR
+            origH.put(partitions, 2);
+            fastH.put(partitions, 2);
+        } // FOR
+        assertEquals(origH.getValueCount(), fastH.getValueCount());
+        assertEquals(origH.getSampleCount(), fastH.getSampleCount());
+        for (Integer val : origH.values()) {
+            assertEquals(origH.get(val).longValue(), fastH.get(val.intValue()));
+        } // FOR
+        
+        // Copying into a regular Histogram should get everything
+        Histogram<Integer> copy = new Histogram<Integer>(fastH);
+        assertEquals(origH.getValueCount(), copy.getValueCount());
+        assertEquals(origH.getSampleCount(), copy.getSampleCount());
+        
+        // And the same thing when we remove them
+        fastH.dec(copy);
+        assertTrue(fastH.toString(), fastH.isEmpty());
+        assertEquals(0, fastH.getSampleCount());
+    }
     
-    
-
+    /**
+     * testClear
+     */
+    public void testClear() {
+        int sample_count = fast_h.getSampleCount();
+        String s = fast_h.toString();
+        assertFalse(s.isEmpty());
+        assertEquals(sample_count, fast_h.getSampleCount());
+        
+        fast_h.clear();
+        assertTrue(fast_h.isEmpty());
+        assertEquals(0, fast_h.getValueCount());
+        assertEquals(0, fast_h.getSampleCount());
+        assertTrue(fast_h.values().isEmpty());
+        assertFalse(fast_h.contains(RANGE / 2));
+        assertFalse(fast_h.contains(RANGE * 100));
+        
+        // With zero entries, the values should still be there after clearValues()
+        fast_h.setKeepZeroEntries(true);
+        fast_h.put(1);
+        fast_h.put(2);
+        fast_h.clearValues();
+        assertEquals(2, fast_h.getValueCount());
+        assertEquals(0, fast_h.getSampleCount());
+        assertEquals(2, fast_h.getValuesForCount(0).size());
+        fast_h.setKeepZeroEntries(false);
+        assertTrue(fast_h.isEmpty());
+    }
 }
@@ -4,6 +4,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
+
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
 
 import edu.brown.hstore.HStoreConstants;
 
@@ -193,4 +197,107 @@ public class TestPartitionSet extends TestCase {
         assertEquals(pset0.size(), pset1.size());
         assertEquals(pset0, pset1);
     }
+    
+    /**
+     * testNextPartition
+     */
+    public void testNextPartition() {
+        // Make sure that we go across multiple words
+        int num_elements = rand.nextInt(NUM_PARTITIONS*3);
+        for (int i = 0; i < num_elements; i++) {
+            int p = rand.nextInt(NUM_PARTITIONS*3);
+            pset.add(p);
+            set.add(p);
+        } // FOR
+        pset.add(HStoreConstants.NULL_PARTITION_ID);
+        
+        Set<Integer> expected = new TreeSet<Integer>(set);
+        int cnt = 0;
+        for (int p = pset.nextPartition(0); p >= 0; p = pset.nextPartition(p+1)) {
+            assertTrue(Integer.toString(p), expected.contains(p));
+            cnt++;
+        } // FOR
+        assertEquals(expected.size(), cnt);
+        assertEquals(-1, pset.nextPartition(NUM_PARTITIONS*1000));
+        
+        // The values array should include the null partition first
+        int values[] = pset.values();
+        assertEquals(pset.size(), values.length);
+        assertEquals(HStoreConstants.NULL_PARTITION_ID, values[0]);
+    }
+    
+    /**
+     * testEquals
+     */
+    public void testEquals() {
+        PartitionSet pset0 = new PartitionSet();
+        PartitionSet pset1 = new PartitionSet();
+        pset0.ensureCapacity(NUM_PARTITIONS*10);
+        for (int p = 0; p < NUM_PARTITIONS; p += 3) {
+            pset0.add(p);
+            pset1.add(p);
+            set.add(p);
+        } // FOR
+        assertEquals(pset0, pset1);
+        assertEquals(pset0.hashCode(), pset1.hashCode());
+        assertEquals(pset0, set);
+        
+        pset0.add(HStoreConstants.NULL_PARTITION_ID);
+        assertFalse(pset0.equals(pset1));
+        assertFalse(pset0.equals(set));
+        pset0.remove(HStoreConstants.NULL_PARTITION_ID);
+        
+        pset1.add(NUM_PARTITIONS*5);
+        assertFalse(pset0.equals(pset1));
+        pset1.remove(NUM_PARTITIONS*5);
+        assertEquals(pset0, pset1);
+    }
+    
+    /**
+     * testRetainAll
+     */
+    public void testRetainAll() {
+        PartitionSet other = new PartitionSet();
+        Set<Integer> other_set = new HashSet<Integer>();
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            int p = rand.nextInt(NUM_PARTITIONS);
+            pset.add(p);
+            set.add(p);
+            p = rand.nextInt(NUM_PARTITIONS);
+            other.add(p);
+            other_set.add(p);
+        } // FOR
+        set.retainAll(other_set);
+        
+        PartitionSet pset0 = new PartitionSet(pset);
+        pset0.retainAll(other);
+        assertEquals(set, new HashSet<Integer>(pset0));
+        assertEquals(set.size(), pset0.size());
+        assertTrue(pset.containsAll(pset0));
+        assertTrue(other.containsAll(pset0));
+        
+        PartitionSet pset1 = new PartitionSet(pset);
+        pset1.retainAll(other_set);
+        assertEquals(pset0, pset1);
+    }
+    
+    /**
+     * testSerialization
+     */
+    public void testSerialization() throws Exception {
+        for (int p = 0; p < NUM_PARTITIONS; p += 7) {
+            pset.add(p);
+        } // FOR
+        pset.add(HStoreConstants.NULL_PARTITION_ID);
+        
+        FastSerializer out = new FastSerializer();
+        pset.writeExternal(out);
+        out.writeInt(12345);
+        
+        FastDeserializer in = new FastDeserializer(out.getBytes());
+        PartitionSet clone = new PartitionSet();
+        clone.readExternal(in);
+        assertEquals(pset, clone);
+        assertEquals(12345, in.readInt());
+    }
 }
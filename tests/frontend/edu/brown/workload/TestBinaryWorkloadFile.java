@@ -0,0 +1,200 @@
+package edu.brown.workload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.ProjectType;
+
+public class TestBinaryWorkloadFile extends BaseTestCase {
+
+    private static final int NUM_TXNS = 100;
+
+    private Procedure catalog_proc;
+    private Statement catalog_stmts[];
+    private File binaryFile;
+    private File jsonFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.catalog_proc = this.getProcedure(UpdateLocation.class);
+        this.catalog_stmts = new Statement[]{
+            this.getStatement(this.catalog_proc, "getSubscriber"),
+            this.getStatement(this.catalog_proc, "update"),
+        };
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.trace_sampling_rate = 1.0;
+        hstore_conf.site.trace_sampling_procs = null;
+        hstore_conf.site.trace_buffer_size = NUM_TXNS * 2;
+
+        this.binaryFile = FileUtil.getTempFile("trace", false);
+        this.jsonFile = FileUtil.getTempFile("trace", false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        for (File f : new File[]{ this.binaryFile, this.jsonFile }) {
+            if (f != null && f.exists()) f.delete();
+        } // FOR
+    }
+
+    /**
+     * Execute a fake UpdateLocation txn through the given WorkloadTrace
+     */
+    private Object execute(SampledWorkloadTrace tracer, long txn_id) {
+        String sub_nbr = String.format("%010d", txn_id);
+        Object handle = tracer.startTransaction(txn_id, this.catalog_proc, new Object[]{ txn_id * 10, sub_nbr });
+        if (handle == null) return (null);
+        Object query_handle = tracer.startQuery(handle, this.catalog_stmts[0], new Object[]{ sub_nbr }, 0);
+        tracer.stopQuery(query_handle, null);
+        query_handle = tracer.startQuery(handle, this.catalog_stmts[1], new Object[]{ (int)txn_id, sub_nbr }, 1);
+        tracer.stopQuery(query_handle, null);
+        if (txn_id % 10 == 0) {
+            tracer.abortTransaction(handle);
+        } else {
+            tracer.stopTransaction(handle);
+        }
+        return (handle);
+    }
+
+    private void compare(TransactionTrace expected, TransactionTrace actual) {
+        assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        assertEquals(expected.getCatalogItemName(), actual.getCatalogItemName());
+        assertEquals(expected.getStartTimestamp(), actual.getStartTimestamp());
+        assertEquals(expected.getStopTimestamp(), actual.getStopTimestamp());
+        assertEquals(expected.isAborted(), actual.isAborted());
+        assertEquals(expected.getParamCount(), actual.getParamCount());
+        for (int i = 0; i < expected.getParamCount(); i++) {
+            assertEquals(expected.getParams()[i], actual.getParams()[i]);
+        } // FOR
+        assertEquals(expected.getQueryCount(), actual.getQueryCount());
+        for (int i = 0; i < expected.getQueryCount(); i++) {
+            QueryTrace q0 = expected.getQueries().get(i);
+            QueryTrace q1 = actual.getQueries().get(i);
+            assertEquals(q0.getCatalogItemName(), q1.getCatalogItemName());
+            assertEquals(q0.getBatchId(), q1.getBatchId());
+            assertEquals(q0.getParamCount(), q1.getParamCount());
+            for (int j = 0; j < q0.getParamCount(); j++) {
+                assertEquals(q0.getParams()[j], q1.getParams()[j]);
+            } // FOR
+        } // FOR
+    }
+
+    /**
+     * testWriteTransaction
+     */
+    public void testWriteTransaction() throws Exception {
+        SampledWorkloadTrace tracer = new SampledWorkloadTrace();
+        tracer.setCatalog(catalog);
+        TransactionTrace expected = (TransactionTrace)this.execute(tracer, 1234l);
+        assertNotNull(expected);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        BinaryWorkloadFile.writeTransaction(out, expected);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        TransactionTrace actual = BinaryWorkloadFile.readTransaction(in, catalog_db);
+        assertNotNull(actual);
+        this.compare(expected, actual);
+    }
+
+    /**
+     * testSamplingRate
+     */
+    public void testSamplingRate() throws Exception {
+        SampledWorkloadTrace tracer = new SampledWorkloadTrace();
+        tracer.setCatalog(catalog);
+        tracer.setSamplingRate(this.catalog_proc, 0d);
+        for (long txn_id = 0; txn_id < NUM_TXNS; txn_id++) {
+            assertNull(this.execute(tracer, txn_id));
+        } // FOR
+        assertEquals(0, tracer.getSampledCount());
+
+        // Sysprocs should never be traced
+        Procedure sysproc = null;
+        for (Procedure p : catalog_db.getProcedures()) {
+            if (p.getSystemproc()) {
+                sysproc = p;
+                break;
+            }
+        } // FOR
+        assertNotNull(sysproc);
+        assertEquals(0d, tracer.getSamplingRate(sysproc));
+    }
+
+    /**
+     * testLoad
+     */
+    public void testLoad() throws Exception {
+        SampledWorkloadTrace tracer = new SampledWorkloadTrace();
+        tracer.setCatalog(catalog);
+        tracer.setOutputPath(this.binaryFile);
+
+        Map<Long, TransactionTrace> expected = new HashMap<Long, TransactionTrace>();
+        for (long txn_id = 0; txn_id < NUM_TXNS; txn_id++) {
+            TransactionTrace txn_trace = (TransactionTrace)this.execute(tracer, txn_id);
+            assertNotNull(txn_trace);
+            expected.put(txn_id, txn_trace);
+        } // FOR
+        tracer.close();
+        assertEquals(NUM_TXNS, tracer.getSampledCount());
+        assertEquals(0, tracer.getDroppedCount());
+        assertEquals(NUM_TXNS, tracer.getWrittenCount());
+        assertTrue(BinaryWorkloadFile.isBinaryFile(this.binaryFile));
+
+        Workload workload = new Workload(catalog);
+        workload.load(this.binaryFile, catalog_db);
+        assertEquals(NUM_TXNS, workload.getTransactionCount());
+        for (TransactionTrace actual : workload) {
+            this.compare(expected.get(actual.getTransactionId()), actual);
+        } // FOR
+    }
+
+    /**
+     * testConvert
+     */
+    public void testConvert() throws Exception {
+        SampledWorkloadTrace tracer = new SampledWorkloadTrace();
+        tracer.setCatalog(catalog);
+        tracer.setOutputPath(this.binaryFile);
+        List<TransactionTrace> expected = new ArrayList<TransactionTrace>();
+        for (long txn_id = 0; txn_id < NUM_TXNS; txn_id++) {
+            expected.add((TransactionTrace)this.execute(tracer, txn_id));
+        } // FOR
+        tracer.close();
+
+        // Binary -> JSON
+        assertEquals(NUM_TXNS, BinaryWorkloadFile.convertToJSON(catalog_db, this.binaryFile, this.jsonFile));
+        assertFalse(BinaryWorkloadFile.isBinaryFile(this.jsonFile));
+
+        // JSON -> Binary
+        this.binaryFile.delete();
+        assertEquals(NUM_TXNS, BinaryWorkloadFile.convertFromJSON(catalog_db, this.jsonFile, this.binaryFile, 1024));
+        assertTrue(BinaryWorkloadFile.isBinaryFile(this.binaryFile));
+
+        BinaryWorkloadFile.Reader reader = new BinaryWorkloadFile.Reader(this.binaryFile, catalog_db);
+        int ctr = 0;
+        while (reader.hasNext()) {
+            this.compare(expected.get(ctr++), reader.next());
+        } // WHILE
+        reader.close();
+        assertEquals(NUM_TXNS, ctr);
+    }
+}
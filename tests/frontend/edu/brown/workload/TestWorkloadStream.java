@@ -0,0 +1,252 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.costmodel.SingleSitedCostModel;
+import edu.brown.costmodel.TimeIntervalCostModel;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.containers.MarkovGraphContainersUtil;
+import edu.brown.markov.containers.MarkovGraphsContainer;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.ProjectType;
+import edu.brown.utils.ThreadUtil;
+import edu.brown.workload.filters.ProcedureLimitFilter;
+import edu.brown.workload.filters.ProcedureNameFilter;
+
+public class TestWorkloadStream extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_TXNS = 100;
+    private static final int CHUNK_SIZE = 7;
+
+    private static File jsonFile;
+    private static final List<TransactionTrace> txns = new ArrayList<TransactionTrace>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+
+        if (jsonFile == null) {
+            Procedure catalog_proc = this.getProcedure(UpdateLocation.class);
+            Statement catalog_stmt = this.getStatement(catalog_proc, "update");
+            jsonFile = FileUtil.getTempFile("trace", true);
+            FileOutputStream out = new FileOutputStream(jsonFile);
+            for (long txn_id = 0; txn_id < NUM_TXNS; txn_id++) {
+                String sub_nbr = String.format("%015d", txn_id);
+                TransactionTrace txn_trace = new TransactionTrace(txn_id, catalog_proc, new Object[]{ txn_id, sub_nbr });
+                QueryTrace query_trace = new QueryTrace(catalog_stmt, new Object[]{ (int)txn_id, sub_nbr }, 0);
+                txn_trace.addQuery(query_trace);
+                query_trace.stop();
+                txn_trace.stop();
+                WorkloadUtil.WriteThread.write(catalog_db, txn_trace, out);
+                txns.add(txn_trace);
+            } // FOR
+            out.close();
+        }
+    }
+
+    private WorkloadStream createStream(ProcedureLimitFilter filter) {
+        WorkloadStream stream = new WorkloadStream(jsonFile, catalog_db, filter);
+        stream.setChunkSize(CHUNK_SIZE);
+        stream.setMaxPendingChunks(2);
+        return (stream);
+    }
+
+    /**
+     * testIterator
+     */
+    public void testIterator() throws Exception {
+        WorkloadStream stream = this.createStream(null);
+        Iterator<TransactionTrace> it = stream.iterator();
+        for (TransactionTrace expected : txns) {
+            assertTrue(it.hasNext());
+            TransactionTrace actual = it.next();
+            assertEquals(expected.getTransactionId(), actual.getTransactionId());
+            assertEquals(expected.getQueryCount(), actual.getQueryCount());
+        } // FOR
+        assertFalse(it.hasNext());
+        assertEquals(NUM_TXNS, stream.getTransactionCount());
+        assertEquals(NUM_TXNS, stream.getQueryCount());
+
+        // We should be able to go through the stream again
+        int ctr = 0;
+        for (@SuppressWarnings("unused") TransactionTrace txn_trace : stream) {
+            ctr++;
+        } // FOR
+        assertEquals(NUM_TXNS, ctr);
+    }
+
+    /**
+     * testFilter
+     */
+    public void testFilter() throws Exception {
+        long limit = NUM_TXNS / 4;
+        WorkloadStream stream = this.createStream(new ProcedureLimitFilter(limit, false));
+        int ctr = 0;
+        for (TransactionTrace txn_trace : stream) {
+            // The filter should always pick the first txns in the file
+            assertEquals(txns.get(ctr++).getTransactionId(), txn_trace.getTransactionId());
+        } // FOR
+        assertEquals(limit, ctr);
+        assertEquals(limit, stream.getTransactionCount());
+
+        // Nothing should get past the fast procedure name filter
+        ProcedureNameFilter name_filter = new ProcedureNameFilter(false).include(GetSubscriberData.class.getSimpleName());
+        stream = new WorkloadStream(jsonFile, catalog_db, name_filter);
+        assertFalse(stream.iterator().hasNext());
+    }
+
+    /**
+     * testVisitor
+     */
+    public void testVisitor() throws Exception {
+        WorkloadStream stream = this.createStream(null);
+        final List<TransactionTrace> visited = new ArrayList<TransactionTrace>();
+        int ctr = stream.visit(new WorkloadStream.Visitor() {
+            @Override
+            public boolean visit(TransactionTrace txn_trace) {
+                visited.add(txn_trace);
+                return (visited.size() < 10);
+            }
+        });
+        assertEquals(10, ctr);
+        assertEquals(10, visited.size());
+    }
+
+    /**
+     * testLoad
+     */
+    public void testLoad() throws Exception {
+        Workload workload = new Workload(catalog);
+        workload.load(jsonFile, catalog_db);
+        assertEquals(NUM_TXNS, workload.getTransactionCount());
+        assertEquals(NUM_TXNS, workload.getQueryCount());
+    }
+
+    /**
+     * testEstimateWorkloadCost
+     */
+    public void testEstimateWorkloadCost() throws Exception {
+        Workload workload = new Workload(catalog);
+        workload.load(jsonFile, catalog_db);
+        SingleSitedCostModel cost_model = new SingleSitedCostModel(catalogContext);
+        double expected = cost_model.estimateWorkloadCost(catalogContext, workload);
+
+        cost_model = new SingleSitedCostModel(catalogContext);
+        double actual = cost_model.estimateWorkloadCost(catalogContext, this.createStream(null), null);
+        assertEquals(expected, actual, 0.0001);
+    }
+
+    /**
+     * testTimeIntervalEstimateWorkloadCost
+     */
+    public void testTimeIntervalEstimateWorkloadCost() throws Exception {
+        int num_intervals = 5;
+        Workload workload = new Workload(catalog);
+        workload.load(jsonFile, catalog_db);
+        TimeIntervalCostModel<SingleSitedCostModel> cost_model = new TimeIntervalCostModel<SingleSitedCostModel>(catalogContext, SingleSitedCostModel.class, num_intervals);
+        double expected = cost_model.estimateWorkloadCost(catalogContext, workload);
+
+        cost_model = new TimeIntervalCostModel<SingleSitedCostModel>(catalogContext, SingleSitedCostModel.class, num_intervals);
+        double actual = cost_model.estimateWorkloadCost(catalogContext, this.createStream(null), null);
+        assertEquals(expected, actual, 0.0001);
+
+        // Make sure that the stream's filter is applied to both passes
+        long limit = NUM_TXNS / 4;
+        workload = new Workload(catalog);
+        workload.load(jsonFile, catalog_db, new ProcedureLimitFilter(limit, false));
+        cost_model = new TimeIntervalCostModel<SingleSitedCostModel>(catalogContext, SingleSitedCostModel.class, num_intervals);
+        expected = cost_model.estimateWorkloadCost(catalogContext, workload);
+
+        cost_model = new TimeIntervalCostModel<SingleSitedCostModel>(catalogContext, SingleSitedCostModel.class, num_intervals);
+        actual = cost_model.estimateWorkloadCost(catalogContext, this.createStream(new ProcedureLimitFilter(limit, false)), null);
+        assertEquals(expected, actual, 0.0001);
+    }
+
+    /**
+     * testCreateMarkovGraphsContainers
+     */
+    public void testCreateMarkovGraphsContainers() throws Exception {
+        Workload workload = new Workload(catalog);
+        workload.load(jsonFile, catalog_db);
+        Map<Integer, MarkovGraphsContainer> expected = MarkovGraphContainersUtil.createMarkovGraphsContainers(
+                catalog_db, workload, p_estimator, MarkovGraphsContainer.class);
+        Map<Integer, MarkovGraphsContainer> actual = MarkovGraphContainersUtil.createMarkovGraphsContainers(
+                catalog_db, this.createStream(null), p_estimator, MarkovGraphsContainer.class);
+        assertEquals(expected.keySet(), actual.keySet());
+
+        Procedure catalog_proc = this.getProcedure(UpdateLocation.class);
+        for (Integer p : expected.keySet()) {
+            MarkovGraph m0 = expected.get(p).get(p, catalog_proc);
+            MarkovGraph m1 = actual.get(p).get(p, catalog_proc);
+            assertNotNull(m1);
+            assertEquals(m0.getVertexCount(), m1.getVertexCount());
+            assertEquals(m0.getEdgeCount(), m1.getEdgeCount());
+        } // FOR
+    }
+
+    /**
+     * testCreateMarkovGraphsContainersLargeStream
+     */
+    public void testCreateMarkovGraphsContainersLargeStream() throws Exception {
+        // Each processing thread only gets 1000 queued txns when we read from a
+        // stream, so we need more than that for all of them to make sure that
+        // the queuing thread doesn't block forever waiting for a thread that never started
+        final int num_txns = (ThreadUtil.getMaxGlobalThreads() + 1) * 1000 + NUM_TXNS;
+        Procedure catalog_proc = this.getProcedure(UpdateLocation.class);
+        Statement catalog_stmt = this.getStatement(catalog_proc, "update");
+        File largeFile = FileUtil.getTempFile("trace", true);
+        FileOutputStream out = new FileOutputStream(largeFile);
+        for (long txn_id = 0; txn_id < num_txns; txn_id++) {
+            String sub_nbr = String.format("%015d", txn_id);
+            TransactionTrace txn_trace = new TransactionTrace(txn_id, catalog_proc, new Object[]{ txn_id, sub_nbr });
+            QueryTrace query_trace = new QueryTrace(catalog_stmt, new Object[]{ (int)txn_id, sub_nbr }, 0);
+            txn_trace.addQuery(query_trace);
+            query_trace.stop();
+            txn_trace.stop();
+            WorkloadUtil.WriteThread.write(catalog_db, txn_trace, out);
+        } // FOR
+        out.close();
+
+        final WorkloadStream stream = new WorkloadStream(largeFile, catalog_db, null);
+        final AtomicReference<Map<Integer, MarkovGraphsContainer>> result = new AtomicReference<Map<Integer, MarkovGraphsContainer>>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    result.set(MarkovGraphContainersUtil.createMarkovGraphsContainers(
+                                    catalog_db, stream, p_estimator, MarkovGraphsContainer.class));
+                } catch (Throwable ex) {
+                    error.set(ex);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        t.join(120000);
+        assertFalse("Timed out creating MarkovGraphs from stream", t.isAlive());
+        assertNull(error.get());
+        assertNotNull(result.get());
+        assertEquals(num_txns, stream.getTransactionCount());
+
+        int total = 0;
+        for (Integer p : result.get().keySet()) {
+            MarkovGraph markov = result.get().get(p).get(p, catalog_proc);
+            if (markov != null) total += markov.getStartVertex().getTotalHits();
+        } // FOR
+        assertEquals(num_txns, total);
+    }
+}
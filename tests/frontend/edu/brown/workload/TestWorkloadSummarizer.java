@@ -1,6 +1,7 @@
 package edu.brown.workload;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -17,6 +18,7 @@ import edu.brown.benchmark.tm1.procedures.UpdateLocation;
 import edu.brown.mappings.ParameterMappingsSet;
 import edu.brown.plannodes.PlanNodeUtil;
 import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.FileUtil;
 import edu.brown.utils.ProjectType;
 
 public class TestWorkloadSummarizer extends BaseTestCase {
@@ -246,6 +248,44 @@ public class TestWorkloadSummarizer extends BaseTestCase {
         assertEquals(NUM_QUERIES, pruned.getQueryCount());
     }
     
+    /**
+     * testProcessStreamIntervals
+     */
+    public void testProcessStreamIntervals() throws Exception {
+        // Spread the duplicate txns out over time so that each
+        // interval gets its own weighted txn
+        int num_intervals = 2;
+        File output = FileUtil.getTempFile("trace", true);
+        FileOutputStream out = new FileOutputStream(output);
+        workload = new Workload(catalog);
+        for (int i = 0; i < NUM_TRANSACTIONS; i++) {
+            TransactionTrace txn_trace = new TransactionTrace(i, catalog_proc, PARAMS);
+            QueryTrace query_trace = new QueryTrace(catalog_stmt, PARAMS, 0);
+            txn_trace.addQuery(query_trace);
+            query_trace.setTimestamps(i * 1000l, i * 1000l + 1);
+            txn_trace.setTimestamps(i * 1000l, i * 1000l + 1);
+            workload.addTransaction(catalog_proc, txn_trace);
+            WorkloadUtil.WriteThread.write(catalog_db, txn_trace, out);
+        } // FOR
+        out.close();
+
+        WorkloadStream stream = new WorkloadStream(output, catalog_db, null);
+        Workload pruned = this.summarizer.process(stream);
+        assertEquals(1, pruned.getTransactionCount());
+
+        this.summarizer.setIntervals(num_intervals);
+        Workload expected = this.summarizer.process(workload);
+        assertEquals(num_intervals, expected.getTransactionCount());
+        pruned = this.summarizer.process(stream);
+        assertEquals(expected.getTransactionCount(), pruned.getTransactionCount());
+        int total = 0;
+        for (TransactionTrace txn_trace : pruned) {
+            assertEquals(NUM_TRANSACTIONS / num_intervals, txn_trace.getWeight());
+            total += txn_trace.getWeight();
+        } // FOR
+        assertEquals(NUM_TRANSACTIONS, total);
+    }
+
     /**
      * testProcess
      */
@@ -0,0 +1,168 @@
+package org.voltdb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.utils.CompressionService;
+import org.voltdb.utils.DBBPool;
+
+import edu.brown.hstore.conf.HStoreConf;
+
+public class TestDefaultSnapshotDataTarget extends TestCase {
+
+    static final int PARTITION_ID = 7;
+    static final int NUM_TUPLE_BYTES = 32 * 1024;
+
+    @Override
+    protected void setUp() throws Exception {
+        // The chunk CRCs are computed by the EE library
+        EELibraryLoader.loadExecutionEngineLibrary(true);
+    }
+
+    /**
+     * Build a chunk that looks like what the EE hands to the SnapshotDataTarget:
+     * length placeholder, partition id, partition id CRC, data CRC, tuple data, row count
+     */
+    private ByteBuffer createChunk(byte tuples[], int rowCount) {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(16 + tuples.length + 4);
+        chunk.putInt(0);
+        chunk.putInt(PARTITION_ID);
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(4).putInt(PARTITION_ID).array());
+        chunk.putInt((int)crc.getValue());
+        chunk.putInt(0);
+        chunk.put(tuples);
+        chunk.putInt(rowCount);
+        chunk.flip();
+        chunk.putInt(0, chunk.remaining() - 4);
+        return (chunk);
+    }
+
+    /**
+     * testCompressChunk
+     */
+    public void testCompressChunk() throws Exception {
+        // Use a repeating pattern so that the tuple data actually compresses
+        byte tuples[] = new byte[NUM_TUPLE_BYTES];
+        Random rand = new Random(0);
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = (byte)((i % 64) < 32 ? i % 7 : rand.nextInt(4));
+        } // FOR
+        ByteBuffer chunk = this.createChunk(tuples, 1234);
+
+        ByteBuffer output = ByteBuffer.allocateDirect(DefaultSnapshotDataTarget.maxCompressedChunkLength(chunk));
+        ByteBuffer compressed = DefaultSnapshotDataTarget.compressChunk(chunk, output);
+        assertEquals(0, compressed.position());
+        assertTrue(compressed.remaining() < chunk.remaining());
+
+        // The header should have the new length, but the same partition id and CRC
+        final int length = compressed.getInt(0);
+        assertEquals(compressed.remaining() - 4, length);
+        assertEquals(PARTITION_ID, compressed.getInt(4));
+        assertEquals(chunk.getInt(8), compressed.getInt(8));
+
+        // The data CRC should be over the compressed bytes
+        byte compressedBytes[] = new byte[length - 12];
+        ByteBuffer dup = compressed.duplicate();
+        dup.position(16);
+        dup.get(compressedBytes);
+        CRC32 crc = new CRC32();
+        crc.update(compressedBytes);
+        assertEquals((int)crc.getValue(), compressed.getInt(12));
+        assertEquals(DBBPool.getBufferCRC32(compressed, 16, length - 12), compressed.getInt(12));
+
+        // And we should get back the original tuple data and row count
+        ByteBuffer input = ByteBuffer.allocateDirect(compressedBytes.length);
+        input.put(compressedBytes).flip();
+        output = ByteBuffer.allocateDirect(tuples.length + 4);
+        int uncompressedLength = CompressionService.decompressBuffer(input, output);
+        assertEquals(tuples.length + 4, uncompressedLength);
+        byte actual[] = new byte[tuples.length];
+        output.get(actual);
+        for (int i = 0; i < tuples.length; i++) {
+            assertEquals(Integer.toString(i), tuples[i], actual[i]);
+        } // FOR
+        assertEquals(1234, output.getInt());
+    }
+
+    private DefaultSnapshotDataTarget createTarget(File file, int version[], boolean compress) throws Exception {
+        VoltTable schema = new VoltTable(new VoltTable.ColumnInfo("A", VoltType.BIGINT));
+        return new DefaultSnapshotDataTarget(file, 0, "cluster", "database", "table", 1, true,
+                                             new int[]{ 0 }, schema, 1234l, version, compress);
+    }
+
+    /**
+     * testCompressedHeader
+     */
+    public void testCompressedHeader() throws Exception {
+        File file = File.createTempFile("snapshot", ".vpt");
+        file.deleteOnExit();
+        int version[] = { 1, 2, 3, 4 };
+        DefaultSnapshotDataTarget target = this.createTarget(file, version, true);
+        target.close();
+
+        FileInputStream in = new FileInputStream(file);
+        ByteBuffer b = ByteBuffer.allocate((int)file.length());
+        while (b.hasRemaining()) {
+            if (in.getChannel().read(b) < 0) break;
+        } // WHILE
+        in.close();
+        b.flip();
+        b.getInt(); // CRC
+        int length = b.getInt();
+        ByteBuffer header = b.slice();
+        header.limit(length);
+        FastDeserializer fd = new FastDeserializer(header);
+        assertEquals(1, fd.readByte());
+
+        // The compression flag should not touch the version number
+        for (int ii = 0; ii < version.length; ii++) {
+            assertEquals(version[ii], fd.readInt());
+        } // FOR
+        assertEquals(1234l, fd.readLong());
+        fd.readInt(); // host id
+        fd.readString(); // hostname
+        assertEquals("cluster", fd.readString());
+        assertEquals("database", fd.readString());
+        assertEquals("TABLE", fd.readString());
+        assertTrue(fd.readBoolean());
+        assertEquals(DefaultSnapshotDataTarget.HEADER_FLAG_COMPRESSED, fd.readInt());
+        assertFalse(header.hasRemaining());
+    }
+
+    /**
+     * testResizeWriters
+     */
+    public void testResizeWriters() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton(true);
+        int orig_writers = hstore_conf.site.snapshot_writer_threads;
+        int version[] = { 0, 0, 0, 0 };
+        File file = File.createTempFile("snapshot", ".vpt");
+        file.deleteOnExit();
+        try {
+            hstore_conf.site.snapshot_writer_threads = 2;
+            DefaultSnapshotDataTarget target0 = this.createTarget(file, version, false);
+            assertEquals(2, DefaultSnapshotDataTarget.getWriterCount());
+
+            // We can't change the pool while there is an open target
+            hstore_conf.site.snapshot_writer_threads = 3;
+            DefaultSnapshotDataTarget target1 = this.createTarget(file, version, false);
+            assertEquals(2, DefaultSnapshotDataTarget.getWriterCount());
+            target0.close();
+            target1.close();
+
+            // But once they're closed, the next target should pick up the new size
+            DefaultSnapshotDataTarget target2 = this.createTarget(file, version, false);
+            assertEquals(3, DefaultSnapshotDataTarget.getWriterCount());
+            target2.close();
+        } finally {
+            hstore_conf.site.snapshot_writer_threads = orig_writers;
+        }
+    }
+}
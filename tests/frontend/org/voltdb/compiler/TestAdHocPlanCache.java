@@ -0,0 +1,221 @@
+package org.voltdb.compiler;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hsqldb.DatabaseManager;
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltType;
+import org.voltdb.planner.PlannerContext;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.utils.ProjectType;
+
+public class TestAdHocPlanCache extends BaseTestCase {
+
+    private static final int CACHE_SIZE = 4;
+    private static final int NUM_PLANNERS = 2;
+
+    private AdHocPlanCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.cache = new AdHocPlanCache(CACHE_SIZE);
+    }
+
+    /**
+     * testNormalize
+     */
+    public void testNormalize() throws Exception {
+        AdHocPlanCache.NormalizedSQL n0 = AdHocPlanCache.normalize(
+                "SELECT  s_id,  sub_nbr FROM " + TM1Constants.TABLENAME_SUBSCRIBER + "\n WHERE s_id = 1234 AND sub_nbr = 'it''s' ;");
+        AdHocPlanCache.NormalizedSQL n1 = AdHocPlanCache.normalize(
+                "SELECT s_id, sub_nbr FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = 99 AND sub_nbr = 'xyz'");
+        assertEquals(n0.sql, n1.sql);
+        assertEquals("SELECT s_id, sub_nbr FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = ? AND sub_nbr = ?", n0.sql);
+        assertEquals("SELECT s_id, sub_nbr FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = 1234 AND sub_nbr = 'it''s'", n0.literalSql);
+        assertEquals(2, n0.literals.length);
+        assertEquals("1234", n0.literals[0]);
+        assertFalse(n0.quoted[0]);
+        assertEquals("it's", n0.literals[1]);
+        assertTrue(n0.quoted[1]);
+
+        // Literals outside of the predicates should be left alone
+        AdHocPlanCache.NormalizedSQL n2 = AdHocPlanCache.normalize(
+                "SELECT s_id FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " ORDER BY s_id LIMIT 10");
+        assertFalse(n2.isParameterized());
+        assertEquals(n2.literalSql, n2.sql);
+
+        // Statements that already have placeholders don't get touched
+        AdHocPlanCache.NormalizedSQL n3 = AdHocPlanCache.normalize(
+                "SELECT s_id FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = ? AND bit_1 = 1");
+        assertFalse(n3.isParameterized());
+    }
+
+    /**
+     * testBind
+     */
+    public void testBind() throws Exception {
+        AdHocPlanCache.NormalizedSQL normalized = AdHocPlanCache.normalize(
+                "UPDATE " + TM1Constants.TABLENAME_SUBSCRIBER + " SET msc_location = 7 WHERE sub_nbr = '001' AND s_id = 2.5");
+        assertEquals(3, normalized.literals.length);
+
+        AdHocPlanCache.Entry entry = new AdHocPlanCache.Entry("one", null, false,
+                new VoltType[]{ VoltType.INTEGER, VoltType.STRING, VoltType.DECIMAL });
+        Object params[] = entry.bind(normalized);
+        assertNotNull(params);
+        assertEquals(7l, params[0]);
+        assertEquals("001", params[1]);
+        assertEquals(new BigDecimal("2.5"), params[2]);
+
+        // Mismatched types should not bind
+        entry = new AdHocPlanCache.Entry("one", null, false,
+                new VoltType[]{ VoltType.INTEGER, VoltType.STRING, VoltType.BIGINT });
+        assertNull(entry.bind(normalized));
+        entry = new AdHocPlanCache.Entry("one", null, false,
+                new VoltType[]{ VoltType.STRING, VoltType.STRING, VoltType.FLOAT });
+        assertNull(entry.bind(normalized));
+        entry = new AdHocPlanCache.Entry("one", null, false,
+                new VoltType[]{ VoltType.INTEGER, VoltType.STRING });
+        assertNull(entry.bind(normalized));
+
+        // Make sure that the params survive the trip to the AdHoc sysproc
+        AdHocPlannedStmt plannedStmt = new AdHocPlannedStmt(null);
+        assertNull(plannedStmt.getEncodedParameters());
+        assertEquals(0, AdHocPlannedStmt.decodeParameters(null).size());
+        plannedStmt.params = new Object[]{ 7l, "001", 2.5d };
+        ParameterSet decoded = AdHocPlannedStmt.decodeParameters(plannedStmt.getEncodedParameters());
+        assertEquals(plannedStmt.params.length, decoded.size());
+        for (int i = 0; i < plannedStmt.params.length; i++) {
+            assertEquals(plannedStmt.params[i], decoded.toArray()[i]);
+        } // FOR
+    }
+
+    /**
+     * testEviction
+     */
+    public void testEviction() throws Exception {
+        AdHocPlanCache.Entry entry = new AdHocPlanCache.Entry("one", null, false, null);
+        long generation = this.cache.getGeneration();
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            assertTrue(this.cache.put("SQL" + i, entry, generation));
+        } // FOR
+        assertEquals(CACHE_SIZE, this.cache.size());
+
+        // Touching the first entry should make the second one the eldest
+        assertNotNull(this.cache.get("SQL0"));
+        this.cache.put("SQL" + CACHE_SIZE, entry, generation);
+        assertEquals(CACHE_SIZE, this.cache.size());
+        assertNotNull(this.cache.get("SQL0"));
+        assertNull(this.cache.get("SQL1"));
+        assertEquals(2, this.cache.getHitCount());
+        assertEquals(1, this.cache.getMissCount());
+
+        // Plans from before the cache was cleared should be ignored
+        this.cache.clear();
+        assertEquals(0, this.cache.size());
+        assertFalse(this.cache.put("SQL0", entry, generation));
+        assertNull(this.cache.get("SQL0"));
+        assertTrue(this.cache.put("SQL0", entry, this.cache.getGeneration()));
+    }
+
+    /**
+     * testPlannerPool
+     */
+    public void testPlannerPool() throws Exception {
+        final AdHocPlannerPool pool = new AdHocPlannerPool(catalogContext, NUM_PLANNERS);
+        final AdHocPlanCache.NormalizedSQL normalized = AdHocPlanCache.normalize(
+                "SELECT * FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = 1");
+        assertTrue(normalized.isParameterized());
+
+        final List<PlannerTool.Result> results = Collections.synchronizedList(new ArrayList<PlannerTool.Result>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < NUM_PLANNERS * 2; i++) {
+            threads.add(new Thread() {
+                public void run() {
+                    results.add(pool.plan(normalized.sql));
+                };
+            });
+        } // FOR
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+
+        assertEquals(threads.size(), results.size());
+        for (PlannerTool.Result result : results) {
+            assertNull(result.toString(), result.errors);
+            assertNotNull(result.onePlan);
+            assertEquals(1, result.paramTypes.length);
+            assertEquals(results.get(0).onePlan, result.onePlan);
+            assertEquals(results.get(0).allPlan, result.allPlan);
+
+            AdHocPlanCache.Entry entry = new AdHocPlanCache.Entry(
+                    result.onePlan, result.allPlan, result.replicatedDML, result.paramTypes);
+            Object params[] = entry.bind(normalized);
+            assertNotNull(params);
+            assertEquals(1l, ((Number)params[0]).longValue());
+        } // FOR
+
+        // Errors should come back in the result
+        PlannerTool.Result result = pool.plan("SELECT * FROM NOT_A_TABLE");
+        assertNotNull(result.errors);
+    }
+
+    /**
+     * testPlannerPoolColumns
+     */
+    public void testPlannerPoolColumns() throws Exception {
+        final AdHocPlannerPool pool = new AdHocPlannerPool(catalogContext, NUM_PLANNERS);
+        final PlannerContext context = PlannerContext.singleton();
+        final int num_rounds = 10;
+        // Warm up the planners so that anything that they keep around is already there
+        assertNull(pool.plan("SELECT * FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = ?").errors);
+        int orig_count = context.getAllPlanColumns().size();
+
+        // Planning a bunch of different queries in parallel should
+        // not leave any new PlanColumns behind
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < NUM_PLANNERS * 2; i++) {
+            final int offset = i * num_rounds;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int round = 0; round < num_rounds; round++) {
+                        String query = String.format("SELECT s_id + %d FROM %s WHERE s_id = ?",
+                                                     offset + round, TM1Constants.TABLENAME_SUBSCRIBER);
+                        PlannerTool.Result result = pool.plan(query);
+                        if (result.errors != null) errors.add(result.errors);
+                        // Readers should never trip over the planners
+                        context.debug();
+                    } // FOR
+                };
+            });
+        } // FOR
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        assertEquals(errors.toString(), 0, errors.size());
+        assertEquals(orig_count, context.getAllPlanColumns().size());
+        pool.shutdown();
+    }
+
+    /**
+     * testPlannerPoolShutdown
+     */
+    public void testPlannerPoolShutdown() throws Exception {
+        int orig_count = DatabaseManager.getDatabaseURIs().size();
+        AdHocPlannerPool pool = new AdHocPlannerPool(catalogContext, NUM_PLANNERS);
+        PlannerTool.Result result = pool.plan("SELECT * FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = ?");
+        assertNull(result.errors);
+        assertEquals(orig_count + 1, DatabaseManager.getDatabaseURIs().size());
+
+        // Shutting down the pool should get rid of the HSQL instance that it created
+        // but leave everybody else's alone
+        pool.shutdown();
+        assertEquals(orig_count, DatabaseManager.getDatabaseURIs().size());
+        result = pool.plan("SELECT * FROM " + TM1Constants.TABLENAME_SUBSCRIBER + " WHERE s_id = ?");
+        assertNotNull(result.errors);
+    }
+}
@@ -26,23 +26,31 @@ package org.voltdb.jni;
 import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
 import org.voltdb.EELibraryLoader;
+import org.voltdb.ParameterSet;
 import org.voltdb.SysProcSelector;
 import org.voltdb.TableStreamType;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Database;
 import org.voltdb.catalog.LoadCatalogToString;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Statement;
+import org.voltdb.compiler.VoltProjectBuilder;
 import org.voltdb.exceptions.EEException;
 import org.voltdb.messaging.MockMailbox;
 import org.voltdb.messaging.VoltMessage;
+import org.voltdb.utils.CatalogUtil;
 import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.utils.Encoder;
 import org.voltdb.utils.Pair;
 
 /**
@@ -72,6 +80,128 @@ public class TestExecutionEngine extends TestCase {
         assertFalse(true);
     }
 
+    /**
+     * Multiple engines in the same JVM should be able to parse their catalogs
+     * at the same time now that the JSON parse is serialized inside of the EE
+     */
+    public void testConcurrentLoadCatalogs() throws Exception {
+        final Catalog catalog = new Catalog();
+        catalog.execute(LoadCatalogToString.THE_CATALOG);
+        final String serialized = catalog.serialize();
+        final int num_engines = 4;
+        final ExecutionEngine engines[] = new ExecutionEngine[num_engines];
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread threads[] = new Thread[num_engines];
+        for (int i = 0; i < num_engines; i++) {
+            engines[i] = new ExecutionEngineJNI(null, CLUSTER_ID, NODE_ID, i+1, i+1, "");
+            final ExecutionEngine ee = engines[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ee.loadCatalog(serialized);
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    }
+                }
+            };
+        } // FOR
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        try {
+            assertNull(error.get());
+            int locators[] = new int[] { warehouseTableId(catalog) };
+            for (ExecutionEngine ee : engines) {
+                VoltTable results[] = ee.getStats(SysProcSelector.TABLE, locators, false, 0L);
+                assertNotNull(results);
+                assertEquals(1, results[0].getRowCount());
+            } // FOR
+        } finally {
+            for (ExecutionEngine ee : engines) ee.release();
+        }
+    }
+
+    /**
+     * Multiple engines in the same JVM should be able to execute both catalog
+     * plan fragments and ad-hoc plan fragments at the same time. Each engine
+     * has a different number of rows so that we can tell if one of them gets
+     * back the results of another.
+     */
+    public void testConcurrentExecutePlanFragments() throws Exception {
+        VoltProjectBuilder project = new VoltProjectBuilder("testconcurrentexec");
+        project.addSchema(TestHashJoinExecutor.class.getResource("testhashjoin-ddl.sql"));
+        project.addStmtProcedure("CountR1", "SELECT COUNT(*) FROM R1");
+        assertTrue(project.compile("testconcurrentexec.jar"));
+        final String serialized = CatalogUtil.loadCatalogFromJar("testconcurrentexec.jar", null);
+        assertNotNull(serialized);
+        Catalog catalog = new Catalog();
+        catalog.execute(serialized);
+        Database catalog_db = catalog.getClusters().get("cluster").getDatabases().get("database");
+        final int tableId = catalog_db.getTables().get("R1").getRelativeIndex();
+        Statement catalog_stmt = catalog_db.getProcedures().get("CountR1").getStatements().iterator().next();
+        PlanFragment catalog_frag = catalog_stmt.getFragments().iterator().next();
+        final long fragmentIds[] = { catalog_frag.getId() };
+        final String plan = Encoder.hexDecodeToString(catalog_frag.getPlannodetree());
+
+        final int num_engines = 4;
+        final int num_rounds = 500;
+        final ExecutionEngine engines[] = new ExecutionEngine[num_engines];
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread threads[] = new Thread[num_engines];
+        try {
+            for (int i = 0; i < num_engines; i++) {
+                engines[i] = new ExecutionEngineJNI(null, CLUSTER_ID, NODE_ID, i+1, i+1, "");
+                engines[i].loadCatalog(serialized);
+                final int num_rows = (i + 1) * 10;
+                VoltTable vt = new VoltTable(
+                        new VoltTable.ColumnInfo("R1_ID", VoltType.INTEGER),
+                        new VoltTable.ColumnInfo("R1_KEY", VoltType.INTEGER),
+                        new VoltTable.ColumnInfo("R1_KEY2", VoltType.STRING)
+                );
+                for (int row = 0; row < num_rows; row++) {
+                    vt.addRow(row, row, "key" + row);
+                } // FOR
+                engines[i].loadTable(tableId, vt, 0, 0, Long.MAX_VALUE, false);
+
+                final ExecutionEngine ee = engines[i];
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+                            long txnId = 1;
+                            for (int round = 0; round < num_rounds; round++) {
+                                VoltTable results[] = ee.executeQueryPlanFragmentsAndGetResults(
+                                        fragmentIds, 1, new int[]{ -1 }, new int[]{ 1 },
+                                        new ParameterSet[]{ new ParameterSet() }, 1,
+                                        txnId, txnId - 1, txnId);
+                                txnId++;
+                                assertEquals(1, results.length);
+                                assertEquals(num_rows, results[0].asScalarLong());
+
+                                VoltTable result = ee.executeCustomPlanFragment(
+                                        plan, 1, -1, new ParameterSet(), txnId, txnId - 1, txnId);
+                                txnId++;
+                                assertEquals(num_rows, result.asScalarLong());
+                            } // FOR
+                        } catch (Throwable ex) {
+                            error.compareAndSet(null, ex);
+                        }
+                    }
+                };
+            } // FOR
+            for (Thread t : threads) t.start();
+            startLatch.countDown();
+            for (Thread t : threads) t.join();
+            if (error.get() != null) throw new Exception(error.get());
+        } finally {
+            for (ExecutionEngine ee : engines) {
+                if (ee != null) ee.release();
+            } // FOR
+        }
+    }
+
     public void testMultiSiteInSamePhysicalNodeWithExecutionSite() throws Exception {
         // TODO
     }
@@ -0,0 +1,185 @@
+package org.voltdb.jni;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.voltdb.DependencySet;
+import org.voltdb.EELibraryLoader;
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Statement;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.utils.CatalogUtil;
+import org.voltdb.utils.DBBPool;
+import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.utils.VoltTableUtil;
+
+public class TestExecutionEngineDependencyBuffer extends TestCase {
+
+    private static final int DEP_ID = 1234;
+    private static final int NUM_ROWS = 100;
+
+    private ExecutionEngine ee;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.ee = new MockExecutionEngine();
+    }
+
+    private VoltTable createTable(int num_rows) {
+        VoltTable vt = new VoltTable(
+                new VoltTable.ColumnInfo("A", VoltType.BIGINT),
+                new VoltTable.ColumnInfo("B", VoltType.STRING)
+        );
+        for (int i = 0; i < num_rows; i++) {
+            vt.addRow(i, "str" + i);
+        } // FOR
+        return (vt);
+    }
+
+    private void compare(VoltTable vt, ByteBuffer buffer) {
+        assertNotNull(buffer);
+        assertTrue(buffer.isDirect());
+        assertEquals(vt.getUnderlyingBufferSize(), buffer.capacity());
+        ByteBuffer expected = vt.getTableDataReference();
+        for (int i = 0; i < buffer.capacity(); i++) {
+            assertEquals("Mismatch at byte #" + i, expected.get(i), buffer.get(i));
+        } // FOR
+    }
+
+    /**
+     * testHeapDependency
+     */
+    public void testHeapDependency() throws Exception {
+        VoltTable small = this.createTable(1);
+        VoltTable large = this.createTable(NUM_ROWS);
+        assertFalse(large.getDirectDataReference().isDirect());
+
+        // The staging buffer should grow to fit the larger table
+        this.ee.stashDependency(DEP_ID, small);
+        this.ee.stashDependency(DEP_ID, large);
+        this.compare(small, this.ee.nextDependencyAsBuffer(DEP_ID));
+        this.compare(large, this.ee.nextDependencyAsBuffer(DEP_ID));
+        assertNull(this.ee.nextDependencyAsBuffer(DEP_ID));
+    }
+
+    /**
+     * testDirectDependency
+     */
+    public void testDirectDependency() throws Exception {
+        VoltTable orig = this.createTable(NUM_ROWS);
+        int size = orig.getUnderlyingBufferSize();
+
+        // Make a view over a pooled buffer like ExecutionEngineJNI does for its results
+        DBBPool pool = new DBBPool();
+        BBContainer c = pool.acquire(size);
+        c.b.clear();
+        ByteBuffer src = orig.getTableDataReference();
+        src.limit(size);
+        c.b.put(src);
+        c.b.flip();
+        VoltTable view = new VoltTable(c.b.slice(), true);
+        assertTrue(view.getDirectDataReference().isDirect());
+        assertEquals(orig.getRowCount(), view.getRowCount());
+
+        // The EE should get back a view over the same memory
+        this.ee.stashDependency(DEP_ID, view);
+        ByteBuffer buffer = this.ee.nextDependencyAsBuffer(DEP_ID);
+        this.compare(orig, buffer);
+        c.b.put(0, (byte)(c.b.get(0) + 1));
+        assertEquals(c.b.get(0), buffer.get(0));
+        c.b.put(0, (byte)(c.b.get(0) - 1));
+
+        // Copying it to the heap should detach it from the pooled buffer
+        VoltTable copy = VoltTableUtil.copyToHeap(view);
+        assertNotSame(view, copy);
+        assertFalse(copy.getDirectDataReference().isDirect());
+        assertEquals(orig.getRowCount(), copy.getRowCount());
+        assertSame(orig, VoltTableUtil.copyToHeap(orig));
+
+        c.discard();
+        pool.clear();
+    }
+
+    /**
+     * testExecutionEngineJNI
+     */
+    public void testExecutionEngineJNI() throws Exception {
+        EELibraryLoader.loadExecutionEngineLibrary(true);
+        VoltProjectBuilder project = new VoltProjectBuilder("testdepbuffer");
+        project.addSchema(TestHashJoinExecutor.class.getResource("testhashjoin-ddl.sql"));
+        project.addTablePartitionInfo("R1", "R1_ID");
+        project.addStmtProcedure("CountR1", "SELECT COUNT(*) FROM R1");
+        assertTrue(project.compile("testdepbuffer.jar"));
+        String serialized = CatalogUtil.loadCatalogFromJar("testdepbuffer.jar", null);
+        assertNotNull(serialized);
+        Catalog catalog = new Catalog();
+        catalog.execute(serialized);
+        Database catalog_db = catalog.getClusters().get("cluster").getDatabases().get("database");
+        Statement catalog_stmt = catalog_db.getProcedures().get("CountR1").getStatements().iterator().next();
+
+        // The multi-partition plan has a fragment that counts the rows at each partition
+        // and a fragment that sums up the counts that it gets as an input dependency
+        PlanFragment leaf = null;
+        PlanFragment root = null;
+        for (PlanFragment catalog_frag : catalog_stmt.getMs_fragments()) {
+            if (catalog_frag.getHasdependencies()) root = catalog_frag;
+            else leaf = catalog_frag;
+        } // FOR
+        assertNotNull(leaf);
+        assertNotNull(root);
+
+        DBBPool pool = new DBBPool();
+        ExecutionEngine jni = new ExecutionEngineJNI(null, 0, 0, 0, 0, "");
+        try {
+            jni.loadCatalog(serialized);
+            jni.setResultBufferPool(pool);
+            VoltTable vt = new VoltTable(
+                    new VoltTable.ColumnInfo("R1_ID", VoltType.INTEGER),
+                    new VoltTable.ColumnInfo("R1_KEY", VoltType.INTEGER),
+                    new VoltTable.ColumnInfo("R1_KEY2", VoltType.STRING)
+            );
+            for (int i = 0; i < NUM_ROWS; i++) {
+                vt.addRow(i, i, "key" + i);
+            } // FOR
+            int tableId = catalog_db.getTables().get("R1").getRelativeIndex();
+            jni.loadTable(tableId, vt, 0, 0, Long.MAX_VALUE, false);
+
+            // The local count should come back as a view over a pooled buffer
+            long txnId = 1;
+            DependencySet leafResult = jni.executeQueryPlanFragmentsAndGetDependencySet(
+                    new long[]{ leaf.getId() }, 1, new int[]{ -1 }, new int[]{ DEP_ID },
+                    new ParameterSet[]{ new ParameterSet() }, 1, txnId, txnId - 1, txnId);
+            txnId++;
+            assertNotNull(leafResult.containers);
+            VoltTable local = leafResult.dependencies[0];
+            assertTrue(local.getDirectDataReference().isDirect());
+            assertEquals(NUM_ROWS, local.asScalarLong());
+
+            // Feed it back in along with a heap copy, just like what we would have
+            // if the other partition's result came over the network
+            VoltTable remote = VoltTableUtil.copyToHeap(local);
+            assertFalse(remote.getDirectDataReference().isDirect());
+            jni.stashDependency(DEP_ID, local);
+            jni.stashDependency(DEP_ID, remote);
+            VoltTable results[] = jni.executeQueryPlanFragmentsAndGetResults(
+                    new long[]{ root.getId() }, 1, new int[]{ DEP_ID }, new int[]{ DEP_ID + 1 },
+                    new ParameterSet[]{ new ParameterSet() }, 1, txnId, txnId - 1, txnId);
+            assertEquals(1, results.length);
+            assertEquals(2 * NUM_ROWS, results[0].asScalarLong());
+
+            for (BBContainer c : leafResult.containers) {
+                if (c != null) c.discard();
+            } // FOR
+        } finally {
+            jni.release();
+            pool.clear();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.voltdb.jni;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.hsqldb.HSQLInterface;
+import org.voltdb.EELibraryLoader;
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Table;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.planner.CompiledPlan;
+import org.voltdb.planner.QueryPlanner;
+import org.voltdb.planner.TrivialCostModel;
+import org.voltdb.plannodes.PlanNodeList;
+import org.voltdb.types.PlanNodeType;
+import org.voltdb.utils.CatalogUtil;
+
+/**
+ * Check that the HashJoinExecutor gives back exactly the same rows as the
+ * NestLoopExecutor for the same plan. The join keys have NULLs and duplicates,
+ * and we run with each side being the smaller one so that the executor has to
+ * build its hash table on either input.
+ */
+public class TestHashJoinExecutor extends TestCase {
+
+    private static final int CLUSTER_ID = 0;
+    private static final int NODE_ID = 0;
+    private static final int NUM_KEYS = 10;
+    private static final int NUM_KEY2S = 3;
+    private static final double NULL_PROBABILITY = 0.2;
+
+    private static final String SQL_EQUIJOIN =
+        "SELECT R1_ID, R2_ID FROM R1, R2 WHERE R1.R1_KEY = R2.R2_KEY";
+    private static final String SQL_MULTIKEY =
+        "SELECT R1_ID, R2_ID FROM R1, R2 " +
+        " WHERE R1.R1_KEY = R2.R2_KEY AND R1.R1_KEY2 = R2.R2_KEY2 AND R1.R1_ID < R2.R2_ID";
+    // Same rows as SQL_EQUIJOIN, but without a clause that the hash join can use as its key
+    private static final String SQL_RANGEJOIN =
+        "SELECT R1_ID, R2_ID FROM R1, R2 WHERE R1.R1_KEY >= R2.R2_KEY AND R1.R1_KEY <= R2.R2_KEY";
+
+    private final Random rand = new Random(0);
+    private Catalog catalog;
+    private ExecutionEngine ee;
+    private HSQLInterface hsql;
+    private QueryPlanner planner;
+    private long txnId = 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        EELibraryLoader.loadExecutionEngineLibrary(true);
+
+        VoltProjectBuilder project = new VoltProjectBuilder("testhashjoin");
+        project.addSchema(TestHashJoinExecutor.class.getResource("testhashjoin-ddl.sql"));
+        project.addStmtProcedure("CountR1", "SELECT COUNT(*) FROM R1");
+        assertTrue(project.compile("testhashjoin.jar"));
+        String serialized = CatalogUtil.loadCatalogFromJar("testhashjoin.jar", null);
+        assertNotNull(serialized);
+        this.catalog = new Catalog();
+        this.catalog.execute(serialized);
+
+        this.ee = new ExecutionEngineJNI(null, CLUSTER_ID, NODE_ID, 0, 0, "");
+        this.ee.loadCatalog(serialized);
+
+        this.hsql = HSQLInterface.loadHsqldb();
+        this.hsql.runDDLFile(TestHashJoinExecutor.class.getResource("testhashjoin-ddl.sql").getPath());
+        this.planner = new QueryPlanner(this.catalog.getClusters().get("cluster"),
+                                        this.catalog.getClusters().get("cluster").getDatabases().get("database"),
+                                        this.hsql, new DatabaseEstimates(), false, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        this.hsql.shutdown();
+        this.ee.release();
+        this.ee = null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // UTILITY METHODS
+    // --------------------------------------------------------------------------------------------
+
+    private Table getTable(String name) {
+        Table catalog_tbl = this.catalog.getClusters().get("cluster").getDatabases().get("database").getTables().get(name);
+        assertNotNull(name, catalog_tbl);
+        return (catalog_tbl);
+    }
+
+    /**
+     * Load random rows into the given table. The join keys come from a small
+     * domain so that there are lots of duplicates, and some of them are NULL.
+     */
+    private VoltTable loadTable(String name, int num_rows) throws Exception {
+        VoltTable vt = new VoltTable(
+                new VoltTable.ColumnInfo(name + "_ID", VoltType.INTEGER),
+                new VoltTable.ColumnInfo(name + "_KEY", VoltType.INTEGER),
+                new VoltTable.ColumnInfo(name + "_KEY2", VoltType.STRING)
+        );
+        for (int i = 0; i < num_rows; i++) {
+            Object key = (rand.nextDouble() < NULL_PROBABILITY ? VoltType.NULL_INTEGER : rand.nextInt(NUM_KEYS));
+            Object key2 = (rand.nextDouble() < NULL_PROBABILITY ? null : "key" + rand.nextInt(NUM_KEY2S));
+            vt.addRow(i, key, key2);
+        } // FOR
+        this.ee.loadTable(this.getTable(name).getRelativeIndex(), vt, this.txnId++, 0, Long.MAX_VALUE, false);
+        return (vt);
+    }
+
+    private String plan(String sql) {
+        CompiledPlan plan = this.planner.compilePlan(new TrivialCostModel(), sql, "stmt", "proc", false, null);
+        assertNotNull(this.planner.getErrorMessage(), plan);
+        // Both tables are replicated, so the whole join is in a single fragment
+        assertEquals(1, plan.fragments.size());
+        return (new PlanNodeList(plan.fragments.get(0).planGraph).toJSONString());
+    }
+
+    private String swapJoinType(String plan, PlanNodeType from, PlanNodeType to) {
+        String orig = "\"" + from.name() + "\"";
+        assertTrue(plan, plan.contains(orig));
+        return (plan.replace(orig, "\"" + to.name() + "\""));
+    }
+
+    /**
+     * Execute the plan and return its (R1_ID, R2_ID) pairs in sorted order
+     */
+    private List<String> execute(String plan) throws Exception {
+        VoltTable vt = this.ee.executeCustomPlanFragment(plan, 1, -1, new ParameterSet(),
+                                                         this.txnId, this.txnId - 1, this.txnId);
+        this.txnId++;
+        assertNotNull(vt);
+        List<String> rows = new ArrayList<String>();
+        while (vt.advanceRow()) {
+            rows.add(vt.getLong(0) + ":" + vt.getLong(1));
+        } // WHILE
+        Collections.sort(rows);
+        return (rows);
+    }
+
+    /**
+     * Compute the pairs for SQL_EQUIJOIN in Java
+     */
+    private List<String> expectedEquiJoin(VoltTable r1, VoltTable r2) {
+        List<String> rows = new ArrayList<String>();
+        r1.resetRowPosition();
+        while (r1.advanceRow()) {
+            long key = r1.getLong(1);
+            if (r1.wasNull()) continue;
+            r2.resetRowPosition();
+            while (r2.advanceRow()) {
+                long other = r2.getLong(1);
+                if (r2.wasNull() || key != other) continue;
+                rows.add(r1.getLong(0) + ":" + r2.getLong(0));
+            } // WHILE
+        } // WHILE
+        Collections.sort(rows);
+        return (rows);
+    }
+
+    private void checkJoins(int num_r1, int num_r2) throws Exception {
+        VoltTable r1 = this.loadTable("R1", num_r1);
+        VoltTable r2 = this.loadTable("R2", num_r2);
+        List<String> expected = this.expectedEquiJoin(r1, r2);
+        assertFalse(expected.isEmpty());
+
+        // Hash Join vs. Nested Loop Join on the same plan
+        for (String sql : new String[]{ SQL_EQUIJOIN, SQL_MULTIKEY }) {
+            String hashPlan = this.plan(sql);
+            String nestPlan = this.swapJoinType(hashPlan, PlanNodeType.HASHJOIN, PlanNodeType.NESTLOOP);
+            List<String> hashRows = this.execute(hashPlan);
+            List<String> nestRows = this.execute(nestPlan);
+            assertEquals(sql, nestRows, hashRows);
+            if (sql == SQL_EQUIJOIN) assertEquals(expected, hashRows);
+        } // FOR
+
+        // A hash join without any equality keys has to fall back to a nested loop
+        String nestPlan = this.plan(SQL_RANGEJOIN);
+        assertFalse(nestPlan, nestPlan.contains("\"" + PlanNodeType.HASHJOIN.name() + "\""));
+        String hashPlan = this.swapJoinType(nestPlan, PlanNodeType.NESTLOOP, PlanNodeType.HASHJOIN);
+        assertEquals(expected, this.execute(nestPlan));
+        assertEquals(expected, this.execute(hashPlan));
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // TEST CASES
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * testSmallerR1
+     */
+    public void testSmallerR1() throws Exception {
+        this.checkJoins(50, 200);
+    }
+
+    /**
+     * testSmallerR2
+     */
+    public void testSmallerR2() throws Exception {
+        this.checkJoins(200, 50);
+    }
+
+    /**
+     * testSameSize
+     */
+    public void testSameSize() throws Exception {
+        this.checkJoins(100, 100);
+    }
+}
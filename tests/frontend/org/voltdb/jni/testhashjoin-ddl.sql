@@ -0,0 +1,13 @@
+CREATE TABLE R1 (
+	R1_ID INTEGER NOT NULL,
+	R1_KEY INTEGER,
+	R1_KEY2 VARCHAR(16),
+	PRIMARY KEY (R1_ID)
+);
+
+CREATE TABLE R2 (
+	R2_ID INTEGER NOT NULL,
+	R2_KEY INTEGER,
+	R2_KEY2 VARCHAR(16),
+	PRIMARY KEY (R2_ID)
+);
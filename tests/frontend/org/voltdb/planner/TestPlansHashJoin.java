@@ -0,0 +1,79 @@
+package org.voltdb.planner;
+
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
+import org.voltdb.plannodes.NestLoopIndexPlanNode;
+import org.voltdb.plannodes.NestLoopPlanNode;
+
+import edu.brown.plannodes.PlanNodeUtil;
+
+public class TestPlansHashJoin extends TestCase {
+
+    private PlannerTestAideDeCamp aide;
+
+    private AbstractPlanNode compile(String sql) {
+        AbstractPlanNode pn = null;
+        try {
+            pn = aide.compile(sql, 0);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            fail();
+        }
+        assertNotNull(pn);
+        return (pn);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        aide = new PlannerTestAideDeCamp(TestPlansHashJoin.class.getResource("testplans-hashjoin-ddl.sql"), "testplanshashjoin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        aide.tearDown();
+    }
+
+    /**
+     * testEquiJoinWithoutIndex
+     */
+    public void testEquiJoinWithoutIndex() {
+        AbstractPlanNode pn = compile("SELECT A_NAME, B_NAME FROM A, B WHERE A.A_VAL = B.B_VAL");
+        Collection<HashJoinPlanNode> hash_nodes = PlanNodeUtil.getPlanNodes(pn, HashJoinPlanNode.class);
+        assertEquals(pn.toString(), 1, hash_nodes.size());
+        assertNotNull(hash_nodes.iterator().next().getPredicate());
+    }
+
+    /**
+     * testMultiWayEquiJoin
+     */
+    public void testMultiWayEquiJoin() {
+        AbstractPlanNode pn = compile("SELECT A_NAME, B_NAME FROM A, B, C " +
+                                      " WHERE A.A_VAL = B.B_VAL AND B.B_VAL = C.C_B_VAL");
+        Collection<HashJoinPlanNode> hash_nodes = PlanNodeUtil.getPlanNodes(pn, HashJoinPlanNode.class);
+        assertEquals(pn.toString(), 2, hash_nodes.size());
+    }
+
+    /**
+     * testNonEquiJoin
+     */
+    public void testNonEquiJoin() {
+        AbstractPlanNode pn = compile("SELECT A_NAME, B_NAME FROM A, B WHERE A.A_VAL < B.B_VAL");
+        assertTrue(PlanNodeUtil.getPlanNodes(pn, HashJoinPlanNode.class).isEmpty());
+        assertFalse(PlanNodeUtil.getPlanNodes(pn, NestLoopPlanNode.class).isEmpty());
+    }
+
+    /**
+     * testIndexJoin
+     */
+    public void testIndexJoin() {
+        // The primary key index on A should always beat a hash join
+        AbstractPlanNode pn = compile("SELECT A_NAME, B_NAME FROM A, B WHERE A.A_ID = B.B_A_ID AND B.B_ID = 1");
+        assertTrue(pn.toString(), PlanNodeUtil.getPlanNodes(pn, HashJoinPlanNode.class).isEmpty());
+        assertFalse(PlanNodeUtil.getPlanNodes(pn, NestLoopIndexPlanNode.class).isEmpty());
+    }
+}
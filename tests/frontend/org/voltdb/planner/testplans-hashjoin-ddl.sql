@@ -0,0 +1,20 @@
+CREATE TABLE A (
+	A_ID INTEGER NOT NULL,
+	A_VAL INTEGER NOT NULL,
+	A_NAME VARCHAR(16) NOT NULL,
+	PRIMARY KEY (A_ID)
+);
+
+CREATE TABLE B (
+	B_ID INTEGER NOT NULL,
+	B_A_ID INTEGER NOT NULL,
+	B_VAL INTEGER NOT NULL,
+	B_NAME VARCHAR(16) NOT NULL,
+	PRIMARY KEY (B_ID)
+);
+
+CREATE TABLE C (
+	C_ID INTEGER NOT NULL,
+	C_B_VAL INTEGER NOT NULL,
+	PRIMARY KEY (C_ID)
+);
@@ -0,0 +1,167 @@
+package org.voltdb.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTableRow;
+import org.voltdb.VoltType;
+import org.voltdb.types.SortDirectionType;
+
+import edu.brown.statistics.Histogram;
+import edu.brown.utils.FileUtil;
+
+import junit.framework.TestCase;
+
+public class TestExternalVoltTableSorter extends TestCase {
+
+    static final VoltTable.ColumnInfo[] SCHEMA = new VoltTable.ColumnInfo[] {
+        new VoltTable.ColumnInfo("NAME", VoltType.STRING),
+        new VoltTable.ColumnInfo("COUNTER", VoltType.BIGINT),
+    };
+
+    static final int NUM_ROWS = 5000;
+    static final int NUM_KEYS = 100;
+    static final int MEMORY_BUDGET = 4096;
+    static final int BLOCK_SIZE = 512;
+    static final Random rand = new Random(0);
+
+    private final VoltTable table = new VoltTable(SCHEMA);
+    private final Histogram<String> expected = new Histogram<String>();
+    private File spillDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 0; i < NUM_ROWS; i++) {
+            String name = String.format("KEY%03d", rand.nextInt(NUM_KEYS));
+            long ct = rand.nextInt(10);
+            this.table.addRow(name, ct);
+            this.expected.put(name, ct);
+        } // FOR
+        assertEquals(NUM_ROWS, this.table.getRowCount());
+        this.spillDir = FileUtil.getTempDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.spillDir != null) {
+            for (File f : this.spillDir.listFiles()) {
+                f.delete();
+            } // FOR
+            this.spillDir.delete();
+        }
+    }
+
+    private ExternalVoltTableSorter createSorter(long memoryBudget) {
+        List<Pair<Integer, SortDirectionType>> cols = new ArrayList<Pair<Integer, SortDirectionType>>();
+        cols.add(Pair.of(0, SortDirectionType.ASC));
+        return new ExternalVoltTableSorter(this.table, memoryBudget, BLOCK_SIZE, this.spillDir, cols);
+    }
+
+    private Histogram<String> reduce(ReduceInputIterator<String> rows) {
+        Histogram<String> actual = new Histogram<String>();
+        String lastKey = null;
+        while (rows.hasNext()) {
+            String key = rows.getKey();
+            // Keys must come out in sorted order
+            if (lastKey != null) assertTrue(lastKey + " > " + key, lastKey.compareTo(key) < 0);
+            lastKey = key;
+
+            assertFalse(key, actual.contains(key));
+            long count = 0;
+            for (Iterator<VoltTableRow> it = rows; it.hasNext(); ) {
+                VoltTableRow r = it.next();
+                assertEquals(key, r.getString(0));
+                count += r.getLong(1);
+            } // FOR
+            actual.put(key, count);
+        } // WHILE
+        return (actual);
+    }
+
+    /**
+     * testInMemory
+     */
+    public void testInMemory() throws Exception {
+        ExternalVoltTableSorter sorter = this.createSorter(Long.MAX_VALUE);
+        sorter.addAll(this.table);
+        assertEquals(NUM_ROWS, sorter.getRowCount());
+        assertEquals(0, sorter.getRunCount());
+        assertEquals(0, this.spillDir.listFiles().length);
+
+        Histogram<String> actual = this.reduce(sorter.<String>iterator());
+        assertEquals(this.expected, actual);
+        sorter.close();
+    }
+
+    /**
+     * testSpill
+     */
+    public void testSpill() throws Exception {
+        ExternalVoltTableSorter sorter = this.createSorter(MEMORY_BUDGET);
+        sorter.addAll(this.table);
+        assertEquals(NUM_ROWS, sorter.getRowCount());
+        assertTrue(sorter.getRunCount() > 1);
+        assertTrue(sorter.getSpillBytes() > 0);
+        assertEquals(sorter.getRunCount(), this.spillDir.listFiles().length);
+
+        Histogram<String> actual = this.reduce(sorter.<String>iterator());
+        assertEquals(this.expected, actual);
+
+        // Make sure that we clean up after ourselves
+        sorter.close();
+        assertEquals(0, sorter.getRunCount());
+        assertEquals(0, this.spillDir.listFiles().length);
+    }
+
+    /**
+     * testSameAsInMemorySort
+     */
+    public void testSameAsInMemorySort() throws Exception {
+        @SuppressWarnings("unchecked")
+        VoltTable sorted = VoltTableUtil.sort(this.table, Pair.of(0, SortDirectionType.ASC));
+        Histogram<String> inMemory = this.reduce(new ReduceInputIterator<String>(sorted));
+
+        ExternalVoltTableSorter sorter = this.createSorter(MEMORY_BUDGET);
+        sorter.addAll(this.table);
+        Histogram<String> external = this.reduce(sorter.<String>iterator());
+        assertEquals(inMemory, external);
+        sorter.close();
+    }
+
+    /**
+     * testConcurrentAdd
+     */
+    public void testConcurrentAdd() throws Exception {
+        final int num_threads = 4;
+        final ExternalVoltTableSorter sorter = this.createSorter(MEMORY_BUDGET);
+        final Histogram<String> expected = new Histogram<String>();
+        Thread threads[] = new Thread[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+            // Each thread needs its own copy of the table so that they
+            // don't step on each other's row positions
+            final VoltTable copy = new VoltTable(this.table);
+            this.table.resetRowPosition();
+            while (this.table.advanceRow()) {
+                copy.add(this.table);
+            } // WHILE
+            expected.put(this.expected);
+            threads[i] = new Thread() {
+                public void run() {
+                    sorter.addAll(copy);
+                }
+            };
+        } // FOR
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+
+        assertEquals(NUM_ROWS * num_threads, sorter.getRowCount());
+        assertTrue(sorter.getRunCount() > 1);
+        Histogram<String> actual = this.reduce(sorter.<String>iterator());
+        assertEquals(expected, actual);
+        sorter.close();
+    }
+}
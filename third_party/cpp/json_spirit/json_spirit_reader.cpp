@@ -8,6 +8,7 @@
 
 //#define BOOST_SPIRIT_THREADSAFE  // uncomment for multithreaded use, requires linking to boost.thead
 
+#include <pthread.h>
 #include <boost/bind.hpp>
 #include <boost/function.hpp>
 #include <boost/version.hpp>
@@ -63,6 +64,22 @@ namespace
     const int_parser < int64_t >  int64_p  = int_parser < int64_t  >();
     const uint_parser< uint64_t > uint64_p = uint_parser< uint64_t >();
 
+    // H-Store: Spirit keeps the grammar definitions in static helpers that are only
+    // thread-safe with BOOST_SPIRIT_THREADSAFE, which needs boost.thread. So instead we
+    // serialize just the parse here. This lets multiple ExecutionEngines in the same
+    // process deserialize plans and catalogs without a global lock of their own.
+    pthread_mutex_t parse_mutex = PTHREAD_MUTEX_INITIALIZER;
+
+    class Parse_lock
+    {
+    public:
+        Parse_lock()  { pthread_mutex_lock( &parse_mutex ); }
+        ~Parse_lock() { pthread_mutex_unlock( &parse_mutex ); }
+    private:
+        Parse_lock( const Parse_lock& );
+        Parse_lock& operator=( const Parse_lock& );
+    };
+
     template< class Iter_type >
     bool is_eq( Iter_type first, Iter_type last, const char* c_str )
     {
@@ -544,6 +561,8 @@ namespace
     template< class Iter_type, class Value_type >
     Iter_type read_range_or_throw( Iter_type begin, Iter_type end, Value_type& value )
     {
+        const Parse_lock lock;
+
         Semantic_actions< Value_type, Iter_type > semantic_actions( value );
      
         const parse_info< Iter_type > info = parse( begin, end, 